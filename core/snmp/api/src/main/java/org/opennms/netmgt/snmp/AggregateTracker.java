@@ -233,14 +233,29 @@ public class AggregateTracker extends CollectionTracker {
     }
 
     public AggregateTracker(Collectable[] children, CollectionTracker parent) {
+        this(children, parent, true);
+    }
+
+    /**
+     * @param adoptChildren if false the children keep their current parent,
+     * so their results are not routed through this tracker.  This lets
+     * {@link PipelinedWalker} walk parts of a tracker tree independently.
+     */
+    AggregateTracker(Collectable[] children, CollectionTracker parent, boolean adoptChildren) {
         super(parent);
         
         m_children = new CollectionTracker[children.length];
         for (int i = 0; i < m_children.length; i++) {
             m_children[i] = children[i].getCollectionTracker();
-            m_children[i].setParent(this);
+            if (adoptChildren) {
+                m_children[i].setParent(this);
+            }
         }
     }
+
+    CollectionTracker[] getChildTrackers() {
+        return m_children;
+    }
     
     @Override
     public void setFailed(boolean failed) {
@@ -0,0 +1,496 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A walker that keeps several requests in flight against one agent.
+ *
+ * The tracker tree is split into its leaf trackers (the columns of a
+ * {@link TableTracker}, the children of an {@link AggregateTracker}) and the
+ * leaves are dealt out to a number of independent streams.  Each stream is
+ * walked by its own strategy walker, so while a single walker waits a round
+ * trip per PDU, this one waits roughly one round trip per PDU per stream.
+ *
+ * Each stream adapts the max-repetitions of its GETBULK requests: it grows
+ * while the agent fills its responses, drops to what the agent managed to
+ * fit when a response is truncated, and halves when a request times out,
+ * retrying the stream from where it left off.
+ *
+ * All tracker callbacks are serialized, so trackers do not need to be
+ * thread-safe.
+ */
+public class PipelinedWalker extends SnmpWalker {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(PipelinedWalker.class);
+
+    /**
+     * How far a stream may raise max-repetitions above the configured value.
+     */
+    private static final int MAX_REPETITIONS_GROWTH = 4;
+
+    /**
+     * How many times a stream is restarted with fewer repetitions after a
+     * timeout before the whole walk is given up.
+     */
+    private static final int MAX_STREAM_RETRIES = 2;
+
+    private final SnmpStrategy m_strategy;
+    private final SnmpAgentConfig m_agentConfig;
+    private final int m_streamCount;
+    private final Object m_lock = new Object();
+    private final List<Stream> m_streams = new ArrayList<Stream>();
+    private int m_running = 0;
+    private boolean m_done = false;
+    private StreamStarter m_streamStarter;
+
+    public PipelinedWalker(SnmpStrategy strategy, SnmpAgentConfig agentConfig, String name, CollectionTracker tracker, int streams) {
+        super(agentConfig.getAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), tracker);
+        m_strategy = strategy;
+        m_agentConfig = agentConfig;
+        m_streamCount = streams;
+    }
+
+    /**
+     * @return the number of trackers in the tree that can be walked
+     * independently of each other
+     */
+    public static int countStreams(CollectionTracker tracker) {
+        return getLeafTrackers(tracker).size();
+    }
+
+    private static List<CollectionTracker> getLeafTrackers(CollectionTracker tracker) {
+        final List<CollectionTracker> leaves = new ArrayList<CollectionTracker>();
+        addLeafTrackers(tracker, leaves);
+        return leaves;
+    }
+
+    private static void addLeafTrackers(CollectionTracker tracker, List<CollectionTracker> leaves) {
+        if (tracker.isFinished()) {
+            return;
+        } else if (tracker instanceof TableTracker) {
+            leaves.addAll(((TableTracker)tracker).getColumnTrackers());
+        } else if (tracker instanceof AggregateTracker) {
+            for (CollectionTracker child : ((AggregateTracker)tracker).getChildTrackers()) {
+                addLeafTrackers(child, leaves);
+            }
+        } else {
+            leaves.add(tracker);
+        }
+    }
+
+    /**
+     * The streams build their PDUs from their own share of the trackers, so
+     * the walker's only "PDU" is the set of streams to start.
+     */
+    @Override
+    protected WalkerPduBuilder createPduBuilder(int maxVarsPerPdu) {
+        m_streamStarter = new StreamStarter(maxVarsPerPdu);
+        return m_streamStarter;
+    }
+
+    /**
+     * Starts the streams rather than building a single PDU from the whole
+     * tracker tree.
+     */
+    @Override
+    protected void buildAndSendNextPdu() throws IOException {
+        sendNextPdu(m_streamStarter);
+    }
+
+    /**
+     * Deals the leaf trackers out to the streams and starts walking them.
+     */
+    @Override
+    protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
+        synchronized (m_lock) {
+            if (!m_streams.isEmpty()) {
+                LOG.debug("{}: the streams for {} have already been started", getName(), getAddress());
+                return;
+            }
+        }
+
+        final List<CollectionTracker> leaves = getLeafTrackers(getTracker());
+        if (leaves.isEmpty()) {
+            handleDone();
+            return;
+        }
+
+        final int streamCount = Math.max(1, Math.min(m_streamCount, leaves.size()));
+        final List<List<CollectionTracker>> assignments = new ArrayList<List<CollectionTracker>>(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            assignments.add(new ArrayList<CollectionTracker>());
+        }
+        // deal the leaves out in order so each stream gets a share of every table
+        for (int i = 0; i < leaves.size(); i++) {
+            assignments.get(i % streamCount).add(leaves.get(i));
+        }
+
+        LOG.debug("Walking {} for {} using {} streams over {} trackers", getName(), getAddress(), streamCount, leaves.size());
+
+        synchronized (m_lock) {
+            for (int i = 0; i < streamCount; i++) {
+                final List<CollectionTracker> assigned = assignments.get(i);
+                m_streams.add(new Stream(i, new StreamTracker(assigned.toArray(new CollectionTracker[assigned.size()]), getTracker(), m_agentConfig.getMaxRepetitions())));
+            }
+            m_running = m_streams.size();
+            for (Stream stream : m_streams) {
+                if (m_done) {
+                    break;
+                }
+                stream.start();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final List<Stream> streams;
+        synchronized (m_lock) {
+            m_done = true;
+            streams = new ArrayList<Stream>(m_streams);
+        }
+        // close outside the lock, a session may wait for a response thread
+        // that is itself waiting for the lock
+        for (Stream stream : streams) {
+            stream.close();
+        }
+    }
+
+    private void streamFinished(Stream stream, SnmpWalker walker) {
+        boolean walkDone = false;
+        synchronized (m_lock) {
+            if (m_done || walker != stream.getWalker()) {
+                return;
+            }
+
+            if (!walker.failed()) {
+                if (--m_running > 0) {
+                    return;
+                }
+                // let table trackers flush their remaining rows
+                getTracker().isFinished();
+                m_done = true;
+                walkDone = true;
+            } else if (walker.timedOut() && stream.backOff()) {
+                LOG.debug("{}: stream {} for {} timed out, retrying with max-repetitions {}", getName(), stream.getIndex(), getAddress(), stream.getTracker().getMaxRepetitions());
+                stream.start();
+                return;
+            } else {
+                m_done = true;
+            }
+        }
+
+        if (walkDone) {
+            handleDone();
+        } else if (walker.timedOut()) {
+            handleTimeout(walker.getErrorMessage());
+        } else if (walker.getErrorThrowable() != null) {
+            handleError(walker.getErrorMessage(), walker.getErrorThrowable());
+        } else {
+            handleError(walker.getErrorMessage());
+        }
+    }
+
+    /**
+     * Stands in for the PDU of a single walker; the streams add their OIDs to
+     * the PDUs of their own strategy walkers.
+     */
+    private static class StreamStarter extends WalkerPduBuilder {
+        private StreamStarter(int maxVarsPerPdu) {
+            super(maxVarsPerPdu);
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void addOid(SnmpObjId snmpObjId) {
+        }
+
+        @Override
+        public void setNonRepeaters(int numNonRepeaters) {
+        }
+
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+        }
+    }
+
+    private class Stream implements WalkerCompletionListener {
+        private final int m_index;
+        private final StreamTracker m_tracker;
+        private int m_retries = 0;
+        private SnmpWalker m_walker;
+
+        private Stream(int index, StreamTracker tracker) {
+            m_index = index;
+            m_tracker = tracker;
+        }
+
+        public int getIndex() {
+            return m_index;
+        }
+
+        public StreamTracker getTracker() {
+            return m_tracker;
+        }
+
+        public SnmpWalker getWalker() {
+            return m_walker;
+        }
+
+        /**
+         * Starts (or restarts) walking this stream from where its trackers
+         * left off.
+         */
+        public void start() {
+            m_walker = m_strategy.createWalker(m_agentConfig, getName() + " stream " + m_index, m_tracker);
+            m_walker.setCompletionListener(this);
+            m_walker.start();
+        }
+
+        /**
+         * Halve max-repetitions after a timeout, if that is still possible.
+         *
+         * @return true if the stream should be retried
+         */
+        public boolean backOff() {
+            if (m_retries >= MAX_STREAM_RETRIES || m_tracker.getMaxRepetitions() <= 1) {
+                return false;
+            }
+            m_retries++;
+            m_tracker.reduceMaxRepetitions(m_tracker.getMaxRepetitions() / 2);
+            m_tracker.setTimedOut(false);
+            return true;
+        }
+
+        public void close() {
+            if (m_walker != null) {
+                try {
+                    m_walker.close();
+                } catch (IOException e) {
+                    LOG.warn("{}: error closing stream {} for {}", getName(), m_index, getAddress(), e);
+                }
+            }
+        }
+
+        @Override
+        public void walkerFinished(SnmpWalker walker) {
+            streamFinished(this, walker);
+        }
+    }
+
+    /**
+     * Walks a subset of the leaf trackers without taking them over from their
+     * parents, serializing all tracker access on the walker's lock.
+     */
+    private class StreamTracker extends AggregateTracker {
+        private int m_maxRepetitions;
+        private int m_maxRepetitionsCeiling;
+        private CountingResponseProcessor m_lastProcessor;
+
+        private StreamTracker(CollectionTracker[] leaves, CollectionTracker parent, int maxRepetitions) {
+            super(leaves, parent, false);
+            m_maxRepetitions = Math.max(1, maxRepetitions);
+            m_maxRepetitionsCeiling = m_maxRepetitions * MAX_REPETITIONS_GROWTH;
+        }
+
+        public int getMaxRepetitions() {
+            synchronized (m_lock) {
+                return m_maxRepetitions;
+            }
+        }
+
+        /**
+         * The stream manages max-repetitions itself, ignore the walker's setting.
+         */
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+        }
+
+        public void reduceMaxRepetitions(int maxRepetitions) {
+            synchronized (m_lock) {
+                m_maxRepetitions = Math.max(1, maxRepetitions);
+                m_maxRepetitionsCeiling = m_maxRepetitions;
+                m_lastProcessor = null;
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            synchronized (m_lock) {
+                return super.isFinished();
+            }
+        }
+
+        @Override
+        public ResponseProcessor buildNextPdu(PduBuilder pduBuilder) {
+            synchronized (m_lock) {
+                adaptMaxRepetitions();
+                super.setMaxRepetitions(m_maxRepetitions);
+
+                final CountingPduBuilder countingBuilder = new CountingPduBuilder(pduBuilder);
+                m_lastProcessor = new CountingResponseProcessor(countingBuilder, super.buildNextPdu(countingBuilder));
+                return m_lastProcessor;
+            }
+        }
+
+        private void adaptMaxRepetitions() {
+            final CountingResponseProcessor last = m_lastProcessor;
+            if (last == null || last.hadErrors() || last.sawEndOfMib() || last.getRepeaters() == 0 || last.getRequestedRepetitions() != m_maxRepetitions) {
+                return;
+            }
+
+            if (last.getReceived() >= last.getExpected()) {
+                m_maxRepetitions = Math.min(m_maxRepetitions * 2, m_maxRepetitionsCeiling);
+            } else {
+                // the agent truncated the response; ask for no more than it can fit
+                final int fitted = Math.max(1, (last.getReceived() - last.getNonRepeaters()) / last.getRepeaters());
+                if (fitted < m_maxRepetitions) {
+                    m_maxRepetitions = fitted;
+                    m_maxRepetitionsCeiling = fitted;
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes everything through to the walker's PDU builder while recording
+     * the shape of the request.
+     */
+    private static class CountingPduBuilder extends PduBuilder {
+        private final PduBuilder m_delegate;
+        private int m_oids = 0;
+        private int m_nonRepeaters = 0;
+        private int m_maxRepetitions = 1;
+
+        private CountingPduBuilder(PduBuilder delegate) {
+            super(delegate.getMaxVarsPerPdu());
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void addOid(SnmpObjId snmpObjId) {
+            m_oids++;
+            m_delegate.addOid(snmpObjId);
+        }
+
+        @Override
+        public void setNonRepeaters(int numNonRepeaters) {
+            m_nonRepeaters = numNonRepeaters;
+            m_delegate.setNonRepeaters(numNonRepeaters);
+        }
+
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+            m_maxRepetitions = maxRepetitions;
+            m_delegate.setMaxRepetitions(maxRepetitions);
+        }
+
+        @Override
+        public int getMaxVarsPerPdu() {
+            return m_delegate.getMaxVarsPerPdu();
+        }
+
+        @Override
+        public void setMaxVarsPerPdu(int maxVarsPerPdu) {
+            m_delegate.setMaxVarsPerPdu(maxVarsPerPdu);
+        }
+    }
+
+    private class CountingResponseProcessor implements ResponseProcessor {
+        private final CountingPduBuilder m_request;
+        private final ResponseProcessor m_delegate;
+        private int m_received = 0;
+        private boolean m_errors = false;
+        private boolean m_endOfMib = false;
+
+        private CountingResponseProcessor(CountingPduBuilder request, ResponseProcessor delegate) {
+            m_request = request;
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void processResponse(SnmpObjId snmpObjId, SnmpValue val) {
+            synchronized (m_lock) {
+                m_received++;
+                if (val.isEndOfMib()) {
+                    m_endOfMib = true;
+                }
+                m_delegate.processResponse(snmpObjId, val);
+            }
+        }
+
+        @Override
+        public boolean processErrors(int errorStatus, int errorIndex) {
+            synchronized (m_lock) {
+                if (errorStatus != CollectionTracker.NO_ERR) {
+                    m_errors = true;
+                }
+                return m_delegate.processErrors(errorStatus, errorIndex);
+            }
+        }
+
+        public int getReceived() {
+            return m_received;
+        }
+
+        public int getNonRepeaters() {
+            return m_request.m_nonRepeaters;
+        }
+
+        public int getRepeaters() {
+            return m_request.m_oids - m_request.m_nonRepeaters;
+        }
+
+        public int getRequestedRepetitions() {
+            return m_request.m_maxRepetitions;
+        }
+
+        public int getExpected() {
+            return getNonRepeaters() + getRepeaters() * getRequestedRepetitions();
+        }
+
+        public boolean hadErrors() {
+            return m_errors;
+        }
+
+        public boolean sawEndOfMib() {
+            return m_endOfMib;
+        }
+    }
+}
@@ -49,6 +49,13 @@ public class SnmpInstId extends SnmpObjId {
     public SnmpInstId(int instance) {
         super(new int[] { instance }, false);
     }
+
+    /**
+     * Creates an instance that shares a portion of the ids of another oid.
+     */
+    SnmpInstId(int[] ids, int offset, int length) {
+        super(ids, offset, length);
+    }
     
     @Override
     protected boolean addPrefixDotInToString() {
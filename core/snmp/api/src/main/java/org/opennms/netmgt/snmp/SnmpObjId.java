@@ -28,22 +28,81 @@
 
 package org.opennms.netmgt.snmp;
 
-import java.util.StringTokenizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * An SNMP object identifier.
+ *
+ * <p>Instances are immutable and are stored as a window (offset and
+ * length) onto an int array that is never modified once an instance has
+ * been created.  This allows prefixes and instances to be taken from an
+ * existing oid without copying the sub-identifiers.  The string form and
+ * the hash code are computed on first use and cached.</p>
+ *
+ * <p>Oids that are parsed from strings via {@link #get(String)} are kept in
+ * a bounded, least-recently-used intern table so that the oids used over
+ * and over in configuration (mib objects, table columns, trap oids) are
+ * only parsed once and share a single instance.  Oids that are only seen
+ * once, such as the instance oids of a large walk, are evicted again
+ * instead of filling the table.</p>
+ */
 public class SnmpObjId implements Comparable<SnmpObjId> {
-    
-    /* FIXME: Change the implementation of this to cache oids and share common prefixes
-     * This should enhance the amount of garbage we generate a great deal at least for
-     * this class.
+
+    /**
+     * Upper bound on the number of parsed oids kept in the intern table.  Once the table
+     * is full the least recently used oid is evicted for each new one.
      */
+    private static final int MAX_INTERNED_OIDS = Integer.getInteger("org.opennms.snmp.objId.internTableSize", 10000);
+
+    /**
+     * The intern table is split into segments, each guarded by its own lock, so that
+     * parsing threads don't all contend on one access-ordered map.
+     */
+    private static final int INTERN_SEGMENTS = 16;
+
+    private static final InternSegment[] s_internTable = new InternSegment[INTERN_SEGMENTS];
+    static {
+        final int segmentSize = Math.max(1, (MAX_INTERNED_OIDS + INTERN_SEGMENTS - 1) / INTERN_SEGMENTS);
+        for (int i = 0; i < INTERN_SEGMENTS; i++) {
+            s_internTable[i] = new InternSegment(segmentSize);
+        }
+    }
+
+    /**
+     * One segment of the intern table: an access-ordered map that drops its least
+     * recently used entry once it grows past its capacity.
+     */
+    private static final class InternSegment extends LinkedHashMap<String, SnmpObjId> {
+        private static final long serialVersionUID = 1L;
+        private final int m_capacity;
+
+        InternSegment(int capacity) {
+            super(16, 0.75f, true);
+            m_capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SnmpObjId> eldest) {
+            return size() > m_capacity;
+        }
+    }
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final int[] m_ids;
+    private final int m_offset;
+    private final int m_length;
+
+    // lazily computed; racy single-check is safe as both are derived from immutable state
+    private int m_hashCode;
+    private String m_string;
 
-    private int[] m_ids;
-    
     /**
      * These constructors are private.  The get method should be called to create a new oid
      */ 
     protected SnmpObjId(int[] ids, boolean clone) {
-        m_ids = (clone ? cloneIds(ids) : ids);
+        this(clone ? cloneIds(ids) : ids, 0, ids.length);
     }
     
     /**
@@ -57,109 +116,229 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
      * These constructors are private.  The get method should be called to create a new oid
      */ 
     protected SnmpObjId(String oid) {
-        this(convertStringToInts(oid), false);
+        this(lookupOrParse(oid));
     }
     
     /**
      * These constructors are private.  The get method should be called to create a new oid
      */ 
     protected SnmpObjId(SnmpObjId oid) {
-        this(oid.m_ids);
+        // the ids of an existing oid are never modified so they can be shared
+        this(oid.m_ids, oid.m_offset, oid.m_length);
+    }
+
+    /**
+     * Creates a view of <code>length</code> sub-identifiers of <code>ids</code>
+     * starting at <code>offset</code>.  The array is shared, not copied, so it must
+     * not be modified afterwards.
+     */
+    SnmpObjId(int[] ids, int offset, int length) {
+        m_ids = ids;
+        m_offset = offset;
+        m_length = length;
     }
     
     /**
      * These constructors are private.  The get method should be called to create a new oid
      */ 
     private SnmpObjId(String objId, String instance) {
-        this(appendArrays(convertStringToInts(objId), convertStringToInts(instance)), false);
+        this(appendArrays(lookupOrParse(objId), convertStringToInts(instance)), false);
     }
     
     /**
      * These constructors are private.  The get method should be called to create a new oid
      */ 
     private SnmpObjId(SnmpObjId objId, String instance) {
-        this(appendArrays(objId.m_ids, convertStringToInts(instance)), false);
+        this(appendArrays(objId, convertStringToInts(instance)), false);
     }
     
     /**
      * These constructors are private.  The get method should be called to create a new oid
      */ 
     private SnmpObjId(SnmpObjId objId, SnmpObjId instance) {
-        this(appendArrays(objId.m_ids, instance.m_ids), false);
+        this(appendArrays(objId, instance), false);
     }
 
     public int[] getIds() {
-        return cloneIds(m_ids);
+        final int[] newIds = new int[m_length];
+        System.arraycopy(m_ids, m_offset, newIds, 0, m_length);
+        return newIds;
     }
     
     private static int[] cloneIds(int[] ids) {
-        return cloneIds(ids, ids.length);
-    }
-    
-    private static int[] cloneIds(int[] ids, int lengthToClone) {
-        int len = Math.min(lengthToClone, ids.length);
-        int[] newIds = new int[len];
-        System.arraycopy(ids, 0, newIds, 0, len);
+        final int[] newIds = new int[ids.length];
+        System.arraycopy(ids, 0, newIds, 0, ids.length);
         return newIds;
     }
-    
+
+    /**
+     * Returns the interned oid for the given string, parsing and interning it if it is
+     * not in the table.
+     */
+    private static SnmpObjId lookupOrParse(String oid) {
+        final InternSegment segment = s_internTable[(oid.hashCode() & 0x7fffffff) % INTERN_SEGMENTS];
+        synchronized (segment) {
+            final SnmpObjId objId = segment.get(oid);
+            if (objId != null) {
+                return objId;
+            }
+        }
+        // parse outside of the lock; if another thread got there first use its instance
+        final SnmpObjId parsed = new SnmpObjId(convertStringToInts(oid), false);
+        synchronized (segment) {
+            final SnmpObjId existing = segment.get(oid);
+            if (existing != null) {
+                return existing;
+            }
+            segment.put(oid, parsed);
+            return parsed;
+        }
+    }
+
+    /**
+     * Returns the number of oids currently in the intern table.
+     */
+    static int getInternTableSize() {
+        int size = 0;
+        for (final InternSegment segment : s_internTable) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
     private static int[] convertStringToInts(String oid) {
-    	oid = oid.trim();
-        if (oid.startsWith(".")) {
-            oid = oid.substring(1);
+        final int end = trimmedEnd(oid);
+        int start = trimmedStart(oid, end);
+        if (start < end && oid.charAt(start) == '.') {
+            start++;
         }
-        
-        final StringTokenizer tokenizer = new StringTokenizer(oid, ".");
-        int[] ids = new int[tokenizer.countTokens()];
+
+        // count the sub-identifiers first so the array is allocated exactly once;
+        // empty sub-identifiers (e.g. "1..2") are skipped as StringTokenizer used to
+        int count = 0;
+        boolean inToken = false;
+        for (int i = start; i < end; i++) {
+            if (oid.charAt(i) == '.') {
+                inToken = false;
+            } else if (!inToken) {
+                inToken = true;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return NO_IDS;
+        }
+
+        final int[] ids = new int[count];
         int index = 0;
-        while (tokenizer.hasMoreTokens()) {
-            try {
-                String tok = tokenizer.nextToken();
-                long value = Long.parseLong(tok);
-                ids[index] = (int)value;
-                if (value < 0)
-                    throw new IllegalArgumentException("String "+oid+" could not be converted to a SnmpObjId. It has a negative for subId "+index);
-                index++;
-            } catch(NumberFormatException e) {
-                throw new IllegalArgumentException("String "+oid+" could not be converted to a SnmpObjId at subId "+index);
+        int i = start;
+        while (index < count) {
+            while (oid.charAt(i) == '.') {
+                i++;
+            }
+            boolean negative = false;
+            char c = oid.charAt(i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
             }
+            final int digitsStart = i;
+            long value = 0;
+            while (i < end && (c = oid.charAt(i)) != '.') {
+                if (c < '0' || c > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                    throw new IllegalArgumentException("String "+oid.substring(start, end)+" could not be converted to a SnmpObjId at subId "+index);
+                }
+                value = value * 10 + (c - '0');
+                i++;
+            }
+            if (i == digitsStart) {
+                throw new IllegalArgumentException("String "+oid.substring(start, end)+" could not be converted to a SnmpObjId at subId "+index);
+            }
+            if (negative && value != 0) {
+                throw new IllegalArgumentException("String "+oid.substring(start, end)+" could not be converted to a SnmpObjId. It has a negative for subId "+index);
+            }
+            ids[index++] = (int)value;
         }
         return ids;
     }
-    
-    
+
+    private static int trimmedEnd(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static int trimmedStart(String s, int end) {
+        int start = 0;
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj instanceof SnmpObjId)
-            return compareTo((SnmpObjId)obj) == 0;
-        else
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof SnmpObjId)) {
+            return false;
+        }
+        final SnmpObjId other = (SnmpObjId)obj;
+        if (m_length != other.m_length) {
+            return false;
+        }
+        // only use the hash codes if both have already been computed
+        if (m_hashCode != 0 && other.m_hashCode != 0 && m_hashCode != other.m_hashCode) {
             return false;
+        }
+        if (m_ids == other.m_ids && m_offset == other.m_offset) {
+            return true;
+        }
+        for (int i = 0; i < m_length; i++) {
+            if (m_ids[m_offset + i] != other.m_ids[other.m_offset + i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        int h = 31;
-        for(int i = 0; i < m_ids.length; i++) {
-            h = h + 37*m_ids[i];
+        int h = m_hashCode;
+        if (h == 0) {
+            h = 31;
+            for(int i = 0; i < m_length; i++) {
+                h = 31*h + m_ids[m_offset + i];
+            }
+            m_hashCode = h;
         }
         return h;
     }
 
     @Override
     public String toString() {
-        StringBuffer buf = new StringBuffer(length()*2+10); // a guess at the str len
-        for(int i = 0; i < length(); i++) {
-            if (i > 0 || addPrefixDotInToString()) {
-                buf.append('.');  
+        String s = m_string;
+        if (s == null) {
+            final StringBuilder buf = new StringBuilder(m_length*3+2); // a guess at the str len
+            for(int i = 0; i < m_length; i++) {
+                if (i > 0 || addPrefixDotInToString()) {
+                    buf.append('.');  
+                }
+                // we use toLong to account for unsigned ints > Integer.MAX_INT
+                buf.append(toLong(m_ids[m_offset + i]));
             }
-            // we use toLong to account for unsigned ints > Integer.MAX_INT
-            buf.append(toLong(m_ids[i]));
+            s = buf.toString();
+            m_string = s;
         }
-        return buf.toString();
+        return s;
     }
 
-    private long toLong(int subid) {
+    private static long toLong(int subid) {
         return subid >= 0 ? subid : 0xffffffffL & ((long)subid);
     }
 
@@ -174,18 +353,20 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
 
         // compare each element in order for as much length as they have in common
         // which is the entire length of one or both oids
-        int minLen = Math.min(length(), other.length());
+        int minLen = Math.min(m_length, other.m_length);
         for(int i = 0; i < minLen; i++) {
-            long diff = toLong(m_ids[i]) - toLong(other.m_ids[i]);
-            // the first one that is not equal indicates which is bigger
-            if (diff != 0) {
-                return diff > 0 ? 1 : -1;
+            final int a = m_ids[m_offset + i];
+            final int b = other.m_ids[other.m_offset + i];
+            // the first one that is not equal indicates which is bigger; flipping the
+            // sign bit gives an unsigned comparison without widening to long
+            if (a != b) {
+                return (a ^ Integer.MIN_VALUE) > (b ^ Integer.MIN_VALUE) ? 1 : -1;
             }
         }
         
         // if they get to hear then both are identifical for their common length
         // so which ever is longer is then greater
-        return length() - other.length();
+        return m_length - other.m_length;
     }
     
 
@@ -194,23 +375,32 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
     }
     
     public SnmpObjId append(SnmpObjId inst) {
-        return append(inst.m_ids);
+        return new SnmpObjId(appendArrays(this, inst), false);
     }
 
     public SnmpObjId append(int[] instIds) {
-        int[] ids = appendArrays(m_ids, instIds);
+        final int[] ids = new int[m_length+instIds.length];
+        System.arraycopy(m_ids, m_offset, ids, 0, m_length);
+        System.arraycopy(instIds, 0, ids, m_length, instIds.length);
         return new SnmpObjId(ids, false);
     }
 
-    private static int[] appendArrays(int[] objIds, int[] instIds) {
-        int[] ids = new int[objIds.length+instIds.length];
-        System.arraycopy(objIds, 0, ids, 0, objIds.length);
-        System.arraycopy(instIds, 0, ids, objIds.length, instIds.length);
+    private static int[] appendArrays(SnmpObjId objId, int[] instIds) {
+        int[] ids = new int[objId.m_length+instIds.length];
+        System.arraycopy(objId.m_ids, objId.m_offset, ids, 0, objId.m_length);
+        System.arraycopy(instIds, 0, ids, objId.m_length, instIds.length);
+        return ids;
+    }
+
+    private static int[] appendArrays(SnmpObjId objId, SnmpObjId instance) {
+        int[] ids = new int[objId.m_length+instance.m_length];
+        System.arraycopy(objId.m_ids, objId.m_offset, ids, 0, objId.m_length);
+        System.arraycopy(instance.m_ids, instance.m_offset, ids, objId.m_length, instance.m_length);
         return ids;
     }
 
     public static SnmpObjId get(String oid) {
-        return new SnmpObjId(oid);
+        return lookupOrParse(oid);
     }
 
     public static SnmpObjId get(int[] ids) {
@@ -234,11 +424,11 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
     }
 
     public boolean isPrefixOf(final SnmpObjId other) {
-    	if (other == null || length() > other.length())
+    	if (other == null || m_length > other.m_length)
             return false;
         
-        for(int i = 0; i < m_ids.length; i++) {
-            if (m_ids[i] != other.m_ids[i])
+        for(int i = 0; i < m_length; i++) {
+            if (m_ids[m_offset + i] != other.m_ids[other.m_offset + i])
                 return false;
         }
         
@@ -248,27 +438,31 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
     public SnmpInstId getInstance(SnmpObjId base) {
         if (!base.isPrefixOf(this)) return null;
         
-        int[] instanceIds = new int[length() - base.length()];
-        System.arraycopy(m_ids, base.length(), instanceIds, 0, instanceIds.length);
-        return new SnmpInstId(instanceIds);
+        // shares our ids rather than copying the instance portion
+        return new SnmpInstId(m_ids, m_offset + base.m_length, m_length - base.m_length);
     }
 
     public int length() {
-        return m_ids.length;
+        return m_length;
     }
     
     public SnmpObjId getPrefix(int length) {
     	if (length >= length()) {
     		throw new IllegalArgumentException("Invalid length: " + length +" is longer than length of ObjId");
     	}
-    	
-    	int[] newIds = cloneIds(m_ids, length);
-        return new SnmpObjId(newIds, false);
+    	if (length < 0) {
+    		throw new IllegalArgumentException("Invalid length: " + length +" is negative");
+    	}
+
+        return new SnmpObjId(m_ids, m_offset, length);
     	
     }
     
     public int getSubIdAt(int index) {
-        return m_ids[index];
+        if (index < 0 || index >= m_length) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return m_ids[m_offset + index];
     }
     
     public int getLastSubId() {
@@ -277,10 +471,10 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
 
     public SnmpObjId decrement() {
         if (getLastSubId() == 0) {
-            return new SnmpObjId(cloneIds(m_ids, length() - 1), false);
+            return new SnmpObjId(m_ids, m_offset, m_length - 1);
         }
         else {
-            int[] newIds = cloneIds(m_ids, length());
+            int[] newIds = getIds();
             newIds[newIds.length-1] -= 1;
             return new SnmpObjId(newIds, false);
         }
@@ -63,7 +63,33 @@ public abstract class SnmpUtils {
     }
 
     public static SnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker... trackers) {
-        return getStrategy().createWalker(agentConfig, name, createTooBigTracker(agentConfig, trackers));
+        return createWalker(agentConfig, name, createTooBigTracker(agentConfig, trackers));
+    }
+
+    /**
+     * Walks with several requests in flight at once when
+     * <code>org.opennms.snmp.walker.pipelineDepth</code> is greater than 1
+     * and the tracker has more than one independent part.
+     */
+    private static SnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, TooBigReportingAggregator tracker) {
+        final int pipelineDepth = getPipelineDepth();
+        if (pipelineDepth > 1 && PipelinedWalker.countStreams(tracker) > 1) {
+            return new PipelinedWalker(getStrategy(), agentConfig, name, tracker, pipelineDepth);
+        }
+        return getStrategy().createWalker(agentConfig, name, tracker);
+    }
+
+    private static int getPipelineDepth() {
+        final String pipelineDepth = getConfig().getProperty("org.opennms.snmp.walker.pipelineDepth");
+        if (pipelineDepth == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(pipelineDepth.trim());
+        } catch (final NumberFormatException e) {
+            LOG.warn("Invalid org.opennms.snmp.walker.pipelineDepth value {}, walking one request at a time", pipelineDepth);
+            return 1;
+        }
     }
 
     private static TooBigReportingAggregator createTooBigTracker(SnmpAgentConfig agentConfig, CollectionTracker... trackers) {
@@ -71,7 +97,7 @@ public abstract class SnmpUtils {
     }
     
     public static SnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker) {
-        return getStrategy().createWalker(agentConfig, name, createTooBigTracker(agentConfig, tracker));
+        return createWalker(agentConfig, name, createTooBigTracker(agentConfig, tracker));
     }
 
     private static TooBigReportingAggregator createTooBigTracker(SnmpAgentConfig agentConfig, CollectionTracker tracker) {
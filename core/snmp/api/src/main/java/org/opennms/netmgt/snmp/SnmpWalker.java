@@ -48,6 +48,13 @@ public abstract class SnmpWalker implements Closeable {
         
         public abstract void reset();
     }
+
+    /**
+     * Notified once a walker has finished, successfully or not.
+     */
+    interface WalkerCompletionListener {
+        void walkerFinished(SnmpWalker walker);
+    }
     
     private final String m_name;
     private final CollectionTracker m_tracker;
@@ -58,6 +65,7 @@ public abstract class SnmpWalker implements Closeable {
     private WalkerPduBuilder m_pduBuilder;
     private ResponseProcessor m_responseProcessor;
     private final int m_maxVarsPerPdu;
+    private WalkerCompletionListener m_completionListener;
     private boolean m_error = false;
     private String m_errorMessage = "";
     private Throwable m_errorThrowable = null;
@@ -162,6 +170,17 @@ public abstract class SnmpWalker implements Closeable {
         } catch (IOException e) {
             LOG.error("{}: Unexpected Error occured closing SNMP session for: {}", getName(), m_address, e);
         }
+        if (m_completionListener != null) {
+            m_completionListener.walkerFinished(this);
+        }
+    }
+
+    void setCompletionListener(WalkerCompletionListener completionListener) {
+        m_completionListener = completionListener;
+    }
+
+    protected final CollectionTracker getTracker() {
+        return m_tracker;
     }
 
     @Override
@@ -62,6 +62,10 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
         }
     }
 
+    List<ColumnTracker> getColumnTrackers() {
+        return m_columnTrackers;
+    }
+
     @Override
     public void setMaxRepetitions(int maxRepetitions) {
         for(ColumnTracker child : m_columnTrackers) {
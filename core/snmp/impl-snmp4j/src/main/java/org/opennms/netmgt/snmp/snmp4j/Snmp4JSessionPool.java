@@ -0,0 +1,545 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.CounterEvent;
+import org.snmp4j.event.CounterListener;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.CounterSupport;
+
+/**
+ * A small, fixed set of listening {@link Snmp} sessions that are shared by
+ * every SNMPv1/v2c request instead of opening a new UDP transport (and its
+ * listener thread) per request or per walk.  SNMP4J already matches responses
+ * to outstanding requests by request id, so a single session can carry any
+ * number of concurrent requests.
+ *
+ * To keep a single slow or unreachable agent from soaking up the shared
+ * sessions, the number of requests outstanding against one agent address is
+ * capped; synchronous callers block for a free slot and asynchronous requests
+ * are queued and sent as soon as a slot is released.  Queued requests are sent
+ * from a small dispatch pool rather than from the SNMP4J thread that delivered
+ * the response freeing the slot, so response dispatch never waits on them.
+ * The slots of an agent are dropped as soon as no request uses them.
+ *
+ * SNMPv3 requests still use a dedicated session, since each one carries its
+ * own USM user.
+ */
+public class Snmp4JSessionPool implements CounterListener, Snmp4JSessionPoolMBean {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_AGENT = 4;
+
+    private final Snmp[] m_sessions;
+    private final int m_maxInFlightPerAgent;
+    private final AtomicInteger m_nextSession = new AtomicInteger();
+    private final Executor m_dispatcher;
+    private final ExecutorService m_ownDispatcher;
+    private final ConcurrentMap<Address, AgentSlots> m_agentSlots = new ConcurrentHashMap<Address, AgentSlots>();
+
+    private final AtomicLong m_outstanding = new AtomicLong();
+    private final AtomicLong m_queued = new AtomicLong();
+    private final AtomicLong m_sent = new AtomicLong();
+    private final AtomicLong m_timeouts = new AtomicLong();
+    private final AtomicLong m_retries = new AtomicLong();
+    private final AtomicLong m_slotWaitTimeouts = new AtomicLong();
+
+    /**
+     * Tracks the requests outstanding against a single agent address.
+     *
+     * Every request that looked the slots up counts as a user until it is
+     * done with them, and the last user removes them from the pool.  Slots
+     * that were removed are never used again, a request that finds them
+     * removed looks them up anew.
+     */
+    private final class AgentSlots {
+        private final Address m_address;
+        private int m_inFlight = 0;
+        private int m_users = 0;
+        private boolean m_removed = false;
+        private final Queue<PooledSend> m_waiting = new ArrayDeque<PooledSend>();
+
+        private AgentSlots(final Address address) {
+            m_address = address;
+        }
+
+        private synchronized boolean use() {
+            if (m_removed) {
+                return false;
+            }
+            m_users++;
+            return true;
+        }
+
+        /**
+         * Waits for a free slot.  If none is free in time, the caller is
+         * done with the slots.
+         */
+        private boolean acquire(final long timeout) throws InterruptedException {
+            boolean acquired = false;
+            try {
+                synchronized (this) {
+                    final long deadline = System.currentTimeMillis() + timeout;
+                    while (m_inFlight >= m_maxInFlightPerAgent) {
+                        final long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        wait(remaining);
+                    }
+                    m_inFlight++;
+                    acquired = true;
+                    return true;
+                }
+            } finally {
+                if (!acquired) {
+                    unuse(1);
+                }
+            }
+        }
+
+        /**
+         * Runs the send immediately if a slot is free, otherwise queues it
+         * until {@link #release()} hands over a slot.
+         */
+        private void acquireOrQueue(final PooledSend send) {
+            synchronized (this) {
+                if (m_inFlight >= m_maxInFlightPerAgent) {
+                    m_waiting.add(send);
+                    m_queued.incrementAndGet();
+                    return;
+                }
+                m_inFlight++;
+            }
+            send.run();
+        }
+
+        /**
+         * Frees the slot of a request that is done, handing it straight over
+         * to the next queued request if there is one.
+         */
+        private void release() {
+            final PooledSend next;
+            synchronized (this) {
+                next = m_waiting.poll();
+                if (next == null) {
+                    m_inFlight--;
+                    notify();
+                } else {
+                    m_queued.decrementAndGet();
+                }
+            }
+            unuse(1);
+            if (next == null) {
+                return;
+            }
+            try {
+                m_dispatcher.execute(next);
+            } catch (final RejectedExecutionException e) {
+                // the pool was closed, nothing will send the queued requests any more
+                failQueued(next, e);
+            }
+        }
+
+        private void failQueued(final PooledSend first, final RejectedExecutionException e) {
+            final List<PooledSend> failed = new ArrayList<PooledSend>();
+            failed.add(first);
+            synchronized (this) {
+                PooledSend send;
+                while ((send = m_waiting.poll()) != null) {
+                    m_queued.decrementAndGet();
+                    failed.add(send);
+                }
+                // the slot handed to the first request is not used after all
+                m_inFlight--;
+                notify();
+            }
+            unuse(failed.size());
+            final IOException error = new IOException("The shared SNMP sessions are closed", e);
+            for (final PooledSend send : failed) {
+                send.fail(error);
+            }
+        }
+
+        /**
+         * Marks the given number of requests as done with the slots, and
+         * removes them from the pool once nobody uses them.
+         */
+        private void unuse(final int requests) {
+            synchronized (this) {
+                m_users -= requests;
+                if (m_users > 0) {
+                    return;
+                }
+                m_removed = true;
+            }
+            m_agentSlots.remove(m_address, this);
+        }
+    }
+
+    /**
+     * An asynchronous request, sent as soon as the agent has a free slot.
+     */
+    private final class PooledSend implements Runnable {
+        private final Snmp m_session;
+        private final PDU m_pdu;
+        private final Target m_target;
+        private final Object m_userHandle;
+        private final AgentSlots m_slots;
+        private final ResponseListener m_listener;
+
+        private PooledSend(final Snmp session, final PDU pdu, final Target target, final Object userHandle, final AgentSlots slots, final ResponseListener listener) {
+            m_session = session;
+            m_pdu = pdu;
+            m_target = target;
+            m_userHandle = userHandle;
+            m_slots = slots;
+            m_listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                started();
+                m_session.send(m_pdu, m_target, m_userHandle, new PooledResponseListener(m_session, m_slots, m_listener));
+            } catch (final IOException e) {
+                completed(false);
+                m_slots.release();
+                fail(e);
+                return;
+            }
+            if (!isConfirmed(m_pdu)) {
+                // SNMP4J does not call the listener for PDUs that are not answered
+                completed(false);
+                m_slots.release();
+            }
+        }
+
+        /**
+         * Tells the caller that the request failed without a response.
+         */
+        private void fail(final IOException e) {
+            m_listener.onResponse(new ResponseEvent(m_session, m_target.getAddress(), m_pdu, null, m_userHandle, e));
+        }
+    }
+
+    /**
+     * Releases the agent slot and does the bookkeeping for an asynchronous
+     * request before handing the response to the caller's listener.
+     */
+    private final class PooledResponseListener implements ResponseListener {
+        private final Snmp m_session;
+        private final AgentSlots m_slots;
+        private final ResponseListener m_delegate;
+
+        private PooledResponseListener(final Snmp session, final AgentSlots slots, final ResponseListener delegate) {
+            m_session = session;
+            m_slots = slots;
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void onResponse(final ResponseEvent event) {
+            // SNMP4J keeps asynchronous requests around until they are cancelled
+            m_session.cancel(event.getRequest(), this);
+            completed(event.getResponse() == null && event.getError() == null);
+            m_slots.release();
+            m_delegate.onResponse(event);
+        }
+    }
+
+    public Snmp4JSessionPool(final int sessions, final int maxInFlightPerAgent) throws IOException {
+        this(sessions, maxInFlightPerAgent, null);
+    }
+
+    /**
+     * @param dispatcher runs the queued asynchronous requests once a slot is
+     * free; if <code>null</code>, the pool uses its own threads
+     */
+    public Snmp4JSessionPool(final int sessions, final int maxInFlightPerAgent, final Executor dispatcher) throws IOException {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("At least one shared SNMP session is required");
+        }
+        m_maxInFlightPerAgent = maxInFlightPerAgent < 1 ? DEFAULT_MAX_IN_FLIGHT_PER_AGENT : maxInFlightPerAgent;
+        if (dispatcher == null) {
+            m_ownDispatcher = Executors.newFixedThreadPool(sessions, new ThreadFactory() {
+                private final AtomicInteger m_threadNumber = new AtomicInteger();
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "Snmp4JSessionPool-Dispatch-" + m_threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            m_dispatcher = m_ownDispatcher;
+        } else {
+            m_ownDispatcher = null;
+            m_dispatcher = dispatcher;
+        }
+        m_sessions = new Snmp[sessions];
+        for (int i = 0; i < sessions; i++) {
+            m_sessions[i] = new Snmp(new DefaultUdpTransportMapping());
+            m_sessions[i].listen();
+        }
+        CounterSupport.getInstance().addCounterListener(this);
+        LOG.info("Created {} shared SNMP sessions with at most {} requests in flight per agent", sessions, m_maxInFlightPerAgent);
+    }
+
+    /**
+     * Shared sessions are only used for community-based requests.
+     */
+    public boolean supports(final Snmp4JAgentConfig agentConfig) {
+        return !agentConfig.isSnmpV3();
+    }
+
+    /**
+     * Picks the session an asynchronous conversation (a walk, for example)
+     * should use for all of its requests.
+     */
+    public Snmp nextSession() {
+        return m_sessions[(m_nextSession.getAndIncrement() & Integer.MAX_VALUE) % m_sessions.length];
+    }
+
+    /**
+     * Sends a request and waits for the response, blocking first for a free
+     * slot for the agent.  A <code>null</code> result means the request timed
+     * out, either waiting for a slot or waiting for the agent, except for
+     * PDUs the agent does not answer (traps and reports), where it is all
+     * SNMP4J returns once the PDU is sent.
+     */
+    public ResponseEvent send(final PDU pdu, final Target target) throws IOException {
+        final AgentSlots slots = useSlots(target.getAddress());
+        final long timeout = target.getTimeout() * (target.getRetries() + 1L);
+        try {
+            if (!slots.acquire(timeout)) {
+                m_slotWaitTimeouts.incrementAndGet();
+                LOG.debug("Timed out after {}ms waiting for one of {} request slots for {}", timeout, m_maxInFlightPerAgent, target.getAddress());
+                return null;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a request slot for " + target.getAddress(), e);
+        }
+
+        try {
+            started();
+            final ResponseEvent event = nextSession().send(pdu, target);
+            if (isConfirmed(pdu)) {
+                completed(event == null || (event.getResponse() == null && event.getError() == null));
+            } else {
+                // there is no response to wait for, SNMP4J returns null once the PDU is sent
+                completed(false);
+            }
+            return event;
+        } catch (final IOException e) {
+            completed(false);
+            throw e;
+        } catch (final RuntimeException e) {
+            completed(false);
+            throw e;
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * Sends a request on the given shared session without waiting, queueing
+     * it if the agent already has the maximum number of requests in flight.
+     */
+    public void send(final Snmp session, final PDU pdu, final Target target, final Object userHandle, final ResponseListener listener) {
+        final AgentSlots slots = useSlots(target.getAddress());
+        slots.acquireOrQueue(new PooledSend(session, pdu, target, userHandle, slots, listener));
+    }
+
+    /**
+     * Counts the retransmissions SNMP4J reports for the shared sessions.
+     */
+    @Override
+    public void incrementCounter(final CounterEvent event) {
+        if (!isPooledSession(event.getSource())) {
+            return;
+        }
+        if (SnmpConstants.snmp4jStatsRequestRetries.equals(event.getOid())) {
+            m_retries.incrementAndGet();
+        }
+    }
+
+    public void close() {
+        CounterSupport.getInstance().removeCounterListener(this);
+        for (final Snmp session : m_sessions) {
+            try {
+                session.close();
+            } catch (final IOException e) {
+                LOG.error("error closing shared SNMP session", e);
+            }
+        }
+        if (m_ownDispatcher != null) {
+            m_ownDispatcher.shutdown();
+        }
+    }
+
+    @Override
+    public int getSessionCount() {
+        return m_sessions.length;
+    }
+
+    @Override
+    public int getMaxInFlightPerAgent() {
+        return m_maxInFlightPerAgent;
+    }
+
+    /**
+     * @return the number of requests currently waiting for a response
+     */
+    @Override
+    public long getOutstandingRequests() {
+        return m_outstanding.get();
+    }
+
+    /**
+     * @return the number of asynchronous requests waiting for a free agent slot
+     */
+    @Override
+    public long getQueuedRequests() {
+        return m_queued.get();
+    }
+
+    @Override
+    public long getRequestsSent() {
+        return m_sent.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return m_timeouts.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return m_retries.get();
+    }
+
+    /**
+     * @return the number of synchronous requests that gave up waiting for a
+     * free agent slot
+     */
+    @Override
+    public long getSlotWaitTimeouts() {
+        return m_slotWaitTimeouts.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Snmp4JSessionPool[sessions=" + m_sessions.length + ", maxInFlightPerAgent=" + m_maxInFlightPerAgent
+                + ", outstanding=" + m_outstanding.get() + ", queued=" + m_queued.get() + ", sent=" + m_sent.get()
+                + ", timeouts=" + m_timeouts.get() + ", retries=" + m_retries.get() + ", slotWaitTimeouts=" + m_slotWaitTimeouts.get() + "]";
+    }
+
+    /**
+     * @return the number of agents that currently have requests in flight or queued
+     */
+    int getAgentCount() {
+        return m_agentSlots.size();
+    }
+
+    /**
+     * Looks up the slots for the agent and counts the caller as one of their
+     * users, until it releases its slot or gives up on getting one.
+     */
+    private AgentSlots useSlots(final Address address) {
+        while (true) {
+            AgentSlots slots = m_agentSlots.get(address);
+            if (slots == null) {
+                final AgentSlots newSlots = new AgentSlots(address);
+                slots = m_agentSlots.putIfAbsent(address, newSlots);
+                if (slots == null) {
+                    slots = newSlots;
+                }
+            }
+            if (slots.use()) {
+                return slots;
+            }
+            // the last user removed these slots in the meantime
+        }
+    }
+
+    /**
+     * @return false for PDUs that the agent does not answer
+     */
+    private static boolean isConfirmed(final PDU pdu) {
+        final int type = pdu.getType();
+        return type != PDU.TRAP && type != PDU.V1TRAP && type != PDU.REPORT && type != PDU.RESPONSE;
+    }
+
+    private boolean isPooledSession(final Object source) {
+        for (final Snmp session : m_sessions) {
+            if (session == source) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void started() {
+        m_sent.incrementAndGet();
+        m_outstanding.incrementAndGet();
+    }
+
+    private void completed(final boolean timedOut) {
+        m_outstanding.decrementAndGet();
+        if (timedOut) {
+            m_timeouts.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+/**
+ * The statistics of the shared SNMP sessions, registered as
+ * <code>OpenNMS:Name=Snmp4JSessionPool</code> when the pool is enabled.
+ */
+public interface Snmp4JSessionPoolMBean {
+
+    /**
+     * @return the number of shared sessions
+     */
+    int getSessionCount();
+
+    /**
+     * @return the maximum number of requests in flight per agent address
+     */
+    int getMaxInFlightPerAgent();
+
+    /**
+     * @return the number of requests currently waiting for a response
+     */
+    long getOutstandingRequests();
+
+    /**
+     * @return the number of asynchronous requests waiting for a free agent slot
+     */
+    long getQueuedRequests();
+
+    /**
+     * @return the number of requests sent since startup
+     */
+    long getRequestsSent();
+
+    /**
+     * @return the number of requests that got no response
+     */
+    long getTimeouts();
+
+    /**
+     * @return the number of retransmissions SNMP4J made
+     */
+    long getRetries();
+
+    /**
+     * @return the number of synchronous requests that gave up waiting for a
+     * free agent slot
+     */
+    long getSlotWaitTimeouts();
+}
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.snmp.snmp4j;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
@@ -37,6 +38,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpConfiguration;
@@ -85,6 +89,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
     private static Map<TrapNotificationListener, RegistrationInfo> s_registrations = new HashMap<TrapNotificationListener, RegistrationInfo>();
     
     private static boolean s_initialized = false;
+
+    private static Snmp4JSessionPool s_sessionPool = null;
     
     private Snmp4JValueFactory m_valueFactory;
 
@@ -113,6 +119,24 @@ public class Snmp4JStrategy implements SnmpStrategy {
         
         SNMP4JSettings.setAllowSNMPv2InV1(Boolean.getBoolean("org.opennms.snmp.snmp4j.allowSNMPv2InV1"));
         SNMP4JSettings.setAllowSNMPv2InV1(Boolean.getBoolean("org.opennms.snmp.snmp4j.noGetBulk"));
+
+        // Share a few listening sessions between all v1/v2c requests instead of
+        // opening a UDP socket per request
+        final int sharedSessions = Integer.getInteger("org.opennms.snmp.snmp4j.sharedSessions", 0);
+        if (sharedSessions > 0) {
+            try {
+                s_sessionPool = new Snmp4JSessionPool(sharedSessions, Integer.getInteger("org.opennms.snmp.snmp4j.maxRequestsPerAgent", Snmp4JSessionPool.DEFAULT_MAX_IN_FLIGHT_PER_AGENT));
+            } catch (final IOException e) {
+                LOG.error("Unable to create shared SNMP sessions, falling back to a session per request", e);
+            }
+            if (s_sessionPool != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(s_sessionPool, new ObjectName("OpenNMS:Name=Snmp4JSessionPool"));
+                } catch (final JMException e) {
+                    LOG.warn("Unable to register the shared SNMP session statistics", e);
+                }
+            }
+        }
         
         s_initialized = true;
     }
@@ -120,6 +144,14 @@ public class Snmp4JStrategy implements SnmpStrategy {
     public Snmp4JStrategy() {
         initialize();
     }
+
+    /**
+     * @return the shared session pool, or <code>null</code> if
+     * <code>org.opennms.snmp.snmp4j.sharedSessions</code> is not set
+     */
+    public static Snmp4JSessionPool getSessionPool() {
+        return s_sessionPool;
+    }
     
     /**
      * SNMP4J createWalker implemenetation.
@@ -242,6 +274,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
      * adapted from default SnmpAgentConfig values to those compatible with the SNMP4J library.
      */
     protected SnmpValue[] send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse) {
+        final Snmp4JSessionPool sessionPool = s_sessionPool;
+        if (sessionPool != null && sessionPool.supports(agentConfig)) {
+            return sendPooled(sessionPool, agentConfig, pdu, expectResponse);
+        }
+
         Snmp session;
 
         try {
@@ -280,6 +317,27 @@ public class Snmp4JStrategy implements SnmpStrategy {
             closeQuietly(session);
         }
     }
+
+    private SnmpValue[] sendPooled(Snmp4JSessionPool sessionPool, Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse) {
+        try {
+            final ResponseEvent responseEvent = sessionPool.send(pdu, agentConfig.getTarget());
+
+            if (!expectResponse) {
+                return null;
+            } else if (responseEvent == null) {
+                LOG.warn("Timeout waiting to send to agent {}: too many requests in flight", agentConfig.getInetAddress());
+                return new SnmpValue[] { null };
+            } else {
+                return processResponse(agentConfig, responseEvent);
+            }
+        } catch (final IOException e) {
+            LOG.error("send: error during SNMP operation", e);
+            return new SnmpValue[] { null };
+        } catch (final RuntimeException e) {
+            LOG.error("send: unexpected error during SNMP operation", e);
+            return new SnmpValue[] { null };
+        }
+    }
     
 
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
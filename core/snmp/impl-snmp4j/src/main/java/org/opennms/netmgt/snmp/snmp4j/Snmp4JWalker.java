@@ -186,6 +186,7 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    private Snmp4JSessionPool m_sessionPool;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
@@ -218,12 +219,22 @@ public class Snmp4JWalker extends SnmpWalker {
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         if (m_session == null) {
-            m_session = m_agentConfig.createSnmpSession();
-            m_session.listen();
+            final Snmp4JSessionPool sessionPool = Snmp4JStrategy.getSessionPool();
+            if (sessionPool != null && sessionPool.supports(m_agentConfig)) {
+                m_sessionPool = sessionPool;
+                m_session = sessionPool.nextSession();
+            } else {
+                m_session = m_agentConfig.createSnmpSession();
+                m_session.listen();
+            }
         }
         
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
-        m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+        if (m_sessionPool != null) {
+            m_sessionPool.send(m_session, snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+        } else {
+            m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+        }
     }
     
     protected int getVersion() {
@@ -233,8 +244,12 @@ public class Snmp4JWalker extends SnmpWalker {
     @Override
     public void close() throws IOException {
         if (m_session != null) {
-            m_session.close();
+            // shared sessions stay open for the next walker
+            if (m_sessionPool == null) {
+                m_session.close();
+            }
             m_session = null;
+            m_sessionPool = null;
         }
     }
 }
@@ -169,6 +169,185 @@ public class SnmpObjIdTest extends TestCase {
         assertEquals(oid, oid2.decrement());
     }
     
-    
+    public void testParseEdgeCases() {
+        assertEquals(".1.3.5", SnmpObjId.get("  .1.3.5 ").toString());
+        assertEquals(".1.3.5", SnmpObjId.get("1..3.5.").toString());
+        assertEquals(0, SnmpObjId.get("").length());
+        assertEquals(SnmpObjId.get(".1.0.5"), SnmpObjId.get(".1.-0.5"));
+
+        try {
+            SnmpObjId.get(".1.3.5.99999999999999999999");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            
+        }
+    }
+
+    public void testInterning() {
+        SnmpObjId oid1 = SnmpObjId.get(".1.3.6.1.2.1.1.3");
+        SnmpObjId oid2 = SnmpObjId.get(".1.3.6.1.2.1.1.3");
+        assertSame(oid1, oid2);
+
+        // interned oids are immutable so modifying a copy of the ids must not affect them
+        int[] ids = oid1.getIds();
+        ids[0] = 99;
+        assertEquals(".1.3.6.1.2.1.1.3", SnmpObjId.get(".1.3.6.1.2.1.1.3").toString());
+    }
+
+    public void testPrefixAndInstanceViews() {
+        SnmpObjId oid = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10.5");
+        SnmpObjId base = oid.getPrefix(10);
+        assertEquals(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10"), base);
+        assertEquals(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10").hashCode(), base.hashCode());
+        assertEquals(10, base.length());
+        assertEquals(10, base.getLastSubId());
+
+        SnmpInstId inst = oid.getInstance(base);
+        assertEquals(new SnmpInstId(5), inst);
+        assertEquals(new SnmpInstId(5).hashCode(), inst.hashCode());
+        assertEquals(5, inst.toInt());
+        assertEquals("5", inst.toString());
+        assertArrayEquals(new int[] { 5 }, inst.getIds());
+        assertEquals(oid, base.append(inst));
+
+        try {
+            inst.getSubIdAt(1);
+            fail("Expected ArrayIndexOutOfBoundsException");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            
+        }
+
+        try {
+            oid.getPrefix(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            
+        }
+
+        SnmpObjId zero = SnmpObjId.get(".1.3.6.1.2.1.1.0");
+        assertEquals(SnmpObjId.get(".1.3.6.1.2.1.1"), zero.decrement());
+        assertTrue(zero.decrement().isPrefixOf(zero));
+    }
+
+    public void testCompareViewsWithLargeSubid() {
+        long subid = ((long)Integer.MAX_VALUE) + 10L;
+        SnmpObjId oid = SnmpObjId.get(".1.3.5." + subid + ".9");
+        SnmpObjId other = SnmpObjId.get(".1.3.5.7.9");
+
+        assertTrue(oid.getPrefix(4).compareTo(other.getPrefix(4)) > 0);
+        assertTrue(other.getPrefix(4).compareTo(oid.getPrefix(4)) < 0);
+        assertEquals(0, oid.getPrefix(3).compareTo(other.getPrefix(3)));
+        assertEquals(oid.getPrefix(3), other.getPrefix(3));
+    }
+
+    public void testInternTableIsBounded() {
+        final SnmpObjId sysUpTime = SnmpObjId.get(".1.3.6.1.2.1.1.3");
+        // far more distinct oids than the table holds, as a large walk would produce
+        for (int i = 0; i < 50000; i++) {
+            SnmpObjId.get(".1.3.6.1.2.1.4.22.1.2." + i);
+            if (i % 100 == 0) {
+                // a frequently used oid is kept while the one-off oids are evicted
+                assertSame(sysUpTime, SnmpObjId.get(".1.3.6.1.2.1.1.3"));
+            }
+        }
+        assertTrue(SnmpObjId.getInternTableSize() <= 10000);
+        assertSame(sysUpTime, SnmpObjId.get(".1.3.6.1.2.1.1.3"));
+    }
+
+    /**
+     * Rough per-operation costs for parse, compare and append, side by side with the
+     * previous implementation, which is kept as {@link LegacySnmpObjId}.  This is not a
+     * rigorous benchmark but is enough to spot a regression when run by hand.
+     */
+    public void testParseCompareAppendCost() {
+        final int iterations = 200000;
+        final String[] oids = new String[100];
+        for (int i = 0; i < oids.length; i++) {
+            oids[i] = ".1.3.6.1.4.1.5813.1." + i + ".2.1." + (i * 7);
+        }
+        // distinct oids that are never seen twice, so every lookup misses the intern table
+        final String[] uniqueOids = new String[iterations];
+        for (int i = 0; i < uniqueOids.length; i++) {
+            uniqueOids[i] = ".1.3.6.1.2.1.4.22.1.2.3." + (i / 256) + "." + (i % 256) + ".7";
+        }
+        final SnmpObjId base = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+        final SnmpInstId inst = new SnmpInstId("1.2.3");
+        final LegacySnmpObjId legacyBase = LegacySnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+        final LegacySnmpObjId legacyInst = LegacySnmpObjId.get("1.2.3");
+        final SnmpObjId a = SnmpObjId.get(oids[10]);
+        final SnmpObjId b = SnmpObjId.get(oids[11]);
+        final LegacySnmpObjId legacyA = LegacySnmpObjId.get(oids[10]);
+        final LegacySnmpObjId legacyB = LegacySnmpObjId.get(oids[11]);
+
+        long checksum = 0;
+        // warm up both paths so that neither is measured in the interpreter
+        for (int i = 0; i < iterations; i++) {
+            checksum += SnmpObjId.get(oids[i % oids.length]).length() + LegacySnmpObjId.get(oids[i % oids.length]).length();
+            checksum += base.append(inst).compareTo(base) + legacyBase.append(legacyInst).compareTo(legacyBase);
+            checksum += a.compareTo(b) + (a.equals(b) ? 1 : 0) + legacyA.compareTo(legacyB) + (legacyA.equals(legacyB) ? 1 : 0);
+        }
+
+        // the best of several rounds, so a collection or a compilation during one of
+        // them doesn't skew the comparison
+        long parse = Long.MAX_VALUE, parseUnique = Long.MAX_VALUE, legacyParse = Long.MAX_VALUE, legacyParseUnique = Long.MAX_VALUE;
+        long append = Long.MAX_VALUE, legacyAppend = Long.MAX_VALUE, compare = Long.MAX_VALUE, legacyCompare = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += SnmpObjId.get(oids[i % oids.length]).length();
+            }
+            parse = Math.min(parse, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += SnmpObjId.get(uniqueOids[i]).length();
+            }
+            parseUnique = Math.min(parseUnique, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += LegacySnmpObjId.get(oids[i % oids.length]).length();
+            }
+            legacyParse = Math.min(legacyParse, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += LegacySnmpObjId.get(uniqueOids[i]).length();
+            }
+            legacyParseUnique = Math.min(legacyParseUnique, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += base.append(inst).compareTo(base);
+            }
+            append = Math.min(append, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += legacyBase.append(legacyInst).compareTo(legacyBase);
+            }
+            legacyAppend = Math.min(legacyAppend, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += a.compareTo(b) + (a.equals(b) ? 1 : 0);
+            }
+            compare = Math.min(compare, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += legacyA.compareTo(legacyB) + (legacyA.equals(legacyB) ? 1 : 0);
+            }
+            legacyCompare = Math.min(legacyCompare, System.nanoTime() - start);
+        }
+
+        System.err.printf("SnmpObjId               current   previous%n");
+        System.err.printf("  parse (repeated)    %6dns  %6dns%n", parse / iterations, legacyParse / iterations);
+        System.err.printf("  parse (unique)      %6dns  %6dns%n", parseUnique / iterations, legacyParseUnique / iterations);
+        System.err.printf("  append and compare  %6dns  %6dns%n", append / iterations, legacyAppend / iterations);
+        System.err.printf("  compare and equals  %6dns  %6dns%n", compare / iterations, legacyCompare / iterations);
+        System.err.printf("  (checksum %d)%n", checksum);
+        assertTrue(checksum != 0);
+    }
 
 }
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.PipelinedWalker;
+import org.opennms.netmgt.snmp.RowCallback;
+import org.opennms.netmgt.snmp.SnmpAgentAddress;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRowResult;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+
+public class PipelinedWalkerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedWalkerTest.class);
+
+    private static final SnmpObjId IF_TABLE = SnmpObjId.get(".1.3.6.1.2.1.2.2.1");
+
+    private final InetAddress m_agentAddress = InetAddressUtils.addr("127.0.0.1");
+    private final int m_agentPort = 1691;
+
+    /**
+     * Simulates a round trip to the agent for each PDU the mock walkers send.
+     */
+    private static class DelayingMockSnmpStrategy extends MockSnmpStrategy {
+        private final long m_delay;
+
+        public DelayingMockSnmpStrategy(final long delay) {
+            m_delay = delay;
+        }
+
+        @Override
+        public SnmpWalker createWalker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+            final SnmpAgentAddress aa = new SnmpAgentAddress(agentConfig.getAddress(), agentConfig.getPort());
+            return new MockSnmpWalker(aa, agentConfig.getVersion(), getOidContainer(aa), name, tracker, agentConfig.getMaxVarsPerPdu()) {
+                @Override
+                protected void sendNextPdu(final WalkerPduBuilder pduBuilder) throws IOException {
+                    try {
+                        Thread.sleep(m_delay);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.sendNextPdu(pduBuilder);
+                }
+            };
+        }
+    }
+
+    private static class RowCollector implements RowCallback {
+        private final Map<SnmpInstId, SnmpRowResult> m_rows = new TreeMap<SnmpInstId, SnmpRowResult>();
+
+        @Override
+        public void rowCompleted(final SnmpRowResult row) {
+            m_rows.put(row.getInstance(), row);
+        }
+
+        public Map<SnmpInstId, SnmpRowResult> getRows() {
+            return m_rows;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+        MockSnmpStrategy.setDataForAddress(new SnmpAgentAddress(m_agentAddress, m_agentPort), new ClassPathResource("snmpTestData1.properties"));
+    }
+
+    @After
+    public void tearDown() {
+        MockSnmpStrategy.resetData();
+    }
+
+    @Test
+    public void testPipelinedWalkMatchesSequentialWalk() throws Exception {
+        final MockSnmpStrategy strategy = new MockSnmpStrategy();
+
+        final RowCollector sequential = new RowCollector();
+        final SnmpWalker sequentialWalker = strategy.createWalker(getAgentConfig(), "sequential", new AggregateTracker(new CollectionTracker[] { createIfTableTracker(sequential) }));
+        sequentialWalker.start();
+        sequentialWalker.waitFor();
+
+        final RowCollector pipelined = new RowCollector();
+        final SnmpWalker pipelinedWalker = new PipelinedWalker(strategy, getAgentConfig(), "pipelined", createIfTableTracker(pipelined), 4);
+        pipelinedWalker.start();
+        assertTrue("pipelined walk did not finish", pipelinedWalker.waitFor(10000));
+
+        assertFalse(sequentialWalker.failed());
+        assertFalse(pipelinedWalker.failed());
+        assertEquals(6, sequential.getRows().size());
+        assertEquals(sequential.getRows().keySet(), pipelined.getRows().keySet());
+        for (final SnmpInstId inst : sequential.getRows().keySet()) {
+            final SnmpRowResult expected = sequential.getRows().get(inst);
+            final SnmpRowResult actual = pipelined.getRows().get(inst);
+            assertEquals("columns for instance " + inst, expected.getColumnCount(), actual.getColumnCount());
+            for (int column = 1; column <= 22; column++) {
+                final SnmpObjId base = SnmpObjId.get(IF_TABLE, Integer.toString(column));
+                assertEquals("value of " + base + "." + inst, String.valueOf(expected.getValue(base)), String.valueOf(actual.getValue(base)));
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedWalkIsFasterThanSequentialWalk() throws Exception {
+        final MockSnmpStrategy strategy = new DelayingMockSnmpStrategy(5);
+
+        final RowCollector sequential = new RowCollector();
+        long start = System.nanoTime();
+        final SnmpWalker sequentialWalker = strategy.createWalker(getAgentConfig(), "sequential", new AggregateTracker(new CollectionTracker[] { createIfTableTracker(sequential) }));
+        sequentialWalker.start();
+        sequentialWalker.waitFor();
+        final long sequentialTime = System.nanoTime() - start;
+
+        final RowCollector pipelined = new RowCollector();
+        start = System.nanoTime();
+        final SnmpWalker pipelinedWalker = new PipelinedWalker(strategy, getAgentConfig(), "pipelined", createIfTableTracker(pipelined), 4);
+        pipelinedWalker.start();
+        pipelinedWalker.waitFor();
+        final long pipelinedTime = System.nanoTime() - start;
+
+        LOG.info("ifTable walk with 5ms round trips: sequential {}ms, 4 streams {}ms", sequentialTime / 1000000, pipelinedTime / 1000000);
+        assertEquals(sequential.getRows().size(), pipelined.getRows().size());
+        assertTrue("pipelined walk should be faster than a sequential one", pipelinedTime < sequentialTime);
+    }
+
+    @Test
+    public void testPipelinedWalkTimeout() throws Exception {
+        // no data configured for this agent, so the mock walkers time out
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setAddress(InetAddressUtils.addr("127.0.0.2"));
+        config.setMaxRepetitions(1);
+
+        final RowCollector rows = new RowCollector();
+        final SnmpWalker walker = new PipelinedWalker(new MockSnmpStrategy(), config, "timeout", createIfTableTracker(rows), 4);
+        walker.start();
+        assertTrue("pipelined walk did not finish", walker.waitFor(10000));
+
+        assertTrue(walker.failed());
+        assertTrue(walker.timedOut());
+        assertNotNull(walker.getErrorMessage());
+    }
+
+    @Test
+    public void testPipelinedWalkWithNothingToWalk() throws Exception {
+        final SnmpWalker walker = new PipelinedWalker(new MockSnmpStrategy(), getAgentConfig(), "empty", new AggregateTracker(new CollectionTracker[0]), 4);
+        walker.start();
+        assertTrue("pipelined walk did not finish", walker.waitFor(10000));
+
+        assertFalse(walker.failed());
+        assertEquals("", walker.getErrorMessage());
+    }
+
+    private static TableTracker createIfTableTracker(final RowCallback callback) {
+        final SnmpObjId[] columns = new SnmpObjId[22];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = SnmpObjId.get(IF_TABLE, Integer.toString(i + 1));
+        }
+        return new TableTracker(callback, columns);
+    }
+
+    private SnmpAgentConfig getAgentConfig() {
+        final SnmpAgentConfig config = new SnmpAgentConfig();
+        config.setAddress(m_agentAddress);
+        config.setPort(m_agentPort);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setMaxVarsPerPdu(10);
+        return config;
+    }
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.snmp4j.PDU;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Tests the shared SNMP sessions against the mock agent.
+ */
+public class Snmp4JSessionPoolTest extends MockSnmpAgentTestCase {
+
+    private final ExecutorService m_executor = Executors.newSingleThreadExecutor();
+    private Snmp4JSessionPool m_pool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void closePool() throws Exception {
+        if (m_pool != null) {
+            m_pool.close();
+        }
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 2);
+
+        final ResponseEvent event = m_pool.send(createPdu(), getTarget());
+
+        assertNotNull(event);
+        assertNotNull("no response from the agent", event.getResponse());
+        assertEquals(42, event.getResponse().get(0).getVariable().toInt());
+        assertEquals(1, m_pool.getRequestsSent());
+        assertEquals(0, m_pool.getOutstandingRequests());
+        assertEquals(0, m_pool.getTimeouts());
+        assertEquals("idle agent slots were kept", 0, m_pool.getAgentCount());
+    }
+
+    /**
+     * Traps are not answered, so the <code>null</code> SNMP4J returns for
+     * them is not a timeout.
+     */
+    @Test
+    public void testUnconfirmedPduIsNotATimeout() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 2);
+
+        final PDU pdu = createPdu();
+        pdu.setType(PDU.TRAP);
+        assertNull(m_pool.send(pdu, getTarget()));
+
+        assertEquals(1, m_pool.getRequestsSent());
+        assertEquals(0, m_pool.getTimeouts());
+        assertEquals(0, m_pool.getOutstandingRequests());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 2);
+
+        final ResponseEvent event = m_pool.send(createPdu(), getUnreachableTarget(200));
+
+        assertNotNull(event);
+        assertNull(event.getResponse());
+        assertEquals(1, m_pool.getTimeouts());
+        assertEquals(0, m_pool.getOutstandingRequests());
+    }
+
+    /**
+     * Requests over the per-agent limit are queued, and handed to the
+     * dispatcher when a response frees a slot.
+     */
+    @Test
+    public void testQueuedRequestsAreDispatched() throws Exception {
+        final AtomicInteger dispatched = new AtomicInteger();
+        m_pool = new Snmp4JSessionPool(1, 1, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                dispatched.incrementAndGet();
+                m_executor.execute(command);
+            }
+        });
+
+        final int requests = 5;
+        final CountDownLatch latch = new CountDownLatch(requests);
+        final List<ResponseEvent> events = new CopyOnWriteArrayList<ResponseEvent>();
+        final AtomicInteger maxOutstanding = new AtomicInteger();
+        final ResponseListener listener = new ResponseListener() {
+            @Override
+            public void onResponse(final ResponseEvent event) {
+                maxOutstanding.set(Math.max(maxOutstanding.get(), (int)m_pool.getOutstandingRequests()));
+                events.add(event);
+                latch.countDown();
+            }
+        };
+
+        final Target target = getTarget();
+        for (int i = 0; i < requests; i++) {
+            m_pool.send(m_pool.nextSession(), createPdu(), target, null, listener);
+        }
+
+        assertTrue("not all of the requests completed", latch.await(10, TimeUnit.SECONDS));
+        for (final ResponseEvent event : events) {
+            assertNotNull("no response from the agent", event.getResponse());
+        }
+        assertEquals(requests - 1, dispatched.get());
+        assertTrue("more than one request was in flight", maxOutstanding.get() <= 1);
+        assertEquals(requests, m_pool.getRequestsSent());
+        assertEquals(0, m_pool.getQueuedRequests());
+        assertEquals("idle agent slots were kept", 0, m_pool.getAgentCount());
+    }
+
+    /**
+     * Once the dispatcher no longer takes queued requests, they are failed
+     * rather than left waiting for a slot forever.
+     */
+    @Test
+    public void testQueuedRequestsFailWhenDispatcherRejects() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 1, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException("closed");
+            }
+        });
+
+        final int requests = 3;
+        final CountDownLatch latch = new CountDownLatch(requests);
+        final List<ResponseEvent> events = new CopyOnWriteArrayList<ResponseEvent>();
+        final ResponseListener listener = new ResponseListener() {
+            @Override
+            public void onResponse(final ResponseEvent event) {
+                events.add(event);
+                latch.countDown();
+            }
+        };
+
+        final Target target = getUnreachableTarget(200);
+        for (int i = 0; i < requests; i++) {
+            m_pool.send(m_pool.nextSession(), createPdu(), target, null, listener);
+        }
+        assertEquals(requests - 1, m_pool.getQueuedRequests());
+
+        assertTrue("not all of the requests completed", latch.await(10, TimeUnit.SECONDS));
+        int failed = 0;
+        for (final ResponseEvent event : events) {
+            assertNull(event.getResponse());
+            if (event.getError() != null) {
+                failed++;
+            }
+        }
+        assertEquals(requests - 1, failed);
+        assertEquals(0, m_pool.getQueuedRequests());
+        assertEquals(0, m_pool.getOutstandingRequests());
+        assertEquals("idle agent slots were kept", 0, m_pool.getAgentCount());
+    }
+
+    @Test
+    public void testSlotWaitTimeout() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 1, m_executor);
+
+        // Hold the only slot for the agent with a request that will not be answered
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_pool.send(m_pool.nextSession(), createPdu(), getUnreachableTarget(2000), null, new ResponseListener() {
+            @Override
+            public void onResponse(final ResponseEvent event) {
+                latch.countDown();
+            }
+        });
+
+        assertNull(m_pool.send(createPdu(), getUnreachableTarget(100)));
+        assertEquals(1, m_pool.getSlotWaitTimeouts());
+        assertEquals(1, m_pool.getOutstandingRequests());
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, m_pool.getTimeouts());
+    }
+
+    @Test
+    public void testSupports() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 1, m_executor);
+
+        assertTrue(m_pool.supports(new Snmp4JAgentConfig(getAgentConfig())));
+        final SnmpAgentConfig v3Config = getAgentConfig();
+        v3Config.setVersion(SnmpAgentConfig.VERSION3);
+        assertFalse(m_pool.supports(new Snmp4JAgentConfig(v3Config)));
+    }
+
+    private Target getTarget() {
+        return new Snmp4JAgentConfig(getAgentConfig()).getTarget();
+    }
+
+    /**
+     * Returns a target on the agent's address where nothing listens.
+     */
+    private Target getUnreachableTarget(final long timeout) throws Exception {
+        final DatagramSocket socket = new DatagramSocket(0, getAgentAddress());
+        final int port = socket.getLocalPort();
+        socket.close();
+
+        final Target target = getTarget();
+        target.setAddress(new UdpAddress(getAgentAddress(), port));
+        target.setTimeout(timeout);
+        target.setRetries(0);
+        return target;
+    }
+
+    private static PDU createPdu() {
+        final PDU pdu = new PDU();
+        pdu.setType(PDU.GET);
+        pdu.add(new VariableBinding(new OID(".1.3.5.1.1.3.0")));
+        return pdu;
+    }
+}
@@ -33,6 +33,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.events.api.EventProcessor;
@@ -104,6 +105,16 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
      */
     private static final String DEFAULT_EVENT_UEI = "uei.opennms.org/default/event";
 
+    /*
+     * Expansion statistics.  The expander is called concurrently from every
+     * eventd handler thread, so these are kept in atomics rather than behind
+     * a lock.
+     */
+    private final AtomicLong m_eventsExpanded = new AtomicLong();
+    private final AtomicLong m_lookupTime = new AtomicLong();
+    private final AtomicLong m_decodeTime = new AtomicLong();
+    private final AtomicLong m_expansionTime = new AtomicLong();
+
     public EventExpander() {
     }
 
@@ -541,11 +552,21 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
      * expansion.
      * </p>
      *
+     * <p>
+     * This method is thread-safe and is not synchronized: the event
+     * configuration is looked up in the immutable index that the
+     * {@link EventConfDao} swaps in on reload, and all of the work is done on
+     * the event being expanded.
+     * </p>
+     *
      * @param e
      *            The event to expand if necessary.
      */
-    public synchronized void expandEvent(Event e) {
+    public void expandEvent(Event e) {
+        final long start = System.nanoTime();
         org.opennms.netmgt.xml.eventconf.Event econf = lookup(m_eventConfDao, e);
+        final long lookedUp = System.nanoTime();
+        m_lookupTime.addAndGet(lookedUp - start);
 
         if (econf != null) {
             if (m_eventConfDao.isSecureTag("mask")) {
@@ -737,12 +758,54 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
                decode.put(element.getParmid(), valueMap);
            }
         }// end fill of event using econf
+        final long decoded = System.nanoTime();
+        m_decodeTime.addAndGet(decoded - lookedUp);
 
         // do the event parm expansion
         expandParms(e, decode);
+        m_expansionTime.addAndGet(System.nanoTime() - decoded);
+        m_eventsExpanded.incrementAndGet();
 
     } // end expandEvent()
 
+    /**
+     * <p>getEventsExpanded</p>
+     *
+     * @return the number of events expanded since startup
+     */
+    public long getEventsExpanded() {
+        return m_eventsExpanded.get();
+    }
+
+    /**
+     * <p>getLookupTime</p>
+     *
+     * @return the total time, in nanoseconds, spent looking up event configurations
+     */
+    public long getLookupTime() {
+        return m_lookupTime.get();
+    }
+
+    /**
+     * <p>getDecodeTime</p>
+     *
+     * @return the total time, in nanoseconds, spent copying the event
+     * configuration into events and building their varbind decode maps
+     */
+    public long getDecodeTime() {
+        return m_decodeTime.get();
+    }
+
+    /**
+     * <p>getExpansionTime</p>
+     *
+     * @return the total time, in nanoseconds, spent expanding parms in the
+     * descr, logmsg, operinstruct, actions, tticket and alarm keys
+     */
+    public long getExpansionTime() {
+        return m_expansionTime.get();
+    }
+
 
     /** {@inheritDoc} */
     @Override
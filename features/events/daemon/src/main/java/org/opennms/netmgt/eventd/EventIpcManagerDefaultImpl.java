@@ -36,12 +36,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.logging.Logging;
@@ -94,6 +98,18 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
+    /**
+     * The most distinct event UEIs whose listener lists are cached in the
+     * dispatch table.
+     */
+    private static final int MAX_RESOLVED_UEIS = 10000;
+
+    /**
+     * Upper bounds, in milliseconds, of the listener processing time histogram
+     * buckets.  The last bucket counts everything slower.
+     */
+    private static final long[] LATENCY_BUCKETS = { 1, 10, 100, 1000, 10000 };
+
     /**
      * Hash table of list of event listeners keyed by event UEI
      */
@@ -109,6 +125,20 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
 
+    /**
+     * Read-only snapshot of the listener registrations used by
+     * {@link #broadcastNow(Event)}.  It is rebuilt whenever a listener is added
+     * or removed so that broadcasting never has to lock.
+     */
+    private volatile DispatchTable m_dispatchTable = new DispatchTable(m_listeners, m_ueiListeners, m_listenerThreads);
+
+    /**
+     * Events delivered to and dropped by listeners that have been removed, so
+     * that the totals never go down.
+     */
+    private long m_retiredEventsDelivered = 0;
+    private long m_retiredEventsDropped = 0;
+
     /**
      * The thread pool handling the events
      */
@@ -135,7 +165,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         /**
          * The thread that is running this runnable.
          */
-        private final ExecutorService m_delegateThread;
+        private final ThreadPoolExecutor m_delegateThread;
+
+        private final AtomicLong m_eventsDelivered = new AtomicLong();
+        private final AtomicLong m_eventsDropped = new AtomicLong();
+        private final AtomicLong m_eventsFailed = new AtomicLong();
+        private final AtomicLong m_processingTime = new AtomicLong();
+
+        /**
+         * Count of onEvent calls per {@link #LATENCY_BUCKETS} bucket.
+         */
+        private final AtomicLongArray m_latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
 
         /**
          * Constructor
@@ -157,7 +197,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                     new RejectedExecutionHandler() {
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                            if (executor.isShutdown()) {
+                                LOG.debug("Listener {} has been removed, discarding event", m_listener.getName());
+                                return;
+                            }
+                            final long dropped = m_eventsDropped.incrementAndGet();
+                            LOG.warn("Listener {}'s event queue is full, discarding event ({} discarded so far)", m_listener.getName(), dropped);
                         }
                     }
             );
@@ -172,18 +217,60 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
                         // Make sure we restore our log4j logging prefix after onEvent is called
                         Map<String,String> mdc = Logging.getCopyOfContextMap();
+                        final long start = System.nanoTime();
                         try {
                             m_listener.onEvent(event);
                         } finally {
+                            recordProcessingTime(System.nanoTime() - start);
                             Logging.setContextMap(mdc);
                         }
                     } catch (Throwable t) {
+                        m_eventsFailed.incrementAndGet();
                         LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
                     }
                 }
             });
         }
 
+        private void recordProcessingTime(final long nanos) {
+            m_eventsDelivered.incrementAndGet();
+            m_processingTime.addAndGet(nanos);
+
+            final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && millis >= LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            m_latencyHistogram.incrementAndGet(bucket);
+        }
+
+        public int getQueueDepth() {
+            return m_delegateThread.getQueue().size();
+        }
+
+        public long getEventsDelivered() {
+            return m_eventsDelivered.get();
+        }
+
+        public long getEventsDropped() {
+            return m_eventsDropped.get();
+        }
+
+        public String getStats() {
+            final StringBuilder buf = new StringBuilder(m_listener.getName());
+            buf.append(": queued=").append(getQueueDepth());
+            buf.append(", delivered=").append(m_eventsDelivered.get());
+            buf.append(", dropped=").append(m_eventsDropped.get());
+            buf.append(", failed=").append(m_eventsFailed.get());
+            buf.append(", processingTime=").append(TimeUnit.NANOSECONDS.toMillis(m_processingTime.get())).append("ms");
+            buf.append(", latency={");
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                buf.append("<").append(LATENCY_BUCKETS[i]).append("ms:").append(m_latencyHistogram.get(i)).append(", ");
+            }
+            buf.append(">=").append(LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]).append("ms:").append(m_latencyHistogram.get(LATENCY_BUCKETS.length)).append("}");
+            return buf.toString();
+        }
+
         /**
          * Stops the execution of this listener.
          */
@@ -192,6 +279,94 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
+    /**
+     * An immutable copy of the listener registrations.  The listener threads
+     * an event UEI is delivered to, including the "directory" wild card
+     * matches, are worked out the first time the UEI is broadcast and cached,
+     * so broadcasting a previously seen UEI is a single map lookup.
+     */
+    private static class DispatchTable {
+        private static final EventListenerExecutor[] NO_LISTENERS = new EventListenerExecutor[0];
+
+        private final EventListenerExecutor[] m_matchAll;
+        private final Map<String, List<EventListener>> m_ueiListeners;
+        private final Map<String, EventListenerExecutor> m_listenerThreads;
+        private final ConcurrentMap<String, EventListenerExecutor[]> m_resolved = new ConcurrentHashMap<String, EventListenerExecutor[]>();
+
+        DispatchTable(final List<EventListener> listeners, final Map<String, List<EventListener>> ueiListeners, final Map<String, EventListenerExecutor> listenerThreads) {
+            m_listenerThreads = new HashMap<String, EventListenerExecutor>(listenerThreads);
+            m_ueiListeners = new HashMap<String, List<EventListener>>();
+            for (final Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    m_ueiListeners.put(entry.getKey(), new ArrayList<EventListener>(entry.getValue()));
+                }
+            }
+            m_matchAll = toExecutors(listeners);
+        }
+
+        public EventListenerExecutor[] getMatchAll() {
+            return m_matchAll;
+        }
+
+        public EventListenerExecutor[] getListenersForUei(final String uei) {
+            EventListenerExecutor[] executors = m_resolved.get(uei);
+            if (executors == null) {
+                executors = resolve(uei);
+                if (m_resolved.size() < MAX_RESOLVED_UEIS) {
+                    m_resolved.putIfAbsent(uei, executors);
+                }
+            }
+            return executors;
+        }
+
+        /**
+         * Loop to attempt partial wild card "directory" matches.
+         */
+        private EventListenerExecutor[] resolve(final String eventUei) {
+            if (m_ueiListeners.isEmpty()) {
+                return NO_LISTENERS;
+            }
+
+            final Set<EventListener> sentToListeners = new HashSet<EventListener>();
+            final List<EventListener> matched = new ArrayList<EventListener>();
+            for (String uei = eventUei; uei.length() > 0; ) {
+                final List<EventListener> listeners = m_ueiListeners.get(uei);
+                if (listeners != null) {
+                    for (EventListener listener : listeners) {
+                        if (sentToListeners.add(listener)) {
+                            matched.add(listener);
+                        }
+                    }
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+            return toExecutors(matched);
+        }
+
+        private EventListenerExecutor[] toExecutors(final List<EventListener> listeners) {
+            if (listeners.isEmpty()) {
+                return NO_LISTENERS;
+            }
+            final List<EventListenerExecutor> executors = new ArrayList<EventListenerExecutor>(listeners.size());
+            for (final EventListener listener : listeners) {
+                final EventListenerExecutor executor = m_listenerThreads.get(listener.getName());
+                if (executor != null) {
+                    executors.add(executor);
+                }
+            }
+            return executors.toArray(new EventListenerExecutor[executors.size()]);
+        }
+    }
+
     /**
      * <p>Constructor for EventIpcManagerDefaultImpl.</p>
      */
@@ -262,13 +437,15 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     public void broadcastNow(Event event) {
         LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
 
-        if (m_listeners.isEmpty()) {
+        final DispatchTable dispatchTable = m_dispatchTable;
+        final EventListenerExecutor[] matchAll = dispatchTable.getMatchAll();
+        if (matchAll.length == 0) {
             LOG.debug("No listeners interested in all events");
         }
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            queueEventToListener(event, listener);
+        for (EventListenerExecutor listenerThread : matchAll) {
+            listenerThread.addEvent(event);
         }
 
         if (event.getUei() == null) {
@@ -276,41 +453,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        queueEventToListener(event, listener);
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        // Send to listeners who are interested in this event UEI.
+        final EventListenerExecutor[] ueiListeners = dispatchTable.getListenersForUei(event.getUei());
+        for (EventListenerExecutor listenerThread : ueiListeners) {
+            listenerThread.addEvent(event);
         }
         
-        if (sentToListeners.isEmpty()) {
+        if (ueiListeners.length == 0) {
             LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
         }
     }
 
-    private void queueEventToListener(Event event, EventListener listener) {
-        m_listenerThreads.get(listener.getName()).addEvent(event);
-    }
-
     /**
      * {@inheritDoc}
      *
@@ -329,6 +482,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        rebuildDispatchTable();
     }
 
     /**
@@ -356,6 +511,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        rebuildDispatchTable();
     }
 
     /**
@@ -390,6 +547,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        rebuildDispatchTable();
     }
 
     /**
@@ -409,6 +568,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        rebuildDispatchTable();
     }
 
     /**
@@ -431,10 +592,70 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // stop and remove the listener thread for this listener
         if (m_listenerThreads.containsKey(listener.getName())) {
-            m_listenerThreads.get(listener.getName()).stop();
+            final EventListenerExecutor listenerThread = m_listenerThreads.remove(listener.getName());
+            listenerThread.stop();
 
-            m_listenerThreads.remove(listener.getName());
+            m_retiredEventsDelivered += listenerThread.getEventsDelivered();
+            m_retiredEventsDropped += listenerThread.getEventsDropped();
+        }
+
+        rebuildDispatchTable();
+    }
+
+    /**
+     * Publish a new snapshot of the listener registrations to
+     * {@link #broadcastNow(Event)}.  Must be called with the lock held after
+     * every change to the listener maps.
+     */
+    private void rebuildDispatchTable() {
+        m_dispatchTable = new DispatchTable(m_listeners, m_ueiListeners, m_listenerThreads);
+    }
+
+    /**
+     * @return the number of events waiting in all listener queues
+     */
+    public synchronized long getListenerQueueDepth() {
+        long depth = 0;
+        for (EventListenerExecutor listenerThread : m_listenerThreads.values()) {
+            depth += listenerThread.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of events handed to listeners since startup,
+     * including the listeners that have been removed
+     */
+    public synchronized long getListenerEventsDelivered() {
+        long delivered = m_retiredEventsDelivered;
+        for (EventListenerExecutor listenerThread : m_listenerThreads.values()) {
+            delivered += listenerThread.getEventsDelivered();
+        }
+        return delivered;
+    }
+
+    /**
+     * @return the number of events discarded because a listener's queue was
+     * full since startup, including the listeners that have been removed
+     */
+    public synchronized long getListenerEventsDropped() {
+        long dropped = m_retiredEventsDropped;
+        for (EventListenerExecutor listenerThread : m_listenerThreads.values()) {
+            dropped += listenerThread.getEventsDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return one line per listener with its queue depth, delivered, dropped
+     * and failed event counts and a histogram of its onEvent() times
+     */
+    public synchronized String getListenerStats() {
+        final StringBuilder buf = new StringBuilder();
+        for (EventListenerExecutor listenerThread : m_listenerThreads.values()) {
+            buf.append(listenerThread.getStats()).append('\n');
         }
+        return buf.toString();
     }
 
     /**
@@ -95,6 +95,10 @@ public final class Eventd extends AbstractServiceDaemon {
      */
     private Collection<EventReceiver> m_eventReceivers;
 
+    private EventExpander m_eventExpander;
+
+    private EventIpcManagerDefaultImpl m_eventIpcManager;
+
     /**
      * Constuctor creates the localhost address(to be used eventually when
      * eventd originates events during correlation) and the broadcast queue
@@ -201,4 +205,40 @@ public final class Eventd extends AbstractServiceDaemon {
     public void setEventReceivers(Collection<EventReceiver> eventReceivers) {
         m_eventReceivers = eventReceivers;
     }
+
+    /**
+     * <p>getEventExpander</p>
+     *
+     * @return the {@link EventExpander} used by the event handlers, if any
+     */
+    public EventExpander getEventExpander() {
+        return m_eventExpander;
+    }
+
+    /**
+     * <p>setEventExpander</p>
+     *
+     * @param eventExpander the {@link EventExpander} whose statistics are exposed over JMX
+     */
+    public void setEventExpander(EventExpander eventExpander) {
+        m_eventExpander = eventExpander;
+    }
+
+    /**
+     * <p>getEventIpcManager</p>
+     *
+     * @return the {@link EventIpcManagerDefaultImpl} that broadcasts events to listeners, if any
+     */
+    public EventIpcManagerDefaultImpl getEventIpcManager() {
+        return m_eventIpcManager;
+    }
+
+    /**
+     * <p>setEventIpcManager</p>
+     *
+     * @param eventIpcManager the {@link EventIpcManagerDefaultImpl} whose listener statistics are exposed over JMX
+     */
+    public void setEventIpcManager(EventIpcManagerDefaultImpl eventIpcManager) {
+        m_eventIpcManager = eventIpcManager;
+    }
 }
@@ -29,6 +29,8 @@
 package org.opennms.netmgt.eventd.jmx;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.eventd.EventExpander;
+import org.opennms.netmgt.eventd.EventIpcManagerDefaultImpl;
 
 /**
  * <p>Eventd class.</p>
@@ -48,4 +50,60 @@ public class Eventd extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
     protected String getSpringContext() {
         return "eventDaemonContext";       
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventsExpanded() {
+        final EventExpander expander = getDaemon().getEventExpander();
+        return expander == null ? 0L : expander.getEventsExpanded();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventLookupTime() {
+        final EventExpander expander = getDaemon().getEventExpander();
+        return expander == null ? 0L : expander.getLookupTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventDecodeTime() {
+        final EventExpander expander = getDaemon().getEventExpander();
+        return expander == null ? 0L : expander.getDecodeTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventExpansionTime() {
+        final EventExpander expander = getDaemon().getEventExpander();
+        return expander == null ? 0L : expander.getExpansionTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getListenerQueueDepth() {
+        final EventIpcManagerDefaultImpl ipcManager = getDaemon().getEventIpcManager();
+        return ipcManager == null ? 0L : ipcManager.getListenerQueueDepth();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getListenerEventsDelivered() {
+        final EventIpcManagerDefaultImpl ipcManager = getDaemon().getEventIpcManager();
+        return ipcManager == null ? 0L : ipcManager.getListenerEventsDelivered();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getListenerEventsDropped() {
+        final EventIpcManagerDefaultImpl ipcManager = getDaemon().getEventIpcManager();
+        return ipcManager == null ? 0L : ipcManager.getListenerEventsDropped();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getListenerStats() {
+        final EventIpcManagerDefaultImpl ipcManager = getDaemon().getEventIpcManager();
+        return ipcManager == null ? "" : ipcManager.getListenerStats();
+    }
 }
@@ -37,4 +37,27 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  * @version $Id: $
  */
 public interface EventdMBean extends BaseOnmsMBean {
+    /** @return The number of events expanded since Eventd was last started */
+    public long getEventsExpanded();
+
+    /** @return The total time, in nanoseconds, spent looking up event configurations */
+    public long getEventLookupTime();
+
+    /** @return The total time, in nanoseconds, spent copying event configurations and building varbind decodes */
+    public long getEventDecodeTime();
+
+    /** @return The total time, in nanoseconds, spent expanding event parms */
+    public long getEventExpansionTime();
+
+    /** @return The number of events waiting in event listener queues */
+    public long getListenerQueueDepth();
+
+    /** @return The number of events delivered to event listeners */
+    public long getListenerEventsDelivered();
+
+    /** @return The number of events discarded because an event listener's queue was full */
+    public long getListenerEventsDropped();
+
+    /** @return Per-listener queue depth, event counts and processing time histograms */
+    public String getListenerStats();
 }
@@ -0,0 +1,488 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.eventd.EventdConstants;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * An {@link EventWriter} that group-commits events into the database.
+ *
+ * Calls to {@link #process(Header, Event)} hand the event to a single writer
+ * thread and wait for it to be committed.  The writer collects events until
+ * either {@link #setBatchSize(int) batchSize} events are pending or
+ * {@link #setBatchDelay(long) batchDelay} milliseconds have passed since the
+ * first one arrived, and then inserts all of them with one JDBC batch in a
+ * single transaction.  Event ids are taken from blocks that are allocated
+ * ahead of time, so every caller still has its database id set on the event
+ * before {@link #process(Header, Event)} returns and the event is broadcast.
+ *
+ * Since each eventd handler thread waits for its own event, the number of
+ * events that can be combined into one batch is bounded by the number of
+ * eventd receivers.
+ *
+ * If a batch fails, the events in it are retried one at a time so that a
+ * single bad event does not cause the others to be lost.
+ *
+ * A caller waits at most {@link #setWriteTimeout(long) writeTimeout}
+ * milliseconds for its event to be written, and every event that is queued
+ * when the writer stops is failed, so no eventd thread is left waiting.
+ *
+ * @see JdbcEventWriter
+ */
+public final class BatchingJdbcEventWriter extends AbstractJdbcPersister implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingJdbcEventWriter.class);
+
+    private static class PendingEvent {
+        private final Header m_header;
+        private final Event m_event;
+        private final CountDownLatch m_written = new CountDownLatch(1);
+        private volatile Throwable m_failure;
+
+        public PendingEvent(final Header header, final Event event) {
+            m_header = header;
+            m_event = event;
+        }
+
+        public void complete(final Throwable failure) {
+            m_failure = failure;
+            m_written.countDown();
+        }
+    }
+
+    private int m_batchSize = 100;
+
+    private long m_batchDelay = 10;
+
+    private long m_writeTimeout = 60000;
+
+    private String m_getNextIdBlockString;
+
+    private final BlockingQueue<PendingEvent> m_pending = new LinkedBlockingQueue<PendingEvent>();
+
+    /**
+     * Ids that have been taken from the sequence but not used yet.  Only
+     * accessed from the writer thread.
+     */
+    private final Deque<Integer> m_allocatedIds = new ArrayDeque<Integer>();
+
+    /**
+     * Hostnames resolved for the current batch.  Only accessed from the
+     * writer thread.
+     */
+    private final Map<String, String> m_batchHostNames = new HashMap<String, String>();
+
+    private ExecutorService m_writer;
+
+    private volatile boolean m_running = false;
+
+    private final AtomicLong m_eventsWritten = new AtomicLong();
+    private final AtomicLong m_batchesWritten = new AtomicLong();
+    private final AtomicLong m_batchesFailed = new AtomicLong();
+    private final AtomicLong m_writeTime = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        super.afterPropertiesSet();
+        Assert.state(m_batchSize > 0, "property batchSize must be greater than zero");
+        Assert.state(m_batchDelay >= 0, "property batchDelay must not be negative");
+        Assert.state(m_writeTimeout > 0, "property writeTimeout must be greater than zero");
+
+        m_running = true;
+        m_writer = Executors.newSingleThreadExecutor(new LogPreservingThreadFactory(getClass().getSimpleName(), 1));
+        m_writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        });
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        m_running = false;
+        if (m_writer != null) {
+            m_writer.shutdown();
+            if (!m_writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warn("Timed out waiting for {} pending events to be written.", m_pending.size());
+                m_writer.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the event for the next batch and waits until it has been
+     * written.
+     */
+    @Override
+    public void process(final Header eventHeader, final Event event) throws EventProcessorException {
+        if (!checkEventSanityAndDoWeProcess(event, "BatchingJdbcEventWriter")) {
+            return;
+        }
+        if (!m_running) {
+            throw new EventProcessorException("BatchingJdbcEventWriter is not running");
+        }
+
+        LOG.debug("BatchingJdbcEventWriter: queueing {} nodeid: {} ipaddr: {} serviceid: {} time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+
+        final PendingEvent pending = new PendingEvent(eventHeader, event);
+        try {
+            m_pending.put(pending);
+            if (!m_running && m_pending.remove(pending)) {
+                // the writer may already have failed the pending events and exited
+                throw new EventProcessorException("BatchingJdbcEventWriter was stopped before the event was written");
+            }
+            if (!pending.m_written.await(m_writeTimeout, TimeUnit.MILLISECONDS)) {
+                m_pending.remove(pending);
+                throw new EventProcessorException("Timed out after " + m_writeTimeout + "ms waiting for event " + event.getUei() + " to be written");
+            }
+        } catch (final InterruptedException e) {
+            m_pending.remove(pending);
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException(e);
+        }
+
+        if (pending.m_failure != null) {
+            throw new EventProcessorException(pending.m_failure);
+        }
+    }
+
+    private void writeBatches() {
+        final List<PendingEvent> batch = new ArrayList<PendingEvent>(m_batchSize);
+        while (m_running || !m_pending.isEmpty()) {
+            try {
+                final PendingEvent first = m_pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_batchDelay);
+                while (batch.size() < m_batchSize) {
+                    m_pending.drainTo(batch, m_batchSize - batch.size());
+                    final long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= m_batchSize || remaining <= 0) {
+                        break;
+                    }
+                    final PendingEvent next = m_pending.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                writeBatch(batch);
+            } catch (final InterruptedException e) {
+                LOG.warn("Interrupted while waiting for events to write.", e);
+                for (final PendingEvent pending : batch) {
+                    pending.complete(e);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final Throwable t) {
+                LOG.error("Unexpected error while writing events.", t);
+                for (final PendingEvent pending : batch) {
+                    pending.complete(t);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+
+        // don't leave anybody waiting on an event that will never be written
+        PendingEvent pending;
+        while ((pending = m_pending.poll()) != null) {
+            pending.complete(new IllegalStateException("BatchingJdbcEventWriter was stopped before the event was written"));
+        }
+    }
+
+    private void writeBatch(final List<PendingEvent> batch) {
+        final long start = System.nanoTime();
+        m_batchHostNames.clear();
+
+        try {
+            allocateIds(batch.size());
+        } catch (final Throwable t) {
+            LOG.warn("Unable to allocate {} event ids.", batch.size(), t);
+            for (final PendingEvent pending : batch) {
+                pending.complete(t);
+            }
+            return;
+        }
+
+        for (final PendingEvent pending : batch) {
+            final int eventID = m_allocatedIds.removeFirst();
+            synchronized (pending.m_event) {
+                pending.m_event.setDbid(eventID);
+            }
+        }
+
+        try {
+            insertEvents(batch);
+            m_batchesWritten.incrementAndGet();
+            m_eventsWritten.addAndGet(batch.size());
+            for (final PendingEvent pending : batch) {
+                pending.complete(null);
+            }
+            LOG.debug("Wrote a batch of {} events.", batch.size());
+        } catch (final Throwable t) {
+            m_batchesFailed.incrementAndGet();
+            LOG.warn("Error inserting a batch of {} events into the datastore, retrying them individually.", batch.size(), t);
+            for (final PendingEvent pending : batch) {
+                try {
+                    insertEvents(Collections.singletonList(pending));
+                    m_eventsWritten.incrementAndGet();
+                    pending.complete(null);
+                } catch (final Throwable t2) {
+                    LOG.warn("Error inserting event {} into the datastore.", pending.m_event.getUei(), t2);
+                    pending.complete(t2);
+                }
+            }
+        } finally {
+            m_writeTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void insertEvents(final List<PendingEvent> batch) throws SQLException {
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Connection connection = getDataSource().getConnection();
+            d.watch(connection);
+            connection.setAutoCommit(false);
+
+            try {
+                final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
+                d.watch(insStmt);
+
+                for (final PendingEvent pending : batch) {
+                    bindEventInsert(insStmt, pending.m_header, pending.m_event, pending.m_event.getDbid());
+                    insStmt.addBatch();
+                }
+                insStmt.executeBatch();
+
+                connection.commit();
+            } catch (final SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (final Throwable e2) {
+                    LOG.warn("Rollback of transaction failed.", e2);
+                }
+                throw e;
+            } catch (final RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (final Throwable e2) {
+                    LOG.warn("Rollback of transaction failed.", e2);
+                }
+                throw e;
+            }
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Makes sure there are at least <code>count</code> ids in the allocated
+     * id block, fetching a new block of at least {@link #getBatchSize()} ids
+     * when it runs low.
+     */
+    private void allocateIds(final int count) throws SQLException {
+        if (m_allocatedIds.size() >= count) {
+            return;
+        }
+
+        final int needed = Math.max(count, m_batchSize) - m_allocatedIds.size();
+        if (m_getNextIdBlockString != null) {
+            final List<Integer> ids = new JdbcTemplate(getDataSource()).queryForList(m_getNextIdBlockString, Integer.class, needed);
+            m_allocatedIds.addAll(ids);
+        } else {
+            for (int i = 0; i < needed; i++) {
+                m_allocatedIds.addLast(getNextId());
+            }
+        }
+
+        if (m_allocatedIds.size() < count) {
+            throw new SQLException("Expected at least " + count + " event ids but only " + m_allocatedIds.size() + " were allocated");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Host names are remembered for the duration of a batch since bursts
+     * tend to come from the same few nodes.
+     */
+    @Override
+    protected String getEventHost(final Event event) {
+        if (event.getHost() == null || !event.hasNodeid()) {
+            return super.getEventHost(event);
+        }
+
+        final String key = event.getNodeid() + ":" + event.getHost();
+        String hostName = m_batchHostNames.get(key);
+        if (hostName == null) {
+            hostName = super.getEventHost(event);
+            m_batchHostNames.put(key, hostName);
+        }
+        return hostName;
+    }
+
+    /**
+     * <p>getBatchSize</p>
+     *
+     * @return the maximum number of events written in one batch
+     */
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * <p>setBatchSize</p>
+     *
+     * @param batchSize the maximum number of events written in one batch
+     */
+    public void setBatchSize(final int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    /**
+     * <p>getBatchDelay</p>
+     *
+     * @return the maximum time, in milliseconds, to wait for more events
+     * before writing a batch
+     */
+    public long getBatchDelay() {
+        return m_batchDelay;
+    }
+
+    /**
+     * <p>setBatchDelay</p>
+     *
+     * @param batchDelay the maximum time, in milliseconds, to wait for more
+     * events before writing a batch
+     */
+    public void setBatchDelay(final long batchDelay) {
+        m_batchDelay = batchDelay;
+    }
+
+    /**
+     * <p>getWriteTimeout</p>
+     *
+     * @return the maximum time, in milliseconds, that a caller waits for its
+     * event to be written
+     */
+    public long getWriteTimeout() {
+        return m_writeTimeout;
+    }
+
+    /**
+     * <p>setWriteTimeout</p>
+     *
+     * @param writeTimeout the maximum time, in milliseconds, that a caller
+     * waits for its event to be written
+     */
+    public void setWriteTimeout(final long writeTimeout) {
+        m_writeTimeout = writeTimeout;
+    }
+
+    /**
+     * <p>getGetNextIdBlockString</p>
+     *
+     * @return the SQL query used to allocate a block of event ids
+     */
+    public String getGetNextIdBlockString() {
+        return m_getNextIdBlockString;
+    }
+
+    /**
+     * Sets an SQL query that returns one event id per row and takes the
+     * number of ids as its only parameter, for example
+     * <code>SELECT nextval('eventsNxtId') FROM generate_series(1, ?)</code>.
+     * If this is not set, ids are allocated one at a time using
+     * {@link #getGetNextIdString()}.
+     *
+     * @param getNextIdBlockString a {@link java.lang.String} object.
+     */
+    public void setGetNextIdBlockString(final String getNextIdBlockString) {
+        m_getNextIdBlockString = getNextIdBlockString;
+    }
+
+    public long getEventsWritten() {
+        return m_eventsWritten.get();
+    }
+
+    public long getBatchesWritten() {
+        return m_batchesWritten.get();
+    }
+
+    public long getBatchesFailed() {
+        return m_batchesFailed.get();
+    }
+
+    /**
+     * @return the total time, in nanoseconds, spent writing batches
+     */
+    public long getWriteTime() {
+        return m_writeTime.get();
+    }
+
+    public int getPendingEvents() {
+        return m_pending.size();
+    }
+}
@@ -33,6 +33,8 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -425,6 +427,113 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
     }
     
+    public void testBroadcastThenAddEventListenerWithUeiPartAndBroadcast() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo/bar", "testBroadcastThenAddEventListenerWithUeiPartAndBroadcast");
+        Event e = bldr.getEvent();
+        
+        m_mocks.replayAll();
+
+        // the first broadcast caches the (empty) listener list for this UEI
+        m_manager.broadcastNow(e);
+        m_manager.addEventListener(m_listener, "uei.opennms.org/foo/");
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+        
+        m_mocks.verifyAll();
+        
+        assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
+        assertEquals("unexpected extra events", 0, m_listener.getEvents().size());
+        assertEquals("events delivered", 1, m_manager.getListenerEventsDelivered());
+    }
+    
+    public void testRemoveEventListenerWithUeiAfterBroadcast() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testRemoveEventListenerWithUeiAfterBroadcast");
+        Event e = bldr.getEvent();
+        
+        m_mocks.replayAll();
+
+        m_manager.addEventListener(m_listener, e.getUei());
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+        assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
+
+        m_manager.removeEventListener(m_listener, e.getUei());
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+        
+        m_mocks.verifyAll();
+    }
+    
+    public void testFullListenerQueueIsCounted() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testFullListenerQueueIsCounted");
+        Event e = bldr.getEvent();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        EventListener slowListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "slow listener";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl();
+        manager.setEventHandler(m_eventHandler);
+        manager.setHandlerPoolSize(5);
+        manager.setHandlerQueueLength(1);
+        manager.afterPropertiesSet();
+
+        m_mocks.replayAll();
+
+        manager.addEventListener(slowListener, e.getUei());
+        manager.broadcastNow(e);
+        assertTrue("listener never started", blocked.await(5, TimeUnit.SECONDS));
+
+        // one event fills the queue, the next two are discarded
+        manager.broadcastNow(e);
+        manager.broadcastNow(e);
+        manager.broadcastNow(e);
+        assertEquals("queue depth", 1, manager.getListenerQueueDepth());
+        assertEquals("events dropped", 2, manager.getListenerEventsDropped());
+
+        release.countDown();
+        manager.removeEventListener(slowListener);
+
+        m_mocks.verifyAll();
+    }
+
+    public void testListenerTotalsSurviveListenerRemoval() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testListenerTotalsSurviveListenerRemoval");
+        Event e = bldr.getEvent();
+        
+        m_mocks.replayAll();
+
+        m_manager.addEventListener(m_listener, e.getUei());
+        m_manager.broadcastNow(e);
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+        assertEquals("events delivered", 2, m_manager.getListenerEventsDelivered());
+
+        m_manager.removeEventListener(m_listener);
+        assertEquals("events delivered after removing the listener", 2, m_manager.getListenerEventsDelivered());
+        assertEquals("events dropped after removing the listener", 0, m_manager.getListenerEventsDropped());
+
+        m_manager.addEventListener(m_listener, e.getUei());
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+        assertEquals("events delivered after adding the listener again", 3, m_manager.getListenerEventsDelivered());
+        
+        m_mocks.verifyAll();
+    }
 
     /**
      * This is the type of exception we want to catch.
@@ -99,6 +99,7 @@ public class EventExpanderTest extends TestCase {
         expander.expandEvent(event);
         
         assertEquals("event UEI", uei, event.getUei());
+        assertEquals("events expanded", 1, expander.getEventsExpanded());
         //assertNotNull("event description should not be null after expandEvent is called", event.getDescr());
         //
         //String matchText = "During a rescan";
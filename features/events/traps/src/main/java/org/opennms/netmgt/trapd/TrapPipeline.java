@@ -0,0 +1,664 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.events.api.EventIpcManager;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.snmp.TrapNotification;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * <p>A staged pipeline that takes received traps through the work that
+ * {@link TrapQueueProcessor} does in a single call:</p>
+ *
+ * <ol>
+ * <li><b>receive</b>: {@link #trapReceived(TrapNotification)} is called on the SNMP
+ * listener thread and never blocks it. If the decode queue is full, the
+ * {@link OverflowPolicy} is applied.</li>
+ * <li><b>decode</b>: parses the trap into an event. This includes the IP address to
+ * node ID lookup done by {@link EventCreator}.</li>
+ * <li><b>enrich</b>: matches the event against eventconf to assign its UEI and drops
+ * traps configured as <code>discardtraps</code>.</li>
+ * <li><b>forward</b>: sends the event, and any newSuspect event, to eventd.</li>
+ * </ol>
+ *
+ * <p>Each stage reads from its own bounded queue and has its own number of threads.
+ * A stage whose successor is full blocks, so backpressure moves up the pipeline
+ * until it reaches the receive stage. Traps are only reordered when a stage
+ * has more than one thread.</p>
+ *
+ * <p>Each stage counts its traps and failures and tracks its queue wait and
+ * service times. The totals are available through {@link #getStats()} and
+ * the Trapd MBean.</p>
+ */
+public class TrapPipeline implements InitializingBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrapPipeline.class);
+
+    public static final String TRAPS_AGGREGATED_EVENT_UEI = "uei.opennms.org/internal/trapd/trapsAggregated";
+
+    private static final String LOCALHOST_ADDRESS = InetAddressUtils.getLocalHostName();
+
+    /**
+     * What to do with a trap that arrives while the decode queue is full.
+     */
+    public static enum OverflowPolicy {
+        /** Discard the oldest queued trap to make room for the new one. */
+        DROP_OLDEST,
+        /** Queue one in every <code>sampleRate</code> overflowing traps, in place of the oldest queued trap, and discard the rest. */
+        SAMPLE,
+        /**
+         * Decode the overflowing trap on the receiving thread and count it by agent and trap identity.
+         * The counts are periodically sent as {@link TrapPipeline#TRAPS_AGGREGATED_EVENT_UEI} events.
+         */
+        AGGREGATE
+    }
+
+    private TrapQueueProcessorFactory m_processorFactory;
+
+    private int m_queueSize = 10000;
+
+    private int m_decodeThreads = 1;
+
+    private int m_enrichThreads = 1;
+
+    private int m_forwardThreads = 1;
+
+    private OverflowPolicy m_overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    private int m_sampleRate = 10;
+
+    private long m_aggregationInterval = 10000;
+
+    private int m_maxAggregates = 1000;
+
+    private Stage m_decode;
+
+    private Stage m_enrich;
+
+    private Stage m_forward;
+
+    private ScheduledExecutorService m_aggregationFlusher;
+
+    private final ConcurrentMap<String, TrapAggregate> m_aggregates = new ConcurrentHashMap<String, TrapAggregate>();
+
+    private volatile boolean m_running = false;
+
+    private long m_startTime;
+
+    private final AtomicLong m_received = new AtomicLong();
+
+    private final AtomicLong m_overflowed = new AtomicLong();
+
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    private final AtomicLong m_aggregated = new AtomicLong();
+
+    private final AtomicLong m_completedLatency = new AtomicLong();
+
+    /**
+     * A trap moving through the pipeline.
+     */
+    private static final class TrapWork {
+        private final TrapQueueProcessor m_processor;
+        private final long m_receivedAt;
+        private long m_enqueuedAt;
+        private Event m_event;
+
+        private TrapWork(final TrapQueueProcessor processor) {
+            m_processor = processor;
+            m_receivedAt = System.nanoTime();
+            m_enqueuedAt = m_receivedAt;
+        }
+    }
+
+    /**
+     * Overflowed traps counted by agent and trap identity.
+     */
+    private static final class TrapAggregate {
+        private final Event m_event;
+        private final AtomicLong m_count = new AtomicLong();
+
+        private TrapAggregate(final Event event) {
+            m_event = event;
+        }
+    }
+
+    /**
+     * One step of the pipeline: a bounded queue, the threads that work it, and its metrics.
+     */
+    private abstract class Stage implements Runnable {
+        private final String m_name;
+        private final int m_threads;
+        private final BlockingQueue<TrapWork> m_queue;
+        private final Stage m_next;
+        private ExecutorService m_executor;
+        private volatile boolean m_stageRunning;
+
+        private final AtomicLong m_processed = new AtomicLong();
+        private final AtomicLong m_failed = new AtomicLong();
+        private final AtomicLong m_waitTime = new AtomicLong();
+        private final AtomicLong m_serviceTime = new AtomicLong();
+
+        private Stage(final String name, final int threads, final Stage next) {
+            m_name = name;
+            m_threads = threads;
+            m_queue = new ArrayBlockingQueue<TrapWork>(m_queueSize);
+            m_next = next;
+        }
+
+        /**
+         * @return true if the trap should be passed on to the next stage
+         */
+        protected abstract boolean process(TrapWork work) throws Exception;
+
+        private void start() {
+            m_stageRunning = true;
+            m_executor = Executors.newFixedThreadPool(m_threads, new StageThreadFactory(m_name));
+            for (int i = 0; i < m_threads; i++) {
+                m_executor.execute(Logging.preserve(this));
+            }
+        }
+
+        /**
+         * Stops the stage once its queue has been drained.
+         */
+        private void stop() throws InterruptedException {
+            m_stageRunning = false;
+            m_executor.shutdown();
+            if (!m_executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warn("The {} stage did not finish within 30 seconds; {} traps are left unprocessed", m_name, m_queue.size());
+                m_executor.shutdownNow();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (m_stageRunning || !m_queue.isEmpty()) {
+                    final TrapWork work = m_queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (work != null) {
+                        handle(work);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void handle(final TrapWork work) throws InterruptedException {
+            final long start = System.nanoTime();
+            m_waitTime.addAndGet(start - work.m_enqueuedAt);
+
+            boolean passOn;
+            try {
+                passOn = process(work);
+            } catch (final Throwable e) {
+                TrapQueueProcessor.handleError(e);
+                m_failed.incrementAndGet();
+                passOn = false;
+            }
+
+            final long end = System.nanoTime();
+            m_serviceTime.addAndGet(end - start);
+            m_processed.incrementAndGet();
+
+            if (passOn) {
+                if (m_next != null) {
+                    work.m_enqueuedAt = end;
+                    // block when the next stage is full so that backpressure reaches the receive stage
+                    m_next.m_queue.put(work);
+                } else {
+                    m_completedLatency.addAndGet(end - work.m_receivedAt);
+                }
+            }
+        }
+
+        private long getCompleted() {
+            return m_processed.get() - m_failed.get();
+        }
+
+        private void appendStats(final StringBuilder buf) {
+            final long processed = m_processed.get();
+            buf.append(m_name)
+                .append("[threads=").append(m_threads)
+                .append(", queued=").append(m_queue.size()).append('/').append(m_queueSize)
+                .append(", processed=").append(processed)
+                .append(", failed=").append(m_failed.get())
+                .append(", avgWaitMs=").append(average(m_waitTime.get(), processed))
+                .append(", avgServiceMs=").append(average(m_serviceTime.get(), processed))
+                .append(']');
+        }
+    }
+
+    private static final class StageThreadFactory implements ThreadFactory {
+        private final String m_name;
+        private final AtomicInteger m_count = new AtomicInteger();
+
+        private StageThreadFactory(final String name) {
+            m_name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "TrapPipeline-" + m_name + "-" + m_count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(m_processorFactory != null, "processorFactory must be set");
+        Assert.state(m_queueSize > 0, "queueSize must be greater than zero");
+        Assert.state(m_decodeThreads > 0 && m_enrichThreads > 0 && m_forwardThreads > 0, "each stage must have at least one thread");
+        Assert.state(m_sampleRate > 0, "sampleRate must be greater than zero");
+        Assert.state(m_aggregationInterval > 0, "aggregationInterval must be greater than zero");
+    }
+
+    /**
+     * Starts the worker threads of each stage.
+     */
+    public synchronized void start() {
+        if (m_running) {
+            return;
+        }
+
+        m_forward = new Stage("forward", m_forwardThreads, null) {
+            @Override
+            protected boolean process(final TrapWork work) {
+                work.m_processor.forward(work.m_event);
+                return true;
+            }
+        };
+        m_enrich = new Stage("enrich", m_enrichThreads, m_forward) {
+            @Override
+            protected boolean process(final TrapWork work) {
+                return work.m_processor.enrich(work.m_event);
+            }
+        };
+        m_decode = new Stage("decode", m_decodeThreads, m_enrich) {
+            @Override
+            protected boolean process(final TrapWork work) {
+                work.m_event = work.m_processor.decode();
+                return true;
+            }
+        };
+
+        m_forward.start();
+        m_enrich.start();
+        m_decode.start();
+
+        if (m_overflowPolicy == OverflowPolicy.AGGREGATE) {
+            m_aggregationFlusher = Executors.newSingleThreadScheduledExecutor(new StageThreadFactory("aggregate"));
+            m_aggregationFlusher.scheduleWithFixedDelay(Logging.preserve(new Runnable() {
+                @Override
+                public void run() {
+                    flushAggregates();
+                }
+            }), m_aggregationInterval, m_aggregationInterval, TimeUnit.MILLISECONDS);
+        }
+
+        m_startTime = System.currentTimeMillis();
+        m_running = true;
+        LOG.info("Started trap pipeline: queueSize={}, threads decode/enrich/forward={}/{}/{}, overflowPolicy={}",
+                 m_queueSize, m_decodeThreads, m_enrichThreads, m_forwardThreads, m_overflowPolicy);
+    }
+
+    /**
+     * Stops accepting traps and waits for the traps already queued to be
+     * forwarded.
+     */
+    public synchronized void stop() {
+        if (!m_running) {
+            return;
+        }
+        m_running = false;
+
+        try {
+            // stop the stages front to back so each one drains into a still running successor
+            m_decode.stop();
+            m_enrich.stop();
+            m_forward.stop();
+        } catch (final InterruptedException e) {
+            LOG.warn("Interrupted while stopping the trap pipeline", e);
+            Thread.currentThread().interrupt();
+        }
+
+        if (m_aggregationFlusher != null) {
+            m_aggregationFlusher.shutdownNow();
+            m_aggregationFlusher = null;
+            flushAggregates();
+        }
+        LOG.info("Stopped trap pipeline: {}", getStats());
+    }
+
+    /**
+     * The receive stage.  Queues the trap for decoding without blocking the caller.
+     *
+     * @param trapNotification the received trap
+     */
+    public void trapReceived(final TrapNotification trapNotification) {
+        m_received.incrementAndGet();
+        if (!m_running) {
+            LOG.debug("Discarding trap received while the trap pipeline is stopped");
+            m_dropped.incrementAndGet();
+            return;
+        }
+
+        final TrapWork work = new TrapWork(m_processorFactory.getInstance(trapNotification));
+        if (m_decode.m_queue.offer(work)) {
+            return;
+        }
+
+        final long overflowed = m_overflowed.incrementAndGet();
+        switch (m_overflowPolicy) {
+        case SAMPLE:
+            if (overflowed % m_sampleRate == 0) {
+                replaceOldest(work);
+            } else {
+                m_dropped.incrementAndGet();
+            }
+            break;
+        case AGGREGATE:
+            aggregate(work);
+            break;
+        case DROP_OLDEST:
+        default:
+            replaceOldest(work);
+            break;
+        }
+
+        if (overflowed == 1 || overflowed % 1000 == 0) {
+            LOG.warn("Trap pipeline is full; {} traps have overflowed the decode queue ({} policy), {} dropped", overflowed, m_overflowPolicy, m_dropped.get());
+        }
+    }
+
+    private void replaceOldest(final TrapWork work) {
+        while (!m_decode.m_queue.offer(work)) {
+            if (m_decode.m_queue.poll() != null) {
+                m_dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private void aggregate(final TrapWork work) {
+        final Event event;
+        try {
+            event = work.m_processor.decode();
+        } catch (final Throwable e) {
+            TrapQueueProcessor.handleError(e);
+            return;
+        }
+
+        final String key = getAggregationKey(event);
+        TrapAggregate aggregate = m_aggregates.get(key);
+        if (aggregate == null) {
+            if (m_aggregates.size() >= m_maxAggregates) {
+                m_dropped.incrementAndGet();
+                return;
+            }
+            aggregate = new TrapAggregate(event);
+            final TrapAggregate existing = m_aggregates.putIfAbsent(key, aggregate);
+            if (existing != null) {
+                aggregate = existing;
+            }
+        }
+        aggregate.m_count.incrementAndGet();
+        m_aggregated.incrementAndGet();
+    }
+
+    private static String getAggregationKey(final Event event) {
+        final StringBuilder key = new StringBuilder(64).append(event.getInterface());
+        final Snmp snmp = event.getSnmp();
+        if (snmp != null) {
+            key.append('|').append(snmp.getId())
+                .append('|').append(snmp.getGeneric())
+                .append('|').append(snmp.getSpecific());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Sends one {@link #TRAPS_AGGREGATED_EVENT_UEI} event for each agent and trap identity that has
+     * been aggregated since the last flush.
+     */
+    void flushAggregates() {
+        final EventIpcManager eventManager = m_processorFactory.getEventManager();
+        for (final Map.Entry<String, TrapAggregate> entry : m_aggregates.entrySet()) {
+            final TrapAggregate aggregate = entry.getValue();
+            final long count = aggregate.m_count.getAndSet(0);
+            if (count == 0) {
+                // nothing seen since the last flush
+                m_aggregates.remove(entry.getKey(), aggregate);
+                continue;
+            }
+
+            final Event trap = aggregate.m_event;
+            final EventBuilder bldr = new EventBuilder(TRAPS_AGGREGATED_EVENT_UEI, "trapd");
+            bldr.setHost(LOCALHOST_ADDRESS);
+            bldr.setInterface(trap.getInterfaceAddress());
+            if (trap.hasNodeid()) {
+                bldr.setNodeid(trap.getNodeid());
+            }
+            final Snmp snmp = trap.getSnmp();
+            if (snmp != null) {
+                bldr.addParam("enterpriseId", snmp.getId());
+                if (snmp.hasGeneric()) {
+                    bldr.addParam("generic", snmp.getGeneric());
+                }
+                if (snmp.hasSpecific()) {
+                    bldr.addParam("specific", snmp.getSpecific());
+                }
+            }
+            bldr.addParam("count", count);
+            bldr.addParam("interval", m_aggregationInterval);
+
+            try {
+                eventManager.sendNow(bldr.getEvent());
+            } catch (final Throwable e) {
+                LOG.warn("Failed to send aggregated trap event for {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private static String average(final long totalNanos, final long count) {
+        if (count == 0) {
+            return "0";
+        }
+        return String.format("%.3f", totalNanos / (count * 1000000.0d));
+    }
+
+    /**
+     * @return the number of traps waiting in the queues of all stages
+     */
+    public long getQueueDepth() {
+        if (m_decode == null) {
+            return 0;
+        }
+        return m_decode.m_queue.size() + m_enrich.m_queue.size() + m_forward.m_queue.size();
+    }
+
+    /**
+     * @return the number of traps handed to the pipeline
+     */
+    public long getTrapsReceived() {
+        return m_received.get();
+    }
+
+    /**
+     * @return the number of traps discarded because the pipeline was full or stopped
+     */
+    public long getTrapsDropped() {
+        return m_dropped.get();
+    }
+
+    /**
+     * @return the number of overflowing traps counted into aggregated trap events
+     */
+    public long getTrapsAggregated() {
+        return m_aggregated.get();
+    }
+
+    /**
+     * @return the number of traps the forward stage sent to eventd
+     */
+    public long getTrapsForwarded() {
+        return m_forward == null ? 0 : m_forward.getCompleted();
+    }
+
+    /**
+     * @return a one line summary of the throughput, queue and latency of every stage
+     */
+    public String getStats() {
+        final StringBuilder buf = new StringBuilder(512);
+        final long forwarded = getTrapsForwarded();
+        final long elapsed = m_startTime == 0 ? 0 : System.currentTimeMillis() - m_startTime;
+        buf.append("receive[received=").append(m_received.get())
+            .append(", overflowed=").append(m_overflowed.get())
+            .append(", dropped=").append(m_dropped.get())
+            .append(", aggregated=").append(m_aggregated.get())
+            .append(", policy=").append(m_overflowPolicy)
+            .append(']');
+        if (m_decode != null) {
+            for (final Stage stage : new Stage[] { m_decode, m_enrich, m_forward }) {
+                buf.append(' ');
+                stage.appendStats(buf);
+            }
+        }
+        buf.append(" forwarded/sec=").append(elapsed == 0 ? 0 : forwarded * 1000 / elapsed)
+            .append(" avgLatencyMs=").append(average(m_completedLatency.get(), forwarded));
+        return buf.toString();
+    }
+
+    public TrapQueueProcessorFactory getProcessorFactory() {
+        return m_processorFactory;
+    }
+
+    public void setProcessorFactory(final TrapQueueProcessorFactory processorFactory) {
+        m_processorFactory = processorFactory;
+    }
+
+    public int getQueueSize() {
+        return m_queueSize;
+    }
+
+    /**
+     * @param queueSize the capacity of the queue in front of each stage
+     */
+    public void setQueueSize(final int queueSize) {
+        m_queueSize = queueSize;
+    }
+
+    public int getDecodeThreads() {
+        return m_decodeThreads;
+    }
+
+    public void setDecodeThreads(final int decodeThreads) {
+        m_decodeThreads = decodeThreads;
+    }
+
+    public int getEnrichThreads() {
+        return m_enrichThreads;
+    }
+
+    public void setEnrichThreads(final int enrichThreads) {
+        m_enrichThreads = enrichThreads;
+    }
+
+    public int getForwardThreads() {
+        return m_forwardThreads;
+    }
+
+    public void setForwardThreads(final int forwardThreads) {
+        m_forwardThreads = forwardThreads;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return m_overflowPolicy;
+    }
+
+    public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+        m_overflowPolicy = overflowPolicy;
+    }
+
+    public int getSampleRate() {
+        return m_sampleRate;
+    }
+
+    /**
+     * @param sampleRate with the SAMPLE policy, one in this many overflowing traps is queued
+     */
+    public void setSampleRate(final int sampleRate) {
+        m_sampleRate = sampleRate;
+    }
+
+    public long getAggregationInterval() {
+        return m_aggregationInterval;
+    }
+
+    /**
+     * @param aggregationInterval with the AGGREGATE policy, how often in milliseconds to send the counts
+     */
+    public void setAggregationInterval(final long aggregationInterval) {
+        m_aggregationInterval = aggregationInterval;
+    }
+
+    public int getMaxAggregates() {
+        return m_maxAggregates;
+    }
+
+    /**
+     * @param maxAggregates with the AGGREGATE policy, the number of distinct agent and trap identities
+     * to count before further overflowing traps are dropped
+     */
+    public void setMaxAggregates(final int maxAggregates) {
+        m_maxAggregates = maxAggregates;
+    }
+}
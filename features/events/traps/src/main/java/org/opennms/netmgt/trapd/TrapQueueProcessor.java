@@ -32,6 +32,7 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.net.InetAddress;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.api.EventConfDao;
@@ -85,15 +86,15 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
 
     private TrapNotification m_trapNotification;
     
-    private static long s_v1TrapsReceived = 0;
+    private static final AtomicLong s_v1TrapsReceived = new AtomicLong();
     
-    private static long s_v2cTrapsReceived = 0;
+    private static final AtomicLong s_v2cTrapsReceived = new AtomicLong();
     
-    private static long s_v3TrapsReceived = 0;
+    private static final AtomicLong s_v3TrapsReceived = new AtomicLong();
     
-    private static long s_trapsDiscarded = 0;
+    private static final AtomicLong s_trapsDiscarded = new AtomicLong();
     
-    private static long s_trapsErrored = 0;
+    private static final AtomicLong s_trapsErrored = new AtomicLong();
 
     /**
      * Process a V2 trap and convert it to an event for transmission.
@@ -165,24 +166,46 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
     @Override
     public Callable<Void> call() {
         try {
-            processTrapEvent(((EventCreator)m_trapNotification.getTrapProcessor()).getEvent());
-        } catch (IllegalArgumentException e) {
-            LOG.info(e.getMessage());
+            final Event event = decode();
+            if (enrich(event)) {
+                forward(event);
+            }
         } catch (Throwable e) {
-            LOG.error("Unexpected error processing trap: {}", e, e);
-            s_trapsErrored++;
+            handleError(e);
         }
         return null;
     }
 
     /**
-     * <p>processTrapEvent</p>
+     * Logs and counts an error thrown while decoding, enriching or
+     * forwarding a trap.
+     */
+    static void handleError(final Throwable e) {
+        if (e instanceof IllegalArgumentException) {
+            LOG.info(e.getMessage());
+        } else {
+            LOG.error("Unexpected error processing trap: {}", e, e);
+            s_trapsErrored.incrementAndGet();
+        }
+    }
+
+    /**
+     * Converts the trap into an event.  This parses the varbinds and looks up
+     * the node ID of the sending interface.
      *
-     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @return the event created from the trap
      */
-    private void processTrapEvent(final Event event) {
-    	final InetAddress trapInterface = event.getInterfaceAddress();
+    Event decode() {
+        return ((EventCreator)m_trapNotification.getTrapProcessor()).getEvent();
+    }
 
+    /**
+     * Matches the event against the event configuration to assign its UEI.
+     *
+     * @param event the event created from the trap
+     * @return false if the matching event configuration discards the trap
+     */
+    boolean enrich(final Event event) {
     	final org.opennms.netmgt.xml.eventconf.Event econf = m_eventConfDao.findByEvent(event);
         if (econf == null || econf.getUei() == null) {
             event.setUei("uei.opennms.org/default/trap");
@@ -194,11 +217,11 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
             final Snmp snmp = econf.getSnmp();
             if (snmp != null) {
                 if ("v1".equals(snmp.getVersion())) {
-                    s_v1TrapsReceived++;
+                    s_v1TrapsReceived.incrementAndGet();
                 } else if ("v2c".equals(snmp.getVersion())) {
-                    s_v2cTrapsReceived++;
+                    s_v2cTrapsReceived.incrementAndGet();
                 } else if ("v3".equals(snmp.getVersion())) {
-                    s_v3TrapsReceived++;
+                    s_v3TrapsReceived.incrementAndGet();
                 }
             }
             final Logmsg logmsg = econf.getLogmsg();
@@ -206,11 +229,22 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
                 final String dest = logmsg.getDest();
                 if ("discardtraps".equals(dest)) {
                     LOG.debug("Trap discarded due to matching event having logmsg dest == discardtraps");
-                    s_trapsDiscarded++;
-                    return;
+                    s_trapsDiscarded.incrementAndGet();
+                    return false;
                 }
             }
         }
+        return true;
+    }
+
+    /**
+     * Sends the event to eventd, followed by a newSuspect event if the trap
+     * came from an unknown interface and newSuspectOnTrap is enabled.
+     *
+     * @param event the enriched event
+     */
+    void forward(final Event event) {
+    	final InetAddress trapInterface = event.getInterfaceAddress();
 
         // send the event to eventd
         m_eventMgr.sendNow(event);
@@ -319,22 +353,22 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
     }
     
     public static long getV1TrapsReceived() {
-        return s_v1TrapsReceived;
+        return s_v1TrapsReceived.get();
     }
     
     public static long getV2cTrapsReceived() {
-        return s_v2cTrapsReceived;
+        return s_v2cTrapsReceived.get();
     }
     
     public static long getV3TrapsReceived() {
-        return s_v3TrapsReceived;
+        return s_v3TrapsReceived.get();
     }
     
     public static long getTrapsDiscarded() {
-        return s_trapsDiscarded;
+        return s_trapsDiscarded.get();
     }
     
     public static long getTrapsErrored() {
-        return s_trapsErrored;
+        return s_trapsErrored.get();
     }
 }
@@ -92,6 +92,11 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
      */
     private ExecutorService m_backlogQ;
 
+    /**
+     * The staged pipeline that processes traps, used instead of the backlogQ when set
+     */
+    private TrapPipeline m_trapPipeline;
+
     /**
      * The queue processing thread
      */
@@ -148,7 +153,11 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
     /** {@inheritDoc} */
     @Override
     public void trapReceived(TrapNotification trapNotification) {
-        m_backlogQ.submit(m_processorFactory.getInstance(trapNotification));
+        if (m_trapPipeline != null) {
+            m_trapPipeline.trapReceived(trapNotification);
+        } else {
+            m_backlogQ.submit(m_processorFactory.getInstance(trapNotification));
+        }
     }
 
     /**
@@ -158,7 +167,7 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
     public synchronized void onInit() {
         BeanUtils.assertAutowiring(this);
 
-        Assert.state(m_backlogQ != null, "backlogQ must be set");
+        Assert.state(m_backlogQ != null || m_trapPipeline != null, "backlogQ or trapPipeline must be set");
 
         try {
             m_trapdIpMgr.dataSourceSync();
@@ -167,6 +176,10 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
             throw new UndeclaredThrowableException(e);
         }
 
+        if (m_trapPipeline != null) {
+            m_trapPipeline.start();
+        }
+
         try {
         	InetAddress address = getInetAddress();
         	LOG.info("Listening on {}:{}", address == null ? "[all interfaces]" : InetAddressUtils.str(address), m_snmpTrapPort);
@@ -288,7 +301,12 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
 
         LOG.debug("stop: Stopping queue processor.");
 
-        m_backlogQ.shutdown();
+        if (m_trapPipeline != null) {
+            m_trapPipeline.stop();
+        }
+        if (m_backlogQ != null) {
+            m_backlogQ.shutdown();
+        }
 
         m_eventReader.close();
 
@@ -349,6 +367,24 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
         m_backlogQ = backlogQ;
     }
 
+    /**
+     * <p>getTrapPipeline</p>
+     *
+     * @return a {@link org.opennms.netmgt.trapd.TrapPipeline} object.
+     */
+    public TrapPipeline getTrapPipeline() {
+        return m_trapPipeline;
+    }
+
+    /**
+     * <p>setTrapPipeline</p>
+     *
+     * @param trapPipeline a {@link org.opennms.netmgt.trapd.TrapPipeline} object.
+     */
+    public void setTrapPipeline(TrapPipeline trapPipeline) {
+        m_trapPipeline = trapPipeline;
+    }
+
     public static String getLoggingCategory() {
         return LOG4J_CATEGORY;
     }
@@ -372,4 +408,24 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
     public long getTrapsErrored() {
         return TrapQueueProcessor.getTrapsErrored();
     }
+
+    public long getTrapQueueDepth() {
+        return m_trapPipeline == null ? 0L : m_trapPipeline.getQueueDepth();
+    }
+
+    public long getTrapsDropped() {
+        return m_trapPipeline == null ? 0L : m_trapPipeline.getTrapsDropped();
+    }
+
+    public long getTrapsAggregated() {
+        return m_trapPipeline == null ? 0L : m_trapPipeline.getTrapsAggregated();
+    }
+
+    public long getTrapsForwarded() {
+        return m_trapPipeline == null ? 0L : m_trapPipeline.getTrapsForwarded();
+    }
+
+    public String getTrapPipelineStats() {
+        return m_trapPipeline == null ? "" : m_trapPipeline.getStats();
+    }
 }
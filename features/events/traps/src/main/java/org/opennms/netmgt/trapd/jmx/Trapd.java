@@ -78,4 +78,34 @@ public class Trapd extends AbstractSpringContextJmxServiceDaemon<org.opennms.net
     public long getTrapsErrored() {
         return getDaemon().getTrapsErrored();
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapQueueDepth() {
+        return getDaemon().getTrapQueueDepth();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapsDropped() {
+        return getDaemon().getTrapsDropped();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapsAggregated() {
+        return getDaemon().getTrapsAggregated();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapsForwarded() {
+        return getDaemon().getTrapsForwarded();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getTrapPipelineStats() {
+        return getDaemon().getTrapPipelineStats();
+    }
 }
@@ -51,4 +51,19 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The number of traps waiting in the trap pipeline queues */
+    public long getTrapQueueDepth();
+
+    /** @return The number of traps dropped because the trap pipeline was full */
+    public long getTrapsDropped();
+
+    /** @return The number of traps counted into aggregated trap events because the trap pipeline was full */
+    public long getTrapsAggregated();
+
+    /** @return The number of traps forwarded to eventd by the trap pipeline */
+    public long getTrapsForwarded();
+
+    /** @return Per-stage queue depth, throughput and latency of the trap pipeline */
+    public String getTrapPipelineStats();
 }
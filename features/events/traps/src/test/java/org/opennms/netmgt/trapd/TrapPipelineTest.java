@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager.EmptyEventConfDao;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager.SendNowHook;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.TrapIdentity;
+import org.opennms.netmgt.snmp.TrapNotification;
+import org.opennms.netmgt.snmp.TrapProcessor;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+
+public class TrapPipelineTest {
+
+    private MockEventIpcManager m_eventMgr;
+    private MockTrapdIpMgr m_trapdIpMgr;
+    private TrapPipeline m_pipeline;
+    private final AtomicLong m_trapEvents = new AtomicLong();
+    private final AtomicLong m_aggregatedCount = new AtomicLong();
+    private final CountDownLatch m_eventdBlocked = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        m_trapdIpMgr = new MockTrapdIpMgr();
+
+        m_eventMgr = new MockEventIpcManager();
+        m_eventMgr.setSynchronous(true);
+        m_eventMgr.addEventListener(new EventListener() {
+            @Override
+            public String getName() {
+                return "TrapPipelineTest";
+            }
+
+            @Override
+            public void onEvent(final Event e) {
+                if ("uei.opennms.org/default/trap".equals(e.getUei())) {
+                    m_trapEvents.incrementAndGet();
+                } else if (TrapPipeline.TRAPS_AGGREGATED_EVENT_UEI.equals(e.getUei())) {
+                    for (final Parm parm : e.getParmCollection()) {
+                        if ("count".equals(parm.getParmName())) {
+                            m_aggregatedCount.addAndGet(Long.parseLong(parm.getValue().getContent()));
+                        }
+                    }
+                }
+            }
+        });
+
+        final TrapQueueProcessorFactory factory = new TrapQueueProcessorFactory();
+        factory.setEventManager(m_eventMgr);
+        factory.setEventConfDao(new EmptyEventConfDao());
+        factory.setNewSuspect(false);
+
+        m_pipeline = new TrapPipeline();
+        m_pipeline.setProcessorFactory(factory);
+    }
+
+    @After
+    public void tearDown() {
+        m_eventdBlocked.countDown();
+        m_pipeline.stop();
+    }
+
+    @Test
+    public void testTrapsAreForwarded() throws Exception {
+        m_pipeline.setDecodeThreads(2);
+        m_pipeline.setEnrichThreads(2);
+        m_pipeline.afterPropertiesSet();
+        m_pipeline.start();
+
+        for (int i = 0; i < 100; i++) {
+            m_pipeline.trapReceived(createTrap(i % 5));
+        }
+        m_pipeline.stop();
+
+        assertEquals(100, m_pipeline.getTrapsReceived());
+        assertEquals(100, m_pipeline.getTrapsForwarded());
+        assertEquals(0, m_pipeline.getTrapsDropped());
+        assertEquals(0, m_pipeline.getQueueDepth());
+        assertEquals(100, m_trapEvents.get());
+        assertTrue(m_pipeline.getStats(), m_pipeline.getStats().contains("forward[threads=1, queued=0/10000, processed=100, failed=0"));
+    }
+
+    @Test
+    public void testDropOldestWhenFull() throws Exception {
+        m_pipeline.setQueueSize(2);
+        m_pipeline.setOverflowPolicy(TrapPipeline.OverflowPolicy.DROP_OLDEST);
+        m_pipeline.afterPropertiesSet();
+        m_pipeline.start();
+        blockEventd();
+
+        for (int i = 0; i < 50; i++) {
+            m_pipeline.trapReceived(createTrap(1));
+        }
+        assertTrue(m_pipeline.getTrapsDropped() > 0);
+        assertTrue(m_pipeline.getQueueDepth() <= 6);
+
+        m_eventdBlocked.countDown();
+        m_pipeline.stop();
+
+        assertEquals(51, m_pipeline.getTrapsForwarded() + m_pipeline.getTrapsDropped());
+        assertEquals(m_pipeline.getTrapsForwarded(), m_trapEvents.get());
+    }
+
+    @Test
+    public void testAggregateWhenFull() throws Exception {
+        m_pipeline.setQueueSize(1);
+        m_pipeline.setOverflowPolicy(TrapPipeline.OverflowPolicy.AGGREGATE);
+        m_pipeline.setAggregationInterval(60000);
+        m_pipeline.afterPropertiesSet();
+        m_pipeline.start();
+        blockEventd();
+
+        for (int i = 0; i < 50; i++) {
+            m_pipeline.trapReceived(createTrap(1));
+        }
+        assertTrue(m_pipeline.getTrapsAggregated() > 0);
+
+        m_eventdBlocked.countDown();
+        // stopping flushes the counts
+        m_pipeline.stop();
+
+        assertEquals(0, m_pipeline.getTrapsDropped());
+        assertEquals(51, m_pipeline.getTrapsForwarded() + m_pipeline.getTrapsAggregated());
+        assertEquals(m_pipeline.getTrapsAggregated(), m_aggregatedCount.get());
+    }
+
+    /**
+     * Makes eventd hang on the next event and waits for the forward stage to be stuck on it.
+     */
+    private void blockEventd() throws InterruptedException {
+        final CountDownLatch forwarding = new CountDownLatch(1);
+        m_eventMgr.setSendNowHook(new SendNowHook() {
+            @Override
+            public void beforeBroadcast(final Event event) {
+                forwarding.countDown();
+                try {
+                    m_eventdBlocked.await(30, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void afterBroadcast(final Event event) {
+            }
+
+            @Override
+            public void finishProcessingEvents() {
+            }
+        });
+        m_pipeline.trapReceived(createTrap(1));
+        assertTrue(forwarding.await(10, TimeUnit.SECONDS));
+    }
+
+    private TrapNotification createTrap(final int specific) {
+        final EventCreator creator = new EventCreator(m_trapdIpMgr);
+        return new TrapNotification() {
+            @Override
+            public TrapProcessor getTrapProcessor() {
+                creator.setVersion("v1");
+                creator.setCommunity("public");
+                creator.setAgentAddress(InetAddressUtils.addr("192.0.2.1"));
+                creator.setTrapAddress(InetAddressUtils.addr("192.0.2.1"));
+                creator.setTimeStamp(0);
+                creator.setTrapIdentity(new TrapIdentity(SnmpObjId.get(".1.3.6.1.4.1.5813"), 6, specific));
+                return creator;
+            }
+        };
+    }
+}
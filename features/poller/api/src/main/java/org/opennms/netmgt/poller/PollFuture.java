@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller;
+
+/**
+ * The pending result of an asynchronous poll.
+ *
+ * @see AsyncServiceMonitor
+ */
+public interface PollFuture {
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return the status of the poll, or null if it has not completed yet
+     */
+    PollStatus getStatus();
+
+    /**
+     * Complete the poll. Only the first status set is kept.
+     *
+     * @param status the status of the poll
+     */
+    void setStatus(PollStatus status);
+
+    /**
+     * <p>awaitFor</p>
+     *
+     * @return the status of the poll
+     * @throws InterruptedException
+     */
+    PollStatus awaitFor() throws InterruptedException;
+
+    /**
+     * <p>awaitForUninterruptibly</p>
+     *
+     * @return the status of the poll
+     */
+    PollStatus awaitForUninterruptibly();
+
+    /**
+     * <p>isDone</p>
+     */
+    boolean isDone();
+
+    /**
+     * Add a listener that is called once the poll completes, or right away
+     * if it already has.
+     */
+    PollFuture addListener(PollFutureListener listener);
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.poller.PollFuture;
+import org.opennms.netmgt.poller.PollFutureListener;
+import org.opennms.netmgt.poller.PollStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link PollFuture} completed by calling {@link #setStatus(PollStatus)}.
+ * Listeners are called on the thread that completes the poll.
+ */
+public class DefaultPollFuture implements PollFuture {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultPollFuture.class);
+
+    private PollStatus m_status;
+    private List<PollFutureListener> m_listeners = new ArrayList<PollFutureListener>(1);
+
+    /**
+     * <p>completed</p>
+     *
+     * @param status the status of the poll
+     * @return a future that has already completed
+     */
+    public static PollFuture completed(final PollStatus status) {
+        final DefaultPollFuture future = new DefaultPollFuture();
+        future.setStatus(status);
+        return future;
+    }
+
+    @Override
+    public synchronized PollStatus getStatus() {
+        return m_status;
+    }
+
+    @Override
+    public void setStatus(final PollStatus status) {
+        if (status == null) {
+            throw new IllegalArgumentException("status may not be null");
+        }
+        final List<PollFutureListener> listeners;
+        synchronized (this) {
+            if (m_status != null) {
+                return;
+            }
+            m_status = status;
+            listeners = m_listeners;
+            m_listeners = null;
+            notifyAll();
+        }
+        for (final PollFutureListener listener : listeners) {
+            notifyListener(listener);
+        }
+    }
+
+    @Override
+    public synchronized PollStatus awaitFor() throws InterruptedException {
+        while (m_status == null) {
+            wait();
+        }
+        return m_status;
+    }
+
+    @Override
+    public PollStatus awaitForUninterruptibly() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return awaitFor();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return m_status != null;
+    }
+
+    @Override
+    public PollFuture addListener(final PollFutureListener listener) {
+        synchronized (this) {
+            if (m_status == null) {
+                m_listeners.add(listener);
+                return this;
+            }
+        }
+        notifyListener(listener);
+        return this;
+    }
+
+    private void notifyListener(final PollFutureListener listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (final Throwable t) {
+            LOG.warn("Poll listener {} threw an exception", listener, t);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DefaultPollFuture [status=" + getStatus() + "]";
+    }
+}
@@ -34,9 +34,9 @@ import java.util.Map;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
+import org.opennms.web.rest.measurements.ColumnarExpressionEngine;
 import org.opennms.web.rest.measurements.ExpressionEngine;
 import org.opennms.web.rest.measurements.ExpressionException;
-import org.opennms.web.rest.measurements.JEXLExpressionEngine;
 import org.opennms.web.rest.measurements.fetch.FetchResults;
 import org.opennms.web.rest.measurements.fetch.MeasurementFetchStrategy;
 import org.opennms.web.rest.measurements.model.Expression;
@@ -92,7 +92,7 @@ public class MeasurementsRestService {
     @Autowired
     private MeasurementFetchStrategy m_fetchStrategy;
 
-    private final ExpressionEngine expressionEngine = new JEXLExpressionEngine();
+    private final ExpressionEngine expressionEngine = new ColumnarExpressionEngine();
 
     /**
      * Retrieves the measurements for a single attribute.
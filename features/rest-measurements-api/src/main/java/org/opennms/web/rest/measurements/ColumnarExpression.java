@@ -0,0 +1,1033 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression compiled to operate over whole columns of values.
+ *
+ * <p>The compiler accepts the subset of JEXL that measurement expressions use:
+ * numeric literals, the labels of sources and of previous expressions,
+ * <code>timestamp</code>, the constants of the fetch results, the arithmetic,
+ * comparison, logical and ternary operators (including their word forms) and
+ * the <code>math:</code> and <code>strictmath:</code> functions that take and
+ * return doubles. Each operator is applied to an entire column at a time,
+ * instead of evaluating the expression once per row.</p>
+ *
+ * <p>{@link #compile(String, Map, Map)} returns <code>null</code> for anything
+ * else, and for constructs whose result depends on the runtime types JEXL gives
+ * to literals (integer division, for instance). Rows for which JEXL's behaviour
+ * is not reproduced exactly (a division by zero, a NaN used in a comparison or
+ * as a condition, an integer result too large for a double) are flagged in the
+ * <code>fallback</code> array given to {@link #evaluate(double[][], int, boolean[])},
+ * and must be evaluated by JEXL instead.</p>
+ */
+final class ColumnarExpression {
+
+    /**
+     * Thrown by the parser when the expression uses a construct that is not
+     * compiled.
+     */
+    private static final class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 2659618331290381713L;
+
+        private UnsupportedExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    // The runtime classes a value can have when JEXL evaluates it
+    static final int DOUBLE = 1;
+    static final int FLOAT = 2;
+    static final int INTEGER = 4;
+    static final int BOOLEAN = 8;
+
+    // Integers with a larger magnitude are not exactly representable as doubles
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+    private final String m_expression;
+    private final String[] m_variables;
+    private final Node m_root;
+
+    private ColumnarExpression(String expression, String[] variables, Node root) {
+        m_expression = expression;
+        m_variables = variables;
+        m_root = root;
+    }
+
+    /**
+     * Compiles the given JEXL expression.
+     *
+     * @param expression the expression
+     * @param columns the names of the columns that can be referenced, with the
+     *        runtime classes ({@link #DOUBLE}, {@link #INTEGER}) of their values
+     * @param scalars the values of the other names that can be referenced
+     * @return the compiled expression, or <code>null</code> if it has to be
+     *         evaluated by JEXL
+     */
+    static ColumnarExpression compile(String expression, Map<String, Integer> columns, Map<String, Object> scalars) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            final Parser parser = new Parser(expression, columns, scalars);
+            final Node root = parser.parse();
+            if ((root.getTypes() & BOOLEAN) != 0) {
+                throw new UnsupportedExpressionException("non numeric result");
+            }
+            return new ColumnarExpression(expression, parser.getVariables(), root);
+        } catch (UnsupportedExpressionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the names of the columns referenced by the expression, in the
+     * order of the columns passed to {@link #evaluate(double[][], int, boolean[])}.
+     *
+     * @return the column names
+     */
+    String[] getVariables() {
+        return m_variables.clone();
+    }
+
+    /**
+     * Evaluates the expression over the given columns.
+     *
+     * @param columns the columns, in the order of {@link #getVariables()}
+     * @param numRows the number of rows to evaluate
+     * @param fallback set to true for every row that must be evaluated by JEXL
+     * @return a new column with the value of the expression for every row
+     */
+    double[] evaluate(double[][] columns, int numRows, boolean[] fallback) {
+        final double[] result = m_root.result(new Frame(columns, numRows, fallback), null);
+        // Never hand out one of the input columns
+        for (final double[] column : columns) {
+            if (result == column) {
+                return Arrays.copyOf(result, numRows);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return m_expression;
+    }
+
+    private static final class Frame {
+        private final double[][] m_columns;
+        private final int m_numRows;
+        private final boolean[] m_fallback;
+
+        private Frame(double[][] columns, int numRows, boolean[] fallback) {
+            m_columns = columns;
+            m_numRows = numRows;
+            m_fallback = fallback;
+        }
+    }
+
+    /**
+     * A node of the expression. Nodes are evaluated for the rows that are
+     * active, that is, all the rows when <code>active</code> is null. The
+     * values of the other rows are undefined. The returned column may be one
+     * of the input columns and must not be modified.
+     */
+    private static abstract class Node {
+        private final int m_types;
+
+        protected Node(int types) {
+            m_types = types;
+        }
+
+        final int getTypes() {
+            return m_types;
+        }
+
+        final boolean isNumeric() {
+            return (m_types & BOOLEAN) == 0;
+        }
+
+        final boolean isFloatingPoint() {
+            return (m_types & (INTEGER | BOOLEAN)) == 0;
+        }
+
+        abstract double[] evaluate(Frame frame, boolean[] active);
+
+        /**
+         * Evaluates the node as the result of the expression. JEXL returns the
+         * literal's Float object when the result is a float literal, and the
+         * value is parsed back from its toString().
+         */
+        double[] result(Frame frame, boolean[] active) {
+            return evaluate(frame, active);
+        }
+
+        /**
+         * Evaluates the node as a JEXL condition: any number other than zero is true.
+         */
+        final boolean[] test(Frame frame, boolean[] active) {
+            final double[] values = evaluate(frame, active);
+            final boolean[] result = new boolean[frame.m_numRows];
+            for (int i = 0; i < frame.m_numRows; i++) {
+                if (active == null || active[i]) {
+                    if (Double.isNaN(values[i])) {
+                        frame.m_fallback[i] = true;
+                    }
+                    result[i] = values[i] != 0.0;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Constant extends Node {
+        private final double m_value;
+        private final double m_result;
+
+        private Constant(int types, double value, double result) {
+            super(types);
+            m_value = value;
+            m_result = result;
+        }
+
+        private Constant(int types, double value) {
+            this(types, value, value);
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            final double[] values = new double[frame.m_numRows];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+
+        @Override
+        double[] result(Frame frame, boolean[] active) {
+            final double[] values = new double[frame.m_numRows];
+            Arrays.fill(values, m_result);
+            return values;
+        }
+    }
+
+    private static final class Column extends Node {
+        private final int m_index;
+
+        private Column(int types, int index) {
+            super(types);
+            m_index = index;
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            return frame.m_columns[m_index];
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node m_operand;
+
+        private Negate(Node operand) {
+            super(operand.getTypes());
+            m_operand = operand;
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            return negate(m_operand.evaluate(frame, active), frame.m_numRows);
+        }
+
+        @Override
+        double[] result(Frame frame, boolean[] active) {
+            return negate(m_operand.result(frame, active), frame.m_numRows);
+        }
+
+        private static double[] negate(double[] operand, int numRows) {
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                values[i] = -operand[i];
+            }
+            return values;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node m_operand;
+
+        private Not(Node operand) {
+            super(BOOLEAN);
+            m_operand = operand;
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            final boolean[] operand = m_operand.test(frame, active);
+            final double[] values = new double[frame.m_numRows];
+            for (int i = 0; i < frame.m_numRows; i++) {
+                values[i] = operand[i] ? 0.0 : 1.0;
+            }
+            return values;
+        }
+    }
+
+    private enum Operator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO,
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    private static final class Binary extends Node {
+        private final Operator m_operator;
+        private final Node m_left;
+        private final Node m_right;
+        private final boolean m_integral;
+
+        private Binary(int types, Operator operator, Node left, Node right) {
+            super(types);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+            // JEXL uses exact integer arithmetic unless an operand is a Double or a Float
+            m_integral = isNumeric() && !(left.isFloatingPoint() || right.isFloatingPoint());
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            final double[] left = m_left.evaluate(frame, active);
+            final double[] right = m_right.evaluate(frame, active);
+            final double[] values = new double[frame.m_numRows];
+            final int n = frame.m_numRows;
+            switch (m_operator) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    values[i] = left[i] + right[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < n; i++) {
+                    values[i] = left[i] - right[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < n; i++) {
+                    values[i] = left[i] * right[i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < n; i++) {
+                    if (right[i] == 0.0 && (active == null || active[i])) {
+                        frame.m_fallback[i] = true;
+                    }
+                    values[i] = left[i] / right[i];
+                }
+                break;
+            case MODULO:
+                for (int i = 0; i < n; i++) {
+                    if (right[i] == 0.0 && (active == null || active[i])) {
+                        frame.m_fallback[i] = true;
+                    }
+                    values[i] = left[i] % right[i];
+                }
+                break;
+            case EQ:
+                for (int i = 0; i < n; i++) {
+                    values[i] = equal(frame, active, i, left[i], right[i]) ? 1.0 : 0.0;
+                }
+                break;
+            case NE:
+                for (int i = 0; i < n; i++) {
+                    values[i] = equal(frame, active, i, left[i], right[i]) ? 0.0 : 1.0;
+                }
+                break;
+            case LT:
+                for (int i = 0; i < n; i++) {
+                    values[i] = left[i] < right[i] ? 1.0 : 0.0;
+                }
+                break;
+            case LE:
+                for (int i = 0; i < n; i++) {
+                    values[i] = equal(frame, active, i, left[i], right[i]) || left[i] < right[i] ? 1.0 : 0.0;
+                }
+                break;
+            case GT:
+                for (int i = 0; i < n; i++) {
+                    values[i] = left[i] > right[i] ? 1.0 : 0.0;
+                }
+                break;
+            case GE:
+                for (int i = 0; i < n; i++) {
+                    values[i] = equal(frame, active, i, left[i], right[i]) || left[i] > right[i] ? 1.0 : 0.0;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected operator " + m_operator);
+            }
+
+            if (m_integral) {
+                for (int i = 0; i < n; i++) {
+                    if (Math.abs(values[i]) >= MAX_EXACT_INTEGER && (active == null || active[i])) {
+                        frame.m_fallback[i] = true;
+                    }
+                }
+            }
+            return values;
+        }
+
+        /**
+         * JEXL compares two Doubles with {@link Double#equals(Object)} and mixed
+         * number types by value. They only differ for NaN and signed zeros, which
+         * are left to JEXL.
+         */
+        private static boolean equal(Frame frame, boolean[] active, int row, double left, double right) {
+            if (Double.isNaN(left) || Double.isNaN(right)
+                    || (left == 0.0 && right == 0.0 && Double.doubleToRawLongBits(left) != Double.doubleToRawLongBits(right))) {
+                if (active == null || active[row]) {
+                    frame.m_fallback[row] = true;
+                }
+                return false;
+            }
+            return left == right;
+        }
+    }
+
+    private static final class Logical extends Node {
+        private final boolean m_and;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Logical(boolean and, Node left, Node right) {
+            super(BOOLEAN);
+            m_and = and;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            final int n = frame.m_numRows;
+            final boolean[] left = m_left.test(frame, active);
+            // The right operand is only evaluated where the left one does not decide
+            final boolean[] undecided = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                undecided[i] = (active == null || active[i]) && left[i] == m_and;
+            }
+            final boolean[] right = m_right.test(frame, undecided);
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = (undecided[i] ? right[i] : left[i]) ? 1.0 : 0.0;
+            }
+            return values;
+        }
+    }
+
+    private static final class Ternary extends Node {
+        private final Node m_condition;
+        private final Node m_then;
+        private final Node m_else;
+
+        private Ternary(Node condition, Node then, Node otherwise) {
+            super(then.getTypes() | otherwise.getTypes());
+            m_condition = condition;
+            m_then = then;
+            m_else = otherwise;
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            return evaluate(frame, active, false);
+        }
+
+        @Override
+        double[] result(Frame frame, boolean[] active) {
+            return evaluate(frame, active, true);
+        }
+
+        private double[] evaluate(Frame frame, boolean[] active, boolean result) {
+            final int n = frame.m_numRows;
+            final boolean[] condition = m_condition.test(frame, active);
+            final boolean[] thenRows = new boolean[n];
+            final boolean[] elseRows = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                if (active == null || active[i]) {
+                    thenRows[i] = condition[i];
+                    elseRows[i] = !condition[i];
+                }
+            }
+            final double[] thenValues = result ? m_then.result(frame, thenRows) : m_then.evaluate(frame, thenRows);
+            final double[] elseValues = result ? m_else.result(frame, elseRows) : m_else.evaluate(frame, elseRows);
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = condition[i] ? thenValues[i] : elseValues[i];
+            }
+            return values;
+        }
+    }
+
+    private enum Function {
+        ABS(1, true), ACOS(1), ASIN(1), ATAN(1), ATAN2(2), CBRT(1), CEIL(1), COS(1), COSH(1),
+        EXP(1), EXPM1(1), FLOOR(1), HYPOT(2), IEEEREMAINDER(2), LOG(1), LOG10(1), LOG1P(1),
+        MAX(2, true), MIN(2, true), POW(2), RANDOM(0), RINT(1), ROUND(1, true), SIGNUM(1, true),
+        SIN(1), SINH(1), SQRT(1), TAN(1), TANH(1), TODEGREES(1), TORADIANS(1), ULP(1, true);
+
+        private static final Map<String, Function> s_byName;
+        static {
+            final Map<String, Function> byName = new HashMap<String, Function>();
+            for (final Function function : values()) {
+                byName.put(function.getMethodName(), function);
+            }
+            s_byName = Collections.unmodifiableMap(byName);
+        }
+
+        private final int m_arity;
+        private final boolean m_overloaded;
+
+        private Function(int arity) {
+            this(arity, false);
+        }
+
+        private Function(int arity, boolean overloaded) {
+            m_arity = arity;
+            m_overloaded = overloaded;
+        }
+
+        private String getMethodName() {
+            if (this == IEEEREMAINDER) {
+                return "IEEEremainder";
+            } else if (this == TODEGREES) {
+                return "toDegrees";
+            } else if (this == TORADIANS) {
+                return "toRadians";
+            }
+            return name().toLowerCase();
+        }
+
+        private static Function byName(String name) {
+            return s_byName.get(name);
+        }
+    }
+
+    private static final class Call extends Node {
+        private final Function m_function;
+        private final boolean m_strict;
+        private final Node[] m_arguments;
+
+        private Call(Function function, boolean strict, Node[] arguments) {
+            // round(double) returns a long
+            super(function == Function.ROUND ? INTEGER : DOUBLE);
+            m_function = function;
+            m_strict = strict;
+            m_arguments = arguments;
+        }
+
+        @Override
+        double[] evaluate(Frame frame, boolean[] active) {
+            final int n = frame.m_numRows;
+            final double[] a = m_function.m_arity > 0 ? m_arguments[0].evaluate(frame, active) : null;
+            final double[] b = m_function.m_arity > 1 ? m_arguments[1].evaluate(frame, active) : null;
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                if (active == null || active[i]) {
+                    values[i] = m_strict ? applyStrict(a == null ? 0.0 : a[i], b == null ? 0.0 : b[i])
+                                         : apply(a == null ? 0.0 : a[i], b == null ? 0.0 : b[i]);
+                }
+            }
+            return values;
+        }
+
+        private double apply(double a, double b) {
+            switch (m_function) {
+            case ABS: return Math.abs(a);
+            case ACOS: return Math.acos(a);
+            case ASIN: return Math.asin(a);
+            case ATAN: return Math.atan(a);
+            case ATAN2: return Math.atan2(a, b);
+            case CBRT: return Math.cbrt(a);
+            case CEIL: return Math.ceil(a);
+            case COS: return Math.cos(a);
+            case COSH: return Math.cosh(a);
+            case EXP: return Math.exp(a);
+            case EXPM1: return Math.expm1(a);
+            case FLOOR: return Math.floor(a);
+            case HYPOT: return Math.hypot(a, b);
+            case IEEEREMAINDER: return Math.IEEEremainder(a, b);
+            case LOG: return Math.log(a);
+            case LOG10: return Math.log10(a);
+            case LOG1P: return Math.log1p(a);
+            case MAX: return Math.max(a, b);
+            case MIN: return Math.min(a, b);
+            case POW: return Math.pow(a, b);
+            case RANDOM: return Math.random();
+            case RINT: return Math.rint(a);
+            case ROUND: return Math.round(a);
+            case SIGNUM: return Math.signum(a);
+            case SIN: return Math.sin(a);
+            case SINH: return Math.sinh(a);
+            case SQRT: return Math.sqrt(a);
+            case TAN: return Math.tan(a);
+            case TANH: return Math.tanh(a);
+            case TODEGREES: return Math.toDegrees(a);
+            case TORADIANS: return Math.toRadians(a);
+            case ULP: return Math.ulp(a);
+            default:
+                throw new IllegalStateException("Unexpected function " + m_function);
+            }
+        }
+
+        private double applyStrict(double a, double b) {
+            switch (m_function) {
+            case ABS: return StrictMath.abs(a);
+            case ACOS: return StrictMath.acos(a);
+            case ASIN: return StrictMath.asin(a);
+            case ATAN: return StrictMath.atan(a);
+            case ATAN2: return StrictMath.atan2(a, b);
+            case CBRT: return StrictMath.cbrt(a);
+            case CEIL: return StrictMath.ceil(a);
+            case COS: return StrictMath.cos(a);
+            case COSH: return StrictMath.cosh(a);
+            case EXP: return StrictMath.exp(a);
+            case EXPM1: return StrictMath.expm1(a);
+            case FLOOR: return StrictMath.floor(a);
+            case HYPOT: return StrictMath.hypot(a, b);
+            case IEEEREMAINDER: return StrictMath.IEEEremainder(a, b);
+            case LOG: return StrictMath.log(a);
+            case LOG10: return StrictMath.log10(a);
+            case LOG1P: return StrictMath.log1p(a);
+            case MAX: return StrictMath.max(a, b);
+            case MIN: return StrictMath.min(a, b);
+            case POW: return StrictMath.pow(a, b);
+            case RANDOM: return StrictMath.random();
+            case RINT: return StrictMath.rint(a);
+            case ROUND: return StrictMath.round(a);
+            case SIGNUM: return StrictMath.signum(a);
+            case SIN: return StrictMath.sin(a);
+            case SINH: return StrictMath.sinh(a);
+            case SQRT: return StrictMath.sqrt(a);
+            case TAN: return StrictMath.tan(a);
+            case TANH: return StrictMath.tanh(a);
+            case TODEGREES: return StrictMath.toDegrees(a);
+            case TORADIANS: return StrictMath.toRadians(a);
+            case ULP: return StrictMath.ulp(a);
+            default:
+                throw new IllegalStateException("Unexpected function " + m_function);
+            }
+        }
+    }
+
+    private enum TokenType {
+        NUMBER, IDENTIFIER, OPERATOR, END
+    }
+
+    /**
+     * A recursive descent parser for the supported subset, following the
+     * operator precedence of the JEXL 2 grammar.
+     */
+    private static final class Parser {
+        private final String m_text;
+        private final Map<String, Integer> m_columns;
+        private final Map<String, Object> m_scalars;
+        private final List<String> m_variables = new ArrayList<String>();
+        private int m_pos = 0;
+
+        private TokenType m_tokenType;
+        private String m_token;
+
+        private Parser(String text, Map<String, Integer> columns, Map<String, Object> scalars) {
+            m_text = text;
+            m_columns = columns;
+            m_scalars = scalars;
+        }
+
+        private String[] getVariables() {
+            return m_variables.toArray(new String[m_variables.size()]);
+        }
+
+        private Node parse() throws UnsupportedExpressionException {
+            next();
+            final Node root = parseTernary();
+            if (m_tokenType != TokenType.END) {
+                throw unsupported();
+            }
+            return root;
+        }
+
+        private Node parseTernary() throws UnsupportedExpressionException {
+            final Node condition = parseOr();
+            if (!isOperator("?")) {
+                return condition;
+            }
+            next();
+            final Node then = parseTernary();
+            expect(":");
+            final Node otherwise = parseTernary();
+            return new Ternary(condition, then, otherwise);
+        }
+
+        private Node parseOr() throws UnsupportedExpressionException {
+            Node left = parseAnd();
+            while (isOperator("||") || isWord("or")) {
+                next();
+                left = new Logical(false, left, parseAnd());
+            }
+            return left;
+        }
+
+        private Node parseAnd() throws UnsupportedExpressionException {
+            Node left = parseEquality();
+            while (isOperator("&&") || isWord("and")) {
+                next();
+                left = new Logical(true, left, parseEquality());
+            }
+            return left;
+        }
+
+        private Node parseEquality() throws UnsupportedExpressionException {
+            Node left = parseRelational();
+            while (true) {
+                final Operator operator;
+                if (isOperator("==") || isWord("eq")) {
+                    operator = Operator.EQ;
+                } else if (isOperator("!=") || isWord("ne")) {
+                    operator = Operator.NE;
+                } else {
+                    return left;
+                }
+                next();
+                left = comparison(operator, left, parseRelational());
+            }
+        }
+
+        private Node parseRelational() throws UnsupportedExpressionException {
+            Node left = parseAdditive();
+            while (true) {
+                final Operator operator;
+                if (isOperator("<") || isWord("lt")) {
+                    operator = Operator.LT;
+                } else if (isOperator("<=") || isWord("le")) {
+                    operator = Operator.LE;
+                } else if (isOperator(">") || isWord("gt")) {
+                    operator = Operator.GT;
+                } else if (isOperator(">=") || isWord("ge")) {
+                    operator = Operator.GE;
+                } else {
+                    return left;
+                }
+                next();
+                left = comparison(operator, left, parseAdditive());
+            }
+        }
+
+        private Node parseAdditive() throws UnsupportedExpressionException {
+            Node left = parseMultiplicative();
+            while (true) {
+                final Operator operator;
+                if (isOperator("+")) {
+                    operator = Operator.ADD;
+                } else if (isOperator("-")) {
+                    operator = Operator.SUBTRACT;
+                } else {
+                    return left;
+                }
+                next();
+                left = arithmetic(operator, left, parseMultiplicative());
+            }
+        }
+
+        private Node parseMultiplicative() throws UnsupportedExpressionException {
+            Node left = parseUnary();
+            while (true) {
+                final Operator operator;
+                if (isOperator("*")) {
+                    operator = Operator.MULTIPLY;
+                } else if (isOperator("/") || isWord("div")) {
+                    operator = Operator.DIVIDE;
+                } else if (isOperator("%") || isWord("mod")) {
+                    operator = Operator.MODULO;
+                } else {
+                    return left;
+                }
+                next();
+                left = arithmetic(operator, left, parseUnary());
+            }
+        }
+
+        private Node parseUnary() throws UnsupportedExpressionException {
+            if (isOperator("-")) {
+                next();
+                final Node operand = parseUnary();
+                if (!operand.isNumeric()) {
+                    throw unsupported();
+                }
+                return new Negate(operand);
+            } else if (isOperator("!") || isWord("not")) {
+                next();
+                return new Not(parseUnary());
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() throws UnsupportedExpressionException {
+            if (isOperator("(")) {
+                next();
+                final Node node = parseTernary();
+                expect(")");
+                return node;
+            } else if (m_tokenType == TokenType.NUMBER) {
+                final Node node = number(m_token);
+                next();
+                return node;
+            } else if (m_tokenType != TokenType.IDENTIFIER) {
+                throw unsupported();
+            }
+
+            final String name = m_token;
+            next();
+            if ("true".equals(name) || "false".equals(name)) {
+                return new Constant(BOOLEAN, "true".equals(name) ? 1.0 : 0.0);
+            } else if (isReserved(name)) {
+                throw unsupported();
+            } else if (("math".equals(name) || "strictmath".equals(name)) && isOperator(":")) {
+                return parseCall("strictmath".equals(name));
+            } else if (isOperator(".") || isOperator("[") || isOperator("(")) {
+                // property access, ant-ish variables and method calls on values
+                throw unsupported();
+            }
+            return variable(name);
+        }
+
+        private Node parseCall(boolean strict) throws UnsupportedExpressionException {
+            expect(":");
+            if (m_tokenType != TokenType.IDENTIFIER) {
+                throw unsupported();
+            }
+            final Function function = Function.byName(m_token);
+            if (function == null) {
+                throw unsupported();
+            }
+            next();
+            expect("(");
+            final List<Node> arguments = new ArrayList<Node>();
+            if (!isOperator(")")) {
+                arguments.add(parseTernary());
+                while (isOperator(",")) {
+                    next();
+                    arguments.add(parseTernary());
+                }
+            }
+            expect(")");
+
+            if (arguments.size() != function.m_arity) {
+                throw unsupported();
+            }
+            boolean hasDouble = false;
+            for (final Node argument : arguments) {
+                if (!argument.isNumeric()) {
+                    throw unsupported();
+                }
+                hasDouble |= argument.getTypes() == DOUBLE;
+            }
+            // JEXL only picks the double overload of abs, max, min, ... when
+            // an argument is a Double
+            if (function.m_overloaded && !hasDouble) {
+                throw unsupported();
+            }
+            return new Call(function, strict, arguments.toArray(new Node[arguments.size()]));
+        }
+
+        private Node variable(String name) throws UnsupportedExpressionException {
+            final Integer types = m_columns.get(name);
+            if (types != null) {
+                int index = m_variables.indexOf(name);
+                if (index < 0) {
+                    index = m_variables.size();
+                    m_variables.add(name);
+                }
+                return new Column(types.intValue(), index);
+            }
+
+            final Object value = m_scalars.get(name);
+            if (value instanceof Double) {
+                return new Constant(DOUBLE, ((Double)value).doubleValue());
+            } else if (value instanceof Float) {
+                return new Constant(FLOAT, ((Float)value).doubleValue(), Double.parseDouble(value.toString()));
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                final long longValue = ((Number)value).longValue();
+                if (Math.abs((double)longValue) >= MAX_EXACT_INTEGER) {
+                    throw unsupported();
+                }
+                return new Constant(INTEGER, longValue);
+            }
+            // Strings, nulls and unknown names are left to JEXL
+            throw unsupported();
+        }
+
+        /**
+         * JEXL 2 reads integer literals as Integer (or Long with an l suffix) and
+         * literals with a decimal point as Float, or as Double with a d suffix.
+         */
+        private Node number(String token) throws UnsupportedExpressionException {
+            final char suffix = Character.toLowerCase(token.charAt(token.length() - 1));
+            if (token.indexOf('.') >= 0) {
+                if (suffix == 'd') {
+                    return new Constant(DOUBLE, Double.parseDouble(token));
+                }
+                final Float value = Float.valueOf(token);
+                return new Constant(FLOAT, value.doubleValue(), Double.parseDouble(value.toString()));
+            }
+            final String digits = suffix == 'l' ? token.substring(0, token.length() - 1) : token;
+            if (digits.length() > 1 && digits.charAt(0) == '0') {
+                // octal
+                throw unsupported();
+            } else if (digits.length() > 15) {
+                throw unsupported();
+            }
+            return new Constant(INTEGER, Long.parseLong(digits));
+        }
+
+        private Node arithmetic(Operator operator, Node left, Node right) throws UnsupportedExpressionException {
+            if (!left.isNumeric() || !right.isNumeric()) {
+                throw unsupported();
+            }
+            if (left.isFloatingPoint() || right.isFloatingPoint()) {
+                return new Binary(DOUBLE, operator, left, right);
+            }
+            // Integer addition, subtraction and multiplication are exact in JEXL,
+            // and in double arithmetic as long as the result fits in 53 bits;
+            // integer division truncates
+            if (operator == Operator.DIVIDE || operator == Operator.MODULO) {
+                throw unsupported();
+            }
+            return new Binary(left.getTypes() | right.getTypes() | INTEGER, operator, left, right);
+        }
+
+        private Node comparison(Operator operator, Node left, Node right) throws UnsupportedExpressionException {
+            if (!left.isNumeric() || !right.isNumeric()) {
+                throw unsupported();
+            }
+            return new Binary(BOOLEAN, operator, left, right);
+        }
+
+        private boolean isOperator(String operator) {
+            return m_tokenType == TokenType.OPERATOR && m_token.equals(operator);
+        }
+
+        private boolean isWord(String word) {
+            return m_tokenType == TokenType.IDENTIFIER && m_token.equals(word);
+        }
+
+        private static boolean isReserved(String name) {
+            return "and".equals(name) || "or".equals(name) || "not".equals(name)
+                    || "eq".equals(name) || "ne".equals(name) || "lt".equals(name) || "le".equals(name)
+                    || "gt".equals(name) || "ge".equals(name) || "div".equals(name) || "mod".equals(name)
+                    || "null".equals(name) || "empty".equals(name) || "size".equals(name) || "new".equals(name)
+                    || "if".equals(name) || "else".equals(name) || "for".equals(name) || "foreach".equals(name)
+                    || "while".equals(name) || "var".equals(name) || "return".equals(name) || "function".equals(name)
+                    || "in".equals(name);
+        }
+
+        private void expect(String operator) throws UnsupportedExpressionException {
+            if (!isOperator(operator)) {
+                throw unsupported();
+            }
+            next();
+        }
+
+        private UnsupportedExpressionException unsupported() {
+            return new UnsupportedExpressionException("Unsupported token '" + m_token + "' at " + m_pos + " in " + m_text);
+        }
+
+        private void next() throws UnsupportedExpressionException {
+            final int length = m_text.length();
+            while (m_pos < length && Character.isWhitespace(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+            if (m_pos >= length) {
+                m_tokenType = TokenType.END;
+                m_token = "";
+                return;
+            }
+
+            final int start = m_pos;
+            final char c = m_text.charAt(m_pos);
+            if (Character.isDigit(c)) {
+                while (m_pos < length && Character.isDigit(m_text.charAt(m_pos))) {
+                    m_pos++;
+                }
+                boolean real = false;
+                if (m_pos + 1 < length && m_text.charAt(m_pos) == '.' && Character.isDigit(m_text.charAt(m_pos + 1))) {
+                    real = true;
+                    m_pos++;
+                    while (m_pos < length && Character.isDigit(m_text.charAt(m_pos))) {
+                        m_pos++;
+                    }
+                }
+                if (m_pos < length) {
+                    final char suffix = Character.toLowerCase(m_text.charAt(m_pos));
+                    if ((real && (suffix == 'd' || suffix == 'f')) || (!real && suffix == 'l')) {
+                        m_pos++;
+                    }
+                }
+                // exponents, other type suffixes and hexadecimal literals
+                if (m_pos < length && (Character.isLetterOrDigit(m_text.charAt(m_pos)) || m_text.charAt(m_pos) == '.' || m_text.charAt(m_pos) == '_')) {
+                    m_token = m_text.substring(start, m_pos + 1);
+                    throw unsupported();
+                }
+                m_tokenType = TokenType.NUMBER;
+                m_token = m_text.substring(start, m_pos);
+            } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                while (m_pos < length && (Character.isLetterOrDigit(m_text.charAt(m_pos)) || m_text.charAt(m_pos) == '_' || m_text.charAt(m_pos) == '$')) {
+                    m_pos++;
+                }
+                m_tokenType = TokenType.IDENTIFIER;
+                m_token = m_text.substring(start, m_pos);
+            } else {
+                m_tokenType = TokenType.OPERATOR;
+                final String two = m_pos + 1 < length ? m_text.substring(m_pos, m_pos + 2) : null;
+                if ("==".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two) || "&&".equals(two) || "||".equals(two)) {
+                    m_token = two;
+                    m_pos += 2;
+                } else if ("=~".equals(two) || "!~".equals(two) || "?:".equals(two)) {
+                    m_token = two;
+                    throw unsupported();
+                } else if ("+-*/%<>!?:()[].,".indexOf(c) >= 0) {
+                    m_token = String.valueOf(c);
+                    m_pos++;
+                } else {
+                    // strings, assignments, bitwise operators, statements, maps and arrays
+                    m_token = String.valueOf(c);
+                    throw unsupported();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jexl2.MapContext;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.web.rest.measurements.fetch.FetchResults;
+import org.opennms.web.rest.measurements.model.Expression;
+import org.opennms.web.rest.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Evaluates the expressions over whole columns instead of row by row.
+ *
+ * Every expression of the request is compiled into a {@link ColumnarExpression}
+ * that applies its operators to the columns of the fetch results, and to the
+ * columns of the expressions before it. Expressions that do not depend on each
+ * other are evaluated in parallel. Rows that the compiled form cannot evaluate
+ * exactly like JEXL are evaluated by JEXL, and if an expression cannot be
+ * compiled at all, the whole request is handed to the {@link JEXLExpressionEngine}.
+ */
+public class ColumnarExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarExpressionEngine.class);
+
+    /**
+     * Expressions are only evaluated in parallel when there are at least
+     * this many values to compute in one pass.
+     */
+    private static final int PARALLEL_THRESHOLD = 50000;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService s_executor = null;
+
+    private final JEXLExpressionEngine m_jexlEngine = new JEXLExpressionEngine();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+        final int numExpressions = expressions.size();
+
+        // Don't do anything if there are no expressions
+        if (numExpressions < 1) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final long timestamps[] = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        // Parse all of the expressions with JEXL first, so that syntax errors
+        // are reported the same way, and rows can be handed to JEXL
+        final org.apache.commons.jexl2.Expression[] jexlExpressions = new org.apache.commons.jexl2.Expression[numExpressions];
+        final Set<String> labels = new HashSet<String>();
+        boolean duplicateLabels = false;
+        for (int i = 0; i < numExpressions; i++) {
+            jexlExpressions[i] = m_jexlEngine.parse(expressions.get(i));
+            duplicateLabels |= !labels.add(expressions.get(i).getLabel());
+        }
+
+        // The names an expression can reference, in the precedence of the JEXL
+        // context: sources, the timestamp, the previous expressions, and constants
+        final Map<String, Integer> names = new HashMap<String, Integer>();
+        for (final String source : columns.keySet()) {
+            names.put(source, ColumnarExpression.DOUBLE);
+        }
+        if (!names.containsKey("timestamp")) {
+            names.put("timestamp", ColumnarExpression.INTEGER);
+        }
+        final Map<String, Object> scalars = Maps.newHashMap(results.getConstants());
+        scalars.put("__inf", Double.POSITIVE_INFINITY);
+        scalars.put("__neg_inf", Double.NEGATIVE_INFINITY);
+        // An expression referencing itself or a later expression sees the value
+        // of the previous row in the JEXL engine
+        scalars.keySet().removeAll(labels);
+
+        final ColumnarExpression[] compiled = new ColumnarExpression[numExpressions];
+        final int[] levels = new int[numExpressions];
+        int numLevels = 0;
+        for (int i = 0; i < numExpressions && !duplicateLabels; i++) {
+            final Expression e = expressions.get(i);
+            compiled[i] = ColumnarExpression.compile(e.getExpression(), names, scalars);
+            if (compiled[i] == null) {
+                LOG.debug("Expression with label '{}' cannot be evaluated by column: {}", e.getLabel(), e.getExpression());
+                break;
+            }
+
+            // An expression is evaluated after the expressions it references
+            for (final String variable : compiled[i].getVariables()) {
+                for (int j = 0; j < i; j++) {
+                    if (expressions.get(j).getLabel().equals(variable) && !columns.containsKey(variable) && !"timestamp".equals(variable)) {
+                        levels[i] = Math.max(levels[i], levels[j] + 1);
+                    }
+                }
+            }
+            numLevels = Math.max(numLevels, levels[i] + 1);
+
+            if (!names.containsKey(e.getLabel())) {
+                names.put(e.getLabel(), ColumnarExpression.DOUBLE);
+            }
+        }
+
+        if (duplicateLabels || compiled[numExpressions - 1] == null) {
+            m_jexlEngine.applyExpressions(request, results);
+            LOG.debug("Evaluated {} expressions over {} rows row by row in {} ms.",
+                    numExpressions, numRows, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return;
+        }
+
+        // The columns available to the expressions
+        final Map<String, double[]> available = new HashMap<String, double[]>(columns);
+        if (!available.containsKey("timestamp")) {
+            final double[] timestampValues = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                timestampValues[i] = timestamps[i];
+            }
+            available.put("timestamp", timestampValues);
+        }
+
+        // The columns of the expressions of the previous levels, by label
+        final Map<String, double[]> computed = new HashMap<String, double[]>();
+        final double[][] values = new double[numExpressions][];
+        final int[] fallbackRows = new int[numExpressions];
+        boolean parallel = false;
+        for (int level = 0; level < numLevels; level++) {
+            final List<Integer> indexes = new ArrayList<Integer>();
+            for (int i = 0; i < numExpressions; i++) {
+                if (levels[i] == level) {
+                    indexes.add(i);
+                }
+            }
+
+            if (indexes.size() > 1 && THREADS > 1 && (long)indexes.size() * numRows >= PARALLEL_THRESHOLD) {
+                parallel = true;
+                final List<Future<double[]>> futures = new ArrayList<Future<double[]>>(indexes.size());
+                for (final int i : indexes) {
+                    futures.add(getExecutor().submit(new Callable<double[]>() {
+                        @Override
+                        public double[] call() throws ExpressionException {
+                            return evaluate(i, expressions, compiled[i], jexlExpressions[i], available, computed, results, fallbackRows);
+                        }
+                    }));
+                }
+                for (int k = 0; k < indexes.size(); k++) {
+                    values[indexes.get(k)] = get(futures.get(k));
+                }
+            } else {
+                for (final int i : indexes) {
+                    values[i] = evaluate(i, expressions, compiled[i], jexlExpressions[i], available, computed, results, fallbackRows);
+                }
+            }
+
+            // Make the results available to the expressions of the next levels
+            for (final int i : indexes) {
+                final String label = expressions.get(i).getLabel();
+                computed.put(label, values[i]);
+                if (!available.containsKey(label)) {
+                    available.put(label, values[i]);
+                }
+            }
+        }
+
+        // Store the results
+        int numFallbackRows = 0;
+        for (int i = 0; i < numExpressions; i++) {
+            numFallbackRows += fallbackRows[i];
+            if (!expressions.get(i).getTransient()) {
+                columns.put(expressions.get(i).getLabel(), values[i]);
+            }
+        }
+
+        LOG.debug("Evaluated {} expressions over {} rows by column in {} ms ({} levels, {}, {} values evaluated by JEXL).",
+                numExpressions, numRows, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                numLevels, parallel ? "in parallel" : "sequentially", numFallbackRows);
+    }
+
+    /**
+     * Evaluates the expression at the given index over all rows.
+     */
+    private static double[] evaluate(final int index, final List<Expression> expressions, final ColumnarExpression compiled,
+            final org.apache.commons.jexl2.Expression jexlExpression, final Map<String, double[]> available,
+            final Map<String, double[]> computed, final FetchResults results, final int[] fallbackRows) throws ExpressionException {
+        final long timestamps[] = results.getTimestamps();
+        final int numRows = timestamps.length;
+
+        final String[] variables = compiled.getVariables();
+        final double[][] arguments = new double[variables.length][];
+        for (int i = 0; i < variables.length; i++) {
+            arguments[i] = available.get(variables[i]);
+        }
+
+        final boolean[] fallback = new boolean[numRows];
+        final double[] derived = compiled.evaluate(arguments, numRows, fallback);
+
+        // Evaluate the flagged rows with a context built like the one of the JEXL engine
+        for (int row = 0; row < numRows; row++) {
+            if (!fallback[row]) {
+                continue;
+            }
+            fallbackRows[index]++;
+
+            final Map<String, Object> jexlValues = Maps.newHashMap();
+            jexlValues.putAll(results.getConstants());
+            jexlValues.put("__inf", Double.POSITIVE_INFINITY);
+            jexlValues.put("__neg_inf", Double.NEGATIVE_INFINITY);
+            // The expressions of the same and later levels are never referenced
+            for (final Map.Entry<String, double[]> column : computed.entrySet()) {
+                jexlValues.put(column.getKey(), column.getValue()[row]);
+            }
+            jexlValues.put("timestamp", timestamps[row]);
+            for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+                jexlValues.put(column.getKey(), column.getValue()[row]);
+            }
+
+            derived[row] = JEXLExpressionEngine.evaluate(expressions.get(index).getLabel(), jexlExpression, new MapContext(jexlValues));
+        }
+        return derived;
+    }
+
+    private static double[] get(final Future<double[]> future) throws ExpressionException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExpressionException("Interrupted while evaluating expressions.", new IllegalStateException(e));
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ExpressionException) {
+                throw (ExpressionException)e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (s_executor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new LogPreservingThreadFactory("MeasurementsExpressions", THREADS));
+            executor.allowCoreThreadTimeOut(true);
+            s_executor = executor;
+        }
+        return s_executor;
+    }
+}
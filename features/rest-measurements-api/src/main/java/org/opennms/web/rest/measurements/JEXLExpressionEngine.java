@@ -66,12 +66,7 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
             k++;
 
-            try {
-                expressions.put(e.getLabel(), jexl.createExpression(e.getExpression()));
-            } catch (JexlException ex) {
-                throw new ExpressionException("Failed to parse expression label '" +
-                        e.getLabel() + "'.", ex);
-            }
+            expressions.put(e.getLabel(), parse(e));
         }
 
         // Prepare the JEXL context
@@ -107,25 +102,16 @@ public class JEXLExpressionEngine implements ExpressionEngine {
                 }
 
                 // Evaluate the expression
-                try {
-                    Object derived = expressionEntry.getValue().evaluate(context);
-                    double derivedAsDouble = Utils.toDouble(derived);
-
-                    // Only store the values for non-transient expressions
-                    if (!transientFlags[j++]) {
-                        expressionValues[k++][i] = derivedAsDouble;
-                    }
-
-                    // Store the result back in the context, so that it can be referenced
-                    // by subsequent expression in the row
-                    jexlValues.put(expressionEntry.getKey(), derivedAsDouble);
-                } catch (NullPointerException|NumberFormatException e) {
-                    throw new ExpressionException("The return value from expression with label '" +
-                            expressionEntry.getKey() + "' could not be cast to a Double.", e);
-                } catch (JexlException e) {
-                    throw new ExpressionException("Failed to evaluate expression with label '" +
-                            expressionEntry.getKey() + "'.", e);
+                double derivedAsDouble = evaluate(expressionEntry.getKey(), expressionEntry.getValue(), context);
+
+                // Only store the values for non-transient expressions
+                if (!transientFlags[j++]) {
+                    expressionValues[k++][i] = derivedAsDouble;
                 }
+
+                // Store the result back in the context, so that it can be referenced
+                // by subsequent expression in the row
+                jexlValues.put(expressionEntry.getKey(), derivedAsDouble);
             }
         }
 
@@ -137,4 +123,36 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
     }
+
+    /**
+     * Parses the given expression with the JEXL engine.
+     *
+     * @throws ExpressionException when the expression cannot be parsed
+     */
+    org.apache.commons.jexl2.Expression parse(final Expression e) throws ExpressionException {
+        try {
+            return jexl.createExpression(e.getExpression());
+        } catch (JexlException ex) {
+            throw new ExpressionException("Failed to parse expression label '" +
+                    e.getLabel() + "'.", ex);
+        }
+    }
+
+    /**
+     * Evaluates a parsed expression against the values of a single row.
+     *
+     * @throws ExpressionException when the evaluation fails, or does not return a number
+     */
+    static double evaluate(final String label, final org.apache.commons.jexl2.Expression expression, final JexlContext context) throws ExpressionException {
+        try {
+            Object derived = expression.evaluate(context);
+            return Utils.toDouble(derived);
+        } catch (NullPointerException|NumberFormatException e) {
+            throw new ExpressionException("The return value from expression with label '" +
+                    label + "' could not be cast to a Double.", e);
+        } catch (JexlException e) {
+            throw new ExpressionException("Failed to evaluate expression with label '" +
+                    label + "'.", e);
+        }
+    }
 }
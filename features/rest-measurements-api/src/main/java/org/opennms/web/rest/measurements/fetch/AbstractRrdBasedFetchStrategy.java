@@ -29,10 +29,21 @@
 package org.opennms.web.rest.measurements.fetch;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jrobin.core.RrdException;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.model.OnmsResource;
 import org.opennms.netmgt.model.RrdGraphAttribute;
@@ -46,16 +57,50 @@ import com.google.common.collect.Maps;
 /**
  * Used to fetch measurements from RRD files.
  *
+ * The sources are fetched file by file, in parallel, and the fetched columns
+ * are kept in a {@link FetchResultCache} shared by all of the strategies. When
+ * the cache is enabled, the window of the request is aligned to the step so that
+ * requests made within the same step share their entries. If the files end up
+ * with different steps or timestamps, the sources are fetched together once more
+ * so that the strategy can resample them onto a common grid.
+ *
  * @author Jesse White <jesse@opennms.org>
  */
 public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchStrategy {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractRrdBasedFetchStrategy.class);
 
+    /**
+     * Maximum size of the fetch cache in megabytes, 0 disables the cache.
+     */
+    public static final String CACHE_SIZE_PROPERTY = "org.opennms.measurements.fetch.cacheSize";
+
+    /**
+     * Maximum number of files that are fetched concurrently.
+     */
+    public static final String THREADS_PROPERTY = "org.opennms.measurements.fetch.threads";
+
+    private static final long DEFAULT_CACHE_SIZE = 64;
+
+    private static final FetchResultCache s_cache = new FetchResultCache(Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE) * 1024 * 1024);
+
+    private static ExecutorService s_executor = null;
+
     private final ResourceDao m_resourceDao;
 
+    private final FetchResultCache m_cache;
+
     public AbstractRrdBasedFetchStrategy(final ResourceDao resourceDao) {
+        this(resourceDao, s_cache);
+    }
+
+    protected AbstractRrdBasedFetchStrategy(final ResourceDao resourceDao, final FetchResultCache cache) {
         m_resourceDao = resourceDao;
+        m_cache = cache;
+    }
+
+    public FetchResultCache getCache() {
+        return m_cache;
     }
 
     /**
@@ -110,7 +155,140 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
         }
 
         // Fetch
-        return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        return fetchByFile(start, end, step, maxrows, rrdsBySource, constants);
+    }
+
+    /**
+     * Fetches the sources file by file, serving the columns that were
+     * already fetched from the cache.
+     */
+    protected FetchResults fetchByFile(long start, long end, final long step, final int maxrows,
+            final Map<Source, String> rrdsBySource, final Map<String, Object> constants) throws Exception {
+
+        final long fetchStart = System.nanoTime();
+
+        final long stepInSeconds = Math.max(step / 1000, 1);
+        if (m_cache.isEnabled()) {
+            // Widen the window to the step boundaries, so that the requests made within the same step share their entries
+            final long stepInMs = stepInSeconds * 1000;
+            start -= ((start % stepInMs) + stepInMs) % stepInMs;
+            end += ((stepInMs - (end % stepInMs)) % stepInMs);
+        }
+
+        // Serve what we can from the cache, and group the remaining sources by file
+        final Map<String, Long> lastUpdates = Maps.newHashMap();
+        final Map<Source, FetchResultCache.Key> keys = Maps.newHashMap();
+        final Map<String, Map<Source, String>> missesByFile = Maps.newLinkedHashMap();
+        final Grid grid = new Grid(rrdsBySource.size());
+        int numCached = 0;
+
+        for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+            final Source source = entry.getKey();
+            final String rrdFile = entry.getValue();
+
+            if (m_cache.isEnabled()) {
+                Long lastUpdate = lastUpdates.get(rrdFile);
+                if (lastUpdate == null) {
+                    lastUpdate = getLastUpdate(rrdFile);
+                    lastUpdates.put(rrdFile, lastUpdate);
+                }
+
+                final FetchResultCache.Key key = new FetchResultCache.Key(rrdFile, source.getAttribute(),
+                        source.getAggregation(), stepInSeconds, start, end, maxrows);
+                final FetchResultCache.Entry cached = m_cache.get(key, lastUpdate);
+                if (cached != null) {
+                    grid.add(source.getLabel(), cached.getTimestamps(), cached.getValues(), cached.getStep());
+                    numCached++;
+                    continue;
+                }
+                keys.put(source, key);
+            }
+
+            Map<Source, String> misses = missesByFile.get(rrdFile);
+            if (misses == null) {
+                misses = Maps.newHashMap();
+                missesByFile.put(rrdFile, misses);
+            }
+            misses.put(source, rrdFile);
+        }
+
+        // Nothing to share with the cache or with other files, fetch as before
+        if (!m_cache.isEnabled() && missesByFile.size() < 2) {
+            return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        }
+
+        final List<Map<Source, String>> groups = new ArrayList<Map<Source, String>>(missesByFile.values());
+        final List<FetchResults> fetched = fetchGroups(start, end, step, maxrows, groups);
+
+        for (int i = 0; i < groups.size(); i++) {
+            final FetchResults results = fetched.get(i);
+            for (final Source source : groups.get(i).keySet()) {
+                final double[] values = results.getColumns().get(source.getLabel());
+                grid.add(source.getLabel(), results.getTimestamps(), values, results.getStep());
+
+                final FetchResultCache.Key key = keys.get(source);
+                if (key != null && values != null) {
+                    m_cache.put(key, lastUpdates.get(rrdsBySource.get(source)), results.getTimestamps(), values, results.getStep());
+                }
+            }
+        }
+
+        LOG.debug("Fetched {} sources ({} from the cache) from {} files in {}ms. Cache: {}",
+                rrdsBySource.size(), numCached,
+                missesByFile.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fetchStart), m_cache);
+
+        if (!grid.isAligned()) {
+            // The files don't share the same timestamps, let the strategy resample them together
+            LOG.debug("The sources don't share the same timestamps, fetching them together.");
+            return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        }
+
+        return new FetchResults(grid.getTimestamps(), grid.getColumns(), grid.getStep(), constants);
+    }
+
+    private List<FetchResults> fetchGroups(final long start, final long end, final long step, final int maxrows,
+            final List<Map<Source, String>> groups) throws Exception {
+        final List<FetchResults> fetched = new ArrayList<FetchResults>(groups.size());
+        if (groups.size() < 2) {
+            for (final Map<Source, String> group : groups) {
+                fetched.add(fetchMeasurements(start, end, step, maxrows, group, Maps.<String, Object>newHashMap()));
+            }
+            return fetched;
+        }
+
+        final List<Future<FetchResults>> futures = new ArrayList<Future<FetchResults>>(groups.size());
+        for (final Map<Source, String> group : groups) {
+            futures.add(getExecutor().submit(new Callable<FetchResults>() {
+                @Override
+                public FetchResults call() throws RrdException {
+                    return fetchMeasurements(start, end, step, maxrows, group, Maps.<String, Object>newHashMap());
+                }
+            }));
+        }
+
+        try {
+            for (final Future<FetchResults> future : futures) {
+                fetched.add(future.get());
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (final Future<FetchResults> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * Retrieves the time at which the given file was last updated. Cached
+     * columns are only used while this value stays the same.
+     */
+    protected long getLastUpdate(final String rrdFile) throws IOException, RrdException {
+        return new File(rrdFile).lastModified();
     }
 
     /**
@@ -119,4 +297,60 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
     protected abstract FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
             Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException;
 
+    private static synchronized ExecutorService getExecutor() {
+        if (s_executor == null) {
+            final int threads = Integer.getInteger(THREADS_PROPERTY, 2 * Runtime.getRuntime().availableProcessors());
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new LogPreservingThreadFactory("MeasurementsFetch", threads));
+            executor.allowCoreThreadTimeOut(true);
+            s_executor = executor;
+        }
+        return s_executor;
+    }
+
+    /**
+     * Gathers the columns fetched from the different files, and checks that they
+     * all share the same timestamps.
+     */
+    private static class Grid {
+
+        private final Map<String, double[]> m_columns;
+
+        private long[] m_timestamps = null;
+
+        private long m_step = 0;
+
+        private boolean m_aligned = true;
+
+        public Grid(final int numColumns) {
+            m_columns = Maps.newHashMapWithExpectedSize(numColumns);
+        }
+
+        public void add(final String label, final long[] timestamps, final double[] values, final long step) {
+            if (m_timestamps == null) {
+                m_timestamps = timestamps;
+                m_step = step;
+            } else if (m_step != step || (m_timestamps != timestamps && !Arrays.equals(m_timestamps, timestamps))) {
+                m_aligned = false;
+            }
+            m_columns.put(label, values);
+        }
+
+        public boolean isAligned() {
+            return m_aligned;
+        }
+
+        public long[] getTimestamps() {
+            return m_timestamps != null ? m_timestamps : new long[0];
+        }
+
+        public Map<String, double[]> getColumns() {
+            return m_columns;
+        }
+
+        public long getStep() {
+            return m_step;
+        }
+    }
+
 }
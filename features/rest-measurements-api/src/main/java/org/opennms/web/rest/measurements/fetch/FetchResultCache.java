@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements.fetch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+
+/**
+ * A memory-bounded, least recently used cache of the columns fetched from
+ * RRD files.
+ *
+ * Entries are keyed on the file, the datasource, the consolidation function,
+ * the step and the (step-aligned) window of the fetch. Every entry remembers
+ * the last update time of its file when it was fetched, and is discarded as
+ * soon as the file reports a different one.
+ *
+ * The cached arrays are shared between requests and must not be modified.
+ */
+public class FetchResultCache {
+
+    /**
+     * Rough number of bytes used by an entry in addition to its arrays.
+     */
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final long m_maxSize;
+
+    private final LinkedHashMap<Key, Entry> m_entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    private long m_size = 0;
+
+    private long m_hits = 0;
+
+    private long m_misses = 0;
+
+    private long m_invalidations = 0;
+
+    private long m_evictions = 0;
+
+    /**
+     * @param maxSize the maximum number of bytes used by the cached columns,
+     *   the cache is disabled when <= 0
+     */
+    public FetchResultCache(final long maxSize) {
+        m_maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return m_maxSize > 0;
+    }
+
+    /**
+     * Retrieves the entry stored for the given key, or null if there is none, or
+     * if the file has been updated since it was fetched.
+     */
+    public synchronized Entry get(final Key key, final long lastUpdate) {
+        final Entry entry = m_entries.get(key);
+        if (entry != null) {
+            if (entry.getLastUpdate() == lastUpdate) {
+                m_hits++;
+                return entry;
+            }
+            m_entries.remove(key);
+            m_size -= entry.getSize();
+            m_invalidations++;
+        }
+        m_misses++;
+        return null;
+    }
+
+    /**
+     * Stores a fetched column, evicting the least recently used entries until
+     * the cache fits in its maximum size.
+     */
+    public synchronized void put(final Key key, final long lastUpdate, final long[] timestamps, final double[] values, final long step) {
+        final Entry entry = new Entry(lastUpdate, timestamps, values, step);
+        if (entry.getSize() > m_maxSize) {
+            return;
+        }
+
+        final Entry previous = m_entries.put(key, entry);
+        if (previous != null) {
+            m_size -= previous.getSize();
+        }
+        m_size += entry.getSize();
+
+        final Iterator<Map.Entry<Key, Entry>> it = m_entries.entrySet().iterator();
+        while (m_size > m_maxSize && it.hasNext()) {
+            m_size -= it.next().getValue().getSize();
+            it.remove();
+            m_evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        m_entries.clear();
+        m_size = 0;
+    }
+
+    public long getMaxSize() {
+        return m_maxSize;
+    }
+
+    public synchronized long getSize() {
+        return m_size;
+    }
+
+    public synchronized int getEntryCount() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    public synchronized long getInvalidations() {
+        return m_invalidations;
+    }
+
+    public synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this)
+                .add("entries", m_entries.size())
+                .add("size", m_size)
+                .add("maxSize", m_maxSize)
+                .add("hits", m_hits)
+                .add("misses", m_misses)
+                .add("invalidations", m_invalidations)
+                .add("evictions", m_evictions)
+                .toString();
+    }
+
+    public static class Key {
+
+        private final String m_file;
+
+        private final String m_datasource;
+
+        private final String m_consolidationFunction;
+
+        private final long m_step;
+
+        private final long m_start;
+
+        private final long m_end;
+
+        private final int m_maxrows;
+
+        public Key(final String file, final String datasource, final String consolidationFunction,
+                final long step, final long start, final long end, final int maxrows) {
+            m_file = file;
+            m_datasource = datasource;
+            m_consolidationFunction = consolidationFunction;
+            m_step = step;
+            m_start = start;
+            m_end = end;
+            m_maxrows = maxrows;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return m_step == other.m_step
+                    && m_start == other.m_start
+                    && m_end == other.m_end
+                    && m_maxrows == other.m_maxrows
+                    && Objects.equal(m_file, other.m_file)
+                    && Objects.equal(m_datasource, other.m_datasource)
+                    && Objects.equal(m_consolidationFunction, other.m_consolidationFunction);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(m_file, m_datasource, m_consolidationFunction,
+                    m_step, m_start, m_end, m_maxrows);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s:%s:%s (step=%d, start=%d, end=%d, maxrows=%d)",
+                    m_file, m_datasource, m_consolidationFunction, m_step, m_start, m_end, m_maxrows);
+        }
+    }
+
+    public static class Entry {
+
+        private final long m_lastUpdate;
+
+        private final long[] m_timestamps;
+
+        private final double[] m_values;
+
+        private final long m_step;
+
+        private Entry(final long lastUpdate, final long[] timestamps, final double[] values, final long step) {
+            m_lastUpdate = lastUpdate;
+            m_timestamps = timestamps;
+            m_values = values;
+            m_step = step;
+        }
+
+        public long getLastUpdate() {
+            return m_lastUpdate;
+        }
+
+        public long[] getTimestamps() {
+            return m_timestamps;
+        }
+
+        public double[] getValues() {
+            return m_values;
+        }
+
+        public long getStep() {
+            return m_step;
+        }
+
+        /**
+         * The timestamps are usually shared with the other columns of the same
+         * fetch, but are accounted for in every entry.
+         */
+        private long getSize() {
+            return ENTRY_OVERHEAD + 8L * m_timestamps.length + 8L * m_values.length;
+        }
+    }
+}
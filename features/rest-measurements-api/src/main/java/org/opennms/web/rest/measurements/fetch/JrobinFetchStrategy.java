@@ -31,6 +31,7 @@ package org.opennms.web.rest.measurements.fetch;
 import java.io.IOException;
 import java.util.Map;
 
+import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdException;
 import org.jrobin.data.DataProcessor;
 import org.opennms.netmgt.dao.api.ResourceDao;
@@ -50,6 +51,21 @@ public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
         super(resourceDao);
     }
 
+    /**
+     * Uses the last update time stored in the header of the JRB, since writes
+     * made through a memory-mapped backend may not touch the modification time
+     * of the file right away.
+     */
+    @Override
+    protected long getLastUpdate(final String rrdFile) throws IOException, RrdException {
+        final RrdDb rrdDb = new RrdDb(rrdFile, true);
+        try {
+            return rrdDb.getLastUpdateTime();
+        } finally {
+            rrdDb.close();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -73,6 +73,12 @@ public class RrdtoolXportFetchStrategy extends AbstractRrdBasedFetchStrategy {
      */
     public static final long XPORT_TIMEOUT_MS = 120000;
 
+    /**
+     * The context is thread-safe and expensive to create, so it is shared by
+     * all of the requests.
+     */
+    private static JAXBContext s_jaxbContext = null;
+
     public RrdtoolXportFetchStrategy(final ResourceDao resourceDao) {
         super(resourceDao);
     }
@@ -152,8 +158,7 @@ public class RrdtoolXportFetchStrategy extends AbstractRrdBasedFetchStrategy {
             xmlReader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
             final SAXSource source = new SAXSource(xmlReader, new InputSource(
                     new StringReader(stdout.toString())));
-            final JAXBContext jc = JAXBContext.newInstance(RrdXport.class);
-            final Unmarshaller u = jc.createUnmarshaller();
+            final Unmarshaller u = getJaxbContext().createUnmarshaller();
             rrdXport = (RrdXport) u.unmarshal(source);
         } catch (IOException e) {
             throw new RrdException("An error occured while executing '"
@@ -189,4 +194,11 @@ public class RrdtoolXportFetchStrategy extends AbstractRrdBasedFetchStrategy {
 
         return new FetchResults(timestamps, columns, rrdXport.getMeta().getStep() * 1000, constants);
     }
+
+    private static synchronized JAXBContext getJaxbContext() throws JAXBException {
+        if (s_jaxbContext == null) {
+            s_jaxbContext = JAXBContext.newInstance(RrdXport.class);
+        }
+        return s_jaxbContext;
+    }
 }
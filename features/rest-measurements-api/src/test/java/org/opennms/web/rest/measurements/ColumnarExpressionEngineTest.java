@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.web.rest.measurements.fetch.FetchResults;
+import org.opennms.web.rest.measurements.model.Expression;
+import org.opennms.web.rest.measurements.model.QueryRequest;
+import org.opennms.web.rest.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ColumnarExpressionEngineTest {
+
+    private final ExpressionEngine columnarExpressionEngine = new ColumnarExpressionEngine();
+
+    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        peformExpression("/");
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        peformExpression("!(!true)");
+    }
+
+    @Test
+    public void canPerformLinearCombination() throws ExpressionException {
+        double results[] = peformExpression("x * 5 + 7");
+        assertEquals(12, results[1], 0.0001);
+    }
+
+    @Test
+    public void canPerformSin() throws ExpressionException {
+        double results[] = peformExpression("math:sin(x)");
+        assertEquals(Math.sin(1.0d), results[1], 0.0001);
+    }
+
+    @Test
+    public void canReferenceTimestamp() throws ExpressionException {
+        double results[] = peformExpression("timestamp / 125.0d");
+        assertEquals(400.0d, results[50], 0.0001);
+    }
+
+    @Test
+    public void canReferenceConstant() throws ExpressionException {
+        Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+
+        double results[] = peformExpression("speed / 0.62137", constants);
+        assertEquals(104.607560713, results[0], 0.0001);
+    }
+
+    @Test
+    public void canUseIntegerDivision() throws ExpressionException {
+        // Not compiled, evaluated row by row
+        double results[] = peformExpression("timestamp / 3000");
+        assertEquals(16.0d, results[50], 0.0);
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        QueryRequest request = new QueryRequest();
+        request.setSources(Lists.newArrayList(new Source("x", "resource", "x", false)));
+        request.setExpressions(Lists.newArrayList(
+                new Expression("a", "x * 2", true),
+                new Expression("b", "x + 1", false),
+                new Expression("c", "a > 100 ? a - b : b", false)));
+
+        FetchResults results = createFetchResults(200, 1, Maps.<String, Object>newHashMap(), new Random(1));
+        double x[] = results.getColumns().get("x").clone();
+        columnarExpressionEngine.applyExpressions(request, results);
+
+        assertFalse(results.getColumns().containsKey("a"));
+        for (int i = 0; i < x.length; i++) {
+            assertEquals(x[i] + 1, results.getColumns().get("b")[i], 0.0);
+            assertEquals(x[i] * 2 > 100 ? x[i] * 2 - (x[i] + 1) : x[i] + 1, results.getColumns().get("c")[i], 0.0);
+        }
+    }
+
+    /**
+     * Evaluates the same requests with both engines, using columns with zeros
+     * and NaNs, and prints how long each one took for a year of 5 minute steps.
+     */
+    @Test
+    public void agreesWithJexlEngine() throws ExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(
+                new Expression("e0", "x0 * 8 / speed", false),
+                new Expression("e1", "x1 != 0 ? x0 / x1 : __inf", false),
+                new Expression("e2", "x1 / x2", true),
+                new Expression("e3", "e2 > 1 || x3 == 0 ? math:log(x3) : -e2", false),
+                new Expression("e4", "not (x4 ge x5) and x6 lt 0.5 ? 1 : 0", false),
+                new Expression("e5", "(timestamp - 1000) / 300000.0d + x7 % 3", false),
+                new Expression("e6", "math:max(e0, e1) - strictmath:sqrt(x8)", false),
+                new Expression("e7", "math:round(x9 * 100) / 100.0", false),
+                new Expression("e8", "x10 == x11 ? -0.0 : x10 - x11", false),
+                new Expression("e9", "e3 + e4 + e5 + e6 + e7 + e8", false));
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 100000000L);
+
+        for (final int numRows : new int[] { 100, 105120 }) {
+            final Random random = new Random(numRows);
+            final FetchResults columnarResults = createFetchResults(numRows, 20, constants, random);
+            final FetchResults jexlResults = new FetchResults(columnarResults.getTimestamps(),
+                    Maps.newHashMap(columnarResults.getColumns()), columnarResults.getStep(), constants);
+
+            final QueryRequest request = new QueryRequest();
+            request.setExpressions(expressions);
+
+            long start = System.nanoTime();
+            jexlExpressionEngine.applyExpressions(request, jexlResults);
+            final long jexlElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            columnarExpressionEngine.applyExpressions(request, columnarResults);
+            final long columnarElapsed = System.nanoTime() - start;
+
+            assertEquals(jexlResults.getColumns().keySet(), columnarResults.getColumns().keySet());
+            for (final Expression e : expressions) {
+                if (!e.getTransient()) {
+                    assertArrayEquals(e.getExpression(), jexlResults.getColumns().get(e.getLabel()), columnarResults.getColumns().get(e.getLabel()), 0.0);
+                }
+            }
+
+            System.err.printf("%d expressions over %d rows: JEXL %d ms, columnar %d ms.%n",
+                    expressions.size(), numRows, jexlElapsed / 1000000, columnarElapsed / 1000000);
+        }
+    }
+
+    private double[] peformExpression(String expression) throws ExpressionException {
+        Map<String, Object> constants = Maps.newHashMap();
+        return peformExpression(expression, constants);
+    }
+
+    private double[] peformExpression(String expression, Map<String, Object> constants) throws ExpressionException {
+        // Build a simple request with the given expression
+        QueryRequest request = new QueryRequest();
+
+        Source constant = new Source();
+        constant.setLabel("x");
+        request.setSources(Lists.newArrayList(constant));
+
+        Expression exp = new Expression();
+        exp.setLabel("y");
+        exp.setExpression(expression);
+        request.setExpressions(Lists.newArrayList(exp));
+
+        // Build the fetch results with known values
+        final int N = 100;
+        long timestamps[] = new long[N];
+        double xValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            xValues[i] = Double.valueOf(i);
+        }
+        Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        FetchResults results = new FetchResults(timestamps, values, 1, constants);
+
+        // Use the engine to evaluate the expression
+        columnarExpressionEngine.applyExpressions(request, results);
+
+        // Retrieve the results
+        return results.getColumns().get("y");
+    }
+
+    private static FetchResults createFetchResults(int numRows, int numColumns, Map<String, Object> constants, Random random) {
+        long timestamps[] = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = 1420070400000L + i * 300000L;
+        }
+        Map<String, double[]> values = Maps.newHashMap();
+        for (int k = 0; k < numColumns; k++) {
+            double column[] = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                final int kind = random.nextInt(10);
+                if (kind == 0) {
+                    column[i] = 0.0d;
+                } else if (kind == 1) {
+                    column[i] = Double.NaN;
+                } else if (kind == 2) {
+                    column[i] = random.nextInt(3);
+                } else {
+                    column[i] = random.nextDouble() * 1000;
+                }
+            }
+            values.put(numColumns == 1 ? "x" : "x" + k, column);
+        }
+        return new FetchResults(timestamps, values, 300000L, constants);
+    }
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements.fetch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdException;
+import org.junit.Test;
+import org.opennms.web.rest.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class AbstractRrdBasedFetchStrategyTest {
+
+    private static final long STEP = 300 * 1000;
+
+    @Test
+    public void fetchesEachFileSeparately() throws Exception {
+        final MockFetchStrategy strategy = new MockFetchStrategy(new FetchResultCache(1024 * 1024));
+        final Map<Source, String> rrdsBySource = getRrdsBySource("a", "b", "c");
+
+        final FetchResults results = strategy.fetchByFile(0, 10 * STEP, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+
+        assertEquals(3, strategy.fetches.size());
+        for (final Map<Source, String> fetch : strategy.fetches) {
+            assertEquals(1, fetch.size());
+        }
+        assertEquals(3, results.getColumns().size());
+        assertEquals(STEP, results.getStep());
+        assertArrayEquals(MockFetchStrategy.getValues("a", results.getTimestamps()), results.getColumns().get("a"), 0.0d);
+        assertArrayEquals(MockFetchStrategy.getValues("c", results.getTimestamps()), results.getColumns().get("c"), 0.0d);
+    }
+
+    @Test
+    public void servesAlignedWindowsFromTheCache() throws Exception {
+        final FetchResultCache cache = new FetchResultCache(1024 * 1024);
+        final MockFetchStrategy strategy = new MockFetchStrategy(cache);
+        final Map<Source, String> rrdsBySource = getRrdsBySource("a", "b");
+
+        final FetchResults first = strategy.fetchByFile(STEP + 1000, 10 * STEP + 1000, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+        final FetchResults second = strategy.fetchByFile(STEP + 2000, 10 * STEP + 2000, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+
+        assertEquals(2, strategy.fetches.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(STEP, first.getTimestamps()[0]);
+        assertEquals(11 * STEP, first.getTimestamps()[first.getTimestamps().length - 1]);
+        assertSame(first.getColumns().get("a"), second.getColumns().get("a"));
+
+        // A different window is a different entry
+        strategy.fetchByFile(2 * STEP, 10 * STEP, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+        assertEquals(4, strategy.fetches.size());
+        assertEquals(4, cache.getEntryCount());
+    }
+
+    @Test
+    public void invalidatesEntriesWhenTheFileIsUpdated() throws Exception {
+        final FetchResultCache cache = new FetchResultCache(1024 * 1024);
+        final MockFetchStrategy strategy = new MockFetchStrategy(cache);
+        final Map<Source, String> rrdsBySource = getRrdsBySource("a", "b");
+
+        strategy.fetchByFile(0, 10 * STEP, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+        strategy.lastUpdates.put("a.jrb", 1L);
+        strategy.fetchByFile(0, 10 * STEP, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+
+        assertEquals(3, strategy.fetches.size());
+        assertEquals("a", strategy.fetches.get(2).keySet().iterator().next().getLabel());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntries() throws Exception {
+        // Enough room for two columns of 11 rows
+        final FetchResultCache cache = new FetchResultCache(2 * (256 + 2 * 8 * 11));
+        final MockFetchStrategy strategy = new MockFetchStrategy(cache);
+
+        strategy.fetchByFile(0, 10 * STEP, STEP, 0, getRrdsBySource("a", "b"), Collections.<String, Object>emptyMap());
+        strategy.fetchByFile(0, 10 * STEP, STEP, 0, getRrdsBySource("a"), Collections.<String, Object>emptyMap());
+        strategy.fetchByFile(0, 10 * STEP, STEP, 0, getRrdsBySource("c"), Collections.<String, Object>emptyMap());
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+
+        // b was evicted, a was not
+        strategy.fetches.clear();
+        strategy.fetchByFile(0, 10 * STEP, STEP, 0, getRrdsBySource("a", "b"), Collections.<String, Object>emptyMap());
+        assertEquals(1, strategy.fetches.size());
+        assertEquals("b", strategy.fetches.get(0).keySet().iterator().next().getLabel());
+    }
+
+    @Test
+    public void fetchesTheSourcesTogetherWhenTheStepsDiffer() throws Exception {
+        final MockFetchStrategy strategy = new MockFetchStrategy(new FetchResultCache(1024 * 1024));
+        strategy.steps.put("b.jrb", 2 * STEP);
+        final Map<Source, String> rrdsBySource = getRrdsBySource("a", "b");
+
+        final FetchResults results = strategy.fetchByFile(0, 10 * STEP, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+
+        assertEquals(3, strategy.fetches.size());
+        assertEquals(2, strategy.fetches.get(2).size());
+        assertEquals(STEP, results.getStep());
+        assertEquals(2, results.getColumns().size());
+    }
+
+    @Test
+    public void fetchesAsBeforeWithoutTheCache() throws Exception {
+        final FetchResultCache cache = new FetchResultCache(0);
+        final MockFetchStrategy strategy = new MockFetchStrategy(cache);
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        rrdsBySource.put(new Source("x", "node[1].nodeSnmp[]", "x", false), "a.jrb");
+        rrdsBySource.put(new Source("y", "node[1].nodeSnmp[]", "y", false), "a.jrb");
+
+        final FetchResults results = strategy.fetchByFile(1000, 10 * STEP + 1000, STEP, 0, rrdsBySource, Collections.<String, Object>emptyMap());
+
+        assertEquals(1, strategy.fetches.size());
+        assertEquals(2, strategy.fetches.get(0).size());
+        assertEquals(0, results.getTimestamps()[0]);
+        assertEquals(0, cache.getMisses());
+    }
+
+    private static Map<Source, String> getRrdsBySource(final String... files) {
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        for (final String file : files) {
+            rrdsBySource.put(new Source(file, "node[1].nodeSnmp[]", file, false), file + ".jrb");
+        }
+        return rrdsBySource;
+    }
+
+    private static class MockFetchStrategy extends AbstractRrdBasedFetchStrategy {
+
+        private final List<Map<Source, String>> fetches = Collections.synchronizedList(Lists.<Map<Source, String>>newArrayList());
+
+        private final Map<String, Long> lastUpdates = Maps.newConcurrentMap();
+
+        private final Map<String, Long> steps = Maps.newConcurrentMap();
+
+        public MockFetchStrategy(final FetchResultCache cache) {
+            super(null, cache);
+        }
+
+        @Override
+        protected long getLastUpdate(final String rrdFile) {
+            final Long lastUpdate = lastUpdates.get(rrdFile);
+            return lastUpdate != null ? lastUpdate : 0;
+        }
+
+        @Override
+        protected FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
+                Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException {
+            fetches.add(rrdsBySource);
+
+            // Use the smallest step of the files, like the strategies do when resampling
+            long fetchStep = Long.MAX_VALUE;
+            for (final String rrdFile : rrdsBySource.values()) {
+                final Long fileStep = steps.get(rrdFile);
+                fetchStep = Math.min(fetchStep, fileStep != null ? fileStep : step);
+            }
+
+            final long[] timestamps = new long[(int)((end - start) / fetchStep) + 1];
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = start - (start % fetchStep) + i * fetchStep;
+            }
+
+            final Map<String, double[]> columns = Maps.newHashMap();
+            for (final Source source : rrdsBySource.keySet()) {
+                columns.put(source.getLabel(), getValues(source.getLabel(), timestamps));
+            }
+            return new FetchResults(timestamps, columns, fetchStep, constants);
+        }
+
+        private static double[] getValues(final String label, final long[] timestamps) {
+            final double[] values = new double[timestamps.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = label.hashCode() + timestamps[i] / 1000.0d;
+            }
+            return values;
+        }
+    }
+}
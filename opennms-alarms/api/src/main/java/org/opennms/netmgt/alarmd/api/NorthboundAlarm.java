@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.alarmd.api;
 
+import java.io.Serializable;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.HashMap;
@@ -46,7 +47,9 @@ import org.opennms.netmgt.model.TroubleTicketState;
  * 
  * @author <a mailto:david@opennms.org>David Hustace</a>
  */
-public class NorthboundAlarm implements Preservable {
+public class NorthboundAlarm implements Preservable, Serializable {
+
+	private static final long serialVersionUID = 1L;
 	
 	public static final NorthboundAlarm SYNC_LOST_ALARM = new NorthboundAlarm(-1, "uei.opennms.org/alarmd/northbounderSyncLost");
 
@@ -538,4 +541,15 @@ public class NorthboundAlarm implements Preservable {
 		return m_nodeId;
 	}
 
+	/**
+	 * Keeps the sync lost alarm a singleton when it is read back from an
+	 * alarm journal.
+	 */
+	private Object readResolve() {
+		if (SYNC_LOST_ALARM.getId().equals(m_id) && SYNC_LOST_ALARM.getUei().equals(m_uei)) {
+			return SYNC_LOST_ALARM;
+		}
+		return this;
+	}
+
 }
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.alarmd.api.support;
 
+import java.io.File;
 import java.util.List;
 
 import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
@@ -83,6 +84,14 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         m_queue.setMaxPreservedAlarms(maxPreservedAlarms);
     }
 
+    /**
+     * Keeps the alarms preserved while the target is unavailable in a journal
+     * in this directory, rather than in memory.  Must be set before starting.
+     */
+    public void setJournalDirectory(File journalDirectory) {
+        m_queue.setJournalDirectory(journalDirectory);
+    }
+
     /** Override this to perform actions before startup. **/
     protected void onPreStart() {}
 
@@ -126,6 +135,7 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
     public final void stop() throws NorthbounderException {
         this.onStop();
         m_stopped = true;
+        m_queue.destroy();
     }
     
     @Override
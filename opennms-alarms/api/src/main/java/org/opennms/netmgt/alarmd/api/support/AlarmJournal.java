@@ -0,0 +1,517 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd.api.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only, memory-mapped journal the {@link AlarmQueue} keeps its
+ * preserved alarms in, so that they survive a restart and a long outage of
+ * the northbound target does not fill up the heap.
+ *
+ * The journal is a directory of numbered segment files, each holding a
+ * sequence of serialized alarms prefixed by their length, and a checkpoint
+ * file with the position of the first alarm that has not been forwarded
+ * yet.  Only the segments currently read from and written to are mapped.
+ * Alarms taken with {@link #poll()} are only forgotten once the position is
+ * committed with {@link #commit()}, so alarms that were taken but never
+ * forwarded are replayed when the journal is opened again.
+ *
+ * Alarms and the checkpoint are forced to disk on a bounded interval: a
+ * timer forces whatever was written at most <code>syncInterval</code>
+ * milliseconds earlier, so a crash of the system loses at most that much.
+ * With an interval of 0 every {@link #offer(Object)} and {@link #commit()}
+ * forces its write before returning.  Segments that are no longer read or
+ * written are unmapped right away rather than when they are collected.
+ */
+class AlarmJournal<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    // segment id and offset of the next alarm to forward
+    private static final int CHECKPOINT_SIZE = 12;
+
+    static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+    private static final class Segment {
+        private final long m_id;
+        private final File m_file;
+        private final MappedByteBuffer m_buffer;
+
+        private Segment(final long id, final File file, final MappedByteBuffer buffer) {
+            m_id = id;
+            m_file = file;
+            m_buffer = buffer;
+        }
+    }
+
+    private final File m_directory;
+    private final int m_segmentSize;
+    private final long m_syncInterval;
+
+    private Timer m_syncTimer;
+
+    private MappedByteBuffer m_checkpoint;
+    private boolean m_checkpointDirty;
+    private long m_firstSegmentId;
+
+    private Segment m_readSegment;
+    private int m_readOffset;
+
+    private Segment m_writeSegment;
+    private int m_writeOffset;
+    private boolean m_writeDirty;
+
+    private int m_size;
+    private boolean m_open;
+
+    /**
+     * @param directory the directory the segments are kept in
+     * @param segmentSize the size of each segment file in bytes; alarms
+     * larger than that are written to a segment of their own
+     */
+    AlarmJournal(final File directory, final int segmentSize) {
+        this(directory, segmentSize, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * @param directory the directory the segments are kept in
+     * @param segmentSize the size of each segment file in bytes; alarms
+     * larger than that are written to a segment of their own
+     * @param syncInterval the most milliseconds a write may wait to be
+     * forced to disk, or 0 to force every write
+     */
+    AlarmJournal(final File directory, final int segmentSize, final long syncInterval) {
+        m_directory = directory;
+        m_segmentSize = segmentSize;
+        m_syncInterval = syncInterval;
+    }
+
+    /**
+     * Opens the journal, picking up the alarms that had not been forwarded
+     * when it was last closed.
+     */
+    synchronized void open() throws IOException {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException("Unable to create the alarm journal directory " + m_directory);
+        }
+
+        m_checkpoint = map(new File(m_directory, CHECKPOINT_FILE), CHECKPOINT_SIZE);
+        long readId = m_checkpoint.getLong(0);
+        int readOffset = m_checkpoint.getInt(8);
+
+        final long[] ids = listSegmentIds();
+        if (ids.length == 0) {
+            readId = 0;
+            readOffset = 0;
+        } else if (readId < ids[0] || readId > ids[ids.length - 1]) {
+            LOG.warn("The alarm journal checkpoint in {} points to a missing segment, replaying from the oldest one", m_directory);
+            readId = ids[0];
+            readOffset = 0;
+        }
+        for (final long id : ids) {
+            if (id < readId) {
+                deleteSegment(segmentFile(id));
+            }
+        }
+        m_firstSegmentId = readId;
+
+        // count the alarms left, which leaves the write position after the last one
+        m_readSegment = openSegment(readId, m_segmentSize);
+        m_readOffset = readOffset;
+        m_writeSegment = m_readSegment;
+        m_writeOffset = readOffset;
+        m_size = 0;
+        for (;;) {
+            int length;
+            while ((length = lengthAt(m_writeSegment, m_writeOffset)) > 0) {
+                m_writeOffset += 4 + length;
+                m_size++;
+            }
+            final File next = segmentFile(m_writeSegment.m_id + 1);
+            if (!next.exists()) {
+                break;
+            }
+            final Segment counted = m_writeSegment;
+            m_writeSegment = openSegment(m_writeSegment.m_id + 1, m_segmentSize);
+            m_writeOffset = 0;
+            if (counted != m_readSegment) {
+                unmap(counted.m_buffer);
+            }
+        }
+        m_open = true;
+
+        if (m_syncInterval > 0) {
+            m_syncTimer = new Timer("AlarmJournal-Sync", true);
+            m_syncTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, m_syncInterval, m_syncInterval);
+        }
+
+        if (m_size > 0) {
+            LOG.info("Replaying {} preserved alarms from the alarm journal in {}", m_size, m_directory);
+        }
+    }
+
+    /**
+     * Appends an alarm to the journal.
+     *
+     * @return false if the alarm could not be written
+     */
+    synchronized boolean offer(final T alarm) {
+        if (!m_open) {
+            return false;
+        }
+        try {
+            final byte[] bytes = serialize(alarm);
+            if (m_writeOffset + 4 + bytes.length > m_writeSegment.m_buffer.capacity()) {
+                final Segment next = openSegment(m_writeSegment.m_id + 1, Math.max(m_segmentSize, 4 + bytes.length));
+                if (m_writeDirty) {
+                    m_writeSegment.m_buffer.force();
+                }
+                if (m_writeSegment != m_readSegment) {
+                    unmap(m_writeSegment.m_buffer);
+                }
+                m_writeSegment = next;
+                m_writeOffset = 0;
+            }
+            // write the length last so a torn write reads as the end of the journal
+            final ByteBuffer buffer = m_writeSegment.m_buffer.duplicate();
+            buffer.position(m_writeOffset + 4);
+            buffer.put(bytes);
+            buffer.putInt(m_writeOffset, bytes.length);
+            m_writeOffset += 4 + bytes.length;
+            m_size++;
+            m_writeDirty = true;
+            if (m_syncInterval <= 0) {
+                sync();
+            }
+            return true;
+        } catch (final IOException e) {
+            LOG.error("Unable to write alarm {} to the alarm journal in {}", alarm, m_directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * Takes the next alarm from the journal.  It will be replayed when the
+     * journal is reopened unless {@link #commit()} is called after it has
+     * been forwarded.
+     *
+     * @return the next alarm, or null if there are none
+     */
+    synchronized T poll() {
+        while (m_open && m_size > 0) {
+            int length = lengthAt(m_readSegment, m_readOffset);
+            if (length == 0) {
+                if (m_readSegment == m_writeSegment) {
+                    // only a corrupt record stops us short of the last alarm written; skip
+                    // to the end so the count is right and new alarms can be read
+                    LOG.warn("Lost {} alarms after a corrupt record in the alarm journal in {}", m_size, m_directory);
+                    m_readOffset = m_writeOffset;
+                    m_size = 0;
+                    return null;
+                }
+                final Segment read = m_readSegment;
+                try {
+                    m_readSegment = read.m_id + 1 == m_writeSegment.m_id ? m_writeSegment : openSegment(read.m_id + 1, m_segmentSize);
+                } catch (final IOException e) {
+                    throw new IllegalStateException("Unable to read the alarm journal in " + m_directory, e);
+                }
+                m_readOffset = 0;
+                unmap(read.m_buffer);
+                continue;
+            }
+
+            final byte[] bytes = new byte[length];
+            final ByteBuffer buffer = m_readSegment.m_buffer.duplicate();
+            buffer.position(m_readOffset + 4);
+            buffer.get(bytes);
+            m_readOffset += 4 + length;
+            m_size--;
+
+            try {
+                return deserialize(bytes);
+            } catch (final IOException e) {
+                LOG.warn("Skipping an unreadable alarm in the alarm journal in {}", m_directory, e);
+            } catch (final ClassNotFoundException e) {
+                LOG.warn("Skipping an unreadable alarm in the alarm journal in {}", m_directory, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes up to maxAlarms alarms from the journal.
+     *
+     * @return the number of alarms added to the collection
+     */
+    synchronized int drainTo(final Collection<? super T> c, final int maxAlarms) {
+        int drained = 0;
+        while (drained < maxAlarms) {
+            final T alarm = poll();
+            if (alarm == null) {
+                break;
+            }
+            c.add(alarm);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Records that the alarms taken so far have been forwarded, and removes
+     * the segments that only held those.
+     */
+    synchronized void commit() {
+        if (!m_open) {
+            return;
+        }
+        m_checkpoint.putLong(0, m_readSegment.m_id);
+        m_checkpoint.putInt(8, m_readOffset);
+        m_checkpointDirty = true;
+        if (m_syncInterval <= 0 || m_firstSegmentId < m_readSegment.m_id) {
+            // don't leave a checkpoint on disk that points to a deleted segment
+            sync();
+        }
+        for (long id = m_firstSegmentId; id < m_readSegment.m_id; id++) {
+            deleteSegment(segmentFile(id));
+        }
+        m_firstSegmentId = m_readSegment.m_id;
+    }
+
+    /**
+     * Forgets all the alarms in the journal.
+     */
+    synchronized void clear() {
+        if (!m_open) {
+            return;
+        }
+        if (m_readSegment != m_writeSegment) {
+            unmap(m_readSegment.m_buffer);
+        }
+        m_readSegment = m_writeSegment;
+        m_readOffset = m_writeOffset;
+        m_size = 0;
+        commit();
+    }
+
+    synchronized int size() {
+        return m_size;
+    }
+
+    synchronized boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    synchronized void close() {
+        if (!m_open) {
+            return;
+        }
+        if (m_syncTimer != null) {
+            m_syncTimer.cancel();
+            m_syncTimer = null;
+        }
+        m_writeSegment.m_buffer.force();
+        m_checkpoint.force();
+        m_open = false;
+        if (m_readSegment != m_writeSegment) {
+            unmap(m_readSegment.m_buffer);
+        }
+        unmap(m_writeSegment.m_buffer);
+        unmap(m_checkpoint);
+        m_readSegment = null;
+        m_writeSegment = null;
+        m_checkpoint = null;
+    }
+
+    /**
+     * Forces the alarms and the checkpoint written since the last time to disk.
+     */
+    synchronized void sync() {
+        if (!m_open) {
+            return;
+        }
+        if (m_writeDirty) {
+            m_writeSegment.m_buffer.force();
+            m_writeDirty = false;
+        }
+        if (m_checkpointDirty) {
+            m_checkpoint.force();
+            m_checkpointDirty = false;
+        }
+    }
+
+    /**
+     * @return the length of the alarm at the offset, or 0 at the end of the
+     * segment
+     */
+    private static int lengthAt(final Segment segment, final int offset) {
+        final int capacity = segment.m_buffer.capacity();
+        if (offset + 4 > capacity) {
+            return 0;
+        }
+        final int length = segment.m_buffer.getInt(offset);
+        if (length < 0 || length > capacity - offset - 4) {
+            LOG.warn("Ignoring the rest of corrupt alarm journal segment {} after offset {}", segment.m_file, offset);
+            return 0;
+        }
+        return length;
+    }
+
+    private Segment openSegment(final long id, final int size) throws IOException {
+        final File file = segmentFile(id);
+        return new Segment(id, file, map(file, size));
+    }
+
+    /**
+     * Maps a file, growing it to the given size if it is smaller.
+     */
+    private static MappedByteBuffer map(final File file, final int size) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return channel.map(MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        } finally {
+            // the mapping stays valid once the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Releases the mapping of a buffer now instead of whenever it is
+     * collected, so deleted segments don't hold on to disk space and address
+     * space.  The buffer must not be touched afterwards.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = null;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (final NoSuchMethodException e) {
+                // before Java 9 the buffer hands out its cleaner itself
+            }
+            if (invokeCleaner != null) {
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } else {
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (final Exception e) {
+            LOG.debug("Unable to unmap an alarm journal buffer, leaving it to the garbage collector", e);
+        }
+    }
+
+    private File segmentFile(final long id) {
+        return new File(m_directory, String.format("%019d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private long[] listSegmentIds() {
+        final File[] files = m_directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new long[0];
+        }
+        final long[] ids = new long[files.length];
+        int count = 0;
+        for (final File file : files) {
+            final String name = file.getName();
+            try {
+                ids[count] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (final NumberFormatException e) {
+                LOG.warn("Ignoring unexpected file {} in the alarm journal", file);
+            }
+        }
+        final long[] sorted = Arrays.copyOf(ids, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static void deleteSegment(final File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Unable to delete alarm journal segment {}", file);
+        }
+    }
+
+    private static byte[] serialize(final Object alarm) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(alarm);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T deserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (T)in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.alarmd.api.support;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -37,6 +39,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.opennms.netmgt.alarmd.api.NorthbounderException;
 import org.opennms.netmgt.alarmd.api.Preservable;
 
 /**
@@ -58,12 +61,12 @@ class AlarmQueue<T extends Preservable> {
         abstract void forwardFailed(List<T> alarms);
 
         protected void addToPreservedQueue(T a) {
-            if (m_preservedQueue.size() >= m_maxPreservedAlarms) {
+            if (preservedSize() >= m_maxPreservedAlarms || !offerPreserved(a)) {
                 m_nextBatch.clear();
-                m_preservedQueue.clear();
-                m_preservedQueue.offer(m_statusFactory.createSyncLostMessage());
+                clearPreserved();
+                offerPreserved(m_statusFactory.createSyncLostMessage());
+                offerPreserved(a);
             }
-            m_preservedQueue.offer(a);
         }
         
         protected void discardNonPreservedAlarms() {
@@ -83,7 +86,11 @@ class AlarmQueue<T extends Preservable> {
         }
 
         protected void loadNextBatch() {
-            m_preservedQueue.drainTo(m_nextBatch, m_maxBatchSize - m_nextBatch.size());
+            if (m_journal == null) {
+                m_preservedQueue.drainTo(m_nextBatch, m_maxBatchSize - m_nextBatch.size());
+            } else {
+                m_journal.drainTo(m_nextBatch, m_maxBatchSize - m_nextBatch.size());
+            }
         }
         
     }
@@ -131,7 +138,7 @@ class AlarmQueue<T extends Preservable> {
             
             addPreservedToPreservedQueue(alarms);
             
-            if (!m_preservedQueue.isEmpty()) {
+            if (preservedSize() > 0) {
                setState(FAILING);
             }
         }
@@ -162,7 +169,8 @@ class AlarmQueue<T extends Preservable> {
         @Override
         public void forwardSuccessful(List<T> alarms) {
             m_nextBatch.clear();
-            if (m_preservedQueue.isEmpty()) {
+            commitPreserved();
+            if (preservedSize() == 0) {
                 setState(FORWARDING);
             } else {
                 setState(RECOVERING);
@@ -190,7 +198,8 @@ class AlarmQueue<T extends Preservable> {
         @Override
         public void forwardSuccessful(List<T> alarms) {
             m_nextBatch.clear();
-            if (m_preservedQueue.isEmpty()) {
+            commitPreserved();
+            if (preservedSize() == 0) {
                 setState(FORWARDING);
             }
         }
@@ -212,6 +221,12 @@ class AlarmQueue<T extends Preservable> {
     
     // queue for preserving alarms that are being saved during a forwarding failure
     private BlockingQueue<T> m_preservedQueue = new LinkedBlockingQueue<T>();
+
+    // directory of the journal preserved alarms are kept in instead, if set
+    private File m_journalDirectory;
+    private int m_journalSegmentSize = 8 * 1024 * 1024;
+    private long m_journalSyncInterval = AlarmJournal.DEFAULT_SYNC_INTERVAL;
+    private AlarmJournal<T> m_journal;
     
     // a list of alarms that are pending due to a forwarding failure
     private List<T> m_nextBatch;
@@ -258,8 +273,83 @@ class AlarmQueue<T extends Preservable> {
         m_maxBatchSize = maxBatchSize;
     }
     
+    public File getJournalDirectory() {
+        return m_journalDirectory;
+    }
+
+    /**
+     * Keeps the preserved alarms in a journal in this directory rather than
+     * in memory, so they survive a restart.
+     */
+    public void setJournalDirectory(File journalDirectory) {
+        m_journalDirectory = journalDirectory;
+    }
+
+    public int getJournalSegmentSize() {
+        return m_journalSegmentSize;
+    }
+
+    public void setJournalSegmentSize(int journalSegmentSize) {
+        m_journalSegmentSize = journalSegmentSize;
+    }
+
+    public long getJournalSyncInterval() {
+        return m_journalSyncInterval;
+    }
+
+    /**
+     * The most milliseconds a preserved alarm may wait to be forced to disk,
+     * or 0 to force each one as it is written.
+     */
+    public void setJournalSyncInterval(long journalSyncInterval) {
+        m_journalSyncInterval = journalSyncInterval;
+    }
+
     public void init() {
        m_nextBatch = new ArrayList<T>(m_maxBatchSize); 
+
+       if (m_journalDirectory != null && m_journal == null) {
+           final AlarmJournal<T> journal = new AlarmJournal<T>(m_journalDirectory, m_journalSegmentSize, m_journalSyncInterval);
+           try {
+               journal.open();
+           } catch (IOException e) {
+               throw new NorthbounderException("Unable to open the alarm journal in " + m_journalDirectory, e);
+           }
+           m_journal = journal;
+           if (!m_journal.isEmpty()) {
+               // forward the alarms preserved before the restart first
+               setState(RECOVERING);
+           }
+       }
+    }
+
+    public void destroy() {
+        if (m_journal != null) {
+            m_journal.close();
+            m_journal = null;
+        }
+    }
+
+    private int preservedSize() {
+        return m_journal == null ? m_preservedQueue.size() : m_journal.size();
+    }
+
+    private boolean offerPreserved(T a) {
+        return m_journal == null ? m_preservedQueue.offer(a) : m_journal.offer(a);
+    }
+
+    private void clearPreserved() {
+        if (m_journal == null) {
+            m_preservedQueue.clear();
+        } else {
+            m_journal.clear();
+        }
+    }
+
+    private void commitPreserved() {
+        if (m_journal != null) {
+            m_journal.commit();
+        }
     }
 
     public void discard(T a) {
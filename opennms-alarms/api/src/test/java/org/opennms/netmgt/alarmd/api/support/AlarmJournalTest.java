@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd.api.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
+import org.opennms.netmgt.model.OnmsAlarm;
+
+public class AlarmJournalTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private int m_alarmNumber = 0;
+
+    @Test
+    public void testOfferAndPoll() throws Exception {
+        final AlarmJournal<NorthboundAlarm> journal = open(64 * 1024);
+        assertTrue(journal.isEmpty());
+        assertNull(journal.poll());
+
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(journal.offer(createAlarm()));
+        }
+        assertEquals(3, journal.size());
+
+        assertEquals(1, journal.poll().getId().intValue());
+        final List<NorthboundAlarm> alarms = new ArrayList<NorthboundAlarm>();
+        assertEquals(2, journal.drainTo(alarms, 5));
+        assertEquals(2, alarms.get(0).getId().intValue());
+        assertEquals(3, alarms.get(1).getId().intValue());
+        assertTrue(journal.isEmpty());
+        assertNull(journal.poll());
+        journal.close();
+    }
+
+    @Test
+    public void testReplaysUncommittedAlarms() throws Exception {
+        AlarmJournal<NorthboundAlarm> journal = open(64 * 1024);
+        for (int i = 1; i <= 5; i++) {
+            journal.offer(createAlarm());
+        }
+        journal.poll();
+        journal.poll();
+        journal.commit();
+        // taken, but never forwarded
+        journal.poll();
+        journal.close();
+
+        journal = open(64 * 1024);
+        assertEquals(3, journal.size());
+        assertEquals(3, journal.poll().getId().intValue());
+
+        journal.offer(createAlarm());
+        final List<NorthboundAlarm> alarms = new ArrayList<NorthboundAlarm>();
+        journal.drainTo(alarms, 10);
+        assertEquals(3, alarms.size());
+        assertEquals(4, alarms.get(0).getId().intValue());
+        assertEquals(6, alarms.get(2).getId().intValue());
+        journal.close();
+    }
+
+    @Test
+    public void testRollsAndRemovesSegments() throws Exception {
+        // small enough for a couple of alarms per segment
+        AlarmJournal<NorthboundAlarm> journal = open(4096);
+        for (int i = 1; i <= 20; i++) {
+            assertTrue(journal.offer(createAlarm()));
+        }
+        assertTrue(segments().length > 5);
+        journal.close();
+
+        journal = open(4096);
+        assertEquals(20, journal.size());
+        for (int i = 1; i <= 19; i++) {
+            assertEquals(i, journal.poll().getId().intValue());
+        }
+        journal.commit();
+        assertEquals(1, segments().length);
+        assertEquals(20, journal.poll().getId().intValue());
+        assertNull(journal.poll());
+        journal.close();
+    }
+
+    @Test
+    public void testLargeAlarm() throws Exception {
+        final AlarmJournal<NorthboundAlarm> journal = open(256);
+        assertTrue(journal.offer(createAlarm()));
+        assertTrue(journal.offer(createAlarm()));
+        assertEquals(1, journal.poll().getId().intValue());
+        assertEquals(2, journal.poll().getId().intValue());
+        journal.close();
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        AlarmJournal<NorthboundAlarm> journal = open(64 * 1024);
+        journal.offer(createAlarm());
+        journal.offer(createAlarm());
+        journal.clear();
+        assertTrue(journal.isEmpty());
+        journal.offer(NorthboundAlarm.SYNC_LOST_ALARM);
+        journal.close();
+
+        journal = open(64 * 1024);
+        assertEquals(1, journal.size());
+        assertSame(NorthboundAlarm.SYNC_LOST_ALARM, journal.poll());
+        journal.close();
+        assertFalse(journal.offer(createAlarm()));
+    }
+
+    /**
+     * A record that turns unreadable after it was written must not leave the
+     * journal claiming alarms it can never return.
+     */
+    @Test
+    public void testCorruptRecordResetsSize() throws Exception {
+        final AlarmJournal<NorthboundAlarm> journal = open(64 * 1024);
+        for (int i = 1; i <= 3; i++) {
+            journal.offer(createAlarm());
+        }
+
+        // make the length of the second alarm point past the end of the segment
+        final RandomAccessFile segment = new RandomAccessFile(segments()[0], "rw");
+        try {
+            final int second = 4 + segment.readInt();
+            segment.seek(second);
+            segment.writeInt(Integer.MAX_VALUE - 8);
+        } finally {
+            segment.close();
+        }
+
+        assertEquals(1, journal.poll().getId().intValue());
+        assertNull(journal.poll());
+        assertTrue(journal.isEmpty());
+
+        // alarms written after the corrupt record can still be read
+        assertTrue(journal.offer(createAlarm()));
+        assertEquals(1, journal.size());
+        assertEquals(4, journal.poll().getId().intValue());
+        journal.close();
+    }
+
+    @Test
+    public void testSyncOnEveryWrite() throws Exception {
+        AlarmJournal<NorthboundAlarm> journal = new AlarmJournal<NorthboundAlarm>(new File(m_folder.getRoot(), "journal"), 4096, 0);
+        journal.open();
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(journal.offer(createAlarm()));
+        }
+        for (int i = 1; i <= 8; i++) {
+            assertEquals(i, journal.poll().getId().intValue());
+        }
+        journal.commit();
+        journal.close();
+
+        journal = open(4096);
+        assertEquals(2, journal.size());
+        assertEquals(9, journal.poll().getId().intValue());
+        journal.close();
+    }
+
+    private AlarmJournal<NorthboundAlarm> open(final int segmentSize) throws Exception {
+        final AlarmJournal<NorthboundAlarm> journal = new AlarmJournal<NorthboundAlarm>(new File(m_folder.getRoot(), "journal"), segmentSize);
+        journal.open();
+        return journal;
+    }
+
+    private File[] segments() {
+        return new File(m_folder.getRoot(), "journal").listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(".journal");
+            }
+        });
+    }
+
+    private NorthboundAlarm createAlarm() {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(++m_alarmNumber);
+        alarm.setUei("uei.opennms.org/test/httpNorthBounder");
+        return new NorthboundAlarm(alarm);
+    }
+}
@@ -32,7 +32,9 @@ import static org.junit.Assert.*;
 
 import java.util.List;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
 import org.opennms.netmgt.alarmd.api.support.AlarmQueue;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -46,6 +48,9 @@ import org.opennms.netmgt.model.OnmsAlarm;
  */
 public class AlarmQueueTest implements StatusFactory<NorthboundAlarm>{
 
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
     public int alarmNumber = 0;
     
     private NorthboundAlarm createAlarm() {
@@ -163,6 +168,67 @@ public class AlarmQueueTest implements StatusFactory<NorthboundAlarm>{
         
     }
 
+    @Test
+    public void testJournaledAlarmsSurviveRestart() throws InterruptedException {
+        AlarmQueue<NorthboundAlarm> queue = new AlarmQueue<NorthboundAlarm>(this);
+        queue.setMaxBatchSize(3);
+        queue.setNaglesDelay(0);
+        queue.setJournalDirectory(m_folder.getRoot());
+        queue.init();
+
+        queue.preserve(createAlarm()); // 1
+        queue.accept(createAlarm());  // 2
+        queue.preserve(createAlarm()); // 3
+
+        List<NorthboundAlarm> alarms = queue.getAlarmsToForward();
+        assertEquals(3, alarms.size());
+        queue.forwardFailed(alarms);
+
+        queue.preserve(createAlarm()); // 4
+        queue.preserve(createAlarm()); // 5
+
+        // the first batch is taken from the journal, but never forwarded
+        alarms = queue.getAlarmsToForward();
+        assertEquals(3, alarms.size());
+        queue.destroy();
+
+        queue = new AlarmQueue<NorthboundAlarm>(this);
+        queue.setMaxBatchSize(3);
+        queue.setNaglesDelay(0);
+        queue.setJournalDirectory(m_folder.getRoot());
+        queue.init();
+
+        queue.accept(createAlarm()); // 6
+
+        alarms = queue.getAlarmsToForward();
+        assertEquals(3, alarms.size());
+        assertPreservedAlarm(alarms, 0, 1);
+        assertPreservedAlarm(alarms, 1, 3);
+        assertPreservedAlarm(alarms, 2, 4);
+        queue.forwardSuccessful(alarms);
+
+        alarms = queue.getAlarmsToForward();
+        assertEquals(1, alarms.size());
+        assertPreservedAlarm(alarms, 0, 5);
+        queue.forwardSuccessful(alarms);
+
+        alarms = queue.getAlarmsToForward();
+        assertEquals(1, alarms.size());
+        assertEquals(6, alarms.get(0).getId().intValue());
+        queue.forwardSuccessful(alarms);
+        queue.destroy();
+
+        // nothing is replayed once forwarded
+        queue = new AlarmQueue<NorthboundAlarm>(this);
+        queue.setJournalDirectory(m_folder.getRoot());
+        queue.init();
+        queue.accept(createAlarm()); // 7
+        alarms = queue.getAlarmsToForward();
+        assertEquals(1, alarms.size());
+        assertEquals(7, alarms.get(0).getId().intValue());
+        queue.destroy();
+    }
+
     private void assertPreservedAlarm(List<NorthboundAlarm> alarms, int index, int id) {
         assertTrue(alarms.get(index).isPreserved());
         assertEquals(id, alarms.get(index).getId().intValue());
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * <p>A bounded cache of alarms by reduction key, with the reductions that
+ * haven't been written to the database yet.</p>
+ *
+ * <p>Once an alarm has been loaded or created, further events with the same
+ * reduction key that only bump the counter, last event and log message are
+ * applied to a cached copy of the alarm and recorded as a pending reduction.
+ * {@link AlarmPersister#flush()} writes the pending reductions for each alarm
+ * as one update.  Only these deltas are written, onto the alarm as it is in
+ * the database at that moment, so acknowledgements and vacuumd automations
+ * that changed the alarm in the meantime are kept.</p>
+ *
+ * <p>The cached copies are what Alarmd hands to the northbound interfaces.
+ * They are refreshed from the database on every flush.</p>
+ */
+public class AlarmCache {
+
+    /**
+     * The reductions recorded against one alarm since the last flush.
+     */
+    static final class PendingReduction {
+        private Integer m_alarmId;
+        private final List<Integer> m_eventIds = new ArrayList<Integer>();
+        private OnmsEvent m_lastEvent;
+        private Date m_lastEventTime;
+        private Date m_firstEventTime;
+        private String m_logMsg;
+        private String m_eventParms;
+        private Event m_event;
+
+        private PendingReduction(final Integer alarmId) {
+            m_alarmId = alarmId;
+        }
+
+        private void add(final OnmsEvent e, final OnmsAlarm reduced, final Event event) {
+            m_eventIds.add(e.getId());
+            if (m_firstEventTime == null || e.getEventTime().before(m_firstEventTime)) {
+                m_firstEventTime = e.getEventTime();
+            }
+            m_lastEvent = reduced.getLastEvent();
+            m_lastEventTime = reduced.getLastEventTime();
+            m_logMsg = reduced.getLogMsg();
+            m_eventParms = reduced.getEventParms();
+            m_event = event;
+        }
+
+        private void addAll(final PendingReduction later) {
+            m_eventIds.addAll(later.m_eventIds);
+            if (later.m_firstEventTime.before(m_firstEventTime)) {
+                m_firstEventTime = later.m_firstEventTime;
+            }
+            m_lastEvent = later.m_lastEvent;
+            m_lastEventTime = later.m_lastEventTime;
+            m_logMsg = later.m_logMsg;
+            m_eventParms = later.m_eventParms;
+            m_event = later.m_event;
+        }
+
+        private void applyTo(final OnmsAlarm alarm) {
+            alarm.setCounter(alarm.getCounter() + getCount());
+            applyLastEventTo(alarm);
+        }
+
+        /**
+         * Sets the last event, log message and parms, unless the alarm
+         * already has a later event.
+         */
+        private void applyLastEventTo(final OnmsAlarm alarm) {
+            if (alarm.getLastEventTime() == null || !m_lastEventTime.before(alarm.getLastEventTime())) {
+                alarm.setLastEvent(m_lastEvent);
+                alarm.setLastEventTime(m_lastEventTime);
+                alarm.setLogMsg(m_logMsg);
+                alarm.setEventParms(m_eventParms);
+            }
+        }
+
+        Integer getAlarmId() {
+            return m_alarmId;
+        }
+
+        void setAlarmId(final Integer alarmId) {
+            m_alarmId = alarmId;
+        }
+
+        /**
+         * @return the IDs of the events reduced into the alarm, which still
+         * need to be linked to it
+         */
+        List<Integer> getEventIds() {
+            return m_eventIds;
+        }
+
+        int getCount() {
+            return m_eventIds.size();
+        }
+
+        OnmsEvent getLastEvent() {
+            return m_lastEvent;
+        }
+
+        Date getLastEventTime() {
+            return m_lastEventTime;
+        }
+
+        String getLogMsg() {
+            return m_logMsg;
+        }
+
+        String getEventParms() {
+            return m_eventParms;
+        }
+
+        Date getFirstEventTime() {
+            return m_firstEventTime;
+        }
+
+        /**
+         * @return the last event reduced, to recreate the alarm from if it
+         * has been deleted
+         */
+        Event getEvent() {
+            return m_event;
+        }
+    }
+
+    private final int m_maxSize;
+
+    private final long m_flushInterval;
+
+    /**
+     * Alarms by reduction key, least recently used first.
+     */
+    private final LinkedHashMap<String, OnmsAlarm> m_alarms = new LinkedHashMap<String, OnmsAlarm>(16, 0.75f, true);
+
+    private Map<String, PendingReduction> m_pending = new LinkedHashMap<String, PendingReduction>();
+
+    private long m_hits;
+    private long m_misses;
+    private long m_evictions;
+    private long m_flushes;
+    private long m_reductionsFlushed;
+    private long m_flushTime;
+    private long m_lastFlushTime;
+
+    /**
+     * @param maxSize the most alarms to keep; alarms with pending reductions
+     * are only evicted once they have been flushed
+     * @param flushInterval how often, in milliseconds, pending reductions are
+     * written to the database
+     */
+    public AlarmCache(final int maxSize, final long flushInterval) {
+        m_maxSize = maxSize;
+        m_flushInterval = flushInterval;
+    }
+
+    /**
+     * Applies a reduction to the cached alarm for the reduction key.
+     *
+     * @param reducer applies the event to the alarm the way a reduction in
+     * the database would
+     * @return the cached alarm, or null if the reduction key isn't cached and
+     * the event has to be reduced in the database
+     */
+    synchronized OnmsAlarm reduce(final String reductionKey, final OnmsEvent e, final Event event, final Reducer reducer) {
+        final OnmsAlarm alarm = m_alarms.get(reductionKey);
+        if (alarm == null) {
+            m_misses++;
+            return null;
+        }
+        m_hits++;
+
+        reducer.reduce(e, alarm, event);
+
+        PendingReduction pending = m_pending.get(reductionKey);
+        if (pending == null) {
+            pending = new PendingReduction(alarm.getId());
+            m_pending.put(reductionKey, pending);
+        }
+        pending.add(e, alarm, event);
+        return alarm;
+    }
+
+    /**
+     * Caches an alarm as it was just written to the database.  Reductions
+     * still pending for it are applied to the cached copy.
+     */
+    synchronized void put(final OnmsAlarm alarm) {
+        final String reductionKey = alarm.getReductionKey();
+        if (reductionKey == null) {
+            return;
+        }
+        final PendingReduction pending = m_pending.get(reductionKey);
+        if (pending != null) {
+            // the alarm may have been recreated since these were recorded
+            pending.setAlarmId(alarm.getId());
+            pending.applyTo(alarm);
+        }
+        m_alarms.put(reductionKey, alarm);
+        trim();
+    }
+
+    /**
+     * Forgets the alarm for a reduction key.  Any pending reductions are
+     * returned so the caller can write them out first.
+     */
+    synchronized PendingReduction remove(final String reductionKey) {
+        m_alarms.remove(reductionKey);
+        return m_pending.remove(reductionKey);
+    }
+
+    /**
+     * @return the pending reductions for a reduction key, which are no longer
+     * pending once returned
+     */
+    synchronized PendingReduction takePending(final String reductionKey) {
+        return m_pending.remove(reductionKey);
+    }
+
+    /**
+     * @return every pending reduction, which are no longer pending once
+     * returned
+     */
+    synchronized Map<String, PendingReduction> takeAllPending() {
+        final Map<String, PendingReduction> pending = m_pending;
+        m_pending = new LinkedHashMap<String, PendingReduction>();
+        return pending;
+    }
+
+    /**
+     * Puts back reductions that could not be written, ahead of any recorded
+     * since they were taken.
+     */
+    synchronized void restorePending(final Map<String, PendingReduction> pending) {
+        for (final Map.Entry<String, PendingReduction> entry : pending.entrySet()) {
+            final PendingReduction later = m_pending.get(entry.getKey());
+            if (later != null) {
+                entry.getValue().addAll(later);
+            }
+        }
+        final Map<String, PendingReduction> restored = new LinkedHashMap<String, PendingReduction>(pending);
+        for (final Map.Entry<String, PendingReduction> entry : m_pending.entrySet()) {
+            if (!restored.containsKey(entry.getKey())) {
+                restored.put(entry.getKey(), entry.getValue());
+            }
+        }
+        m_pending = restored;
+    }
+
+    synchronized void recordFlush(final int reductions, final long millis) {
+        m_flushes++;
+        m_reductionsFlushed += reductions;
+        m_flushTime += millis;
+        m_lastFlushTime = millis;
+    }
+
+    /**
+     * Evicts the least recently used alarms without pending reductions until
+     * the cache is back within its size.
+     */
+    private void trim() {
+        final Iterator<Map.Entry<String, OnmsAlarm>> it = m_alarms.entrySet().iterator();
+        while (m_alarms.size() > m_maxSize && it.hasNext()) {
+            final Map.Entry<String, OnmsAlarm> entry = it.next();
+            if (!m_pending.containsKey(entry.getKey())) {
+                it.remove();
+                m_evictions++;
+            }
+        }
+    }
+
+    /**
+     * Called after a flush to evict the alarms that couldn't be evicted
+     * while they had pending reductions.
+     */
+    synchronized void trimToSize() {
+        trim();
+    }
+
+    public long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    public int getMaxSize() {
+        return m_maxSize;
+    }
+
+    public synchronized int getSize() {
+        return m_alarms.size();
+    }
+
+    /**
+     * @return the number of reductions waiting to be written
+     */
+    public synchronized int getPendingReductions() {
+        int count = 0;
+        for (final PendingReduction pending : m_pending.values()) {
+            count += pending.getCount();
+        }
+        return count;
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * @return the share of cacheable reductions that were applied in memory
+     */
+    public synchronized double getHitRatio() {
+        final long lookups = m_hits + m_misses;
+        return lookups == 0 ? 0.0 : (double)m_hits / lookups;
+    }
+
+    public synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    public synchronized long getFlushes() {
+        return m_flushes;
+    }
+
+    /**
+     * @return the number of reductions written by flushes
+     */
+    public synchronized long getReductionsFlushed() {
+        return m_reductionsFlushed;
+    }
+
+    /**
+     * @return the total time, in milliseconds, spent flushing
+     */
+    public synchronized long getFlushTime() {
+        return m_flushTime;
+    }
+
+    /**
+     * @return how long, in milliseconds, the last flush took
+     */
+    public synchronized long getLastFlushTime() {
+        return m_lastFlushTime;
+    }
+
+    /**
+     * Applies an event to an alarm as a reduction.
+     */
+    interface Reducer {
+        void reduce(OnmsEvent e, OnmsAlarm alarm, Event event);
+    }
+}
@@ -49,4 +49,11 @@ public interface AlarmPersister {
     @Transactional
     public abstract OnmsAlarm persist(Event event);
 
+    /**
+     * Writes the reductions held in the alarm cache, if there is one, to the
+     * database.
+     */
+    @Transactional
+    public abstract void flush();
+
 }
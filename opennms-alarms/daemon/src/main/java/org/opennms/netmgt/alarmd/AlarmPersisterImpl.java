@@ -28,15 +28,25 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.alarmd.AlarmCache.PendingReduction;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.AlarmData;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.UpdateField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
@@ -48,8 +58,16 @@ import org.springframework.util.Assert;
 public class AlarmPersisterImpl implements AlarmPersister {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
+    private static final AlarmCache.Reducer REDUCER = new AlarmCache.Reducer() {
+        @Override
+        public void reduce(final OnmsEvent e, final OnmsAlarm alarm, final Event event) {
+            reduceEvent(e, alarm, event);
+        }
+    };
+
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
+    private AlarmCache m_alarmCache;
 
     /** {@inheritDoc} 
      * @return */
@@ -74,6 +92,26 @@ public class AlarmPersisterImpl implements AlarmPersister {
         Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
     
         String reductionKey = event.getAlarmData().getReductionKey();
+
+        if (m_alarmCache != null) {
+            final String clearKey = event.getAlarmData().getClearKey();
+            if (clearKey != null) {
+                // vacuumd compares the last event time of a resolution with the problems it clears
+                flushPending(clearKey, takePending(clearKey));
+            }
+
+            if (isReducibleInCache(event)) {
+                final OnmsAlarm cached = m_alarmCache.reduce(reductionKey, e, event, REDUCER);
+                if (cached != null) {
+                    LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found in the alarm cache, reducing event to alarm: {}", reductionKey, cached.getId());
+                    return cached;
+                }
+            } else {
+                // this reduction has to be done in the database, on top of the ones already made in memory
+                flushPending(reductionKey, takePending(reductionKey));
+            }
+        }
+
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
         OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
     
@@ -87,6 +125,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getIpAddr());
             reduceEvent(e, alarm, event);
+            e.setAlarm(alarm);
             m_alarmDao.update(alarm);
             m_eventDao.update(e);
     
@@ -94,10 +133,172 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), e);
             }
         }
+
+        if (m_alarmCache != null) {
+            m_alarmCache.put(alarm);
+        }
         
         return alarm;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Each alarm is re-read and only the reductions are applied to it, so
+     * changes made to it since it was cached are kept.
+     */
+    @Override
+    public void flush() {
+        if (m_alarmCache == null) {
+            return;
+        }
+        final Map<String, PendingReduction> pending = m_alarmCache.takeAllPending();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final boolean restoredOnRollback = restorePendingOnRollback(pending);
+        final long start = System.currentTimeMillis();
+        final List<OnmsAlarm> flushed = new ArrayList<OnmsAlarm>(pending.size());
+        int reductions = 0;
+        try {
+            for (final Map.Entry<String, PendingReduction> entry : pending.entrySet()) {
+                final OnmsAlarm alarm = flushPending(entry.getKey(), entry.getValue());
+                if (alarm != null) {
+                    flushed.add(alarm);
+                }
+                reductions += entry.getValue().getCount();
+            }
+            m_alarmDao.flush();
+        } catch (final RuntimeException e) {
+            LOG.warn("flush: failed to write {} alarm reductions, they will be retried", pending.size(), e);
+            if (!restoredOnRollback) {
+                m_alarmCache.restorePending(pending);
+            }
+            throw e;
+        }
+
+        // detach the alarms so that refreshing the cached copies doesn't write anything
+        m_alarmDao.clear();
+        for (final OnmsAlarm alarm : flushed) {
+            m_alarmCache.put(alarm);
+        }
+        m_alarmCache.trimToSize();
+
+        final long elapsed = System.currentTimeMillis() - start;
+        m_alarmCache.recordFlush(reductions, elapsed);
+        LOG.debug("flush: wrote {} reductions to {} alarms in {}ms", reductions, flushed.size(), elapsed);
+    }
+
+    /**
+     * Takes the pending reductions for one reduction key so that they can be
+     * written in the current transaction.
+     */
+    private PendingReduction takePending(final String reductionKey) {
+        final PendingReduction pending = m_alarmCache.takePending(reductionKey);
+        if (pending != null) {
+            restorePendingOnRollback(Collections.singletonMap(reductionKey, pending));
+        }
+        return pending;
+    }
+
+    /**
+     * Puts reductions taken from the cache back if the transaction they are
+     * being written in is rolled back, so they are written by a later flush
+     * instead of being lost.
+     *
+     * @return true if the reductions will be restored on rollback, false if
+     *   there is no transaction to synchronize with
+     */
+    private boolean restorePendingOnRollback(final Map<String, PendingReduction> pending) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(final int status) {
+                if (status != TransactionSynchronization.STATUS_COMMITTED) {
+                    LOG.warn("transaction was rolled back, restoring {} pending alarm reductions", pending.size());
+                    m_alarmCache.restorePending(pending);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Writes the reductions made in memory for one alarm.  If the alarm has
+     * been deleted since, for example by a vacuumd automation, it is
+     * recreated from the last event, as if the events had arrived after it
+     * was deleted.
+     *
+     * @return the alarm, or null if there was nothing to write
+     */
+    private OnmsAlarm flushPending(final String reductionKey, final PendingReduction pending) {
+        if (pending == null) {
+            return null;
+        }
+
+        OnmsAlarm alarm = m_alarmDao.get(pending.getAlarmId());
+        if (alarm == null) {
+            alarm = m_alarmDao.findByReductionKey(reductionKey);
+        }
+
+        if (alarm == null) {
+            final OnmsEvent last = m_eventDao.get(pending.getLastEvent().getId());
+            if (last == null) {
+                LOG.warn("flushPending: alarm and events for reductionKey:{} were deleted before {} reductions could be written, dropping them", reductionKey, pending.getCount());
+                m_alarmCache.remove(reductionKey);
+                return null;
+            }
+            LOG.debug("flushPending: reductionKey:{} was deleted before {} reductions could be written, recreating alarm", reductionKey, pending.getCount());
+            alarm = createNewAlarm(last, pending.getEvent());
+            alarm.setCounter(pending.getCount());
+            alarm.setFirstEventTime(pending.getFirstEventTime());
+            m_alarmDao.save(alarm);
+            m_alarmDao.flush();
+        } else {
+            alarm.setCounter(alarm.getCounter() + pending.getCount());
+            if (alarm.getLastEventTime() == null || !pending.getLastEventTime().before(alarm.getLastEventTime())) {
+                alarm.setLastEvent(m_eventDao.load(pending.getLastEvent().getId()));
+                alarm.setLastEventTime(pending.getLastEventTime());
+                alarm.setLogMsg(pending.getLogMsg());
+                alarm.setEventParms(pending.getEventParms());
+            }
+            m_alarmDao.update(alarm);
+        }
+        if (alarm.getServiceType() != null) {
+            alarm.getServiceType().getName(); // the cached copy is handed to the NBIs after it has been detached
+        }
+
+        m_eventDao.linkEventsToAlarm(alarm, pending.getEventIds());
+        return alarm;
+    }
+
+    /**
+     * Reductions that only change the counter, last event, log message and
+     * parms can be made to a cached alarm and written out later.  Resolutions
+     * and events that clear other alarms always go to the database, where
+     * vacuumd's automations can match them up with the problems they clear.
+     */
+    private static boolean isReducibleInCache(final Event event) {
+        final AlarmData alarmData = event.getAlarmData();
+        if (alarmData.isAutoClean()) {
+            return false;
+        }
+        if (alarmData.getAlarmType() == 2 || alarmData.getClearKey() != null) {
+            return false;
+        }
+        if (alarmData.hasUpdateFields()) {
+            for (final UpdateField field : alarmData.getUpdateFieldList()) {
+                if (field.isUpdateOnReduction() && !field.getFieldName().equalsIgnoreCase("LogMsg") && !field.getFieldName().equalsIgnoreCase("Parms")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private static void reduceEvent(OnmsEvent e, OnmsAlarm alarm, Event event) {
         
         //Always set these
@@ -163,8 +364,6 @@ public class AlarmPersisterImpl implements AlarmPersister {
             }
             
         }
-        
-        e.setAlarm(alarm);
     }
 
     private static OnmsAlarm createNewAlarm(OnmsEvent e, Event event) {
@@ -254,4 +453,23 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return m_eventDao;
     }
 
+    /**
+     * <p>setAlarmCache</p>
+     *
+     * @param alarmCache the cache to reduce alarms in, or null to reduce
+     * every event in the database
+     */
+    public void setAlarmCache(AlarmCache alarmCache) {
+        m_alarmCache = alarmCache;
+    }
+
+    /**
+     * <p>getAlarmCache</p>
+     *
+     * @return a {@link org.opennms.netmgt.alarmd.AlarmCache} object.
+     */
+    public AlarmCache getAlarmCache() {
+        return m_alarmCache;
+    }
+
 }
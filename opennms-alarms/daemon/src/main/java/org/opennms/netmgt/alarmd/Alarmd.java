@@ -30,6 +30,11 @@ package org.opennms.netmgt.alarmd;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 
 import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
 import org.opennms.netmgt.alarmd.api.Northbounder;
@@ -67,6 +72,16 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
     private List<Northbounder> m_northboundInterfaces;
 
     private AlarmPersister m_persister;
+
+    private AlarmCache m_alarmCache;
+
+    private ScheduledExecutorService m_flusher;
+
+    /**
+     * Keeps a flush of the alarm cache from running at the same time as a
+     * reduction, so that neither overwrites the other's counter.
+     */
+    private final Object m_persistLock = new Object();
     
     
     
@@ -84,7 +99,10 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
     		return;
     	}
     	
-        OnmsAlarm alarm = m_persister.persist(e);
+        OnmsAlarm alarm;
+        synchronized (m_persistLock) {
+            alarm = m_persister.persist(e);
+        }
         
         if (alarm != null) {
         	NorthboundAlarm a = new NorthboundAlarm(alarm);
@@ -145,6 +163,34 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
         return m_persister;
     }
 
+    /**
+     * <p>setAlarmCache</p>
+     *
+     * @param alarmCache the cache the persister reduces alarms in, which
+     * Alarmd flushes at its flush interval
+     */
+    public void setAlarmCache(AlarmCache alarmCache) {
+        m_alarmCache = alarmCache;
+    }
+
+    /**
+     * <p>getAlarmCache</p>
+     *
+     * @return a {@link org.opennms.netmgt.alarmd.AlarmCache} object.
+     */
+    public AlarmCache getAlarmCache() {
+        return m_alarmCache;
+    }
+
+    /**
+     * Writes the reductions held in the alarm cache to the database.
+     */
+    public void flushAlarmCache() {
+        synchronized (m_persistLock) {
+            m_persister.flush();
+        }
+    }
+
     /**
      * <p>getEventForwarder</p>
      *
@@ -177,6 +223,20 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
                 nb.start();
             }
         }
+
+        if (m_alarmCache != null) {
+            m_flusher = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("Alarmd-AlarmCacheFlusher", 1));
+            m_flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushAlarmCache();
+                    } catch (final Throwable t) {
+                        LOG.warn("Failed to flush the alarm cache", t);
+                    }
+                }
+            }, m_alarmCache.getFlushInterval(), m_alarmCache.getFlushInterval(), TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -186,6 +246,11 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
      */
     @Override
     public void destroy() throws Exception {
+        if (m_flusher != null) {
+            m_flusher.shutdown();
+            m_flusher.awaitTermination(30, TimeUnit.SECONDS);
+            flushAlarmCache();
+        }
     }
 
     /**
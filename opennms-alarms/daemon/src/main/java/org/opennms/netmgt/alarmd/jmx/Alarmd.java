@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd.jmx;
+
+import org.opennms.netmgt.alarmd.AlarmCache;
+import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+
+/**
+ * <p>Alarmd class.</p>
+ */
+public class Alarmd extends AbstractSpringContextJmxServiceDaemon<org.opennms.netmgt.alarmd.Alarmd> implements AlarmdMBean {
+    /** {@inheritDoc} */
+    @Override
+    protected String getLoggingPrefix() {
+        return "alarmd";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String getSpringContext() {
+        return "alarmdContext";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAlarmCacheHits() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getHits();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAlarmCacheMisses() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getMisses();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getAlarmCacheHitRatio() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0.0 : cache.getHitRatio();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAlarmCacheSize() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAlarmCacheEvictions() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getEvictions();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getPendingReductions() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getPendingReductions();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAlarmCacheFlushes() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getFlushes();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getReductionsFlushed() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getReductionsFlushed();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFlushTime() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getFlushTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLastFlushTime() {
+        final AlarmCache cache = getDaemon().getAlarmCache();
+        return cache == null ? 0L : cache.getLastFlushTime();
+    }
+}
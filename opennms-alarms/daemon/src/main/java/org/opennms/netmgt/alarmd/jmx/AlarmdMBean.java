@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd.jmx;
+
+import org.opennms.netmgt.daemon.BaseOnmsMBean;
+
+/**
+ * <p>AlarmdMBean interface.</p>
+ */
+public interface AlarmdMBean extends BaseOnmsMBean {
+    /** @return The number of reductions made to a cached alarm */
+    public long getAlarmCacheHits();
+
+    /** @return The number of cacheable reductions that had to look the alarm up in the database */
+    public long getAlarmCacheMisses();
+
+    /** @return The share of cacheable reductions made to a cached alarm */
+    public double getAlarmCacheHitRatio();
+
+    /** @return The number of alarms in the cache */
+    public long getAlarmCacheSize();
+
+    /** @return The number of alarms evicted from the cache to keep it within its size */
+    public long getAlarmCacheEvictions();
+
+    /** @return The number of reductions waiting to be written to the database */
+    public long getPendingReductions();
+
+    /** @return The number of times pending reductions were written to the database */
+    public long getAlarmCacheFlushes();
+
+    /** @return The number of reductions written to the database by flushes */
+    public long getReductionsFlushed();
+
+    /** @return The total time, in milliseconds, spent writing pending reductions */
+    public long getFlushTime();
+
+    /** @return The time, in milliseconds, the last flush took */
+    public long getLastFlushTime();
+}
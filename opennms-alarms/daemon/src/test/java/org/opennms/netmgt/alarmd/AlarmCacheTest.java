@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.alarmd.AlarmCache.PendingReduction;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.xml.event.Event;
+
+public class AlarmCacheTest {
+
+    private static final AlarmCache.Reducer REDUCER = new AlarmCache.Reducer() {
+        @Override
+        public void reduce(final OnmsEvent e, final OnmsAlarm alarm, final Event event) {
+            alarm.setLastEvent(e);
+            alarm.setLastEventTime(e.getEventTime());
+            alarm.setLogMsg(e.getEventLogMsg());
+        }
+    };
+
+    private AlarmCache m_cache;
+
+    private int m_nextEventId = 1;
+
+    @Before
+    public void setUp() {
+        m_cache = new AlarmCache(2, 1000);
+    }
+
+    @Test
+    public void testMissThenHit() {
+        assertNull(m_cache.reduce("a", event(1000, "first"), new Event(), REDUCER));
+        assertEquals(1, m_cache.getMisses());
+
+        m_cache.put(alarm(1, "a", 1, 500));
+        final OnmsAlarm cached = m_cache.reduce("a", event(2000, "second"), new Event(), REDUCER);
+        assertNotNull(cached);
+        assertEquals(1, m_cache.getHits());
+        assertEquals(0.5, m_cache.getHitRatio(), 0.0);
+        assertEquals("second", cached.getLogMsg());
+        assertEquals(1, m_cache.getPendingReductions());
+
+        final PendingReduction pending = m_cache.takePending("a");
+        assertEquals(Integer.valueOf(1), pending.getAlarmId());
+        assertEquals(1, pending.getCount());
+        assertEquals(new Date(2000), pending.getLastEventTime());
+        assertEquals("second", pending.getLogMsg());
+        assertEquals(0, m_cache.getPendingReductions());
+    }
+
+    @Test
+    public void testPutAppliesPendingReductions() {
+        m_cache.put(alarm(1, "a", 1, 500));
+        m_cache.reduce("a", event(1000, "one"), new Event(), REDUCER);
+        m_cache.reduce("a", event(2000, "two"), new Event(), REDUCER);
+
+        // the alarm was deleted and recreated in the meantime
+        final OnmsAlarm recreated = alarm(7, "a", 1, 100);
+        m_cache.put(recreated);
+
+        assertEquals(Integer.valueOf(3), recreated.getCounter());
+        assertEquals("two", recreated.getLogMsg());
+        assertEquals(Integer.valueOf(7), m_cache.takePending("a").getAlarmId());
+    }
+
+    @Test
+    public void testPutKeepsLaterEvent() {
+        m_cache.put(alarm(1, "a", 1, 500));
+        m_cache.reduce("a", event(1000, "cached"), new Event(), REDUCER);
+
+        final OnmsAlarm newer = alarm(1, "a", 5, 3000);
+        newer.setLogMsg("newer");
+        m_cache.put(newer);
+
+        assertEquals(Integer.valueOf(6), newer.getCounter());
+        assertEquals("newer", newer.getLogMsg());
+    }
+
+    @Test
+    public void testRestorePending() {
+        m_cache.put(alarm(1, "a", 1, 500));
+        m_cache.put(alarm(2, "b", 1, 500));
+        m_cache.reduce("a", event(1000, "a1"), new Event(), REDUCER);
+
+        final Map<String, PendingReduction> taken = m_cache.takeAllPending();
+        assertEquals(0, m_cache.getPendingReductions());
+
+        // reductions recorded while the failed flush was running
+        m_cache.reduce("a", event(2000, "a2"), new Event(), REDUCER);
+        m_cache.reduce("b", event(3000, "b1"), new Event(), REDUCER);
+
+        m_cache.restorePending(taken);
+        assertEquals(3, m_cache.getPendingReductions());
+
+        final Map<String, PendingReduction> restored = m_cache.takeAllPending();
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(restored.keySet().toArray()));
+        assertEquals(2, restored.get("a").getCount());
+        assertEquals("a2", restored.get("a").getLogMsg());
+        assertEquals(new Date(1000), restored.get("a").getFirstEventTime());
+        assertEquals(1, restored.get("b").getCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWithoutPending() {
+        m_cache.put(alarm(1, "a", 1, 500));
+        m_cache.put(alarm(2, "b", 1, 500));
+        m_cache.reduce("a", event(1000, "a1"), new Event(), REDUCER);
+
+        // "b" is the least recently used now
+        m_cache.put(alarm(3, "c", 1, 500));
+        assertEquals(2, m_cache.getSize());
+        assertEquals(1, m_cache.getEvictions());
+        assertNull(m_cache.reduce("b", event(2000, "b1"), new Event(), REDUCER));
+
+        // "a" and "c" have pending reductions, so they stay until flushed
+        m_cache.reduce("c", event(2000, "c1"), new Event(), REDUCER);
+        m_cache.put(alarm(4, "d", 1, 500));
+        assertEquals(2, m_cache.getSize());
+        assertEquals(2, m_cache.getEvictions());
+        assertNull(m_cache.reduce("d", event(3000, "d1"), new Event(), REDUCER));
+
+        m_cache.takeAllPending();
+        m_cache.put(alarm(4, "d", 1, 500));
+        assertEquals(2, m_cache.getSize());
+        assertNull(m_cache.reduce("a", event(4000, "a2"), new Event(), REDUCER));
+    }
+
+    @Test
+    public void testRemove() {
+        final OnmsAlarm alarm = alarm(1, "a", 1, 500);
+        m_cache.put(alarm);
+        assertSame(alarm, m_cache.reduce("a", event(1000, "a1"), new Event(), REDUCER));
+
+        assertEquals(1, m_cache.remove("a").getCount());
+        assertEquals(0, m_cache.getSize());
+        assertEquals(0, m_cache.getPendingReductions());
+    }
+
+    @Test
+    public void testRecordFlush() {
+        m_cache.recordFlush(10, 5);
+        m_cache.recordFlush(4, 3);
+        assertEquals(2, m_cache.getFlushes());
+        assertEquals(14, m_cache.getReductionsFlushed());
+        assertEquals(8, m_cache.getFlushTime());
+        assertEquals(3, m_cache.getLastFlushTime());
+    }
+
+    private OnmsEvent event(final long time, final String logMsg) {
+        final OnmsEvent e = new OnmsEvent();
+        e.setId(m_nextEventId++);
+        e.setEventTime(new Date(time));
+        e.setEventLogMsg(logMsg);
+        return e;
+    }
+
+    private static OnmsAlarm alarm(final int id, final String reductionKey, final int counter, final long lastEventTime) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setReductionKey(reductionKey);
+        alarm.setCounter(counter);
+        alarm.setLastEventTime(new Date(lastEventTime));
+        alarm.setLogMsg("initial");
+        return alarm;
+    }
+}
@@ -257,6 +257,7 @@ public class AlarmdTest implements TemporaryDatabaseAware<MockDatabase>, Initial
         }
 
         signal.await();
+        m_alarmd.flushAlarmCache();
 
         //this should be the first occurrence of this alarm
         //there should be 1 alarm now
@@ -490,6 +491,7 @@ public class AlarmdTest implements TemporaryDatabaseAware<MockDatabase>, Initial
         event.setLogMessage(logMsg);
 
         m_eventdIpcMgr.sendNow(event.getEvent());
+        m_alarmd.flushAlarmCache();
     }
     
     private void sendNodeDownEventChangeLogMsg(String reductionKey, MockNode node, String logMsg) {
@@ -519,6 +521,7 @@ public class AlarmdTest implements TemporaryDatabaseAware<MockDatabase>, Initial
         event.setLogMessage(logMsg);
 
         m_eventdIpcMgr.sendNow(event.getEvent());
+        m_alarmd.flushAlarmCache();
     }
 
     private void sendNodeDownEventWithUpdateFieldSeverity(String reductionKey, MockNode node, OnmsSeverity severity) throws SQLException {
@@ -549,6 +552,7 @@ public class AlarmdTest implements TemporaryDatabaseAware<MockDatabase>, Initial
         event.setSeverity(severity.getLabel());
 
         m_eventdIpcMgr.sendNow(event.getEvent());
+        m_alarmd.flushAlarmCache();
     }
 
     private void sendNodeDownEvent(String reductionKey, MockNode node) throws SQLException {
@@ -567,5 +571,6 @@ public class AlarmdTest implements TemporaryDatabaseAware<MockDatabase>, Initial
         event.setLogMessage("testing");
 
         m_eventdIpcMgr.sendNow(event.getEvent());
+        m_alarmd.flushAlarmCache();
     }
 }
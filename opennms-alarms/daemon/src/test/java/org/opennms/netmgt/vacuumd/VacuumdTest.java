@@ -611,15 +611,18 @@ public class VacuumdTest implements TemporaryDatabaseAware<MockDatabase>, Initia
     private void bringNodeDownCreatingEvent(int nodeid) {
         MockNode node = m_network.getNode(nodeid);
         m_eventdIpcMgr.sendNow(node.createDownEvent());
+        m_alarmd.flushAlarmCache();
     }
 
     private void bringNodeDownCreatingEventWithReason(int nodeid, String reason) {
         MockNode node = m_network.getNode(nodeid);
         m_eventdIpcMgr.sendNow(node.createDownEventWithReason(reason));
+        m_alarmd.flushAlarmCache();
     }
     
     private void bringNodeUpCreatingEvent(int nodeid) {
         MockNode node = m_network.getNode(nodeid);
         m_eventdIpcMgr.sendNow(node.createUpEvent());
+        m_alarmd.flushAlarmCache();
     }
 }
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.alarmd.northbounder.syslog;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -94,6 +95,9 @@ public class SyslogNorthbounder extends AbstractNorthbounder implements Initiali
 		setNaglesDelay(m_config.getNaglesDelay());
 		setMaxBatchSize(m_config.getBatchSize());
 		setMaxPreservedAlarms(m_config.getQueueSize());
+		if (m_config.getQueueDirectory() != null) {
+			setJournalDirectory(new File(m_config.getQueueDirectory(), m_destination.getName()));
+		}
 	}
 
 	/**
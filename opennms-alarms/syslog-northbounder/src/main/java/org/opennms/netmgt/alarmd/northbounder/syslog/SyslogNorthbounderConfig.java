@@ -60,6 +60,9 @@ public class SyslogNorthbounderConfig implements Serializable {
     @XmlElement(name="queue-size", required=false, defaultValue="300000")
     private Integer m_queueSize = 300000;
     
+    @XmlElement(name="queue-directory", required=false)
+    private String m_queueDirectory;
+    
     @XmlElement(name="message-format", required=false, defaultValue="ALARM ID:${alarmId} NODE:${nodeLabel} ${logMsg}")
     private String m_messageFormat = "ALARM ID:${alarmId} NODE:${nodeLabel} ${logMsg}";
     
@@ -115,6 +118,18 @@ public class SyslogNorthbounderConfig implements Serializable {
 	public void setQueueSize(Integer alarmQueueSize) {
 		m_queueSize = alarmQueueSize;
 	}
+	
+	/**
+	 * @return the directory alarms preserved while a destination is
+	 * unavailable are journaled to, or null to keep them in memory
+	 */
+	public String getQueueDirectory() {
+		return m_queueDirectory;
+	}
+	
+	public void setQueueDirectory(String queueDirectory) {
+		m_queueDirectory = queueDirectory;
+	}
 	public Boolean isEnabled() {
 		return m_enabled;
 	}
@@ -61,6 +61,34 @@ public class CollectdConfiguration implements Serializable {
     @XmlAttribute(name="threads")
     private Integer m_threads;
 
+    /**
+     * The scheduler used to run the collections, either "legacy"
+     *  or "timing-wheel".
+     */
+    @XmlAttribute(name="scheduler")
+    private String m_scheduler;
+
+    /**
+     * The number of milliseconds over which the first collection of
+     *  the services is spread by the timing-wheel scheduler.
+     */
+    @XmlAttribute(name="startJitter")
+    private Long m_startJitter;
+
+    /**
+     * The maximum number of collections run against a single
+     *  agent at the same time, 0 for no limit.
+     */
+    @XmlAttribute(name="maxConcurrentPerAgent")
+    private Integer m_maxConcurrentPerAgent;
+
+    /**
+     * The maximum number of collections run by a single
+     *  collector at the same time, 0 for no limit.
+     */
+    @XmlAttribute(name="maxConcurrentPerCollector")
+    private Integer m_maxConcurrentPerCollector;
+
     /**
      * Package encapsulating addresses eligible to have SNMP data collected
      * from them.
@@ -89,6 +117,54 @@ public class CollectdConfiguration implements Serializable {
         m_threads = threads;
     }
 
+    /**
+     * The scheduler used to run the collections, either "legacy"
+     * or "timing-wheel".
+     */
+    public String getScheduler() {
+        return m_scheduler == null? "legacy" : m_scheduler;
+    }
+
+    public void setScheduler(final String scheduler) {
+        m_scheduler = scheduler;
+    }
+
+    /**
+     * The number of milliseconds over which the first collection of the
+     * services is spread by the timing-wheel scheduler.
+     */
+    public Long getStartJitter() {
+        return m_startJitter == null? 0L : m_startJitter;
+    }
+
+    public void setStartJitter(final Long startJitter) {
+        m_startJitter = startJitter;
+    }
+
+    /**
+     * The maximum number of collections run against a single agent at
+     * the same time, 0 for no limit.
+     */
+    public Integer getMaxConcurrentPerAgent() {
+        return m_maxConcurrentPerAgent == null? 0 : m_maxConcurrentPerAgent;
+    }
+
+    public void setMaxConcurrentPerAgent(final Integer maxConcurrentPerAgent) {
+        m_maxConcurrentPerAgent = maxConcurrentPerAgent;
+    }
+
+    /**
+     * The maximum number of collections run by a single collector at the
+     * same time, 0 for no limit.
+     */
+    public Integer getMaxConcurrentPerCollector() {
+        return m_maxConcurrentPerCollector == null? 0 : m_maxConcurrentPerCollector;
+    }
+
+    public void setMaxConcurrentPerCollector(final Integer maxConcurrentPerCollector) {
+        m_maxConcurrentPerCollector = maxConcurrentPerCollector;
+    }
+
     public List<Package> getPackages() {
         if (m_packages == null) {
             return Collections.emptyList();
@@ -171,6 +247,10 @@ public class CollectdConfiguration implements Serializable {
         final Set<String> seenCollectors = new HashSet<String>();
         final CollectdConfiguration newConfig = new CollectdConfiguration();
         newConfig.setThreads(getThreads());
+        newConfig.setScheduler(m_scheduler);
+        newConfig.setStartJitter(m_startJitter);
+        newConfig.setMaxConcurrentPerAgent(m_maxConcurrentPerAgent);
+        newConfig.setMaxConcurrentPerCollector(m_maxConcurrentPerCollector);
         newConfig.addPackage(pkg);
 
         for (final Service service : pkg.getServices()) {
@@ -193,6 +273,10 @@ public class CollectdConfiguration implements Serializable {
         result = prime * result + ((m_collectors == null) ? 0 : m_collectors.hashCode());
         result = prime * result + ((m_packages == null) ? 0 : m_packages.hashCode());
         result = prime * result + ((m_threads == null) ? 0 : m_threads.hashCode());
+        result = prime * result + ((m_scheduler == null) ? 0 : m_scheduler.hashCode());
+        result = prime * result + ((m_startJitter == null) ? 0 : m_startJitter.hashCode());
+        result = prime * result + ((m_maxConcurrentPerAgent == null) ? 0 : m_maxConcurrentPerAgent.hashCode());
+        result = prime * result + ((m_maxConcurrentPerCollector == null) ? 0 : m_maxConcurrentPerCollector.hashCode());
         return result;
     }
 
@@ -229,12 +313,40 @@ public class CollectdConfiguration implements Serializable {
         } else if (!m_threads.equals(other.m_threads)) {
             return false;
         }
+        if (m_scheduler == null) {
+            if (other.m_scheduler != null) {
+                return false;
+            }
+        } else if (!m_scheduler.equals(other.m_scheduler)) {
+            return false;
+        }
+        if (m_startJitter == null) {
+            if (other.m_startJitter != null) {
+                return false;
+            }
+        } else if (!m_startJitter.equals(other.m_startJitter)) {
+            return false;
+        }
+        if (m_maxConcurrentPerAgent == null) {
+            if (other.m_maxConcurrentPerAgent != null) {
+                return false;
+            }
+        } else if (!m_maxConcurrentPerAgent.equals(other.m_maxConcurrentPerAgent)) {
+            return false;
+        }
+        if (m_maxConcurrentPerCollector == null) {
+            if (other.m_maxConcurrentPerCollector != null) {
+                return false;
+            }
+        } else if (!m_maxConcurrentPerCollector.equals(other.m_maxConcurrentPerCollector)) {
+            return false;
+        }
         return true;
     }
 
     @Override
     public String toString() {
-        return "CollectdConfiguration [threads=" + m_threads + ", packages=" + m_packages + ", collectors=" + m_collectors + "]";
+        return "CollectdConfiguration [threads=" + m_threads + ", scheduler=" + m_scheduler + ", startJitter=" + m_startJitter + ", maxConcurrentPerAgent=" + m_maxConcurrentPerAgent + ", maxConcurrentPerCollector=" + m_maxConcurrentPerCollector + ", packages=" + m_packages + ", collectors=" + m_collectors + "]";
     }
 
 }
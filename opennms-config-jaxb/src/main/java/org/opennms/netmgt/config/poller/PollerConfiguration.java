@@ -92,6 +92,19 @@ public class PollerConfiguration implements Serializable {
     @XmlAttribute(name="pathOutageEnabled")
     private String m_pathOutageEnabled = "false";
 
+    /**
+     * The scheduler used to run the polls, either "legacy" or "timing-wheel"
+     */
+    @XmlAttribute(name="scheduler")
+    private String m_scheduler;
+
+    /**
+     * The number of milliseconds over which the first poll of the services
+     * is spread by the timing-wheel scheduler
+     */
+    @XmlAttribute(name="startJitter")
+    private Long m_startJitter;
+
     /**
      * Configuration of node-outage functionality
      */
@@ -167,6 +180,29 @@ public class PollerConfiguration implements Serializable {
         m_pathOutageEnabled = pathOutageEnabled;
     }
 
+    /**
+     * The scheduler used to run the polls, either "legacy" or "timing-wheel"
+     */
+    public String getScheduler() {
+        return m_scheduler == null? "legacy" : m_scheduler;
+    }
+
+    public void setScheduler(final String scheduler) {
+        m_scheduler = scheduler;
+    }
+
+    /**
+     * The number of milliseconds over which the first poll of the services
+     * is spread by the timing-wheel scheduler
+     */
+    public Long getStartJitter() {
+        return m_startJitter == null? 0L : m_startJitter;
+    }
+
+    public void setStartJitter(final Long startJitter) {
+        m_startJitter = startJitter;
+    }
+
     /**
      * Configuration of node-outage functionality
      */
@@ -243,6 +279,8 @@ public class PollerConfiguration implements Serializable {
         newConfig.setServiceUnresponsiveEnabled(getServiceUnresponsiveEnabled());
         newConfig.setXmlrpc(getXmlrpc());
         newConfig.setPathOutageEnabled(getPathOutageEnabled());
+        newConfig.setScheduler(m_scheduler);
+        newConfig.setStartJitter(m_startJitter);
         newConfig.setNodeOutage(getNodeOutage());
         
         newConfig.addPackage(pkg);
@@ -268,6 +306,8 @@ public class PollerConfiguration implements Serializable {
         result = prime * result + ((m_nodeOutage == null) ? 0 : m_nodeOutage.hashCode());
         result = prime * result + ((m_packages == null) ? 0 : m_packages.hashCode());
         result = prime * result + ((m_pathOutageEnabled == null) ? 0 : m_pathOutageEnabled.hashCode());
+        result = prime * result + ((m_scheduler == null) ? 0 : m_scheduler.hashCode());
+        result = prime * result + ((m_startJitter == null) ? 0 : m_startJitter.hashCode());
         result = prime * result + ((m_serviceUnresponsiveEnabled == null) ? 0 : m_serviceUnresponsiveEnabled.hashCode());
         result = prime * result + ((m_threads == null) ? 0 : m_threads.hashCode());
         result = prime * result + ((m_xmlrpc == null) ? 0 : m_xmlrpc.hashCode());
@@ -321,6 +361,20 @@ public class PollerConfiguration implements Serializable {
         } else if (!m_pathOutageEnabled.equals(other.m_pathOutageEnabled)) {
             return false;
         }
+        if (m_scheduler == null) {
+            if (other.m_scheduler != null) {
+                return false;
+            }
+        } else if (!m_scheduler.equals(other.m_scheduler)) {
+            return false;
+        }
+        if (m_startJitter == null) {
+            if (other.m_startJitter != null) {
+                return false;
+            }
+        } else if (!m_startJitter.equals(other.m_startJitter)) {
+            return false;
+        }
         if (m_serviceUnresponsiveEnabled == null) {
             if (other.m_serviceUnresponsiveEnabled != null) {
                 return false;
@@ -353,6 +407,8 @@ public class PollerConfiguration implements Serializable {
                 ",serviceUnresponsiveEnabled=" + m_serviceUnresponsiveEnabled +
                 ",xmlrpc=" + m_xmlrpc +
                 ",pathOutageEnabled=" + m_pathOutageEnabled +
+                ",scheduler=" + m_scheduler +
+                ",startJitter=" + m_startJitter +
                 ",nodeOutage=" + m_nodeOutage +
                 ",packages=" + m_packages +
                 ",monitors=" + m_monitors +
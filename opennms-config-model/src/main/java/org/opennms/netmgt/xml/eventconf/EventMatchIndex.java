@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
+
+/**
+ * An immutable, pre-compiled index over every event definition in an
+ * {@link Events} tree, including all of the loaded event files.
+ *
+ * Each event definition is filed under a single exact-valued key such as its
+ * UEI, the enterprise id, the generic/specific numbers or any other mask
+ * element whose values contain no wildcards or regular expressions.  Event
+ * definitions without such a key are kept in an 'unindexed' list that is
+ * consulted for every event.
+ *
+ * The candidate lists are stored as sorted arrays of ordinals so a lookup
+ * only has to merge a handful of small arrays to visit the candidates in the
+ * same order that {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * would, which preserves the existing first-match semantics.
+ *
+ * The {@link Events} tree must have been initialized before it is compiled.
+ *
+ * @see Events#initialize(Partition, EventOrdering)
+ */
+public final class EventMatchIndex {
+
+    private static final int[] EMPTY_ORDINALS = new int[0];
+
+    private static class Dimension {
+        private final Field m_field;
+        private final Map<String, int[]> m_candidates;
+
+        public Dimension(final Field field, final Map<String, int[]> candidates) {
+            m_field = field;
+            m_candidates = candidates;
+        }
+
+        public int[] getCandidates(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            final String value = m_field.get(matchingEvent);
+            return value == null ? null : m_candidates.get(value);
+        }
+
+        @Override
+        public String toString() {
+            return m_field + "[" + m_candidates.size() + " keys]";
+        }
+    }
+
+    private final Event[] m_events;
+    private final int[] m_unindexed;
+    private final Dimension[] m_dimensions;
+
+    private EventMatchIndex(final Event[] events, final int[] unindexed, final Dimension[] dimensions) {
+        m_events = events;
+        m_unindexed = unindexed;
+        m_dimensions = dimensions;
+    }
+
+    /**
+     * Builds an index over all of the events in the given tree.
+     */
+    public static EventMatchIndex compile(final Events events) {
+        final List<Event> allEvents = events.forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
+            @Override
+            public List<Event> process(final List<Event> accum, final Event event) {
+                accum.add(event);
+                return accum;
+            }
+        });
+
+        // count how often each key value is used so we can file every event
+        // under the most selective of its keys
+        final Map<String, Map<String, Integer>> keyCounts = new HashMap<String, Map<String, Integer>>();
+        for (final Event event : allEvents) {
+            for (final Entry<String, List<String>> key : getIndexKeys(event).entrySet()) {
+                Map<String, Integer> counts = keyCounts.get(key.getKey());
+                if (counts == null) {
+                    counts = new HashMap<String, Integer>();
+                    keyCounts.put(key.getKey(), counts);
+                }
+                for (final String value : key.getValue()) {
+                    final Integer count = counts.get(value);
+                    counts.put(value, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        final Map<String, Map<String, List<Integer>>> index = new LinkedHashMap<String, Map<String, List<Integer>>>();
+        final List<Integer> unindexed = new ArrayList<Integer>();
+        for (int ordinal = 0; ordinal < allEvents.size(); ordinal++) {
+            final Event event = allEvents.get(ordinal);
+            if (event.getMask() == null || event.getMask().getMaskelementCount() <= 0) {
+                // these are only ever matched by UEI, and never at all without one
+                if (event.getUei() == null) continue;
+            }
+
+            String bestName = null;
+            List<String> bestValues = null;
+            int bestCount = Integer.MAX_VALUE;
+            for (final Entry<String, List<String>> key : getIndexKeys(event).entrySet()) {
+                final Map<String, Integer> counts = keyCounts.get(key.getKey());
+                int count = 0;
+                for (final String value : key.getValue()) {
+                    count += counts.get(value);
+                }
+                if (count < bestCount) {
+                    bestName = key.getKey();
+                    bestValues = key.getValue();
+                    bestCount = count;
+                }
+            }
+
+            if (bestName == null) {
+                unindexed.add(ordinal);
+                continue;
+            }
+
+            Map<String, List<Integer>> candidates = index.get(bestName);
+            if (candidates == null) {
+                candidates = new HashMap<String, List<Integer>>();
+                index.put(bestName, candidates);
+            }
+            for (final String value : bestValues) {
+                List<Integer> ordinals = candidates.get(value);
+                if (ordinals == null) {
+                    ordinals = new ArrayList<Integer>(1);
+                    candidates.put(value, ordinals);
+                }
+                if (ordinals.isEmpty() || ordinals.get(ordinals.size() - 1) != ordinal) {
+                    ordinals.add(ordinal);
+                }
+            }
+        }
+
+        final List<Dimension> dimensions = new ArrayList<Dimension>(index.size());
+        for (final Entry<String, Map<String, List<Integer>>> entry : index.entrySet()) {
+            final Map<String, int[]> candidates = new HashMap<String, int[]>(entry.getValue().size() * 2);
+            for (final Entry<String, List<Integer>> valueEntry : entry.getValue().entrySet()) {
+                candidates.put(valueEntry.getKey(), toArray(valueEntry.getValue()));
+            }
+            dimensions.add(new Dimension(EventMatchers.field(entry.getKey()), candidates));
+        }
+
+        return new EventMatchIndex(allEvents.toArray(new Event[allEvents.size()]), toArray(unindexed), dimensions.toArray(new Dimension[dimensions.size()]));
+    }
+
+    /**
+     * Returns the exact-valued keys that would have to match for the given
+     * event definition to match, by mask element name.
+     */
+    private static Map<String, List<String>> getIndexKeys(final Event event) {
+        final Mask mask = event.getMask();
+        if (mask == null || mask.getMaskelementCount() <= 0) {
+            return event.getUei() == null ? Collections.<String, List<String>>emptyMap() : Collections.singletonMap(TAG_UEI, Collections.singletonList(event.getUei()));
+        }
+
+        final Map<String, List<String>> keys = new LinkedHashMap<String, List<String>>();
+        for (final Maskelement element : mask.getMaskelementCollection()) {
+            final List<String> values = new ArrayList<String>(element.getMevalueCount());
+            for (final String value : element.getMevalueCollection()) {
+                if (value == null) continue;
+                if (value.startsWith("~") || value.endsWith("%")) {
+                    values.clear();
+                    break;
+                }
+                values.add(value);
+            }
+            if (!values.isEmpty() && !keys.containsKey(element.getMename())) {
+                keys.put(element.getMename(), values);
+            }
+        }
+        return keys;
+    }
+
+    private static int[] toArray(final List<Integer> ordinals) {
+        if (ordinals.isEmpty()) return EMPTY_ORDINALS;
+        final int[] result = new int[ordinals.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ordinals.get(i);
+        }
+        return result;
+    }
+
+    public int size() {
+        return m_events.length;
+    }
+
+    /**
+     * Finds the first event definition that matches the given event, in the
+     * same order as {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}.
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final int[][] lists = new int[m_dimensions.length + 1][];
+        int listCount = 0;
+        if (m_unindexed.length > 0) {
+            lists[listCount++] = m_unindexed;
+        }
+        for (final Dimension dimension : m_dimensions) {
+            final int[] candidates = dimension.getCandidates(matchingEvent);
+            if (candidates != null) {
+                lists[listCount++] = candidates;
+            }
+        }
+
+        if (listCount == 1) {
+            for (final int ordinal : lists[0]) {
+                if (m_events[ordinal].matches(matchingEvent)) {
+                    return m_events[ordinal];
+                }
+            }
+            return null;
+        }
+
+        // merge the candidate lists in ordinal order, stopping at the first match
+        final int[] positions = new int[listCount];
+        while (true) {
+            int next = -1;
+            int nextOrdinal = Integer.MAX_VALUE;
+            for (int i = 0; i < listCount; i++) {
+                if (positions[i] < lists[i].length && lists[i][positions[i]] < nextOrdinal) {
+                    next = i;
+                    nextOrdinal = lists[i][positions[i]];
+                }
+            }
+            if (next < 0) {
+                return null;
+            }
+            positions[next]++;
+
+            final Event event = m_events[nextOrdinal];
+            if (event.matches(matchingEvent)) {
+                return event;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder("EventMatchIndex[events=").append(m_events.length);
+        buf.append(", unindexed=").append(m_unindexed.length);
+        for (final Dimension dimension : m_dimensions) {
+            buf.append(", ").append(dimension);
+        }
+        return buf.append("]").toString();
+    }
+}
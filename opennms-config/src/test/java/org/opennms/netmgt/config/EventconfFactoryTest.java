@@ -70,7 +70,10 @@ import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.TrapIdentity;
 import org.opennms.netmgt.xml.eventconf.AlarmData;
 import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventMatchIndex;
 import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.InputStreamResource;
@@ -348,6 +351,68 @@ public class EventconfFactoryTest {
         assertEquals("uei.opennms.org/traps/eventTrap", eventConf.getUei());
     }
 
+    @Test
+    public void testMatchIndexAgreesWithEventsAndIsFaster() throws Exception {
+        final Events root = m_eventConfDao.getRootEvents();
+        final EventMatchIndex index = EventMatchIndex.compile(root);
+
+        final List<org.opennms.netmgt.xml.event.Event> events = new ArrayList<org.opennms.netmgt.xml.event.Event>();
+        for (final Event eventConf : m_eventConfDao.getAllEvents()) {
+            events.add(createMatchingEvent(eventConf));
+        }
+        events.add(new EventBuilder(unknownUEI1, "testMatchIndex").getEvent());
+
+        for (final org.opennms.netmgt.xml.event.Event event : events) {
+            assertTrue("index and partitioned search should agree for " + event.getUei(), root.findFirstMatchingEvent(event) == index.findFirstMatchingEvent(event));
+        }
+
+        final int ROUNDS = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (final org.opennms.netmgt.xml.event.Event event : events) {
+                root.findFirstMatchingEvent(event);
+            }
+        }
+        final long partitionedElapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (final org.opennms.netmgt.xml.event.Event event : events) {
+                index.findFirstMatchingEvent(event);
+            }
+        }
+        final long indexedElapsed = System.nanoTime() - start;
+
+        final int attempts = ROUNDS * events.size();
+        System.err.printf("%d Attempts: partitioned search %d ms (%f events per second), compiled index %d ms (%f events per second).%n",
+                          attempts,
+                          partitionedElapsed / 1000000, attempts * 1000000000.0 / partitionedElapsed,
+                          indexedElapsed / 1000000, attempts * 1000000000.0 / indexedElapsed);
+        System.err.println(index);
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createMatchingEvent(final Event eventConf) {
+        final EventBuilder bldr = new EventBuilder(eventConf.getUei(), "testMatchIndex");
+        final Mask mask = eventConf.getMask();
+        if (mask != null && mask.getMaskelementCount() > 0) {
+            bldr.setUei(null);
+            for (final Maskelement element : mask.getMaskelementCollection()) {
+                final String value = element.getMevalueCount() == 0 ? null : element.getMevalue(0);
+                if (value == null || value.startsWith("~") || value.endsWith("%")) continue;
+                if (Maskelement.TAG_UEI.equals(element.getMename())) {
+                    bldr.setUei(value);
+                } else if (Maskelement.TAG_SNMP_EID.equals(element.getMename())) {
+                    bldr.setEnterpriseId(value);
+                } else if (Maskelement.TAG_SNMP_GENERIC.equals(element.getMename())) {
+                    bldr.setGeneric(Integer.parseInt(value));
+                } else if (Maskelement.TAG_SNMP_SPECIFIC.equals(element.getMename())) {
+                    bldr.setSpecific(Integer.parseInt(value));
+                }
+            }
+        }
+        return bldr.getEvent();
+    }
+
     @Test
     public void testFindByEventUnknown() {
         EventBuilder bldr = new EventBuilder(unknownUEI1, "testFindByEventUnknown");
@@ -28,8 +28,10 @@
 
 package org.opennms.netmgt.dao.api;
 
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -37,6 +39,16 @@ public interface EventDao extends LegacyOnmsDao<OnmsEvent, Integer> {
 
     int deletePreviousEventsForAlarm(final Integer id, final OnmsEvent e);
 
+    /**
+     * Sets the alarm of the given events in one statement, without loading
+     * them.
+     *
+     * @param alarm the alarm the events were reduced into
+     * @param eventIds the IDs of the events
+     * @return the number of events updated
+     */
+    int linkEventsToAlarm(final OnmsAlarm alarm, final Collection<Integer> eventIds);
+
     /**
      * Returns a list of events which have been created
      * AFTER date and the uei of each event matches one uei entry of the ueiList.
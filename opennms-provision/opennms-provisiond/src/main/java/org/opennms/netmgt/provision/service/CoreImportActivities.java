@@ -44,6 +44,8 @@ import org.opennms.netmgt.provision.service.lifecycle.LifeCycleInstance;
 import org.opennms.netmgt.provision.service.lifecycle.Phase;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.Activity;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.ActivityProvider;
+import org.opennms.netmgt.provision.service.lifecycle.annotations.Attribute;
+import org.opennms.netmgt.provision.service.operations.ChunkedImportOperations;
 import org.opennms.netmgt.provision.service.operations.ImportOperation;
 import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
 import org.opennms.netmgt.provision.service.operations.RequisitionImport;
@@ -101,7 +103,14 @@ public class CoreImportActivities {
         final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdsToNodes, m_provisionService, rescanExisting);
         
         opsMgr.setForeignSource(foreignSource);
-        opsMgr.auditNodes(specFile);
+        if (ChunkedImportOperations.getConfiguredChunkSize() > 0) {
+            // The scan phase audits the nodes a chunk at a time. Auditing them
+            // here as well would hand out every operation with the first chunk,
+            // and turn the updates of the later chunks into inserts.
+            debug("Deferring the audit of the nodes to the chunked scan phase.");
+        } else {
+            opsMgr.auditNodes(specFile);
+        }
 
         debug("Finished auditing nodes.");
         
@@ -116,20 +125,30 @@ public class CoreImportActivities {
         }
 
         info("Scheduling nodes for phase {}", currentPhase);
-        
-        final Collection<ImportOperation> operations = opsMgr.getOperations();
-        
+
+        final int chunkSize = ChunkedImportOperations.getConfiguredChunkSize();
+        if (chunkSize > 0) {
+            final ChunkedImportOperations chunks = new ChunkedImportOperations(opsMgr, ri.getRequisition(), chunkSize);
+            scheduleNodeImports(currentPhase, chunks.start(), ri, chunks);
+        } else {
+            scheduleNodeImports(currentPhase, opsMgr.getOperations(), ri, null);
+        }
+    }
+
+    private static void scheduleNodeImports(final Phase scanPhase, final Collection<ImportOperation> operations, final RequisitionImport ri, final ChunkedImportOperations chunks) {
         for(final ImportOperation op : operations) {
-            final LifeCycleInstance nodeScan = currentPhase.createNestedLifeCycle("nodeImport");
+            final LifeCycleInstance nodeScan = scanPhase.createNestedLifeCycle("nodeImport");
 
-            debug("Created lifecycle {} for operation {}", nodeScan, op);
+            LOG.debug("Created lifecycle {} for operation {}", nodeScan, op);
             
             nodeScan.setAttribute("operation", op);
             nodeScan.setAttribute("requisitionImport", ri);
+            if (chunks != null) {
+                nodeScan.setAttribute("scanPhase", scanPhase);
+                nodeScan.setAttribute("chunkedImportOperations", chunks);
+            }
             nodeScan.trigger();
         }
-
-
     }
     
     
@@ -151,16 +170,26 @@ public class CoreImportActivities {
     }
     
     @Activity( lifecycle = "nodeImport", phase = "persist" , schedulingHint = "import" )
-    public void persistNode(final ImportOperation operation, final RequisitionImport ri) {
-        if (ri.isAborted()) {
-            info("The import has been aborted, skipping persist phase.");
-            return;
-        }
-
-        info("Running persist phase of {}", operation);
-        operation.persist();
-        info("Finished Running persist phase of {}", operation);
+    public void persistNode(final ImportOperation operation, final RequisitionImport ri, final ChunkedImportOperations chunks, @Attribute("scanPhase") final Phase scanPhase) {
+        try {
+            if (ri.isAborted()) {
+                info("The import has been aborted, skipping persist phase.");
+                return;
+            }
 
+            info("Running persist phase of {}", operation);
+            operation.persist();
+            info("Finished Running persist phase of {}", operation);
+        } finally {
+            // hand the next chunk of nodes to the scan phase of the import,
+            // which stays open until this nodeImport has completed
+            if (chunks != null) {
+                final Collection<ImportOperation> next = chunks.operationCompleted(operation);
+                if (!next.isEmpty() && !ri.isAborted()) {
+                    scheduleNodeImports(scanPhase, next, ri, chunks);
+                }
+            }
+        }
     }
     
     @Activity( lifecycle = "import", phase = "relate" , schedulingHint = "import" )
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds the operations of a requisition import to the scan phase a chunk
+ * at a time. The deletes come first, followed by the nodes, which are
+ * audited against the database in foreign ID order. The next chunk is only
+ * handed out once the number of operations still in flight has dropped to a
+ * single chunk, so at most two chunks of operations (and their
+ * {@link org.opennms.netmgt.model.OnmsNode} objects) are scheduled at once
+ * while the import threads are kept busy.
+ *
+ * @see ImportOperationsManager#auditNodes(java.util.Collection)
+ */
+public class ChunkedImportOperations {
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedImportOperations.class);
+
+    /**
+     * System property holding the number of nodes audited per chunk. A value
+     * of 0 (the default) audits the whole requisition before scanning.
+     */
+    public static final String CHUNK_SIZE_PROPERTY = "org.opennms.provisiond.importChunkSize";
+
+    /**
+     * @return the configured number of nodes audited per chunk, 0 if the
+     *   imports are not chunked
+     */
+    public static int getConfiguredChunkSize() {
+        return Math.max(0, Integer.getInteger(CHUNK_SIZE_PROPERTY, 0));
+    }
+
+    private final ImportOperationsManager m_opsMgr;
+    private final Requisition m_requisition;
+    private final Iterator<String> m_foreignIds;
+    private final int m_chunkSize;
+    private final int m_nodeCount;
+    private final LinkedList<ImportOperation> m_deletes;
+    private final int m_deleteCount;
+
+    private int m_nodesAudited = 0;
+    private int m_inFlight = 0;
+    private int m_completed = 0;
+    private long m_startTime = 0;
+
+    /**
+     * @param opsMgr the operations manager holding the database's view of the foreign source
+     * @param requisition the requisition being imported
+     * @param chunkSize the number of nodes to audit at a time
+     */
+    public ChunkedImportOperations(final ImportOperationsManager opsMgr, final Requisition requisition, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        m_opsMgr = opsMgr;
+        m_requisition = requisition;
+        m_chunkSize = chunkSize;
+
+        final SortedSet<String> foreignIds = new TreeSet<String>();
+        for (final RequisitionNode node : requisition.getNodes()) {
+            foreignIds.add(node.getForeignId());
+        }
+        m_nodeCount = foreignIds.size();
+        m_foreignIds = foreignIds.iterator();
+
+        m_deletes = new LinkedList<ImportOperation>(m_opsMgr.auditDeletes(foreignIds));
+        m_deleteCount = m_deletes.size();
+    }
+
+    /**
+     * Returns the operations to start the import with, the first chunk.
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public synchronized List<ImportOperation> start() {
+        m_startTime = System.currentTimeMillis();
+        final List<ImportOperation> operations = nextChunk();
+        m_inFlight += operations.size();
+        LOG.info("Importing {} nodes of requisition {} in chunks of {}, {} nodes to delete", m_nodeCount, m_requisition.getForeignSource(), m_chunkSize, m_deleteCount);
+        return operations;
+    }
+
+    /**
+     * Records that an operation has been persisted and returns the
+     * operations of the next chunk once there is room for them.
+     *
+     * @param operation the completed operation
+     * @return the operations to schedule next, possibly empty
+     */
+    public synchronized List<ImportOperation> operationCompleted(final ImportOperation operation) {
+        m_inFlight--;
+        m_completed++;
+
+        if (m_completed % m_chunkSize == 0 || isComplete()) {
+            final long elapsed = Math.max(1, System.currentTimeMillis() - m_startTime);
+            LOG.info("Requisition {}: {} operations completed, {} in flight, {} of {} deletes scheduled, {} of {} nodes audited ({} operations/sec)", m_requisition.getForeignSource(), m_completed, m_inFlight, m_deleteCount - m_deletes.size(), m_deleteCount, m_nodesAudited, m_nodeCount, String.format("%.1f", m_completed * 1000.0 / elapsed));
+        }
+
+        if (m_inFlight > m_chunkSize || !hasMoreOperations()) {
+            return Collections.emptyList();
+        }
+
+        final List<ImportOperation> operations = nextChunk();
+        m_inFlight += operations.size();
+        return operations;
+    }
+
+    /**
+     * Takes up to a chunk of the remaining deletes and fills the rest of the
+     * chunk by auditing the next nodes.
+     */
+    private List<ImportOperation> nextChunk() {
+        final List<ImportOperation> operations = new ArrayList<ImportOperation>(m_chunkSize);
+        while (operations.size() < m_chunkSize && !m_deletes.isEmpty()) {
+            operations.add(m_deletes.removeFirst());
+        }
+
+        final List<OnmsNodeRequisition> nodeReqs = new ArrayList<OnmsNodeRequisition>(m_chunkSize - operations.size());
+        while (operations.size() + nodeReqs.size() < m_chunkSize && m_foreignIds.hasNext()) {
+            nodeReqs.add(m_requisition.getNodeRequistion(m_foreignIds.next()));
+        }
+        if (!nodeReqs.isEmpty()) {
+            LOG.debug("Auditing {} nodes of requisition {}", nodeReqs.size(), m_requisition.getForeignSource());
+            operations.addAll(m_opsMgr.auditNodes(nodeReqs));
+            m_nodesAudited += nodeReqs.size();
+        }
+        return operations;
+    }
+
+    private boolean hasMoreOperations() {
+        return !m_deletes.isEmpty() || m_foreignIds.hasNext();
+    }
+
+    /**
+     * @return true once every node has been audited and every operation has completed
+     */
+    public synchronized boolean isComplete() {
+        return !hasMoreOperations() && m_inFlight == 0;
+    }
+
+    /**
+     * @return the number of operations that have completed so far
+     */
+    public synchronized int getCompletedCount() {
+        return m_completed;
+    }
+}
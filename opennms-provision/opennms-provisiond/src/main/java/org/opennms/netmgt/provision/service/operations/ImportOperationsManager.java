@@ -38,11 +38,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.service.ProvisionService;
 import org.opennms.netmgt.provision.service.RequisitionAccountant;
@@ -66,6 +68,14 @@ public class ImportOperationsManager {
      */
     private final List<ImportOperation> m_inserts = new LinkedList<ImportOperation>();
     private final List<ImportOperation> m_updates = new LinkedList<ImportOperation>();
+
+    /**
+     * Operations that were handed out by {@link #auditNodes(Collection)} or
+     * {@link #auditDeletes(Set)} rather than kept in the lists above.
+     */
+    private int m_auditedInserts = 0;
+    private int m_auditedUpdates = 0;
+    private int m_auditedDeletes = 0;
     
     private final ProvisionService m_provisionService;
     private final Map<String, Integer> m_foreignIdToNodeMap;
@@ -143,8 +153,8 @@ public class ImportOperationsManager {
      *
      * @return a int.
      */
-    public int getOperationCount() {
-        return m_inserts.size() + m_updates.size() + m_foreignIdToNodeMap.size();
+    public synchronized int getOperationCount() {
+        return getInsertCount() + getUpdateCount() + getDeleteCount();
     }
     
     /**
@@ -152,8 +162,8 @@ public class ImportOperationsManager {
      *
      * @return a int.
      */
-    public int getInsertCount() {
-    	return m_inserts.size();
+    public synchronized int getInsertCount() {
+    	return m_inserts.size() + m_auditedInserts;
     }
 
     /**
@@ -161,8 +171,8 @@ public class ImportOperationsManager {
      *
      * @return a int.
      */
-    public int  getUpdateCount() {
-        return m_updates.size();
+    public synchronized int getUpdateCount() {
+        return m_updates.size() + m_auditedUpdates;
     }
 
     /**
@@ -170,8 +180,8 @@ public class ImportOperationsManager {
      *
      * @return a int.
      */
-    public int getDeleteCount() {
-    	return m_foreignIdToNodeMap.size();
+    public synchronized int getDeleteCount() {
+    	return m_foreignIdToNodeMap.size() + m_auditedDeletes;
     }
     
     private class DeleteIterator implements Iterator<ImportOperation> {
@@ -312,6 +322,55 @@ public class ImportOperationsManager {
         requisition.visit(new RequisitionAccountant(this));
     }
 
+    /**
+     * Audits a subset of the nodes in a requisition and hands back the
+     * resulting update and insert operations instead of keeping them, so
+     * that only the operations of the nodes currently being imported are
+     * held in memory.
+     *
+     * @param nodeReqs the nodes to audit
+     * @return the update operations followed by the insert operations
+     */
+    public synchronized List<ImportOperation> auditNodes(final Collection<OnmsNodeRequisition> nodeReqs) {
+        final RequisitionAccountant accountant = new RequisitionAccountant(this);
+        for (final OnmsNodeRequisition nodeReq : nodeReqs) {
+            nodeReq.visit(accountant);
+        }
+
+        final List<ImportOperation> operations = new ArrayList<ImportOperation>(m_updates.size() + m_inserts.size());
+        operations.addAll(m_updates);
+        operations.addAll(m_inserts);
+        m_auditedUpdates += m_updates.size();
+        m_auditedInserts += m_inserts.size();
+        m_updates.clear();
+        m_inserts.clear();
+        return operations;
+    }
+
+    /**
+     * Returns the operations deleting every node of the foreign source
+     * that is not in the given set of foreign IDs. Used together with
+     * {@link #auditNodes(Collection)} when the remaining nodes are audited
+     * a chunk at a time, since the deletes can then no longer be derived
+     * from what is left over at the end.
+     *
+     * @param foreignIds the foreign IDs of all nodes in the requisition
+     * @return the delete operations
+     */
+    public synchronized List<ImportOperation> auditDeletes(final Set<String> foreignIds) {
+        final List<ImportOperation> operations = new ArrayList<ImportOperation>();
+        final Iterator<Entry<String, Integer>> it = m_foreignIdToNodeMap.entrySet().iterator();
+        while (it.hasNext()) {
+            final Entry<String, Integer> entry = it.next();
+            if (!foreignIds.contains(entry.getKey())) {
+                operations.add(new DeleteOperation(entry.getValue(), getForeignSource(), entry.getKey(), m_provisionService));
+                it.remove();
+            }
+        }
+        m_auditedDeletes += operations.size();
+        return operations;
+    }
+
     @SuppressWarnings("unused")
     private Runnable persister(final ImportOperation oper) {
         Runnable r = new Runnable() {
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.tasks.BatchTask;
+import org.opennms.core.tasks.DefaultTaskCoordinator;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.opennms.netmgt.provision.service.lifecycle.LifeCycleInstance;
+import org.opennms.netmgt.provision.service.lifecycle.Phase;
+import org.opennms.netmgt.provision.service.operations.ChunkedImportOperations;
+import org.opennms.netmgt.provision.service.operations.ImportOperation;
+import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.RequisitionImport;
+
+/**
+ * Runs the audit, scan and persist phases of an import against a provision
+ * service that records the nodes it is asked to insert, update and delete.
+ */
+public class CoreImportActivitiesTest {
+
+    private final List<String> m_persisted = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, Integer> m_foreignIdToNodeId = new HashMap<String, Integer>();
+    private CoreImportActivities m_activities;
+    private RequisitionImport m_import;
+
+    @Before
+    public void setUp() {
+        final Requisition requisition = new Requisition("chunks");
+        for (int i = 9; i >= 0; i--) {
+            final RequisitionNode node = new RequisitionNode();
+            node.setForeignId("node" + i);
+            node.setNodeLabel("node" + i);
+            requisition.insertNode(node);
+        }
+        m_import = new RequisitionImport();
+        m_import.setRequisition(requisition);
+
+        // every other node exists already, gone0 is no longer in the requisition
+        for (int i = 0; i < 10; i += 2) {
+            m_foreignIdToNodeId.put("node" + i, i + 1);
+        }
+        m_foreignIdToNodeId.put("gone0", 100);
+
+        final ProvisionService provisionService = (ProvisionService)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ProvisionService.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("getForeignIdToNodeIdMap".equals(method.getName())) {
+                    return m_foreignIdToNodeId;
+                } else if ("insertNode".equals(method.getName()) || "updateNode".equals(method.getName())) {
+                    m_persisted.add(method.getName() + ":" + ((OnmsNode)args[0]).getForeignId());
+                } else if ("deleteNode".equals(method.getName())) {
+                    m_persisted.add("deleteNode:" + args[0]);
+                }
+                return null;
+            }
+        });
+        m_activities = new CoreImportActivities(provisionService);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(ChunkedImportOperations.CHUNK_SIZE_PROPERTY);
+    }
+
+    @Test
+    public void testImport() throws Exception {
+        final int inFlight = runImport();
+        assertImported();
+        assertEquals(11, inFlight);
+    }
+
+    @Test
+    public void testChunkedImport() throws Exception {
+        System.setProperty(ChunkedImportOperations.CHUNK_SIZE_PROPERTY, "3");
+        final int inFlight = runImport();
+        assertImported();
+        assertTrue("at most two chunks in flight: " + inFlight, inFlight <= 6);
+    }
+
+    /**
+     * @return the largest number of node imports that were scheduled at once
+     */
+    private int runImport() throws Exception {
+        final ImportOperationsManager opsMgr = m_activities.auditNodes(m_import, Boolean.TRUE.toString());
+
+        final LinkedList<NodeImport> scheduled = new LinkedList<NodeImport>();
+        final Phase scanPhase = new Phase(null, new NodeImport(scheduled), "scan", new Object[0]);
+        m_activities.scanNodes(scanPhase, opsMgr, m_import);
+
+        int maxInFlight = scheduled.size();
+        while (!scheduled.isEmpty()) {
+            final NodeImport nodeImport = scheduled.removeFirst();
+            m_activities.persistNode(
+                    nodeImport.getAttribute("operation", ImportOperation.class),
+                    m_import,
+                    nodeImport.getAttribute("chunkedImportOperations", ChunkedImportOperations.class),
+                    nodeImport.getAttribute("scanPhase", Phase.class));
+            maxInFlight = Math.max(maxInFlight, scheduled.size());
+        }
+        return maxInFlight;
+    }
+
+    private void assertImported() {
+        final List<String> persisted = new ArrayList<String>(m_persisted);
+        assertEquals(persisted.toString(), 11, persisted.size());
+        assertTrue(persisted.contains("deleteNode:100"));
+        for (int i = 0; i < 10; i++) {
+            final String expected = (i % 2 == 0 ? "updateNode:" : "insertNode:") + "node" + i;
+            assertTrue("expected " + expected + " in " + persisted, persisted.contains(expected));
+        }
+    }
+
+    /**
+     * A lifecycle that queues itself for the test when triggered rather than
+     * running its phases.
+     */
+    private static class NodeImport implements LifeCycleInstance {
+        private final LinkedList<NodeImport> m_scheduled;
+        private final Map<String, Object> m_attributes = new HashMap<String, Object>();
+
+        NodeImport(final LinkedList<NodeImport> scheduled) {
+            m_scheduled = scheduled;
+        }
+
+        @Override
+        public List<String> getPhaseNames() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String getName() {
+            return "nodeImport";
+        }
+
+        @Override
+        public LifeCycleInstance setAttribute(final String key, final Object value) {
+            m_attributes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Object getAttribute(final String key) {
+            return m_attributes.get(key);
+        }
+
+        @Override
+        public <T> T findAttributeByType(final Class<T> clazz) {
+            for (final Object value : m_attributes.values()) {
+                if (clazz.isInstance(value)) {
+                    return clazz.cast(value);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public <T> T getAttribute(final String key, final Class<T> type) {
+            return type.cast(m_attributes.get(key));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getAttribute(final String key, final T defaultValue) {
+            return m_attributes.containsKey(key) ? (T)m_attributes.get(key) : defaultValue;
+        }
+
+        @Override
+        public LifeCycleInstance createNestedLifeCycle(final BatchTask currentPhase, final String lifeCycleName) {
+            return new NodeImport(m_scheduled);
+        }
+
+        @Override
+        public void trigger() {
+            m_scheduled.add(this);
+        }
+
+        @Override
+        public void waitFor() {
+        }
+
+        @Override
+        public DefaultTaskCoordinator getCoordinator() {
+            return new DefaultTaskCoordinator("CoreImportActivitiesTest");
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+public class ChunkedImportOperationsTest {
+
+    private Requisition m_requisition;
+    private ImportOperationsManager m_opsMgr;
+
+    @Before
+    public void setUp() {
+        m_requisition = new Requisition("chunks");
+        for (int i = 9; i >= 0; i--) {
+            final RequisitionNode node = new RequisitionNode();
+            node.setForeignId("node" + i);
+            node.setNodeLabel("node" + i);
+            m_requisition.insertNode(node);
+        }
+
+        // node0 and node1 exist in the database, gone0 is no longer in the requisition
+        final Map<String, Integer> foreignIdToNodeId = new HashMap<String, Integer>();
+        foreignIdToNodeId.put("node0", 1);
+        foreignIdToNodeId.put("node1", 2);
+        foreignIdToNodeId.put("gone0", 3);
+
+        m_opsMgr = new ImportOperationsManager(foreignIdToNodeId, null, Boolean.TRUE.toString());
+        m_opsMgr.setForeignSource("chunks");
+    }
+
+    @Test
+    public void testChunksAreAuditedInForeignIdOrder() {
+        final ChunkedImportOperations chunks = new ChunkedImportOperations(m_opsMgr, m_requisition, 4);
+
+        final List<ImportOperation> first = chunks.start();
+        assertEquals(4, first.size());
+        assertTrue(first.get(0) instanceof DeleteOperation);
+        assertEquals("DELETE: Node 3", first.get(0).toString());
+        assertTrue(first.get(1) instanceof UpdateOperation);
+        assertEquals("UPDATE: Node: 1: node0", first.get(1).toString());
+        assertTrue(first.get(2) instanceof UpdateOperation);
+        assertTrue(first.get(3) instanceof InsertOperation);
+        assertEquals("INSERT: Node: null: node2", first.get(3).toString());
+
+        assertEquals(1, m_opsMgr.getDeleteCount());
+        assertEquals(2, m_opsMgr.getUpdateCount());
+        assertEquals(1, m_opsMgr.getInsertCount());
+    }
+
+    @Test
+    public void testNextChunkWaitsForRoom() {
+        final ChunkedImportOperations chunks = new ChunkedImportOperations(m_opsMgr, m_requisition, 4);
+
+        final List<ImportOperation> inFlight = new ArrayList<ImportOperation>(chunks.start());
+
+        // the second chunk is audited as soon as no more than one chunk's
+        // worth is left in flight
+        assertEquals(4, inFlight.size());
+        inFlight.addAll(chunks.operationCompleted(inFlight.remove(0)));
+        assertEquals(7, inFlight.size());
+
+        assertTrue(chunks.operationCompleted(inFlight.remove(0)).isEmpty());
+        assertTrue(chunks.operationCompleted(inFlight.remove(0)).isEmpty());
+        assertEquals(3, chunks.operationCompleted(inFlight.remove(0)).size());
+        assertFalse(chunks.isComplete());
+    }
+
+    @Test
+    public void testAllOperationsComplete() {
+        final ChunkedImportOperations chunks = new ChunkedImportOperations(m_opsMgr, m_requisition, 3);
+
+        final List<ImportOperation> inFlight = new ArrayList<ImportOperation>(chunks.start());
+        final List<String> persisted = new ArrayList<String>();
+        int maxInFlight = inFlight.size();
+        while (!inFlight.isEmpty()) {
+            assertFalse(chunks.isComplete());
+            final ImportOperation op = inFlight.remove(0);
+            persisted.add(op.toString());
+            inFlight.addAll(chunks.operationCompleted(op));
+            maxInFlight = Math.max(maxInFlight, inFlight.size());
+        }
+
+        assertTrue(chunks.isComplete());
+        assertEquals(11, chunks.getCompletedCount());
+        assertEquals(11, persisted.size());
+        assertEquals("DELETE: Node 3", persisted.get(0));
+        assertEquals("INSERT: Node: null: node9", persisted.get(10));
+        assertTrue("at most two chunks in flight: " + maxInFlight, maxInFlight <= 6);
+
+        assertEquals(1, m_opsMgr.getDeleteCount());
+        assertEquals(2, m_opsMgr.getUpdateCount());
+        assertEquals(8, m_opsMgr.getInsertCount());
+        assertEquals(11, m_opsMgr.getOperationCount());
+    }
+
+    @Test
+    public void testDeletesAreChunked() {
+        final Map<String, Integer> foreignIdToNodeId = new HashMap<String, Integer>();
+        for (int i = 0; i < 10; i++) {
+            foreignIdToNodeId.put("gone" + i, 100 + i);
+        }
+        m_opsMgr = new ImportOperationsManager(foreignIdToNodeId, null, Boolean.TRUE.toString());
+        m_opsMgr.setForeignSource("chunks");
+        final ChunkedImportOperations chunks = new ChunkedImportOperations(m_opsMgr, m_requisition, 4);
+
+        final List<ImportOperation> inFlight = new ArrayList<ImportOperation>(chunks.start());
+        assertEquals(4, inFlight.size());
+        for (final ImportOperation op : inFlight) {
+            assertTrue(op instanceof DeleteOperation);
+        }
+
+        // the remaining deletes are handed out before any node is audited
+        inFlight.addAll(chunks.operationCompleted(inFlight.remove(0)));
+        assertEquals(7, inFlight.size());
+        for (final ImportOperation op : inFlight) {
+            assertTrue(op instanceof DeleteOperation);
+        }
+        assertEquals(0, m_opsMgr.getInsertCount());
+
+        int deletes = 1;
+        int maxInFlight = inFlight.size();
+        while (!inFlight.isEmpty()) {
+            final ImportOperation op = inFlight.remove(0);
+            if (op instanceof DeleteOperation) {
+                deletes++;
+            }
+            inFlight.addAll(chunks.operationCompleted(op));
+            maxInFlight = Math.max(maxInFlight, inFlight.size());
+        }
+        assertTrue(chunks.isComplete());
+        assertEquals(10, deletes);
+        assertEquals(20, chunks.getCompletedCount());
+        assertTrue("at most two chunks in flight: " + maxInFlight, maxInFlight <= 8);
+    }
+}
@@ -40,6 +40,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -82,6 +84,11 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.writethreads: (default 2) The number of rrd write
  * threads that process the queue
  *
+ * org.opennms.rrd.queuing.shards: (default 16) The number of independently
+ * locked partitions the queue is split into. Files are assigned to a shard by
+ * the hash of their name and each write thread prefers its own shard, only
+ * taking work from the other shards when its own has none available.
+ *
  * org.opennms.rrd.queuing.queueCreates: (default false) indicates whether rrd
  * file creates should be queued or processed synchronously
  *
@@ -175,6 +182,25 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreads = writeThreads;
     }
 
+    /**
+     * <p>getShards</p>
+     *
+     * @return a int.
+     */
+    public int getShards() {
+        return m_shards.length;
+    }
+
+    /**
+     * Set the number of shards the work queue is split into. This must be
+     * set before any operations are enqueued.
+     *
+     * @param shards a int.
+     */
+    public void setShards(int shards) {
+        m_shards = createShards(shards);
+    }
+
     /**
      * <p>queueCreates</p>
      *
@@ -357,41 +383,49 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
-    LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
+    /**
+     * The default number of shards the work queue is split into.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    private volatile Shard[] m_shards = createShards(DEFAULT_SHARDS);
 
-    LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
+    /**
+     * Idle write threads wait on this monitor until work is available.
+     */
+    private final Object m_workAvailable = new Object();
 
-    Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
+    private final AtomicInteger m_idleThreads = new AtomicInteger(0);
 
-    Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
+    private final AtomicInteger m_nextHomeShard = new AtomicInteger(0);
 
-    Set<String> reservedFiles = new HashSet<String>();
+    private final AtomicInteger m_threadsRunning = new AtomicInteger(0);
 
-    private long m_totalOperationsPending = 0;
+    private final AtomicLong m_totalOperationsPending = new AtomicLong(0);
 
-    private long m_enqueuedOperations = 0;
+    private final AtomicLong m_enqueuedOperations = new AtomicLong(0);
 
-    private long m_dequeuedOperations = 0;
+    private final AtomicLong m_dequeuedOperations = new AtomicLong(0);
 
-    private long m_significantOpsEnqueued = 0;
+    private final AtomicLong m_coalescedOperations = new AtomicLong(0);
 
-    private long m_significantOpsDequeued = 0;
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong(0);
 
-    private long m_significantOpsCompleted = 0;
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong(0);
 
-    private long m_dequeuedItems = 0;
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong(0);
 
-    private long m_createsCompleted = 0;
+    private final AtomicLong m_dequeuedItems = new AtomicLong(0);
 
-    private long m_updatesCompleted = 0;
+    private final AtomicLong m_createsCompleted = new AtomicLong(0);
 
-    private long m_errors = 0;
+    private final AtomicLong m_updatesCompleted = new AtomicLong(0);
 
-    int threadsRunning = 0;
+    private final AtomicLong m_errors = new AtomicLong(0);
 
-    private long m_startTime = 0;
+    private final AtomicLong m_startTime = new AtomicLong(0);
 
-    private long m_promotionCount = 0;
+    private final AtomicLong m_promotionCount = new AtomicLong(0);
 
     long lastLap = System.currentTimeMillis();
 
@@ -419,6 +453,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         final int type;
         final Object data;
         final boolean significant;
+        long enqueueTime;
 
         Operation(final String fileName, final int type, final Object data, final boolean significant) {
             this.fileName = fileName;
@@ -447,8 +482,15 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             return significant;
         }
 
-        void addToPendingList(LinkedList<Operation> pendingOperations) {
+        /**
+         * Add this operation to the pending operations of its file.
+         *
+         * @return true if the operation was merged into an operation that was
+         * already pending rather than being added to the list
+         */
+        boolean addToPendingList(LinkedList<Operation> pendingOperations) {
             pendingOperations.add(this);
+            return false;
         }
 
         abstract Object process(Object rrd) throws Exception;
@@ -483,7 +525,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData(), attributeMappings);
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            m_createsCompleted.incrementAndGet();
 
             // return the file
             return rrd;
@@ -522,8 +564,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
+            if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                 logStats();
             }
             // return the open rrd for further processing
@@ -569,8 +610,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
+                if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                     logStats();
                 }
             }
@@ -626,17 +666,18 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         }
 
         @Override
-        void addToPendingList(LinkedList<Operation> pendingOperations) {
+        boolean addToPendingList(LinkedList<Operation> pendingOperations) {
             if (pendingOperations.size() > 0 && pendingOperations.getLast() instanceof ZeroUpdateOperation) {
                 ZeroUpdateOperation zeroOp = (ZeroUpdateOperation) pendingOperations.getLast();
                 try {
                     zeroOp.mergeUpdates(this);
+                    return true;
                 } catch (IllegalArgumentException e) {
                     m_log.debug("Unable to mergeUpdates {}", e.getMessage());
-                    super.addToPendingList(pendingOperations);
+                    return super.addToPendingList(pendingOperations);
                 }
             } else {
-                super.addToPendingList(pendingOperations);
+                return super.addToPendingList(pendingOperations);
             }
         }
     }
@@ -679,40 +720,249 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     //
     // Queue management functions.
     //
-    // TODO: Put this all in a class of its own. This is really ugly.
-    //
 
     /**
-     * Add an operation to the queue.
-     *
-     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     * One partition of the work queue. Every file is assigned to exactly one
+     * shard by the hash of its name, so each shard can be locked on its own
+     * and enqueuing threads and write threads only contend when they touch
+     * the same shard.
      */
-    private void addOperation(final Operation op) {
-        synchronized (this) {
-            if (queueIsFull()) {
-                m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
+    class Shard {
+        private final int m_index;
+
+        private final LinkedList<String> m_filesWithSignificantWork = new LinkedList<String>();
+
+        private final LinkedList<String> m_filesWithInsignificantWork = new LinkedList<String>();
+
+        private final Map<String, LinkedList<Operation>> m_pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
+
+        private final Set<String> m_reservedFiles = new HashSet<String>();
+
+        private final AtomicLong m_operationsPending = new AtomicLong(0);
+
+        private final AtomicLong m_itemsDequeued = new AtomicLong(0);
+
+        private final AtomicLong m_waitTime = new AtomicLong(0);
+
+        private volatile long m_maxWaitTime = 0;
+
+        private long m_shardPromotionCount = 0;
+
+        Shard(final int index) {
+            m_index = index;
+        }
+
+        /**
+         * Add an operation to the pending operations of its file.
+         *
+         * @return true if this made work available that a write thread can
+         *         pick up immediately
+         */
+        synchronized boolean store(final Operation op) {
+            op.enqueueTime = System.nanoTime();
+
+            final String fileName = op.getFileName();
+            boolean available = false;
+
+            // look and see if there a pending ops list for this file
+            LinkedList<Operation> pendingOperations = m_pendingFileOperations.get(fileName);
+
+            // if not then we create an ops list for the file and add the file to
+            // the work items list
+            if (pendingOperations == null) {
+                pendingOperations = new LinkedList<Operation>();
+                m_pendingFileOperations.put(fileName, pendingOperations);
+
+                // add the file to the correct list based on what type of work we
+                // are adding.  (if we aren't prioritizing then every file is counted as
+                // signficant
+                if (!m_prioritizeSignificantUpdates || op.isSignificant()) {
+                    m_filesWithSignificantWork.addLast(fileName);
+                } else {
+                    m_filesWithInsignificantWork.addLast(fileName);
+                }
+                available = !m_reservedFiles.contains(fileName);
+            } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
+                // only do this when we are prioritizing as this bumps files from inSig
+                // up to sig
+                m_filesWithSignificantWork.addLast(fileName);
             }
 
-            if (op.isSignificant() && sigQueueIsFull()) {
-                m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
+            promoteAgedFiles();
+
+            if (op.addToPendingList(pendingOperations)) {
+                m_coalescedOperations.incrementAndGet();
             }
+            m_operationsPending.incrementAndGet();
+            return available;
+        }
 
-            if (!op.isSignificant() && inSigQueueIsFull()) {
-                m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+        /**
+         * Ensure that files with insignificant changes are getting promoted if
+         * necessary. Each shard ages its own files so the overall promotion
+         * rate is the same as for a single queue.
+         */
+        private void promoteAgedFiles() {
+
+            // no need to do this is we aren't prioritizing
+            if (!m_prioritizeSignificantUpdates) return;
+
+            // the num seconds to update files is 0 then use unfair prioritization
+            if (m_maxInsigUpdateSeconds == 0 || m_filesWithInsignificantWork.isEmpty())
                 return;
+
+            // calculate the elapsed time we first queued updates
+            long now = System.currentTimeMillis();
+            long elapsedMillis = Math.max(now - getStartTime(), 1);
+
+            // calculate the milliseconds between promotions necessary to age
+            // insignificant files into the significant queue
+            double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / m_filesWithInsignificantWork.size());
+
+            // calculate the number of millis since start until the next file needs
+            // to be promotoed
+            long nextPromotionMillis = (long) (millisPerPromotion * m_shardPromotionCount);
+
+            // if more time has elapsed than the next promotion time then promote a
+            // file
+            if (elapsedMillis > nextPromotionMillis) {
+                String file = m_filesWithInsignificantWork.removeFirst();
+                m_filesWithSignificantWork.addFirst(file);
+                m_shardPromotionCount++;
+                m_promotionCount.incrementAndGet();
             }
+        }
+
+        synchronized void promote(final Collection<String> rrdFiles) {
+            m_filesWithSignificantWork.addAll(0, rrdFiles);
+        }
+
+        /**
+         * Reserve the next file of this shard that no other thread is working
+         * on and take its pending operations.
+         *
+         * @return the operations for the file or null if there is no work that
+         *         can be taken from this shard
+         */
+        synchronized LinkedList<Operation> take() {
+            LinkedList<Operation> ops = take(m_filesWithSignificantWork);
+            if (ops == null) {
+                ops = take(m_filesWithInsignificantWork);
+            }
+            if (ops == null) {
+                return null;
+            }
+
+            long count = 0;
+            for (final Operation op : ops) {
+                count += op.getCount();
+            }
+            m_operationsPending.addAndGet(-count);
+
+            final long waitTime = System.nanoTime() - ops.getFirst().enqueueTime;
+            m_waitTime.addAndGet(waitTime);
+            if (waitTime > m_maxWaitTime) {
+                m_maxWaitTime = waitTime;
+            }
+            m_itemsDequeued.incrementAndGet();
+            return ops;
+        }
+
+        private LinkedList<Operation> take(final LinkedList<String> files) {
+            for (final Iterator<String> it = files.iterator(); it.hasNext();) {
+                final String fileName = it.next();
+                if (m_reservedFiles.contains(fileName)) {
+                    continue;
+                }
+                it.remove();
+
+                // a file can be listed more than once if it was promoted, in
+                // which case its work may already have been taken
+                final LinkedList<Operation> ops = m_pendingFileOperations.remove(fileName);
+                if (ops != null) {
+                    m_reservedFiles.add(fileName);
+                    return ops;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Release the reservation of a file after its operations have been
+         * processed.
+         *
+         * @return true if more work was queued for the file in the meantime
+         */
+        synchronized boolean complete(final String fileName) {
+            m_reservedFiles.remove(fileName);
+            return m_pendingFileOperations.containsKey(fileName);
+        }
+
+        synchronized int getFilesWithSignificantWork() {
+            return m_filesWithSignificantWork.size();
+        }
+
+        synchronized int getFilesWithInsignificantWork() {
+            return m_filesWithInsignificantWork.size();
+        }
+
+        String getStats() {
+            final long itemsDequeued = m_itemsDequeued.get();
+            return "shard=" + m_index +
+                    ", operationsPending=" + m_operationsPending.get() +
+                    ", filesWithSignificantWork=" + getFilesWithSignificantWork() +
+                    ", filesWithInsignificantWork=" + getFilesWithInsignificantWork() +
+                    ", itemsDequeued=" + itemsDequeued +
+                    ", averageWaitMillis=" + (m_waitTime.get() / 1000000.0 / Math.max(itemsDequeued, 1)) +
+                    ", maxWaitMillis=" + (m_maxWaitTime / 1000000.0);
+        }
+    }
+
+    private Shard[] createShards(final int count) {
+        final Shard[] shards = new Shard[Math.max(count, 1)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+        return shards;
+    }
+
+    private Shard getShard(final String fileName) {
+        final Shard[] shards = m_shards;
+        return shards[(fileName.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * Add an operation to the queue.
+     *
+     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     */
+    private void addOperation(final Operation op) {
+        // the high water marks are checked without locking so they are only
+        // approximate when many threads enqueue at the same time
+        if (queueIsFull()) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (op.isSignificant() && sigQueueIsFull()) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (!op.isSignificant() && inSigQueueIsFull()) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-            storeAssignment(op);
+        m_totalOperationsPending.incrementAndGet();
+        m_enqueuedOperations.incrementAndGet();
+        if (op.isSignificant())
+            m_significantOpsEnqueued.incrementAndGet();
 
-            setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
-            if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
-            notifyAll();
-            ensureThreadsStarted();
+        if (getShard(op.getFileName()).store(op)) {
+            signalWorkAvailable();
         }
+        ensureThreadsStarted();
     }
 
 
@@ -740,134 +990,92 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /**
      * Ensure that we have threads started to process the queue.
      */
-    private synchronized void ensureThreadsStarted() {
-        if (threadsRunning < m_writeThreads) {
-            threadsRunning++;
-            new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
+    private void ensureThreadsStarted() {
+        int running;
+        while ((running = m_threadsRunning.get()) < m_writeThreads) {
+            if (m_threadsRunning.compareAndSet(running, running + 1)) {
+                new Thread(this, this.getClass().getSimpleName() + "-" + (running + 1)).start();
+                return;
+            }
         }
     }
 
     /**
-     * Get the operations for the next file that should be worked on.
-     *
-     * @return a linkedList of operations to be processed all for the same file.
+     * Wake up a write thread that is waiting for work, if there is one.
      */
-    private LinkedList<Operation> getNext() {
-        LinkedList<Operation> ops = null;
-        synchronized (this) {
-
-            // turn in our previous assignment
-            completeAssignment();
-
-            String newAssignment;
-            // wait until there is work to do
-            while ((newAssignment = selectNewAssignment()) == null) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                }
+    private void signalWorkAvailable() {
+        if (m_idleThreads.get() > 0) {
+            synchronized (m_workAvailable) {
+                m_workAvailable.notify();
             }
+        }
+    }
 
-            // initialize start time for stats
-            if (getStartTime() == 0)
-                setStartTime(System.currentTimeMillis());
-
-            // reserve the assignment and take work items
-            ops = takeAssignment(newAssignment);
+    /**
+     * Get the operations for the next file that should be worked on. The
+     * write thread looks at its home shard first and then steals work from
+     * the other shards in turn.
+     *
+     * @return a linkedList of operations to be processed all for the same
+     *         file, or null if no work could be taken before the write thread
+     *         sleep time expired
+     */
+    private LinkedList<Operation> getNext(final int homeShard) {
+        // initialize start time for stats
+        m_startTime.compareAndSet(0, System.currentTimeMillis());
 
-            // keep stats
+        final Shard[] shards = m_shards;
+        for (int i = 0; i < shards.length; i++) {
+            final LinkedList<Operation> ops = shards[(homeShard + i) % shards.length].take();
             if (ops != null) {
-                for(Operation op : ops) {
-                    setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
+                // keep stats
+                for (final Operation op : ops) {
+                    m_totalOperationsPending.addAndGet(-op.getCount());
+                    m_dequeuedOperations.addAndGet(op.getCount());
                     if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
+                        m_significantOpsDequeued.addAndGet(op.getCount());
                     }
                 }
-                setDequeuedItems(getDequeuedItems() + 1);
+                m_dequeuedItems.incrementAndGet();
+                return ops;
             }
         }
 
-        return ops;
-
-    }
-
-    /**
-     * We need to track which files are being processed by which threads so that
-     * we don't try to process updates for the same file on more than one
-     * thread.
-     */
-    private synchronized void storeAssignment(Operation op) {
-        // look and see if there a pending ops list for this file
-        LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
-
-        // if not then we create an ops list for the file and add the file to
-        // the work items list
-        if (pendingOperations == null) {
-            pendingOperations = new LinkedList<Operation>();
-            pendingFileOperations.put(op.getFileName(), pendingOperations);
-
-            // add the file to the correct list based on what type of work we
-            // are adding.  (if we aren't prioritizing then every file is counted as
-            // signficant
-            if (!m_prioritizeSignificantUpdates || op.isSignificant())
-                filesWithSignificantWork.addLast(op.getFileName());
-            else
-                filesWithInsignificantWork.addLast(op.getFileName());
-        } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
-            // only do this when we are prioritizing as this bumps files from inSig
-            // up to insig
-            // promote the file to the significant list if this is the first
-            // significant
-            filesWithSignificantWork.addLast(op.getFileName());
-        }
-
-        promoteAgedFiles();
-
-        op.addToPendingList(pendingOperations);
-    }
-
-    /**
-     * Ensure that files with insignificant changes are getting promoted if
-     * necessary
-     *
-     */
-    private synchronized void promoteAgedFiles() {
-
-        // no need to do this is we aren't prioritizing
-        if (!m_prioritizeSignificantUpdates) return;
-
-        // the num seconds to update files is 0 then use unfair prioritization
-        if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
-            return;
-
-        // calculate the elapsed time we first queued updates
-        long now = System.currentTimeMillis();
-        long elapsedMillis = Math.max(now - getStartTime(), 1);
-
-        // calculate the milliseconds between promotions necessary to age
-        // insignificant files into
-        // the significant queue
-        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
-
-        // calculate the number of millis since start until the next file needs
-        // to be promotoed
-        long nextPromotionMillis = (long) (millisPerPromotion * getPromotionCount());
-
-        // if more time has elapsed than the next promotion time then promote a
-        // file
-        if (elapsedMillis > nextPromotionMillis) {
-            String file = filesWithInsignificantWork.removeFirst();
-            filesWithSignificantWork.addFirst(file);
-            setPromotionCount(getPromotionCount() + 1);
+        // all the pending work is reserved by other threads (or was just taken).
+        // Wait to be signaled; the timeout covers a signal that was sent just
+        // before this thread registered itself as idle.
+        m_idleThreads.incrementAndGet();
+        try {
+            synchronized (m_workAvailable) {
+                m_workAvailable.wait(Math.max(m_writeThreadSleepTime, 1));
+            }
+        } catch (InterruptedException e) {
+        } finally {
+            m_idleThreads.decrementAndGet();
         }
-
+        return null;
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        final Shard[] shards = m_shards;
+        final Map<Shard, List<String>> filesByShard = new HashMap<Shard, List<String>>();
+        for (final String rrdFile : rrdFiles) {
+            final Shard shard = getShard(rrdFile);
+            List<String> files = filesByShard.get(shard);
+            if (files == null) {
+                files = new LinkedList<String>();
+                filesByShard.put(shard, files);
+            }
+            files.add(rrdFile);
+        }
+        for (final Shard shard : shards) {
+            final List<String> files = filesByShard.get(shard);
+            if (files != null) {
+                shard.promote(files);
+            }
+        }
         m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
@@ -884,52 +1092,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return true;
     }
 
-    /**
-     * register the file that the currentThread is be working on. This enables
-     * us to ensure that another thread doesn't try to work on operations for
-     * that file.  Note: this is not synchronized as it is called from getNext which
-     * is thread safe
-     */
-    private LinkedList<Operation> takeAssignment(String newAssignment) {
-
-        // make the file as reserved by the current thread
-        fileAssignments.put(Thread.currentThread(), newAssignment);
-        reservedFiles.add(newAssignment);
-
-        // get the assignments work list and return it
-        return pendingFileOperations.remove(newAssignment);
-    }
-
-    /**
-     * Return the name of the next file with available work
-     */
-    private String selectNewAssignment() {
-        for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
-            }
-        }
-        for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
-            }
-        }
-        return null;
-    }
-
     /**
      * Record that fact that the current thread has finished process operations
-     * for its current assignment
+     * for the given file so other threads may work on it again.
      */
-    private synchronized void completeAssignment() {
-        // remove any existing reservation of the current thread
-        String previousAssignment = fileAssignments.remove(Thread.currentThread());
-        if (previousAssignment != null)
-            reservedFiles.remove(previousAssignment);
+    private void completeAssignment(final String fileName) {
+        if (getShard(fileName).complete(fileName)) {
+            signalWorkAvailable();
+        }
     }
 
     /**
@@ -1066,6 +1236,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     @Override
     public void run() {
         try {
+            final int homeShard = m_nextHomeShard.getAndIncrement() & Integer.MAX_VALUE;
 
             long waitStart = -1L;
             long delayed = 0;
@@ -1073,7 +1244,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 if (getTotalOperationsPending() > 0) {
                     delayed = 0;
                     waitStart = -1L;
-                    processPendingOperations();
+                    processPendingOperations(homeShard);
                 } else {
                     if (waitStart < 0) {
                         waitStart = System.currentTimeMillis();
@@ -1088,10 +1259,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
             }
         } finally {
-            synchronized (this) {
-                threadsRunning--;
-                completeAssignment();
-            }
+            m_threadsRunning.decrementAndGet();
         }
     }
 
@@ -1099,14 +1267,15 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * Actually process the operations be calling the underlying delegate
      * strategy
      */
-    private void processPendingOperations() {
+    private void processPendingOperations(final int homeShard) {
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
                 Object rrd = null;
                 String fileName = null;
+                LinkedList<Operation> ops = null;
 
                 try {
-                    final LinkedList<Operation> ops = getNext();
+                    ops = getNext(homeShard);
                     if (ops == null) {
                         return;
                     }
@@ -1114,7 +1283,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            m_significantOpsCompleted.incrementAndGet();
                         }
 
                     }
@@ -1124,11 +1293,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                         rrd = op.process(rrd);
                     }
                 } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
+                    m_errors.incrementAndGet();
                     logLapTime("Error updating file " + fileName + ": " + e.getMessage());
                     m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
                 } finally {
                     processClose(rrd);
+                    if (ops != null) {
+                        completeAssignment(ops.getFirst().getFileName());
+                    }
                 }
             }
         });
@@ -1142,7 +1314,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             try {
                 m_delegate.closeFile(rrd);
             } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
+                m_errors.incrementAndGet();
                 logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
                 m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
             }
@@ -1155,7 +1327,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a {@link java.lang.String} object.
      */
     @Override
-    public String getStats() {
+    public synchronized String getStats() {
         long now = System.currentTimeMillis();
 
         long currentElapsedMillis = Math.max(now - lastStatsTime, 1);
@@ -1186,10 +1358,21 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         long currentItemDequeueRate = (long) (currentDequeuedItems * 1000.0 / currentElapsedMillis);
         long overallItemDequeueRate = (long) (getDequeuedItems() * 1000.0 / totalElapsedMillis);
 
-        String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
+        final Shard[] shards = m_shards;
+        int filesWithSignificantWork = 0;
+        int filesWithInsignificantWork = 0;
+        for (final Shard shard : shards) {
+            filesWithSignificantWork += shard.getFilesWithSignificantWork();
+            filesWithInsignificantWork += shard.getFilesWithInsignificantWork();
+        }
+
+        final StringBuilder stats = new StringBuilder();
+        stats.append("\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithSignificantWork=" + filesWithSignificantWork +
+                ", filesWithInsignificantWork=" + filesWithInsignificantWork +
+                ", coalescedOperations=" + getCoalescedOperations() +
+                ", coalescingRatio=" + (getCoalescedOperations() / Math.max(getEnqueuedOperations(), 1.0))
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1208,7 +1391,16 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ", overallItemDequeRate=" + overallItemDequeueRate +
                 ", overallOpsPerUpdate=" + (getDequeuedOperations() / Math.max(getDequeuedItems(), 1.0)) +
                 ", overallPrcntSignificant=" + (getSignificantOpsEnqueued() * 100.0 / Math.max(getEnqueuedOperations(), 1.0)) + "%" +
-                ", totalElapsedTime=" + ((totalElapsedMillis + 500) / 1000);
+                ", totalElapsedTime=" + ((totalElapsedMillis + 500) / 1000));
+
+        for (final Shard shard : shards) {
+            stats.append("\nQS:\t").append(shard.getStats());
+        }
+
+        final String delegateStats = m_delegate.getStats();
+        if (delegateStats != null && delegateStats.length() > 0) {
+            stats.append("\nQS:\t").append(delegateStats);
+        }
 
         lastStatsTime = now;
         lastEnqueued = getEnqueuedOperations();
@@ -1219,7 +1411,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         lastSignificantCompleted = getSignificantOpsCompleted();
         lastOpsPending = getTotalOperationsPending();
 
-        return stats;
+        return stats.toString();
     }
 
     void logStats() {
@@ -1304,7 +1496,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        return m_totalOperationsPending.get();
     }
 
     /**
@@ -1313,7 +1505,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param totalOperationsPending a long.
      */
     public void setTotalOperationsPending(long totalOperationsPending) {
-        m_totalOperationsPending = totalOperationsPending;
+        m_totalOperationsPending.set(totalOperationsPending);
     }
 
     /**
@@ -1322,7 +1514,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
+        return m_createsCompleted.get();
     }
 
     /**
@@ -1331,7 +1523,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param createsCompleted a long.
      */
     public void setCreatesCompleted(long createsCompleted) {
-        m_createsCompleted = createsCompleted;
+        m_createsCompleted.set(createsCompleted);
     }
 
     /**
@@ -1340,7 +1532,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
+        return m_updatesCompleted.get();
     }
 
     /**
@@ -1349,7 +1541,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updatesCompleted a long.
      */
     public void setUpdatesCompleted(long updatesCompleted) {
-        m_updatesCompleted = updatesCompleted;
+        m_updatesCompleted.set(updatesCompleted);
     }
 
     /**
@@ -1358,7 +1550,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
+        return m_errors.get();
     }
 
     /**
@@ -1367,7 +1559,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param errors a long.
      */
     public void setErrors(long errors) {
-        m_errors = errors;
+        m_errors.set(errors);
     }
 
     /**
@@ -1376,7 +1568,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        return m_promotionCount.get();
     }
 
     /**
@@ -1385,7 +1577,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param promotionCount a long.
      */
     public void setPromotionCount(long promotionCount) {
-        m_promotionCount = promotionCount;
+        m_promotionCount.set(promotionCount);
     }
 
     /**
@@ -1394,7 +1586,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        return m_significantOpsEnqueued.get();
     }
 
     /**
@@ -1403,7 +1595,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsEnqueued a long.
      */
     public void setSignificantOpsEnqueued(long significantOpsEnqueued) {
-        m_significantOpsEnqueued = significantOpsEnqueued;
+        m_significantOpsEnqueued.set(significantOpsEnqueued);
     }
 
     /**
@@ -1412,7 +1604,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        return m_significantOpsDequeued.get();
     }
 
     /**
@@ -1421,7 +1613,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsDequeued a long.
      */
     public void setSignificantOpsDequeued(long significantOpsDequeued) {
-        m_significantOpsDequeued = significantOpsDequeued;
+        m_significantOpsDequeued.set(significantOpsDequeued);
     }
 
     /**
@@ -1430,7 +1622,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        return m_enqueuedOperations.get();
     }
 
     /**
@@ -1439,7 +1631,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param enqueuedOperations a long.
      */
     public void setEnqueuedOperations(long enqueuedOperations) {
-        m_enqueuedOperations = enqueuedOperations;
+        m_enqueuedOperations.set(enqueuedOperations);
     }
 
     /**
@@ -1448,7 +1640,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        return m_dequeuedOperations.get();
     }
 
     /**
@@ -1457,7 +1649,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedOperations a long.
      */
     public void setDequeuedOperations(long dequeuedOperations) {
-        m_dequeuedOperations = dequeuedOperations;
+        m_dequeuedOperations.set(dequeuedOperations);
     }
 
     /**
@@ -1466,7 +1658,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        return m_dequeuedItems.get();
     }
 
     /**
@@ -1475,7 +1667,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedItems a long.
      */
     public void setDequeuedItems(long dequeuedItems) {
-        m_dequeuedItems = dequeuedItems;
+        m_dequeuedItems.set(dequeuedItems);
     }
 
     /**
@@ -1484,7 +1676,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsCompleted() {
-        return m_significantOpsCompleted;
+        return m_significantOpsCompleted.get();
     }
 
     /**
@@ -1493,7 +1685,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsCompleted a long.
      */
     public void setSignificantOpsCompleted(long significantOpsCompleted) {
-        m_significantOpsCompleted = significantOpsCompleted;
+        m_significantOpsCompleted.set(significantOpsCompleted);
     }
 
     /**
@@ -1502,7 +1694,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getStartTime() {
-        return m_startTime;
+        return m_startTime.get();
     }
 
     /**
@@ -1511,7 +1703,45 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updateStart a long.
      */
     public void setStartTime(long updateStart) {
-        m_startTime = updateStart;
+        m_startTime.set(updateStart);
+    }
+
+    /**
+     * Returns the number of zero-valued updates that were merged into an
+     * update that was already pending for the same file.
+     *
+     * @return a long.
+     */
+    public long getCoalescedOperations() {
+        return m_coalescedOperations.get();
+    }
+
+    /**
+     * Returns the total time, in milliseconds, that dequeued files waited in
+     * the queue before a write thread took them.
+     *
+     * @return a long.
+     */
+    public long getQueueWaitTime() {
+        long waitTime = 0;
+        for (final Shard shard : m_shards) {
+            waitTime += shard.m_waitTime.get();
+        }
+        return waitTime / 1000000;
+    }
+
+    /**
+     * Returns the longest time, in milliseconds, that a file waited in any
+     * shard before a write thread took it.
+     *
+     * @return a long.
+     */
+    public long getMaxQueueWaitTime() {
+        long maxWaitTime = 0;
+        for (final Shard shard : m_shards) {
+            maxWaitTime = Math.max(maxWaitTime, shard.m_maxWaitTime);
+        }
+        return maxWaitTime / 1000000;
     }
 
 
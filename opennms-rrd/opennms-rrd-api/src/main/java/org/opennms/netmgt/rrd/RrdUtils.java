@@ -86,13 +86,16 @@ public abstract class RrdUtils {
         try {
             old = Thread.currentThread().getContextClassLoader();
             Thread.currentThread().setContextClassLoader(RrdUtils.class.getClassLoader());
-            m_context = new ClassPathXmlApplicationContext(new String[]{
+            final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(new String[]{
                 // Default RRD configuration context
                 //
                 // Use an absolute path, otherwise Spring will try to resolve the resource relative
                 // to the RrdUtils class package.
                 "/org/opennms/netmgt/rrd/rrd-configuration.xml"
             }, RrdUtils.class);
+            // Let the strategies flush their buffers when the JVM exits
+            context.registerShutdownHook();
+            m_context = context;
         } finally {
             Thread.currentThread().setContextClassLoader(old);
         }
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the work queue of the {@link QueuingRrdStrategy}.
+ */
+public class QueuingRrdStrategyTest {
+    private RecordingRrdStrategy m_delegate;
+    private QueuingRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_delegate = new RecordingRrdStrategy();
+        m_strategy = new QueuingRrdStrategy(m_delegate);
+        m_strategy.setModulus(10000);
+        m_strategy.setWriteThreadSleepTime(10);
+        m_strategy.setWriteThreadExitDelay(1000);
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreWrittenInOrder() throws Exception {
+        final int producers = 8;
+        final int filesPerProducer = 50;
+        final int updatesPerFile = 20;
+
+        m_strategy.setShards(8);
+        m_strategy.setWriteThreads(4);
+
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int update = 1; update <= updatesPerFile; update++) {
+                            for (int file = 0; file < filesPerProducer; file++) {
+                                m_strategy.updateFile("file-" + producer + "-" + file, "test", (update * 300) + ":" + update);
+                            }
+                        }
+                    } catch (final Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final int total = producers * filesPerProducer * updatesPerFile;
+        waitForUpdates(total);
+
+        assertFalse("a file was opened by more than one write thread", m_delegate.isConcurrentAccess());
+        assertEquals(producers * filesPerProducer, m_delegate.getUpdates().size());
+        for (final Map.Entry<String, List<String>> entry : m_delegate.getUpdates().entrySet()) {
+            final List<String> updates = entry.getValue();
+            assertEquals(entry.getKey(), updatesPerFile, updates.size());
+            for (int update = 1; update <= updatesPerFile; update++) {
+                assertEquals(entry.getKey(), (update * 300) + ":" + update, updates.get(update - 1));
+            }
+        }
+        assertEquals(0, m_strategy.getTotalOperationsPending());
+        assertEquals(total, m_strategy.getDequeuedOperations());
+    }
+
+    @Test
+    public void testZeroUpdatesAreCoalesced() throws Exception {
+        // no write threads, so the updates stay queued until we add one
+        m_strategy.setWriteThreads(0);
+
+        m_strategy.updateFile("zero", "test", "1000:0");
+        m_strategy.updateFile("zero", "test", "1300:0");
+        m_strategy.updateFile("zero", "test", "1600:0");
+
+        assertEquals(3, m_strategy.getTotalOperationsPending());
+        assertEquals(2, m_strategy.getCoalescedOperations());
+
+        m_strategy.setWriteThreads(1);
+        m_strategy.updateFile("zero", "test", "1900:0");
+        waitForUpdates(4);
+
+        assertEquals(1, m_delegate.getUpdates().size());
+        assertEquals("[1000:0, 1300:0, 1600:0, 1900:0]", m_delegate.getUpdates().get("zero").toString());
+    }
+
+    @Test
+    public void testSignificantUpdatesAreWrittenFirst() throws Exception {
+        m_strategy.setShards(1);
+        m_strategy.setPrioritizeSignificantUpdates(true);
+        m_strategy.setWriteThreads(0);
+
+        m_strategy.updateFile("insignificant", "test", "1000:0");
+        m_strategy.updateFile("significant", "test", "1000:1");
+
+        m_strategy.setWriteThreads(1);
+        m_strategy.updateFile("significant", "test", "1300:1");
+        waitForUpdates(3);
+
+        assertEquals("[significant, insignificant]", m_delegate.getFileOrder().toString());
+        assertTrue(m_strategy.getStats().contains("shard=0"));
+    }
+
+    private void waitForUpdates(final long count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (m_strategy.getUpdatesCompleted() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("updates completed", count, m_strategy.getUpdatesCompleted());
+    }
+
+    /**
+     * Records the updates written by the write threads.
+     */
+    private static class RecordingRrdStrategy implements RrdStrategy<Object, Object> {
+        private final Map<String, List<String>> m_updates = new HashMap<String, List<String>>();
+        private final List<String> m_fileOrder = new ArrayList<String>();
+        private final Set<Object> m_openFiles = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        private volatile boolean m_concurrentAccess = false;
+
+        public synchronized Map<String, List<String>> getUpdates() {
+            return new HashMap<String, List<String>>(m_updates);
+        }
+
+        public synchronized List<String> getFileOrder() {
+            return new ArrayList<String>(m_fileOrder);
+        }
+
+        public boolean isConcurrentAccess() {
+            return m_concurrentAccess;
+        }
+
+        @Override
+        public void setConfigurationProperties(final Properties props) {
+        }
+
+        @Override
+        public String getDefaultFileExtension() {
+            return ".jrb";
+        }
+
+        @Override
+        public Object createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) {
+            return null;
+        }
+
+        @Override
+        public void createFile(final Object rrdDef, final Map<String, String> attributeMappings) {
+        }
+
+        @Override
+        public Object openFile(final String fileName) {
+            if (!m_openFiles.add(fileName)) {
+                m_concurrentAccess = true;
+            }
+            synchronized (this) {
+                if (!m_fileOrder.contains(fileName)) {
+                    m_fileOrder.add(fileName);
+                }
+            }
+            return fileName;
+        }
+
+        @Override
+        public synchronized void updateFile(final Object rrd, final String owner, final String data) {
+            List<String> updates = m_updates.get(rrd);
+            if (updates == null) {
+                updates = new ArrayList<String>();
+                m_updates.put((String) rrd, updates);
+            }
+            updates.add(data);
+        }
+
+        @Override
+        public void closeFile(final Object rrd) {
+            m_openFiles.remove(rrd);
+        }
+
+        @Override
+        public Double fetchLastValue(final String rrdFile, final String ds, final int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValue(final String rrdFile, final String ds, final String consolidationFunction, final int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValueInRange(final String rrdFile, final String ds, final int interval, final int range) {
+            return null;
+        }
+
+        @Override
+        public InputStream createGraph(final String command, final File workDir) {
+            return null;
+        }
+
+        @Override
+        public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) {
+            return null;
+        }
+
+        @Override
+        public int getGraphLeftOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphRightOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphTopOffsetWithText() {
+            return 0;
+        }
+
+        @Override
+        public String getStats() {
+            return "";
+        }
+
+        @Override
+        public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        }
+    }
+}
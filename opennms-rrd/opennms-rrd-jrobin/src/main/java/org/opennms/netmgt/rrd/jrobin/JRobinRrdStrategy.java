@@ -63,8 +63,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Provides a JRobin based implementation of RrdStrategy. It uses JRobin 1.4 in
- * FILE mode (NIO is too memory consuming for the large number of files that we
- * open)
+ * FILE mode by default. The files are opened through a {@link RrdDbCache} shared
+ * by the updates and the fetches, which keeps a bounded number of them open
+ * between two uses. Since this also bounds the number of mapped files, the NIO
+ * backend can be selected as well.
  *
  * @author ranger
  * @version $Id: $
@@ -73,6 +75,8 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAX_OPEN_FILES_PROPERTY = "org.opennms.rrd.jrobin.maxOpenFiles";
+    private static final int DEFAULT_MAX_OPEN_FILES = 1024;
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -80,6 +84,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     private static boolean s_initialized = false;
 
+    /**
+     * Shared by all of the instances, so that there is only one handle
+     * per file in the Java VM.
+     */
+    private static RrdDbCache s_rrdDbCache = null;
+
     private Properties m_configurationProperties;
 
     /**
@@ -129,7 +139,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
             if (m_configurationProperties == null) {
                 factory = DEFAULT_BACKEND_FACTORY;
             } else {
-                factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
+                factory = m_configurationProperties.getProperty(BACKEND_FACTORY_PROPERTY, DEFAULT_BACKEND_FACTORY);
             }
             try {
                 RrdDb.setDefaultFactory(factory);
@@ -138,17 +148,47 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+        if (m_configurationProperties != null) {
+            final String maxOpenFiles = m_configurationProperties.getProperty(MAX_OPEN_FILES_PROPERTY);
+            if (maxOpenFiles != null && !"".equals(maxOpenFiles.trim())) {
+                try {
+                    initializeRrdDbCache(Integer.parseInt(maxOpenFiles.trim()));
+                } catch (final NumberFormatException e) {
+                    LOG.error("Invalid value for {}: {}", MAX_OPEN_FILES_PROPERTY, maxOpenFiles, e);
+                }
+            }
+        }
+    }
+
+    private static synchronized void initializeRrdDbCache(final int maxOpenFiles) {
+        if (s_rrdDbCache == null) {
+            LOG.info("Keeping up to {} JRobin files open", maxOpenFiles);
+            s_rrdDbCache = new RrdDbCache(maxOpenFiles, null);
+        }
+    }
+
+    /**
+     * <p>getRrdDbCache</p>
+     *
+     * @return the cache of open files shared by all of the instances
+     */
+    public static synchronized RrdDbCache getRrdDbCache() {
+        if (s_rrdDbCache == null) {
+            s_rrdDbCache = new RrdDbCache(DEFAULT_MAX_OPEN_FILES, null);
+        }
+        return s_rrdDbCache;
     }
 
     /**
-     * Closes the JRobin RrdDb.
+     * Releases the JRobin RrdDb, which is only closed once it is evicted
+     * from the cache of open files.
      *
      * @param rrdFile a {@link org.jrobin.core.RrdDb} object.
      * @throws java.lang.Exception if any.
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        getRrdDbCache().release(rrdFile);
     }
 
     /** {@inheritDoc} */
@@ -203,6 +243,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        // Don't keep using a handle on a file that was deleted and is being created again
+        getRrdDbCache().invalidate(rrdDef.getPath());
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
 
@@ -219,11 +262,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     /**
      * {@inheritDoc}
      *
-     * Opens the JRobin RrdDb by name and returns it.
+     * Opens the JRobin RrdDb by name and returns it, reusing the handle
+     * if the file is already open.
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
-        return new RrdDb(fileName);
+        return getRrdDbCache().open(fileName);
     }
 
     /**
@@ -266,7 +310,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         try {
             long now = System.currentTimeMillis();
             long collectTime = (now - (now % interval)) / 1000L;
-            rrd = new RrdDb(fileName, true);
+            rrd = getRrdDbCache().open(fileName);
             FetchData data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
             LOG.debug(data.toString());
             double[] vals = data.getValues(ds);
@@ -281,7 +325,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    getRrdDbCache().release(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -294,7 +338,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
         RrdDb rrd = null;
         try {
-        	rrd = new RrdDb(fileName, true);
+        	rrd = getRrdDbCache().open(fileName);
          	long now = System.currentTimeMillis();
             long latestUpdateTime = (now - (now % interval)) / 1000L;
             long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
@@ -323,7 +367,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    getRrdDbCache().release(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -871,13 +915,13 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     }
 
     /**
-     * This implementation does not track any stats.
+     * Returns the statistics of the cache of open files.
      *
      * @return a {@link java.lang.String} object.
      */
     @Override
     public String getStats() {
-        return "";
+        return getRrdDbCache().toString();
     }
 
     /*
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, least recently used cache of open JRobin {@link RrdDb} handles.
+ *
+ * Handles are reference counted: every {@link #open(String)} must be matched by
+ * a {@link #release(RrdDb)}. Files that are no longer referenced stay open until
+ * the number of open files exceeds the configured maximum, at which point the
+ * least recently used ones are closed. Referenced files are never closed, so the
+ * cache may temporarily hold more files than the maximum.
+ *
+ * When the maximum is 0, every open creates a new handle and every release
+ * closes it.
+ */
+public class RrdDbCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdDbCache.class);
+
+    private final int m_maxOpenFiles;
+
+    private final RrdBackendFactory m_factory;
+
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final Map<RrdDb, Entry> m_entriesByRrdDb = new IdentityHashMap<RrdDb, Entry>();
+
+    private long m_hits = 0;
+
+    private long m_pageIns = 0;
+
+    private long m_evictions = 0;
+
+    private static class Entry {
+        private final String m_path;
+        private RrdDb m_rrdDb = null;
+        private int m_references = 0;
+        private boolean m_retired = false;
+
+        private Entry(final String path) {
+            m_path = path;
+        }
+    }
+
+    /**
+     * @param maxOpenFiles the maximum number of unreferenced files kept open, 0 disables the cache
+     * @param factory the backend used to open the files, or null for the JRobin default
+     */
+    public RrdDbCache(final int maxOpenFiles, final RrdBackendFactory factory) {
+        m_maxOpenFiles = Math.max(maxOpenFiles, 0);
+        m_factory = factory;
+    }
+
+    /**
+     * Opens the given file, or returns the handle that is already open for it.
+     *
+     * @param path the path of the file
+     * @return the handle, which must be given back with {@link #release(RrdDb)}
+     * @throws java.io.IOException if the file cannot be opened
+     * @throws org.jrobin.core.RrdException if the file cannot be opened
+     */
+    public RrdDb open(final String path) throws IOException, RrdException {
+        if (m_maxOpenFiles == 0) {
+            synchronized (m_entries) {
+                m_pageIns++;
+            }
+            return openRrdDb(path);
+        }
+
+        Entry entry;
+        synchronized (m_entries) {
+            entry = m_entries.get(path);
+            if (entry != null && entry.m_rrdDb != null && entry.m_references == 0 && !new File(path).exists()) {
+                // The file was deleted behind our back, don't keep writing to it
+                retire(entry);
+                closeUnreferenced(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(path);
+                m_entries.put(path, entry);
+            }
+            entry.m_references++;
+        }
+
+        // Only the callers of this file wait while it is opened
+        synchronized (entry) {
+            if (entry.m_rrdDb != null) {
+                synchronized (m_entries) {
+                    m_hits++;
+                }
+                return entry.m_rrdDb;
+            }
+
+            try {
+                entry.m_rrdDb = openRrdDb(path);
+            } catch (final IOException e) {
+                unreference(entry);
+                throw e;
+            } catch (final RrdException e) {
+                unreference(entry);
+                throw e;
+            } catch (final RuntimeException e) {
+                unreference(entry);
+                throw e;
+            }
+
+            synchronized (m_entries) {
+                m_pageIns++;
+                m_entriesByRrdDb.put(entry.m_rrdDb, entry);
+            }
+            return entry.m_rrdDb;
+        }
+    }
+
+    /**
+     * Gives back a handle obtained from {@link #open(String)}.
+     *
+     * @param rrdDb the handle
+     * @throws java.io.IOException if a file that had to be closed failed to close
+     */
+    public void release(final RrdDb rrdDb) throws IOException {
+        final List<RrdDb> toClose = new ArrayList<RrdDb>(1);
+        synchronized (m_entries) {
+            final Entry entry = m_entriesByRrdDb.get(rrdDb);
+            if (entry == null) {
+                // Opened while the cache was disabled
+                toClose.add(rrdDb);
+            } else {
+                entry.m_references--;
+                if (entry.m_references == 0 && entry.m_retired) {
+                    m_entriesByRrdDb.remove(rrdDb);
+                    toClose.add(rrdDb);
+                }
+                evict(toClose);
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Closes the handle of the given file as soon as it is no longer referenced,
+     * so that the next {@link #open(String)} reads the file again. Used when the
+     * file is replaced.
+     */
+    public void invalidate(final String path) throws IOException {
+        final List<RrdDb> toClose = new ArrayList<RrdDb>(1);
+        synchronized (m_entries) {
+            final Entry entry = m_entries.get(path);
+            if (entry != null) {
+                retire(entry);
+                if (entry.m_references == 0 && entry.m_rrdDb != null) {
+                    m_entriesByRrdDb.remove(entry.m_rrdDb);
+                    toClose.add(entry.m_rrdDb);
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Closes all of the files that are not referenced.
+     */
+    public void closeAll() throws IOException {
+        final List<RrdDb> toClose = new ArrayList<RrdDb>();
+        synchronized (m_entries) {
+            final Iterator<Entry> it = m_entries.values().iterator();
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+                if (entry.m_references == 0 && entry.m_rrdDb != null) {
+                    it.remove();
+                    m_entriesByRrdDb.remove(entry.m_rrdDb);
+                    toClose.add(entry.m_rrdDb);
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    public int getMaxOpenFiles() {
+        return m_maxOpenFiles;
+    }
+
+    public int getOpenFiles() {
+        synchronized (m_entries) {
+            return m_entriesByRrdDb.size();
+        }
+    }
+
+    /**
+     * @return the number of opens served by a file that was already open
+     */
+    public long getHits() {
+        synchronized (m_entries) {
+            return m_hits;
+        }
+    }
+
+    /**
+     * @return the number of files that had to be read from disk
+     */
+    public long getPageIns() {
+        synchronized (m_entries) {
+            return m_pageIns;
+        }
+    }
+
+    /**
+     * @return the number of files that were closed to make room for others
+     */
+    public long getEvictions() {
+        synchronized (m_entries) {
+            return m_evictions;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (m_entries) {
+            return "RrdDbCache[openFiles=" + m_entriesByRrdDb.size()
+                    + ", maxOpenFiles=" + m_maxOpenFiles
+                    + ", hits=" + m_hits
+                    + ", pageIns=" + m_pageIns
+                    + ", evictions=" + m_evictions + "]";
+        }
+    }
+
+    private RrdDb openRrdDb(final String path) throws IOException, RrdException {
+        if (m_factory == null) {
+            return new RrdDb(path);
+        }
+        return new RrdDb(path, m_factory);
+    }
+
+    /**
+     * Removes an entry that is still being opened or used from the lookup table.
+     * Must be called while holding the lock.
+     */
+    private void retire(final Entry entry) {
+        if (m_entries.get(entry.m_path) == entry) {
+            m_entries.remove(entry.m_path);
+        }
+        entry.m_retired = true;
+    }
+
+    private void closeUnreferenced(final Entry entry) {
+        m_entriesByRrdDb.remove(entry.m_rrdDb);
+        try {
+            entry.m_rrdDb.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close {}", entry.m_path, e);
+        }
+    }
+
+    /**
+     * Drops the reference of a caller that failed to open the file.
+     */
+    private void unreference(final Entry entry) {
+        synchronized (m_entries) {
+            entry.m_references--;
+            if (entry.m_references == 0 && entry.m_rrdDb == null) {
+                retire(entry);
+            }
+        }
+    }
+
+    /**
+     * Collects the least recently used files that are not referenced until the
+     * cache holds no more than the maximum. Must be called while holding the lock.
+     */
+    private void evict(final List<RrdDb> toClose) {
+        int excess = m_entriesByRrdDb.size() - m_maxOpenFiles;
+        final Iterator<Entry> it = m_entries.values().iterator();
+        while (excess > 0 && it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.m_references == 0 && entry.m_rrdDb != null) {
+                it.remove();
+                m_entriesByRrdDb.remove(entry.m_rrdDb);
+                toClose.add(entry.m_rrdDb);
+                m_evictions++;
+                excess--;
+            }
+        }
+    }
+
+    private static void close(final List<RrdDb> toClose) throws IOException {
+        IOException failure = null;
+        for (final RrdDb rrdDb : toClose) {
+            try {
+                rrdDb.close();
+            } catch (final IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
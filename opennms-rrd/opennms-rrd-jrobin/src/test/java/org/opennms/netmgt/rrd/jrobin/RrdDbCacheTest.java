@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the reference counting and the eviction of the {@link RrdDbCache}, and
+ * compares the update throughput of the backends with and without it.
+ */
+public class RrdDbCacheTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testReusesOpenFiles() throws Exception {
+        final RrdDbCache cache = new RrdDbCache(10, null);
+        final String path = createRrdFile("a", null);
+
+        final RrdDb first = cache.open(path);
+        final RrdDb second = cache.open(path);
+        assertSame(first, second);
+
+        cache.release(first);
+        cache.release(second);
+        assertFalse(first.isClosed());
+
+        assertSame(first, cache.open(path));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getPageIns());
+        assertEquals(1, cache.getOpenFiles());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedFiles() throws Exception {
+        final RrdDbCache cache = new RrdDbCache(2, null);
+        final String a = createRrdFile("a", null);
+        final String b = createRrdFile("b", null);
+        final String c = createRrdFile("c", null);
+
+        final RrdDb rrdA = cache.open(a);
+        cache.release(rrdA);
+        final RrdDb rrdB = cache.open(b);
+        cache.release(rrdB);
+
+        // Use a again, so that b is the least recently used
+        cache.release(cache.open(a));
+        cache.release(cache.open(c));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getOpenFiles());
+        assertTrue(rrdB.isClosed());
+        assertFalse(rrdA.isClosed());
+    }
+
+    @Test
+    public void testDoesNotEvictReferencedFiles() throws Exception {
+        final RrdDbCache cache = new RrdDbCache(1, null);
+        final String a = createRrdFile("a", null);
+        final String b = createRrdFile("b", null);
+
+        final RrdDb rrdA = cache.open(a);
+        final RrdDb rrdB = cache.open(b);
+        cache.release(rrdB);
+
+        assertFalse(rrdA.isClosed());
+        assertTrue(rrdB.isClosed());
+        assertEquals(1, cache.getOpenFiles());
+
+        cache.release(rrdA);
+        assertFalse(rrdA.isClosed());
+    }
+
+    @Test
+    public void testInvalidateClosesOnceReleased() throws Exception {
+        final RrdDbCache cache = new RrdDbCache(10, null);
+        final String path = createRrdFile("a", null);
+
+        final RrdDb rrd = cache.open(path);
+        cache.invalidate(path);
+        assertFalse(rrd.isClosed());
+
+        cache.release(rrd);
+        assertTrue(rrd.isClosed());
+
+        final RrdDb reopened = cache.open(path);
+        assertNotSame(rrd, reopened);
+        assertEquals(2, cache.getPageIns());
+        cache.release(reopened);
+    }
+
+    @Test
+    public void testDoesNotReuseDeletedFiles() throws Exception {
+        final RrdDbCache cache = new RrdDbCache(10, null);
+        final String path = createRrdFile("a", null);
+
+        final RrdDb rrd = cache.open(path);
+        cache.release(rrd);
+        assertTrue(new File(path).delete());
+
+        try {
+            cache.open(path);
+            fail("the file was deleted");
+        } catch (final IOException e) {
+            // expected
+        }
+        assertTrue(rrd.isClosed());
+        assertEquals(0, cache.getOpenFiles());
+    }
+
+    @Test
+    public void testClosesOnReleaseWhenDisabled() throws Exception {
+        final RrdDbCache cache = new RrdDbCache(0, null);
+        final String path = createRrdFile("a", null);
+
+        final RrdDb first = cache.open(path);
+        final RrdDb second = cache.open(path);
+        assertNotSame(first, second);
+
+        cache.release(first);
+        cache.release(second);
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+        assertEquals(0, cache.getOpenFiles());
+    }
+
+    /**
+     * Not a rigorous benchmark, but shows the effect of keeping the files
+     * open with the FILE and NIO backends.
+     */
+    @Test
+    public void testUpdateThroughput() throws Exception {
+        final int numFiles = 200;
+        final int numUpdates = 20;
+
+        for (final String backend : new String[] { "FILE", "NIO" }) {
+            final RrdBackendFactory factory = RrdBackendFactory.getFactory(backend);
+            final String[] paths = new String[numFiles];
+            for (int i = 0; i < numFiles; i++) {
+                paths[i] = createRrdFile(backend + i, factory);
+            }
+
+            for (final int maxOpenFiles : new int[] { 0, numFiles }) {
+                final RrdDbCache cache = new RrdDbCache(maxOpenFiles, factory);
+                final long timestamp = (System.currentTimeMillis() / 1000) + (maxOpenFiles == 0 ? 0 : numUpdates * 300);
+
+                final long start = System.nanoTime();
+                for (int k = 1; k <= numUpdates; k++) {
+                    for (final String path : paths) {
+                        final RrdDb rrd = cache.open(path);
+                        try {
+                            rrd.createSample().setAndUpdate((timestamp + k * 300) + ":" + k);
+                        } finally {
+                            cache.release(rrd);
+                        }
+                    }
+                }
+                final long elapsed = System.nanoTime() - start;
+
+                System.err.printf("%s backend, maxOpenFiles=%d: %d updates in %dms, %s%n", backend, maxOpenFiles,
+                        numFiles * numUpdates, elapsed / 1000000, cache);
+                assertEquals(maxOpenFiles == 0 ? numFiles * numUpdates : numFiles, cache.getPageIns());
+
+                cache.closeAll();
+                assertEquals(0, cache.getOpenFiles());
+            }
+        }
+    }
+
+    private String createRrdFile(final String name, final RrdBackendFactory factory) throws Exception {
+        final String path = new File(m_folder.getRoot(), name + ".jrb").getAbsolutePath();
+        final RrdDef def = new RrdDef(path);
+        def.setStartTime(1000);
+        def.setStep(300);
+        def.addDatasource("bar", "GAUGE", 3000, Double.NaN, Double.NaN);
+        def.addArchive("RRA:AVERAGE:0.5:1:2016");
+
+        final RrdDb rrd = factory == null ? new RrdDb(def) : new RrdDb(def, factory);
+        rrd.close();
+        return path;
+    }
+}
@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, file-backed queue of frames that could not be sent or kept in
+ * memory.
+ *
+ * The file starts with the position of the oldest unsent record, followed by
+ * the records. Every record holds the size of the frame, the number of
+ * readings in the frame and the frame itself. Records are appended at the end
+ * of the file and read from the front, and the read position is written back
+ * after each record that was sent, so a restart only sends the records that
+ * weren't sent yet. The file is truncated once every record was read, and
+ * the unread records are moved to the front of the file when it would
+ * otherwise grow past its maximum size.
+ *
+ * A {@link RandomAccessFile} is used rather than a file channel, since the
+ * threads appending to the spool may be interrupted, which would close a
+ * channel.
+ */
+class FrameSpool {
+    private static final Logger LOG = LoggerFactory.getLogger(FrameSpool.class);
+
+    /** The read position at the start of the file */
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File m_file;
+    private final long m_maxSize;
+    private RandomAccessFile m_raf;
+    private long m_readPosition = FILE_HEADER_SIZE;
+    private long m_writePosition = FILE_HEADER_SIZE;
+    private int m_frames = 0;
+    private long m_readings = 0;
+
+    static class Record {
+        private final byte[] m_frame;
+        private final int m_readings;
+
+        private Record(final byte[] frame, final int readings) {
+            m_frame = frame;
+            m_readings = readings;
+        }
+
+        public byte[] getFrame() {
+            return m_frame;
+        }
+
+        public int getReadings() {
+            return m_readings;
+        }
+    }
+
+    FrameSpool(final File file, final long maxSize) throws IOException {
+        m_file = file;
+        m_maxSize = maxSize;
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        m_raf = new RandomAccessFile(file, "rw");
+        recover();
+    }
+
+    /**
+     * Appends a frame, unless the spool is full.
+     *
+     * @return false if there was no room left for the frame
+     */
+    synchronized boolean append(final byte[] frame, final int readings) throws IOException {
+        final long size = HEADER_SIZE + frame.length;
+        if (m_writePosition + size > m_maxSize && m_readPosition > FILE_HEADER_SIZE) {
+            compact();
+        }
+        if (m_writePosition + size > m_maxSize) {
+            return false;
+        }
+
+        writeRecord(m_raf, m_writePosition, frame, readings);
+        m_writePosition += size;
+        m_frames++;
+        m_readings += readings;
+        return true;
+    }
+
+    /**
+     * Inserts a frame in front of the other records, so that it is read
+     * first. Used for a frame that was taken from memory before the spool was
+     * filled, and could not be sent.
+     *
+     * @return false if there was no room left for the frame
+     */
+    synchronized boolean prepend(final byte[] frame, final int readings) throws IOException {
+        final long size = HEADER_SIZE + frame.length;
+        if (m_frames == 0) {
+            return append(frame, readings);
+        }
+        if (m_readPosition - FILE_HEADER_SIZE >= size) {
+            writeRecord(m_raf, m_readPosition - size, frame, readings);
+            m_readPosition -= size;
+            writeReadPosition();
+        } else {
+            if (getSize() + size + FILE_HEADER_SIZE > m_maxSize) {
+                return false;
+            }
+            rewrite(frame, readings);
+        }
+        m_frames++;
+        m_readings += readings;
+        return true;
+    }
+
+    /**
+     * Returns the oldest record without removing it, or null if the spool is empty.
+     */
+    synchronized Record peek() throws IOException {
+        if (m_readPosition >= m_writePosition) {
+            return null;
+        }
+        m_raf.seek(m_readPosition);
+        final byte[] frame = new byte[m_raf.readInt()];
+        final int readings = m_raf.readInt();
+        m_raf.readFully(frame);
+        return new Record(frame, readings);
+    }
+
+    /**
+     * Removes the record returned by the last call to {@link #peek()}.
+     */
+    synchronized void remove(final Record record) throws IOException {
+        m_readPosition += HEADER_SIZE + record.getFrame().length;
+        m_frames--;
+        m_readings -= record.getReadings();
+        if (m_readPosition >= m_writePosition) {
+            m_readPosition = FILE_HEADER_SIZE;
+            m_writePosition = FILE_HEADER_SIZE;
+            writeReadPosition();
+            m_raf.setLength(FILE_HEADER_SIZE);
+        } else {
+            writeReadPosition();
+        }
+    }
+
+    synchronized int getFrames() {
+        return m_frames;
+    }
+
+    synchronized long getReadings() {
+        return m_readings;
+    }
+
+    synchronized long getSize() {
+        return m_writePosition - m_readPosition;
+    }
+
+    synchronized void close() throws IOException {
+        m_raf.close();
+    }
+
+    /**
+     * Counts the records that were left over by a previous run, and drops any
+     * record that was only partially written.
+     */
+    private void recover() throws IOException {
+        final long size = m_raf.length();
+        if (size < FILE_HEADER_SIZE) {
+            m_raf.setLength(0);
+            writeReadPosition();
+            return;
+        }
+        m_raf.seek(0);
+        long position = m_raf.readLong();
+        if (position < FILE_HEADER_SIZE || position > size) {
+            LOG.warn("Invalid read position {} in the performance data spool {}, discarding it", position, m_file);
+            m_raf.setLength(0);
+            writeReadPosition();
+            return;
+        }
+        m_readPosition = position;
+        while (position + HEADER_SIZE <= size) {
+            m_raf.seek(position);
+            final int length = m_raf.readInt();
+            final int readings = m_raf.readInt();
+            if (length < 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+            m_frames++;
+            m_readings += readings;
+        }
+        if (position < size) {
+            LOG.warn("Discarding {} bytes at the end of the performance data spool {}", size - position, m_file);
+            m_raf.setLength(position);
+        }
+        m_writePosition = position;
+        if (m_frames > 0) {
+            LOG.info("Found {} performance data messages in {} frames in the spool {}", m_readings, m_frames, m_file);
+        }
+    }
+
+    private void writeReadPosition() throws IOException {
+        m_raf.seek(0);
+        m_raf.writeLong(m_readPosition);
+    }
+
+    private static void writeRecord(final RandomAccessFile raf, final long position, final byte[] frame, final int readings) throws IOException {
+        raf.seek(position);
+        raf.writeInt(frame.length);
+        raf.writeInt(readings);
+        raf.write(frame);
+    }
+
+    /**
+     * Moves the unread records to the front of the file.
+     *
+     * This is only done once the records that were read take at least as
+     * much room as the unread ones, so the records are never copied over
+     * themselves and a crash while compacting loses nothing: the read
+     * position only moves once the copy is complete.
+     */
+    private void compact() throws IOException {
+        final long unread = m_writePosition - m_readPosition;
+        if (m_readPosition - FILE_HEADER_SIZE < unread) {
+            return;
+        }
+        copy(m_raf, m_readPosition, m_raf, FILE_HEADER_SIZE, unread);
+        m_readPosition = FILE_HEADER_SIZE;
+        m_writePosition = FILE_HEADER_SIZE + unread;
+        writeReadPosition();
+        m_raf.setLength(m_writePosition);
+    }
+
+    /**
+     * Writes a new spool file starting with the given frame followed by the
+     * unread records, and replaces the current file with it.
+     */
+    private void rewrite(final byte[] frame, final int readings) throws IOException {
+        final File tmpFile = new File(m_file.getPath() + ".tmp");
+        final long unread = m_writePosition - m_readPosition;
+        final RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+        try {
+            out.setLength(0);
+            out.writeLong(FILE_HEADER_SIZE);
+            writeRecord(out, FILE_HEADER_SIZE, frame, readings);
+            copy(m_raf, m_readPosition, out, FILE_HEADER_SIZE + HEADER_SIZE + frame.length, unread);
+        } finally {
+            out.close();
+        }
+        m_raf.close();
+        if (!tmpFile.renameTo(m_file)) {
+            m_raf = new RandomAccessFile(m_file, "rw");
+            tmpFile.delete();
+            throw new IOException("Unable to replace " + m_file + " with " + tmpFile);
+        }
+        m_raf = new RandomAccessFile(m_file, "rw");
+        m_readPosition = FILE_HEADER_SIZE;
+        m_writePosition = FILE_HEADER_SIZE + HEADER_SIZE + frame.length + unread;
+    }
+
+    private static void copy(final RandomAccessFile from, final long source, final RandomAccessFile to, final long target, final long length) throws IOException {
+        final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long copied = 0;
+        while (copied < length) {
+            final int chunk = (int)Math.min(buffer.length, length - copied);
+            from.seek(source + copied);
+            from.readFully(buffer, 0, chunk);
+            to.seek(target + copied);
+            to.write(buffer, 0, chunk);
+            copied += chunk;
+        }
+    }
+}
@@ -100,7 +100,7 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
                 while (true) {
                     Collection<PerformanceDataReading> sendMe = new ArrayList<PerformanceDataReading>();
                     if (m_myQueue.drainTo(sendMe) > 0) {
-                        RrdOutputSocket socket = new RrdOutputSocket(m_strategy.getHost(), m_strategy.getPort());
+                        RrdOutputSocket socket = new RrdOutputSocket(m_strategy.getConnection());
                         for (PerformanceDataReading reading : sendMe) {
                             socket.addData(reading.getFilename(), reading.getOwner(), reading.getData());
                         }
@@ -0,0 +1,687 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The connection to the receiver of the performance data.
+ *
+ * Readings are buffered in memory and sent by a single thread. The readings
+ * are grouped in {@link PerformanceDataReadings} messages of up to
+ * {@link #setBatchSize(int)} readings, sent at least every
+ * {@link #setBatchDelay(long)} milliseconds.
+ *
+ * By default every message is sent over a connection of its own, which the
+ * receiver reads to its end. In {@link #setFramed(boolean) framed} mode, the
+ * messages are sent over one connection that is opened again whenever it
+ * fails, and every message is preceded by its size as a 4 byte, big-endian
+ * integer.
+ *
+ * While the receiver cannot be reached, the readings are kept in memory.
+ * When the memory buffer is full, the readings in memory and the new ones
+ * are written to a spool file if one is configured. The new readings keep
+ * going to the spool until it was sent completely, so the readings are
+ * always sent in the order they were queued. Readings that don't fit
+ * anywhere are dropped.
+ *
+ * Errors while sending, such as a spool that cannot be read, are logged and
+ * retried after a delay that grows up to a minute. If the sending thread
+ * ends anyway, the next call to {@link #send(Collection)} starts it again.
+ */
+public class RrdOutputConnection {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdOutputConnection.class);
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final long MIN_RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 60000;
+    private static final long SELECT_TIMEOUT = 500;
+
+    private final String m_host;
+    private final int m_port;
+    private int m_batchSize = 1000;
+    private long m_batchDelay = 1000;
+    private int m_bufferSize = 50000;
+    private File m_spoolFile = null;
+    private long m_spoolSize = 0;
+    private boolean m_framed = false;
+
+    /** Serializes the callers of {@link #send(Collection)} with each other and with {@link #stop()} */
+    private final Object m_sendLock = new Object();
+
+    private volatile BlockingQueue<PerformanceDataReading> m_queue;
+    private volatile FrameSpool m_spool;
+    private Thread m_thread;
+    private volatile boolean m_running = false;
+    private volatile boolean m_stopped = false;
+
+    private volatile SocketChannel m_channel;
+    private volatile Selector m_selector;
+    private long m_reconnectDelay = MIN_RECONNECT_DELAY;
+    private long m_nextConnectAttempt = 0;
+    private long m_retryDelay = MIN_RECONNECT_DELAY;
+    private long m_nextRetry = 0;
+    private final ByteBuffer m_readBuffer = ByteBuffer.allocate(1024);
+
+    /** The message being sent, kept until it was written completely */
+    private byte[] m_pendingFrame;
+    private volatile int m_pendingReadings = 0;
+    /** The spool record of the message being sent, removed once it was written */
+    private volatile FrameSpool.Record m_pendingRecord;
+
+    private final AtomicLong m_sent = new AtomicLong();
+    private final AtomicLong m_sentFrames = new AtomicLong();
+    private final AtomicLong m_spooled = new AtomicLong();
+    private final AtomicLong m_dropped = new AtomicLong();
+    private final AtomicLong m_connects = new AtomicLong();
+
+    /**
+     * <p>Constructor for RrdOutputConnection.</p>
+     *
+     * @param host a {@link java.lang.String} object.
+     * @param port a int.
+     */
+    public RrdOutputConnection(final String host, final int port) {
+        m_host = host;
+        m_port = port;
+    }
+
+    /**
+     * @param batchSize the maximum number of readings sent in one message
+     */
+    public void setBatchSize(final int batchSize) {
+        m_batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * @param batchDelay the maximum number of milliseconds a reading waits for others before being sent
+     */
+    public void setBatchDelay(final long batchDelay) {
+        m_batchDelay = Math.max(batchDelay, 0);
+    }
+
+    /**
+     * @param bufferSize the maximum number of readings kept in memory
+     */
+    public void setBufferSize(final int bufferSize) {
+        m_bufferSize = Math.max(bufferSize, 1);
+    }
+
+    /**
+     * @param spoolFile the file holding the messages that could not be kept in memory, or null to drop them
+     * @param spoolSize the maximum size of the spool file in bytes
+     */
+    public void setSpool(final File spoolFile, final long spoolSize) {
+        m_spoolFile = spoolFile;
+        m_spoolSize = spoolSize;
+    }
+
+    /**
+     * @param framed true to send the messages over one persistent connection,
+     *   each preceded by its size, false to send every message over a
+     *   connection of its own
+     */
+    public void setFramed(final boolean framed) {
+        m_framed = framed;
+    }
+
+    /**
+     * Starts the thread that sends the readings. A connection that was
+     * stopped is not started again. A thread that ended unexpectedly is
+     * replaced, keeping the readings it had not sent yet.
+     */
+    public synchronized void start() {
+        if (m_running || m_stopped) {
+            return;
+        }
+        if (m_queue == null) {
+            m_queue = new LinkedBlockingQueue<PerformanceDataReading>(m_bufferSize);
+        }
+        if (m_spool == null && m_spoolFile != null && m_spoolSize > 0) {
+            try {
+                m_spool = new FrameSpool(m_spoolFile, m_spoolSize);
+            } catch (final IOException e) {
+                LOG.error("Unable to open the performance data spool {}, messages that don't fit in memory will be dropped", m_spoolFile, e);
+            }
+        }
+        m_running = true;
+        m_thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        }, getClass().getSimpleName() + "-" + m_host + ":" + m_port);
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    /**
+     * Stops the sending thread and closes the connection. The readings are
+     * sent while the receiver keeps up, and the readings still held in memory
+     * after that are written to the spool, if any. Readings sent after this
+     * are dropped.
+     */
+    public void stop() throws InterruptedException {
+        synchronized (m_sendLock) {
+            m_stopped = true;
+        }
+        final Thread thread;
+        synchronized (this) {
+            if (m_thread == null) {
+                return;
+            }
+            m_running = false;
+            thread = m_thread;
+            m_thread = null;
+        }
+        // Don't interrupt the thread, let it finish the frame it is writing
+        final Selector selector = m_selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        thread.join();
+
+        if (m_pendingFrame != null && m_pendingRecord == null) {
+            // The message was taken from memory before anything newer was spooled
+            prependOrDrop(m_pendingFrame, m_pendingReadings);
+        }
+        m_pendingFrame = null;
+        m_pendingReadings = 0;
+        m_pendingRecord = null;
+        spillQueue();
+        if (m_spool != null) {
+            try {
+                m_spool.close();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close the performance data spool {}", m_spoolFile, e);
+            }
+        }
+    }
+
+    /**
+     * Queues readings to be sent. This never blocks: readings that don't fit in
+     * memory are spooled or dropped.
+     *
+     * @param readings a {@link java.util.Collection} object.
+     */
+    public void send(final Collection<PerformanceDataReading> readings) {
+        synchronized (m_sendLock) {
+            if (m_stopped) {
+                m_dropped.addAndGet(readings.size());
+                LOG.warn("Dropping {} performance data message(s) for {}:{}, the connection was stopped", readings.size(), m_host, m_port);
+                return;
+            }
+            if (!m_running) {
+                start();
+            }
+            if (m_spool != null && m_spool.getFrames() > 0) {
+                // Older readings are waiting in the spool, queue behind them
+                spoolOrDrop(new ArrayList<PerformanceDataReading>(readings));
+                return;
+            }
+            List<PerformanceDataReading> overflow = null;
+            for (final PerformanceDataReading reading : readings) {
+                if (overflow == null && m_queue.offer(reading)) {
+                    continue;
+                }
+                if (overflow == null) {
+                    overflow = new ArrayList<PerformanceDataReading>();
+                }
+                overflow.add(reading);
+            }
+            if (overflow != null) {
+                if (m_spool != null) {
+                    // Move the older readings out of memory first, so the spool stays in order
+                    spillQueue();
+                }
+                spoolOrDrop(overflow);
+            }
+        }
+    }
+
+    public long getSent() {
+        return m_sent.get();
+    }
+
+    public long getSentFrames() {
+        return m_sentFrames.get();
+    }
+
+    public long getSpooled() {
+        return m_spooled.get();
+    }
+
+    public long getDropped() {
+        return m_dropped.get();
+    }
+
+    public long getConnects() {
+        return m_connects.get();
+    }
+
+    /**
+     * @return the number of readings waiting to be sent, in memory and in the spool
+     */
+    public long getBacklog() {
+        final BlockingQueue<PerformanceDataReading> queue = m_queue;
+        final FrameSpool spool = m_spool;
+        // A message read from the spool is counted by the spool until it was sent
+        final long pending = m_pendingRecord == null ? m_pendingReadings : 0;
+        return pending + (queue == null ? 0 : queue.size()) + (spool == null ? 0 : spool.getReadings());
+    }
+
+    public boolean isConnected() {
+        return m_channel != null;
+    }
+
+    @Override
+    public String toString() {
+        return "RrdOutputConnection[" + m_host + ":" + m_port
+                + ", framed=" + m_framed
+                + ", connected=" + isConnected()
+                + ", sent=" + getSent()
+                + ", sentFrames=" + getSentFrames()
+                + ", spooled=" + getSpooled()
+                + ", dropped=" + getDropped()
+                + ", backlog=" + getBacklog()
+                + ", connects=" + getConnects() + "]";
+    }
+
+    private void sendLoop() {
+        try {
+            while (m_running) {
+                if (System.currentTimeMillis() < m_nextRetry) {
+                    waitForRetry();
+                    continue;
+                }
+                try {
+                    sendNext();
+                } catch (final IOException e) {
+                    LOG.error("Unable to read the performance data spool {}, retrying in {}ms.", m_spoolFile, m_retryDelay, e);
+                    scheduleRetry();
+                } catch (final RuntimeException e) {
+                    LOG.error("Unexpected exception while sending performance data, retrying in {}ms.", m_retryDelay, e);
+                    scheduleRetry();
+                }
+            }
+            flush();
+        } catch (final InterruptedException e) {
+            LOG.debug("Interrupted, stopping.");
+        } catch (final IOException e) {
+            LOG.error("Unable to read the performance data spool {} while stopping.", m_spoolFile, e);
+        } catch (final RuntimeException e) {
+            LOG.error("Unexpected exception while sending performance data, stopping.", e);
+        } finally {
+            disconnect();
+            synchronized (this) {
+                // Unless stopped, the next send() starts a new thread
+                m_running = false;
+            }
+        }
+    }
+
+    /**
+     * Sends the next message, waiting for readings or for the receiver if
+     * needed.
+     */
+    private void sendNext() throws IOException, InterruptedException {
+        // The spool is sent completely before the readings in memory
+        if (m_pendingFrame == null && !takeSpooledFrame()) {
+            final List<PerformanceDataReading> batch = nextBatch();
+            if (!batch.isEmpty()) {
+                m_pendingFrame = encode(batch);
+                m_pendingReadings = batch.size();
+            }
+        }
+        if (m_pendingFrame == null) {
+            return;
+        }
+        if (!connect()) {
+            // Keep the readings until the receiver is back
+            waitForReconnect();
+            return;
+        }
+        if (write(m_pendingFrame)) {
+            sentPending();
+            m_retryDelay = MIN_RECONNECT_DELAY;
+        }
+    }
+
+    private void scheduleRetry() {
+        m_nextRetry = System.currentTimeMillis() + m_retryDelay;
+        m_retryDelay = Math.min(m_retryDelay * 2, MAX_RECONNECT_DELAY);
+    }
+
+    private void waitForRetry() throws InterruptedException {
+        final long delay = Math.min(m_nextRetry - System.currentTimeMillis(), SELECT_TIMEOUT);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Sends what is left in the spool and in memory when stopping, as long as
+     * the receiver keeps up. Whatever is left after that is spooled by
+     * {@link #stop()}.
+     */
+    private void flush() throws IOException {
+        while (true) {
+            if (m_pendingFrame == null && !takeSpooledFrame()) {
+                final List<PerformanceDataReading> batch = new ArrayList<PerformanceDataReading>();
+                m_queue.drainTo(batch, m_batchSize);
+                if (batch.isEmpty()) {
+                    return;
+                }
+                m_pendingFrame = encode(batch);
+                m_pendingReadings = batch.size();
+            }
+            if (!write(m_pendingFrame)) {
+                return;
+            }
+            sentPending();
+        }
+    }
+
+    /**
+     * Makes the oldest spooled message the one being sent.
+     *
+     * @return false if the spool is empty
+     */
+    private boolean takeSpooledFrame() throws IOException {
+        if (m_spool == null || m_spool.getFrames() == 0) {
+            return false;
+        }
+        final FrameSpool.Record record = m_spool.peek();
+        if (record == null) {
+            return false;
+        }
+        m_pendingFrame = record.getFrame();
+        m_pendingReadings = record.getReadings();
+        m_pendingRecord = record;
+        return true;
+    }
+
+    private void waitForReconnect() throws InterruptedException {
+        final long delay = Math.min(m_nextConnectAttempt - System.currentTimeMillis(), SELECT_TIMEOUT);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Waits for the first reading, then for either a full batch or the end
+     * of the batch delay.
+     */
+    private List<PerformanceDataReading> nextBatch() throws InterruptedException {
+        final List<PerformanceDataReading> batch = new ArrayList<PerformanceDataReading>();
+        final PerformanceDataReading first = m_queue.poll(SELECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+
+        final long deadline = System.currentTimeMillis() + m_batchDelay;
+        while (batch.size() < m_batchSize) {
+            m_queue.drainTo(batch, m_batchSize - batch.size());
+            final long remaining = deadline - System.currentTimeMillis();
+            if (batch.size() >= m_batchSize || remaining <= 0) {
+                break;
+            }
+            final PerformanceDataReading next = m_queue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void sentPending() throws IOException {
+        if (m_pendingRecord != null) {
+            m_spool.remove(m_pendingRecord);
+        }
+        sent(m_pendingReadings);
+        m_pendingFrame = null;
+        m_pendingReadings = 0;
+        m_pendingRecord = null;
+    }
+
+    private void sent(final int readings) {
+        m_sent.addAndGet(readings);
+        m_sentFrames.incrementAndGet();
+    }
+
+    /**
+     * Moves the readings held in memory to the spool, if any.
+     */
+    private void spillQueue() {
+        if (m_queue == null) {
+            return;
+        }
+        final List<PerformanceDataReading> readings = new ArrayList<PerformanceDataReading>();
+        m_queue.drainTo(readings);
+        if (!readings.isEmpty()) {
+            spoolOrDrop(readings);
+        }
+    }
+
+    /**
+     * Spools the readings in messages of up to batchSize readings.
+     */
+    private void spoolOrDrop(final List<PerformanceDataReading> readings) {
+        for (int i = 0; i < readings.size(); i += m_batchSize) {
+            final List<PerformanceDataReading> batch = readings.subList(i, Math.min(i + m_batchSize, readings.size()));
+            spoolOrDrop(encode(batch), batch.size());
+        }
+    }
+
+    private void prependOrDrop(final byte[] frame, final int readings) {
+        if (m_spool != null) {
+            try {
+                if (m_spool.prepend(frame, readings)) {
+                    m_spooled.addAndGet(readings);
+                    return;
+                }
+            } catch (final IOException e) {
+                LOG.warn("Failed to write to the performance data spool {}: {}", m_spoolFile, e.getMessage());
+            }
+        }
+        m_dropped.addAndGet(readings);
+        LOG.warn("Dropping {} performance data message(s) for {}:{}", readings, m_host, m_port);
+    }
+
+    private void spoolOrDrop(final byte[] frame, final int readings) {
+        if (m_spool != null) {
+            try {
+                if (m_spool.append(frame, readings)) {
+                    m_spooled.addAndGet(readings);
+                    return;
+                }
+            } catch (final IOException e) {
+                LOG.warn("Failed to write to the performance data spool {}: {}", m_spoolFile, e.getMessage());
+            }
+        }
+        m_dropped.addAndGet(readings);
+        LOG.warn("Dropping {} performance data message(s) for {}:{}", readings, m_host, m_port);
+    }
+
+    /**
+     * Encodes the readings as a message. The size of the message is added
+     * when writing it, so the spool can be read in either mode.
+     */
+    static byte[] encode(final List<PerformanceDataReading> readings) {
+        return PerformanceDataReadings.newBuilder().addAllMessage(readings).build().toByteArray();
+    }
+
+    /**
+     * Writes a message, connecting first if needed. Without framing, the
+     * connection is closed afterwards so the receiver sees the end of the
+     * message.
+     *
+     * @return false if the message could not be written completely
+     */
+    private boolean write(final byte[] message) {
+        if (!connect()) {
+            return false;
+        }
+        final ByteBuffer buffer;
+        if (m_framed) {
+            buffer = ByteBuffer.allocate(4 + message.length);
+            buffer.putInt(message.length).put(message).flip();
+        } else {
+            buffer = ByteBuffer.wrap(message);
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                checkOpen();
+                m_channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    // The receiver is slow, wait until it reads more
+                    m_channel.keyFor(m_selector).interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+                    m_selector.select(SELECT_TIMEOUT);
+                    m_selector.selectedKeys().clear();
+                    if (!m_running) {
+                        // Resend the whole frame on the next connection
+                        disconnect();
+                        return false;
+                    }
+                }
+            }
+            if (!m_framed) {
+                close(m_channel, m_selector);
+                m_channel = null;
+                m_selector = null;
+            }
+            return true;
+        } catch (final IOException e) {
+            LOG.warn("Lost the connection to {}:{}: {}", m_host, m_port, e.getMessage());
+            disconnect();
+            return false;
+        }
+    }
+
+    /**
+     * The receiver never writes back, so a readable channel was closed on the other end.
+     */
+    private void checkOpen() throws IOException {
+        m_readBuffer.clear();
+        if (m_channel.read(m_readBuffer) < 0) {
+            throw new IOException("Connection closed by the receiver");
+        }
+    }
+
+    private boolean connect() {
+        if (m_channel != null) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        if (now < m_nextConnectAttempt) {
+            return false;
+        }
+
+        SocketChannel channel = null;
+        Selector selector = null;
+        try {
+            selector = Selector.open();
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setKeepAlive(true);
+            channel.connect(new InetSocketAddress(InetAddressUtils.addr(m_host), m_port));
+            channel.register(selector, SelectionKey.OP_CONNECT);
+            final long deadline = now + CONNECT_TIMEOUT;
+            while (!channel.finishConnect()) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Timed out");
+                }
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+            }
+            channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+
+            m_channel = channel;
+            m_selector = selector;
+            m_reconnectDelay = MIN_RECONNECT_DELAY;
+            m_connects.incrementAndGet();
+            if (m_framed) {
+                LOG.info("Connected to {}:{}", m_host, m_port);
+            } else {
+                LOG.debug("Connected to {}:{}", m_host, m_port);
+            }
+            return true;
+        } catch (final IOException e) {
+            LOG.warn("Unable to connect to {}:{}, retrying in {}ms: {}", m_host, m_port, m_reconnectDelay, e.getMessage());
+            close(channel, selector);
+            m_nextConnectAttempt = System.currentTimeMillis() + m_reconnectDelay;
+            m_reconnectDelay = Math.min(m_reconnectDelay * 2, MAX_RECONNECT_DELAY);
+            return false;
+        }
+    }
+
+    private void disconnect() {
+        if (m_channel != null) {
+            close(m_channel, m_selector);
+            m_channel = null;
+            m_selector = null;
+            m_nextConnectAttempt = System.currentTimeMillis() + m_reconnectDelay;
+        }
+    }
+
+    private static void close(final SocketChannel channel, final Selector selector) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (final IOException e) {
+            LOG.debug("Failed to close the connection: {}", e.getMessage());
+        }
+    }
+}
@@ -28,43 +28,31 @@
 
 package org.opennms.netmgt.rrd.tcp;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
 
 /**
  * <p>RrdOutputSocket class.</p>
  *
+ * Collects performance data readings and hands them over to a shared
+ * {@link RrdOutputConnection} when written.
+ *
  * @author ranger
  * @version $Id: $
  */
 public class RrdOutputSocket {
-    private static final Logger LOG = LoggerFactory.getLogger(RrdOutputSocket.class);
-
-    // private final RrdDefinition m_def;
-    private final String m_host;
-    private final int m_port;
-    private final PerformanceDataProtos.PerformanceDataReadings.Builder m_messages;
-    private int m_messageCount = 0;
+    private final RrdOutputConnection m_connection;
+    private final List<PerformanceDataReading> m_messages = new ArrayList<PerformanceDataReading>();
 
     /**
      * <p>Constructor for RrdOutputSocket.</p>
      *
-     * @param host a {@link java.lang.String} object.
-     * @param port a int.
+     * @param connection the connection the readings are sent over
      */
-    public RrdOutputSocket(String host, int port) {
-        m_host = host;
-        m_port = port;
-        m_messages = PerformanceDataProtos.PerformanceDataReadings.newBuilder();
+    public RrdOutputSocket(RrdOutputConnection connection) {
+        m_connection = connection;
     }
 
     /**
@@ -77,39 +65,27 @@ public class RrdOutputSocket {
     public void addData(String filename, String owner, String data) {
         Long timestamp = parseRrdTimestamp(data);
         List<Double> values = parseRrdValues(data);
-        m_messages.addMessage(PerformanceDataReading.newBuilder()
+        m_messages.add(PerformanceDataReading.newBuilder()
                 .setPath(filename)
                 .setOwner(owner)
                 .setTimestamp(timestamp).
                 addAllValue(values)
+                .build()
         );
-        m_messageCount++;
     }
 
     /**
      * <p>writeData</p>
+     *
+     * Queues the collected readings on the connection, which sends them in
+     * the background.
      */
     public void writeData() {
-        Socket socket = null;
-        try {
-            socket = new Socket(InetAddressUtils.addr(m_host), m_port);
-            OutputStream out = socket.getOutputStream();
-            m_messages.build().writeTo(out);
-            // out = new FileOutputStream(new File("/tmp/testdata.protobuf"));
-            // m_messages.build().writeTo(out);
-            out.flush();
-        } catch (Throwable e) {
-            LOG.warn("Error when trying to open connection to {}:{}, dropping {} performance messages: {}", m_host, m_port, m_messageCount, e.getMessage());
-        } finally {
-            if (socket != null) {
-                try { 
-                    socket.close(); 
-                } catch (IOException e) {
-                    LOG.warn("IOException when closing TCP performance data socket: {}", e.getMessage());
-                }
-            }
+        if (!m_messages.isEmpty()) {
+            m_connection.send(m_messages);
+            m_messages.clear();
         }
-    };
+    }
 
     private Long parseRrdTimestamp(String data) {
         if (data.startsWith("N:")) {
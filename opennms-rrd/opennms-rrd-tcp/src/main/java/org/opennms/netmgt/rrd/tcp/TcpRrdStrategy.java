@@ -39,6 +39,7 @@ import java.util.Properties;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdGraphDetails;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Provides a TCP socket-based implementation of RrdStrategy that pushes update
@@ -51,7 +52,7 @@ import org.opennms.netmgt.rrd.RrdStrategy;
  * @author ranger
  * @version $Id: $
  */
-public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,TcpRrdStrategy.RrdOutputSocketWithFilename> {
+public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,TcpRrdStrategy.RrdOutputSocketWithFilename>, DisposableBean {
 	
     public static class RrdDefinition {
         private final String m_directory, m_rrdName;
@@ -132,6 +133,124 @@ public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,
         this.m_port = port;
     }
 
+    private int m_batchSize = 1000;
+
+    /**
+     * <p>setBatchSize</p>
+     *
+     * @param batchSize the maximum number of readings sent in one message
+     */
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    private long m_batchDelay = 1000;
+
+    /**
+     * <p>setBatchDelay</p>
+     *
+     * @param batchDelay the maximum number of milliseconds a reading waits for others before being sent
+     */
+    public void setBatchDelay(long batchDelay) {
+        m_batchDelay = batchDelay;
+    }
+
+    private int m_bufferSize = 50000;
+
+    /**
+     * <p>setBufferSize</p>
+     *
+     * @param bufferSize the maximum number of readings waiting in memory
+     */
+    public void setBufferSize(int bufferSize) {
+        m_bufferSize = bufferSize;
+    }
+
+    private String m_spoolFile = null;
+
+    /**
+     * <p>setSpoolFile</p>
+     *
+     * @param spoolFile the file holding the readings that don't fit in memory,
+     *   defaults to share/rrd-tcp.spool in the OpenNMS home directory
+     */
+    public void setSpoolFile(String spoolFile) {
+        m_spoolFile = spoolFile;
+    }
+
+    private long m_spoolSize = 0;
+
+    /**
+     * <p>setSpoolSize</p>
+     *
+     * @param spoolSize the maximum size of the spool file in bytes, 0 to drop the
+     *   readings that don't fit in memory
+     */
+    public void setSpoolSize(long spoolSize) {
+        m_spoolSize = spoolSize;
+    }
+
+    private boolean m_framed = false;
+
+    /**
+     * <p>setFramed</p>
+     *
+     * @param framed true to send the readings over one persistent connection,
+     *   each message preceded by its size, false to open a connection for
+     *   every message
+     */
+    public void setFramed(boolean framed) {
+        m_framed = framed;
+    }
+
+    private RrdOutputConnection m_connection = null;
+
+    /**
+     * <p>getConnection</p>
+     *
+     * @return the connection shared by all of the updates
+     */
+    public synchronized RrdOutputConnection getConnection() {
+        if (m_connection == null) {
+            m_connection = createConnection();
+            m_connection.start();
+        }
+        return m_connection;
+    }
+
+    /**
+     * Stops the connection, sending or spooling the readings it still holds.
+     * Readings sent after this are dropped.
+     *
+     * @throws java.lang.Exception if any.
+     */
+    @Override
+    public synchronized void destroy() throws Exception {
+        if (m_connection == null) {
+            // Keep a stopped connection, so that later updates don't open one
+            m_connection = createConnection();
+        }
+        m_connection.stop();
+    }
+
+    private RrdOutputConnection createConnection() {
+        final RrdOutputConnection connection = new RrdOutputConnection(m_host, m_port);
+        connection.setFramed(m_framed);
+        connection.setBatchSize(m_batchSize);
+        connection.setBatchDelay(m_batchDelay);
+        connection.setBufferSize(m_bufferSize);
+        if (m_spoolSize > 0) {
+            File spoolFile = null;
+            if (m_spoolFile != null && !"".equals(m_spoolFile.trim())) {
+                spoolFile = new File(m_spoolFile.trim());
+            } else if (System.getProperty("opennms.home") != null) {
+                spoolFile = new File(System.getProperty("opennms.home") + File.separator + "share" + File.separator + "rrd-tcp.spool");
+            }
+            connection.setSpool(spoolFile, m_spoolSize);
+        }
+        return connection;
+    }
+
     /**
      * <p>getDefaultFileExtension</p>
      *
@@ -163,7 +282,7 @@ public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,
     /** {@inheritDoc} */
     @Override
     public RrdOutputSocketWithFilename openFile(String fileName) throws Exception {
-        return new RrdOutputSocketWithFilename(new RrdOutputSocket(m_host, m_port), fileName);
+        return new RrdOutputSocketWithFilename(new RrdOutputSocket(getConnection()), fileName);
     }
 
     /** {@inheritDoc} */
@@ -246,11 +365,13 @@ public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,
     /**
      * <p>getStats</p>
      *
+     * Returns the sent, spooled, dropped and backlog counts of the connection.
+     *
      * @return a {@link java.lang.String} object.
      */
     @Override
-    public String getStats() {
-        throw new UnsupportedOperationException(this.getClass().getName() + " does not support graphing.");
+    public synchronized String getStats() {
+        return m_connection == null ? "" : m_connection.toString();
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.test.MockLogAppender;
+
+public class FrameSpoolTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    private File m_file;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+        m_file = new File(m_tempFolder.getRoot(), "rrd-tcp.spool");
+    }
+
+    @Test
+    public void testRecordsAreReadInOrder() throws Exception {
+        final FrameSpool spool = new FrameSpool(m_file, 1024);
+        assertTrue(spool.append(frame(1, 10), 1));
+        assertTrue(spool.append(frame(2, 20), 2));
+        assertEquals(2, spool.getFrames());
+        assertEquals(3, spool.getReadings());
+
+        assertRecord(spool, 1, 10, 1);
+        assertRecord(spool, 2, 20, 2);
+        assertNull(spool.peek());
+        assertEquals(0, spool.getSize());
+        spool.close();
+    }
+
+    @Test
+    public void testSentRecordsAreNotReadAgain() throws Exception {
+        FrameSpool spool = new FrameSpool(m_file, 1024);
+        spool.append(frame(1, 10), 1);
+        spool.append(frame(2, 20), 2);
+        spool.append(frame(3, 30), 3);
+        assertRecord(spool, 1, 10, 1);
+        // Simulate a crash: the spool isn't closed
+        spool = new FrameSpool(m_file, 1024);
+        assertEquals(2, spool.getFrames());
+        assertEquals(5, spool.getReadings());
+        assertRecord(spool, 2, 20, 2);
+        assertRecord(spool, 3, 30, 3);
+        spool.close();
+
+        spool = new FrameSpool(m_file, 1024);
+        assertEquals(0, spool.getFrames());
+        assertNull(spool.peek());
+        spool.close();
+    }
+
+    @Test
+    public void testPartialRecordIsDiscarded() throws Exception {
+        FrameSpool spool = new FrameSpool(m_file, 1024);
+        spool.append(frame(1, 10), 1);
+        spool.append(frame(2, 20), 2);
+        spool.close();
+
+        final RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        spool = new FrameSpool(m_file, 1024);
+        assertEquals(1, spool.getFrames());
+        assertRecord(spool, 1, 10, 1);
+        assertNull(spool.peek());
+        assertTrue(spool.append(frame(3, 30), 3));
+        assertRecord(spool, 3, 30, 3);
+        spool.close();
+    }
+
+    @Test
+    public void testPrepend() throws Exception {
+        final FrameSpool spool = new FrameSpool(m_file, 1024);
+        spool.append(frame(2, 20), 2);
+        spool.append(frame(3, 30), 3);
+        // No room in front, the file is rewritten
+        assertTrue(spool.prepend(frame(1, 10), 1));
+        assertEquals(3, spool.getFrames());
+        assertEquals(6, spool.getReadings());
+        assertRecord(spool, 1, 10, 1);
+        assertRecord(spool, 2, 20, 2);
+        // Room left by the records that were read
+        assertTrue(spool.prepend(frame(4, 10), 4));
+        assertRecord(spool, 4, 10, 4);
+        assertRecord(spool, 3, 30, 3);
+        spool.close();
+
+        final FrameSpool reopened = new FrameSpool(m_file, 1024);
+        assertEquals(0, reopened.getFrames());
+        reopened.close();
+    }
+
+    @Test
+    public void testFullSpool() throws Exception {
+        // File header, plus 3 records of 8 + 100 bytes
+        final FrameSpool spool = new FrameSpool(m_file, 8 + 3 * 108);
+        assertTrue(spool.append(frame(1, 100), 1));
+        assertTrue(spool.append(frame(2, 100), 1));
+        assertTrue(spool.append(frame(3, 100), 1));
+        assertFalse(spool.append(frame(4, 100), 1));
+        assertFalse(spool.prepend(frame(4, 100), 1));
+
+        // Less was read than is left, so the records can't be moved yet
+        assertRecord(spool, 1, 100, 1);
+        assertFalse(spool.append(frame(4, 100), 1));
+
+        // Now the unread record is moved to the front
+        assertRecord(spool, 2, 100, 1);
+        assertTrue(spool.append(frame(4, 100), 1));
+        assertTrue(spool.append(frame(5, 100), 1));
+        assertEquals(8 + 3 * 108, m_file.length());
+        spool.close();
+
+        final FrameSpool reopened = new FrameSpool(m_file, 8 + 3 * 108);
+        assertRecord(reopened, 3, 100, 1);
+        assertRecord(reopened, 4, 100, 1);
+        assertRecord(reopened, 5, 100, 1);
+        reopened.close();
+    }
+
+    private static byte[] frame(final int value, final int length) {
+        final byte[] frame = new byte[length];
+        for (int i = 0; i < length; i++) {
+            frame[i] = (byte)value;
+        }
+        return frame;
+    }
+
+    private static void assertRecord(final FrameSpool spool, final int value, final int length, final int readings) throws Exception {
+        final FrameSpool.Record record = spool.peek();
+        assertEquals(length, record.getFrame().length);
+        assertEquals(value, record.getFrame()[0]);
+        assertEquals(readings, record.getReadings());
+        spool.remove(record);
+    }
+}
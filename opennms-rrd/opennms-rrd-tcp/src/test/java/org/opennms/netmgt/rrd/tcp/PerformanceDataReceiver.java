@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stand-in for the receiver of the performance data, used by the tests.
+ *
+ * Accepts any number of connections on the loopback interface, and decodes
+ * the {@link PerformanceDataReadings} messages sent over them: either one
+ * message per connection, or size-prefixed messages when framed. Reading can
+ * be paused to simulate a slow receiver.
+ */
+public class PerformanceDataReceiver {
+    private static final Logger LOG = LoggerFactory.getLogger(PerformanceDataReceiver.class);
+
+    private final int m_requestedPort;
+    private final boolean m_framed;
+    private ServerSocketChannel m_serverChannel;
+    private Selector m_selector;
+    private Thread m_thread;
+    private volatile boolean m_running = false;
+    private volatile boolean m_paused = false;
+
+    private final List<PerformanceDataReading> m_readings = new ArrayList<PerformanceDataReading>();
+    private int m_messages = 0;
+    private int m_connections = 0;
+    private int m_errors = 0;
+
+    /**
+     * Listens on an ephemeral port for one message per connection.
+     */
+    public PerformanceDataReceiver() {
+        this(0, false);
+    }
+
+    /**
+     * Listens on the given port, so that a receiver can be started again
+     * where a previous one was stopped.
+     *
+     * @param port the port, or 0 for an ephemeral port
+     * @param framed true to read size-prefixed messages, false to read one
+     *   message per connection
+     */
+    public PerformanceDataReceiver(final int port, final boolean framed) {
+        m_requestedPort = port;
+        m_framed = framed;
+    }
+
+    public void start() throws IOException {
+        m_selector = Selector.open();
+        m_serverChannel = ServerSocketChannel.open();
+        m_serverChannel.socket().setReuseAddress(true);
+        m_serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", m_requestedPort));
+        m_serverChannel.configureBlocking(false);
+        m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        m_running = true;
+        m_thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveLoop();
+            }
+        }, getClass().getSimpleName());
+        m_thread.start();
+        LOG.debug("Receiver started on port {}", getPort());
+    }
+
+    public void stop() throws InterruptedException, IOException {
+        m_running = false;
+        m_selector.wakeup();
+        m_thread.join();
+        for (final SelectionKey key : m_selector.keys()) {
+            key.channel().close();
+        }
+        m_selector.close();
+    }
+
+    public int getPort() {
+        return m_serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops or resumes reading from the connections.
+     */
+    public void setPaused(final boolean paused) {
+        m_paused = paused;
+        m_selector.wakeup();
+    }
+
+    public synchronized List<PerformanceDataReading> getReadings() {
+        return new ArrayList<PerformanceDataReading>(m_readings);
+    }
+
+    public synchronized int getMessages() {
+        return m_messages;
+    }
+
+    public synchronized int getConnections() {
+        return m_connections;
+    }
+
+    public synchronized int getErrors() {
+        return m_errors;
+    }
+
+    /**
+     * Waits until at least the given number of readings were received.
+     *
+     * @return true if they were received before the timeout
+     */
+    public synchronized boolean waitForReadings(final int count, final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (m_readings.size() < count) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void receiveLoop() {
+        try {
+            while (m_running) {
+                m_selector.select(500);
+                final Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+                for (final SelectionKey key : m_selector.keys()) {
+                    if (key.isValid() && key.attachment() != null) {
+                        key.interestOps(m_paused ? 0 : SelectionKey.OP_READ);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            LOG.error("Receiver failed", e);
+            synchronized (this) {
+                m_errors++;
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = m_serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.register(m_selector, m_paused ? 0 : SelectionKey.OP_READ, new Connection());
+        synchronized (this) {
+            m_connections++;
+        }
+    }
+
+    private void read(final SelectionKey key) throws IOException {
+        final SocketChannel channel = (SocketChannel)key.channel();
+        final Connection connection = (Connection)key.attachment();
+        final int read;
+        try {
+            read = channel.read(connection.m_buffer);
+        } catch (final IOException e) {
+            key.cancel();
+            channel.close();
+            return;
+        }
+        if (read < 0) {
+            key.cancel();
+            channel.close();
+            if (!m_framed) {
+                // The message ends with the connection
+                connection.m_buffer.flip();
+                final byte[] message = new byte[connection.m_buffer.remaining()];
+                connection.m_buffer.get(message);
+                received(PerformanceDataReadings.parseFrom(message));
+            }
+            // A partial message at the end of a framed connection is dropped, the sender sends it again
+            return;
+        }
+        if (!m_framed) {
+            if (!connection.m_buffer.hasRemaining()) {
+                final ByteBuffer larger = ByteBuffer.allocate(connection.m_buffer.capacity() * 2);
+                connection.m_buffer.flip();
+                larger.put(connection.m_buffer);
+                connection.m_buffer = larger;
+            }
+            return;
+        }
+
+        final ByteBuffer buffer = connection.m_buffer;
+        buffer.flip();
+        while (buffer.remaining() >= 4) {
+            final int length = buffer.getInt(buffer.position());
+            if (buffer.remaining() < 4 + length) {
+                if (buffer.capacity() < 4 + length) {
+                    final ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(buffer);
+                    larger.flip();
+                    connection.m_buffer = larger;
+                }
+                break;
+            }
+            buffer.getInt();
+            final byte[] message = new byte[length];
+            buffer.get(message);
+            received(PerformanceDataReadings.parseFrom(message));
+        }
+        connection.m_buffer.compact();
+    }
+
+    private synchronized void received(final PerformanceDataReadings readings) {
+        m_messages++;
+        m_readings.addAll(readings.getMessageList());
+        notifyAll();
+    }
+
+    private static class Connection {
+        private ByteBuffer m_buffer = ByteBuffer.allocate(64 * 1024);
+    }
+}
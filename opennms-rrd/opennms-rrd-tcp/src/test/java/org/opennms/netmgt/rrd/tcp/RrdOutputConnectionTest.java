@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
+
+/**
+ * Tests the RrdOutputConnection against a local {@link PerformanceDataReceiver}.
+ */
+public class RrdOutputConnectionTest {
+    private static final long TIMEOUT = 20000;
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    private PerformanceDataReceiver m_receiver;
+    private RrdOutputConnection m_connection;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_connection != null) {
+            m_connection.stop();
+        }
+        if (m_receiver != null) {
+            m_receiver.stop();
+        }
+    }
+
+    @Test
+    public void testBatchesOverOneConnection() throws Exception {
+        m_receiver = new PerformanceDataReceiver(0, true);
+        m_receiver.start();
+        m_connection = createConnection(m_receiver.getPort());
+        m_connection.setBatchSize(10);
+
+        m_connection.send(readings(0, 25));
+        assertTrue(m_receiver.waitForReadings(25, TIMEOUT));
+        m_connection.send(readings(25, 5));
+        assertTrue(m_receiver.waitForReadings(30, TIMEOUT));
+
+        assertEquals(30, m_receiver.getReadings().size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, m_receiver.getReadings().get(i).getTimestamp());
+        }
+        assertEquals(1, m_receiver.getConnections());
+        assertTrue("at least 4 messages should be sent, got " + m_receiver.getMessages(), m_receiver.getMessages() >= 4);
+        assertEquals(0, m_receiver.getErrors());
+
+        m_connection.stop();
+        assertEquals(30, m_connection.getSent());
+        assertEquals(m_receiver.getMessages(), m_connection.getSentFrames());
+        assertEquals(0, m_connection.getDropped());
+        assertEquals(0, m_connection.getBacklog());
+    }
+
+    @Test
+    public void testReconnectsAfterReceiverRestart() throws Exception {
+        m_receiver = new PerformanceDataReceiver(0, true);
+        m_receiver.start();
+        final int port = m_receiver.getPort();
+        m_connection = createConnection(port);
+
+        m_connection.send(readings(0, 5));
+        assertTrue(m_receiver.waitForReadings(5, TIMEOUT));
+        m_receiver.stop();
+
+        m_receiver = new PerformanceDataReceiver(port, true);
+        m_receiver.start();
+        m_connection.send(readings(5, 5));
+        assertTrue(m_receiver.waitForReadings(5, TIMEOUT));
+
+        assertEquals(5, m_receiver.getReadings().size());
+        assertEquals(5, m_receiver.getReadings().get(0).getTimestamp());
+        m_connection.stop();
+        assertEquals(2, m_connection.getConnects());
+        assertEquals(10, m_connection.getSent());
+        assertEquals(0, m_connection.getDropped());
+    }
+
+    @Test
+    public void testSpoolsWhileReceiverIsDown() throws Exception {
+        final int port = getUnusedPort();
+        m_connection = createConnection(port);
+        m_connection.setBufferSize(10);
+        m_connection.setSpool(m_tempFolder.newFile("rrd-tcp.spool"), 1024 * 1024);
+
+        m_connection.send(readings(0, 100));
+        assertEquals(0, m_connection.getDropped());
+        assertTrue("readings should be spooled, got " + m_connection.getSpooled(), m_connection.getSpooled() >= 80);
+        assertTrue(m_connection.getBacklog() >= m_connection.getSpooled());
+
+        m_receiver = new PerformanceDataReceiver(port, true);
+        m_receiver.start();
+        assertTrue(m_receiver.waitForReadings(100, TIMEOUT));
+        m_connection.stop();
+        assertEquals(100, m_connection.getSent());
+        assertEquals(0, m_connection.getBacklog());
+        assertEquals(0, m_connection.getDropped());
+    }
+
+    @Test
+    public void testSendsSpoolFromPreviousRun() throws Exception {
+        final int port = getUnusedPort();
+        final File spoolFile = m_tempFolder.newFile("rrd-tcp.spool");
+        m_connection = createConnection(port);
+        m_connection.setSpool(spoolFile, 1024 * 1024);
+        m_connection.send(readings(0, 20));
+        m_connection.stop();
+        assertEquals(20, m_connection.getSpooled());
+        assertEquals(0, m_connection.getDropped());
+
+        m_connection = createConnection(port);
+        m_connection.setSpool(spoolFile, 1024 * 1024);
+        m_connection.start();
+        assertEquals(20, m_connection.getBacklog());
+
+        m_receiver = new PerformanceDataReceiver(port, true);
+        m_receiver.start();
+        assertTrue(m_receiver.waitForReadings(20, TIMEOUT));
+        m_connection.stop();
+        assertEquals(20, m_connection.getSent());
+        assertEquals(0, m_connection.getBacklog());
+    }
+
+    @Test
+    public void testDropsWhenBuffersAreFull() throws Exception {
+        m_connection = createConnection(getUnusedPort());
+        m_connection.setBatchSize(5);
+        m_connection.setBufferSize(10);
+
+        m_connection.send(readings(0, 25));
+        // The memory buffer holds 10 readings, plus up to one batch being sent
+        final long dropped = m_connection.getDropped();
+        assertTrue("10 to 15 readings should be dropped, got " + dropped, dropped >= 10 && dropped <= 15);
+
+        // Without a spool, the readings left in memory are lost when stopping
+        m_connection.stop();
+        assertEquals(25, m_connection.getDropped());
+        assertEquals(0, m_connection.getBacklog());
+        assertEquals(0, m_connection.getSpooled());
+    }
+
+    @Test
+    public void testOneMessagePerConnectionWhenNotFramed() throws Exception {
+        m_receiver = new PerformanceDataReceiver();
+        m_receiver.start();
+        m_connection = createConnection(m_receiver.getPort());
+        m_connection.setFramed(false);
+        m_connection.setBatchSize(10);
+
+        m_connection.send(readings(0, 25));
+        assertTrue(m_receiver.waitForReadings(25, TIMEOUT));
+        m_connection.stop();
+
+        for (int i = 0; i < 25; i++) {
+            assertEquals(i, m_receiver.getReadings().get(i).getTimestamp());
+        }
+        assertTrue("at least 3 messages should be sent, got " + m_receiver.getMessages(), m_receiver.getMessages() >= 3);
+        assertEquals(m_receiver.getMessages(), m_receiver.getConnections());
+        assertEquals(m_receiver.getMessages(), m_connection.getConnects());
+        assertEquals(25, m_connection.getSent());
+        assertEquals(0, m_receiver.getErrors());
+    }
+
+    @Test
+    public void testSpoolIsSentBeforeNewReadings() throws Exception {
+        final int port = getUnusedPort();
+        m_connection = createConnection(port);
+        m_connection.setBatchSize(5);
+        m_connection.setBufferSize(10);
+        m_connection.setSpool(m_tempFolder.newFile("rrd-tcp.spool"), 1024 * 1024);
+
+        m_connection.send(readings(0, 50));
+        assertTrue(m_connection.getSpooled() > 0);
+        // Once readings are spooled, the new ones queue behind them
+        m_connection.send(readings(50, 3));
+        m_connection.send(readings(53, 7));
+        assertEquals(0, m_connection.getDropped());
+
+        m_receiver = new PerformanceDataReceiver(port, true);
+        m_receiver.start();
+        assertTrue(m_receiver.waitForReadings(60, TIMEOUT));
+        m_connection.send(readings(60, 5));
+        assertTrue(m_receiver.waitForReadings(65, TIMEOUT));
+        m_connection.stop();
+
+        final List<PerformanceDataReading> received = m_receiver.getReadings();
+        assertEquals(65, received.size());
+        for (int i = 0; i < 65; i++) {
+            assertEquals(i, received.get(i).getTimestamp());
+        }
+        assertEquals(0, m_connection.getBacklog());
+    }
+
+    @Test
+    public void testSendAfterStopDoesNotRestart() throws Exception {
+        m_receiver = new PerformanceDataReceiver(0, true);
+        m_receiver.start();
+        m_connection = createConnection(m_receiver.getPort());
+
+        m_connection.send(readings(0, 5));
+        assertTrue(m_receiver.waitForReadings(5, TIMEOUT));
+        m_connection.stop();
+        assertFalse(m_connection.isConnected());
+
+        m_connection.send(readings(5, 5));
+        m_connection.start();
+        Thread.sleep(500);
+        assertFalse(m_connection.isConnected());
+        assertEquals(5, m_receiver.getReadings().size());
+        assertEquals(5, m_connection.getSent());
+        assertEquals(5, m_connection.getDropped());
+        assertEquals(1, m_receiver.getConnections());
+    }
+
+    @Test
+    public void testKeepsSendingAfterSpoolError() throws Exception {
+        final int port = getUnusedPort();
+        final File spoolFile = m_tempFolder.newFile("rrd-tcp.spool");
+        m_connection = createConnection(port);
+        m_connection.setBatchSize(5);
+        m_connection.setBufferSize(10);
+        m_connection.setSpool(spoolFile, 1024 * 1024);
+        m_connection.send(readings(0, 50));
+        assertEquals(0, m_connection.getDropped());
+
+        // Make the last spooled message unreadable for a while
+        final RandomAccessFile raf = new RandomAccessFile(spoolFile, "rw");
+        try {
+            long position = 8;
+            long last = position;
+            while (position < raf.length()) {
+                raf.seek(position);
+                last = position;
+                position += 8 + raf.readInt();
+            }
+            raf.seek(last);
+            final int length = raf.readInt();
+            final int lastReadings = raf.readInt();
+            raf.seek(last);
+            raf.writeInt(1024 * 1024);
+
+            m_receiver = new PerformanceDataReceiver(port, true);
+            m_receiver.start();
+            assertTrue(m_receiver.waitForReadings(50 - lastReadings, TIMEOUT));
+            Thread.sleep(500);
+            assertEquals(50 - lastReadings, m_receiver.getReadings().size());
+
+            raf.seek(last);
+            raf.writeInt(length);
+        } finally {
+            raf.close();
+        }
+
+        assertTrue(m_receiver.waitForReadings(50, TIMEOUT));
+        m_connection.send(readings(50, 5));
+        assertTrue(m_receiver.waitForReadings(55, TIMEOUT));
+        m_connection.stop();
+        for (int i = 0; i < 55; i++) {
+            assertEquals(i, m_receiver.getReadings().get(i).getTimestamp());
+        }
+        assertEquals(0, m_connection.getDropped());
+        assertEquals(0, m_connection.getBacklog());
+    }
+
+    @Test
+    public void testSendRestartsEndedThread() throws Exception {
+        m_receiver = new PerformanceDataReceiver(0, true);
+        m_receiver.start();
+        m_connection = createConnection(m_receiver.getPort());
+
+        m_connection.send(readings(0, 5));
+        assertTrue(m_receiver.waitForReadings(5, TIMEOUT));
+
+        final String name = RrdOutputConnection.class.getSimpleName() + "-127.0.0.1:" + m_receiver.getPort();
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName())) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+
+        m_connection.send(readings(5, 5));
+        assertTrue(m_receiver.waitForReadings(10, TIMEOUT));
+        m_connection.stop();
+        assertEquals(10, m_connection.getSent());
+        assertEquals(0, m_connection.getDropped());
+    }
+
+    private static RrdOutputConnection createConnection(final int port) {
+        final RrdOutputConnection connection = new RrdOutputConnection("127.0.0.1", port);
+        connection.setFramed(true);
+        connection.setBatchDelay(100);
+        return connection;
+    }
+
+    private static int getUnusedPort() throws Exception {
+        final PerformanceDataReceiver receiver = new PerformanceDataReceiver();
+        receiver.start();
+        final int port = receiver.getPort();
+        receiver.stop();
+        return port;
+    }
+
+    private static List<PerformanceDataReading> readings(final int first, final int count) {
+        final List<PerformanceDataReading> readings = new ArrayList<PerformanceDataReading>();
+        for (int i = first; i < first + count; i++) {
+            readings.add(PerformanceDataReading.newBuilder()
+                    .setPath("/opt/opennms/share/rrd/snmp/1/foo.jrb")
+                    .setOwner("test")
+                    .setTimestamp(i)
+                    .addValue(i)
+                    .build());
+        }
+        return readings;
+    }
+}
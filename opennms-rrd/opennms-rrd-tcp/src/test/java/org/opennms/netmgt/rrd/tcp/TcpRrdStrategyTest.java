@@ -28,13 +28,11 @@
 
 package org.opennms.netmgt.rrd.tcp;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
-import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -68,91 +66,34 @@ import org.python.util.PythonInterpreter;
 public class TcpRrdStrategyTest {
     private static final Logger LOG = LoggerFactory.getLogger(TcpRrdStrategyTest.class);
 
+    private TcpRrdStrategy m_tcpStrategy;
     private QueuingTcpRrdStrategy m_strategy;
     private FileAnticipator m_fileAnticipator;
-    private static Thread m_listenerThread;
+    private static PerformanceDataReceiver m_receiver;
     private static String m_tempDir;
-    private static int m_listenPort;
 
     @BeforeClass
-    public static void startListenerThread() throws Exception {
-        m_listenerThread = new Thread() {
-            @Override
-            public void run() {
-                this.setName("fail");
-                ServerSocket ssocket = null;
-                try {
-                    ssocket = new ServerSocket(0);
-                    m_listenPort = ssocket.getLocalPort();
-                    LOG.debug("Listener thread started on port {}", m_listenPort);
-                    ssocket.setSoTimeout(500);
-                    while (true) {
-                        try {
-                            /*
-                             * This python code is not working properly under Jython. My
-                             * hunch is that it would be better under the new Jython 2.5.1
-                             * but that version is not easy to use under Maven, see:
-                             * 
-                             * http://bugs.jython.org/issue1512
-                             * http://bugs.jython.org/issue1513
-                             * 
-                            PythonInterpreter python = new PythonInterpreter();
-                            python.execfile(
-                                    // Load the python path parser script from the classpath
-                                    Thread.currentThread().getContextClassLoader().getResourceAsStream(
-                                            "rrdPathParser.py"
-                                    )
-                            );
-                            python.eval("configureRrdPaths('" + m_tempDir + "')");
-                             */
-
-                            Socket socket = ssocket.accept();
-                            PerformanceDataProtos.PerformanceDataReadings messages = PerformanceDataProtos.PerformanceDataReadings.parseFrom(socket.getInputStream());
-                            LOG.debug("Number of messages in current packet: " + messages.getMessageCount());
-                            for (PerformanceDataProtos.PerformanceDataReading message : messages.getMessageList()) {
-                                StringBuffer values = new StringBuffer();
-                                values.append("{ ");
-                                for (int i = 0; i < message.getValueCount(); i++) {
-                                    if (i != 0) { values.append(", "); }
-                                    values.append(message.getValue(i));
-                                }
-                                values.append(" }");
-                                LOG.debug("Message received: { " + 
-                                        "path: \"" + message.getPath() + "\", " + 
-                                        "owner: \"" + message.getOwner() + "\", " + 
-                                        "timestamp: \"" + message.getTimestamp() + "\", " + 
-                                        "values: " + values.toString() + " }");
-
-                                /*
-                                 * See comments above re: Jython
-                                PyDictionary attributes = (PyDictionary)python.eval("parseRrdPath('" + message.getPath() + "')");
-                                System.out.println(attributes.getClass().getName());
-                                 */
-                            }
-                        } catch (SocketTimeoutException e) {
-                            if (this.isInterrupted()) {
-                                this.setName("notfailed");
-                                return;
-                            }
-                        } catch (IOException e) {
-                            LOG.error(e.getMessage(), e);
-                        }
-                    }
-                } catch (IOException e) {
-                    LOG.error(e.getMessage(), e);
-                } catch (Throwable e) {
-                    LOG.error(e.getMessage(), e);
-                } finally {
-                    try {
-                        if (ssocket != null) ssocket.close();
-                    } catch (IOException e) {
-                        LOG.warn(e.getMessage(), e);
-                    }
-                }
-            }
-        };
-
-        m_listenerThread.start();
+    public static void startReceiver() throws Exception {
+        /*
+         * This python code is not working properly under Jython. My
+         * hunch is that it would be better under the new Jython 2.5.1
+         * but that version is not easy to use under Maven, see:
+         * 
+         * http://bugs.jython.org/issue1512
+         * http://bugs.jython.org/issue1513
+         * 
+        PythonInterpreter python = new PythonInterpreter();
+        python.execfile(
+                // Load the python path parser script from the classpath
+                Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                        "rrdPathParser.py"
+                )
+        );
+        python.eval("configureRrdPaths('" + m_tempDir + "')");
+         */
+        m_receiver = new PerformanceDataReceiver();
+        m_receiver.start();
+        LOG.debug("Receiver started on port {}", m_receiver.getPort());
     }
 
     @Before
@@ -161,10 +102,11 @@ public class TcpRrdStrategyTest {
         MockLogAppender.setupLogging();
 
         //m_strategy = RrdUtils.getStrategy();
-        TcpRrdStrategy strategy = new TcpRrdStrategy();
-        strategy.setHost("127.0.0.1");
-        strategy.setPort(m_listenPort);
-        m_strategy = new QueuingTcpRrdStrategy(strategy, 44444);
+        m_tcpStrategy = new TcpRrdStrategy();
+        m_tcpStrategy.setHost("127.0.0.1");
+        m_tcpStrategy.setPort(m_receiver.getPort());
+        m_tcpStrategy.setBatchDelay(100);
+        m_strategy = new QueuingTcpRrdStrategy(m_tcpStrategy, 44444);
 
         // Don't initialize by default since not all tests need it.
         m_fileAnticipator = new FileAnticipator(false);
@@ -178,13 +120,13 @@ public class TcpRrdStrategyTest {
         }
         */
         m_fileAnticipator.tearDown();
+        m_tcpStrategy.destroy();
     }
 
     @AfterClass
-    public static void stopListenerThread() throws Exception {
-        m_listenerThread.interrupt();
-        m_listenerThread.join();
-        assertFalse("Listener thread encountered errors", "fail".equals(m_listenerThread.getName()));
+    public static void stopReceiver() throws Exception {
+        m_receiver.stop();
+        assertEquals("Receiver encountered errors", 0, m_receiver.getErrors());
     }
 
     @Test
@@ -205,6 +147,7 @@ public class TcpRrdStrategyTest {
     @Test
     public void testUpdate() throws Exception {
         File rrdFile = createRrdFile();
+        int received = m_receiver.getReadings().size();
 
         String openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
         long currentTimeInSeconds = (long)(new Date().getTime() / 100);
@@ -219,7 +162,33 @@ public class TcpRrdStrategyTest {
         m_strategy.updateFile(openedFile, "lolz", String.valueOf(currentTimeInSeconds - 4) + ":1.234234");
         m_strategy.updateFile(openedFile, "zzzz", String.valueOf(currentTimeInSeconds - 3) + ":1.234234");
         m_strategy.closeFile(openedFile);
-        Thread.sleep(1000);
+        assertTrue(m_receiver.waitForReadings(received + 7, 10000));
+
+        for (PerformanceDataProtos.PerformanceDataReading message : m_receiver.getReadings()) {
+            LOG.debug("Message received: { " + 
+                    "path: \"" + message.getPath() + "\", " + 
+                    "owner: \"" + message.getOwner() + "\", " + 
+                    "timestamp: \"" + message.getTimestamp() + "\", " + 
+                    "values: " + message.getValueList() + " }");
+        }
+        m_tcpStrategy.destroy();
+        assertTrue(m_tcpStrategy.getStats(), m_tcpStrategy.getStats().contains("sent=7"));
+    }
+
+    @Test
+    public void testNoUpdatesAfterDestroy() throws Exception {
+        File rrdFile = createRrdFile();
+        int received = m_receiver.getReadings().size();
+
+        m_tcpStrategy.destroy();
+        TcpRrdStrategy.RrdOutputSocketWithFilename openedFile = m_tcpStrategy.openFile(rrdFile.getAbsolutePath());
+        m_tcpStrategy.updateFile(openedFile, "huh?", "N:1.234234");
+        m_tcpStrategy.closeFile(openedFile);
+
+        Thread.sleep(500);
+        assertEquals(received, m_receiver.getReadings().size());
+        assertFalse(m_tcpStrategy.getConnection().isConnected());
+        assertEquals(1, m_tcpStrategy.getConnection().getDropped());
     }
 
     public File createRrdFile() throws Exception {
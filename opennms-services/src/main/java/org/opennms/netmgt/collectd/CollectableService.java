@@ -119,6 +119,16 @@ final class CollectableService implements ReadyRunnable {
     
     private final RrdRepository m_repository;
 
+    /**
+     * How long a collection that is over its agent or collector limit is
+     * postponed before it is tried again, in milliseconds.
+     */
+    static final long DEFER_DELAY = 1000L;
+
+    private final CollectionConcurrencyLimits m_limits;
+
+    private final CollectionStatistics m_statistics;
+
     /**
      * Constructs a new instance of a CollectableService object.
      *
@@ -129,14 +139,18 @@ final class CollectableService implements ReadyRunnable {
      * @param scheduler a {@link org.opennms.netmgt.scheduler.Scheduler} object.
      * @param schedulingCompletedFlag a {@link org.opennms.netmgt.collectd.Collectd.SchedulingCompletedFlag} object.
      * @param transMgr a {@link org.springframework.transaction.PlatformTransactionManager} object.
+     * @param limits the concurrency limits shared by all collectable services
+     * @param statistics the collection statistics shared by all collectable services
      */
-    protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec, Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr) throws CollectionInitializationException {
+    protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec, Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr, CollectionConcurrencyLimits limits, CollectionStatistics statistics) throws CollectionInitializationException {
         m_agent = DefaultCollectionAgent.create(iface.getId(), ifaceDao, transMgr);
         m_spec = spec;
         m_scheduler = scheduler;
         m_schedulingCompletedFlag = schedulingCompletedFlag;
         m_ifaceDao = ifaceDao;
         m_transMgr = transMgr;
+        m_limits = limits;
+        m_statistics = statistics;
 
         m_nodeId = iface.getNode().getId().intValue();
         m_status = ServiceCollector.COLLECTION_SUCCEEDED;
@@ -310,15 +324,26 @@ final class CollectableService implements ReadyRunnable {
             return;
         }
 
-        // Update last scheduled poll time
-        m_lastScheduledCollectionTime = System.currentTimeMillis();
+        final long now = System.currentTimeMillis();
+        final CollectionStatistics.PackageStatistics stats = m_statistics.getPackageStatistics(m_spec.getPackageName());
 
         /*
          * Check scheduled outages to see if any apply indicating
          * that the collection should be skipped.
          */
         if (!m_spec.scheduledOutage(m_agent)) {
+            final String agent = getHostAddress();
+            final String collector = m_spec.getServiceName();
+            if (!m_limits.tryAcquire(agent, collector)) {
+                // Try again shortly; this run does not count as a collection
+                LOG.debug("run: deferring collection for {}/{}/{}, the agent or collector is at its concurrency limit", m_nodeId, agent, collector);
+                stats.collectionDeferred();
+                m_scheduler.schedule(m_spec.getInterval() > 0 ? Math.min(DEFER_DELAY, m_spec.getInterval()) : DEFER_DELAY, getReadyRunnable());
+                return;
+            }
+
             try {
+                updateLastScheduledCollectionTime(now, stats);
                 doCollection();
                 updateStatus(ServiceCollector.COLLECTION_SUCCEEDED, null);
             } catch (CollectionTimedOut e) {
@@ -333,13 +358,33 @@ final class CollectableService implements ReadyRunnable {
             } catch (Throwable e) {
                 LOG.error(e.getMessage(), e);
                 updateStatus(ServiceCollector.COLLECTION_FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+            } finally {
+                m_limits.release(agent, collector);
+                stats.collectionCompleted(System.currentTimeMillis() - now, m_spec.getInterval());
             }
+        } else {
+            updateLastScheduledCollectionTime(now, stats);
         }
         
     	// Reschedule the service
         m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
     }
 
+    /**
+     * Updates the last scheduled collection time, counting the intervals
+     * that passed since the previous collection without one.
+     */
+    private void updateLastScheduledCollectionTime(long now, CollectionStatistics.PackageStatistics stats) {
+        final long interval = m_spec.getInterval();
+        if (m_lastScheduledCollectionTime > 0 && interval > 0) {
+            final long late = now - m_lastScheduledCollectionTime - interval;
+            if (late >= interval) {
+                stats.intervalsSkipped(late / interval);
+            }
+        }
+        m_lastScheduledCollectionTime = now;
+    }
+
     private void updateStatus(int status, CollectionException e) {
         // Any change in status?
         if (status != m_status) {
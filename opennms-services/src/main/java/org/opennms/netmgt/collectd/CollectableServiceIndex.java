@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the {@link CollectableService} objects of Collectd, indexed by
+ * node ID and by interface address so that the event handlers can find the
+ * services of a node or an interface without walking every service.
+ *
+ * The lookup methods return copies, so the callers may mark and remove
+ * the services they find without holding the index's lock.
+ *
+ * @param <S> the type of service held, {@link CollectableService} in
+ * Collectd; services are compared by identity
+ */
+final class CollectableServiceIndex<S> {
+
+    private final Map<Integer, List<S>> m_servicesByNode = new HashMap<Integer, List<S>>();
+    private final Map<String, List<S>> m_servicesByAddress = new HashMap<String, List<S>>();
+
+    /**
+     * The keys each service is indexed under. The node ID of a service
+     * changes when its interface is reparented, so it is remembered here
+     * rather than read back from the service.
+     */
+    private final Map<S, Integer> m_nodeKeys = new IdentityHashMap<S, Integer>();
+    private final Map<S, String> m_addressKeys = new IdentityHashMap<S, String>();
+
+    /**
+     * Indexes a service under its node ID and interface address. A service
+     * that is already indexed is left where it is.
+     */
+    public synchronized void add(final S service, final int nodeId, final String address) {
+        if (m_nodeKeys.containsKey(service)) {
+            return;
+        }
+        put(m_servicesByNode, nodeId, service);
+        put(m_servicesByAddress, address, service);
+        m_nodeKeys.put(service, nodeId);
+        m_addressKeys.put(service, address);
+    }
+
+    public synchronized boolean remove(final S service) {
+        final Integer nodeId = m_nodeKeys.remove(service);
+        if (nodeId == null) {
+            return false;
+        }
+        removeFrom(m_servicesByNode, nodeId, service);
+        removeFrom(m_servicesByAddress, m_addressKeys.remove(service), service);
+        return true;
+    }
+
+    /**
+     * Moves a service to the given node ID. The service adopts the new node
+     * ID when it next runs, but it must be found under it right away.
+     */
+    public synchronized void reparent(final S service, final int newNodeId) {
+        final Integer nodeId = m_nodeKeys.get(service);
+        if (nodeId == null || nodeId.intValue() == newNodeId) {
+            return;
+        }
+        removeFrom(m_servicesByNode, nodeId, service);
+        put(m_servicesByNode, newNodeId, service);
+        m_nodeKeys.put(service, newNodeId);
+    }
+
+    public synchronized List<S> getServicesForNode(final int nodeId) {
+        return copy(m_servicesByNode.get(nodeId));
+    }
+
+    public synchronized List<S> getServicesForAddress(final String address) {
+        return copy(m_servicesByAddress.get(address));
+    }
+
+    public synchronized List<S> getServicesForInterface(final int nodeId, final String address) {
+        final List<S> services = new ArrayList<S>();
+        for (final S service : copy(m_servicesByAddress.get(address))) {
+            if (m_nodeKeys.get(service).intValue() == nodeId) {
+                services.add(service);
+            }
+        }
+        return services;
+    }
+
+    public synchronized List<S> getServices() {
+        return new ArrayList<S>(m_nodeKeys.keySet());
+    }
+
+    public synchronized int size() {
+        return m_nodeKeys.size();
+    }
+
+    private static <K, S> void put(final Map<K, List<S>> index, final K key, final S service) {
+        List<S> services = index.get(key);
+        if (services == null) {
+            services = new ArrayList<S>(2);
+            index.put(key, services);
+        }
+        services.add(service);
+    }
+
+    private static <K, S> void removeFrom(final Map<K, List<S>> index, final K key, final S service) {
+        final List<S> services = index.get(key);
+        if (services == null) {
+            return;
+        }
+        for (int i = 0; i < services.size(); i++) {
+            if (services.get(i) == service) {
+                services.remove(i);
+                break;
+            }
+        }
+        if (services.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static <S> List<S> copy(final List<S> services) {
+        if (services == null) {
+            return Collections.<S>emptyList();
+        }
+        return new ArrayList<S>(services);
+    }
+}
@@ -36,10 +36,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -75,6 +73,7 @@ import org.opennms.netmgt.model.events.EventUtils;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -129,9 +128,16 @@ public class Collectd extends AbstractServiceDaemon implements
     private final Map<String,ServiceCollector> m_collectors = new HashMap<String,ServiceCollector>(4);
 
     /**
-     * List of all CollectableService objects.
+     * All CollectableService objects, indexed by node and interface.
      */
-    private final List<CollectableService> m_collectableServices;
+    private final CollectableServiceIndex<CollectableService> m_collectableServices;
+
+    /**
+     * The per-agent and per-collector concurrency limits from the configuration.
+     */
+    private final CollectionConcurrencyLimits m_collectionLimits = new CollectionConcurrencyLimits(0, 0);
+
+    private final CollectionStatistics m_collectionStatistics = new CollectionStatistics();
 
     /**
      * Reference to the collection scheduler
@@ -180,7 +186,7 @@ public class Collectd extends AbstractServiceDaemon implements
     public Collectd() {
         super(LOG4J_CATEGORY);
 
-        m_collectableServices = Collections.synchronizedList(new LinkedList<CollectableService>());
+        m_collectableServices = new CollectableServiceIndex<CollectableService>();
     }
 
     /**
@@ -203,11 +209,19 @@ public class Collectd extends AbstractServiceDaemon implements
         
         instantiateCollectors();
 
+        updateCollectionLimits();
+
         getScheduler().schedule(0, ifScheduler());
 
         installMessageSelectors();
     }
 
+    private void updateCollectionLimits() {
+        final CollectdConfiguration config = m_collectdConfigFactory.getCollectdConfig();
+        m_collectionLimits.setLimits(config.getMaxConcurrentPerAgent(), config.getMaxConcurrentPerCollector());
+        LOG.debug("init: collections limited to {} per agent and {} per collector (0 is unlimited)", config.getMaxConcurrentPerAgent(), config.getMaxConcurrentPerCollector());
+    }
+
     private void installMessageSelectors() {
         // Add the EventListeners for the UEIs in which this service is
         // interested
@@ -301,6 +315,19 @@ public class Collectd extends AbstractServiceDaemon implements
         return interfaceScheduler;
     }
 
+    /**
+     * Schedules the first collection of a service, spread over the start
+     * jitter of a timing-wheel scheduler.
+     */
+    private void scheduleInitial(final ReadyRunnable runnable) {
+        final Scheduler scheduler = getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            ((TimingWheelScheduler)scheduler).scheduleInitial(runnable);
+        } else {
+            scheduler.schedule(0, runnable);
+        }
+    }
+
     private void createScheduler() {
         Logging.withPrefix(LOG4J_CATEGORY, new Runnable() {
             @Override
@@ -308,7 +335,14 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Create a scheduler
                 try {
                     LOG.debug("init: Creating collectd scheduler");
-                    setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                    final CollectdConfiguration config = m_collectdConfigFactory.getCollectdConfig();
+                    if (TimingWheelScheduler.NAME.equals(config.getScheduler())) {
+                        final TimingWheelScheduler scheduler = new TimingWheelScheduler("Collectd", config.getThreads());
+                        scheduler.setStartJitter(config.getStartJitter());
+                        setScheduler(scheduler);
+                    } else {
+                        setScheduler(new LegacyScheduler("Collectd", config.getThreads()));
+                    }
                 } catch (final RuntimeException e) {
                     LOG.error("init: Failed to create collectd scheduler", e);
                     throw e;
@@ -506,14 +540,16 @@ public class Collectd extends AbstractServiceDaemon implements
                     spec, 
                     getScheduler(),
                     m_schedulingCompletedFlag,
-                    m_transTemplate.getTransactionManager()
+                    m_transTemplate.getTransactionManager(),
+                    m_collectionLimits,
+                    m_collectionStatistics
                 );
 
                 // Add new collectable service to the collectable service list.
-                m_collectableServices.add(cSvc);
+                m_collectableServices.add(cSvc, cSvc.getNodeId(), str((InetAddress)cSvc.getAddress()));
 
                 // Schedule the collectable service for immediate collection
-                getScheduler().schedule(0, cSvc.getReadyRunnable());
+                scheduleInitial(cSvc.getReadyRunnable());
 
                 LOG.debug("scheduleInterface: {}/{} collection, scheduled", iface, svcName);
             } catch (CollectionInitializationException e) {
@@ -620,16 +656,11 @@ public class Collectd extends AbstractServiceDaemon implements
             sb.append(" is already scheduled.");
         }
         
-        synchronized (m_collectableServices) {
-        	for (CollectableService cSvc : m_collectableServices) {
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                if (cSvc.getNodeId() == iface.getNode().getId()
-                        && str(addr).equals(ipAddress)
-                        && cSvc.getPackageName().equals(pkgName)
-                        && cSvc.getServiceName().equals(svcName)) {
-                    isScheduled = true;
-                    break;
-                }
+        for (CollectableService cSvc : m_collectableServices.getServicesForInterface(iface.getNode().getId(), ipAddress)) {
+            if (cSvc.getPackageName().equals(pkgName)
+                    && cSvc.getServiceName().equals(svcName)) {
+                isScheduled = true;
+                break;
             }
         }
 
@@ -652,15 +683,11 @@ public class Collectd extends AbstractServiceDaemon implements
     }
 
     private void refreshServicePackages() {
-    	for (CollectableService thisService : m_collectableServices) {
+    	for (CollectableService thisService : m_collectableServices.getServices()) {
             thisService.refreshPackage(m_collectdConfigFactory);
         }
     }
 
-    private List<CollectableService> getCollectableServices() {
-        return m_collectableServices;
-    }
-
     /**
      * {@inheritDoc}
      *
@@ -809,38 +836,28 @@ public class Collectd extends AbstractServiceDaemon implements
 
         Long nodeId = event.getNodeid();
 
-        // Iterate over the collectable services list and mark any entries
-        // which match the deleted nodeId/IP address pair for deletion
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId and IP
-                // address
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                if (!(cSvc.getNodeId() == nodeId && addr.getHostName().equals(ipAddr)))
-                    continue;
+        // Mark the entries which match the deleted nodeId/IP address pair
+        // for deletion
+        for (CollectableService cSvc : m_collectableServices.getServicesForInterface(nodeId.intValue(), str(event.getInterfaceAddress()))) {
+            InetAddress addr = (InetAddress) cSvc.getAddress();
 
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated with
-                    // this CollectableService if one exists.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
+            synchronized (cSvc) {
+                // Retrieve the CollectorUpdates object associated with
+                // this CollectableService if one exists.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
 
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because an interface was deleted:  Service nodeid={}, deleted node:{}service address:{}deleted interface:{}", cSvc.getNodeId(), nodeId, addr.getHostName(), ipAddr);
+                // Now set the update's deletion flag so the next
+                // time it is selected for execution by the scheduler
+                // the collection will be skipped and the service will not
+                // be rescheduled.
+                LOG.debug("Marking CollectableService for deletion because an interface was deleted:  Service nodeid={}, deleted node:{}service address:{}deleted interface:{}", cSvc.getNodeId(), nodeId, str(addr), ipAddr);
 
-                    updates.markForDeletion();
-                }
-
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
+                updates.markForDeletion();
             }
+
+            // Now safe to remove the collectable service from
+            // the collectable services index
+            m_collectableServices.remove(cSvc);
         }
 
             LOG.debug("interfaceDeletedHandler: processing of interfaceDeleted event for {}/{} completed", nodeId, ipAddr);
@@ -916,32 +933,36 @@ public class Collectd extends AbstractServiceDaemon implements
         // SnmpMonitor.NodeInfo attribute to reflect the new nodeId. All
         // subsequent collections will then be updating the appropriate RRDs.
         //
-        OnmsIpInterface iface = null;
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            Iterator<CollectableService> iter = getCollectableServices().iterator();
-            while (iter.hasNext()) {
-                cSvc = iter.next();
-
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-				if (addr.equals(event.getInterfaceAddress())) {
-                    synchronized (cSvc) {
-                        // Got a match!
-                        LOG.debug("interfaceReparentedHandler: got a CollectableService match for {}", event.getInterface());
-
-                        // Retrieve the CollectorUpdates object associated
-                        // with
-                        // this CollectableService.
-                        CollectorUpdates updates = cSvc.getCollectorUpdates();
-                        if (iface == null) {
-                        	iface = getIpInterface(event.getNodeid().intValue(), event.getInterface());
-                        }
+        // The services are moved under the new nodeId in the index right
+        // away so that later events for the new node find them.
+        //
+        int newNodeId = -1;
+        try {
+            newNodeId = Integer.parseInt(newNodeIdStr);
+        } catch (NumberFormatException e) {
+            LOG.warn("interfaceReparentedHandler: unable to convert new nodeId value to an int: {}", newNodeIdStr);
+        }
 
-                        // Now set the reparenting flag
-                        updates.markForReparenting(oldNodeIdStr, newNodeIdStr, iface);
-                        LOG.debug("interfaceReparentedHandler: marking {} for reparenting for service SNMP.", event.getInterface());
-                    }
+        OnmsIpInterface iface = null;
+        for (CollectableService cSvc : m_collectableServices.getServicesForAddress(str(event.getInterfaceAddress()))) {
+            synchronized (cSvc) {
+                // Got a match!
+                LOG.debug("interfaceReparentedHandler: got a CollectableService match for {}", event.getInterface());
+
+                // Retrieve the CollectorUpdates object associated
+                // with
+                // this CollectableService.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
+                if (iface == null) {
+                	iface = getIpInterface(event.getNodeid().intValue(), event.getInterface());
                 }
+
+                // Now set the reparenting flag
+                updates.markForReparenting(oldNodeIdStr, newNodeIdStr, iface);
+                LOG.debug("interfaceReparentedHandler: marking {} for reparenting for service SNMP.", event.getInterface());
+            }
+            if (newNodeId != -1) {
+                m_collectableServices.reparent(cSvc, newNodeId);
             }
         }
 
@@ -1022,35 +1043,24 @@ public class Collectd extends AbstractServiceDaemon implements
     }
 
     private void unscheduleNodeAndMarkForDeletion(Long nodeId) {
-		// Iterate over the collectable service list and mark any entries
-        // which match the deleted nodeId for deletion.
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            final ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId
-                if (!(cSvc.getNodeId() == nodeId))
-                    continue;
-
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated
-                    // with this CollectableService.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because a node was deleted:  Service nodeid={}, deleted node:{}", cSvc.getNodeId(), nodeId);
-                    updates.markForDeletion();
-                }
-
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
+		// Mark the entries which match the deleted nodeId for deletion.
+        for (CollectableService cSvc : m_collectableServices.getServicesForNode(nodeId.intValue())) {
+            synchronized (cSvc) {
+                // Retrieve the CollectorUpdates object associated
+                // with this CollectableService.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
+
+                // Now set the update's deletion flag so the next
+                // time it is selected for execution by the scheduler
+                // the collection will be skipped and the service will not
+                // be rescheduled.
+                LOG.debug("Marking CollectableService for deletion because a node was deleted:  Service nodeid={}, deleted node:{}", cSvc.getNodeId(), nodeId);
+                updates.markForDeletion();
             }
+
+            // Now safe to remove the collectable service from
+            // the collectable services index
+            m_collectableServices.remove(cSvc);
         }
 	}
 
@@ -1107,10 +1117,8 @@ public class Collectd extends AbstractServiceDaemon implements
                 getEventIpcManager().sendNow(ebldr.getEvent());
                 // Updating thresholding visitors to use the new configuration
                 LOG.debug("handleReloadDaemonConfig: Reloading thresholding configuration in collectd");
-                synchronized (m_collectableServices) {
-                    for(CollectableService service: m_collectableServices) {
-                        service.reinitializeThresholding();
-                    }
+                for(CollectableService service: m_collectableServices.getServices()) {
+                    service.reinitializeThresholding();
                 }
                 // Preparing successful event
                 ebldr = new EventBuilder(EventConstants.RELOAD_DAEMON_CONFIG_SUCCESSFUL_UEI, "Collectd");
@@ -1173,6 +1181,7 @@ public class Collectd extends AbstractServiceDaemon implements
                 final String cfgFile = ConfigFileConstants.getFileName(ConfigFileConstants.COLLECTD_CONFIG_FILE_NAME);
                 try {
                     m_collectdConfigFactory.reload();
+                    updateCollectionLimits();
                     rebuildScheduler();
                     ebldr = new EventBuilder(EventConstants.RELOAD_DAEMON_CONFIG_SUCCESSFUL_UEI, "Collectd");
                     ebldr.addParam(EventConstants.PARM_DAEMON_NAME, collectionDaemonName);
@@ -1264,32 +1273,22 @@ public class Collectd extends AbstractServiceDaemon implements
             // primary SNMP interface and a service name of "SNMP" for
             // deletion.
             //
-            synchronized (getCollectableServices()) {
-                CollectableService cSvc = null;
-                ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-                while (liter.hasNext()) {
-                    cSvc = liter.next();
-
-                    final InetAddress addr = (InetAddress) cSvc.getAddress();
-                    final String addrString = str(addr);
-					if (addrString != null && addrString.equals(oldPrimaryIfAddr)) {
-                        synchronized (cSvc) {
-                            // Got a match! Retrieve the CollectorUpdates
-                            // object
-                            // associated
-                            // with this CollectableService.
-                            CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                            // Now set the deleted flag
-                            updates.markForDeletion();
-                            LOG.debug("primarySnmpInterfaceChangedHandler: marking {} as deleted for service SNMP.", oldPrimaryIfAddr);
-                        }
+            for (CollectableService cSvc : m_collectableServices.getServicesForAddress(oldPrimaryIfAddr)) {
+                synchronized (cSvc) {
+                    // Got a match! Retrieve the CollectorUpdates
+                    // object
+                    // associated
+                    // with this CollectableService.
+                    CollectorUpdates updates = cSvc.getCollectorUpdates();
 
-                        // Now safe to remove the collectable service from
-                        // the collectable services list
-                        liter.remove();
-                    }
+                    // Now set the deleted flag
+                    updates.markForDeletion();
+                    LOG.debug("primarySnmpInterfaceChangedHandler: marking {} as deleted for service SNMP.", oldPrimaryIfAddr);
                 }
+
+                // Now safe to remove the collectable service from
+                // the collectable services index
+                m_collectableServices.remove(cSvc);
             }
         }
 
@@ -1336,29 +1335,19 @@ public class Collectd extends AbstractServiceDaemon implements
         // address for reinitialization
         //
         OnmsIpInterface iface = null;
-        synchronized (getCollectableServices()) {
-            Iterator<CollectableService> iter = getCollectableServices().iterator();
-            while (iter.hasNext()) {
-                CollectableService cSvc = iter.next();
-        
-                final InetAddress addr = (InetAddress) cSvc.getAddress();
-                final String addrString = str(addr);
-                LOG.debug("Comparing CollectableService ip address = {} and event ip interface = {}", addrString, ipAddress);
-                if (addrString != null && addrString.equals(ipAddress) && cSvc.getNodeId() == nodeid.intValue()) {
-                    synchronized (cSvc) {
-                    	if (iface == null) {
-                            iface = getIpInterface(nodeid.intValue(), ipAddress);
-                    	}
-                        // Got a match! Retrieve the CollectorUpdates object
-                        // associated
-                        // with this CollectableService.
-                        CollectorUpdates updates = cSvc.getCollectorUpdates();
-        
-                        // Now set the reinitialization flag
-                        updates.markForReinitialization(iface);
-                        LOG.debug("reinitializePrimarySnmpInterfaceHandler: marking {} for reinitialization for service SNMP.", ipAddress);
-                    }
-                }
+        for (CollectableService cSvc : m_collectableServices.getServicesForInterface(nodeid.intValue(), ipAddress)) {
+            synchronized (cSvc) {
+            	if (iface == null) {
+                    iface = getIpInterface(nodeid.intValue(), ipAddress);
+            	}
+                // Got a match! Retrieve the CollectorUpdates object
+                // associated
+                // with this CollectableService.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
+
+                // Now set the reinitialization flag
+                updates.markForReinitialization(iface);
+                LOG.debug("reinitializePrimarySnmpInterfaceHandler: marking {} for reinitialization for service SNMP.", ipAddress);
             }
         }
     }
@@ -1389,42 +1378,31 @@ public class Collectd extends AbstractServiceDaemon implements
         String ipAddr = event.getInterface();
         String svcName = event.getService();
 
-        // Iterate over the collectable services list and mark any entries
-        // which match the nodeId/ipAddr of the deleted service
-        // for deletion.
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId, IP address
-                // and service
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                
-                //WATCH the brackets; there used to be an extra close bracket after the ipAddr comparison which borked this whole expression
-                if (!(cSvc.getNodeId() == nodeId && 
-                        addr.getHostName().equals(ipAddr) && 
-                        cSvc.getServiceName().equals(svcName))) 
-                    continue;
+        // Mark the entries which match the nodeId/ipAddr of the deleted
+        // service for deletion.
+        for (CollectableService cSvc : m_collectableServices.getServicesForInterface(nodeId.intValue(), str(event.getInterfaceAddress()))) {
+            // Only interested in entries with matching service
+            if (!cSvc.getServiceName().equals(svcName))
+                continue;
 
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated with
-                    // this CollectableService if one exists.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
+            InetAddress addr = (InetAddress) cSvc.getAddress();
 
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because a service was deleted:  Service nodeid={}, deleted node:{}, service address:{}, deleted interface:{}, service servicename:{}, deleted service name:{}, event source {}", cSvc.getNodeId(), nodeId, addr.getHostName(), ipAddr, cSvc.getServiceName(), svcName, event.getSource());
-                    updates.markForDeletion();
-                }
+            synchronized (cSvc) {
+                // Retrieve the CollectorUpdates object associated with
+                // this CollectableService if one exists.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
 
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
+                // Now set the update's deletion flag so the next
+                // time it is selected for execution by the scheduler
+                // the collection will be skipped and the service will not
+                // be rescheduled.
+                LOG.debug("Marking CollectableService for deletion because a service was deleted:  Service nodeid={}, deleted node:{}, service address:{}, deleted interface:{}, service servicename:{}, deleted service name:{}, event source {}", cSvc.getNodeId(), nodeId, str(addr), ipAddr, cSvc.getServiceName(), svcName, event.getSource());
+                updates.markForDeletion();
             }
+
+            // Now safe to remove the collectable service from
+            // the collectable services index
+            m_collectableServices.remove(cSvc);
         }
 
         LOG.debug("serviceDeletedHandler: processing of serviceDeleted event for {}/{}/{} completed.", nodeId, ipAddr, svcName);
@@ -1559,4 +1537,11 @@ public class Collectd extends AbstractServiceDaemon implements
         return m_collectableServices.size();
     }
 
+    /**
+     * @return the collection latency, overrun and skipped interval counts per package
+     */
+    public CollectionStatistics getCollectionStatistics() {
+        return m_collectionStatistics;
+    }
+
 }
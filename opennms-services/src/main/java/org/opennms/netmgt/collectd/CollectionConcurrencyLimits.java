@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the number of collections running at the same time against a single
+ * agent and by a single collector. A collection that would exceed either
+ * limit is not started; {@link CollectableService} defers it instead of
+ * tying up a scheduler thread while it waits.
+ */
+final class CollectionConcurrencyLimits {
+
+    private volatile int m_maxPerAgent;
+    private volatile int m_maxPerCollector;
+
+    private final ConcurrentMap<String, AtomicInteger> m_agents = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentMap<String, AtomicInteger> m_collectors = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * @param maxPerAgent the maximum number of concurrent collections per agent, 0 for no limit
+     * @param maxPerCollector the maximum number of concurrent collections per collector, 0 for no limit
+     */
+    public CollectionConcurrencyLimits(final int maxPerAgent, final int maxPerCollector) {
+        setLimits(maxPerAgent, maxPerCollector);
+    }
+
+    public void setLimits(final int maxPerAgent, final int maxPerCollector) {
+        m_maxPerAgent = maxPerAgent;
+        m_maxPerCollector = maxPerCollector;
+    }
+
+    public int getMaxPerAgent() {
+        return m_maxPerAgent;
+    }
+
+    public int getMaxPerCollector() {
+        return m_maxPerCollector;
+    }
+
+    /**
+     * Claims a slot for a collection from the given agent by the given
+     * collector. Every successful call must be paired with a call to
+     * {@link #release(String, String)}.
+     *
+     * @return false if either limit has been reached
+     */
+    public boolean tryAcquire(final String agent, final String collector) {
+        final AtomicInteger agentCount = counter(m_agents, agent);
+        if (!tryIncrement(agentCount, m_maxPerAgent)) {
+            return false;
+        }
+        if (!tryIncrement(counter(m_collectors, collector), m_maxPerCollector)) {
+            agentCount.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void release(final String agent, final String collector) {
+        decrement(m_agents, agent);
+        decrement(m_collectors, collector);
+    }
+
+    public int getActiveCount(final String agent) {
+        final AtomicInteger count = m_agents.get(agent);
+        return count == null ? 0 : count.get();
+    }
+
+    private static AtomicInteger counter(final ConcurrentMap<String, AtomicInteger> counters, final String key) {
+        AtomicInteger count = counters.get(key);
+        if (count == null) {
+            final AtomicInteger newCount = new AtomicInteger();
+            count = counters.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        return count;
+    }
+
+    private static boolean tryIncrement(final AtomicInteger count, final int max) {
+        while (true) {
+            final int current = count.get();
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static void decrement(final ConcurrentMap<String, AtomicInteger> counters, final String key) {
+        final AtomicInteger count = counters.get(key);
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+}
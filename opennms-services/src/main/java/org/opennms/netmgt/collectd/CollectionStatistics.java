@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collection latency, overrun and skipped interval counts of Collectd, kept
+ * per collection package.
+ *
+ * <ul>
+ * <li>an <em>overrun</em> is a collection that took longer than its interval</li>
+ * <li>a <em>skipped interval</em> is an interval that passed without a
+ * collection because the service started too late, e.g. because every
+ * scheduler thread was busy</li>
+ * <li>a <em>deferred</em> collection is one that was postponed because the
+ * agent or collector was at its concurrency limit</li>
+ * </ul>
+ */
+public class CollectionStatistics {
+
+    public static class PackageStatistics {
+        private final String m_packageName;
+        private final AtomicLong m_collections = new AtomicLong();
+        private final AtomicLong m_totalTime = new AtomicLong();
+        private final AtomicLong m_maxTime = new AtomicLong();
+        private final AtomicLong m_overruns = new AtomicLong();
+        private final AtomicLong m_skippedIntervals = new AtomicLong();
+        private final AtomicLong m_deferred = new AtomicLong();
+
+        PackageStatistics(final String packageName) {
+            m_packageName = packageName;
+        }
+
+        public void collectionCompleted(final long duration, final long interval) {
+            m_collections.incrementAndGet();
+            m_totalTime.addAndGet(duration);
+            long max = m_maxTime.get();
+            while (duration > max && !m_maxTime.compareAndSet(max, duration)) {
+                max = m_maxTime.get();
+            }
+            if (interval > 0 && duration > interval) {
+                m_overruns.incrementAndGet();
+            }
+        }
+
+        public void intervalsSkipped(final long count) {
+            m_skippedIntervals.addAndGet(count);
+        }
+
+        public void collectionDeferred() {
+            m_deferred.incrementAndGet();
+        }
+
+        public String getPackageName() {
+            return m_packageName;
+        }
+
+        public long getCollectionCount() {
+            return m_collections.get();
+        }
+
+        /**
+         * @return the total time spent collecting, in milliseconds
+         */
+        public long getTotalCollectionTime() {
+            return m_totalTime.get();
+        }
+
+        public long getAverageCollectionTime() {
+            final long count = m_collections.get();
+            return count == 0 ? 0 : m_totalTime.get() / count;
+        }
+
+        public long getMaxCollectionTime() {
+            return m_maxTime.get();
+        }
+
+        public long getOverrunCount() {
+            return m_overruns.get();
+        }
+
+        public long getSkippedIntervalCount() {
+            return m_skippedIntervals.get();
+        }
+
+        public long getDeferredCount() {
+            return m_deferred.get();
+        }
+
+        @Override
+        public String toString() {
+            return m_packageName + ": collections=" + getCollectionCount()
+                    + ", avgTime=" + getAverageCollectionTime() + "ms"
+                    + ", maxTime=" + getMaxCollectionTime() + "ms"
+                    + ", overruns=" + getOverrunCount()
+                    + ", skippedIntervals=" + getSkippedIntervalCount()
+                    + ", deferred=" + getDeferredCount();
+        }
+    }
+
+    private final ConcurrentMap<String, PackageStatistics> m_packages = new ConcurrentHashMap<String, PackageStatistics>();
+
+    public PackageStatistics getPackageStatistics(final String packageName) {
+        PackageStatistics stats = m_packages.get(packageName);
+        if (stats == null) {
+            final PackageStatistics newStats = new PackageStatistics(packageName);
+            stats = m_packages.putIfAbsent(packageName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return the statistics of every package, ordered by package name
+     */
+    public List<PackageStatistics> getAllPackageStatistics() {
+        final Map<String, PackageStatistics> sorted = new TreeMap<String, PackageStatistics>(m_packages);
+        return new ArrayList<PackageStatistics>(sorted.values());
+    }
+
+    public long getCollectionCount() {
+        long count = 0;
+        for (final PackageStatistics stats : m_packages.values()) {
+            count += stats.getCollectionCount();
+        }
+        return count;
+    }
+
+    public long getOverrunCount() {
+        long count = 0;
+        for (final PackageStatistics stats : m_packages.values()) {
+            count += stats.getOverrunCount();
+        }
+        return count;
+    }
+
+    public long getSkippedIntervalCount() {
+        long count = 0;
+        for (final PackageStatistics stats : m_packages.values()) {
+            count += stats.getSkippedIntervalCount();
+        }
+        return count;
+    }
+
+    public long getDeferredCount() {
+        long count = 0;
+        for (final PackageStatistics stats : m_packages.values()) {
+            count += stats.getDeferredCount();
+        }
+        return count;
+    }
+}
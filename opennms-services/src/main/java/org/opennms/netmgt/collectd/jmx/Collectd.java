@@ -28,8 +28,13 @@
 
 package org.opennms.netmgt.collectd.jmx;
 
+import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
+
+import org.opennms.netmgt.collectd.CollectionStatistics.PackageStatistics;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
@@ -126,11 +131,42 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
         return getDaemon().getCollectableServiceCount();
     }
     
+    @Override
+    public long getCollectionOverrunCount() {
+        return getDaemon().getCollectionStatistics().getOverrunCount();
+    }
+
+    @Override
+    public long getSkippedIntervalCount() {
+        return getDaemon().getCollectionStatistics().getSkippedIntervalCount();
+    }
+
+    @Override
+    public long getDeferredCollectionCount() {
+        return getDaemon().getCollectionStatistics().getDeferredCount();
+    }
+
+    @Override
+    public String[] getPackageStatistics() {
+        final List<PackageStatistics> packages = getDaemon().getCollectionStatistics().getAllPackageStatistics();
+        final String[] statistics = new String[packages.size()];
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i] = packages.get(i).toString();
+        }
+        return statistics;
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return (ThreadPoolExecutor) ((LegacyScheduler) scheduler).getRunner();
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        final Scheduler scheduler = getDaemon().getScheduler();
+        return scheduler instanceof LegacyScheduler
+                || (scheduler instanceof TimingWheelScheduler && ((TimingWheelScheduler) scheduler).getRunner() instanceof ThreadPoolExecutor);
     }
 }
@@ -76,4 +76,25 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of collectable services currently seen by Collectd
      */
     public long getCollectableServiceCount();
+
+    /**
+     * @return The number of collections that took longer than their interval
+     */
+    public long getCollectionOverrunCount();
+
+    /**
+     * @return The number of collection intervals that passed without a collection
+     */
+    public long getSkippedIntervalCount();
+
+    /**
+     * @return The number of collections postponed by the per-agent or per-collector limits
+     */
+    public long getDeferredCollectionCount();
+
+    /**
+     * @return The collection count, average and maximum latency, overruns,
+     * skipped intervals and deferrals of each collection package
+     */
+    public String[] getPackageStatistics();
 }
@@ -45,6 +45,7 @@ import org.opennms.netmgt.config.OpennmsServerConfigFactory;
 import org.opennms.netmgt.config.PollOutagesConfig;
 import org.opennms.netmgt.config.PollerConfig;
 import org.opennms.netmgt.config.poller.Package;
+import org.opennms.netmgt.config.poller.PollerConfiguration;
 import org.opennms.netmgt.daemon.AbstractServiceDaemon;
 import org.opennms.netmgt.dao.api.MonitoredServiceDao;
 import org.opennms.netmgt.dao.api.OutageDao;
@@ -64,6 +65,7 @@ import org.opennms.netmgt.poller.pollables.PollableVisitorAdaptor;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -86,7 +88,7 @@ public class Poller extends AbstractServiceDaemon {
 
     private boolean m_initialized = false;
 
-    private LegacyScheduler m_scheduler = null;
+    private Scheduler m_scheduler = null;
 
     private PollerEventProcessor m_eventProcessor;
 
@@ -271,9 +273,9 @@ public class Poller extends AbstractServiceDaemon {
     /**
      * <p>setScheduler</p>
      *
-     * @param scheduler a {@link org.opennms.netmgt.scheduler.LegacyScheduler} object.
+     * @param scheduler a {@link org.opennms.netmgt.scheduler.Scheduler} object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(Scheduler scheduler) {
         m_scheduler = scheduler;
     }
 
@@ -325,6 +327,16 @@ public class Poller extends AbstractServiceDaemon {
 
     }
 
+    /**
+     * Returns the delay before the first poll of a newly scheduled service,
+     * which spreads the first polls over the start jitter of a timing-wheel
+     * scheduler.
+     */
+    private long getStartDelay() {
+        final Scheduler scheduler = getScheduler();
+        return scheduler instanceof TimingWheelScheduler ? ((TimingWheelScheduler)scheduler).getStartDelay() : 0;
+    }
+
     private void createScheduler() {
 
         // Create a scheduler
@@ -332,7 +344,14 @@ public class Poller extends AbstractServiceDaemon {
         try {
             LOG.debug("init: Creating poller scheduler");
 
-            setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            final PollerConfiguration config = getPollerConfig().getConfiguration();
+            if (config != null && TimingWheelScheduler.NAME.equals(config.getScheduler())) {
+                final TimingWheelScheduler scheduler = new TimingWheelScheduler("Poller", getPollerConfig().getThreads());
+                scheduler.setStartJitter(config.getStartJitter());
+                setScheduler(scheduler);
+            } else {
+                setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            }
         } catch (RuntimeException e) {
             LOG.error("init: Failed to create poller scheduler", e);
             throw e;
@@ -569,7 +588,7 @@ public class Poller extends AbstractServiceDaemon {
 
         }
 
-        svc.schedule();
+        svc.schedule(getStartDelay());
 
         return true;
 
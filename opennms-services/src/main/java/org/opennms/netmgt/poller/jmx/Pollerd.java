@@ -32,6 +32,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -121,12 +123,33 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         }
     }
 
-    
+
+    @Override
+    public long getTreeLockContendedCount() {
+        return getDaemon().getNetwork().getLockStatistics().getContendedCount();
+    }
+
+    @Override
+    public long getTreeLockWaitTime() {
+        return getDaemon().getNetwork().getLockStatistics().getWaitTime();
+    }
+
+    @Override
+    public long getTreeLockMaxWaitTime() {
+        return getDaemon().getNetwork().getLockStatistics().getMaxWaitTime();
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return (ThreadPoolExecutor) ((LegacyScheduler) scheduler).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        final Scheduler scheduler = getDaemon().getScheduler();
+        return scheduler instanceof LegacyScheduler
+                || (scheduler instanceof TimingWheelScheduler && ((TimingWheelScheduler) scheduler).getRunner() instanceof ThreadPoolExecutor);
     }
 }
@@ -74,4 +74,19 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The maximum number of threads allowed in the poller's thread pool
      */
     public long getMaxPoolThreads();
+
+    /**
+     * @return The number of times a poller thread had to wait for the lock of a node since poller startup
+     */
+    public long getTreeLockContendedCount();
+
+    /**
+     * @return The total time in milliseconds poller threads waited for the locks of nodes since poller startup
+     */
+    public long getTreeLockWaitTime();
+
+    /**
+     * @return The longest time in milliseconds a poller thread waited for the lock of a node since poller startup
+     */
+    public long getTreeLockMaxWaitTime();
 }
@@ -34,6 +34,7 @@ import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -43,17 +44,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.nio.NioDatagramRequest;
+import org.opennms.netmgt.poller.nio.NioPollEngine;
+import org.opennms.netmgt.poller.support.DefaultPollFuture;
 import org.xbill.DNS.DClass;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.Section;
 import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
 /**
@@ -68,7 +75,7 @@ import org.xbill.DNS.Type;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-final public class DnsMonitor extends AbstractServiceMonitor {
+final public class DnsMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(DnsMonitor.class);
     /**
      * Default DNS port.
@@ -135,21 +142,11 @@ final public class DnsMonitor extends AbstractServiceMonitor {
 
         // Host to lookup?
         //
-        String lookup = ParameterMap.getKeyedString(parameters, "lookup", null);
-        if (lookup == null || lookup.length() == 0) {
-            // Get hostname of local machine for future DNS lookups
-        	lookup = InetAddressUtils.getLocalHostAddressAsString();
-        	if (lookup == null) {
-        		throw new UnsupportedOperationException("Unable to look up local host address.");
-        	}
-        }
+        String lookup = getLookup(parameters);
 
         // What do we consider fatal?
         //
-        final List<Integer> fatalCodes = new ArrayList<Integer>();
-        for (final int code : ParameterMap.getKeyedIntegerArray(parameters, "fatal-response-codes", DEFAULT_FATAL_RESP_CODES)) {
-            fatalCodes.add(code);
-        }
+        final List<Integer> fatalCodes = getFatalCodes(parameters);
         
 
 	int minAnswers = ParameterMap.getKeyedInteger(parameters, "min-answers", DEFAULT_MIN_ANSWERS);
@@ -187,41 +184,12 @@ final public class DnsMonitor extends AbstractServiceMonitor {
                 resolver.setTimeout((timeout < 1 ? 1 : (int) timeout));
                 final Record question = Record.newRecord(name, Type.A, DClass.IN);
                 final Message query = Message.newQuery(question);
-                PollStatus status;
 
                 timeoutTracker.startAttempt();
                 final Message response = resolver.send(query);
                 double responseTime = timeoutTracker.elapsedTimeInMillis();
 
-                final Integer rcode = response.getHeader().getRcode();
-                LOG.debug("received response code: {}", rcode);
-
-                if (fatalCodes.contains(rcode)) {
-                    status = PollStatus.unavailable("Received an invalid DNS response for address: " + addr);
-                    LOG.debug(status.getReason());
-                    return status;
-                } else if (minAnswers != DEFAULT_MIN_ANSWERS || maxAnswers != DEFAULT_MAX_ANSWERS) {
-                    int numAnswers = response.getSectionArray(Section.ANSWER).length;
-                    boolean tooFewAnswers = numAnswers < minAnswers;
-                    boolean tooManyAnswers = numAnswers > maxAnswers;
-                    if (tooFewAnswers) {
-                        status = PollStatus.unavailable("Response contained only " + numAnswers + " answer(s), but at least " + minAnswers + " answers(s) are needed.");
-                        LOG.warn(status.getReason());
-                        return status;
-                    }
-                    if (tooManyAnswers) {
-                        status = PollStatus.unavailable("Response contained " + numAnswers + " answer(s), but " + maxAnswers + " or fewer answers(s) are needed.");
-                        LOG.warn(status.getReason());
-                        return status;
-                    }
-                    status = PollStatus.up(responseTime);
-                    LOG.debug("valid DNS response received with {} answer(s), responseTime = {}ms", numAnswers, responseTime);
-                    return status;
-                } else {
-                    status = PollStatus.up(responseTime);
-                    LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
-                    return status;
-                }
+                return checkResponse(response, responseTime, addr, fatalCodes, minAnswers, maxAnswers);
 
             } catch (final InterruptedIOException e) {
                 // No response received, retry without marking the poll failed. If we get this condition over and over until 
@@ -246,5 +214,125 @@ final public class DnsMonitor extends AbstractServiceMonitor {
         return PollStatus.unavailable(reason);
     }
 
+    private static String getLookup(final Map<String, Object> parameters) {
+        String lookup = ParameterMap.getKeyedString(parameters, "lookup", null);
+        if (lookup == null || lookup.length() == 0) {
+            // Get hostname of local machine for future DNS lookups
+            lookup = InetAddressUtils.getLocalHostAddressAsString();
+            if (lookup == null) {
+                throw new UnsupportedOperationException("Unable to look up local host address.");
+            }
+        }
+        return lookup;
+    }
+
+    private static List<Integer> getFatalCodes(final Map<String, Object> parameters) {
+        final List<Integer> fatalCodes = new ArrayList<Integer>();
+        for (final int code : ParameterMap.getKeyedIntegerArray(parameters, "fatal-response-codes", DEFAULT_FATAL_RESP_CODES)) {
+            fatalCodes.add(code);
+        }
+        return fatalCodes;
+    }
+
+    private static PollStatus checkResponse(final Message response, final double responseTime, final String addr, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
+        final PollStatus status;
+        final Integer rcode = response.getHeader().getRcode();
+        LOG.debug("received response code: {}", rcode);
+
+        if (fatalCodes.contains(rcode)) {
+            status = PollStatus.unavailable("Received an invalid DNS response for address: " + addr);
+            LOG.debug(status.getReason());
+            return status;
+        } else if (minAnswers != DEFAULT_MIN_ANSWERS || maxAnswers != DEFAULT_MAX_ANSWERS) {
+            int numAnswers = response.getSectionArray(Section.ANSWER).length;
+            boolean tooFewAnswers = numAnswers < minAnswers;
+            boolean tooManyAnswers = numAnswers > maxAnswers;
+            if (tooFewAnswers) {
+                status = PollStatus.unavailable("Response contained only " + numAnswers + " answer(s), but at least " + minAnswers + " answers(s) are needed.");
+                LOG.warn(status.getReason());
+                return status;
+            }
+            if (tooManyAnswers) {
+                status = PollStatus.unavailable("Response contained " + numAnswers + " answer(s), but " + maxAnswers + " or fewer answers(s) are needed.");
+                LOG.warn(status.getReason());
+                return status;
+            }
+            status = PollStatus.up(responseTime);
+            LOG.debug("valid DNS response received with {} answer(s), responseTime = {}ms", numAnswers, responseTime);
+            return status;
+        } else {
+            status = PollStatus.up(responseTime);
+            LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
+            return status;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Poll the specified address for DNS service availability without
+     * blocking, in the same way as {@link #poll(MonitoredService, Map)}.
+     * Responses that do not carry the ID of the query are ignored.
+     */
+    @Override
+    public PollFuture pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        NetworkInterface<InetAddress> iface = svc.getNetInterface();
+
+        if (iface.getType() != NetworkInterface.TYPE_INET)
+            throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
+
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+        final String lookup = getLookup(parameters);
+        final List<Integer> fatalCodes = getFatalCodes(parameters);
+        final int minAnswers = ParameterMap.getKeyedInteger(parameters, "min-answers", DEFAULT_MIN_ANSWERS);
+        final int maxAnswers = ParameterMap.getKeyedInteger(parameters, "max-answers", DEFAULT_MAX_ANSWERS);
+        final InetAddress address = iface.getAddress();
+        final String addr = InetAddressUtils.str(address);
+
+        final Name name;
+        try {
+            name = Name.fromString(lookup, Name.root);
+        } catch (final TextParseException e) {
+            String reason = "IOException while polling address: " + addr + " " + e.getMessage();
+            LOG.debug(reason, e);
+            return DefaultPollFuture.completed(PollStatus.unavailable(reason));
+        }
+
+        return NioPollEngine.getInstance().poll(new NioDatagramRequest(address, port, parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT) {
+            private int m_id;
+
+            @Override
+            protected ByteBuffer createRequest() {
+                final Message query = Message.newQuery(Record.newRecord(name, Type.A, DClass.IN));
+                m_id = query.getHeader().getID();
+                return ByteBuffer.wrap(query.toWire());
+            }
+
+            @Override
+            protected PollStatus received(ByteBuffer datagram, double responseTime) {
+                final byte[] wire = new byte[datagram.remaining()];
+                datagram.get(wire);
+                final Message response;
+                try {
+                    response = new Message(wire);
+                } catch (final IOException e) {
+                    LOG.debug("ignoring malformed DNS response from {}", addr, e);
+                    return null;
+                }
+                if (response.getHeader().getID() != m_id) {
+                    LOG.debug("ignoring DNS response from {} with ID {}, expected {}", addr, response.getHeader().getID(), m_id);
+                    return null;
+                }
+                return checkResponse(response, responseTime, addr, fatalCodes, minAnswers, maxAnswers);
+            }
+
+            @Override
+            protected PollStatus noResponse(TimeoutTracker tracker) {
+                String reason = "Never received valid DNS response for address: " + addr;
+                LOG.debug(reason);
+                return PollStatus.unavailable(reason);
+            }
+        });
+    }
 
 }
@@ -53,11 +53,16 @@ import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.SocketWrapper;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.nio.NioPollEngine;
+import org.opennms.netmgt.poller.nio.NioPollRequest;
+import org.opennms.netmgt.poller.nio.NioSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,7 +77,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  */
 @Distributable
-public class HttpMonitor extends AbstractServiceMonitor {
+public class HttpMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(HttpMonitor.class);
     
@@ -214,6 +219,102 @@ public class HttpMonitor extends AbstractServiceMonitor {
 
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Poll the specified address for HTTP service availability without
+     * blocking, in the same way as {@link #poll(MonitoredService, Map)}.
+     */
+    @Override
+    public PollFuture pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final NetworkInterface<InetAddress> iface = svc.getNetInterface();
+        final String nodeLabel = svc.getNodeLabel();
+
+        if (iface.getType() != NetworkInterface.TYPE_INET) {
+            throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
+        }
+
+        final Map<String, Object> sortedParameters = new TreeMap<String, Object>(parameters);
+        final int[] ports = determinePorts(sortedParameters);
+
+        return NioPollEngine.getInstance().poll(new NioPollRequest(iface.getAddress(), ports, sortedParameters, DEFAULT_RETRY, DEFAULT_TIMEOUT) {
+            private HttpMonitorClient m_client;
+            private boolean m_matching;
+
+            @Override
+            public boolean isSecure() {
+                return HttpMonitor.this.isSecure();
+            }
+
+            @Override
+            protected void connected(NioSession session) {
+                LOG.debug("HttpMonitor: connected to host: {} on port: {}", (iface.getAddress()), session.getRemoteAddress().getPort());
+                m_client = new HttpMonitorClient(nodeLabel, iface, sortedParameters);
+                m_client.setCurrentPort(session.getRemoteAddress().getPort());
+                m_client.setPollStatus(PollStatus.SERVICE_UNRESPONSIVE);
+                m_matching = false;
+                session.send(m_client.m_httpCmd);
+            }
+
+            @Override
+            protected void received(NioSession session, String line) {
+                if (m_matching) {
+                    if (m_client.checkResponseLine(line)) {
+                        LOG.debug("response-text: {}: found.", m_client.getResponseText());
+                        session.complete(PollStatus.available(m_client.getResponseTime()));
+                    }
+                    return;
+                }
+
+                m_client.checkStatusLine(line);
+                m_client.setResponseTime(session.elapsedTimeInMillis());
+                logResponseTimes(m_client.getResponseTime(), line);
+
+                if (m_client.getPollStatus() != PollStatus.SERVICE_AVAILABLE) {
+                    session.complete(PollStatus.get(m_client.getPollStatus(), m_client.getReason()));
+                } else if (StringUtils.isNotBlank(m_client.getResponseText())) {
+                    m_matching = true;
+                } else {
+                    session.complete(PollStatus.available(m_client.getResponseTime()));
+                }
+            }
+
+            @Override
+            protected void closed(NioSession session) {
+                if (m_matching) {
+                    LOG.debug("Matching text: [{}] not found in body of HTTP response for {}:{}:{}", m_client.getResponseText(), iface.getAddress(), svc.getSvcName(), m_client.getCurrentPort());
+                    session.complete(PollStatus.unavailable("Matching text: ["+m_client.getResponseText()+"] not found in body of HTTP response"));
+                } else {
+                    super.closed(session);
+                }
+            }
+
+            @Override
+            protected PollStatus finished(PollStatus status) {
+                if (!status.isUnavailable()) {
+                    return status;
+                }
+                final StringBuilder testedPorts = new StringBuilder();
+                for (int i = 0; i < ports.length; i++) {
+                    if (i > 0) {
+                        testedPorts.append(',');
+                    }
+                    testedPorts.append(ports[i]);
+                }
+                return PollStatus.unavailable(status.getReason() + "/Ports: " + testedPorts.toString());
+            }
+        });
+    }
+
+    /**
+     * Whether to speak TLS to the service when polling without blocking.
+     *
+     * @return true for TLS
+     */
+    protected boolean isSecure() {
+        return false;
+    }
+
     private void logResponseTimes(Double responseTime, String line) {
         LOG.debug("poll: response= {}", line);
         LOG.debug("poll: responseTime= {}ms", responseTime);
@@ -540,6 +641,35 @@ public class HttpMonitor extends AbstractServiceMonitor {
             return m_currentLine;
         }
 
+        /**
+         * Check the status line of a response read without blocking.
+         *
+         * @param line the first line of the response
+         */
+        void checkStatusLine(final String line) {
+            m_currentLine = line;
+            if (determineVerbosity(m_parameters)) {
+                HttpMonitor.LOG.debug("Server response: {}", m_currentLine);
+            }
+            determineServerInitialResponse();
+            m_headerFinished = false;
+        }
+
+        /**
+         * Check a line following the status line of a response read without
+         * blocking against the response-text.
+         *
+         * @param line the line read
+         * @return true if the response-text was found
+         */
+        boolean checkResponseLine(final String line) {
+            m_currentLine = line;
+            if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
+                HttpMonitor.LOG.debug("\t<<: {}", m_currentLine);
+            }
+            return checkCurrentLineMatchesResponseText();
+        }
+
         public void sendHttpCommand() throws IOException {
             if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
                 HttpMonitor.LOG.debug("Sending HTTP command: {}", m_httpCmd);
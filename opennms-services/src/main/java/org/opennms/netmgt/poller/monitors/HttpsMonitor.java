@@ -65,4 +65,10 @@ final public class HttpsMonitor extends HttpMonitor {
         return new SslSocketWrapper();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isSecure() {
+        return true;
+    }
+
 }
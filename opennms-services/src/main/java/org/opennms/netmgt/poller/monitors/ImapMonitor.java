@@ -43,11 +43,16 @@ import org.opennms.core.utils.ParameterMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.nio.NioPollEngine;
+import org.opennms.netmgt.poller.nio.NioPollRequest;
+import org.opennms.netmgt.poller.nio.NioSession;
 
 /**
  * <P>
@@ -76,7 +81,7 @@ import org.opennms.netmgt.poller.PollStatus;
  * @version CVS 1.1.1.1
  */
 @Distributable
-final public class ImapMonitor extends AbstractServiceMonitor {
+final public class ImapMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(ImapMonitor.class);
 
     /**
@@ -251,4 +256,45 @@ final public class ImapMonitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Poll the specified address for service availability without blocking,
+     * in the same way as {@link #poll(MonitoredService, Map)}.
+     */
+    @Override
+    public PollFuture pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        NetworkInterface<InetAddress> iface = svc.getNetInterface();
+
+        if (iface.getType() != NetworkInterface.TYPE_INET)
+            throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
+
+        int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+
+        return NioPollEngine.getInstance().poll(new NioPollRequest(iface.getAddress(), new int[] { port }, parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT) {
+            private String m_expected;
+            private double m_responseTime;
+
+            @Override
+            protected void connected(NioSession session) {
+                m_expected = IMAP_START_RESPONSE_PREFIX;
+            }
+
+            @Override
+            protected void received(NioSession session, String response) {
+                if (!response.startsWith(m_expected)) {
+                    session.complete(PollStatus.unavailable());
+                } else if (m_expected == IMAP_START_RESPONSE_PREFIX) {
+                    m_responseTime = session.elapsedTimeInMillis();
+                    m_expected = IMAP_BYE_RESPONSE_PREFIX;
+                    session.send(IMAP_LOGOUT_REQUEST);
+                } else if (m_expected == IMAP_BYE_RESPONSE_PREFIX) {
+                    m_expected = IMAP_LOGOUT_RESPONSE_PREFIX;
+                } else {
+                    session.complete(PollStatus.available(m_responseTime));
+                }
+            }
+        });
+    }
+
 }
@@ -43,11 +43,16 @@ import java.util.StringTokenizer;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.nio.NioPollEngine;
+import org.opennms.netmgt.poller.nio.NioPollRequest;
+import org.opennms.netmgt.poller.nio.NioSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,7 +69,7 @@ import org.slf4j.LoggerFactory;
  */
 
 @Distributable
-final public class Pop3Monitor extends AbstractServiceMonitor {
+final public class Pop3Monitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(Pop3Monitor.class);
 
@@ -217,4 +222,45 @@ final public class Pop3Monitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Poll the specified address for service availability without blocking,
+     * in the same way as {@link #poll(MonitoredService, Map)}.
+     */
+    @Override
+    public PollFuture pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        NetworkInterface<InetAddress> iface = svc.getNetInterface();
+
+        if (iface.getType() != NetworkInterface.TYPE_INET)
+            throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
+
+        int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+
+        return NioPollEngine.getInstance().poll(new NioPollRequest(iface.getAddress(), new int[] { port }, parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT) {
+            private boolean m_quitSent;
+            private double m_responseTime;
+
+            @Override
+            protected void connected(NioSession session) {
+                m_quitSent = false;
+            }
+
+            @Override
+            protected void received(NioSession session, String response) {
+                // Server responses should start with: "+OK"
+                StringTokenizer t = new StringTokenizer(response);
+                if (!t.hasMoreTokens() || !t.nextToken().equals("+OK")) {
+                    session.complete(PollStatus.unavailable());
+                } else if (!m_quitSent) {
+                    m_responseTime = session.elapsedTimeInMillis();
+                    m_quitSent = true;
+                    session.send("QUIT\r\n");
+                } else {
+                    session.complete(PollStatus.available(m_responseTime));
+                }
+            }
+        });
+    }
+
 }
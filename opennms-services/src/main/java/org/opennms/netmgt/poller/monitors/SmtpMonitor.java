@@ -45,11 +45,16 @@ import java.util.regex.PatternSyntaxException;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.nio.NioPollEngine;
+import org.opennms.netmgt.poller.nio.NioPollRequest;
+import org.opennms.netmgt.poller.nio.NioSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,7 +70,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-public final class SmtpMonitor extends AbstractServiceMonitor {
+public final class SmtpMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
 
     public static final Logger LOG = LoggerFactory.getLogger(SmtpMonitor.class);
 
@@ -283,6 +288,73 @@ public final class SmtpMonitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Poll the specified address for service availability without blocking,
+     * in the same way as {@link #poll(MonitoredService, Map)}.
+     */
+    @Override
+    public PollFuture pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        NetworkInterface<InetAddress> iface = svc.getNetInterface();
+
+        if (iface.getType() != NetworkInterface.TYPE_INET) {
+            throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
+        }
+
+        int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+
+        final String hostAddress = InetAddressUtils.str(iface.getAddress());
+
+        return NioPollEngine.getInstance().poll(new NioPollRequest(iface.getAddress(), new int[] { port }, parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT) {
+            private String m_command;
+            private double m_responseTime;
+
+            @Override
+            protected void connected(NioSession session) {
+                m_command = null;
+            }
+
+            @Override
+            protected void received(NioSession session, String response) {
+                // wait for the last line of a multi-line response
+                if (MULTILINE.matcher(response).find()) {
+                    return;
+                }
+
+                int rc;
+                try {
+                    rc = Integer.parseInt(new StringTokenizer(response).nextToken());
+                } catch (RuntimeException e) {
+                    session.complete(PollStatus.unavailable("NumberFormatException while polling address " + hostAddress));
+                    return;
+                }
+
+                if (m_command == null) {
+                    if (rc == 220) {
+                        m_command = "HELO";
+                        session.send("HELO " + LOCALHOST_NAME + "\r\n");
+                    } else if (rc == 554) {
+                        session.send("QUIT\r\n");
+                        session.complete(PollStatus.unavailable("Server rejecting transactions with 554"));
+                    } else {
+                        session.complete(PollStatus.unavailable());
+                    }
+                } else if (m_command.equals("HELO")) {
+                    m_responseTime = session.elapsedTimeInMillis();
+                    if (rc == 250) {
+                        m_command = "QUIT";
+                        session.send("QUIT\r\n");
+                    } else {
+                        session.complete(PollStatus.unavailable());
+                    }
+                } else {
+                    session.complete(rc == 221 ? PollStatus.available(m_responseTime) : PollStatus.unavailable());
+                }
+            }
+        });
+    }
+
     private String sendMessage(Socket socket, BufferedReader rdr, String command) throws IOException {
         if (command != null && !"".equals(command)) {
             socket.getOutputStream().write(command.getBytes("ASCII"));
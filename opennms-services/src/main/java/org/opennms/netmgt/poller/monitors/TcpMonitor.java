@@ -42,11 +42,16 @@ import java.util.Map;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.nio.NioPollEngine;
+import org.opennms.netmgt.poller.nio.NioPollRequest;
+import org.opennms.netmgt.poller.nio.NioSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,7 +68,7 @@ import org.slf4j.LoggerFactory;
  */
 
 @Distributable
-final public class TcpMonitor extends AbstractServiceMonitor {
+final public class TcpMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
     
     
     public static final Logger LOG = LoggerFactory.getLogger(TcpMonitor.class);
@@ -170,21 +175,7 @@ final public class TcpMonitor extends AbstractServiceMonitor {
                 LOG.debug("poll: banner = {}", response);
                 LOG.debug("poll: responseTime= {}ms", responseTime);
 
-                //Could it be a regex?
-                if (strBannerMatch.charAt(0)=='~'){
-                  if (!response.matches(strBannerMatch.substring(1)))
-                    serviceStatus = PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
-                  else
-                    serviceStatus = PollStatus.available(responseTime);
-                }
-                else {
-                  if (response.indexOf(strBannerMatch) > -1) {
-                    serviceStatus = PollStatus.available(responseTime);
-                  }
-                  else {
-                    serviceStatus = PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
-                  }
-                }
+                serviceStatus = checkBanner(response, strBannerMatch, responseTime);
 
             } catch (NoRouteToHostException e) {
             	String reason = "No route to host exception for address " + hostAddress;
@@ -221,4 +212,58 @@ final public class TcpMonitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Poll the specified address for service availability without blocking,
+     * in the same way as {@link #poll(MonitoredService, Map)}.
+     */
+    @Override
+    public PollFuture pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        NetworkInterface<InetAddress> iface = svc.getNetInterface();
+
+        if (iface.getType() != NetworkInterface.TYPE_INET)
+            throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
+
+        int port = ParameterMap.getKeyedInteger(parameters, PARAMETER_PORT, DEFAULT_PORT);
+        if (port == DEFAULT_PORT) {
+            throw new RuntimeException("TcpMonitor: required parameter 'port' is not present in supplied properties.");
+        }
+
+        final String strBannerMatch = ParameterMap.getKeyedString(parameters, PARAMETER_BANNER, null);
+
+        return NioPollEngine.getInstance().poll(new NioPollRequest(iface.getAddress(), new int[] { port }, parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT) {
+            @Override
+            protected void connected(NioSession session) {
+                if (strBannerMatch == null || strBannerMatch.length() == 0 || strBannerMatch.equals("*")) {
+                    session.complete(PollStatus.available(session.elapsedTimeInMillis()));
+                }
+            }
+
+            @Override
+            protected void received(NioSession session, String response) {
+                LOG.debug("poll: banner = {}", response);
+                session.complete(checkBanner(response, strBannerMatch, session.elapsedTimeInMillis()));
+            }
+        });
+    }
+
+    private static PollStatus checkBanner(String response, String strBannerMatch, double responseTime) {
+        //Could it be a regex?
+        if (strBannerMatch.charAt(0)=='~'){
+          if (!response.matches(strBannerMatch.substring(1)))
+            return PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
+          else
+            return PollStatus.available(responseTime);
+        }
+        else {
+          if (response.indexOf(strBannerMatch) > -1) {
+            return PollStatus.available(responseTime);
+          }
+          else {
+            return PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
+          }
+        }
+    }
+
 }
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.nio;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.PollStatus;
+
+/**
+ * A request and response exchanged with a UDP service, run by the
+ * {@link NioPollEngine} without blocking a thread. The request is sent again
+ * on each retry until a response is accepted.
+ */
+public abstract class NioDatagramRequest {
+
+    private final InetAddress m_address;
+    private final int m_port;
+    private final Map<String, Object> m_parameters;
+    private final int m_defaultRetry;
+    private final int m_defaultTimeout;
+
+    /**
+     * <p>Constructor for NioDatagramRequest.</p>
+     *
+     * @param address the address of the service
+     * @param port the port of the service
+     * @param parameters the poll parameters holding the retry and timeout
+     * @param defaultRetry the retries if not given in the parameters
+     * @param defaultTimeout the timeout if not given in the parameters
+     */
+    protected NioDatagramRequest(final InetAddress address, final int port, final Map<String, Object> parameters, final int defaultRetry, final int defaultTimeout) {
+        m_address = address;
+        m_port = port;
+        m_parameters = parameters;
+        m_defaultRetry = defaultRetry;
+        m_defaultTimeout = defaultTimeout;
+    }
+
+    public InetAddress getAddress() {
+        return m_address;
+    }
+
+    public int getPort() {
+        return m_port;
+    }
+
+    TimeoutTracker createTimeoutTracker() {
+        return new TimeoutTracker(m_parameters, m_defaultRetry, m_defaultTimeout);
+    }
+
+    boolean isStrictTimeout() {
+        return ParameterMap.getKeyedBoolean(m_parameters, "strict-timeout", false);
+    }
+
+    /**
+     * Create the datagram to send for an attempt.
+     *
+     * @return the request, ready to be written
+     */
+    protected abstract ByteBuffer createRequest();
+
+    /**
+     * Called for each datagram received from the service.
+     *
+     * @param response the datagram received
+     * @param responseTime the time since the request was sent
+     * @return the status of the service, or null to keep waiting for the
+     *         response to this attempt's request
+     */
+    protected abstract PollStatus received(ByteBuffer response, double responseTime);
+
+    /**
+     * Called when no response was accepted before the retries ran out.
+     *
+     * @param tracker the retries and timeout used
+     * @return the status of the service
+     */
+    protected PollStatus noResponse(final TimeoutTracker tracker) {
+        return PollStatus.unavailable("No response received with " + tracker);
+    }
+}
@@ -0,0 +1,903 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManager;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.RelaxedX509TrustManager;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.PollFuture;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.support.DefaultPollFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@link NioPollRequest}s and {@link NioDatagramRequest}s on a single
+ * selector thread, so that the number of polls in flight is not bounded by
+ * the number of threads. The polls' listeners are called on a small pool of
+ * callback threads so they don't hold up the selector, but they should hand
+ * anything that waits, such as taking a node's tree lock, to another thread.
+ *
+ * The number of callback threads is set with the
+ * <code>org.opennms.netmgt.poller.nio.callbackThreads</code> system property.
+ */
+public class NioPollEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(NioPollEngine.class);
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static NioPollEngine s_instance;
+
+    private final Selector m_selector;
+    private final ExecutorService m_callbacks;
+    private final Thread m_selectorThread;
+    private final Queue<Runnable> m_tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final PriorityQueue<Deadline> m_deadlines = new PriorityQueue<Deadline>();
+    private volatile boolean m_running = true;
+
+    private SSLContext m_sslContext;
+
+    /**
+     * Return the engine shared by the monitors, starting it on first use.
+     *
+     * @return the shared engine
+     */
+    public static synchronized NioPollEngine getInstance() {
+        if (s_instance == null) {
+            try {
+                s_instance = new NioPollEngine(Integer.getInteger("org.opennms.netmgt.poller.nio.callbackThreads", 4));
+            } catch (final IOException e) {
+                throw new IllegalStateException("Unable to open a selector for non-blocking polls", e);
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * <p>Constructor for NioPollEngine.</p>
+     *
+     * @param callbackThreads the number of threads to call listeners on
+     * @throws IOException if the selector cannot be opened
+     */
+    public NioPollEngine(final int callbackThreads) throws IOException {
+        m_selector = Selector.open();
+        m_callbacks = Executors.newFixedThreadPool(callbackThreads, new LogPreservingThreadFactory(getClass().getSimpleName(), callbackThreads));
+        m_selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSelector();
+            }
+        }, getClass().getSimpleName() + "-Selector");
+        m_selectorThread.setDaemon(true);
+        m_selectorThread.start();
+    }
+
+    /**
+     * Stop the engine. Polls still in flight are completed as unknown.
+     */
+    public void stop() {
+        m_running = false;
+        m_selector.wakeup();
+        try {
+            m_selectorThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        m_callbacks.shutdown();
+    }
+
+    /**
+     * Start a poll of a TCP service.
+     *
+     * @param request the conversation to have with the service
+     * @return the pending status of the service
+     */
+    public PollFuture poll(final NioPollRequest request) {
+        final DefaultPollFuture future = new DefaultPollFuture();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                new StreamPoll(request, future).start();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Start a poll of a UDP service.
+     *
+     * @param request the request to send the service
+     * @return the pending status of the service
+     */
+    public PollFuture poll(final NioDatagramRequest request) {
+        final DefaultPollFuture future = new DefaultPollFuture();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                new DatagramPoll(request, future).start();
+            }
+        });
+        return future;
+    }
+
+    private void execute(final Runnable task) {
+        if (!m_running) {
+            throw new IllegalStateException("The engine has been stopped");
+        }
+        m_tasks.add(task);
+        m_selector.wakeup();
+    }
+
+    private void complete(final DefaultPollFuture future, final PollStatus status) {
+        try {
+            m_callbacks.execute(new Runnable() {
+                @Override
+                public void run() {
+                    future.setStatus(status);
+                }
+            });
+        } catch (final RuntimeException e) {
+            LOG.debug("Callback pool is shut down, completing poll on the selector thread", e);
+            future.setStatus(status);
+        }
+    }
+
+    private void runSelector() {
+        while (m_running) {
+            try {
+                m_selector.select(expireDeadlines());
+
+                Runnable task;
+                while ((task = m_tasks.poll()) != null) {
+                    runSafely(task);
+                }
+
+                for (final Iterator<SelectionKey> it = m_selector.selectedKeys().iterator(); it.hasNext();) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    final Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        attempt.ready(key);
+                    } catch (final CancelledKeyException e) {
+                        LOG.debug("Key cancelled for {}", attempt, e);
+                    } catch (final Throwable t) {
+                        attempt.failed(t);
+                    }
+                }
+            } catch (final Throwable t) {
+                LOG.warn("Unexpected exception in the selector loop", t);
+            }
+        }
+
+        for (final SelectionKey key : m_selector.keys()) {
+            ((Attempt) key.attachment()).abort();
+        }
+        Runnable task;
+        while ((task = m_tasks.poll()) != null) {
+            runSafely(task);
+        }
+        try {
+            m_selector.close();
+        } catch (final IOException e) {
+            LOG.debug("Failed to close selector", e);
+        }
+    }
+
+    private static void runSafely(final Runnable task) {
+        try {
+            task.run();
+        } catch (final Throwable t) {
+            LOG.warn("Unexpected exception running {}", task, t);
+        }
+    }
+
+    /**
+     * Run the deadlines that have passed.
+     *
+     * @return the milliseconds until the next deadline, or 0 if there is none
+     */
+    private long expireDeadlines() {
+        while (true) {
+            final Deadline deadline = m_deadlines.peek();
+            if (deadline == null) {
+                return 0;
+            }
+            final long remaining = deadline.m_nanos - System.nanoTime();
+            if (deadline.m_cancelled) {
+                m_deadlines.poll();
+            } else if (remaining <= 0) {
+                m_deadlines.poll();
+                runSafely(deadline);
+            } else {
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+            }
+        }
+    }
+
+    private Deadline schedule(final long nanos, final Runnable action) {
+        final Deadline deadline = new Deadline(nanos, action);
+        m_deadlines.add(deadline);
+        return deadline;
+    }
+
+    private synchronized SSLEngine createSslEngine(final InetSocketAddress remote) throws NoSuchAlgorithmException, KeyManagementException {
+        if (m_sslContext == null) {
+            final SSLContext context = SSLContext.getInstance("SSL");
+            context.init(null, new TrustManager[] { new RelaxedX509TrustManager() }, new SecureRandom());
+            m_sslContext = context;
+        }
+        final SSLEngine engine = m_sslContext.createSSLEngine(InetAddressUtils.str(remote.getAddress()), remote.getPort());
+        engine.setUseClientMode(true);
+        return engine;
+    }
+
+    private static final class Deadline implements Runnable, Comparable<Deadline> {
+        private final long m_nanos;
+        private final Runnable m_action;
+        private boolean m_cancelled;
+
+        private Deadline(final long nanos, final Runnable action) {
+            m_nanos = nanos;
+            m_action = action;
+        }
+
+        private void cancel() {
+            m_cancelled = true;
+        }
+
+        @Override
+        public void run() {
+            m_action.run();
+        }
+
+        @Override
+        public int compareTo(final Deadline o) {
+            return Long.signum(m_nanos - o.m_nanos);
+        }
+    }
+
+    private abstract class Attempt {
+        protected final long m_startNanos = System.nanoTime();
+        protected SelectableChannel m_channel;
+        protected SelectionKey m_key;
+        private Deadline m_deadline;
+        protected boolean m_done;
+
+        protected void setTimeout(final long millis) {
+            if (m_deadline != null) {
+                m_deadline.cancel();
+            }
+            m_deadline = schedule(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), new Runnable() {
+                @Override
+                public void run() {
+                    if (!m_done) {
+                        timedOut();
+                    }
+                }
+            });
+        }
+
+        protected double elapsedTimeInMillis() {
+            return (System.nanoTime() - m_startNanos) / 1000000.0;
+        }
+
+        protected void close() {
+            m_done = true;
+            if (m_deadline != null) {
+                m_deadline.cancel();
+            }
+            if (m_key != null) {
+                m_key.cancel();
+            }
+            if (m_channel != null) {
+                try {
+                    m_channel.close();
+                } catch (final IOException e) {
+                    LOG.debug("Failed to close channel for {}", this, e);
+                }
+            }
+        }
+
+        protected abstract void ready(SelectionKey key) throws IOException;
+
+        protected abstract void timedOut();
+
+        protected abstract void failed(Throwable t);
+
+        protected abstract void abort();
+    }
+
+    /**
+     * The attempts of a poll of a TCP service, over each of its ports.
+     */
+    private final class StreamPoll {
+        private final NioPollRequest m_request;
+        private final DefaultPollFuture m_future;
+        private final TimeoutTracker m_tracker;
+        private final int[] m_ports;
+        private int m_portIndex = 0;
+        private long m_nextAttemptNanos = 0;
+
+        private StreamPoll(final NioPollRequest request, final DefaultPollFuture future) {
+            m_request = request;
+            m_future = future;
+            m_tracker = request.createTimeoutTracker();
+            m_ports = request.getPorts();
+        }
+
+        private void start() {
+            m_tracker.reset();
+            attempt();
+        }
+
+        private void attempt() {
+            // with strict timeouts an attempt may not start before the
+            // previous one would have timed out
+            final long now = System.nanoTime();
+            if (now < m_nextAttemptNanos) {
+                schedule(m_nextAttemptNanos, new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt();
+                    }
+                });
+                return;
+            }
+            if (m_request.isStrictTimeout()) {
+                m_nextAttemptNanos = now + TimeUnit.MILLISECONDS.toNanos(m_tracker.getTimeoutInMillis());
+            }
+            new StreamAttempt(this, new InetSocketAddress(m_request.getAddress(), m_ports[m_portIndex])).open();
+        }
+
+        private void attemptFinished(final PollStatus status, final boolean mayRetry) {
+            if (!status.isAvailable() && mayRetry) {
+                m_tracker.nextAttempt();
+                if (m_tracker.shouldRetry()) {
+                    attempt();
+                    return;
+                }
+                if (++m_portIndex < m_ports.length) {
+                    m_tracker.reset();
+                    m_nextAttemptNanos = 0;
+                    attempt();
+                    return;
+                }
+            }
+            PollStatus result;
+            try {
+                result = m_request.finished(status);
+            } catch (final Throwable t) {
+                LOG.warn("Unexpected exception finishing poll {}", m_request, t);
+                result = PollStatus.unavailable("Unexpected exception while polling: " + t);
+            }
+            complete(m_future, result);
+        }
+
+        private void abort() {
+            complete(m_future, PollStatus.unknown("The poll engine was stopped"));
+        }
+    }
+
+    /**
+     * One connection to a TCP service, speaking TLS if the request asks for
+     * it.
+     */
+    private final class StreamAttempt extends Attempt implements NioSession {
+        private final StreamPoll m_poll;
+        private final InetSocketAddress m_remote;
+        private final StringBuilder m_line = new StringBuilder();
+        private ByteBuffer m_appIn = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private ByteBuffer m_appOut = ByteBuffer.allocate(256);
+        private boolean m_connected;
+
+        private SSLEngine m_ssl;
+        private ByteBuffer m_netIn;
+        private ByteBuffer m_netOut;
+        private boolean m_handshaken;
+
+        private StreamAttempt(final StreamPoll poll, final InetSocketAddress remote) {
+            m_poll = poll;
+            m_remote = remote;
+        }
+
+        private void open() {
+            try {
+                final SocketChannel channel = SocketChannel.open();
+                m_channel = channel;
+                channel.configureBlocking(false);
+                setTimeout(m_poll.m_tracker.getConnectionTimeout());
+                if (channel.connect(m_remote)) {
+                    m_key = channel.register(m_selector, SelectionKey.OP_READ, this);
+                    connected();
+                } else {
+                    m_key = channel.register(m_selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (final Throwable t) {
+                failed(t);
+            }
+        }
+
+        @Override
+        protected void ready(final SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                if (((SocketChannel) m_channel).finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    connected();
+                }
+                return;
+            }
+            if (key.isWritable()) {
+                flush();
+            }
+            if (!m_done && key.isReadable()) {
+                read();
+            }
+        }
+
+        private void connected() throws IOException {
+            LOG.debug("Connected to {} for {}", m_remote, m_poll.m_request);
+            setTimeout(m_poll.m_tracker.getSoTimeout());
+            if (m_poll.m_request.isSecure()) {
+                try {
+                    m_ssl = createSslEngine(m_remote);
+                } catch (final Exception e) {
+                    throw new SSLException("Unable to create an SSL engine", e);
+                }
+                m_netIn = ByteBuffer.allocate(m_ssl.getSession().getPacketBufferSize());
+                m_netOut = ByteBuffer.allocate(m_ssl.getSession().getPacketBufferSize());
+                m_netOut.flip();
+                m_appIn = ByteBuffer.allocate(m_ssl.getSession().getApplicationBufferSize());
+                m_ssl.beginHandshake();
+                pumpSsl();
+            } else {
+                startConversation();
+            }
+        }
+
+        private void startConversation() throws IOException {
+            m_connected = true;
+            m_poll.m_request.connected(this);
+            if (!m_done) {
+                flush();
+            }
+        }
+
+        private void read() throws IOException {
+            final SocketChannel channel = (SocketChannel) m_channel;
+            final int count = channel.read(m_ssl == null ? m_appIn : m_netIn);
+            if (count < 0) {
+                if (m_ssl != null) {
+                    try {
+                        m_ssl.closeInbound();
+                    } catch (final SSLException e) {
+                        LOG.debug("Connection to {} closed without TLS close_notify", m_remote);
+                    }
+                }
+                endOfStream();
+                return;
+            }
+            if (count > 0) {
+                setTimeout(m_poll.m_tracker.getSoTimeout());
+            }
+            if (m_ssl == null) {
+                deliverLines();
+            } else {
+                pumpSsl();
+            }
+        }
+
+        private void flush() throws IOException {
+            final SocketChannel channel = (SocketChannel) m_channel;
+            if (m_ssl != null) {
+                pumpSsl();
+                return;
+            }
+            m_appOut.flip();
+            channel.write(m_appOut);
+            final boolean pending = m_appOut.hasRemaining();
+            m_appOut.compact();
+            setInterest(pending);
+        }
+
+        private void setInterest(final boolean write) {
+            m_key.interestOps(write ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        /**
+         * Move data through the SSL engine as far as the channel allows,
+         * running the handshake first.
+         */
+        private void pumpSsl() throws IOException {
+            final SocketChannel channel = (SocketChannel) m_channel;
+            while (!m_done) {
+                if (m_netOut.hasRemaining()) {
+                    channel.write(m_netOut);
+                    if (m_netOut.hasRemaining()) {
+                        setInterest(true);
+                        return;
+                    }
+                }
+                setInterest(false);
+
+                switch (m_ssl.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = m_ssl.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                case NEED_UNWRAP:
+                    if (!unwrap()) {
+                        return;
+                    }
+                    break;
+                default:
+                    if (!m_handshaken) {
+                        m_handshaken = true;
+                        startConversation();
+                    } else if (m_appOut.position() > 0) {
+                        m_appOut.flip();
+                        wrap(m_appOut);
+                        m_appOut.compact();
+                    } else if (m_netIn.position() == 0 || !unwrap()) {
+                        return;
+                    }
+                    break;
+                }
+            }
+        }
+
+        private void wrap(final ByteBuffer src) throws IOException {
+            m_netOut.clear();
+            final SSLEngineResult result = m_ssl.wrap(src, m_netOut);
+            m_netOut.flip();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                endOfStream();
+            }
+        }
+
+        /**
+         * @return true if the engine made progress
+         */
+        private boolean unwrap() throws IOException {
+            m_netIn.flip();
+            final SSLEngineResult result = m_ssl.unwrap(m_netIn, m_appIn);
+            m_netIn.compact();
+            switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                final ByteBuffer larger = ByteBuffer.allocate(m_appIn.capacity() * 2);
+                m_appIn.flip();
+                larger.put(m_appIn);
+                m_appIn = larger;
+                return true;
+            case BUFFER_UNDERFLOW:
+                if (!m_netIn.hasRemaining()) {
+                    final ByteBuffer largerNet = ByteBuffer.allocate(m_netIn.capacity() * 2);
+                    m_netIn.flip();
+                    largerNet.put(m_netIn);
+                    m_netIn = largerNet;
+                }
+                return false;
+            case CLOSED:
+                deliverLines();
+                endOfStream();
+                return false;
+            default:
+                if (result.bytesProduced() > 0) {
+                    deliverLines();
+                }
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+        }
+
+        private void deliverLines() {
+            m_appIn.flip();
+            while (!m_done && m_appIn.hasRemaining()) {
+                final char c = (char) (m_appIn.get() & 0xff);
+                if (c == '\n') {
+                    deliverLine();
+                } else {
+                    m_line.append(c);
+                }
+            }
+            m_appIn.compact();
+        }
+
+        private void deliverLine() {
+            int length = m_line.length();
+            if (length > 0 && m_line.charAt(length - 1) == '\r') {
+                length--;
+            }
+            final String line = m_line.substring(0, length);
+            m_line.setLength(0);
+            m_poll.m_request.received(this, line);
+        }
+
+        private void endOfStream() {
+            if (m_done) {
+                return;
+            }
+            if (m_line.length() > 0) {
+                deliverLine();
+            }
+            if (!m_done) {
+                m_poll.m_request.closed(this);
+            }
+            if (!m_done) {
+                complete(PollStatus.unavailable("Connection closed by " + m_remote));
+            }
+        }
+
+        @Override
+        protected void timedOut() {
+            if (m_connected) {
+                finish(PollStatus.unavailable("Did not receive expected response within timeout " + m_poll.m_tracker), true);
+            } else {
+                finish(PollStatus.unavailable("did not connect to host with " + m_poll.m_tracker), true);
+            }
+        }
+
+        @Override
+        protected void failed(final Throwable t) {
+            if (m_done) {
+                return;
+            }
+            if (t instanceof NoRouteToHostException) {
+                LOG.debug("No route to host {}", m_remote, t);
+                finish(PollStatus.unavailable("No route to host exception for address " + InetAddressUtils.str(m_remote.getAddress())), false);
+            } else if (t instanceof IOException) {
+                LOG.debug("Exception while polling {}", m_remote, t);
+                final String reason = m_connected ? "IOException while polling address: " : "Connection exception for address: ";
+                finish(PollStatus.unavailable(reason + InetAddressUtils.str(m_remote.getAddress()) + ": " + t.getMessage()), true);
+            } else {
+                LOG.warn("Unexpected exception while polling {}", m_remote, t);
+                finish(PollStatus.unavailable("Unexpected exception while polling address: " + InetAddressUtils.str(m_remote.getAddress()) + ": " + t), true);
+            }
+        }
+
+        @Override
+        protected void abort() {
+            if (!m_done) {
+                close();
+                m_poll.abort();
+            }
+        }
+
+        private void finish(final PollStatus status, final boolean mayRetry) {
+            if (m_done) {
+                return;
+            }
+            // give a parting command such as QUIT a chance to go out
+            if (m_connected && m_ssl == null && m_appOut.position() > 0) {
+                try {
+                    m_appOut.flip();
+                    ((SocketChannel) m_channel).write(m_appOut);
+                } catch (final IOException e) {
+                    LOG.debug("Failed to send the remaining data to {}", m_remote, e);
+                }
+            }
+            close();
+            m_poll.attemptFinished(status, mayRetry);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return m_remote;
+        }
+
+        @Override
+        public double elapsedTimeInMillis() {
+            return super.elapsedTimeInMillis();
+        }
+
+        @Override
+        public void send(final String data) {
+            final byte[] bytes = data.getBytes(ISO_8859_1);
+            if (m_appOut.remaining() < bytes.length) {
+                final ByteBuffer larger = ByteBuffer.allocate(m_appOut.position() + bytes.length);
+                m_appOut.flip();
+                larger.put(m_appOut);
+                m_appOut = larger;
+            }
+            m_appOut.put(bytes);
+            // flushed once the request's callback returns
+            if (m_key != null && m_key.isValid() && m_connected) {
+                setInterest(true);
+            }
+        }
+
+        @Override
+        public void complete(final PollStatus status) {
+            finish(status, true);
+        }
+
+        @Override
+        public String toString() {
+            return "StreamAttempt [" + m_remote + " for " + m_poll.m_request + "]";
+        }
+    }
+
+    /**
+     * The attempts of a poll of a UDP service.
+     */
+    private final class DatagramPoll extends Attempt {
+        private final NioDatagramRequest m_request;
+        private final DefaultPollFuture m_future;
+        private final TimeoutTracker m_tracker;
+        private final ByteBuffer m_response = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        private long m_sentNanos;
+        private long m_nextAttemptNanos = 0;
+
+        private DatagramPoll(final NioDatagramRequest request, final DefaultPollFuture future) {
+            m_request = request;
+            m_future = future;
+            m_tracker = request.createTimeoutTracker();
+        }
+
+        private void start() {
+            try {
+                final DatagramChannel channel = DatagramChannel.open();
+                m_channel = channel;
+                channel.configureBlocking(false);
+                channel.connect(new InetSocketAddress(m_request.getAddress(), m_request.getPort()));
+                m_key = channel.register(m_selector, SelectionKey.OP_READ, this);
+                m_tracker.reset();
+                attempt();
+            } catch (final Throwable t) {
+                failed(t);
+            }
+        }
+
+        private void attempt() {
+            final long now = System.nanoTime();
+            if (now < m_nextAttemptNanos) {
+                schedule(m_nextAttemptNanos, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!m_done) {
+                            attempt();
+                        }
+                    }
+                });
+                return;
+            }
+            if (m_request.isStrictTimeout()) {
+                m_nextAttemptNanos = now + TimeUnit.MILLISECONDS.toNanos(m_tracker.getTimeoutInMillis());
+            }
+            try {
+                m_sentNanos = System.nanoTime();
+                ((DatagramChannel) m_channel).write(m_request.createRequest());
+                setTimeout(m_tracker.getSoTimeout());
+            } catch (final Throwable t) {
+                failed(t);
+            }
+        }
+
+        @Override
+        protected void ready(final SelectionKey key) throws IOException {
+            while (!m_done) {
+                m_response.clear();
+                if (((DatagramChannel) m_channel).read(m_response) <= 0) {
+                    return;
+                }
+                m_response.flip();
+                final PollStatus status = m_request.received(m_response, (System.nanoTime() - m_sentNanos) / 1000000.0);
+                if (status != null) {
+                    finish(status);
+                }
+            }
+        }
+
+        @Override
+        protected void timedOut() {
+            m_tracker.nextAttempt();
+            if (m_tracker.shouldRetry()) {
+                attempt();
+            } else {
+                finish(m_request.noResponse(m_tracker));
+            }
+        }
+
+        @Override
+        protected void failed(final Throwable t) {
+            if (m_done) {
+                return;
+            }
+            final String addr = InetAddressUtils.str(m_request.getAddress());
+            if (t instanceof NoRouteToHostException) {
+                finish(PollStatus.unavailable("No route to host exception for address: " + addr));
+            } else if (t instanceof IOException) {
+                LOG.debug("Exception while polling {}", addr, t);
+                finish(PollStatus.unavailable("IOException while polling address: " + addr + " " + t.getMessage()));
+            } else {
+                LOG.warn("Unexpected exception while polling {}", addr, t);
+                finish(PollStatus.unavailable("Unexpected exception while polling address: " + addr + ": " + t));
+            }
+        }
+
+        @Override
+        protected void abort() {
+            if (!m_done) {
+                close();
+                complete(m_future, PollStatus.unknown("The poll engine was stopped"));
+            }
+        }
+
+        private void finish(final PollStatus status) {
+            if (m_done) {
+                return;
+            }
+            close();
+            complete(m_future, status);
+        }
+
+        @Override
+        public String toString() {
+            return "DatagramPoll [" + m_request + "]";
+        }
+    }
+}
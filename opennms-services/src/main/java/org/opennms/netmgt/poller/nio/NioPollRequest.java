@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.nio;
+
+import java.net.InetAddress;
+import java.util.Map;
+
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.PollStatus;
+
+/**
+ * A line oriented conversation with a TCP service, run by the
+ * {@link NioPollEngine} without blocking a thread.
+ *
+ * Each port is tried in turn, with the retries and timeout of the poll
+ * parameters, until the service is found available. The timeout applies to
+ * connecting and then to each wait for data. The attempts of a request never
+ * overlap, so a request may keep the state of the current attempt in its
+ * fields, resetting it in {@link #connected(NioSession)}.
+ */
+public abstract class NioPollRequest {
+
+    private final InetAddress m_address;
+    private final int[] m_ports;
+    private final Map<String, Object> m_parameters;
+    private final int m_defaultRetry;
+    private final int m_defaultTimeout;
+
+    /**
+     * <p>Constructor for NioPollRequest.</p>
+     *
+     * @param address the address of the service
+     * @param ports the ports to try, in order
+     * @param parameters the poll parameters holding the retry and timeout
+     * @param defaultRetry the retries if not given in the parameters
+     * @param defaultTimeout the timeout if not given in the parameters
+     */
+    protected NioPollRequest(final InetAddress address, final int[] ports, final Map<String, Object> parameters, final int defaultRetry, final int defaultTimeout) {
+        if (ports == null || ports.length == 0) {
+            throw new IllegalArgumentException("at least one port is required");
+        }
+        m_address = address;
+        m_ports = ports.clone();
+        m_parameters = parameters;
+        m_defaultRetry = defaultRetry;
+        m_defaultTimeout = defaultTimeout;
+    }
+
+    public InetAddress getAddress() {
+        return m_address;
+    }
+
+    public int[] getPorts() {
+        return m_ports.clone();
+    }
+
+    TimeoutTracker createTimeoutTracker() {
+        return new TimeoutTracker(m_parameters, m_defaultRetry, m_defaultTimeout);
+    }
+
+    boolean isStrictTimeout() {
+        return ParameterMap.getKeyedBoolean(m_parameters, "strict-timeout", false);
+    }
+
+    /**
+     * Whether to speak TLS to the service, trusting any certificate as the
+     * blocking monitors do.
+     *
+     * @return true for TLS
+     */
+    public boolean isSecure() {
+        return false;
+    }
+
+    /**
+     * Called once connected, and for TLS after the handshake. Services that
+     * speak first will answer with {@link #received(NioSession, String)}.
+     *
+     * @param session the current attempt
+     */
+    protected abstract void connected(NioSession session);
+
+    /**
+     * Called for each line received, without its line terminator.
+     *
+     * @param session the current attempt
+     * @param line the line received
+     */
+    protected abstract void received(NioSession session, String line);
+
+    /**
+     * Called when the service closes the connection before the attempt was
+     * completed.
+     *
+     * @param session the current attempt
+     */
+    protected void closed(final NioSession session) {
+        session.complete(PollStatus.unavailable("Connection closed by " + session.getRemoteAddress()));
+    }
+
+    /**
+     * Called with the final status of the poll, before it is handed to the
+     * poll's listeners.
+     *
+     * @param status the final status
+     * @return the status to complete the poll with
+     */
+    protected PollStatus finished(final PollStatus status) {
+        return status;
+    }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.nio;
+
+import java.net.InetSocketAddress;
+
+import org.opennms.netmgt.poller.PollStatus;
+
+/**
+ * One attempt of a {@link NioPollRequest}, as seen by the request. All
+ * methods must be called from the request's callbacks.
+ */
+public interface NioSession {
+
+    /**
+     * <p>getRemoteAddress</p>
+     *
+     * @return the address and port this attempt connected to
+     */
+    InetSocketAddress getRemoteAddress();
+
+    /**
+     * <p>elapsedTimeInMillis</p>
+     *
+     * @return the time since this attempt started to connect
+     */
+    double elapsedTimeInMillis();
+
+    /**
+     * Queue data to be sent to the service, encoded as ISO-8859-1.
+     *
+     * @param data the data to send
+     */
+    void send(String data);
+
+    /**
+     * End this attempt. If the status is not available and there are
+     * retries left, another attempt is made.
+     *
+     * @param status the status of the service
+     */
+    void complete(PollStatus status);
+}
@@ -43,9 +43,13 @@ import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.config.PollerConfig;
 import org.opennms.netmgt.config.poller.Package;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollFuture;
+import org.opennms.netmgt.poller.PollFutureListener;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
+import org.opennms.netmgt.poller.support.DefaultPollFuture;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdRepository;
@@ -62,7 +66,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @author <a href="mailto:ranger@opennms.org">Ben Reed</a>
  */
-public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitor {
+public class LatencyStoringServiceMonitorAdaptor implements AsyncServiceMonitor {
 
     
     private static final Logger LOG = LoggerFactory.getLogger(LatencyStoringServiceMonitorAdaptor.class);
@@ -108,8 +112,47 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitor {
     /** {@inheritDoc} */
     @Override
     public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
-        PollStatus status = m_serviceMonitor.poll(svc, parameters);
+        return handlePollResult(svc, parameters, m_serviceMonitor.poll(svc, parameters));
+    }
+
+    /**
+     * Whether the adapted monitor can poll without blocking.
+     *
+     * @return true if {@link #pollAsync(MonitoredService, Map)} does not block
+     */
+    public boolean isAsync() {
+        return m_serviceMonitor instanceof AsyncServiceMonitor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the adapted monitor cannot poll without blocking, the poll is run
+     * on the calling thread. The response time is stored by the thread that
+     * completes the poll.
+     */
+    @Override
+    public PollFuture pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        if (!isAsync()) {
+            return DefaultPollFuture.completed(poll(svc, parameters));
+        }
+
+        final DefaultPollFuture result = new DefaultPollFuture();
+        ((AsyncServiceMonitor) m_serviceMonitor).pollAsync(svc, parameters).addListener(new PollFutureListener() {
+            @Override
+            public void operationComplete(PollFuture future) {
+                try {
+                    result.setStatus(handlePollResult(svc, parameters, future.getStatus()));
+                } catch (Throwable e) {
+                    LOG.error("Unexpected exception while completing poll of {}", svc, e);
+                    result.setStatus(future.getStatus());
+                }
+            }
+        });
+        return result;
+    }
 
+    private PollStatus handlePollResult(MonitoredService svc, Map<String, Object> parameters, PollStatus status) {
         if (!status.getProperties().isEmpty()) {
             storeResponseTime(svc, new LinkedHashMap<String, Number>(status.getProperties()), parameters);
         }
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.pollables;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often and for how long threads waited for the tree locks of
+ * the nodes in a {@link PollableNetwork}.
+ */
+public class LockStatistics {
+
+    private final AtomicLong m_obtained = new AtomicLong();
+    private final AtomicLong m_contended = new AtomicLong();
+    private final AtomicLong m_waitNanos = new AtomicLong();
+    private final AtomicLong m_maxWaitNanos = new AtomicLong();
+
+    /**
+     * Record that a lock was obtained.
+     *
+     * @param waitNanos how long the thread waited for it, 0 if the lock was
+     *        free
+     */
+    public void lockObtained(final long waitNanos) {
+        m_obtained.incrementAndGet();
+        if (waitNanos <= 0) {
+            return;
+        }
+        m_contended.incrementAndGet();
+        m_waitNanos.addAndGet(waitNanos);
+        long max = m_maxWaitNanos.get();
+        while (waitNanos > max && !m_maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = m_maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * @return the number of times a lock was obtained
+     */
+    public long getObtainedCount() {
+        return m_obtained.get();
+    }
+
+    /**
+     * @return the number of times a thread had to wait for a lock
+     */
+    public long getContendedCount() {
+        return m_contended.get();
+    }
+
+    /**
+     * @return the total time threads waited for locks, in milliseconds
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_waitNanos.get());
+    }
+
+    /**
+     * @return the longest time a thread waited for a lock, in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_maxWaitNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "LockStatistics [obtained=" + getObtainedCount() + ", contended=" + getContendedCount() + ", waitTime=" + getWaitTime() + "ms, maxWaitTime=" + getMaxWaitTime() + "ms]";
+    }
+}
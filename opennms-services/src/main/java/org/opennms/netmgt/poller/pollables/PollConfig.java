@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.poller.pollables;
 
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.scheduler.Timer;
 
@@ -47,6 +48,14 @@ public interface PollConfig extends Timer {
      */
     public PollStatus poll();
 
+    /**
+     * Start a poll that completes without holding the calling thread.
+     *
+     * @return the pending poll, or null if the service must be polled with
+     *         {@link #poll()}
+     */
+    public PollFuture pollAsync();
+
     /**
      * <p>getCurrentTime</p>
      *
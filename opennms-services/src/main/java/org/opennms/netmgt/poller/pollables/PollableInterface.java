@@ -219,12 +219,23 @@ public class PollableInterface extends PollableContainer {
     /** {@inheritDoc} */
     @Override
     protected PollStatus poll(PollableElement elem) {
-        PollableService critSvc = getCriticalService();
-        if (getStatus().isUp() || critSvc == null || elem == critSvc)
+        if (isPollingMember(elem))
             return super.poll(elem);
     
         return PollStatus.down();
     }
+
+    /**
+     * Whether {@link #poll(PollableElement)} polls the given member, rather
+     * than answering for it because the interface is down.
+     *
+     * @param elem a member of this interface
+     * @return true if the member is polled
+     */
+    boolean isPollingMember(PollableElement elem) {
+        PollableService critSvc = getCriticalService();
+        return getStatus().isUp() || critSvc == null || elem == critSvc;
+    }
     
     /** {@inheritDoc} */
     @Override
@@ -50,6 +50,7 @@ public class PollableNetwork extends PollableContainer {
     private static final Logger LOG = LoggerFactory.getLogger(PollableNetwork.class);
 
     private final PollContext m_context;
+    private final LockStatistics m_lockStatistics = new LockStatistics();
 
     /**
      * <p>Constructor for PollableNetwork.</p>
@@ -71,6 +72,15 @@ public class PollableNetwork extends PollableContainer {
         return m_context;
     }
 
+    /**
+     * <p>getLockStatistics</p>
+     *
+     * @return the waits for the tree locks of this network's nodes
+     */
+    public LockStatistics getLockStatistics() {
+        return m_lockStatistics;
+    }
+
     /**
      * <p>createNode</p>
      *
@@ -32,6 +32,8 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,66 +52,80 @@ public class PollableNode extends PollableContainer {
     private static final Logger LOG = LoggerFactory.getLogger(PollableNode.class);
 
     /**
-     * Represents a Lock 
+     * Represents a Lock. The time threads spend waiting for it is added to
+     * the network's {@link LockStatistics}.
      *
      * @author brozow
      */
     public class Lock {
-        private Thread m_owner = null;
-        private int m_obtainCount = 0;
-        
-        public synchronized void obtain() {
-            
-            if (m_owner != Thread.currentThread()) {
-                LOG.debug("Trying to obtain lock for {}", PollableNode.this);
-                while (m_owner != null) {
-                    try { wait();} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
-                }
-                m_owner = Thread.currentThread();
-                LOG.debug("Obtained lock for {}", PollableNode.this);
-            }
-            m_obtainCount++;
+        private final ReentrantLock m_lock = new ReentrantLock();
+
+        public void obtain() {
+            obtain(0);
         }
-        
-        public synchronized void obtain(long timeout) {
-            
-            if (m_owner != Thread.currentThread()) {
-                LOG.debug("Trying to obtain lock for {}", PollableNode.this);
-                long now = System.currentTimeMillis();
-                long endTime = (timeout == 0 ? Long.MAX_VALUE : now+timeout);
-                while (m_owner != null) {
-                    try { wait(endTime-now);} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
-                    now = System.currentTimeMillis();
-                    if (m_owner != null && now >= endTime) {
-                        throw new LockUnavailable("Unable to obtain lock for "+PollableNode.this+" before timeout");
-                    }
+
+        public void obtain(long timeout) {
+            if (m_lock.tryLock()) {
+                lockObtained(0);
+                return;
+            }
+
+            LOG.debug("Trying to obtain lock for {}", PollableNode.this);
+            final long start = System.nanoTime();
+            try {
+                if (timeout == 0) {
+                    m_lock.lockInterruptibly();
+                } else if (!m_lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+                    lockWaited(System.nanoTime() - start, false);
+                    throw new LockUnavailable("Unable to obtain lock for "+PollableNode.this+" before timeout");
                 }
-                m_owner = Thread.currentThread();
-                LOG.debug("Obtained lock for {}", PollableNode.this);
+            } catch (InterruptedException e) {
+                throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);
             }
-            m_obtainCount++;
+            lockWaited(System.nanoTime() - start, true);
+            LOG.debug("Obtained lock for {}", PollableNode.this);
         }
-        
-        public synchronized void release() {
-            if (m_owner == Thread.currentThread()) {
-                m_obtainCount--;
-                if (m_obtainCount == 0) {
+
+        public void release() {
+            if (m_lock.isHeldByCurrentThread()) {
+                if (m_lock.getHoldCount() == 1) {
                     LOG.debug("Releasing lock for {}", PollableNode.this);
-                    m_owner = null;
-                    notifyAll();
                 }
+                m_lock.unlock();
             }
         }
 
         /**
          * @return
          */
-        public synchronized boolean isLockAvailable() {
-            return m_owner == null;
+        public boolean isLockAvailable() {
+            return !m_lock.isLocked();
+        }
+
+        private void lockWaited(long waitNanos, boolean obtained) {
+            final long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+            if (waitMillis >= LOCK_WAIT_WARNING_MILLIS) {
+                LOG.info("Waited {}ms for lock of {}{}", waitMillis, PollableNode.this, (obtained ? "" : " without obtaining it"));
+            }
+            if (obtained) {
+                lockObtained(Math.max(1, waitNanos));
+            }
+        }
+
+        private void lockObtained(long waitNanos) {
+            final PollableNetwork network = getNetwork();
+            if (network != null) {
+                network.getLockStatistics().lockObtained(waitNanos);
+            }
         }
 
     }
-    
+
+    /**
+     * Waits of at least this long for a node's lock are logged.
+     */
+    private static final long LOCK_WAIT_WARNING_MILLIS = 1000;
+
     private final int m_nodeId;
     private String m_nodeLabel;
     private final Lock m_lock = new Lock();
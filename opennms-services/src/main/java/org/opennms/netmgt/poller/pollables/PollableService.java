@@ -31,12 +31,16 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.poller.InetNetworkInterface;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
+import org.opennms.netmgt.poller.PollFuture;
+import org.opennms.netmgt.poller.PollFutureListener;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.scheduler.PostponeNecessary;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
@@ -54,6 +58,30 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
+    /**
+     * The age, in milliseconds, after which a status that was polled outside
+     * the tree lock is no longer used.  A postponed run is retried after 5 to
+     * 14 seconds, so a status survives about one postponement.
+     */
+    static final long MAX_PENDING_POLL_STATUS_AGE = 20000L;
+
+    /**
+     * A status that was polled outside the tree lock, and when it was polled.
+     */
+    private static final class PendingPollStatus {
+        private final PollStatus m_status;
+        private final long m_polledAt;
+
+        public PendingPollStatus(final PollStatus status, final long polledAt) {
+            m_status = status;
+            m_polledAt = polledAt;
+        }
+
+        public boolean isStale(final long now) {
+            return now - m_polledAt > MAX_PENDING_POLL_STATUS_AGE;
+        }
+    }
+
     private final class PollRunner implements Runnable {
     	
     	private volatile PollStatus m_pollStatus;
@@ -75,6 +103,8 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+    private final AtomicBoolean m_asyncPollPending = new AtomicBoolean(false);
+    private final AtomicReference<PendingPollStatus> m_pendingPollStatus = new AtomicReference<PendingPollStatus>();
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -174,9 +204,9 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     /**
      * <p>setPollConfig</p>
      *
-     * @param pollConfig a {@link org.opennms.netmgt.poller.pollables.PollableServiceConfig} object.
+     * @param pollConfig a {@link org.opennms.netmgt.poller.pollables.PollConfig} object.
      */
-    public void setPollConfig(PollableServiceConfig pollConfig) {
+    public void setPollConfig(PollConfig pollConfig) {
         m_pollConfig = pollConfig;
     }
 
@@ -187,7 +217,13 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        final PendingPollStatus pending = m_pendingPollStatus.getAndSet(null);
+        PollStatus newStatus;
+        if (pending == null || pending.isStale(m_pollConfig.getCurrentTime())) {
+            newStatus = m_pollConfig.poll();
+        } else {
+            newStatus = pending.m_status;
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -384,7 +420,83 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public void run() {
-        doRun(500);
+        if (!startAsyncPoll()) {
+            doRun(500);
+        }
+    }
+
+    /**
+     * Start a poll that does not hold the scheduler's thread. When the poll
+     * completes, processing the status change is handed back to the
+     * scheduler, as {@link #doRun()} would have done it.
+     *
+     * @return false if the service must be polled on this thread
+     */
+    private boolean startAsyncPoll() {
+        if (!isPolledDirectly()) {
+            return false;
+        }
+        if (!m_asyncPollPending.compareAndSet(false, true)) {
+            LOG.debug("Skipping scheduled poll of service {}, the previous poll has not completed", this);
+            return true;
+        }
+
+        final PollFuture future = m_pollConfig.pollAsync();
+        if (future == null) {
+            m_asyncPollPending.set(false);
+            return false;
+        }
+
+        future.addListener(new PollFutureListener() {
+            @Override
+            public void operationComplete(PollFuture f) {
+                m_pendingPollStatus.set(new PendingPollStatus(f.getStatus(), m_pollConfig.getCurrentTime()));
+                // the completing thread belongs to the poll engine, which has only a few of
+                // them, so it must not wait for the tree lock
+                final Schedule schedule = getSchedule();
+                if (schedule == null) {
+                    new AsyncPollCompletion().run();
+                } else {
+                    schedule.runOnce(new AsyncPollCompletion());
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Processes the status of a completed asynchronous poll on a scheduler
+     * thread.  If the tree lock is not available in time it is postponed,
+     * keeping the polled status, just like a regular poll.
+     */
+    private final class AsyncPollCompletion implements ReadyRunnable {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                doRun(500);
+            } catch (PostponeNecessary e) {
+                final Schedule schedule = getSchedule();
+                if (schedule != null) {
+                    schedule.postpone(this);
+                    return;
+                }
+                LOG.info("Dropping poll of service {}, the tree lock is not available", PollableService.this);
+            } catch (Throwable e) {
+                LOG.error("Unexpected exception while processing poll of service {}", PollableService.this, e);
+            }
+            m_pendingPollStatus.set(null);
+            m_asyncPollPending.set(false);
+        }
+
+        @Override
+        public String toString() {
+            return "AsyncPollCompletion for " + PollableService.this;
+        }
     }
     
     /**
@@ -402,11 +514,19 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         PollStatus status;
         if (getContext().isNodeProcessingEnabled()) {
             PollRunner r = new PollRunner();
+            boolean postponed = false;
             try {
+                pollOutsideTreeLock();
                 withTreeLock(r, timeout);
             } catch (LockUnavailable e) {
+                // the status polled outside the lock is kept for the postponed run
+                postponed = true;
                 LOG.info("Postponing poll for {}", this, e);
                 throw new PostponeNecessary("LockUnavailable postpone poll");
+            } finally {
+                if (!postponed) {
+                    m_pendingPollStatus.set(null);
+                }
             }
             status = r.getPollStatus();
         }
@@ -419,6 +539,34 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         return status;
     }
 
+    /**
+     * Poll the monitor before the node's tree lock is taken, so that the
+     * services of a node are polled in parallel and the lock is only held
+     * while the status is rolled up to the interface and node.
+     */
+    private void pollOutsideTreeLock() {
+        if (!isPolledDirectly()) {
+            return;
+        }
+        final PendingPollStatus pending = m_pendingPollStatus.get();
+        if (pending != null) {
+            if (!pending.isStale(m_pollConfig.getCurrentTime())) {
+                return;
+            }
+            LOG.debug("Discarding the status of service {} polled at {}, it waited too long for the tree lock", this, new Date(pending.m_polledAt));
+        }
+        final PollStatus status = m_pollConfig.poll();
+        m_pendingPollStatus.compareAndSet(pending, new PendingPollStatus(status, m_pollConfig.getCurrentTime()));
+    }
+
+    /**
+     * @return false if a poll of this service is answered by its interface
+     *         without polling the monitor
+     */
+    private boolean isPolledDirectly() {
+        return !getContext().isNodeProcessingEnabled() || getInterface().isPollingMember(this);
+    }
+
 	/**
      * <p>delete</p>
      */
@@ -438,10 +586,20 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      * <p>schedule</p>
      */
     public void schedule() {
+        schedule(0);
+    }
+
+    /**
+     * Schedules the first poll of this service <code>initialDelay</code>
+     * milliseconds from now.
+     *
+     * @param initialDelay a long.
+     */
+    public void schedule(long initialDelay) {
         if (m_schedule == null)
             throw new IllegalStateException("Cannot schedule a service whose schedule is set to null");
         
-        m_schedule.schedule();
+        m_schedule.schedule(initialDelay);
     }
 
     /**
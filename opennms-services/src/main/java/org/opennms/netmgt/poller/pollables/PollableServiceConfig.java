@@ -38,8 +38,10 @@ import org.opennms.netmgt.config.poller.Downtime;
 import org.opennms.netmgt.config.poller.Package;
 import org.opennms.netmgt.config.poller.Parameter;
 import org.opennms.netmgt.config.poller.Service;
+import org.opennms.netmgt.poller.PollFuture;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
+import org.opennms.netmgt.poller.support.DefaultPollFuture;
 import org.opennms.netmgt.scheduler.ScheduleInterval;
 import org.opennms.netmgt.scheduler.Timer;
 import org.slf4j.Logger;
@@ -54,6 +56,14 @@ import org.slf4j.LoggerFactory;
 public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     private static final Logger LOG = LoggerFactory.getLogger(PollableServiceConfig.class);
 
+    /**
+     * Set this system property to false to poll every service on a poller
+     * thread, even if its monitor can poll without blocking.
+     */
+    public static final String ASYNC_POLLING_PROPERTY = "org.opennms.netmgt.poller.async";
+
+    private static final boolean ASYNC_POLLING = Boolean.parseBoolean(System.getProperty(ASYNC_POLLING_PROPERTY, "true"));
+
     private PollerConfig m_pollerConfig;
     private PollOutagesConfig m_pollOutagesConfig;
     private PollableService m_service;
@@ -122,6 +132,32 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
         }
     }
 
+    /**
+     * <p>pollAsync</p>
+     *
+     * @return the pending poll, or null if the monitor can only poll on the
+     *         calling thread
+     */
+    @Override
+    public PollFuture pollAsync() {
+        ServiceMonitor monitor = getServiceMonitor();
+        if (!ASYNC_POLLING || !(monitor instanceof LatencyStoringServiceMonitorAdaptor) || !((LatencyStoringServiceMonitorAdaptor)monitor).isAsync()) {
+            return null;
+        }
+
+        String packageName = null;
+        synchronized(this) {
+            packageName = m_pkg.getName();
+        }
+        try {
+            LOG.debug("Polling {} asynchronously using pkg {}", m_service, packageName);
+            return ((LatencyStoringServiceMonitorAdaptor)monitor).pollAsync(m_service, getParameters());
+        } catch (Throwable e) {
+            LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
+            return DefaultPollFuture.completed(PollStatus.down("Unexpected exception while polling "+m_service+". "+e));
+        }
+    }
+
     private synchronized ServiceMonitor getServiceMonitor() {
         if (m_serviceMonitor == null) {
             ServiceMonitor monitor = m_pollerConfig.getServiceMonitor(m_service.getSvcName());
@@ -247,5 +247,46 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         }
     }
 
+    /**
+     * <p>getCoalescedOperations</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCoalescedOperations() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getCoalescedOperations();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getQueueWaitTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getQueueWaitTime() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getQueueWaitTime();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getMaxQueueWaitTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getMaxQueueWaitTime() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getMaxQueueWaitTime();
+        } else {
+            return 0;
+        }
+    }
 
 }
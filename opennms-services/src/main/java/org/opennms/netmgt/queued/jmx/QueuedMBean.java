@@ -115,5 +115,23 @@ public interface QueuedMBean extends BaseOnmsMBean {
 	 * @return a long.
 	 */
 	public long getStartTime();
+	/**
+	 * <p>getCoalescedOperations</p>
+	 *
+	 * @return a long.
+	 */
+	public long getCoalescedOperations();
+	/**
+	 * <p>getQueueWaitTime</p>
+	 *
+	 * @return a long.
+	 */
+	public long getQueueWaitTime();
+	/**
+	 * <p>getMaxQueueWaitTime</p>
+	 *
+	 * @return a long.
+	 */
+	public long getMaxQueueWaitTime();
 
 }
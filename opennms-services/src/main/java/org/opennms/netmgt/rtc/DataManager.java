@@ -210,8 +210,12 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
 	private static void addNodeToCategory(RTCCategory cat, RTCNode rtcN) {
 
-		// add the category info to the node
-        rtcN.addCategory(cat.getLabel());
+		// add the category info to the node and count the service in the
+		// category's availability
+        if (!rtcN.belongsTo(cat.getLabel())) {
+            rtcN.addCategory(cat.getLabel());
+            cat.addService(rtcN);
+        }
 
 		// Add node to category
 		cat.addNode(rtcN);
@@ -546,6 +550,9 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
             RTCCategory cat = (RTCCategory) m_categories.get(catlabel);
 
+            // stop counting the service in the category's availability
+            cat.removeService(rtcN);
+
             // get nodes in this category
             List<Integer> catNodes = cat.getNodes();
 
@@ -631,6 +638,12 @@ public class DataManager implements AvailabilityService, InitializingBean {
     	for (RTCCategory cat : m_categories.values()) {
 			cat.deleteNode(nodeid);
 		}
+
+    	for (RTCNode rtcN : m_map.getRTCNodes(nodeid)) {
+    		for (String catlabel : rtcN.getCategories()) {
+    			m_categories.get(catlabel).removeService(rtcN);
+    		}
+    	}
     	
     	m_map.deleteNode(nodeid);
     	
@@ -664,12 +677,18 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
             // remove the node with the old node id from the map
             m_map.delete(rtcN);
+            for (String catlabel : rtcN.getCategories()) {
+                m_categories.get(catlabel).removeService(rtcN);
+            }
 
             // change the node ID on the RTCNode
             rtcN.setNodeID(newNodeId);
 
             // now add the node with the new node ID
             m_map.add(rtcN);
+            for (String catlabel : rtcN.getCategories()) {
+                m_categories.get(catlabel).addService(rtcN);
+            }
 
             // remove old node ID from the categories it belonged to
             // and the new node ID
@@ -695,8 +714,8 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the category in the last 'rollingWindow'
      *         starting at current time
      */
-    public synchronized double getValue(RTCCategory category, long curTime, long rollingWindow) {
-        return m_map.getValue(category.getLabel(), curTime, rollingWindow);
+    public double getValue(RTCCategory category, long curTime, long rollingWindow) {
+        return getCategory(category).getValue(curTime, rollingWindow);
     }
 
     /**
@@ -714,8 +733,8 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the node in the last 'rollingWindow'
      *         starting at current time in the context of the passed category
      */
-    public synchronized double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
-        return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
+    public double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
+        return getCategory(category).getValue(nodeid, curTime, rollingWindow);
     }
 
     /**
@@ -729,8 +748,8 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service count for the nodeid in the context of the passed
      *         category
      */
-    public synchronized int getServiceCount(int nodeid, RTCCategory category) {
-        return m_map.getServiceCount(nodeid, category.getLabel());
+    public int getServiceCount(int nodeid, RTCCategory category) {
+        return getCategory(category).getServiceCount(nodeid);
     }
 
     /**
@@ -744,8 +763,18 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service down count for the nodeid in the context of the
      *         passed category
      */
-    public synchronized int getServiceDownCount(int nodeid, RTCCategory category) {
-        return m_map.getServiceDownCount(nodeid, category.getLabel());
+    public int getServiceDownCount(int nodeid, RTCCategory category) {
+        return getCategory(category).getServiceDownCount(nodeid);
+    }
+
+    /**
+     * The availability of a category is kept incrementally on the instance in
+     * the categories map, so look that up rather than trusting the caller's
+     * copy. These reads do not take the DataManager monitor.
+     */
+    private RTCCategory getCategory(RTCCategory category) {
+        final RTCCategory cat = m_categories.get(category.getLabel());
+        return cat == null ? category : cat;
     }
 
     /**
@@ -33,8 +33,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.opennms.netmgt.config.categories.Category;
+import org.opennms.netmgt.rtc.RTCUtils;
 
 /**
  * This class is used to encapsulate a category in the categories XML file.
@@ -56,6 +59,16 @@ public class RTCCategory extends Category {
      */
     private final List<Integer> m_nodes = Collections.synchronizedList(new ArrayList<Integer>());
 
+    /**
+     * The down time of the services in this category
+     */
+    private final RTCDownTimeAccumulator m_downTime = new RTCDownTimeAccumulator();
+
+    /**
+     * The down time of the services in this category by node ID
+     */
+    private final ConcurrentMap<Integer, RTCDownTimeAccumulator> m_nodeDownTime = new ConcurrentHashMap<Integer, RTCDownTimeAccumulator>();
+
     /**
      * The default constructor - initializes the values
      *
@@ -98,6 +111,101 @@ public class RTCCategory extends Category {
         }
     }
 
+    /**
+     * Count a service in the availability of this category and of its node
+     *
+     * @param service
+     *            the service to add
+     */
+    public void addService(RTCNode service) {
+        RTCDownTimeAccumulator nodeDownTime = m_nodeDownTime.get(service.getNodeID());
+        if (nodeDownTime == null) {
+            nodeDownTime = new RTCDownTimeAccumulator();
+            final RTCDownTimeAccumulator existing = m_nodeDownTime.putIfAbsent(service.getNodeID(), nodeDownTime);
+            if (existing != null) {
+                nodeDownTime = existing;
+            }
+        }
+        service.addDownTimeGroup(m_downTime);
+        service.addDownTimeGroup(nodeDownTime);
+    }
+
+    /**
+     * Stop counting a service in the availability of this category
+     *
+     * @param service
+     *            the service to remove
+     */
+    public void removeService(RTCNode service) {
+        service.removeDownTimeGroup(m_downTime);
+        final RTCDownTimeAccumulator nodeDownTime = m_nodeDownTime.get(service.getNodeID());
+        if (nodeDownTime != null) {
+            service.removeDownTimeGroup(nodeDownTime);
+            if (nodeDownTime.getServiceCount() == 0) {
+                m_nodeDownTime.remove(service.getNodeID(), nodeDownTime);
+            }
+        }
+    }
+
+    /**
+     * Get the value (uptime) for this category in the last 'rollingWindow'
+     * starting at current time
+     *
+     * @param curTime
+     *            the current time
+     * @param rollingWindow
+     *            the window for which value is to be calculated
+     * @return the value (uptime) for the category
+     */
+    public double getValue(long curTime, long rollingWindow) {
+        return RTCUtils.getOutagePercentage(m_downTime.getDownTime(curTime, rollingWindow), rollingWindow, m_downTime.getServiceCount());
+    }
+
+    /**
+     * Get the value (uptime) for the services of a node in this category in
+     * the last 'rollingWindow' starting at current time
+     *
+     * @param nodeid
+     *            the node for which value is to be calculated
+     * @param curTime
+     *            the current time
+     * @param rollingWindow
+     *            the window for which value is to be calculated
+     * @return the value (uptime) for the node
+     */
+    public double getValue(int nodeid, long curTime, long rollingWindow) {
+        final RTCDownTimeAccumulator nodeDownTime = m_nodeDownTime.get(nodeid);
+        if (nodeDownTime == null) {
+            return RTCUtils.getOutagePercentage(0, rollingWindow, 0);
+        }
+        return RTCUtils.getOutagePercentage(nodeDownTime.getDownTime(curTime, rollingWindow), rollingWindow, nodeDownTime.getServiceCount());
+    }
+
+    /**
+     * Get the number of services of a node in this category
+     *
+     * @param nodeid
+     *            the node for which service count is needed
+     * @return the service count
+     */
+    public int getServiceCount(int nodeid) {
+        final RTCDownTimeAccumulator nodeDownTime = m_nodeDownTime.get(nodeid);
+        return nodeDownTime == null ? 0 : nodeDownTime.getServiceCount();
+    }
+
+    /**
+     * Get the number of services of a node in this category that are
+     * currently down
+     *
+     * @param nodeid
+     *            the node for which service down count is needed
+     * @return the service down count
+     */
+    public int getServiceDownCount(int nodeid) {
+        final RTCDownTimeAccumulator nodeDownTime = m_nodeDownTime.get(nodeid);
+        return nodeDownTime == null ? 0 : nodeDownTime.getOpenOutageCount();
+    }
+
     /**
      * Delete from the nodes in this category
      *
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Accumulates the down time of one or more services so that the down time in
+ * a rolling window can be read without walking their outages.
+ *
+ * Down time of closed outages is kept in fixed width time buckets, holding
+ * only the buckets that actually saw an outage.  As the window slides, the
+ * buckets that fall out of it are dropped and subtracted from a running
+ * total, so reading the down time costs the same however many outages there
+ * were.  Only the bucket the window starts in is counted in part, assuming
+ * its down time was spread evenly over it.  Outages that are still open are
+ * kept by the time the service was lost, and are counted exactly.
+ *
+ * An accumulator for a single service is added to the accumulators of the
+ * groups of services it belongs to, such as a category or a node in a
+ * category, which then count it as one of their services.
+ *
+ * @see org.opennms.netmgt.rtc.datablock.RTCNode
+ */
+public class RTCDownTimeAccumulator implements Serializable {
+
+    private static final long serialVersionUID = 6148301585926311071L;
+
+    /**
+     * The default width of the down time buckets, one minute.
+     */
+    public static final long DEFAULT_BUCKET_WIDTH = 60L * 1000L;
+
+    private final long m_bucketWidth;
+
+    /**
+     * Down time of closed outages by the start of the bucket
+     */
+    private final TreeMap<Long, long[]> m_buckets = new TreeMap<Long, long[]>();
+
+    /**
+     * The sum of all buckets
+     */
+    private long m_bucketTotal;
+
+    /**
+     * Number of open outages by the time service was lost
+     */
+    private final TreeMap<Long, int[]> m_openOutages = new TreeMap<Long, int[]>();
+
+    private int m_openOutageCount;
+
+    private int m_serviceCount;
+
+    public RTCDownTimeAccumulator() {
+        this(DEFAULT_BUCKET_WIDTH);
+    }
+
+    public RTCDownTimeAccumulator(long bucketWidth) {
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("bucket width must be positive: " + bucketWidth);
+        }
+        m_bucketWidth = bucketWidth;
+    }
+
+    /**
+     * Add an outage.
+     *
+     * @param lostTime
+     *            the time at which service was lost
+     * @param regainedTime
+     *            the time at which service was regained, or -1 if the outage
+     *            is still open
+     * @param rollingWindow
+     *            the longest window down time is needed for; down time
+     *            earlier than that before the regained time is not kept
+     */
+    public synchronized void addOutage(long lostTime, long regainedTime, long rollingWindow) {
+        if (regainedTime < 0) {
+            addOpenOutage(lostTime, 1);
+        } else {
+            addDownTime(Math.max(lostTime, regainedTime - rollingWindow), regainedTime);
+        }
+    }
+
+    /**
+     * Close an open outage.
+     *
+     * @param lostTime
+     *            the time at which service was lost
+     * @param regainedTime
+     *            the time at which service was regained
+     * @param rollingWindow
+     *            the longest window down time is needed for; down time
+     *            earlier than that before the regained time is not kept
+     */
+    public synchronized void closeOutage(long lostTime, long regainedTime, long rollingWindow) {
+        addOpenOutage(lostTime, -1);
+        addDownTime(Math.max(lostTime, regainedTime - rollingWindow), regainedTime);
+    }
+
+    /**
+     * Add the down time of a service to this group of services.
+     *
+     * @param service
+     *            the accumulator of the service
+     */
+    public void addService(RTCDownTimeAccumulator service) {
+        merge(service, 1);
+    }
+
+    /**
+     * Remove the down time of a service from this group of services.
+     *
+     * @param service
+     *            the accumulator of the service
+     */
+    public void removeService(RTCDownTimeAccumulator service) {
+        merge(service, -1);
+    }
+
+    private void merge(RTCDownTimeAccumulator service, int sign) {
+        // copy the service first so the two are never locked together
+        final Map<Long, long[]> buckets = new TreeMap<Long, long[]>();
+        final Map<Long, int[]> openOutages = new TreeMap<Long, int[]>();
+        synchronized (service) {
+            for (Entry<Long, long[]> entry : service.m_buckets.entrySet()) {
+                buckets.put(entry.getKey(), new long[] { entry.getValue()[0] });
+            }
+            for (Entry<Long, int[]> entry : service.m_openOutages.entrySet()) {
+                openOutages.put(entry.getKey(), new int[] { entry.getValue()[0] });
+            }
+        }
+
+        synchronized (this) {
+            for (Entry<Long, long[]> entry : buckets.entrySet()) {
+                if (sign > 0 || m_buckets.containsKey(entry.getKey())) {
+                    addToBucket(entry.getKey(), sign * entry.getValue()[0]);
+                }
+            }
+            for (Entry<Long, int[]> entry : openOutages.entrySet()) {
+                addOpenOutage(entry.getKey(), sign * entry.getValue()[0]);
+            }
+            m_serviceCount += sign;
+        }
+    }
+
+    /**
+     * Get the down time in the last 'rollingWindow' time starting at
+     * 'curTime'. Buckets that ended before the start of the window are
+     * dropped, so the time should not go backwards by more than a window.
+     *
+     * @param curTime
+     *            the current time from which the down time is to be calculated
+     * @param rollingWindow
+     *            the last window for which the down time is to be calculated
+     * @return the total down time of the services in the window
+     */
+    public synchronized long getDownTime(long curTime, long rollingWindow) {
+        final long startTime = curTime - rollingWindow;
+        final long firstBucket = bucketStart(startTime);
+
+        removeBucketsBefore(firstBucket);
+
+        double downTime = m_bucketTotal;
+        final long[] first = m_buckets.get(firstBucket);
+        if (first != null) {
+            downTime -= (double)first[0] * (startTime - firstBucket) / m_bucketWidth;
+        }
+        // outages that had not ended yet at the current time
+        for (long[] later : m_buckets.tailMap(bucketStart(curTime), false).values()) {
+            downTime -= later[0];
+        }
+
+        long openTime = 0;
+        for (Entry<Long, int[]> entry : m_openOutages.headMap(curTime, false).entrySet()) {
+            openTime += (curTime - Math.max(entry.getKey(), startTime)) * entry.getValue()[0];
+        }
+
+        return Math.round(Math.max(0.0, downTime)) + openTime;
+    }
+
+    /**
+     * Return the number of outages that are still open, which for a group of
+     * services is the number of services that are currently down.
+     *
+     * @return the number of open outages
+     */
+    public synchronized int getOpenOutageCount() {
+        return m_openOutageCount;
+    }
+
+    /**
+     * Return the number of services added to this group of services.
+     *
+     * @return the number of services
+     */
+    public synchronized int getServiceCount() {
+        return m_serviceCount;
+    }
+
+    /**
+     * Drop the down time before a given time, which a single service does as
+     * its outages expire from its rolling window.
+     *
+     * @param time
+     *            the time before which down time is no longer needed
+     */
+    public synchronized void expire(long time) {
+        removeBucketsBefore(bucketStart(time));
+    }
+
+    private void addDownTime(long lostTime, long regainedTime) {
+        long t = lostTime;
+        while (t < regainedTime) {
+            final long bucket = bucketStart(t);
+            final long end = Math.min(regainedTime, bucket + m_bucketWidth);
+            addToBucket(bucket, end - t);
+            t = end;
+        }
+    }
+
+    private void addToBucket(long bucket, long downTime) {
+        final long[] value = m_buckets.get(bucket);
+        if (value == null) {
+            if (downTime > 0) {
+                m_buckets.put(bucket, new long[] { downTime });
+                m_bucketTotal += downTime;
+            }
+        } else if (value[0] + downTime > 0) {
+            value[0] += downTime;
+            m_bucketTotal += downTime;
+        } else {
+            m_buckets.remove(bucket);
+            m_bucketTotal -= value[0];
+        }
+    }
+
+    private void addOpenOutage(long lostTime, int count) {
+        final int[] value = m_openOutages.get(lostTime);
+        if (value == null) {
+            if (count > 0) {
+                m_openOutages.put(lostTime, new int[] { count });
+                m_openOutageCount += count;
+            }
+        } else if (value[0] + count > 0) {
+            value[0] += count;
+            m_openOutageCount += count;
+        } else {
+            m_openOutages.remove(lostTime);
+            m_openOutageCount -= value[0];
+        }
+    }
+
+    private void removeBucketsBefore(long bucket) {
+        for (Iterator<long[]> it = m_buckets.headMap(bucket, false).values().iterator(); it.hasNext();) {
+            m_bucketTotal -= it.next()[0];
+            it.remove();
+        }
+    }
+
+    private long bucketStart(long time) {
+        return Math.floorDiv(time, m_bucketWidth) * m_bucketWidth;
+    }
+}
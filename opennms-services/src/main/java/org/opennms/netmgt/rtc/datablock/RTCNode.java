@@ -81,6 +81,21 @@ public class RTCNode {
      */
     private final List<String> m_categories = new ArrayList<String>();
 
+    /**
+     * The rolling window outages are kept for.
+     */
+    private final long m_rollingWindow;
+
+    /**
+     * The down time of this service.
+     */
+    private final RTCDownTimeAccumulator m_downTime = new RTCDownTimeAccumulator();
+
+    /**
+     * The down time of the groups of services this service is counted in.
+     */
+    private final List<RTCDownTimeAccumulator> m_downTimeGroups = new ArrayList<RTCDownTimeAccumulator>();
+
     /**
      * <p>Constructor for RTCNode.</p>
      *
@@ -107,6 +122,8 @@ public class RTCNode {
 
         m_svcName = svcName;
 
+        m_rollingWindow = rollingWindow;
+
         m_svcTimesList = new RTCNodeSvcTimesList(rollingWindow);
     }
 
@@ -128,8 +145,40 @@ public class RTCNode {
      * @param regainedtime
      *            time at which service was regained
      */
-    public void addSvcTime(long losttime, long regainedtime) {
-        m_svcTimesList.addSvcTime(losttime, regainedtime);
+    public synchronized void addSvcTime(long losttime, long regainedtime) {
+        if (m_svcTimesList.addSvcTime(losttime, regainedtime)) {
+            final long regained = regainedtime > 0 ? regainedtime : -1;
+            m_downTime.addOutage(losttime, regained, m_rollingWindow);
+            for (RTCDownTimeAccumulator group : m_downTimeGroups) {
+                group.addOutage(losttime, regained, m_rollingWindow);
+            }
+            m_downTime.expire(System.currentTimeMillis() - m_rollingWindow);
+        }
+    }
+
+    /**
+     * Count this service in a group of services, such as a category.
+     *
+     * @param group
+     *            the down time of the group
+     */
+    public synchronized void addDownTimeGroup(RTCDownTimeAccumulator group) {
+        if (!m_downTimeGroups.contains(group)) {
+            m_downTimeGroups.add(group);
+            group.addService(m_downTime);
+        }
+    }
+
+    /**
+     * Stop counting this service in a group of services.
+     *
+     * @param group
+     *            the down time of the group
+     */
+    public synchronized void removeDownTimeGroup(RTCDownTimeAccumulator group) {
+        if (m_downTimeGroups.remove(group)) {
+            group.removeService(m_downTime);
+        }
     }
 
     /**
@@ -185,6 +234,11 @@ public class RTCNode {
         // create a new entry
         RTCNodeSvcTime newStime = new RTCNodeSvcTime(t);
         m_svcTimesList.add(newStime);
+
+        m_downTime.addOutage(t, -1, m_rollingWindow);
+        for (RTCDownTimeAccumulator group : m_downTimeGroups) {
+            group.addOutage(t, -1, m_rollingWindow);
+        }
     }
 
     /**
@@ -207,6 +261,14 @@ public class RTCNode {
             }
 
             stime.setRegainedTime(t);
+
+            if (stime.getRegainedTime() != -1) {
+                m_downTime.closeOutage(stime.getLostTime(), t, m_rollingWindow);
+                for (RTCDownTimeAccumulator group : m_downTimeGroups) {
+                    group.closeOutage(stime.getLostTime(), t, m_rollingWindow);
+                }
+                m_downTime.expire(t - m_rollingWindow);
+            }
         }
     }
 
@@ -85,8 +85,7 @@ public class Schedule {
                 try {
                     Schedule.this.run();
                 } catch (PostponeNecessary e) {
-				   // Chose a random number of seconds between 5 and 14 to wait before trying again
-                    m_timer.schedule(random.nextInt(10)*1000+5000, this);
+                    postpone(this);
                     return;
                 }
             }
@@ -126,11 +125,21 @@ public class Schedule {
      * <p>schedule</p>
      */
     public void schedule() {
-        m_scheduled = true;
         schedule(0);
     }
 
-    private void schedule(long interval) {
+    /**
+     * Schedules the first run <code>initialDelay</code> milliseconds from now
+     * rather than immediately.
+     *
+     * @param initialDelay a long.
+     */
+    public void schedule(long initialDelay) {
+        m_scheduled = true;
+        scheduleEntry(Math.max(initialDelay, 0));
+    }
+
+    private void scheduleEntry(long interval) {
         if (interval >= 0 && m_scheduled)
             m_timer.schedule(interval, new ScheduleEntry(++m_currentExpirationCode));
     }
@@ -142,11 +151,33 @@ public class Schedule {
         m_schedulable.run();
     }
 
+    /**
+     * Runs <code>runnable</code> once on the threads of this schedule's timer,
+     * as soon as they get to it.  It is not part of the schedule and is run
+     * even if the schedule is unscheduled in the meantime.
+     *
+     * @param runnable a {@link org.opennms.netmgt.scheduler.ReadyRunnable} object.
+     */
+    public void runOnce(ReadyRunnable runnable) {
+        m_timer.schedule(0, runnable);
+    }
+
+    /**
+     * Runs <code>runnable</code> again after the delay used for a run that
+     * threw {@link PostponeNecessary}.
+     *
+     * @param runnable a {@link org.opennms.netmgt.scheduler.ReadyRunnable} object.
+     */
+    public void postpone(ReadyRunnable runnable) {
+        // Chose a random number of seconds between 5 and 14 to wait before trying again
+        m_timer.schedule(random.nextInt(10)*1000+5000, runnable);
+    }
+
     /**
      * <p>adjustSchedule</p>
      */
     public void adjustSchedule() {
-        schedule(m_interval.getInterval());
+        scheduleEntry(m_interval.getInterval());
     }
 
     /**
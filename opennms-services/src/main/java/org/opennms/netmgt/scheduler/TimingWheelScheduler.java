@@ -0,0 +1,625 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} based on a hashed timing wheel.
+ *
+ * <p>Scheduled runnables are placed in one of a fixed number of buckets by the
+ * tick in which they are due, so scheduling and cancelling are constant time
+ * operations that never block on a shared monitor: {@link #schedule(long, ReadyRunnable)}
+ * only appends to a lock-free queue, which the worker thread drains into the
+ * wheel once per tick. Runnables due further out than one revolution of the
+ * wheel carry a count of the remaining rounds.</p>
+ *
+ * <p>Runnables that are due are handed to the runner in the same way as by the
+ * {@link LegacyScheduler}. A runnable that is due but not ready is checked
+ * again after {@link #NOT_READY_DELAY} milliseconds.</p>
+ *
+ * <p>When a start jitter is set, runnables that are handed to
+ * {@link #scheduleInitial(ReadyRunnable)}, or scheduled after
+ * {@link #getStartDelay()}, are spread randomly over the jitter period so that
+ * services with the same interval do not all run in a burst. Collectd and
+ * pollerd do this when they first schedule a service. A plain schedule with an
+ * interval of zero always runs immediately.</p>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The name used to select this scheduler in the daemon configuration.
+     */
+    public static final String NAME = "timing-wheel";
+
+    /**
+     * The default duration of one tick in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 100;
+
+    /**
+     * The default number of buckets in the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    /**
+     * The number of milliseconds after which a runnable that was due but not
+     * ready is checked again.
+     */
+    public static final long NOT_READY_DELAY = 1000;
+
+    private final String m_name;
+
+    private final long m_tickDuration;
+
+    private final Bucket[] m_wheel;
+
+    private final int m_mask;
+
+    /**
+     * Newly scheduled runnables, waiting for the worker to place them in the wheel.
+     */
+    private final Queue<ScheduledTask> m_pendingTasks = new ConcurrentLinkedQueue<ScheduledTask>();
+
+    /**
+     * Cancelled runnables, waiting for the worker to remove them from the wheel.
+     */
+    private final Queue<ScheduledTask> m_cancelledTasks = new ConcurrentLinkedQueue<ScheduledTask>();
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    private volatile long m_startJitter = 0;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    /**
+     * The time at which the wheel started turning; tick n ends at
+     * m_startTime + (n + 1) * m_tickDuration.
+     */
+    private volatile long m_startTime;
+
+    /**
+     * The current tick. Only used by the worker thread.
+     */
+    private long m_tick = 0;
+
+    /**
+     * A runnable placed in the wheel. Use {@link #cancel()} to remove it
+     * before it runs.
+     */
+    public final class ScheduledTask {
+        private static final int SCHEDULED = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final ReadyRunnable m_runnable;
+        private final AtomicInteger m_state = new AtomicInteger(SCHEDULED);
+
+        // the remaining fields are only used by the worker thread
+        private long m_deadline;
+        private long m_remainingRounds;
+        private Bucket m_bucket;
+        private ScheduledTask m_next;
+        private ScheduledTask m_prev;
+
+        private ScheduledTask(final ReadyRunnable runnable, final long deadline) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+
+        /**
+         * Cancel the task so it is not run.
+         *
+         * @return false if the task already ran or was already cancelled
+         */
+        public boolean cancel() {
+            if (!m_state.compareAndSet(SCHEDULED, CANCELLED)) {
+                return false;
+            }
+            m_scheduled.decrementAndGet();
+            m_cancelledTasks.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return m_state.get() == CANCELLED;
+        }
+
+        public ReadyRunnable getRunnable() {
+            return m_runnable;
+        }
+
+        @Override
+        public String toString() {
+            return m_runnable + " (ready in " + Math.max(0, m_deadline - getCurrentTime()) + "ms)";
+        }
+    }
+
+    /**
+     * A doubly linked list of the tasks in one slot of the wheel, so that
+     * cancelled tasks can be unlinked in constant time.
+     */
+    private static final class Bucket {
+        private ScheduledTask m_head;
+        private ScheduledTask m_tail;
+
+        void add(final ScheduledTask task) {
+            task.m_bucket = this;
+            if (m_head == null) {
+                m_head = m_tail = task;
+            } else {
+                m_tail.m_next = task;
+                task.m_prev = m_tail;
+                m_tail = task;
+            }
+        }
+
+        ScheduledTask remove(final ScheduledTask task) {
+            final ScheduledTask next = task.m_next;
+            if (task.m_prev != null) {
+                task.m_prev.m_next = next;
+            }
+            if (task.m_next != null) {
+                task.m_next.m_prev = task.m_prev;
+            }
+            if (task == m_head) {
+                m_head = next;
+            }
+            if (task == m_tail) {
+                m_tail = task.m_prev;
+            }
+            task.m_prev = null;
+            task.m_next = null;
+            task.m_bucket = null;
+            return next;
+        }
+    }
+
+    /**
+     * Constructs a new instance of the scheduler that runs the scheduled
+     * runnables on a fixed size thread pool.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize)), DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param runner
+     *            The executor the scheduled runnables are run on.
+     * @param tickDuration
+     *            The duration of one tick in milliseconds.
+     * @param wheelSize
+     *            The number of buckets in the wheel, rounded up to a power of two.
+     */
+    public TimingWheelScheduler(final String parent, final ExecutorService runner, final long tickDuration, final int wheelSize) {
+        Assert.isTrue(tickDuration > 0, "tickDuration must be positive");
+        Assert.isTrue(wheelSize > 0 && wheelSize <= (1 << 30), "wheelSize must be between 1 and 2^30");
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        m_name = parent + "Scheduler";
+        m_runner = runner;
+        m_tickDuration = tickDuration;
+        m_wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            m_wheel[i] = new Bucket();
+        }
+        m_mask = size - 1;
+        m_status = START_PENDING;
+    }
+
+    /**
+     * Returns the period, in milliseconds, over which the first runs of the
+     * services are spread.
+     *
+     * @return a long.
+     */
+    public long getStartJitter() {
+        return m_startJitter;
+    }
+
+    /**
+     * Sets the period, in milliseconds, over which the first runs of the
+     * services are spread. Zero disables the jitter.
+     *
+     * @param startJitter a long.
+     */
+    public void setStartJitter(final long startJitter) {
+        m_startJitter = startJitter;
+    }
+
+    /**
+     * Returns a random delay within the start jitter for the first run of a
+     * service, or zero if no start jitter is set.
+     *
+     * @return a long.
+     */
+    public long getStartDelay() {
+        final long startJitter = m_startJitter;
+        return startJitter > 0 ? ThreadLocalRandom.current().nextLong(startJitter) : 0;
+    }
+
+    /**
+     * Schedules the first run of a service, spread over the start jitter.
+     *
+     * @param runnable
+     *            The element to run.
+     * @return the scheduled task
+     */
+    public ScheduledTask scheduleInitial(final ReadyRunnable runnable) {
+        return scheduleTask(getStartDelay(), runnable);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        scheduleTask(interval, runnable);
+    }
+
+    /**
+     * Schedule a runnable and return a handle that can be used to cancel it.
+     *
+     * @param interval
+     *            The number of milliseconds after which the runnable is due.
+     * @param runnable
+     *            The element to run when interval expires.
+     * @return the scheduled task
+     */
+    public ScheduledTask scheduleTask(final long interval, final ReadyRunnable runnable) {
+        final ScheduledTask task = new ScheduledTask(runnable, getCurrentTime() + Math.max(interval, 0));
+        m_scheduled.incrementAndGet();
+        m_pendingTasks.add(task);
+
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        return task;
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_startTime = getCurrentTime();
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of runnables that are waiting to run
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * The main method of the scheduler. Once per tick this method moves newly
+     * scheduled runnables into the wheel and hands the runnables in the
+     * current bucket that are due to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            // don't lose a pause or stop requested right after start()
+            if (m_status == STARTING) {
+                m_status = RUNNING;
+            }
+        }
+
+        LOG.debug("run: scheduler running");
+
+        try {
+            for (;;) {
+                if (!waitWhilePaused()) {
+                    break;
+                }
+
+                final long tickEnd = waitForNextTick();
+                if (tickEnd < 0) {
+                    break;
+                }
+
+                removeCancelledTasks();
+                transferPendingTasks();
+                expireTasks(m_wheel[(int) (m_tick & m_mask)], tickEnd);
+                m_tick++;
+            }
+        } catch (final InterruptedException e) {
+            LOG.debug("run: interrupted");
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Block while the scheduler is paused.
+     *
+     * @return false if the scheduler should exit
+     */
+    private synchronized boolean waitWhilePaused() throws InterruptedException {
+        if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+            LOG.debug("run: status = {}, time to exit", m_status);
+            return false;
+        }
+
+        while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+            if (m_status == PAUSE_PENDING) {
+                LOG.debug("run: pausing.");
+            }
+            m_status = PAUSED;
+            wait();
+        }
+
+        if (m_status == RESUME_PENDING) {
+            LOG.debug("run: resuming.");
+            m_status = RUNNING;
+        }
+        return m_status == RUNNING;
+    }
+
+    /**
+     * Sleep until the end of the current tick.
+     *
+     * @return the time at which the current tick ended, or -1 if the
+     *         scheduler is stopping
+     */
+    private long waitForNextTick() throws InterruptedException {
+        final long tickEnd = m_startTime + (m_tick + 1) * m_tickDuration;
+        for (;;) {
+            final long sleepTime = tickEnd - getCurrentTime();
+            if (sleepTime <= 0) {
+                return tickEnd;
+            }
+            if (m_status == STOP_PENDING) {
+                return -1;
+            }
+            Thread.sleep(sleepTime);
+        }
+    }
+
+    private void removeCancelledTasks() {
+        ScheduledTask task;
+        while ((task = m_cancelledTasks.poll()) != null) {
+            if (task.m_bucket != null) {
+                task.m_bucket.remove(task);
+            }
+        }
+    }
+
+    /**
+     * Move newly scheduled tasks into the bucket of the tick they are due in.
+     */
+    private void transferPendingTasks() {
+        // bound the work per tick so a flood of schedule() calls can't stall the wheel
+        for (int i = 0; i < 100000; i++) {
+            final ScheduledTask task = m_pendingTasks.poll();
+            if (task == null) {
+                break;
+            }
+            if (task.isCancelled()) {
+                continue;
+            }
+            addToWheel(task);
+        }
+    }
+
+    private void addToWheel(final ScheduledTask task) {
+        final long dueTick = Math.max((task.m_deadline - m_startTime) / m_tickDuration, m_tick);
+        task.m_remainingRounds = (dueTick - m_tick) / m_wheel.length;
+        m_wheel[(int) (dueTick & m_mask)].add(task);
+    }
+
+    /**
+     * Run the tasks in the bucket that are due by the end of this tick and
+     * count down the rounds of the others.
+     */
+    private void expireTasks(final Bucket bucket, final long tickEnd) {
+        ScheduledTask task = bucket.m_head;
+        while (task != null) {
+            if (task.isCancelled()) {
+                task = bucket.remove(task);
+            } else if (task.m_remainingRounds <= 0 && task.m_deadline <= tickEnd) {
+                final ScheduledTask next = bucket.remove(task);
+                runTask(task);
+                task = next;
+            } else {
+                if (task.m_remainingRounds > 0) {
+                    task.m_remainingRounds--;
+                }
+                task = task.m_next;
+            }
+        }
+    }
+
+    private void runTask(final ScheduledTask task) {
+        if (!task.m_runnable.isReady()) {
+            // try again later without losing our place in the schedule
+            task.m_deadline = getCurrentTime() + NOT_READY_DELAY;
+            addToWheel(task);
+            return;
+        }
+
+        if (!task.m_state.compareAndSet(ScheduledTask.SCHEDULED, ScheduledTask.EXPIRED)) {
+            // cancelled concurrently
+            return;
+        }
+        m_scheduled.decrementAndGet();
+
+        LOG.debug("run: found ready runnable {}", task);
+        try {
+            m_runner.execute(task.m_runnable);
+        } catch (final RejectedExecutionException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+        m_numTasksExecuted.incrementAndGet();
+    }
+}
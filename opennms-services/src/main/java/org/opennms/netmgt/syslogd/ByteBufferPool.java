@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of direct buffers for datagrams.  Direct memory is allocated
+ * in slabs of <code>slabBuffers</code> buffers, which are sliced into buffers
+ * of <code>bufferSize</code> bytes, so the pool can hold a whole backlog of
+ * datagrams without reserving room for the largest possible datagram for
+ * each of them.  Pooling saves allocating (and eventually freeing) native
+ * memory per datagram.  At most <code>maxBuffers</code> buffers are ever
+ * allocated; once they are all in use {@link #acquire()} returns
+ * <code>null</code> and the caller has to fall back to a heap buffer.
+ */
+final class ByteBufferPool {
+    private final int m_bufferSize;
+    private final int m_maxBuffers;
+    private final int m_slabBuffers;
+    private final BlockingQueue<ByteBuffer> m_buffers;
+    private final AtomicInteger m_allocated = new AtomicInteger();
+    private final AtomicLong m_exhausted = new AtomicLong();
+
+    ByteBufferPool(final int bufferSize, final int maxBuffers) {
+        this(bufferSize, maxBuffers, 1);
+    }
+
+    ByteBufferPool(final int bufferSize, final int maxBuffers, final int slabBuffers) {
+        m_bufferSize = bufferSize;
+        m_maxBuffers = maxBuffers;
+        m_slabBuffers = Math.max(1, slabBuffers);
+        m_buffers = new ArrayBlockingQueue<ByteBuffer>(maxBuffers);
+    }
+
+    /**
+     * @return a cleared buffer of the pool's buffer size, or <code>null</code> if
+     *   every buffer the pool may allocate is in use
+     */
+    ByteBuffer acquire() {
+        while (true) {
+            final ByteBuffer buffer = m_buffers.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+            final int allocated = m_allocated.get();
+            if (allocated >= m_maxBuffers) {
+                m_exhausted.incrementAndGet();
+                return null;
+            }
+            final int count = Math.min(m_slabBuffers, m_maxBuffers - allocated);
+            if (m_allocated.compareAndSet(allocated, allocated + count)) {
+                return allocateSlab(count);
+            }
+        }
+    }
+
+    /**
+     * Allocates a slab of <code>count</code> buffers, returning the first one
+     * and pooling the others.
+     */
+    private ByteBuffer allocateSlab(final int count) {
+        final ByteBuffer slab = ByteBuffer.allocateDirect(m_bufferSize * count);
+        ByteBuffer first = null;
+        for (int i = 0; i < count; i++) {
+            slab.limit((i + 1) * m_bufferSize).position(i * m_bufferSize);
+            final ByteBuffer buffer = slab.slice();
+            if (first == null) {
+                first = buffer;
+            } else {
+                m_buffers.offer(buffer);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Returns a buffer to the pool.  The caller must not touch it afterwards.
+     */
+    void release(final ByteBuffer buffer) {
+        buffer.clear();
+        // never fails: the queue holds as many buffers as may be allocated
+        m_buffers.offer(buffer);
+    }
+
+    /**
+     * @return the size of each buffer
+     */
+    int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    /**
+     * @return the number of buffers waiting in the pool
+     */
+    int size() {
+        return m_buffers.size();
+    }
+
+    /**
+     * @return the number of buffers allocated so far
+     */
+    int getAllocated() {
+        return m_allocated.get();
+    }
+
+    /**
+     * @return how many times {@link #acquire()} found every buffer in use
+     */
+    long getExhausted() {
+        return m_exhausted.get();
+    }
+}
@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>An Aho-Corasick automaton over a fixed set of literal strings.  A single
+ * pass over a message reports every literal that occurs in it, no matter how
+ * many literals there are, so that the regular expressions of uei-match rules
+ * whose required literals are missing never have to be run.</p>
+ *
+ * <p>Instances are immutable once built and may be shared between threads.</p>
+ *
+ * @see UeiMatchEngine
+ */
+final class LiteralPrefilter {
+
+    /** Literals shorter than this are not selective enough to be worth tracking. */
+    static final int MIN_LITERAL_LENGTH = 3;
+
+    private static final int[] NO_OUTPUT = new int[0];
+
+    private final String[] m_literals;
+
+    // per state: sorted transition characters and their target states
+    private final char[][] m_keys;
+    private final int[][] m_targets;
+    private final int[] m_fail;
+    // per state: ids of the literals that end here, including those reachable through fail links
+    private final int[][] m_output;
+
+    /**
+     * Builds the automaton.  Duplicate literals are given the same id.
+     */
+    static final class Builder {
+        private final Map<String, Integer> m_ids = new LinkedHashMap<String, Integer>();
+
+        /**
+         * @return the id that {@link LiteralPrefilter#scan(CharSequence, boolean[])} will report for the literal
+         */
+        int add(final String literal) {
+            Integer id = m_ids.get(literal);
+            if (id == null) {
+                id = m_ids.size();
+                m_ids.put(literal, id);
+            }
+            return id;
+        }
+
+        LiteralPrefilter build() {
+            return new LiteralPrefilter(m_ids.keySet().toArray(new String[m_ids.size()]));
+        }
+    }
+
+    private LiteralPrefilter(final String[] literals) {
+        m_literals = literals;
+
+        // build the trie with sorted maps, then flatten it into arrays for scanning
+        final List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        final List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+        trie.add(new TreeMap<Character, Integer>());
+        outputs.add(new ArrayList<Integer>());
+
+        for (int id = 0; id < literals.length; id++) {
+            int state = 0;
+            for (int i = 0; i < literals[id].length(); i++) {
+                final Character c = literals[id].charAt(i);
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    outputs.add(new ArrayList<Integer>());
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(id);
+        }
+
+        final int states = trie.size();
+        m_keys = new char[states][];
+        m_targets = new int[states][];
+        m_fail = new int[states];
+        m_output = new int[states][];
+        for (int s = 0; s < states; s++) {
+            final TreeMap<Character, Integer> children = trie.get(s);
+            m_keys[s] = new char[children.size()];
+            m_targets[s] = new int[children.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> child : children.entrySet()) {
+                m_keys[s][i] = child.getKey();
+                m_targets[s][i] = child.getValue();
+                i++;
+            }
+        }
+
+        // breadth first so that every fail target is complete before it is used
+        final int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for (final int child : m_targets[0]) {
+            m_fail[child] = 0;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            for (int i = 0; i < m_keys[state].length; i++) {
+                final char c = m_keys[state][i];
+                final int child = m_targets[state][i];
+                int f = m_fail[state];
+                int next;
+                while ((next = transition(f, c)) < 0 && f != 0) {
+                    f = m_fail[f];
+                }
+                m_fail[child] = next < 0 || next == child ? 0 : next;
+                outputs.get(child).addAll(outputs.get(m_fail[child]));
+                queue[tail++] = child;
+            }
+        }
+
+        for (int s = 0; s < states; s++) {
+            final List<Integer> out = outputs.get(s);
+            if (out.isEmpty()) {
+                m_output[s] = NO_OUTPUT;
+            } else {
+                m_output[s] = new int[out.size()];
+                for (int i = 0; i < out.size(); i++) {
+                    m_output[s][i] = out.get(i);
+                }
+            }
+        }
+    }
+
+    private int transition(final int state, final char c) {
+        final int i = Arrays.binarySearch(m_keys[state], c);
+        return i < 0 ? -1 : m_targets[state][i];
+    }
+
+    /**
+     * @return the number of distinct literals
+     */
+    int size() {
+        return m_literals.length;
+    }
+
+    String getLiteral(final int id) {
+        return m_literals[id];
+    }
+
+    /**
+     * Marks <code>found[id]</code> for every literal that occurs in <code>text</code>.
+     *
+     * @param found an array of at least {@link #size()} elements, cleared by the caller
+     * @return the number of distinct literals found
+     */
+    int scan(final CharSequence text, final boolean[] found) {
+        if (m_literals.length == 0) {
+            return 0;
+        }
+        int count = 0;
+        int state = 0;
+        final int len = text.length();
+        for (int i = 0; i < len; i++) {
+            final char c = text.charAt(i);
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = m_fail[state];
+            }
+            state = next < 0 ? 0 : next;
+            for (final int id : m_output[state]) {
+                if (!found[id]) {
+                    found[id] = true;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>Returns literal strings that must all appear in any text the regular
+     * expression finds a match in.  The expression is read conservatively; anything
+     * that could make a literal optional (alternation, groups, character classes,
+     * quantifiers, inline flags, unusual escapes) either ends the current literal or,
+     * where that is not enough, makes this method return no literals at all.</p>
+     *
+     * <p>An empty result is always safe: it only means the rule cannot be prefiltered.</p>
+     */
+    static List<String> requiredLiterals(final String regex) {
+        final List<String> literals = new ArrayList<String>();
+        final StringBuilder run = new StringBuilder();
+        final int len = regex.length();
+        int i = 0;
+        while (i < len) {
+            final char c = regex.charAt(i);
+            switch (c) {
+            case '|':
+                // top level alternation: nothing is required
+                return new ArrayList<String>();
+            case '(': {
+                if (i + 2 < len && regex.charAt(i + 1) == '?' && isFlag(regex.charAt(i + 2))) {
+                    // inline flags such as (?i) change how the rest of the expression matches
+                    return new ArrayList<String>();
+                }
+                endRun(run, literals);
+                i = skipGroup(regex, i);
+                if (i < 0) {
+                    return new ArrayList<String>();
+                }
+                continue;
+            }
+            case '[':
+                endRun(run, literals);
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return new ArrayList<String>();
+                }
+                continue;
+            case '?':
+            case '*':
+            case '{':
+                // the previous character is optional
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                endRun(run, literals);
+                if (c == '{') {
+                    final int close = regex.indexOf('}', i);
+                    if (close < 0) {
+                        return new ArrayList<String>();
+                    }
+                    i = close + 1;
+                } else {
+                    i++;
+                }
+                continue;
+            case '+':
+                // the previous character is required but may repeat
+                endRun(run, literals);
+                i++;
+                continue;
+            case '.':
+            case '^':
+            case '$':
+            case ')':
+                endRun(run, literals);
+                i++;
+                continue;
+            case '\\': {
+                if (i + 1 >= len) {
+                    return new ArrayList<String>();
+                }
+                final char e = regex.charAt(i + 1);
+                if (e == 'Q') {
+                    final int end = regex.indexOf("\\E", i + 2);
+                    final String quoted = end < 0 ? regex.substring(i + 2) : regex.substring(i + 2, end);
+                    if (end >= 0 && end + 2 < len && isQuantifier(regex.charAt(end + 2))) {
+                        // the last quoted character may be optional
+                        run.append(quoted, 0, Math.max(0, quoted.length() - 1));
+                        endRun(run, literals);
+                    } else {
+                        run.append(quoted);
+                    }
+                    i = end < 0 ? len : end + 2;
+                    continue;
+                }
+                final char literal = escapedLiteral(e);
+                if (literal != 0) {
+                    run.append(literal);
+                } else if ("dDsSwWbBhHvV".indexOf(e) >= 0) {
+                    endRun(run, literals);
+                } else {
+                    // back references, unicode classes, hex or octal escapes and the like
+                    return new ArrayList<String>();
+                }
+                i += 2;
+                continue;
+            }
+            default:
+                run.append(c);
+                i++;
+            }
+        }
+        endRun(run, literals);
+        return literals;
+    }
+
+    private static boolean isFlag(final char c) {
+        return "idmsuxU-".indexOf(c) >= 0;
+    }
+
+    private static boolean isQuantifier(final char c) {
+        return c == '?' || c == '*' || c == '{';
+    }
+
+    private static char escapedLiteral(final char e) {
+        switch (e) {
+        case 't': return '\t';
+        case 'n': return '\n';
+        case 'r': return '\r';
+        case 'f': return '\f';
+        case 'a': return '\u0007';
+        case 'e': return '\u001B';
+        default:
+            return Character.isLetterOrDigit(e) ? 0 : e;
+        }
+    }
+
+    private static void endRun(final StringBuilder run, final List<String> literals) {
+        if (run.length() >= MIN_LITERAL_LENGTH) {
+            literals.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /**
+     * @return the index after the group that starts at <code>start</code>, or -1 if it is not closed
+     */
+    private static int skipGroup(final String regex, final int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the character class that starts at <code>start</code>, or -1 if it is not closed
+     */
+    private static int skipClass(final String regex, final int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && i > start + 1 && !(i == start + 2 && regex.charAt(start + 1) == '^')) {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "LiteralPrefilter[literals=" + m_literals.length + ", states=" + m_fail.length + "]";
+    }
+}
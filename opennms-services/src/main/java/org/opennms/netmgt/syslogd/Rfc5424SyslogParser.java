@@ -114,6 +114,15 @@ public class Rfc5424SyslogParser extends SyslogParser {
 
     @Override
     protected Date parseDate(final String dateString) {
+        return parseRfc5424Date(dateString);
+    }
+
+    /**
+     * Parses an RFC 5424 timestamp, either in UTC ("Z") or with a numeric offset.
+     *
+     * @return the date, or null if it could not be parsed
+     */
+    static Date parseRfc5424Date(final String dateString) {
         if (dateString.endsWith("Z")) {
             try {
                 final DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
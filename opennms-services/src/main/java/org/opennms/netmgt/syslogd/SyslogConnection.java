@@ -54,6 +54,12 @@ public class SyslogConnection implements Callable<Callable<?>> {
 
     private final DatagramPacket _packet;
 
+    private final InetSocketAddress _source;
+
+    private final ByteBuffer _buffer;
+
+    private final ByteBufferPool _bufferPool;
+
     private final String _matchPattern;
 
     private final int _hostGroup;
@@ -79,6 +85,9 @@ public class SyslogConnection implements Callable<Callable<?>> {
      */
     public SyslogConnection(final DatagramPacket packet, final String matchPattern, final int hostGroup, final int messageGroup, final UeiList ueiList, final HideMessage hideMessages, final String discardUei) {
         _packet = copyPacket(packet);
+        _source = null;
+        _buffer = null;
+        _bufferPool = null;
         _matchPattern = matchPattern;
         _hostGroup = hostGroup;
         _messageGroup = messageGroup;
@@ -89,6 +98,31 @@ public class SyslogConnection implements Callable<Callable<?>> {
 
     public SyslogConnection(final InetSocketAddress source, final ByteBuffer buffer, final String matchPattern, final int hostGroup, final int messageGroup, final UeiList ueiList, final HideMessage hideMessages, final String discardUei) {
         _packet = copyPacket(source, buffer);
+        _source = null;
+        _buffer = null;
+        _bufferPool = null;
+        _matchPattern = matchPattern;
+        _hostGroup = hostGroup;
+        _messageGroup = messageGroup;
+        _discardUei = discardUei;
+        _ueiList = ueiList;
+        _hideMessages = hideMessages;
+    }
+
+    /**
+     * Creates a connection that reads the datagram straight from <code>buffer</code>
+     * instead of copying it.  The buffer is handed back to <code>bufferPool</code>
+     * once the message has been converted.
+     *
+     * @param source the sender of the datagram
+     * @param buffer the datagram, flipped for reading
+     * @param bufferPool the pool the buffer came from
+     */
+    SyslogConnection(final InetSocketAddress source, final ByteBuffer buffer, final ByteBufferPool bufferPool, final String matchPattern, final int hostGroup, final int messageGroup, final UeiList ueiList, final HideMessage hideMessages, final String discardUei) {
+        _packet = null;
+        _source = source;
+        _buffer = buffer;
+        _bufferPool = bufferPool;
         _matchPattern = matchPattern;
         _hostGroup = hostGroup;
         _messageGroup = messageGroup;
@@ -105,7 +139,11 @@ public class SyslogConnection implements Callable<Callable<?>> {
 
         ConvertToEvent re = null;
         try {
-            re = ConvertToEvent.make(_packet, _matchPattern, _hostGroup,  _messageGroup, _ueiList, _hideMessages, _discardUei);
+            if (_buffer != null) {
+                re = ConvertToEvent.make(_source.getAddress(), _source.getPort(), _buffer, _matchPattern, _hostGroup, _messageGroup, _ueiList, _hideMessages, _discardUei);
+            } else {
+                re = ConvertToEvent.make(_packet, _matchPattern, _hostGroup,  _messageGroup, _ueiList, _hideMessages, _discardUei);
+            }
 
             LOG.debug("Sending received packet to the SyslogProcessor queue");
 
@@ -115,10 +153,24 @@ public class SyslogConnection implements Callable<Callable<?>> {
             LOG.debug("Failure to convert package", e1);
         } catch (final MessageDiscardedException e) {
             LOG.debug("Message discarded, returning without enqueueing event.", e);
+        } finally {
+            if (_bufferPool != null) {
+                _bufferPool.release(_buffer);
+            }
         }
         return null;
     }
 
+    /**
+     * Drops the message without converting it, handing its buffer back to the
+     * pool it came from.
+     */
+    void discard() {
+        if (_bufferPool != null) {
+            _bufferPool.release(_buffer);
+        }
+    }
+
     private static DatagramPacket copyPacket(final DatagramPacket packet) {
         byte[] message = new byte[packet.getLength()];
         System.arraycopy(packet.getData(), 0, message, 0, packet.getLength());
@@ -140,16 +192,13 @@ public class SyslogConnection implements Callable<Callable<?>> {
     }
 
     private static DatagramPacket copyPacket(final InetSocketAddress source, final ByteBuffer buffer) {
-        byte[] message = new byte[0xffff];
-        int i = 0;
         // Copy the buffer into the byte array
-        while (buffer.hasRemaining()) {
-            message[i++] = buffer.get();
-        }
+        byte[] message = new byte[buffer.remaining()];
+        buffer.get(message);
         DatagramPacket retPacket = new DatagramPacket(
             message,
             0,
-            i,
+            message.length,
             source.getAddress(),
             source.getPort()
         );
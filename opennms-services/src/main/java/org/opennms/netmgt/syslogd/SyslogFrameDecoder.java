@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Splits a syslog TCP stream into messages as described in RFC 6587.
+ * A message that starts with a digit is taken to be octet-counted
+ * (<code>MSG-LEN SP SYSLOG-MSG</code>); anything else is read up to the next
+ * line feed (non-transparent framing).  A sender may mix the two on one
+ * connection.  If the digits at the start of a message are not followed by a
+ * space, they are treated as the start of a newline-framed message, which is
+ * what most receivers do for senders that never heard of octet-counting.</p>
+ *
+ * <p>Messages longer than the maximum frame size are dropped and counted as
+ * framing errors; the decoder then resynchronizes at the end of the oversized
+ * message.  One decoder belongs to one connection and is not thread-safe.</p>
+ */
+final class SyslogFrameDecoder {
+    /**
+     * More digits than this can't be a length we would accept anyway.
+     */
+    private static final int MAX_LENGTH_DIGITS = 9;
+
+    private static enum State {
+        START,
+        LENGTH,
+        OCTETS,
+        LINE,
+        SKIP_OCTETS,
+        SKIP_LINE
+    }
+
+    private final int m_maxFrameSize;
+
+    private State m_state = State.START;
+
+    private byte[] m_frame = new byte[256];
+
+    private int m_frameLength;
+
+    private int m_octetsExpected;
+
+    private int m_octetsToSkip;
+
+    private long m_framingErrors;
+
+    /**
+     * @param maxFrameSize the longest message, in bytes, that will be passed on
+     */
+    SyslogFrameDecoder(final int maxFrameSize) {
+        m_maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Consumes every remaining byte of <code>in</code>, adding each complete
+     * message to <code>out</code> as a buffer ready for reading.  Bytes of an
+     * incomplete message are kept until the next call.
+     */
+    void decode(final ByteBuffer in, final List<ByteBuffer> out) {
+        while (in.hasRemaining()) {
+            switch (m_state) {
+            case START: {
+                final byte b = in.get();
+                if (b >= '0' && b <= '9') {
+                    m_octetsExpected = b - '0';
+                    m_frameLength = 0;
+                    append(b);
+                    m_state = State.LENGTH;
+                } else if (b == '\n') {
+                    // empty line between messages
+                } else {
+                    m_frameLength = 0;
+                    append(b);
+                    m_state = State.LINE;
+                }
+                break;
+            }
+            case LENGTH: {
+                final byte b = in.get();
+                if (b == ' ') {
+                    m_frameLength = 0;
+                    if (m_octetsExpected > m_maxFrameSize) {
+                        m_framingErrors++;
+                        m_octetsToSkip = m_octetsExpected;
+                        m_state = m_octetsToSkip == 0 ? State.START : State.SKIP_OCTETS;
+                    } else if (m_octetsExpected == 0) {
+                        m_state = State.START;
+                    } else {
+                        m_state = State.OCTETS;
+                    }
+                } else if (b >= '0' && b <= '9' && m_frameLength < MAX_LENGTH_DIGITS) {
+                    m_octetsExpected = m_octetsExpected * 10 + (b - '0');
+                    append(b);
+                } else {
+                    // not a length after all; keep what we have as the start of a line
+                    in.position(in.position() - 1);
+                    m_state = State.LINE;
+                }
+                break;
+            }
+            case OCTETS: {
+                final int count = Math.min(in.remaining(), m_octetsExpected - m_frameLength);
+                ensureCapacity(m_frameLength + count);
+                in.get(m_frame, m_frameLength, count);
+                m_frameLength += count;
+                if (m_frameLength == m_octetsExpected) {
+                    emit(out);
+                }
+                break;
+            }
+            case LINE: {
+                final int end = indexOfNewline(in);
+                final int stop = end < 0 ? in.limit() : end;
+                final int count = stop - in.position();
+                if (m_frameLength + count > m_maxFrameSize) {
+                    m_framingErrors++;
+                    m_frameLength = 0;
+                    in.position(stop);
+                    m_state = State.SKIP_LINE;
+                    break;
+                }
+                ensureCapacity(m_frameLength + count);
+                in.get(m_frame, m_frameLength, count);
+                m_frameLength += count;
+                if (end >= 0) {
+                    in.get(); // the newline
+                    if (m_frameLength > 0 && m_frame[m_frameLength - 1] == '\r') {
+                        m_frameLength--;
+                    }
+                    emit(out);
+                }
+                break;
+            }
+            case SKIP_OCTETS: {
+                final int count = Math.min(in.remaining(), m_octetsToSkip);
+                in.position(in.position() + count);
+                m_octetsToSkip -= count;
+                if (m_octetsToSkip == 0) {
+                    m_state = State.START;
+                }
+                break;
+            }
+            case SKIP_LINE: {
+                final int end = indexOfNewline(in);
+                if (end < 0) {
+                    in.position(in.limit());
+                } else {
+                    in.position(end + 1);
+                    m_state = State.START;
+                }
+                break;
+            }
+            }
+        }
+    }
+
+    /**
+     * Called when the peer closes the connection.  A newline-framed message
+     * without its final line feed is still passed on; a truncated
+     * octet-counted message is a framing error.
+     */
+    void endOfStream(final List<ByteBuffer> out) {
+        switch (m_state) {
+        case LENGTH:
+        case LINE:
+            emit(out);
+            break;
+        case OCTETS:
+        case SKIP_OCTETS:
+            m_framingErrors++;
+            m_frameLength = 0;
+            break;
+        default:
+            break;
+        }
+        m_state = State.START;
+    }
+
+    /**
+     * @return the number of messages dropped because they were too long or
+     * cut short
+     */
+    long getFramingErrors() {
+        return m_framingErrors;
+    }
+
+    private void emit(final List<ByteBuffer> out) {
+        if (m_frameLength > 0) {
+            out.add(ByteBuffer.wrap(Arrays.copyOf(m_frame, m_frameLength)));
+        }
+        m_frameLength = 0;
+        m_state = State.START;
+    }
+
+    private void append(final byte b) {
+        ensureCapacity(m_frameLength + 1);
+        m_frame[m_frameLength++] = b;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > m_frame.length) {
+            m_frame = Arrays.copyOf(m_frame, Math.max(capacity, Math.min(m_frame.length * 2, m_maxFrameSize)));
+        }
+    }
+
+    private static int indexOfNewline(final ByteBuffer in) {
+        if (in.hasArray()) {
+            final byte[] array = in.array();
+            final int offset = in.arrayOffset();
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (array[offset + i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -28,10 +28,18 @@
 
 package org.opennms.netmgt.syslogd;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
 
 import org.opennms.core.fiber.Fiber;
 import org.opennms.core.utils.InetAddressUtils;
@@ -56,14 +64,26 @@ import org.slf4j.LoggerFactory;
 public final class SyslogHandler implements Fiber {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogHandler.class);
 
-    private final boolean USE_NIO = false;
+    private static final boolean USE_NIO = Boolean.getBoolean("org.opennms.netmgt.syslogd.nio");
     private final boolean USE_NETTY = false;
 
+    /**
+     * The TCP port to listen on as well as the UDP port, or -1 for none.
+     */
+    private static final int TCP_PORT = Integer.getInteger("org.opennms.netmgt.syslogd.tcpPort", -1);
+
+    private static final boolean USE_TLS = Boolean.getBoolean("org.opennms.netmgt.syslogd.tcp.tls");
+
     /**
      * The UDP receiver thread.
      */
     private SyslogReceiver m_receiver;
 
+    /**
+     * The TCP receiver thread, if TCP is enabled.
+     */
+    private volatile SyslogReceiverTcpImpl m_tcpReceiver;
+
     /**
      * The Fiber's status.
      */
@@ -218,6 +238,26 @@ public final class SyslogHandler implements Fiber {
             if (m_logPrefix != null) {
                 m_receiver.setLogPrefix(m_logPrefix);
             }
+
+            if (TCP_PORT > 0) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                if (m_dgIp != null && m_dgIp.length() != 0) {
+                    channel.socket().bind(new InetSocketAddress(InetAddressUtils.addr(m_dgIp), TCP_PORT));
+                } else {
+                    channel.socket().bind(new InetSocketAddress(TCP_PORT));
+                }
+
+                m_tcpReceiver = new SyslogReceiverTcpImpl(
+                    channel,
+                    USE_TLS ? createSslContext() : null,
+                    m_ForwardingRegexp,
+                    m_MatchingGroupHost,
+                    m_MatchingGroupMessage,
+                    m_UeiList,
+                    m_HideMessages,
+                    m_DiscardUei
+                );
+            }
         } catch (IOException e) {
             throw new java.lang.reflect.UndeclaredThrowableException(e);
         }
@@ -235,6 +275,20 @@ public final class SyslogHandler implements Fiber {
             throw e;
         }
 
+        if (m_tcpReceiver != null) {
+            Thread tThread = new Thread(m_tcpReceiver, "Syslog TCP Receiver["
+                    + getIpAddress() + ":" + TCP_PORT + "]");
+
+            try {
+                tThread.start();
+            } catch (RuntimeException e) {
+                tThread.interrupt();
+
+                m_status = STOPPED;
+                throw e;
+            }
+        }
+
         m_status = RUNNING;
     }
 
@@ -254,6 +308,9 @@ public final class SyslogHandler implements Fiber {
 
         try {
             m_receiver.stop();
+            if (m_tcpReceiver != null) {
+                m_tcpReceiver.stop();
+            }
         } catch (InterruptedException e) {
             LOG.warn("The thread was interrupted while attempting to join sub-threads", e);
         }
@@ -346,6 +403,94 @@ public final class SyslogHandler implements Fiber {
         m_logPrefix = prefix;
     }
 
+    /**
+     * <p>getTcpConnectionsAccepted</p>
+     *
+     * @return the number of TCP connections accepted, or 0 if TCP is disabled
+     */
+    public long getTcpConnectionsAccepted() {
+        return m_tcpReceiver == null ? 0 : m_tcpReceiver.getConnectionsAccepted();
+    }
+
+    /**
+     * <p>getTcpConnectionsOpen</p>
+     *
+     * @return the number of TCP connections currently open
+     */
+    public long getTcpConnectionsOpen() {
+        return m_tcpReceiver == null ? 0 : m_tcpReceiver.getConnectionsOpen();
+    }
+
+    /**
+     * <p>getTcpBytesReceived</p>
+     *
+     * @return the number of bytes read from TCP connections
+     */
+    public long getTcpBytesReceived() {
+        return m_tcpReceiver == null ? 0 : m_tcpReceiver.getBytesReceived();
+    }
+
+    /**
+     * <p>getTcpMessagesReceived</p>
+     *
+     * @return the number of messages received over TCP
+     */
+    public long getTcpMessagesReceived() {
+        return m_tcpReceiver == null ? 0 : m_tcpReceiver.getMessagesReceived();
+    }
+
+    /**
+     * <p>getTcpFramingErrors</p>
+     *
+     * @return the number of TCP messages dropped because they were too long
+     * or cut short
+     */
+    public long getTcpFramingErrors() {
+        return m_tcpReceiver == null ? 0 : m_tcpReceiver.getFramingErrors();
+    }
+
+    /**
+     * <p>getTcpReadsPaused</p>
+     *
+     * @return how many times a TCP connection was paused because message
+     * processing was backed up
+     */
+    public long getTcpReadsPaused() {
+        return m_tcpReceiver == null ? 0 : m_tcpReceiver.getReadsPaused();
+    }
+
+    /**
+     * Builds the TLS context from the keystore named by
+     * <code>org.opennms.netmgt.syslogd.tcp.keystore</code>, or uses the JVM's
+     * default context (<code>javax.net.ssl.keyStore</code>) if it isn't set.
+     */
+    private static SSLContext createSslContext() throws IOException {
+        final String keystore = System.getProperty("org.opennms.netmgt.syslogd.tcp.keystore");
+        final String password = System.getProperty("org.opennms.netmgt.syslogd.tcp.keystorepassword", "changeit");
+        try {
+            if (keystore == null || keystore.length() == 0) {
+                return SSLContext.getDefault();
+            }
+
+            final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            final InputStream in = new FileInputStream(keystore);
+            try {
+                keyStore.load(in, password.toCharArray());
+            } finally {
+                in.close();
+            }
+
+            final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password.toCharArray());
+
+            final SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to set up TLS for syslog from keystore " + keystore, e);
+        }
+    }
+
     public interface EventHandler {
         public boolean processEvent(Event event);
 
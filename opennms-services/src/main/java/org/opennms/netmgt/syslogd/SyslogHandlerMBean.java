@@ -86,4 +86,48 @@ public interface SyslogHandlerMBean extends BaseOnmsMBean {
      * @param prefix a {@link java.lang.String} object.
      */
     void setLogPrefix(String prefix);
+
+    /**
+     * <p>getTcpConnectionsAccepted</p>
+     *
+     * @return the number of TCP connections accepted
+     */
+    long getTcpConnectionsAccepted();
+
+    /**
+     * <p>getTcpConnectionsOpen</p>
+     *
+     * @return the number of TCP connections currently open
+     */
+    long getTcpConnectionsOpen();
+
+    /**
+     * <p>getTcpBytesReceived</p>
+     *
+     * @return the number of bytes read from TCP connections
+     */
+    long getTcpBytesReceived();
+
+    /**
+     * <p>getTcpMessagesReceived</p>
+     *
+     * @return the number of messages received over TCP
+     */
+    long getTcpMessagesReceived();
+
+    /**
+     * <p>getTcpFramingErrors</p>
+     *
+     * @return the number of TCP messages dropped because they were too long
+     * or cut short
+     */
+    long getTcpFramingErrors();
+
+    /**
+     * <p>getTcpReadsPaused</p>
+     *
+     * @return how many times a TCP connection was paused because message
+     * processing was backed up
+     */
+    long getTcpReadsPaused();
 }
@@ -108,6 +108,16 @@ public class SyslogParser {
     }
 
     protected Date parseDate(final String dateString) {
+        return parseSyslogDate(dateString);
+    }
+
+    /**
+     * Parses a "yyyy-MM-dd" date, or a BSD "MMM d HH:mm:ss" timestamp in the
+     * current year.  Both are taken to be UTC.
+     *
+     * @return the date, or null if it could not be parsed
+     */
+    static Date parseSyslogDate(final String dateString) {
         Date date;
         try {
             final DateFormat df = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
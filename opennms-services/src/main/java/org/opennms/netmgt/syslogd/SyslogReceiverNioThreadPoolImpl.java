@@ -29,20 +29,23 @@
 package org.opennms.netmgt.syslogd;
 
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.DatagramChannel;
-import java.util.concurrent.ExecutionException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
-import org.opennms.core.concurrent.WaterfallExecutor;
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.config.syslogd.HideMessage;
 import org.opennms.netmgt.config.syslogd.UeiList;
@@ -58,8 +61,37 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
 
     private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverNioThreadPoolImpl.class);
 
+    /**
+     * How long a receiver waits for the socket to become readable before
+     * checking whether it has been stopped.
+     */
     private static final int SOCKET_TIMEOUT = 500;
 
+    /**
+     * Big enough to handle any sane syslog message.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 0xffff;
+
+    /**
+     * The size of the pooled buffers datagrams are copied into.  Larger
+     * datagrams are copied into heap memory instead.  RFC 5426 asks receivers
+     * to accept at least 2048 octets.
+     */
+    private static final int POOLED_BUFFER_SIZE = Integer.getInteger("org.opennms.netmgt.syslogd.pooledBufferSize", 2048);
+
+    /**
+     * The most pooled buffers allocated; see {@link ByteBufferPool}.  By
+     * default there are enough for every batch that can be queued or in
+     * progress at once.
+     */
+    private static final int MAX_POOLED_BUFFERS = Integer.getInteger("org.opennms.netmgt.syslogd.receiveBufferPoolSize", 0);
+
+    /**
+     * The most batches waiting for a processing thread.  Batches received while the
+     * queue is full are dropped and counted.
+     */
+    private static final int MAX_QUEUED_BATCHES = Integer.getInteger("org.opennms.netmgt.syslogd.processingQueueSize", 256);
+
     /**
      * The Fiber's status.
      */
@@ -88,6 +120,15 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
 
     private final ExecutorService m_socketReceivers;
 
+    private final ByteBufferPool m_bufferPool;
+
+    private final DropBatchPolicy m_dropPolicy = new DropBatchPolicy();
+
+    /**
+     * The most datagrams a receiver drains per wakeup.
+     */
+    private final int m_batchSize = Math.max(1, Integer.getInteger("org.opennms.netmgt.syslogd.receiveBatchSize", 64));
+
     /**
      * Construct a new receiver
      *
@@ -98,6 +139,15 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
      */
     SyslogReceiverNioThreadPoolImpl(DatagramChannel channel, String matchPattern, int hostGroup, int messageGroup,
                    UeiList ueiList, HideMessage hideMessages, String discardUei) {
+        this(channel, matchPattern, hostGroup, messageGroup, ueiList, hideMessages, discardUei, MAX_QUEUED_BATCHES, MAX_POOLED_BUFFERS);
+    }
+
+    /**
+     * @param maxPooledBuffers the most pooled buffers allocated, or 0 to size
+     *   the pool to every batch that can be queued or in progress at once
+     */
+    SyslogReceiverNioThreadPoolImpl(DatagramChannel channel, String matchPattern, int hostGroup, int messageGroup,
+                   UeiList ueiList, HideMessage hideMessages, String discardUei, int maxQueuedBatches, int maxPooledBuffers) {
         m_stop = false;
         m_channel = channel;
         m_matchPattern = matchPattern;
@@ -106,14 +156,26 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
         m_discardUei = discardUei;
         m_UeiList = ueiList;
         m_HideMessages = hideMessages;
+        if (maxPooledBuffers <= 0) {
+            // queued batches, plus one being processed by each processing thread
+            // and one being received by each socket receiver
+            final int batches = maxQueuedBatches + Runtime.getRuntime().availableProcessors() * 3;
+            maxPooledBuffers = batches * m_batchSize;
+        }
+        // allocated a batch at a time, so an idle receiver doesn't hold on to
+        // memory for a backlog it never had
+        m_bufferPool = new ByteBufferPool(POOLED_BUFFER_SIZE, maxPooledBuffers, m_batchSize);
 
+        // Bounded so that a burst the processing threads can't keep up with is
+        // dropped (and counted) rather than queued until the heap runs out
         m_executor = new ThreadPoolExecutor(
             Runtime.getRuntime().availableProcessors() * 2,
             Runtime.getRuntime().availableProcessors() * 2,
             1000L,
             TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(),
-            new LogPreservingThreadFactory(getClass().getSimpleName(), Integer.MAX_VALUE)
+            new ArrayBlockingQueue<Runnable>(maxQueuedBatches),
+            new LogPreservingThreadFactory(getClass().getSimpleName(), Integer.MAX_VALUE),
+            m_dropPolicy
         );
 
         // This thread pool is used to process {@link DatagramChannel#receive(ByteBuffer)} calls
@@ -124,8 +186,9 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
             Runtime.getRuntime().availableProcessors(),
             1000L,
             TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(),
-            new LogPreservingThreadFactory(getClass().getSimpleName() + "-SocketReceiver", Integer.MAX_VALUE)
+            new ArrayBlockingQueue<Runnable>(Runtime.getRuntime().availableProcessors()),
+            new LogPreservingThreadFactory(getClass().getSimpleName() + "-SocketReceiver", Integer.MAX_VALUE),
+            m_dropPolicy
         );
     }
 
@@ -169,15 +232,6 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
         } else
             LOG.debug("Thread context started");
 
-        // set an SO timeout to make sure we don't block forever
-        // if a socket is closed.
-        try {
-            LOG.debug("Setting socket timeout to {}ms", SOCKET_TIMEOUT);
-            m_channel.socket().setSoTimeout(SOCKET_TIMEOUT);
-        } catch (SocketException e) {
-            LOG.warn("An I/O error occured while trying to set the socket timeout", e);
-        }
-
         // Increase the receive buffer for the socket
         try {
             LOG.debug("Attempting to set receive buffer size to {}", Integer.MAX_VALUE);
@@ -187,60 +241,60 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
             LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
         }
 
+        // Each receiver waits for the socket to become readable and then drains
+        // every datagram already queued (up to a batch) before handing them off,
+        // so a burst costs one wakeup and one executor task rather than one per
+        // datagram
+        try {
+            m_channel.configureBlocking(false);
+        } catch (IOException e) {
+            LOG.error("Unable to put the syslog channel into non-blocking mode, exiting", e);
+            return;
+        }
+
         for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
             m_socketReceivers.execute(new Runnable() {
+                @Override
                 public void run() {
+                    Selector selector = null;
+                    // every datagram is received into this buffer and copied into a pooled one
+                    // of the right size, so the pool never reserves room for a maximum-size
+                    // datagram per message
+                    final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+                    try {
+                        selector = Selector.open();
+                        m_channel.register(selector, SelectionKey.OP_READ);
+
+                        // now start processing incoming requests
+                        while (!m_stop) {
+                            if (m_context.isInterrupted()) {
+                                LOG.debug("Thread context interrupted");
+                                break;
+                            }
 
-                    // set to avoid numerous tracing message
-                    boolean ioInterrupted = false;
-
-                    // Allocate a buffer that's big enough to handle any sane syslog message
-                    ByteBuffer buffer = ByteBuffer.allocate(0xffff);
-                    buffer.clear();
-
-                    // now start processing incoming requests
-                    while (!m_stop) {
-                        if (m_context.isInterrupted()) {
-                            LOG.debug("Thread context interrupted");
-                            break;
-                        }
-
-                        try {
-                            if (!ioInterrupted) {
-                                LOG.debug("Waiting on a datagram to arrive");
+                            if (selector.select(SOCKET_TIMEOUT) == 0) {
+                                continue;
                             }
+                            selector.selectedKeys().clear();
 
-                            // Write the datagram into the ByteBuffer
-                            InetSocketAddress source = (InetSocketAddress)m_channel.receive(buffer);
-
-                            // Flip the buffer from write to read mode
-                            buffer.flip();
-
-                            WaterfallExecutor.waterfall(m_executor, new SyslogConnection(source, buffer, m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei));
-
-                            // Clear the buffer so that it's ready for writing again
-                            buffer.clear();
-
-                            // reset the flag
-                            ioInterrupted = false; 
-                        } catch (SocketTimeoutException e) {
-                            ioInterrupted = true;
-                            continue;
-                        } catch (InterruptedIOException e) {
-                            ioInterrupted = true;
-                            continue;
-                        } catch (ExecutionException e) {
-                            LOG.error("Task execution failed in {}", this.getClass().getSimpleName(), e);
-                            break;
-                        } catch (InterruptedException e) {
-                            LOG.error("Task interrupted in {}", this.getClass().getSimpleName(), e);
-                            break;
-                        } catch (IOException e) {
-                            LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
-                            break;
+                            final List<SyslogConnection> batch = receiveBatch(receiveBuffer);
+                            if (!batch.isEmpty()) {
+                                m_executor.execute(new BatchTask(batch));
+                            }
+                        } // end while status OK
+                    } catch (ClosedByInterruptException e) {
+                        LOG.debug("Thread context interrupted");
+                    } catch (IOException e) {
+                        LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
+                    } finally {
+                        if (selector != null) {
+                            try {
+                                selector.close();
+                            } catch (IOException e) {
+                                LOG.debug("Failed to close selector", e);
+                            }
                         }
-
-                    } // end while status OK
+                    }
 
                     LOG.debug("Thread context exiting");
                 }
@@ -248,6 +302,125 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
         }
     }
 
+    /**
+     * Receives the datagrams that are already waiting on the socket, up to
+     * the batch size, without blocking.  Each datagram is received into
+     * <code>receiveBuffer</code> and copied into a pooled buffer, or into
+     * heap memory when it doesn't fit one or the pool is exhausted.
+     */
+    List<SyslogConnection> receiveBatch(final ByteBuffer receiveBuffer) throws IOException {
+        final List<SyslogConnection> batch = new ArrayList<SyslogConnection>(Math.min(m_batchSize, 16));
+        while (batch.size() < m_batchSize) {
+            receiveBuffer.clear();
+            final InetSocketAddress source = (InetSocketAddress)m_channel.receive(receiveBuffer);
+            if (source == null) {
+                // drained; another receiver may have taken what was left
+                break;
+            }
+            receiveBuffer.flip();
+            final ByteBuffer buffer = receiveBuffer.remaining() <= m_bufferPool.getBufferSize() ? m_bufferPool.acquire() : null;
+            if (buffer != null) {
+                buffer.put(receiveBuffer).flip();
+                batch.add(new SyslogConnection(source, buffer, m_bufferPool, m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei));
+            } else {
+                batch.add(new SyslogConnection(source, receiveBuffer, m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Converts and forwards a batch of datagrams in order on the calling thread.
+     */
+    private static void processBatch(final List<SyslogConnection> batch) {
+        for (final SyslogConnection connection : batch) {
+            final SyslogProcessor processor = connection.call();
+            if (processor != null) {
+                processor.call();
+            }
+        }
+    }
+
+    ByteBufferPool getBufferPool() {
+        return m_bufferPool;
+    }
+
+    /**
+     * @return the number of batches dropped because the processing queue was full
+     */
+    long getDroppedBatches() {
+        return m_dropPolicy.getDroppedBatches();
+    }
+
+    /**
+     * @return the number of datagrams dropped because the processing queue was full
+     */
+    long getDroppedMessages() {
+        return m_dropPolicy.getDroppedMessages();
+    }
+
+    /**
+     * A batch of received datagrams waiting to be processed.
+     */
+    static final class BatchTask implements Runnable {
+        private final List<SyslogConnection> m_batch;
+
+        BatchTask(final List<SyslogConnection> batch) {
+            m_batch = batch;
+        }
+
+        @Override
+        public void run() {
+            processBatch(m_batch);
+        }
+
+        int size() {
+            return m_batch.size();
+        }
+
+        void discard() {
+            for (final SyslogConnection connection : m_batch) {
+                connection.discard();
+            }
+        }
+    }
+
+    /**
+     * Drops tasks that don't fit in a bounded executor queue instead of blocking
+     * the socket receivers.  Dropped batches hand their buffers back to the pool
+     * and are counted.
+     */
+    static final class DropBatchPolicy implements RejectedExecutionHandler {
+        private final AtomicLong m_droppedBatches = new AtomicLong();
+        private final AtomicLong m_droppedMessages = new AtomicLong();
+
+        @Override
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+            if (!(r instanceof BatchTask)) {
+                LOG.warn("Syslog receiver thread pool is full, dropping {}", r);
+                return;
+            }
+            final BatchTask batch = (BatchTask)r;
+            final long dropped = m_droppedBatches.incrementAndGet();
+            final long droppedMessages = m_droppedMessages.addAndGet(batch.size());
+            batch.discard();
+            if (executor.isShutdown()) {
+                LOG.debug("Syslog processing has been shut down, dropped {} messages", batch.size());
+            } else if (dropped % 1000 == 1) {
+                // log the first drop and then every thousandth, not every one of a long burst
+                LOG.warn("Syslog processing queue is full, {} messages dropped so far", droppedMessages);
+            }
+        }
+
+        long getDroppedBatches() {
+            return m_droppedBatches.get();
+        }
+
+        long getDroppedMessages() {
+            return m_droppedMessages.get();
+        }
+    }
+
     /**
      * <p>setLogPrefix</p>
      *
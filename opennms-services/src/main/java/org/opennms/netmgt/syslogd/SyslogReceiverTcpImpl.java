@@ -0,0 +1,659 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Receives syslog messages over TCP, optionally wrapped in TLS (RFC 5425),
+ * framed with either octet-counting or newlines (RFC 6587).</p>
+ *
+ * <p>One thread runs a selector over the listening socket and every
+ * connection.  Each read is split into messages by the connection's
+ * {@link SyslogFrameDecoder} and the messages are handed to the parsing pool
+ * as one task.  When a connection has too many messages waiting in the pool,
+ * or the pool as a whole is backed up, the receiver stops reading from that
+ * connection until the backlog has halved.  The data then waits in the
+ * kernel's socket buffer and TCP flow control slows the sender down, instead
+ * of messages being dropped as they are with UDP.</p>
+ */
+class SyslogReceiverTcpImpl implements SyslogReceiver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverTcpImpl.class);
+
+    /**
+     * How long the selector waits before checking whether the receiver has
+     * been stopped.
+     */
+    private static final int SOCKET_TIMEOUT = 500;
+
+    private static final int READ_BUFFER_SIZE = 16384;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private volatile boolean m_stop;
+
+    private final ServerSocketChannel m_channel;
+
+    private final SSLContext m_sslContext;
+
+    private final Selector m_selector;
+
+    /**
+     * The context thread
+     */
+    private Thread m_context;
+
+    private final String m_matchPattern;
+
+    private final int m_hostGroup;
+
+    private final int m_messageGroup;
+
+    private final String m_discardUei;
+
+    private final UeiList m_UeiList;
+
+    private final HideMessage m_HideMessages;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * The longest message accepted; anything longer is dropped.
+     */
+    private final int m_maxMessageSize = Integer.getInteger("org.opennms.netmgt.syslogd.tcp.maxMessageSize", 65535);
+
+    /**
+     * How many messages one connection may have waiting in the parsing pool
+     * before the receiver stops reading from it.
+     */
+    private final int m_maxPendingPerConnection = Math.max(1, Integer.getInteger("org.opennms.netmgt.syslogd.tcp.maxPendingPerConnection", 1024));
+
+    /**
+     * How many messages may be waiting in the parsing pool in total before
+     * the receiver stops reading from any connection.
+     */
+    private final int m_maxPending = Math.max(1, Integer.getInteger("org.opennms.netmgt.syslogd.tcp.maxPending", 16384));
+
+    private final AtomicInteger m_pending = new AtomicInteger();
+
+    private final AtomicInteger m_pausedConnections = new AtomicInteger();
+
+    private final AtomicLong m_connectionsAccepted = new AtomicLong();
+
+    private final AtomicInteger m_connectionsOpen = new AtomicInteger();
+
+    private final AtomicLong m_bytesReceived = new AtomicLong();
+
+    private final AtomicLong m_messagesReceived = new AtomicLong();
+
+    private final AtomicLong m_framingErrors = new AtomicLong();
+
+    private final AtomicLong m_readsPaused = new AtomicLong();
+
+    /**
+     * Construct a new receiver
+     *
+     * @param channel a bound server channel
+     * @param sslContext the context to accept TLS connections with, or
+     * <code>null</code> for plain TCP
+     * @param matchPattern
+     * @param hostGroup
+     * @param messageGroup
+     * @throws IOException if the selector cannot be opened
+     */
+    SyslogReceiverTcpImpl(ServerSocketChannel channel, SSLContext sslContext, String matchPattern, int hostGroup, int messageGroup,
+                   UeiList ueiList, HideMessage hideMessages, String discardUei) throws IOException {
+        m_stop = false;
+        m_channel = channel;
+        m_sslContext = sslContext;
+        m_selector = Selector.open();
+        m_matchPattern = matchPattern;
+        m_hostGroup = hostGroup;
+        m_messageGroup = messageGroup;
+        m_discardUei = discardUei;
+        m_UeiList = ueiList;
+        m_HideMessages = hideMessages;
+
+        m_executor = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors() * 2,
+            Runtime.getRuntime().availableProcessors() * 2,
+            1000L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new LogPreservingThreadFactory(getClass().getSimpleName(), Integer.MAX_VALUE)
+        );
+    }
+
+    /**
+     * stop the current receiver
+     * @throws InterruptedException
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        m_stop = true;
+        m_selector.wakeup();
+
+        m_executor.shutdown();
+
+        if (m_context != null) {
+            LOG.debug("Stopping and joining thread context {}", m_context.getName());
+            m_context.join();
+            LOG.debug("Thread context stopped and joined");
+        }
+    }
+
+    /**
+     * The execution context.
+     */
+    @Override
+    public void run() {
+        // get the context
+        m_context = Thread.currentThread();
+
+        // Get a log instance
+        Logging.putPrefix(Syslogd.LOG4J_CATEGORY);
+
+        if (m_stop) {
+            LOG.debug("Stop flag set before thread started, exiting");
+            closeAll();
+            return;
+        } else
+            LOG.debug("Thread context started");
+
+        try {
+            m_channel.configureBlocking(false);
+            m_channel.register(m_selector, SelectionKey.OP_ACCEPT);
+
+            while (!m_stop) {
+                if (m_context.isInterrupted()) {
+                    LOG.debug("Thread context interrupted");
+                    break;
+                }
+
+                if (m_pausedConnections.get() > 0) {
+                    resumeConnections();
+                }
+
+                if (m_selector.select(SOCKET_TIMEOUT) == 0) {
+                    continue;
+                }
+
+                final Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    final TcpConnection connection = (TcpConnection)key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    } catch (IOException e) {
+                        LOG.debug("Closing syslog connection from {}", connection.m_source, e);
+                        connection.close();
+                    }
+                }
+            }
+        } catch (ClosedByInterruptException e) {
+            LOG.debug("Thread context interrupted");
+        } catch (ClosedSelectorException e) {
+            LOG.debug("Selector closed, exiting");
+        } catch (IOException e) {
+            LOG.error("An I/O exception occured on the syslog TCP port, exiting", e);
+        } finally {
+            closeAll();
+        }
+
+        LOG.debug("Thread context exiting");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socket;
+        while ((socket = m_channel.accept()) != null) {
+            try {
+                socket.configureBlocking(false);
+                final InetSocketAddress source = (InetSocketAddress)socket.getRemoteAddress();
+                SSLEngine engine = null;
+                if (m_sslContext != null) {
+                    engine = m_sslContext.createSSLEngine(source.getHostString(), source.getPort());
+                    engine.setUseClientMode(false);
+                    engine.beginHandshake();
+                }
+                final SelectionKey key = socket.register(m_selector, SelectionKey.OP_READ);
+                key.attach(new TcpConnection(socket, key, source, engine));
+                m_connectionsAccepted.incrementAndGet();
+                m_connectionsOpen.incrementAndGet();
+                LOG.debug("Accepted syslog connection from {}", source);
+            } catch (IOException e) {
+                LOG.warn("Failed to set up syslog connection from {}", socket, e);
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Starts reading again from the connections that were paused, once their
+     * backlog in the parsing pool has drained far enough.
+     */
+    private void resumeConnections() {
+        for (final SelectionKey key : m_selector.keys()) {
+            final Object attachment = key.attachment();
+            if (attachment instanceof TcpConnection && key.isValid()) {
+                final TcpConnection connection = (TcpConnection)attachment;
+                if (connection.m_paused && !mustPause(connection, 2)) {
+                    connection.m_paused = false;
+                    m_pausedConnections.decrementAndGet();
+                    connection.updateInterest();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param divisor 1 to test the limits themselves, 2 to test half of them
+     */
+    private boolean mustPause(final TcpConnection connection, final int divisor) {
+        return connection.m_pending.get() >= Math.max(1, m_maxPendingPerConnection / divisor)
+            || m_pending.get() >= Math.max(1, m_maxPending / divisor);
+    }
+
+    private void submit(final TcpConnection connection, final List<ByteBuffer> frames) {
+        if (frames.isEmpty()) {
+            return;
+        }
+        final int count = frames.size();
+        m_messagesReceived.addAndGet(count);
+        connection.m_pending.addAndGet(count);
+        m_pending.addAndGet(count);
+        try {
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        process(connection.m_source, frames);
+                    } finally {
+                        completed(connection, count);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Syslog processing has been shut down, dropping {} messages from {}", count, connection.m_source);
+            completed(connection, count);
+        }
+    }
+
+    private void completed(final TcpConnection connection, final int count) {
+        connection.m_pending.addAndGet(-count);
+        m_pending.addAndGet(-count);
+        if (m_pausedConnections.get() > 0) {
+            m_selector.wakeup();
+        }
+    }
+
+    /**
+     * Converts and forwards the messages from one read in order on the
+     * calling thread.
+     */
+    void process(final InetSocketAddress source, final List<ByteBuffer> frames) {
+        for (final ByteBuffer frame : frames) {
+            final SyslogConnection connection = new SyslogConnection(source, frame, null, m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei);
+            final SyslogProcessor processor = connection.call();
+            if (processor != null) {
+                processor.call();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (final SelectionKey key : m_selector.keys()) {
+            if (key.attachment() instanceof TcpConnection) {
+                ((TcpConnection)key.attachment()).close();
+            }
+        }
+        try {
+            m_channel.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close the syslog TCP port", e);
+        }
+        try {
+            m_selector.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close selector", e);
+        }
+    }
+
+    /**
+     * @return the number of connections accepted since the receiver started
+     */
+    long getConnectionsAccepted() {
+        return m_connectionsAccepted.get();
+    }
+
+    /**
+     * @return the number of connections currently open
+     */
+    int getConnectionsOpen() {
+        return m_connectionsOpen.get();
+    }
+
+    /**
+     * @return the number of bytes read from the network, including TLS
+     * overhead and framing
+     */
+    long getBytesReceived() {
+        return m_bytesReceived.get();
+    }
+
+    /**
+     * @return the number of messages passed to the parsing pool
+     */
+    long getMessagesReceived() {
+        return m_messagesReceived.get();
+    }
+
+    /**
+     * @return the number of messages dropped because they were too long or
+     * cut short
+     */
+    long getFramingErrors() {
+        return m_framingErrors.get();
+    }
+
+    /**
+     * @return how many times a connection was paused because the parsing
+     * pool was backed up
+     */
+    long getReadsPaused() {
+        return m_readsPaused.get();
+    }
+
+    /**
+     * <p>setLogPrefix</p>
+     *
+     * @param prefix a {@link java.lang.String} object.
+     */
+    @Override
+    public void setLogPrefix(String prefix) {
+    }
+
+    /**
+     * The state of one connection.  Only touched by the selector thread,
+     * except for the pending count.
+     */
+    private final class TcpConnection {
+        private final SocketChannel m_socket;
+        private final SelectionKey m_key;
+        private final InetSocketAddress m_source;
+        private final SyslogFrameDecoder m_decoder = new SyslogFrameDecoder(m_maxMessageSize);
+        private final AtomicInteger m_pending = new AtomicInteger();
+
+        /**
+         * Plain text read from the connection, waiting to be decoded.
+         */
+        private final ByteBuffer m_readBuffer;
+
+        private final SSLEngine m_engine;
+
+        /**
+         * TLS records read from the connection, waiting to be unwrapped.
+         */
+        private final ByteBuffer m_netIn;
+
+        /**
+         * Handshake records waiting to be written to the connection.
+         */
+        private final ByteBuffer m_netOut;
+
+        private long m_lastFramingErrors;
+        private boolean m_paused;
+        private boolean m_closed;
+
+        private TcpConnection(final SocketChannel socket, final SelectionKey key, final InetSocketAddress source, final SSLEngine engine) {
+            m_socket = socket;
+            m_key = key;
+            m_source = source;
+            m_engine = engine;
+            if (engine == null) {
+                m_readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                m_netIn = null;
+                m_netOut = null;
+            } else {
+                m_readBuffer = ByteBuffer.allocate(Math.max(READ_BUFFER_SIZE, engine.getSession().getApplicationBufferSize()));
+                m_netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                m_netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            }
+        }
+
+        private void onReadable() throws IOException {
+            final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+            final boolean eof;
+            if (m_engine == null) {
+                final int read = m_socket.read(m_readBuffer);
+                eof = read < 0;
+                if (read > 0) {
+                    m_bytesReceived.addAndGet(read);
+                }
+                decode(frames);
+            } else {
+                final int read = m_socket.read(m_netIn);
+                if (read > 0) {
+                    m_bytesReceived.addAndGet(read);
+                }
+                unwrap(frames);
+                eof = read < 0 || m_engine.isInboundDone();
+            }
+
+            if (eof) {
+                m_decoder.endOfStream(frames);
+            }
+            countFramingErrors();
+            submit(this, frames);
+
+            if (eof) {
+                LOG.debug("Syslog connection from {} closed by peer", m_source);
+                close();
+            } else if (!m_paused && mustPause(this, 1)) {
+                m_paused = true;
+                m_pausedConnections.incrementAndGet();
+                m_readsPaused.incrementAndGet();
+                updateInterest();
+            }
+        }
+
+        private void onWritable() throws IOException {
+            flush();
+            if (m_netOut.position() == 0) {
+                // the handshake may be waiting on what was just written
+                final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+                unwrap(frames);
+                countFramingErrors();
+                submit(this, frames);
+            }
+        }
+
+        private void decode(final List<ByteBuffer> frames) {
+            m_readBuffer.flip();
+            m_decoder.decode(m_readBuffer, frames);
+            m_readBuffer.clear();
+        }
+
+        /**
+         * Runs the TLS engine over the records read so far: completes the
+         * handshake and decodes whatever application data they hold.
+         */
+        private void unwrap(final List<ByteBuffer> frames) throws IOException {
+            m_netIn.flip();
+            try {
+                while (true) {
+                    final HandshakeStatus status = m_engine.getHandshakeStatus();
+                    if (status == HandshakeStatus.NEED_TASK) {
+                        Runnable task;
+                        while ((task = m_engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        continue;
+                    }
+                    if (status == HandshakeStatus.NEED_WRAP) {
+                        if (!wrap()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if (!m_netIn.hasRemaining()) {
+                        return;
+                    }
+
+                    final SSLEngineResult result = m_engine.unwrap(m_netIn, m_readBuffer);
+                    decode(frames);
+                    switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        // the rest of the record hasn't arrived yet
+                        return;
+                    case CLOSED:
+                        return;
+                    default:
+                        break;
+                    }
+                }
+            } finally {
+                m_netIn.compact();
+            }
+        }
+
+        /**
+         * @return false if the handshake can't continue until the socket is
+         * writable again
+         */
+        private boolean wrap() throws IOException {
+            final SSLEngineResult result = m_engine.wrap(EMPTY, m_netOut);
+            flush();
+            switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                return m_netOut.position() == 0;
+            case CLOSED:
+                return false;
+            default:
+                return true;
+            }
+        }
+
+        private void flush() throws IOException {
+            m_netOut.flip();
+            try {
+                m_socket.write(m_netOut);
+            } finally {
+                m_netOut.compact();
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            int ops = m_paused ? 0 : SelectionKey.OP_READ;
+            if (m_netOut != null && m_netOut.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (m_key.isValid()) {
+                m_key.interestOps(ops);
+            }
+        }
+
+        private void countFramingErrors() {
+            final long framingErrors = m_decoder.getFramingErrors();
+            if (framingErrors != m_lastFramingErrors) {
+                m_framingErrors.addAndGet(framingErrors - m_lastFramingErrors);
+                m_lastFramingErrors = framingErrors;
+            }
+        }
+
+        private void close() {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+            if (m_paused) {
+                m_pausedConnections.decrementAndGet();
+            }
+            m_connectionsOpen.decrementAndGet();
+            m_key.cancel();
+            if (m_engine != null) {
+                try {
+                    m_engine.closeInbound();
+                } catch (SSLException e) {
+                    // the peer went away without a close_notify; nothing to do about it
+                }
+            }
+            try {
+                m_socket.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close syslog connection from {}", m_source, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Reads RFC 5424 and BSD (RFC 3164 / syslog-ng) messages straight out of a
+ * received datagram without decoding the whole datagram to a
+ * <code>String</code> or running a regular expression over it.  The tokenizer
+ * walks the bytes once, parses the priority, version, process ID and common
+ * timestamp forms in place, and only creates strings for the fields a
+ * {@link SyslogMessage} keeps.</p>
+ *
+ * <p>The result is the same message that {@link Rfc5424SyslogParser} or
+ * {@link SyslogNGParser} would produce for the same text.  For anything
+ * outside the well-formed cases the tokenizer returns <code>null</code>,
+ * without trying to second-guess those parsers' regular expressions.  The
+ * caller then decodes the datagram and uses the configured parser as
+ * before.</p>
+ *
+ * <p>Bytes are read as US-ASCII, like <code>ConvertToEvent</code> decodes
+ * them: anything outside 7-bit ASCII becomes U+FFFD.</p>
+ */
+final class SyslogTokenizer {
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogTokenizer.class);
+
+    private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+    private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private SyslogTokenizer() {
+    }
+
+    /**
+     * @return true if the tokenizer can stand in for the given parser class
+     */
+    static boolean supports(final Class<?> parserClass) {
+        return parserClass == Rfc5424SyslogParser.class || parserClass == SyslogNGParser.class;
+    }
+
+    /**
+     * Tokenizes the remaining bytes of <code>buffer</code> in the format read by
+     * <code>parserClass</code>.  The buffer's position and limit are not changed.
+     *
+     * @return the parsed message, or null if the caller should fall back to the parser
+     */
+    static SyslogMessage tokenize(final ByteBuffer buffer, final Class<? extends SyslogParser> parserClass) {
+        final int start = buffer.position();
+        int end = buffer.limit();
+
+        // ConvertToEvent strips a single trailing NUL
+        if (end > start && buffer.get(end - 1) == 0) {
+            end--;
+        }
+        // trailing line terminators never make it into a field
+        while (end > start && isLineTerminator(buffer.get(end - 1))) {
+            end--;
+        }
+        // the parsers' patterns are line-oriented; leave multi-line datagrams to them
+        for (int i = start; i < end; i++) {
+            if (isLineTerminator(buffer.get(i))) {
+                return null;
+            }
+        }
+
+        final SyslogMessage message;
+        if (parserClass == Rfc5424SyslogParser.class) {
+            message = tokenizeRfc5424(buffer, start, end);
+        } else if (parserClass == SyslogNGParser.class) {
+            message = tokenizeBsd(buffer, start, end);
+        } else {
+            return null;
+        }
+        if (message != null) {
+            message.setParserClass(parserClass);
+        }
+        return message;
+    }
+
+    /**
+     * <code>&lt;PRI&gt;VERSION TIMESTAMP HOST APP PROCID MSGID STRUCTURED-DATA [MSG]</code>
+     */
+    private static SyslogMessage tokenizeRfc5424(final ByteBuffer buf, final int start, final int end) {
+        int p = start;
+        final int priEnd = priorityEnd(buf, p, end);
+        if (priEnd < 0) return null;
+        final int priority = parseNumber(buf, p + 1, priEnd - 1);
+        p = priEnd;
+
+        // version: up to two digits, then a space
+        final int versionStart = p;
+        while (p < end && p - versionStart < 3 && isDigit(buf.get(p))) p++;
+        if (p - versionStart > 2 || p >= end || buf.get(p) != ' ') return null;
+        final int versionEnd = p++;
+
+        // timestamp: a run of non-spaces with a 'T' somewhere inside it
+        final int tsStart = p;
+        final int tsEnd = tokenEnd(buf, p, end);
+        if (!followedBySpace(buf, tsEnd, end) || indexOf(buf, tsStart + 1, tsEnd - 1, 'T') < 0) return null;
+        p = tsEnd + 1;
+
+        final int hostStart = p;
+        final int hostEnd = tokenEnd(buf, p, end);
+        if (!followedBySpace(buf, hostEnd, end)) return null;
+        p = hostEnd + 1;
+
+        final int appStart = p;
+        final int appEnd = tokenEnd(buf, p, end);
+        if (!followedBySpace(buf, appEnd, end)) return null;
+        p = appEnd + 1;
+
+        // process ID: digits or "-"
+        final int procStart = p;
+        while (p < end && isDigit(buf.get(p))) p++;
+        if (p == procStart) {
+            if (p >= end || buf.get(p) != '-') return null;
+            p++;
+        }
+        if (!followedBySpace(buf, p, end)) return null;
+        final int procEnd = p++;
+
+        final int msgIdStart = p;
+        final int msgIdEnd = tokenEnd(buf, p, end);
+        if (!followedBySpace(buf, msgIdEnd, end)) return null;
+        p = msgIdEnd + 1;
+
+        // structured data: "-", one or more [...] elements, or nothing at all
+        if (p < end) {
+            final byte c = buf.get(p);
+            if (c == '-') {
+                p++;
+            } else if (c == '[') {
+                while (p < end && buf.get(p) == '[') {
+                    final int close = indexOf(buf, p + 1, end, ']');
+                    if (close < 0) return null;
+                    p = close + 1;
+                }
+            } else if (c != ' ') {
+                return null;
+            }
+        }
+        int msgStart = -1;
+        if (p < end) {
+            if (buf.get(p) != ' ') return null;
+            msgStart = p + 1;
+            if (end - msgStart >= 3 && buf.get(msgStart) == 'B' && buf.get(msgStart + 1) == 'O' && buf.get(msgStart + 2) == 'M') {
+                msgStart += 3;
+            }
+        }
+
+        final SyslogMessage message = new SyslogMessage();
+        message.setFacility(SyslogFacility.getFacilityForCode(priority));
+        message.setSeverity(SyslogSeverity.getSeverityForCode(priority));
+        if (versionEnd > versionStart) {
+            message.setVersion(parseNumber(buf, versionStart, versionEnd));
+        }
+        message.setDate(parseRfc5424Date(buf, tsStart, tsEnd));
+        if (!isNil(buf, hostStart, hostEnd)) {
+            message.setHostName(ascii(buf, hostStart, hostEnd));
+        }
+        if (!isNil(buf, appStart, appEnd)) {
+            message.setProcessName(ascii(buf, appStart, appEnd));
+        }
+        if (!isNil(buf, procStart, procEnd)) {
+            final int processId = parseNumber(buf, procStart, procEnd);
+            if (processId >= 0) {
+                message.setProcessId(processId);
+            } else {
+                LOG.debug("Unable to parse process ID '{}' as a number.", ascii(buf, procStart, procEnd));
+            }
+        }
+        if (!isNil(buf, msgIdStart, msgIdEnd)) {
+            message.setMessageID(ascii(buf, msgIdStart, msgIdEnd));
+        }
+        if (msgStart >= 0 && msgStart < end) {
+            message.setMessage(ascii(buf, msgStart, end).trim());
+        }
+        return message;
+    }
+
+    /**
+     * <code>&lt;PRI&gt;[IDENT[:] ]TIMESTAMP HOST [PROCESS[[PID]]: ]MSG</code> where
+     * TIMESTAMP is either "yyyy-MM-dd" or "MMM d HH:mm:ss".
+     */
+    private static SyslogMessage tokenizeBsd(final ByteBuffer buf, final int start, final int end) {
+        final int priEnd = priorityEnd(buf, start, end);
+        if (priEnd < 0) return null;
+        final int priority = parseNumber(buf, start + 1, priEnd - 1);
+
+        // find the shortest ident in front of a timestamp, optionally followed by ": " or " "
+        int identEnd = priEnd;
+        int dateStart = -1;
+        int dateEnd = -1;
+        while (dateEnd < 0) {
+            if (identEnd + 1 < end && buf.get(identEnd) == ':' && buf.get(identEnd + 1) == ' ') {
+                dateStart = identEnd + 2;
+                dateEnd = dateEnd(buf, dateStart, end);
+            }
+            if (dateEnd < 0 && identEnd < end && buf.get(identEnd) == ' ') {
+                dateStart = identEnd + 1;
+                dateEnd = dateEnd(buf, dateStart, end);
+            }
+            if (dateEnd < 0) {
+                dateStart = identEnd;
+                dateEnd = dateEnd(buf, dateStart, end);
+            }
+            if (dateEnd < 0) {
+                if (identEnd >= end || isWhitespace(buf.get(identEnd))) return null;
+                identEnd++;
+            }
+        }
+        if (!followedBySpace(buf, dateEnd, end)) return null;
+
+        final int hostStart = dateEnd + 1;
+        final int hostEnd = tokenEnd(buf, hostStart, end);
+        if (hostEnd == hostStart || !followedBySpace(buf, hostEnd, end)) return null;
+
+        int p = hostEnd + 1;
+        if (p >= end || isWhitespace(buf.get(p))) return null;
+
+        // "process[pid]: " is the first word if it ends in a colon and more text follows
+        int processStart = -1;
+        int processEnd = -1;
+        int pidStart = -1;
+        int pidEnd = -1;
+        final int wordEnd = tokenEnd(buf, p, end);
+        int msgStart = p;
+        if (wordEnd - p >= 2 && buf.get(wordEnd - 1) == ':') {
+            int afterColon = wordEnd;
+            while (afterColon < end && isWhitespace(buf.get(afterColon))) afterColon++;
+            if (afterColon > wordEnd && afterColon < end) {
+                processStart = p;
+                processEnd = wordEnd - 1;
+                if (buf.get(processEnd - 1) == ']') {
+                    int open = processEnd - 2;
+                    while (open > processStart && isDigit(buf.get(open))) open--;
+                    if (open > processStart && buf.get(open) == '[' && open < processEnd - 2) {
+                        pidStart = open + 1;
+                        pidEnd = processEnd - 1;
+                        processEnd = open;
+                    }
+                }
+                msgStart = afterColon;
+            }
+        }
+
+        final SyslogMessage message = new SyslogMessage();
+        message.setFacility(SyslogFacility.getFacilityForCode(priority));
+        message.setSeverity(SyslogSeverity.getSeverityForCode(priority));
+        if (identEnd > priEnd) {
+            message.setMessageID(ascii(buf, priEnd, identEnd));
+        }
+        Date date = parseBsdDate(buf, dateStart, dateEnd);
+        if (date == null) date = new Date();
+        message.setDate(date);
+        message.setHostName(ascii(buf, hostStart, hostEnd));
+        if (processStart >= 0) {
+            message.setProcessName(ascii(buf, processStart, processEnd));
+        }
+        if (pidStart >= 0) {
+            final int processId = parseNumber(buf, pidStart, pidEnd);
+            if (processId >= 0) {
+                message.setProcessId(processId);
+            } else {
+                LOG.debug("Unable to parse '{}' as a process ID.", ascii(buf, pidStart, pidEnd));
+            }
+        }
+        message.setMessage(ascii(buf, msgStart, end).trim());
+        return message;
+    }
+
+    /**
+     * @return the index after "&lt;NNN&gt;" at <code>p</code>, or -1
+     */
+    private static int priorityEnd(final ByteBuffer buf, final int p, final int end) {
+        if (p >= end || buf.get(p) != '<') return -1;
+        int i = p + 1;
+        while (i < end && i - p <= 3 && isDigit(buf.get(i))) i++;
+        if (i == p + 1 || i >= end || buf.get(i) != '>') return -1;
+        return i + 1;
+    }
+
+    /**
+     * @return the index after a "yyyy-MM-dd" or "MMM d HH:mm:ss" timestamp at <code>p</code>, or -1
+     */
+    private static int dateEnd(final ByteBuffer buf, final int p, final int end) {
+        if (p + 10 <= end && isDigits(buf, p, p + 4) && buf.get(p + 4) == '-' && isDigits(buf, p + 5, p + 7) && buf.get(p + 7) == '-' && isDigits(buf, p + 8, p + 10)) {
+            return p + 10;
+        }
+        if (p + 3 > end || isWhitespace(buf.get(p)) || isWhitespace(buf.get(p + 1)) || isWhitespace(buf.get(p + 2))) {
+            return -1;
+        }
+        int i = skipWhitespace(buf, p + 3, end);
+        if (i == p + 3) return -1;
+        final int day = i;
+        while (i < end && i - day < 2 && isDigit(buf.get(i))) i++;
+        if (i == day) return -1;
+        final int spaced = skipWhitespace(buf, i, end);
+        if (spaced == i) return -1;
+        i = spaced;
+        if (i + 8 > end || !isDigits(buf, i, i + 2) || buf.get(i + 2) != ':' || !isDigits(buf, i + 3, i + 5) || buf.get(i + 5) != ':' || !isDigits(buf, i + 6, i + 8)) {
+            return -1;
+        }
+        return i + 8;
+    }
+
+    /**
+     * Parses "yyyy-MM-ddTHH:mm:ssZ" and "yyyy-MM-ddTHH:mm:ss+hh:mm" in place and
+     * hands every other form to {@link Rfc5424SyslogParser}.
+     */
+    private static Date parseRfc5424Date(final ByteBuffer buf, final int start, final int end) {
+        final int len = end - start;
+        if ((len == 20 || len == 24 || len == 25) && buf.get(start + 10) == 'T') {
+            final long local = dateTime(buf, start);
+            if (local != Long.MIN_VALUE) {
+                if (len == 20 && buf.get(start + 19) == 'Z') {
+                    return new Date(local);
+                }
+                final byte sign = buf.get(start + 19);
+                if (len != 20 && (sign == '+' || sign == '-')) {
+                    final int minutesAt = len == 25 ? start + 23 : start + 22;
+                    if ((len == 24 || buf.get(start + 22) == ':') && isDigits(buf, start + 20, start + 22) && isDigits(buf, minutesAt, minutesAt + 2)) {
+                        final int hours = parseNumber(buf, start + 20, start + 22);
+                        final int minutes = parseNumber(buf, minutesAt, minutesAt + 2);
+                        if (hours < 24 && minutes < 60) {
+                            final long offset = (hours * 60L + minutes) * 60000L;
+                            return new Date(sign == '+' ? local - offset : local + offset);
+                        }
+                    }
+                }
+            }
+        }
+        return Rfc5424SyslogParser.parseRfc5424Date(ascii(buf, start, end));
+    }
+
+    /**
+     * Parses "yyyy-MM-dd" and "MMM d HH:mm:ss" (this year) as UTC in place and hands
+     * every other form to {@link SyslogParser}.
+     */
+    private static Date parseBsdDate(final ByteBuffer buf, final int start, final int end) {
+        final int len = end - start;
+        if (len == 10 && isDigit(buf.get(start))) {
+            final int year = parseNumber(buf, start, start + 4);
+            final int month = parseNumber(buf, start + 5, start + 7);
+            final int day = parseNumber(buf, start + 8, start + 10);
+            if (isValidDate(year, month, day)) {
+                return new Date(daysFromCivil(year, month, day) * MILLIS_PER_DAY);
+            }
+        } else if ((len == 14 || len == 15) && buf.get(start + 3) == ' ' && isDigits(buf, start + 4, end - 9) && buf.get(end - 9) == ' ') {
+            final int month = month(buf, start);
+            final int day = parseNumber(buf, start + 4, end - 9);
+            final long time = time(buf, end - 8);
+            // February 29th depends on the year; leave it to the slow path
+            if (month > 0 && day >= 1 && day <= DAYS_IN_MONTH[month - 1] && !(month == 2 && day == 29) && time >= 0) {
+                final int year = Calendar.getInstance().get(Calendar.YEAR);
+                return new Date(daysFromCivil(year, month, day) * MILLIS_PER_DAY + time);
+            }
+        }
+        return SyslogParser.parseSyslogDate(ascii(buf, start, end));
+    }
+
+    /**
+     * @return "yyyy-MM-ddTHH:mm:ss" at <code>p</code> as UTC milliseconds, or Long.MIN_VALUE
+     */
+    private static long dateTime(final ByteBuffer buf, final int p) {
+        if (!isDigits(buf, p, p + 4) || buf.get(p + 4) != '-' || !isDigits(buf, p + 5, p + 7) || buf.get(p + 7) != '-' || !isDigits(buf, p + 8, p + 10)) {
+            return Long.MIN_VALUE;
+        }
+        final int year = parseNumber(buf, p, p + 4);
+        final int month = parseNumber(buf, p + 5, p + 7);
+        final int day = parseNumber(buf, p + 8, p + 10);
+        final long time = time(buf, p + 11);
+        if (!isValidDate(year, month, day) || time < 0) {
+            return Long.MIN_VALUE;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY + time;
+    }
+
+    /**
+     * @return "HH:mm:ss" at <code>p</code> as milliseconds into the day, or -1
+     */
+    private static long time(final ByteBuffer buf, final int p) {
+        if (!isDigits(buf, p, p + 2) || buf.get(p + 2) != ':' || !isDigits(buf, p + 3, p + 5) || buf.get(p + 5) != ':' || !isDigits(buf, p + 6, p + 8)) {
+            return -1;
+        }
+        final int hours = parseNumber(buf, p, p + 2);
+        final int minutes = parseNumber(buf, p + 3, p + 5);
+        final int seconds = parseNumber(buf, p + 6, p + 8);
+        if (hours > 23 || minutes > 59 || seconds > 59) {
+            return -1;
+        }
+        return ((hours * 60L + minutes) * 60L + seconds) * 1000L;
+    }
+
+    private static int month(final ByteBuffer buf, final int p) {
+        for (int m = 0; m < MONTHS.length; m++) {
+            final String name = MONTHS[m];
+            if (buf.get(p) == name.charAt(0) && buf.get(p + 1) == name.charAt(1) && buf.get(p + 2) == name.charAt(2)) {
+                return m + 1;
+            }
+        }
+        return -1;
+    }
+
+    // 1900 keeps us well inside the Gregorian calendar SimpleDateFormat would use
+    private static boolean isValidDate(final int year, final int month, final int day) {
+        if (year < 1900 || month < 1 || month > 12 || day < 1) return false;
+        if (month == 2 && day == 29) {
+            return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        }
+        return day <= DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * @return the number of days from 1970-01-01 to the given date in the proleptic Gregorian calendar
+     */
+    static long daysFromCivil(final int year, final int month, final int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the decimal number in [start, end), or -1 if it does not fit in an int
+     */
+    private static int parseNumber(final ByteBuffer buf, final int start, final int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (buf.get(i) - '0');
+            if (value > Integer.MAX_VALUE) return -1;
+        }
+        return (int)value;
+    }
+
+    private static int tokenEnd(final ByteBuffer buf, int p, final int end) {
+        while (p < end && !isWhitespace(buf.get(p))) p++;
+        return p;
+    }
+
+    private static int skipWhitespace(final ByteBuffer buf, int p, final int end) {
+        while (p < end && isWhitespace(buf.get(p))) p++;
+        return p;
+    }
+
+    private static boolean followedBySpace(final ByteBuffer buf, final int p, final int end) {
+        return p < end && buf.get(p) == ' ';
+    }
+
+    private static int indexOf(final ByteBuffer buf, final int start, final int end, final char c) {
+        for (int i = start; i < end; i++) {
+            if (buf.get(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isNil(final ByteBuffer buf, final int start, final int end) {
+        return end - start == 1 && buf.get(start) == '-';
+    }
+
+    private static boolean isDigits(final ByteBuffer buf, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (!isDigit(buf.get(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Matches the regex class <code>\s</code>.
+     */
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private static boolean isLineTerminator(final byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Decodes [start, end) the way <code>new String(bytes, "US-ASCII")</code> would.
+     */
+    private static String ascii(final ByteBuffer buf, final int start, final int end) {
+        final char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            final byte b = buf.get(i);
+            chars[i - start] = b < 0 ? '\uFFFD' : (char)b;
+        }
+        return new String(chars);
+    }
+}
@@ -121,6 +121,11 @@ import org.slf4j.LoggerFactory;
         }
 
         SyslogHandler.setSyslogConfig(SyslogdConfigFactory.getInstance());
+
+        // compile the uei-match rules now rather than on the first message
+        ConvertToEvent.invalidate();
+        ConvertToEvent.getMatchEngine(SyslogdConfigFactory.getInstance().getUeiList(), SyslogdConfigFactory.getInstance().getHideMessages());
+
         LOG.debug("Starting SyslogProcessor");
 
         m_udpEventReceiver = new SyslogHandler();
@@ -179,6 +184,72 @@ import org.slf4j.LoggerFactory;
         return m_singleton;
     }
 
+    /**
+     * <p>getUeiMatchStats</p>
+     *
+     * @return how often each uei-match rule was evaluated, skipped by the
+     * literal prefilter and matched
+     */
+    public String getUeiMatchStats() {
+        return ConvertToEvent.getMatchEngine(SyslogdConfigFactory.getInstance().getUeiList(), SyslogdConfigFactory.getInstance().getHideMessages()).getStats();
+    }
+
+    /**
+     * <p>getTcpConnectionsAccepted</p>
+     *
+     * @return the number of TCP connections accepted
+     */
+    public long getTcpConnectionsAccepted() {
+        return m_udpEventReceiver == null ? 0 : m_udpEventReceiver.getTcpConnectionsAccepted();
+    }
+
+    /**
+     * <p>getTcpConnectionsOpen</p>
+     *
+     * @return the number of TCP connections currently open
+     */
+    public long getTcpConnectionsOpen() {
+        return m_udpEventReceiver == null ? 0 : m_udpEventReceiver.getTcpConnectionsOpen();
+    }
+
+    /**
+     * <p>getTcpBytesReceived</p>
+     *
+     * @return the number of bytes read from TCP connections
+     */
+    public long getTcpBytesReceived() {
+        return m_udpEventReceiver == null ? 0 : m_udpEventReceiver.getTcpBytesReceived();
+    }
+
+    /**
+     * <p>getTcpMessagesReceived</p>
+     *
+     * @return the number of messages received over TCP
+     */
+    public long getTcpMessagesReceived() {
+        return m_udpEventReceiver == null ? 0 : m_udpEventReceiver.getTcpMessagesReceived();
+    }
+
+    /**
+     * <p>getTcpFramingErrors</p>
+     *
+     * @return the number of TCP messages dropped because they were too long
+     * or cut short
+     */
+    public long getTcpFramingErrors() {
+        return m_udpEventReceiver == null ? 0 : m_udpEventReceiver.getTcpFramingErrors();
+    }
+
+    /**
+     * <p>getTcpReadsPaused</p>
+     *
+     * @return how many times a TCP connection was paused because message
+     * processing was backed up
+     */
+    public long getTcpReadsPaused() {
+        return m_udpEventReceiver == null ? 0 : m_udpEventReceiver.getTcpReadsPaused();
+    }
+
     /*
     * @return EventDao
      */
@@ -0,0 +1,443 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The uei-match and hide-match rules of the syslogd configuration, compiled
+ * once when the configuration is loaded rather than looked up for every
+ * message.</p>
+ *
+ * <p>Every regular expression is compiled up front. The literal strings each
+ * rule requires are fed to a {@link LiteralPrefilter}: the substr expression
+ * itself, or the literal runs a regex cannot match without. One scan of a
+ * message then shows which rules can possibly match. Rules whose literals are
+ * missing are skipped without running their regex. Rules are still tried in
+ * configuration order, and the first match still wins.</p>
+ *
+ * <p>Each rule counts how often it was evaluated, skipped by the prefilter and
+ * matched, which helps when ordering the rules.</p>
+ */
+final class UeiMatchEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(UeiMatchEngine.class);
+
+    private static final int[] NO_LITERALS = new int[0];
+
+    private final UeiList m_ueiList;
+    private final int m_ueiMatchCount;
+    private final HideMessage m_hideMessage;
+    private final int m_hideMatchCount;
+
+    private final CompiledUeiMatch[] m_rules;
+    private final CompiledHideMatch[] m_hides;
+    private final LiteralPrefilter m_prefilter;
+    private final boolean m_matchesHostAddress;
+
+    private final ThreadLocal<boolean[]> m_found = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[m_prefilter.size()];
+        }
+    };
+
+    private final AtomicLong m_messages = new AtomicLong();
+    private final AtomicLong m_evaluated = new AtomicLong();
+    private final AtomicLong m_skipped = new AtomicLong();
+
+    private static final class CompiledUeiMatch {
+        private final int m_index;
+        private final UeiMatch m_ueiMatch;
+        private final String m_uei;
+        private final boolean m_substring;
+        private final String m_expression;
+        private final Pattern m_pattern;
+        private final String[] m_facilities;
+        private final String[] m_severities;
+        private final RuleFilter m_process;
+        private final RuleFilter m_hostname;
+        private final RuleFilter m_hostaddr;
+        private int[] m_literals = NO_LITERALS;
+
+        private final AtomicLong m_evaluatedCount = new AtomicLong();
+        private final AtomicLong m_skippedCount = new AtomicLong();
+        private final AtomicLong m_hits = new AtomicLong();
+
+        private CompiledUeiMatch(final int index, final UeiMatch ueiMatch) {
+            m_index = index;
+            m_ueiMatch = ueiMatch;
+            m_uei = ueiMatch.getUei();
+            final String type = ueiMatch.getMatch().getType();
+            m_expression = ueiMatch.getMatch().getExpression();
+            m_substring = "substr".equals(type);
+            m_pattern = type.startsWith("regex") ? compile(m_expression, "match") : null;
+            m_facilities = ueiMatch.getFacilityCollection().toArray(new String[0]);
+            m_severities = ueiMatch.getSeverityCollection().toArray(new String[0]);
+            m_process = ueiMatch.getProcessMatch() == null ? null : new RuleFilter(ueiMatch.getProcessMatch().getExpression(), "process-match");
+            m_hostname = ueiMatch.getHostnameMatch() == null ? null : new RuleFilter(ueiMatch.getHostnameMatch().getExpression(), "hostname-match");
+            m_hostaddr = ueiMatch.getHostaddrMatch() == null ? null : new RuleFilter(ueiMatch.getHostaddrMatch().getExpression(), "hostaddr-match");
+        }
+
+        /**
+         * @return false if neither a usable substring nor a usable regex was configured
+         */
+        private boolean isMatchable() {
+            return m_substring || m_pattern != null;
+        }
+    }
+
+    /**
+     * A process, hostname or hostaddr match.  These are always regular expressions.
+     */
+    private static final class RuleFilter {
+        private final String m_expression;
+        private final Pattern m_pattern;
+        private final String m_context;
+
+        private RuleFilter(final String expression, final String context) {
+            m_expression = expression;
+            m_pattern = compile(expression, context);
+            m_context = context;
+        }
+
+        private boolean matches(final String input) {
+            if (input == null) return false;
+            if (m_pattern == null) {
+                LOG.debug("Unable to get pattern for expression '{}' in {} context", m_expression, m_context);
+                return false;
+            }
+            if (m_pattern.matcher(input).find()) {
+                LOG.trace("Successful regex {} for input '{}' against expression '{}'", m_context, input, m_expression);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class CompiledHideMatch {
+        private final String m_substring;
+        private final Pattern m_pattern;
+
+        private CompiledHideMatch(final HideMatch hideMatch) {
+            final String type = hideMatch.getMatch().getType();
+            final String expression = hideMatch.getMatch().getExpression();
+            m_substring = "substr".equals(type) ? expression : null;
+            m_pattern = "regex".equals(type) ? compile(expression, "hide-match") : null;
+        }
+
+        private boolean matches(final String text) {
+            if (m_substring != null) {
+                return text.contains(m_substring);
+            }
+            return m_pattern != null && m_pattern.matcher(text).find();
+        }
+    }
+
+    UeiMatchEngine(final UeiList ueiList, final HideMessage hideMessage) {
+        m_ueiList = ueiList;
+        m_hideMessage = hideMessage;
+
+        final List<UeiMatch> ueiMatches = ueiList == null ? Collections.<UeiMatch>emptyList() : ueiList.getUeiMatchCollection();
+        m_ueiMatchCount = ueiMatches.size();
+        m_rules = new CompiledUeiMatch[ueiMatches.size()];
+
+        final LiteralPrefilter.Builder prefilter = new LiteralPrefilter.Builder();
+        int prefiltered = 0;
+        boolean matchesHostAddress = false;
+        for (int i = 0; i < m_rules.length; i++) {
+            final CompiledUeiMatch rule = new CompiledUeiMatch(i, ueiMatches.get(i));
+            final List<String> literals;
+            if (rule.m_substring) {
+                literals = rule.m_expression.length() == 0 ? Collections.<String>emptyList() : Collections.singletonList(rule.m_expression);
+            } else if (rule.m_pattern != null) {
+                literals = LiteralPrefilter.requiredLiterals(rule.m_expression);
+            } else {
+                literals = Collections.emptyList();
+            }
+            if (!literals.isEmpty()) {
+                rule.m_literals = new int[literals.size()];
+                for (int l = 0; l < literals.size(); l++) {
+                    rule.m_literals[l] = prefilter.add(literals.get(l));
+                }
+                prefiltered++;
+            }
+            matchesHostAddress |= rule.m_hostaddr != null;
+            m_rules[i] = rule;
+        }
+        m_prefilter = prefilter.build();
+        m_matchesHostAddress = matchesHostAddress;
+
+        final List<HideMatch> hideMatches = hideMessage == null ? Collections.<HideMatch>emptyList() : hideMessage.getHideMatchCollection();
+        m_hideMatchCount = hideMatches.size();
+        m_hides = new CompiledHideMatch[hideMatches.size()];
+        for (int i = 0; i < m_hides.length; i++) {
+            m_hides[i] = new CompiledHideMatch(hideMatches.get(i));
+        }
+
+        LOG.debug("Compiled {} uei-match rules ({} prefiltered by {}) and {} hide-match rules", m_rules.length, prefiltered, m_prefilter, m_hides.length);
+    }
+
+    private static Pattern compile(final String expression, final String context) {
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException pse) {
+            LOG.warn("Failed to compile regex pattern '{}' in {} context", expression, context, pse);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if this engine was compiled from the given configuration
+     */
+    boolean isCompiledFrom(final UeiList ueiList, final HideMessage hideMessage) {
+        return m_ueiList == ueiList && m_hideMessage == hideMessage
+                && m_ueiMatchCount == (ueiList == null ? 0 : ueiList.getUeiMatchCount())
+                && m_hideMatchCount == (hideMessage == null ? 0 : hideMessage.getHideMatchCount());
+    }
+
+    /**
+     * Applies the first uei-match rule that matches the message to the event.
+     *
+     * @return true if a rule matched
+     * @throws MessageDiscardedException if the matching rule's UEI is the discard UEI
+     */
+    boolean matchUei(final SyslogMessage message, final String facilityTxt, final String priorityTxt, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+        m_messages.incrementAndGet();
+        if (m_rules.length == 0) {
+            return false;
+        }
+
+        final String matchedText = message.getMatchedMessage();
+        final String regexText = matchedText != null ? matchedText : message.getFullText();
+        // resolving the host address may mean a DNS lookup, so do it once rather than per rule
+        final String hostAddress = m_matchesHostAddress ? message.getHostAddress() : null;
+
+        boolean[] found = null;
+        if (m_prefilter.size() > 0 && regexText != null) {
+            found = m_found.get();
+            Arrays.fill(found, false);
+            m_prefilter.scan(regexText, found);
+        }
+
+        long evaluated = 0;
+        long skipped = 0;
+        try {
+            for (final CompiledUeiMatch rule : m_rules) {
+                if (!rule.isMatchable()) {
+                    continue;
+                }
+                if (found != null && !allFound(rule.m_literals, found)) {
+                    rule.m_skippedCount.incrementAndGet();
+                    skipped++;
+                    continue;
+                }
+                if (!(matchAny(rule.m_facilities, facilityTxt) &&
+                      matchAny(rule.m_severities, priorityTxt) &&
+                      (rule.m_process == null || rule.m_process.matches(message.getProcessName())) &&
+                      (rule.m_hostname == null || rule.m_hostname.matches(message.getHostName())) &&
+                      (rule.m_hostaddr == null || rule.m_hostaddr.matches(hostAddress)))) {
+                    continue;
+                }
+
+                rule.m_evaluatedCount.incrementAndGet();
+                evaluated++;
+                final boolean matched = rule.m_substring ? matchSubstring(rule, matchedText, bldr, discardUei) : matchRegex(rule, regexText, message, bldr, discardUei);
+                if (matched) {
+                    rule.m_hits.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            m_evaluated.addAndGet(evaluated);
+            m_skipped.addAndGet(skipped);
+        }
+    }
+
+    private static boolean allFound(final int[] literals, final boolean[] found) {
+        for (final int id : literals) {
+            if (!found[id]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchAny(final String[] values, final String text) {
+        if (values.length == 0) return true;
+        for (final String value : values) {
+            if (value.equalsIgnoreCase(text)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matchSubstring(final CompiledUeiMatch rule, final String message, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+        final boolean traceEnabled = LOG.isTraceEnabled();
+        if (message != null && message.contains(rule.m_expression)) {
+            if (discardUei.equals(rule.m_uei)) {
+                if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", rule.m_uei);
+                throw new MessageDiscardedException();
+            }
+            //We can pass a new UEI on this
+            if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on substring match, to : {}", rule.m_uei);
+            bldr.setUei(rule.m_uei);
+            return true;
+        }
+        if (traceEnabled) LOG.trace("No substring match for text of a Syslogd event to : {}", rule.m_expression);
+        return false;
+    }
+
+    private static boolean matchRegex(final CompiledUeiMatch rule, final String text, final SyslogMessage message, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+        final boolean traceEnabled = LOG.isTraceEnabled();
+        final Matcher msgMat = rule.m_pattern.matcher(text);
+        if (!msgMat.find()) {
+            if (traceEnabled) LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), rule.m_expression);
+            return false;
+        }
+
+        if (discardUei.equals(rule.m_uei)) {
+            LOG.debug("Specified UEI '{}' is same as discard-uei, discarding this message.", rule.m_uei);
+            throw new MessageDiscardedException();
+        }
+
+        // We matched a UEI
+        bldr.setUei(rule.m_uei);
+        final UeiMatch uei = rule.m_ueiMatch;
+        if (msgMat.groupCount() > 0 && uei.getMatch().isDefaultParameterMapping()) {
+            if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
+            for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
+                if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, msgMat.group(groupNum));
+                bldr.addParam("group"+groupNum, msgMat.group(groupNum));
+            }
+        }
+        if (msgMat.groupCount() > 0 && uei.getParameterAssignmentCount() > 0) {
+            if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
+            for (ParameterAssignment assignment : uei.getParameterAssignmentCollection()) {
+                String parmName = assignment.getParameterName();
+                String parmValue = msgMat.group(assignment.getMatchingGroup());
+                parmValue = parmValue == null ? "" : parmValue;
+                bldr.addParam(parmName, parmValue);
+                if (traceEnabled) LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any hide-match rule matches the full text of the message
+     */
+    boolean shouldHide(final String fullText) {
+        for (final CompiledHideMatch hide : m_hides) {
+            if (hide.matches(fullText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of messages matched against the uei-match rules
+     */
+    long getMessageCount() {
+        return m_messages.get();
+    }
+
+    /**
+     * @return the number of rules whose match expression was run
+     */
+    long getEvaluatedCount() {
+        return m_evaluated.get();
+    }
+
+    /**
+     * @return the number of rules skipped because the prefilter ruled them out
+     */
+    long getSkippedCount() {
+        return m_skipped.get();
+    }
+
+    /**
+     * @return the number of messages the uei-match rule at <code>index</code> has matched
+     */
+    long getHits(final int index) {
+        return m_rules[index].m_hits.get();
+    }
+
+    /**
+     * @return totals followed by the evaluated, skipped and hit counts of every rule that has
+     * matched at least once, busiest first
+     */
+    String getStats() {
+        final List<CompiledUeiMatch> hit = new ArrayList<CompiledUeiMatch>();
+        for (final CompiledUeiMatch rule : m_rules) {
+            if (rule.m_hits.get() > 0) {
+                hit.add(rule);
+            }
+        }
+        Collections.sort(hit, new Comparator<CompiledUeiMatch>() {
+            @Override
+            public int compare(final CompiledUeiMatch a, final CompiledUeiMatch b) {
+                final long ha = a.m_hits.get();
+                final long hb = b.m_hits.get();
+                return ha < hb ? 1 : (ha > hb ? -1 : a.m_index - b.m_index);
+            }
+        });
+
+        final StringBuilder buf = new StringBuilder(128 + 96 * hit.size());
+        buf.append("messages=").append(m_messages.get())
+            .append(", rules=").append(m_rules.length)
+            .append(", evaluated=").append(m_evaluated.get())
+            .append(", skipped=").append(m_skipped.get())
+            .append(", ").append(m_prefilter);
+        for (final CompiledUeiMatch rule : hit) {
+            buf.append("\n#").append(rule.m_index).append(' ').append(rule.m_uei)
+                .append(": hits=").append(rule.m_hits.get())
+                .append(", evaluated=").append(rule.m_evaluatedCount.get())
+                .append(", skipped=").append(rule.m_skippedCount.get());
+        }
+        return buf.toString();
+    }
+}
@@ -88,4 +88,74 @@ public class Syslogd implements SyslogdMBean {
     public String getStatusText() {
         return org.opennms.core.fiber.Fiber.STATUS_NAMES[getStatus()];
     }
+
+    /**
+     * <p>getUeiMatchStats</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getUeiMatchStats() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getUeiMatchStats();
+    }
+
+    /**
+     * <p>getTcpConnectionsAccepted</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getTcpConnectionsAccepted() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getTcpConnectionsAccepted();
+    }
+
+    /**
+     * <p>getTcpConnectionsOpen</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getTcpConnectionsOpen() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getTcpConnectionsOpen();
+    }
+
+    /**
+     * <p>getTcpBytesReceived</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getTcpBytesReceived() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getTcpBytesReceived();
+    }
+
+    /**
+     * <p>getTcpMessagesReceived</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getTcpMessagesReceived() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getTcpMessagesReceived();
+    }
+
+    /**
+     * <p>getTcpFramingErrors</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getTcpFramingErrors() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getTcpFramingErrors();
+    }
+
+    /**
+     * <p>getTcpReadsPaused</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getTcpReadsPaused() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getTcpReadsPaused();
+    }
 }
@@ -37,4 +37,41 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  * @version $Id: $
  */
 public interface SyslogdMBean extends BaseOnmsMBean {
+    /**
+     * @return how often each uei-match rule was evaluated, skipped by the
+     * literal prefilter and matched
+     */
+    public String getUeiMatchStats();
+
+    /**
+     * @return the number of TCP connections accepted
+     */
+    public long getTcpConnectionsAccepted();
+
+    /**
+     * @return the number of TCP connections currently open
+     */
+    public long getTcpConnectionsOpen();
+
+    /**
+     * @return the number of bytes read from TCP connections
+     */
+    public long getTcpBytesReceived();
+
+    /**
+     * @return the number of messages received over TCP
+     */
+    public long getTcpMessagesReceived();
+
+    /**
+     * @return the number of TCP messages dropped because they were too long
+     * or cut short
+     */
+    public long getTcpFramingErrors();
+
+    /**
+     * @return how many times a TCP connection was paused because message
+     * processing was backed up
+     */
+    public long getTcpReadsPaused();
 }
@@ -0,0 +1,858 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A threshold expression compiled into a tree of evaluators over
+ * <code>double</code> values.
+ *
+ * <p>The compiler accepts the subset of JEXL that threshold expressions use in
+ * practice: numeric literals, datasource names (also as
+ * <code>datasources['name']</code>, see NMS-5019), the arithmetic, comparison,
+ * logical and ternary operators (including their word forms) and the functions
+ * of {@link ExpressionConfigWrapper.MathBinding} through the <code>math</code>
+ * variable. The variables are bound by index: {@link #getVariables()} gives the
+ * order of the values that {@link #evaluate(double[])} expects.</p>
+ *
+ * <p>{@link #compile(String)} returns <code>null</code> for anything else, and
+ * also for constructs whose result would depend on the runtime types JEXL
+ * gives to literals (integer division, for instance). At evaluation time, a
+ * value for which JEXL's behaviour is not reproduced exactly (a division by
+ * zero, a NaN used in a comparison or as a condition) raises
+ * {@link FallbackException}. In both cases the caller evaluates the expression
+ * with JEXL instead, so the compiled form never changes the result of a
+ * threshold.</p>
+ */
+final class CompiledThresholdExpression {
+
+    /**
+     * Raised by {@link CompiledThresholdExpression#evaluate(double[])} when the
+     * expression has to be evaluated by JEXL for the given values.
+     */
+    static final class FallbackException extends Exception {
+        private static final long serialVersionUID = 3185749210374566419L;
+
+        private FallbackException() {
+            super("The expression must be evaluated by JEXL for these values");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final FallbackException FALLBACK = new FallbackException();
+
+    /**
+     * Thrown by the parser when the expression uses a construct that is not
+     * compiled.
+     */
+    private static final class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = -4750181043722815736L;
+
+        private UnsupportedExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    // The runtime classes an operand can have when JEXL evaluates it
+    private static final int DOUBLE = 1;
+    private static final int FLOAT = 2;
+    private static final int INTEGER = 4;
+    private static final int BOOLEAN = 8;
+
+    private final String m_expression;
+    private final String[] m_variables;
+    private final Node m_root;
+
+    private CompiledThresholdExpression(String expression, String[] variables, Node root) {
+        m_expression = expression;
+        m_variables = variables;
+        m_root = root;
+    }
+
+    /**
+     * Compiles the given JEXL threshold expression.
+     *
+     * @param expression the expression
+     * @return the compiled expression, or <code>null</code> if it has to be
+     *         evaluated by JEXL
+     */
+    static CompiledThresholdExpression compile(String expression) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            final Parser parser = new Parser(expression);
+            final Node root = parser.parse();
+            if ((root.getTypes() & BOOLEAN) != 0) {
+                throw new UnsupportedExpressionException("non double result");
+            }
+            return new CompiledThresholdExpression(expression, parser.getVariables(), root);
+        } catch (UnsupportedExpressionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the expression this was compiled from.
+     *
+     * @return the expression
+     */
+    String getExpression() {
+        return m_expression;
+    }
+
+    /**
+     * Returns the names of the variables, in the order of the values passed to
+     * {@link #evaluate(double[])}.
+     *
+     * @return the variable names
+     */
+    String[] getVariables() {
+        return m_variables.clone();
+    }
+
+    /**
+     * Returns the number of variables of the expression.
+     *
+     * @return the number of variables
+     */
+    int getVariableCount() {
+        return m_variables.length;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values the value of each variable, in the order of {@link #getVariables()}
+     * @return the value of the expression
+     * @throws FallbackException if the expression must be evaluated by JEXL for these values
+     */
+    double evaluate(double[] values) throws FallbackException {
+        return m_root.result(values);
+    }
+
+    @Override
+    public String toString() {
+        return m_expression;
+    }
+
+    private static abstract class Node {
+        private final int m_types;
+
+        protected Node(int types) {
+            m_types = types;
+        }
+
+        final int getTypes() {
+            return m_types;
+        }
+
+        final boolean isNumeric() {
+            return (m_types & BOOLEAN) == 0;
+        }
+
+        final boolean isFloatingPoint() {
+            return (m_types & (INTEGER | BOOLEAN)) == 0;
+        }
+
+        abstract double evaluate(double[] values) throws FallbackException;
+
+        /**
+         * Evaluates the node as the result of the expression. JEXL returns the
+         * literal's Float object when the result is a float literal, and the
+         * threshold value is parsed back from its toString().
+         */
+        double result(double[] values) throws FallbackException {
+            return evaluate(values);
+        }
+
+        /**
+         * Evaluates the node as a JEXL condition: any number other than zero is true.
+         */
+        final boolean test(double[] values) throws FallbackException {
+            final double value = evaluate(values);
+            if (Double.isNaN(value)) {
+                throw FALLBACK;
+            }
+            return value != 0.0;
+        }
+    }
+
+    private static final class Constant extends Node {
+        private final double m_value;
+        private final double m_result;
+
+        private Constant(int types, double value, double result) {
+            super(types);
+            m_value = value;
+            m_result = result;
+        }
+
+        private Constant(int types, double value) {
+            this(types, value, value);
+        }
+
+        @Override
+        double evaluate(double[] values) {
+            return m_value;
+        }
+
+        @Override
+        double result(double[] values) {
+            return m_result;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final int m_index;
+
+        private Variable(int index) {
+            super(DOUBLE);
+            m_index = index;
+        }
+
+        @Override
+        double evaluate(double[] values) {
+            return values[m_index];
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node m_operand;
+
+        private Negate(Node operand) {
+            super(operand.getTypes());
+            m_operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] values) throws FallbackException {
+            return -m_operand.evaluate(values);
+        }
+
+        @Override
+        double result(double[] values) throws FallbackException {
+            return -m_operand.result(values);
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node m_operand;
+
+        private Not(Node operand) {
+            super(BOOLEAN);
+            m_operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] values) throws FallbackException {
+            return m_operand.test(values) ? 0.0 : 1.0;
+        }
+    }
+
+    private enum Operator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO,
+        EQ, NE, LT, LE, GT, GE,
+        AND, OR
+    }
+
+    private static final class Binary extends Node {
+        private final Operator m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Binary(int types, Operator operator, Node left, Node right) {
+            super(types);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        double evaluate(double[] values) throws FallbackException {
+            switch (m_operator) {
+            case AND:
+                return m_left.test(values) && m_right.test(values) ? 1.0 : 0.0;
+            case OR:
+                return m_left.test(values) || m_right.test(values) ? 1.0 : 0.0;
+            default:
+                break;
+            }
+
+            final double left = m_left.evaluate(values);
+            final double right = m_right.evaluate(values);
+            switch (m_operator) {
+            case ADD:
+                return left + right;
+            case SUBTRACT:
+                return left - right;
+            case MULTIPLY:
+                return left * right;
+            case DIVIDE:
+                if (right == 0.0) {
+                    throw FALLBACK;
+                }
+                return left / right;
+            case MODULO:
+                if (right == 0.0) {
+                    throw FALLBACK;
+                }
+                return left % right;
+            case EQ:
+                return equal(left, right) ? 1.0 : 0.0;
+            case NE:
+                return equal(left, right) ? 0.0 : 1.0;
+            case LT:
+                return left < right ? 1.0 : 0.0;
+            case LE:
+                return equal(left, right) || left < right ? 1.0 : 0.0;
+            case GT:
+                return left > right ? 1.0 : 0.0;
+            case GE:
+                return equal(left, right) || left > right ? 1.0 : 0.0;
+            default:
+                throw new IllegalStateException("Unexpected operator " + m_operator);
+            }
+        }
+
+        /**
+         * JEXL compares two Doubles with {@link Double#equals(Object)} and mixed
+         * number types by value. They only differ for NaN and signed zeros, which
+         * are left to JEXL.
+         */
+        private static boolean equal(double left, double right) throws FallbackException {
+            if (Double.isNaN(left) || Double.isNaN(right)) {
+                throw FALLBACK;
+            }
+            if (left == 0.0 && right == 0.0 && Double.doubleToRawLongBits(left) != Double.doubleToRawLongBits(right)) {
+                throw FALLBACK;
+            }
+            return left == right;
+        }
+    }
+
+    private static final class Ternary extends Node {
+        private final Node m_condition;
+        private final Node m_then;
+        private final Node m_else;
+
+        private Ternary(Node condition, Node then, Node otherwise) {
+            super(then.getTypes() | otherwise.getTypes());
+            m_condition = condition;
+            m_then = then;
+            m_else = otherwise;
+        }
+
+        @Override
+        double evaluate(double[] values) throws FallbackException {
+            return m_condition.test(values) ? m_then.evaluate(values) : m_else.evaluate(values);
+        }
+
+        @Override
+        double result(double[] values) throws FallbackException {
+            return m_condition.test(values) ? m_then.result(values) : m_else.result(values);
+        }
+    }
+
+    private enum Function {
+        ABS(1, true), ACOS(1), ASIN(1), ATAN(1), ATAN2(2), CBRT(1), CEIL(1), COS(1), COSH(1),
+        EXP(1), EXPM1(1), FLOOR(1), HYPOT(2), IEEEREMAINDER(2), LOG(1), LOG10(1), LOG1P(1),
+        MAX(2, true), MIN(2, true), POW(2), RANDOM(0), RINT(1), ROUND(1, true), SIGNUM(1, true),
+        SIN(1), SINH(1), SQRT(1), TAN(1), TANH(1), TODEGREES(1), TORADIANS(1), ULP(1, true);
+
+        private static final Map<String, Function> s_byName;
+        static {
+            final Map<String, Function> byName = new HashMap<String, Function>();
+            for (final Function function : values()) {
+                byName.put(function.getMethodName(), function);
+            }
+            s_byName = Collections.unmodifiableMap(byName);
+        }
+
+        private final int m_arity;
+        private final boolean m_overloaded;
+
+        private Function(int arity) {
+            this(arity, false);
+        }
+
+        private Function(int arity, boolean overloaded) {
+            m_arity = arity;
+            m_overloaded = overloaded;
+        }
+
+        private String getMethodName() {
+            if (this == IEEEREMAINDER) {
+                return "IEEEremainder";
+            } else if (this == TODEGREES) {
+                return "toDegrees";
+            } else if (this == TORADIANS) {
+                return "toRadians";
+            }
+            return name().toLowerCase();
+        }
+
+        private static Function byName(String name) {
+            return s_byName.get(name);
+        }
+    }
+
+    private static final class Call extends Node {
+        private final Function m_function;
+        private final Node[] m_arguments;
+
+        private Call(Function function, Node[] arguments) {
+            // Math.round(double) returns a long
+            super(function == Function.ROUND ? INTEGER : DOUBLE);
+            m_function = function;
+            m_arguments = arguments;
+        }
+
+        @Override
+        double evaluate(double[] values) throws FallbackException {
+            final double a = m_function.m_arity > 0 ? m_arguments[0].evaluate(values) : 0.0;
+            final double b = m_function.m_arity > 1 ? m_arguments[1].evaluate(values) : 0.0;
+            switch (m_function) {
+            case ABS: return Math.abs(a);
+            case ACOS: return Math.acos(a);
+            case ASIN: return Math.asin(a);
+            case ATAN: return Math.atan(a);
+            case ATAN2: return Math.atan2(a, b);
+            case CBRT: return Math.cbrt(a);
+            case CEIL: return Math.ceil(a);
+            case COS: return Math.cos(a);
+            case COSH: return Math.cosh(a);
+            case EXP: return Math.exp(a);
+            case EXPM1: return Math.expm1(a);
+            case FLOOR: return Math.floor(a);
+            case HYPOT: return Math.hypot(a, b);
+            case IEEEREMAINDER: return Math.IEEEremainder(a, b);
+            case LOG: return Math.log(a);
+            case LOG10: return Math.log10(a);
+            case LOG1P: return Math.log1p(a);
+            case MAX: return Math.max(a, b);
+            case MIN: return Math.min(a, b);
+            case POW: return Math.pow(a, b);
+            case RANDOM: return Math.random();
+            case RINT: return Math.rint(a);
+            case ROUND: return Math.round(a);
+            case SIGNUM: return Math.signum(a);
+            case SIN: return Math.sin(a);
+            case SINH: return Math.sinh(a);
+            case SQRT: return Math.sqrt(a);
+            case TAN: return Math.tan(a);
+            case TANH: return Math.tanh(a);
+            case TODEGREES: return Math.toDegrees(a);
+            case TORADIANS: return Math.toRadians(a);
+            case ULP: return Math.ulp(a);
+            default:
+                throw new IllegalStateException("Unexpected function " + m_function);
+            }
+        }
+    }
+
+    private enum TokenType {
+        NUMBER, IDENTIFIER, STRING, OPERATOR, END
+    }
+
+    /**
+     * A recursive descent parser for the supported subset, following the
+     * operator precedence of the JEXL 2 grammar.
+     */
+    private static final class Parser {
+        private final String m_text;
+        private final List<String> m_variables = new ArrayList<String>();
+        private int m_pos = 0;
+
+        private TokenType m_tokenType;
+        private String m_token;
+
+        private Parser(String text) {
+            m_text = text;
+        }
+
+        private String[] getVariables() {
+            return m_variables.toArray(new String[m_variables.size()]);
+        }
+
+        private Node parse() throws UnsupportedExpressionException {
+            next();
+            final Node root = parseTernary();
+            if (m_tokenType != TokenType.END) {
+                throw unsupported();
+            }
+            return root;
+        }
+
+        private Node parseTernary() throws UnsupportedExpressionException {
+            final Node condition = parseOr();
+            if (!isOperator("?")) {
+                return condition;
+            }
+            next();
+            final Node then = parseTernary();
+            expect(":");
+            final Node otherwise = parseTernary();
+            return new Ternary(condition, then, otherwise);
+        }
+
+        private Node parseOr() throws UnsupportedExpressionException {
+            Node left = parseAnd();
+            while (isOperator("||") || isWord("or")) {
+                next();
+                left = new Binary(BOOLEAN, Operator.OR, left, parseAnd());
+            }
+            return left;
+        }
+
+        private Node parseAnd() throws UnsupportedExpressionException {
+            Node left = parseEquality();
+            while (isOperator("&&") || isWord("and")) {
+                next();
+                left = new Binary(BOOLEAN, Operator.AND, left, parseEquality());
+            }
+            return left;
+        }
+
+        private Node parseEquality() throws UnsupportedExpressionException {
+            Node left = parseRelational();
+            while (true) {
+                final Operator operator;
+                if (isOperator("==") || isWord("eq")) {
+                    operator = Operator.EQ;
+                } else if (isOperator("!=") || isWord("ne")) {
+                    operator = Operator.NE;
+                } else {
+                    return left;
+                }
+                next();
+                left = comparison(operator, left, parseRelational());
+            }
+        }
+
+        private Node parseRelational() throws UnsupportedExpressionException {
+            Node left = parseAdditive();
+            while (true) {
+                final Operator operator;
+                if (isOperator("<") || isWord("lt")) {
+                    operator = Operator.LT;
+                } else if (isOperator("<=") || isWord("le")) {
+                    operator = Operator.LE;
+                } else if (isOperator(">") || isWord("gt")) {
+                    operator = Operator.GT;
+                } else if (isOperator(">=") || isWord("ge")) {
+                    operator = Operator.GE;
+                } else {
+                    return left;
+                }
+                next();
+                left = comparison(operator, left, parseAdditive());
+            }
+        }
+
+        private Node parseAdditive() throws UnsupportedExpressionException {
+            Node left = parseMultiplicative();
+            while (true) {
+                final Operator operator;
+                if (isOperator("+")) {
+                    operator = Operator.ADD;
+                } else if (isOperator("-")) {
+                    operator = Operator.SUBTRACT;
+                } else {
+                    return left;
+                }
+                next();
+                left = arithmetic(operator, left, parseMultiplicative());
+            }
+        }
+
+        private Node parseMultiplicative() throws UnsupportedExpressionException {
+            Node left = parseUnary();
+            while (true) {
+                final Operator operator;
+                if (isOperator("*")) {
+                    operator = Operator.MULTIPLY;
+                } else if (isOperator("/") || isWord("div")) {
+                    operator = Operator.DIVIDE;
+                } else if (isOperator("%") || isWord("mod")) {
+                    operator = Operator.MODULO;
+                } else {
+                    return left;
+                }
+                next();
+                left = arithmetic(operator, left, parseUnary());
+            }
+        }
+
+        private Node parseUnary() throws UnsupportedExpressionException {
+            if (isOperator("-")) {
+                next();
+                final Node operand = parseUnary();
+                if (!operand.isNumeric()) {
+                    throw unsupported();
+                }
+                return new Negate(operand);
+            } else if (isOperator("!") || isWord("not")) {
+                next();
+                return new Not(parseUnary());
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() throws UnsupportedExpressionException {
+            if (isOperator("(")) {
+                next();
+                final Node node = parseTernary();
+                expect(")");
+                return node;
+            } else if (m_tokenType == TokenType.NUMBER) {
+                final Node node = number(m_token);
+                next();
+                return node;
+            } else if (m_tokenType != TokenType.IDENTIFIER) {
+                throw unsupported();
+            }
+
+            final String name = m_token;
+            next();
+            if ("true".equals(name) || "false".equals(name)) {
+                return new Constant(BOOLEAN, "true".equals(name) ? 1.0 : 0.0);
+            } else if (isReserved(name)) {
+                throw unsupported();
+            } else if ("math".equals(name)) {
+                return parseCall();
+            } else if ("datasources".equals(name)) {
+                expect("[");
+                if (m_tokenType != TokenType.STRING) {
+                    throw unsupported();
+                }
+                final String datasource = m_token;
+                next();
+                expect("]");
+                return variable(datasource);
+            } else if (isOperator(".") || isOperator("[") || isOperator("(")) {
+                // property access, ant-ish variables and method calls on values
+                throw unsupported();
+            }
+            return variable(name);
+        }
+
+        private Node parseCall() throws UnsupportedExpressionException {
+            expect(".");
+            if (m_tokenType != TokenType.IDENTIFIER) {
+                throw unsupported();
+            }
+            final Function function = Function.byName(m_token);
+            if (function == null) {
+                throw unsupported();
+            }
+            next();
+            expect("(");
+            final List<Node> arguments = new ArrayList<Node>();
+            if (!isOperator(")")) {
+                arguments.add(parseTernary());
+                while (isOperator(",")) {
+                    next();
+                    arguments.add(parseTernary());
+                }
+            }
+            expect(")");
+
+            if (arguments.size() != function.m_arity) {
+                throw unsupported();
+            }
+            boolean hasDouble = false;
+            for (final Node argument : arguments) {
+                if (!argument.isNumeric()) {
+                    throw unsupported();
+                }
+                hasDouble |= argument.getTypes() == DOUBLE;
+            }
+            // JEXL only picks the double overload of abs, max, min, ... when
+            // an argument is a Double
+            if (function.m_overloaded && !hasDouble) {
+                throw unsupported();
+            }
+            return new Call(function, arguments.toArray(new Node[arguments.size()]));
+        }
+
+        private Node variable(String name) {
+            int index = m_variables.indexOf(name);
+            if (index < 0) {
+                index = m_variables.size();
+                m_variables.add(name);
+            }
+            return new Variable(index);
+        }
+
+        /**
+         * JEXL 2 reads integer literals as Integer (or Long) and literals with a
+         * decimal point as Float, unless they have a type suffix.
+         */
+        private Node number(String token) throws UnsupportedExpressionException {
+            if (token.indexOf('.') >= 0) {
+                final Float value = Float.valueOf(token);
+                return new Constant(FLOAT, value.doubleValue(), Double.parseDouble(value.toString()));
+            } else if (token.length() > 1 && token.charAt(0) == '0') {
+                // octal
+                throw unsupported();
+            } else if (token.length() > 18) {
+                throw unsupported();
+            }
+            return new Constant(INTEGER, Long.parseLong(token));
+        }
+
+        private Node arithmetic(Operator operator, Node left, Node right) throws UnsupportedExpressionException {
+            // JEXL uses double arithmetic when either operand is a Double or a
+            // Float, and integer arithmetic otherwise
+            if (!left.isNumeric() || !right.isNumeric() || !(left.isFloatingPoint() || right.isFloatingPoint())) {
+                throw unsupported();
+            }
+            return new Binary(DOUBLE, operator, left, right);
+        }
+
+        private Node comparison(Operator operator, Node left, Node right) throws UnsupportedExpressionException {
+            if (!left.isNumeric() || !right.isNumeric()) {
+                throw unsupported();
+            }
+            return new Binary(BOOLEAN, operator, left, right);
+        }
+
+        private boolean isOperator(String operator) {
+            return m_tokenType == TokenType.OPERATOR && m_token.equals(operator);
+        }
+
+        private boolean isWord(String word) {
+            return m_tokenType == TokenType.IDENTIFIER && m_token.equals(word);
+        }
+
+        private static boolean isReserved(String name) {
+            return "and".equals(name) || "or".equals(name) || "not".equals(name)
+                    || "eq".equals(name) || "ne".equals(name) || "lt".equals(name) || "le".equals(name)
+                    || "gt".equals(name) || "ge".equals(name) || "div".equals(name) || "mod".equals(name)
+                    || "null".equals(name) || "empty".equals(name) || "size".equals(name) || "new".equals(name)
+                    || "if".equals(name) || "else".equals(name) || "for".equals(name) || "foreach".equals(name)
+                    || "while".equals(name) || "var".equals(name) || "return".equals(name) || "function".equals(name)
+                    || "in".equals(name);
+        }
+
+        private void expect(String operator) throws UnsupportedExpressionException {
+            if (!isOperator(operator)) {
+                throw unsupported();
+            }
+            next();
+        }
+
+        private UnsupportedExpressionException unsupported() {
+            return new UnsupportedExpressionException("Unsupported token '" + m_token + "' at " + m_pos + " in " + m_text);
+        }
+
+        private void next() throws UnsupportedExpressionException {
+            final int length = m_text.length();
+            while (m_pos < length && Character.isWhitespace(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+            if (m_pos >= length) {
+                m_tokenType = TokenType.END;
+                m_token = "";
+                return;
+            }
+
+            final int start = m_pos;
+            final char c = m_text.charAt(m_pos);
+            if (Character.isDigit(c)) {
+                while (m_pos < length && Character.isDigit(m_text.charAt(m_pos))) {
+                    m_pos++;
+                }
+                if (m_pos + 1 < length && m_text.charAt(m_pos) == '.' && Character.isDigit(m_text.charAt(m_pos + 1))) {
+                    m_pos++;
+                    while (m_pos < length && Character.isDigit(m_text.charAt(m_pos))) {
+                        m_pos++;
+                    }
+                }
+                // type suffixes, exponents and hexadecimal literals
+                if (m_pos < length && (Character.isLetter(m_text.charAt(m_pos)) || m_text.charAt(m_pos) == '.')) {
+                    m_token = m_text.substring(start, m_pos + 1);
+                    throw unsupported();
+                }
+                m_tokenType = TokenType.NUMBER;
+                m_token = m_text.substring(start, m_pos);
+            } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                while (m_pos < length && (Character.isLetterOrDigit(m_text.charAt(m_pos)) || m_text.charAt(m_pos) == '_' || m_text.charAt(m_pos) == '$')) {
+                    m_pos++;
+                }
+                m_tokenType = TokenType.IDENTIFIER;
+                m_token = m_text.substring(start, m_pos);
+            } else if (c == '\'' || c == '"') {
+                m_pos++;
+                while (m_pos < length && m_text.charAt(m_pos) != c) {
+                    if (m_text.charAt(m_pos) == '\\') {
+                        // escapes are left to JEXL
+                        m_token = m_text.substring(start, m_pos + 1);
+                        throw unsupported();
+                    }
+                    m_pos++;
+                }
+                if (m_pos >= length) {
+                    m_token = m_text.substring(start);
+                    throw unsupported();
+                }
+                m_tokenType = TokenType.STRING;
+                m_token = m_text.substring(start + 1, m_pos);
+                m_pos++;
+            } else {
+                m_tokenType = TokenType.OPERATOR;
+                final String two = m_pos + 1 < length ? m_text.substring(m_pos, m_pos + 2) : null;
+                if ("==".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two) || "&&".equals(two) || "||".equals(two)) {
+                    m_token = two;
+                    m_pos += 2;
+                } else if ("=~".equals(two) || "!~".equals(two) || "?:".equals(two)) {
+                    m_token = two;
+                    throw unsupported();
+                } else if ("+-*/%<>!?:()[].,".indexOf(c) >= 0) {
+                    m_token = String.valueOf(c);
+                    m_pos++;
+                } else {
+                    // assignments, bitwise operators, statements, maps and arrays
+                    m_token = String.valueOf(c);
+                    throw unsupported();
+                }
+            }
+        }
+    }
+}
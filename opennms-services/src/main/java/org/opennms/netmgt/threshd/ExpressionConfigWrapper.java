@@ -50,8 +50,20 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * Set this system property to <code>false</code> to evaluate every threshold
+     * expression with JEXL instead of compiling the supported ones.
+     */
+    public static final String COMPILE_EXPRESSIONS_PROPERTY = "org.opennms.threshd.expression.compile";
+
+    private static final MathBinding MATH_BINDING = new MathBinding();
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final ExpressionImpl m_jexlExpression;
+    private final CompiledThresholdExpression m_compiledExpression;
+    private final String[] m_compiledVariables;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
@@ -60,6 +72,7 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         m_datasources = new ArrayList<String>();
         try {
             ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            m_jexlExpression = e;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -77,6 +90,28 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
             throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
         }
         LOG.trace("Threshold Variables: {}", m_datasources);
+
+        if (Boolean.parseBoolean(System.getProperty(COMPILE_EXPRESSIONS_PROPERTY, "true"))) {
+            m_compiledExpression = CompiledThresholdExpression.compile(m_expression.getExpression());
+        } else {
+            m_compiledExpression = null;
+        }
+        if (m_compiledExpression == null) {
+            LOG.debug("Threshold expression '{}' will be evaluated by JEXL", m_expression.getExpression());
+            m_compiledVariables = null;
+        } else {
+            m_compiledVariables = m_compiledExpression.getVariables();
+        }
+    }
+
+    /**
+     * Returns true if the expression was compiled, false if every evaluation
+     * goes through JEXL.
+     *
+     * @return a boolean.
+     */
+    public boolean isCompiled() {
+        return m_compiledExpression != null;
     }
 
     @Override
@@ -142,15 +177,39 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
 
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
+        if (m_compiledExpression != null) {
+            // Bind the values by index; a missing value (relaxed mode) is left to JEXL
+            final double[] bound = new double[m_compiledVariables.length];
+            boolean complete = true;
+            for (int i = 0; i < bound.length; i++) {
+                final Double value = values.get(m_compiledVariables[i]);
+                if (value == null) {
+                    complete = false;
+                    break;
+                }
+                bound[i] = value.doubleValue();
+            }
+            if (complete) {
+                try {
+                    return m_compiledExpression.evaluate(bound);
+                } catch (final CompiledThresholdExpression.FallbackException e) {
+                    LOG.debug("Evaluating expression {} with JEXL for values {}", m_expression.getExpression(), values);
+                }
+            }
+        }
+        return evaluateWithJexl(values);
+    }
+
+    private double evaluateWithJexl(Map<String, Double> values) throws ThresholdExpressionException {
         // Add all of the variable values to the script context
         Map<String,Object> context = new HashMap<String,Object>();
         context.putAll(values);
         context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
+        context.put("math", MATH_BINDING);
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            // The parsed expression is immutable and can be evaluated concurrently
+            Object resultObject = m_jexlExpression.evaluate(new MapContext(context));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CollectableServiceIndexTest {
+
+    private static class Service {
+        private final String m_name;
+
+        Service(final String name) {
+            m_name = name;
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+
+    private CollectableServiceIndex<Service> m_index;
+    private Service m_snmp1;
+    private Service m_jmx1;
+    private Service m_snmp2;
+
+    @Before
+    public void setUp() {
+        m_index = new CollectableServiceIndex<Service>();
+        m_snmp1 = new Service("SNMP on 1/192.168.1.1");
+        m_jmx1 = new Service("JMX on 1/192.168.1.2");
+        m_snmp2 = new Service("SNMP on 2/192.168.1.1");
+        m_index.add(m_snmp1, 1, "192.168.1.1");
+        m_index.add(m_jmx1, 1, "192.168.1.2");
+        m_index.add(m_snmp2, 2, "192.168.1.1");
+    }
+
+    @Test
+    public void testLookup() {
+        assertEquals(3, m_index.size());
+        assertEquals(3, m_index.getServices().size());
+
+        final List<Service> node1 = m_index.getServicesForNode(1);
+        assertEquals(2, node1.size());
+        assertTrue(node1.contains(m_snmp1));
+        assertTrue(node1.contains(m_jmx1));
+
+        final List<Service> address = m_index.getServicesForAddress("192.168.1.1");
+        assertEquals(2, address.size());
+        assertTrue(address.contains(m_snmp1));
+        assertTrue(address.contains(m_snmp2));
+
+        final List<Service> iface = m_index.getServicesForInterface(2, "192.168.1.1");
+        assertEquals(1, iface.size());
+        assertSame(m_snmp2, iface.get(0));
+
+        assertTrue(m_index.getServicesForNode(3).isEmpty());
+        assertTrue(m_index.getServicesForAddress("10.0.0.1").isEmpty());
+        assertTrue(m_index.getServicesForInterface(1, "10.0.0.1").isEmpty());
+    }
+
+    @Test
+    public void testAddIsIdempotent() {
+        m_index.add(m_snmp1, 1, "192.168.1.1");
+        m_index.add(m_snmp1, 5, "10.0.0.1");
+        assertEquals(3, m_index.size());
+        assertEquals(2, m_index.getServicesForNode(1).size());
+        assertTrue(m_index.getServicesForNode(5).isEmpty());
+        assertTrue(m_index.getServicesForAddress("10.0.0.1").isEmpty());
+    }
+
+    @Test
+    public void testServicesAreComparedByIdentity() {
+        final Service other = new Service("SNMP on 1/192.168.1.1") {
+            @Override
+            public boolean equals(final Object o) {
+                return true;
+            }
+
+            @Override
+            public int hashCode() {
+                return 0;
+            }
+        };
+        m_index.add(other, 1, "192.168.1.1");
+        assertEquals(4, m_index.size());
+        assertEquals(3, m_index.getServicesForNode(1).size());
+
+        assertTrue(m_index.remove(other));
+        assertEquals(2, m_index.getServicesForNode(1).size());
+        assertTrue(m_index.getServicesForNode(1).contains(m_snmp1));
+    }
+
+    @Test
+    public void testRemove() {
+        assertTrue(m_index.remove(m_snmp1));
+        assertFalse(m_index.remove(m_snmp1));
+        assertEquals(2, m_index.size());
+
+        final List<Service> node1 = m_index.getServicesForNode(1);
+        assertEquals(1, node1.size());
+        assertSame(m_jmx1, node1.get(0));
+        assertTrue(m_index.getServicesForInterface(1, "192.168.1.1").isEmpty());
+
+        final List<Service> address = m_index.getServicesForAddress("192.168.1.1");
+        assertEquals(1, address.size());
+        assertSame(m_snmp2, address.get(0));
+
+        assertTrue(m_index.remove(m_jmx1));
+        assertTrue(m_index.remove(m_snmp2));
+        assertEquals(0, m_index.size());
+        assertTrue(m_index.getServicesForNode(1).isEmpty());
+        assertTrue(m_index.getServicesForAddress("192.168.1.1").isEmpty());
+    }
+
+    @Test
+    public void testRemoveUnknownService() {
+        assertFalse(m_index.remove(new Service("unknown")));
+        assertEquals(3, m_index.size());
+    }
+
+    @Test
+    public void testReparent() {
+        m_index.reparent(m_snmp1, 7);
+
+        assertEquals(1, m_index.getServicesForNode(1).size());
+        assertEquals(1, m_index.getServicesForNode(7).size());
+        assertSame(m_snmp1, m_index.getServicesForInterface(7, "192.168.1.1").get(0));
+        assertTrue(m_index.getServicesForInterface(1, "192.168.1.1").isEmpty());
+        // the address index is unchanged
+        assertEquals(2, m_index.getServicesForAddress("192.168.1.1").size());
+
+        // removing after a reparent must clear the new node key
+        assertTrue(m_index.remove(m_snmp1));
+        assertTrue(m_index.getServicesForNode(7).isEmpty());
+        assertEquals(1, m_index.getServicesForAddress("192.168.1.1").size());
+
+        // reparenting an unknown service does nothing
+        m_index.reparent(m_snmp1, 8);
+        assertTrue(m_index.getServicesForNode(8).isEmpty());
+        assertEquals(2, m_index.size());
+    }
+
+    @Test
+    public void testLookupsReturnCopies() {
+        final List<Service> node1 = m_index.getServicesForNode(1);
+        node1.clear();
+        assertEquals(2, m_index.getServicesForNode(1).size());
+
+        // callers remove services while walking a lookup result
+        for (final Service service : m_index.getServicesForAddress("192.168.1.1")) {
+            m_index.remove(service);
+        }
+        assertEquals(1, m_index.size());
+    }
+}
@@ -150,6 +150,9 @@ public class CollectdIntegrationTest extends TestCase {
         EasyMock.expect(m_collectdConfigFactory.getCollectdConfig()).andReturn(m_collectdConfiguration).anyTimes();
         EasyMock.expect(m_collectdConfiguration.getCollectors()).andReturn(Collections.singletonList(collector)).anyTimes();
         EasyMock.expect(m_collectdConfiguration.getThreads()).andReturn(1).anyTimes();
+        EasyMock.expect(m_collectdConfiguration.getScheduler()).andReturn("legacy").anyTimes();
+        EasyMock.expect(m_collectdConfiguration.getMaxConcurrentPerAgent()).andReturn(0).anyTimes();
+        EasyMock.expect(m_collectdConfiguration.getMaxConcurrentPerCollector()).andReturn(0).anyTimes();
         
         m_ifaceDao = m_mockUtils.createMock(IpInterfaceDao.class);
         m_nodeDao = m_mockUtils.createMock(NodeDao.class);
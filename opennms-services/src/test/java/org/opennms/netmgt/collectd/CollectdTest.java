@@ -393,6 +393,8 @@ public class CollectdTest extends TestCase {
         expect(m_collectdConfigFactory.getCollectdConfig()).andReturn(m_collectdConfig).anyTimes();
         expect(m_collectdConfig.getCollectors()).andReturn(Collections.singletonList(collector)).anyTimes();
         expect(m_collectdConfig.getThreads()).andReturn(1).anyTimes();
+        expect(m_collectdConfig.getMaxConcurrentPerAgent()).andReturn(0).anyTimes();
+        expect(m_collectdConfig.getMaxConcurrentPerCollector()).andReturn(0).anyTimes();
 
         m_collectd.setCollectdConfigFactory(m_collectdConfigFactory);
     }
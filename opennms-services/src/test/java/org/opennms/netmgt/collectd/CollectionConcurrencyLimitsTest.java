@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CollectionConcurrencyLimitsTest {
+
+    @Test
+    public void testUnlimited() {
+        final CollectionConcurrencyLimits limits = new CollectionConcurrencyLimits(0, 0);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limits.tryAcquire("192.168.1.1", "SNMP"));
+        }
+        assertEquals(100, limits.getActiveCount("192.168.1.1"));
+    }
+
+    @Test
+    public void testPerAgentLimit() {
+        final CollectionConcurrencyLimits limits = new CollectionConcurrencyLimits(2, 0);
+        assertTrue(limits.tryAcquire("192.168.1.1", "SNMP"));
+        assertTrue(limits.tryAcquire("192.168.1.1", "JMX"));
+        assertFalse(limits.tryAcquire("192.168.1.1", "HTTP"));
+
+        // other agents are not affected
+        assertTrue(limits.tryAcquire("192.168.1.2", "SNMP"));
+
+        limits.release("192.168.1.1", "JMX");
+        assertTrue(limits.tryAcquire("192.168.1.1", "HTTP"));
+    }
+
+    @Test
+    public void testPerCollectorLimit() {
+        final CollectionConcurrencyLimits limits = new CollectionConcurrencyLimits(0, 2);
+        assertTrue(limits.tryAcquire("192.168.1.1", "SNMP"));
+        assertTrue(limits.tryAcquire("192.168.1.2", "SNMP"));
+        assertFalse(limits.tryAcquire("192.168.1.3", "SNMP"));
+
+        // a refused collection must not hold on to its agent slot
+        assertEquals(0, limits.getActiveCount("192.168.1.3"));
+        assertTrue(limits.tryAcquire("192.168.1.3", "JMX"));
+
+        limits.release("192.168.1.1", "SNMP");
+        assertTrue(limits.tryAcquire("192.168.1.3", "SNMP"));
+    }
+
+    @Test
+    public void testLimitsCanBeChanged() {
+        final CollectionConcurrencyLimits limits = new CollectionConcurrencyLimits(1, 0);
+        assertTrue(limits.tryAcquire("192.168.1.1", "SNMP"));
+        assertFalse(limits.tryAcquire("192.168.1.1", "SNMP"));
+
+        limits.setLimits(0, 0);
+        assertTrue(limits.tryAcquire("192.168.1.1", "SNMP"));
+    }
+
+    @Test
+    public void testStatistics() {
+        final CollectionStatistics statistics = new CollectionStatistics();
+        final CollectionStatistics.PackageStatistics example1 = statistics.getPackageStatistics("example1");
+        example1.collectionCompleted(100, 300000);
+        example1.collectionCompleted(400000, 300000);
+        example1.intervalsSkipped(2);
+        example1.collectionDeferred();
+        statistics.getPackageStatistics("example2").collectionCompleted(50, 0);
+
+        assertEquals(2, example1.getCollectionCount());
+        assertEquals(200050, example1.getAverageCollectionTime());
+        assertEquals(400000, example1.getMaxCollectionTime());
+        assertEquals(1, example1.getOverrunCount());
+
+        assertEquals(3, statistics.getCollectionCount());
+        assertEquals(1, statistics.getOverrunCount());
+        assertEquals(2, statistics.getSkippedIntervalCount());
+        assertEquals(1, statistics.getDeferredCount());
+        assertEquals("example1", statistics.getAllPackageStatistics().get(0).getPackageName());
+        assertEquals("example2", statistics.getAllPackageStatistics().get(1).getPackageName());
+    }
+}
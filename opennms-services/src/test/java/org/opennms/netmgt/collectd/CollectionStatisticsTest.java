@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.netmgt.collectd.CollectionStatistics.PackageStatistics;
+
+public class CollectionStatisticsTest {
+
+    @Test
+    public void testPackageCounters() {
+        final CollectionStatistics statistics = new CollectionStatistics();
+        final PackageStatistics stats = statistics.getPackageStatistics("example1");
+        assertEquals("example1", stats.getPackageName());
+        assertEquals(0, stats.getAverageCollectionTime());
+
+        stats.collectionCompleted(100, 300000);
+        stats.collectionCompleted(300, 300000);
+        stats.collectionCompleted(200, 300000);
+
+        assertEquals(3, stats.getCollectionCount());
+        assertEquals(600, stats.getTotalCollectionTime());
+        assertEquals(200, stats.getAverageCollectionTime());
+        assertEquals(300, stats.getMaxCollectionTime());
+        assertEquals(0, stats.getOverrunCount());
+        assertEquals(0, stats.getSkippedIntervalCount());
+        assertEquals(0, stats.getDeferredCount());
+    }
+
+    @Test
+    public void testOverruns() {
+        final PackageStatistics stats = new CollectionStatistics().getPackageStatistics("example1");
+
+        stats.collectionCompleted(1000, 1000);
+        assertEquals(0, stats.getOverrunCount());
+
+        stats.collectionCompleted(1001, 1000);
+        assertEquals(1, stats.getOverrunCount());
+
+        // a service without an interval never overruns
+        stats.collectionCompleted(5000, 0);
+        assertEquals(1, stats.getOverrunCount());
+        assertEquals(5000, stats.getMaxCollectionTime());
+    }
+
+    @Test
+    public void testSkippedAndDeferred() {
+        final PackageStatistics stats = new CollectionStatistics().getPackageStatistics("example1");
+        stats.intervalsSkipped(2);
+        stats.intervalsSkipped(3);
+        stats.collectionDeferred();
+
+        assertEquals(5, stats.getSkippedIntervalCount());
+        assertEquals(1, stats.getDeferredCount());
+        // neither counts as a collection
+        assertEquals(0, stats.getCollectionCount());
+    }
+
+    @Test
+    public void testMaxUnderConcurrency() throws InterruptedException {
+        final PackageStatistics stats = new CollectionStatistics().getPackageStatistics("example1");
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        stats.collectionCompleted(j * threads.length + offset, 0);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, stats.getCollectionCount());
+        assertEquals(39999, stats.getMaxCollectionTime());
+        assertEquals(39999L * 40000L / 2, stats.getTotalCollectionTime());
+    }
+
+    @Test
+    public void testTotalsAcrossPackages() {
+        final CollectionStatistics statistics = new CollectionStatistics();
+        final PackageStatistics example2 = statistics.getPackageStatistics("example2");
+        final PackageStatistics example1 = statistics.getPackageStatistics("example1");
+        assertSame(example1, statistics.getPackageStatistics("example1"));
+
+        example1.collectionCompleted(10, 5);
+        example1.intervalsSkipped(1);
+        example2.collectionCompleted(10, 20);
+        example2.collectionCompleted(30, 20);
+        example2.collectionDeferred();
+        example2.collectionDeferred();
+
+        assertEquals(3, statistics.getCollectionCount());
+        assertEquals(2, statistics.getOverrunCount());
+        assertEquals(1, statistics.getSkippedIntervalCount());
+        assertEquals(2, statistics.getDeferredCount());
+
+        // ordered by package name, not creation order
+        final List<PackageStatistics> all = statistics.getAllPackageStatistics();
+        assertEquals(2, all.size());
+        assertSame(example1, all.get(0));
+        assertSame(example2, all.get(1));
+    }
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opennms.core.test.db.PopulatedTemporaryDatabaseTestCase;
+import org.opennms.netmgt.dao.mock.JdbcEventdServiceManager;
+import org.opennms.netmgt.eventd.processor.BatchingJdbcEventWriter;
+import org.opennms.netmgt.eventd.processor.JdbcEventWriter;
+import org.opennms.netmgt.events.api.EventProcessor;
+import org.opennms.netmgt.mock.EventUtilJdbcImpl;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Tests the group-commit event writer and compares its throughput with
+ * {@link JdbcEventWriter}.
+ */
+@SuppressWarnings("deprecation")
+public class BatchingJdbcEventWriterTest extends PopulatedTemporaryDatabaseTestCase {
+    private static final int THREADS = 10;
+    private static final int EVENTS_PER_THREAD = 200;
+
+    private JdbcEventdServiceManager m_eventdServiceManager;
+    private BatchingJdbcEventWriter m_batchingEventWriter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        m_eventdServiceManager = new JdbcEventdServiceManager();
+        m_eventdServiceManager.setDataSource(getDataSource());
+        m_eventdServiceManager.afterPropertiesSet();
+
+        m_batchingEventWriter = new BatchingJdbcEventWriter();
+        m_batchingEventWriter.setEventdServiceManager(m_eventdServiceManager);
+        m_batchingEventWriter.setEventUtil(new EventUtilJdbcImpl());
+        m_batchingEventWriter.setDataSource(getDataSource());
+        m_batchingEventWriter.setGetNextIdString("SELECT nextval('eventsNxtId')");
+        m_batchingEventWriter.setGetNextIdBlockString("SELECT nextval('eventsNxtId') FROM generate_series(1, ?)");
+        m_batchingEventWriter.setBatchSize(50);
+        m_batchingEventWriter.setBatchDelay(5);
+        m_batchingEventWriter.afterPropertiesSet();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        m_batchingEventWriter.destroy();
+        super.tearDown();
+    }
+
+    public void testEventIdIsSetBeforeProcessReturns() throws Exception {
+        final Event event = createEvent(0);
+
+        m_batchingEventWriter.process(null, event);
+
+        assertTrue("event should have a database id", event.hasDbid());
+        assertEquals("event count", 1, getJdbcTemplate().queryForInt("select count(*) from events"));
+        assertEquals("event id", event.getDbid().intValue(), getJdbcTemplate().queryForInt("select eventId from events"));
+    }
+
+    public void testConcurrentWritersAreBatched() throws Exception {
+        final List<Event> events = writeConcurrently(m_batchingEventWriter);
+
+        final Set<Integer> ids = new HashSet<Integer>();
+        for (final Event event : events) {
+            assertTrue("event should have a database id", event.hasDbid());
+            ids.add(event.getDbid());
+        }
+        assertEquals("event ids should be unique", events.size(), ids.size());
+        assertEquals("event count", events.size(), getJdbcTemplate().queryForInt("select count(*) from events"));
+        assertEquals("events written", events.size(), m_batchingEventWriter.getEventsWritten());
+        assertTrue("events should have been written in batches", m_batchingEventWriter.getBatchesWritten() < events.size());
+    }
+
+    public void testThroughputComparedToJdbcEventWriter() throws Exception {
+        final JdbcEventWriter jdbcEventWriter = new JdbcEventWriter();
+        jdbcEventWriter.setEventdServiceManager(m_eventdServiceManager);
+        jdbcEventWriter.setEventUtil(new EventUtilJdbcImpl());
+        jdbcEventWriter.setDataSource(getDataSource());
+        jdbcEventWriter.setGetNextIdString("SELECT nextval('eventsNxtId')");
+        jdbcEventWriter.afterPropertiesSet();
+
+        long start = System.currentTimeMillis();
+        writeConcurrently(jdbcEventWriter);
+        final long jdbcElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        writeConcurrently(m_batchingEventWriter);
+        final long batchingElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        final int count = THREADS * EVENTS_PER_THREAD;
+        System.err.printf("%d events: JdbcEventWriter %d ms (%f events per second), BatchingJdbcEventWriter %d ms (%f events per second) in %d batches.%n",
+                          count,
+                          jdbcElapsed, count * 1000.0 / jdbcElapsed,
+                          batchingElapsed, count * 1000.0 / batchingElapsed,
+                          m_batchingEventWriter.getBatchesWritten());
+
+        assertEquals("event count", 2 * count, getJdbcTemplate().queryForInt("select count(*) from events"));
+    }
+
+    private List<Event> writeConcurrently(final EventProcessor writer) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<List<Event>>> futures = new ArrayList<Future<List<Event>>>();
+            for (int i = 0; i < THREADS; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<List<Event>>() {
+                    @Override
+                    public List<Event> call() throws Exception {
+                        final List<Event> events = new ArrayList<Event>();
+                        for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                            final Event event = createEvent(thread * EVENTS_PER_THREAD + j);
+                            writer.process(null, event);
+                            events.add(event);
+                        }
+                        return events;
+                    }
+                }));
+            }
+
+            final List<Event> events = new ArrayList<Event>();
+            for (final Future<List<Event>> future : futures) {
+                events.addAll(future.get());
+            }
+            return events;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Event createEvent(final int index) {
+        final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/batching", "BatchingJdbcEventWriterTest");
+        bldr.setLogDest("logndisplay");
+        bldr.setLogMessage("test event " + index);
+        bldr.addParam("index", index);
+        return bldr.getEvent();
+    }
+}
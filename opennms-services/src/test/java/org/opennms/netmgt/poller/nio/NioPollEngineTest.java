@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollFuture;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MonitorTestUtils;
+import org.opennms.netmgt.poller.monitors.HttpMonitor;
+import org.opennms.netmgt.poller.monitors.SmtpMonitor;
+import org.opennms.netmgt.poller.monitors.TcpMonitor;
+
+public class NioPollEngineTest {
+
+    private final InetAddress m_localhost = InetAddress.getLoopbackAddress();
+    private final ExecutorService m_serverExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger m_connections = new AtomicInteger();
+    private ServerSocket m_serverSocket;
+    private NioPollEngine m_engine;
+
+    @Before
+    public void setUp() throws Exception {
+        m_serverSocket = new ServerSocket(0, 1000, m_localhost);
+        m_engine = new NioPollEngine(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_engine.stop();
+        m_serverSocket.close();
+        m_serverExecutor.shutdownNow();
+    }
+
+    /**
+     * A service that writes the given lines, waiting for a line from the
+     * client after each one but the last.
+     */
+    private void serve(final long delay, final String... lines) {
+        m_serverExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!m_serverSocket.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = m_serverSocket.accept();
+                    } catch (final IOException e) {
+                        return;
+                    }
+                    m_connections.incrementAndGet();
+                    m_serverExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(delay);
+                                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                                final OutputStream out = socket.getOutputStream();
+                                for (int i = 0; i < lines.length; i++) {
+                                    if (lines[i] != null) {
+                                        out.write((lines[i] + "\r\n").getBytes("ISO-8859-1"));
+                                        out.flush();
+                                    }
+                                    if (i < lines.length - 1 && in.readLine() == null) {
+                                        break;
+                                    }
+                                }
+                                Thread.sleep(5000);
+                            } catch (final Exception e) {
+                                // the client hung up
+                            } finally {
+                                try {
+                                    socket.close();
+                                } catch (final IOException e) {
+                                    // ignore
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private Map<String, Object> parameters(final String... keyValues) {
+        final Map<String, Object> m = new ConcurrentSkipListMap<String, Object>();
+        m.put("port", String.valueOf(m_serverSocket.getLocalPort()));
+        for (int i = 0; i < keyValues.length; i += 2) {
+            m.put(keyValues[i], keyValues[i + 1]);
+        }
+        return m;
+    }
+
+    private MonitoredService service(final String svcName) throws Exception {
+        return MonitorTestUtils.getMonitoredService(1, m_localhost, svcName);
+    }
+
+    private NioPollRequest bannerRequest(final String banner, final Map<String, Object> parameters) {
+        return new NioPollRequest(m_localhost, new int[] { m_serverSocket.getLocalPort() }, parameters, 0, 3000) {
+            @Override
+            protected void connected(NioSession session) {
+            }
+
+            @Override
+            protected void received(NioSession session, String line) {
+                if (line.contains(banner)) {
+                    session.complete(PollStatus.available(session.elapsedTimeInMillis()));
+                } else {
+                    session.complete(PollStatus.unavailable("Banner: " + line));
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testTcpBanner() throws Exception {
+        serve(0, "SSH-2.0-OpenNMS_Test");
+
+        final PollStatus status = new TcpMonitor().pollAsync(service("TCP"), parameters("banner", "OpenNMS")).awaitFor();
+        assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        assertTrue(status.getResponseTime() >= 0);
+    }
+
+    @Test
+    public void testTcpBannerMismatch() throws Exception {
+        serve(0, "SSH-2.0-Other");
+
+        final PollStatus status = new TcpMonitor().pollAsync(service("TCP"), parameters("banner", "OpenNMS", "retry", "1")).awaitFor();
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("Banner: 'SSH-2.0-Other' "));
+        assertEquals(2, m_connections.get());
+    }
+
+    @Test
+    public void testSmtp() throws Exception {
+        serve(0, "220 localhost ESMTP", "250 localhost", "221 Bye");
+
+        final PollStatus status = new SmtpMonitor().pollAsync(service("SMTP"), parameters()).awaitFor();
+        assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+    }
+
+    @Test
+    public void testSmtpRejecting() throws Exception {
+        serve(0, "554 go away");
+
+        final PollStatus status = new SmtpMonitor().pollAsync(service("SMTP"), parameters()).awaitFor();
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Server rejecting transactions with 554", status.getReason());
+    }
+
+    @Test
+    public void testHttpResponseText() throws Exception {
+        serve(0, "HTTP/1.1 200 OK", "Content-Type: text/plain", "", "Hello OpenNMS");
+
+        final PollStatus status = new HttpMonitor().pollAsync(service("HTTP"), parameters("response-text", "~.*OpenNMS$")).awaitFor();
+        assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+    }
+
+    @Test
+    public void testHttpResponseCode() throws Exception {
+        serve(0, "HTTP/1.1 404 Not Found");
+
+        final PollStatus status = new HttpMonitor().pollAsync(service("HTTP"), parameters("url", "/missing")).awaitFor();
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("HTTP response value: 404. Expecting: 100-399./Ports: " + m_serverSocket.getLocalPort(), status.getReason());
+    }
+
+    @Test
+    public void testReadTimeoutIsRetried() throws Exception {
+        serve(0, null, null);
+
+        final long start = System.nanoTime();
+        final PollStatus status = m_engine.poll(bannerRequest("OpenNMS", parameters("retry", "2", "timeout", "200"))).awaitFor();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("Did not receive expected response within timeout"));
+        assertEquals(3, m_connections.get());
+        assertTrue("took " + elapsed + "ms", elapsed >= 600 && elapsed < 3000);
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        final Map<String, Object> parameters = parameters("retry", "1");
+        m_serverSocket.close();
+
+        final PollStatus status = m_engine.poll(bannerRequest("OpenNMS", parameters)).awaitFor();
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+    }
+
+    @Test
+    public void testManyPollsInFlight() throws Exception {
+        final int polls = 200;
+        final long delay = 100;
+        serve(delay, "SSH-2.0-OpenNMS_Test");
+
+        final long start = System.nanoTime();
+        final List<PollFuture> futures = new ArrayList<PollFuture>(polls);
+        for (int i = 0; i < polls; i++) {
+            futures.add(m_engine.poll(bannerRequest("OpenNMS", parameters())));
+        }
+        for (final PollFuture future : futures) {
+            final PollStatus status = future.awaitFor();
+            assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.err.println(String.format("%d polls of a service answering after %dms completed in %dms on one selector thread, %dms if polled one at a time", polls, delay, elapsed, polls * delay));
+        assertTrue("took " + elapsed + "ms", elapsed < polls * delay / 4);
+    }
+
+    @Test
+    public void testDatagram() throws Exception {
+        final DatagramSocket server = new DatagramSocket(0, m_localhost);
+        try {
+            m_serverExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] buf = new byte[512];
+                    try {
+                        final DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                        server.receive(packet);
+                        // a stray response first, then the echo
+                        server.send(new DatagramPacket("stray".getBytes("US-ASCII"), 5, packet.getSocketAddress()));
+                        server.send(new DatagramPacket(buf, packet.getLength(), packet.getSocketAddress()));
+                    } catch (final IOException e) {
+                        // closed
+                    }
+                }
+            });
+
+            final PollStatus status = m_engine.poll(new NioDatagramRequest(m_localhost, server.getLocalPort(), parameters(), 0, 3000) {
+                @Override
+                protected ByteBuffer createRequest() {
+                    return ByteBuffer.wrap(new byte[] { 'p', 'i', 'n', 'g' });
+                }
+
+                @Override
+                protected PollStatus received(ByteBuffer response, double responseTime) {
+                    if (response.remaining() == 4 && response.get(0) == 'p') {
+                        return PollStatus.available(responseTime);
+                    }
+                    return null;
+                }
+            }).awaitFor();
+            assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testDatagramNoResponse() throws Exception {
+        final DatagramSocket server = new DatagramSocket(0, m_localhost);
+        try {
+            final AtomicInteger sent = new AtomicInteger();
+            final PollStatus status = m_engine.poll(new NioDatagramRequest(m_localhost, server.getLocalPort(), parameters("retry", "1", "timeout", "200"), 0, 3000) {
+                @Override
+                protected ByteBuffer createRequest() {
+                    sent.incrementAndGet();
+                    return ByteBuffer.wrap(new byte[] { 'p', 'i', 'n', 'g' });
+                }
+
+                @Override
+                protected PollStatus received(ByteBuffer response, double responseTime) {
+                    return PollStatus.available(responseTime);
+                }
+            }).awaitFor();
+            assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+            assertEquals(2, sent.get());
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.poller.mock.MockPollContext;
+
+public class PollableNodeLockTest {
+
+    private PollableNetwork m_network;
+    private PollableNode m_node;
+
+    @Before
+    public void setUp() {
+        m_network = new PollableNetwork(new MockPollContext());
+        m_node = m_network.createNode(1, "node1");
+    }
+
+    private Thread holdLock(final CountDownLatch obtained, final long millis) {
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                m_node.obtainTreeLock(0);
+                try {
+                    obtained.countDown();
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    // done
+                } finally {
+                    m_node.releaseTreeLock();
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void testReentrant() {
+        m_node.obtainTreeLock(0);
+        m_node.obtainTreeLock(100);
+        assertFalse(m_node.isTreeLockAvailable());
+        m_node.releaseTreeLock();
+        assertFalse(m_node.isTreeLockAvailable());
+        m_node.releaseTreeLock();
+        assertTrue(m_node.isTreeLockAvailable());
+
+        // releasing a lock that is not held is ignored
+        m_node.releaseTreeLock();
+        assertTrue(m_node.isTreeLockAvailable());
+        assertEquals(0, m_network.getLockStatistics().getContendedCount());
+    }
+
+    @Test
+    public void testWaitsAreCounted() throws Exception {
+        final CountDownLatch obtained = new CountDownLatch(1);
+        final Thread holder = holdLock(obtained, 200);
+        assertTrue(obtained.await(5, TimeUnit.SECONDS));
+
+        m_node.obtainTreeLock(0);
+        m_node.releaseTreeLock();
+        holder.join();
+
+        final LockStatistics stats = m_network.getLockStatistics();
+        assertEquals(1, stats.getContendedCount());
+        assertTrue(stats.toString(), stats.getWaitTime() >= 100);
+        assertEquals(stats.getWaitTime(), stats.getMaxWaitTime());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final CountDownLatch obtained = new CountDownLatch(1);
+        final Thread holder = holdLock(obtained, 500);
+        assertTrue(obtained.await(5, TimeUnit.SECONDS));
+
+        try {
+            m_node.obtainTreeLock(50);
+            fail("expected LockUnavailable");
+        } catch (LockUnavailable e) {
+            // expected
+        }
+        holder.interrupt();
+        holder.join();
+
+        assertTrue(m_node.isTreeLockAvailable());
+        assertEquals(0, m_network.getLockStatistics().getContendedCount());
+    }
+}
@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.poller.PollFuture;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MockPollContext;
+import org.opennms.netmgt.poller.mock.MockScheduler;
+import org.opennms.netmgt.poller.support.DefaultPollFuture;
+import org.opennms.netmgt.scheduler.Schedule;
+import org.opennms.netmgt.scheduler.ScheduleInterval;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Tests that the status of an asynchronous poll is processed on the
+ * scheduler's threads rather than on the thread that completes the poll.
+ */
+public class PollableServiceAsyncTest {
+
+    private final List<Event> m_events = new ArrayList<Event>();
+    private final CountDownLatch m_releaseLock = new CountDownLatch(1);
+
+    private MockScheduler m_scheduler;
+    private AsyncPollConfig m_pollConfig;
+    private PollableNode m_node;
+    private PollableService m_svc;
+    private Thread m_lockHolder;
+
+    @Before
+    public void setUp() throws Exception {
+        final MockPollContext context = new MockPollContext() {
+            @Override
+            public PollEvent sendEvent(Event event) {
+                synchronized (m_events) {
+                    m_events.add(event);
+                }
+                return new PendingPollEvent(event);
+            }
+            @Override
+            public void openOutage(PollableService pSvc, PollEvent svcLostEvent) {
+            }
+            @Override
+            public void resolveOutage(PollableService pSvc, PollEvent svcRegainEvent) {
+            }
+        };
+        context.setNodeProcessingEnabled(true);
+
+        final PollableNetwork network = new PollableNetwork(context);
+        final InetAddress addr = InetAddress.getByName("192.168.1.1");
+        m_svc = network.createService(1, "node1", addr, "HTTP");
+        final PollableService icmp = network.createService(1, "node1", addr, "ICMP");
+        m_node = m_svc.getNode();
+
+        m_scheduler = new MockScheduler();
+        m_pollConfig = new AsyncPollConfig();
+        setPollConfig(m_svc, m_pollConfig);
+        setPollConfig(icmp, new AsyncPollConfig());
+
+        m_svc.updateStatus(PollStatus.up());
+        icmp.updateStatus(PollStatus.up());
+        network.recalculateStatus();
+        network.resetStatusChanged();
+    }
+
+    private void setPollConfig(final PollableService svc, final PollConfig pollConfig) {
+        svc.setPollConfig(pollConfig);
+        svc.setSchedule(new Schedule(svc, new ScheduleInterval() {
+            @Override
+            public long getInterval() {
+                return 300000L;
+            }
+            @Override
+            public boolean scheduledSuspension() {
+                return false;
+            }
+        }, m_scheduler));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_releaseLock.countDown();
+        if (m_lockHolder != null) {
+            m_lockHolder.join();
+        }
+    }
+
+    @Test(timeout=30000)
+    public void testCompletionIsHandedToScheduler() throws Exception {
+        m_svc.run();
+        assertEquals(1, m_pollConfig.getAsyncPolls());
+
+        // completing the poll must not wait for the tree lock, even when another thread holds it
+        holdTreeLock();
+        m_pollConfig.complete(PollStatus.down());
+        assertTrue(m_svc.getStatus().isUp());
+        assertEquals(1, m_scheduler.getEntryCount());
+
+        m_releaseLock.countDown();
+        m_lockHolder.join();
+        m_scheduler.next();
+
+        assertTrue(m_svc.getStatus().isDown());
+        assertEquals(1, m_events.size());
+        assertEquals(EventConstants.NODE_LOST_SERVICE_EVENT_UEI, m_events.get(0).getUei());
+
+        // the next scheduled poll starts a new asynchronous poll
+        m_svc.run();
+        assertEquals(2, m_pollConfig.getAsyncPolls());
+    }
+
+    @Test(timeout=30000)
+    public void testCompletionIsPostponedWhileTreeLockIsHeld() throws Exception {
+        m_svc.run();
+        holdTreeLock();
+        m_pollConfig.complete(PollStatus.down());
+
+        // the scheduler gives up on the lock and tries again later, keeping the polled status
+        final long now = m_scheduler.getCurrentTime();
+        m_scheduler.next();
+        assertTrue(m_svc.getStatus().isUp());
+        assertEquals(1, m_scheduler.getEntryCount());
+        assertTrue(m_scheduler.getNextTime() >= now + 5000);
+
+        // no new poll is started while the last one is waiting to be processed
+        m_svc.run();
+        assertEquals(1, m_pollConfig.getAsyncPolls());
+
+        m_releaseLock.countDown();
+        m_lockHolder.join();
+        m_scheduler.next();
+
+        assertTrue(m_svc.getStatus().isDown());
+        assertEquals(1, m_events.size());
+        m_svc.run();
+        assertEquals(2, m_pollConfig.getAsyncPolls());
+    }
+
+    @Test(timeout=30000)
+    public void testStalePolledStatusIsPolledAgain() throws Exception {
+        m_svc.run();
+        holdTreeLock();
+        m_pollConfig.complete(PollStatus.down());
+        m_scheduler.next();
+        assertTrue(m_svc.getStatus().isUp());
+
+        m_releaseLock.countDown();
+        m_lockHolder.join();
+
+        // by the time the lock is available the service has come back up
+        m_pollConfig.advanceTime(PollableService.MAX_PENDING_POLL_STATUS_AGE + 1);
+        m_pollConfig.setSynchronousStatus(PollStatus.up());
+        m_scheduler.next();
+
+        assertTrue(m_svc.getStatus().isUp());
+        assertEquals(0, m_events.size());
+        assertEquals(1, m_pollConfig.getSynchronousPolls());
+        m_pollConfig.setSynchronousStatus(null);
+        m_svc.run();
+        assertEquals(2, m_pollConfig.getAsyncPolls());
+    }
+
+    @Test(timeout=30000)
+    public void testPolledStatusIsDroppedWhenThePollFails() throws Exception {
+        m_pollConfig.setSynchronousStatus(PollStatus.down());
+        holdTreeLock();
+        Thread.currentThread().interrupt();
+        try {
+            m_svc.run();
+            fail("the poll was not interrupted");
+        } catch (ThreadInterrupted e) {
+            // expected
+        }
+        Thread.interrupted();
+
+        m_releaseLock.countDown();
+        m_lockHolder.join();
+
+        // the next poll polls again rather than using the status of the failed one
+        m_pollConfig.setSynchronousStatus(PollStatus.up());
+        m_svc.run();
+
+        assertTrue(m_svc.getStatus().isUp());
+        assertEquals(0, m_events.size());
+        assertEquals(2, m_pollConfig.getSynchronousPolls());
+    }
+
+    private void holdTreeLock() throws InterruptedException {
+        final CountDownLatch obtained = new CountDownLatch(1);
+        m_lockHolder = new Thread("lock-holder") {
+            @Override
+            public void run() {
+                m_node.obtainTreeLock(0);
+                try {
+                    obtained.countDown();
+                    m_releaseLock.await();
+                } catch (InterruptedException e) {
+                    // done
+                } finally {
+                    m_node.releaseTreeLock();
+                }
+            }
+        };
+        m_lockHolder.start();
+        assertTrue(obtained.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Polls asynchronously, leaving each poll pending until it is completed
+     * by the test, unless a synchronous status is set.
+     */
+    private static class AsyncPollConfig implements PollConfig {
+        private DefaultPollFuture m_future;
+        private int m_asyncPolls = 0;
+        private PollStatus m_synchronousStatus;
+        private int m_synchronousPolls = 0;
+        private long m_currentTime = System.currentTimeMillis();
+
+        @Override
+        public synchronized PollStatus poll() {
+            if (m_synchronousStatus == null) {
+                throw new IllegalStateException("the service should only be polled asynchronously");
+            }
+            m_synchronousPolls++;
+            return m_synchronousStatus;
+        }
+
+        @Override
+        public synchronized PollFuture pollAsync() {
+            if (m_synchronousStatus != null) {
+                return null;
+            }
+            m_asyncPolls++;
+            m_future = new DefaultPollFuture();
+            return m_future;
+        }
+
+        public synchronized void setSynchronousStatus(final PollStatus status) {
+            m_synchronousStatus = status;
+        }
+
+        public synchronized int getSynchronousPolls() {
+            return m_synchronousPolls;
+        }
+
+        public synchronized void advanceTime(final long millis) {
+            m_currentTime += millis;
+        }
+
+        public void complete(final PollStatus status) {
+            final DefaultPollFuture future;
+            synchronized (this) {
+                future = m_future;
+            }
+            future.setStatus(status);
+        }
+
+        public synchronized int getAsyncPolls() {
+            return m_asyncPolls;
+        }
+
+        @Override
+        public synchronized long getCurrentTime() {
+            return m_currentTime;
+        }
+
+        @Override
+        public void refresh() {
+        }
+
+        @Override
+        public void refreshThresholds() {
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.categories.Category;
+
+public class RTCDownTimeAccumulatorTest {
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long WINDOW = 24L * HOUR;
+
+    /**
+     * The error of a value is bounded by the bucket the window starts in.
+     */
+    private static final double TOLERANCE = 100.0 * RTCDownTimeAccumulator.DEFAULT_BUCKET_WIDTH / WINDOW;
+
+    private long m_now;
+    private RTCHashMap m_map;
+
+    @Before
+    public void setUp() {
+        m_now = System.currentTimeMillis();
+        m_map = new RTCHashMap(1024);
+    }
+
+    @Test
+    public void testClosedOutages() {
+        final RTCDownTimeAccumulator acc = new RTCDownTimeAccumulator();
+        acc.addOutage(m_now - 2 * HOUR, m_now - HOUR, WINDOW);
+        acc.addOutage(m_now - 30 * HOUR, m_now - 20 * HOUR, WINDOW);
+
+        assertEquals(HOUR + 4 * HOUR, acc.getDownTime(m_now, WINDOW), RTCDownTimeAccumulator.DEFAULT_BUCKET_WIDTH);
+        assertEquals(0, acc.getOpenOutageCount());
+    }
+
+    @Test
+    public void testOpenOutages() {
+        final RTCDownTimeAccumulator acc = new RTCDownTimeAccumulator();
+        acc.addOutage(m_now - HOUR, -1, WINDOW);
+        acc.addOutage(m_now - 48 * HOUR, -1, WINDOW);
+
+        assertEquals(HOUR + WINDOW, acc.getDownTime(m_now, WINDOW));
+        assertEquals(2, acc.getOpenOutageCount());
+
+        acc.closeOutage(m_now - HOUR, m_now - HOUR / 2, WINDOW);
+        assertEquals(HOUR / 2 + WINDOW, acc.getDownTime(m_now, WINDOW), RTCDownTimeAccumulator.DEFAULT_BUCKET_WIDTH);
+        assertEquals(1, acc.getOpenOutageCount());
+    }
+
+    @Test
+    public void testAddAndRemoveService() {
+        final RTCDownTimeAccumulator group = new RTCDownTimeAccumulator();
+        final RTCDownTimeAccumulator first = new RTCDownTimeAccumulator();
+        final RTCDownTimeAccumulator second = new RTCDownTimeAccumulator();
+        first.addOutage(m_now - 3 * HOUR, m_now - 2 * HOUR, WINDOW);
+        second.addOutage(m_now - HOUR, -1, WINDOW);
+
+        group.addService(first);
+        group.addService(second);
+        assertEquals(2, group.getServiceCount());
+        assertEquals(1, group.getOpenOutageCount());
+        assertEquals(2 * HOUR, group.getDownTime(m_now, WINDOW));
+
+        group.removeService(second);
+        assertEquals(1, group.getServiceCount());
+        assertEquals(0, group.getOpenOutageCount());
+        assertEquals(HOUR, group.getDownTime(m_now, WINDOW));
+    }
+
+    @Test
+    public void testMatchesServiceTimes() throws Exception {
+        final RTCCategory cat = createCategory("Servers");
+        final Random random = new Random(42);
+        final List<RTCNode> nodes = createNodes(200, 20, random);
+        for (RTCNode node : nodes) {
+            addToCategory(cat, node);
+        }
+
+        assertEquals(m_map.getValue(cat.getLabel(), m_now, WINDOW), cat.getValue(m_now, WINDOW), TOLERANCE);
+        for (int nodeid = 1; nodeid <= 20; nodeid++) {
+            assertEquals(m_map.getValue(nodeid, cat.getLabel(), m_now, WINDOW), cat.getValue(nodeid, m_now, WINDOW), TOLERANCE);
+            assertEquals(m_map.getServiceCount(nodeid, cat.getLabel()), cat.getServiceCount(nodeid));
+            assertEquals(m_map.getServiceDownCount(nodeid, cat.getLabel()), cat.getServiceDownCount(nodeid));
+        }
+
+        // lose and regain services after they were added to the category
+        for (RTCNode node : nodes.subList(0, 50)) {
+            node.nodeLostService(m_now - HOUR);
+            node.nodeRegainedService(m_now - HOUR / 3);
+        }
+        for (RTCNode node : nodes.subList(50, 60)) {
+            node.nodeLostService(m_now - HOUR / 4);
+        }
+        for (RTCNode node : nodes.subList(60, 70)) {
+            cat.removeService(node);
+            node.removeCategory(cat.getLabel());
+        }
+
+        assertEquals(m_map.getValue(cat.getLabel(), m_now, WINDOW), cat.getValue(m_now, WINDOW), TOLERANCE);
+        for (int nodeid = 1; nodeid <= 20; nodeid++) {
+            assertEquals(m_map.getValue(nodeid, cat.getLabel(), m_now, WINDOW), cat.getValue(nodeid, m_now, WINDOW), TOLERANCE);
+            assertEquals(m_map.getServiceCount(nodeid, cat.getLabel()), cat.getServiceCount(nodeid));
+            assertEquals(m_map.getServiceDownCount(nodeid, cat.getLabel()), cat.getServiceDownCount(nodeid));
+        }
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final int serviceCount = 100000;
+        final int categoryCount = 50;
+
+        final List<RTCCategory> categories = new ArrayList<RTCCategory>();
+        for (int i = 0; i < categoryCount; i++) {
+            categories.add(createCategory("Category " + i));
+        }
+        final Random random = new Random(42);
+        final List<RTCNode> nodes = createNodes(serviceCount, serviceCount / 10, random);
+        for (RTCNode node : nodes) {
+            // every service is in a few categories
+            for (int i = 0; i < 3; i++) {
+                addToCategory(categories.get(random.nextInt(categoryCount)), node);
+            }
+        }
+
+        // scanning the outages is slow enough that only a sample of the
+        // categories is compared
+        final int sampleCount = 5;
+        long start = System.nanoTime();
+        final double[] expected = new double[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            expected[i] = m_map.getValue(categories.get(i).getLabel(), m_now, WINDOW);
+        }
+        final long scan = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final double[] actual = new double[categoryCount];
+        for (int i = 0; i < categoryCount; i++) {
+            actual[i] = categories.get(i).getValue(m_now, WINDOW);
+        }
+        final long incremental = System.nanoTime() - start;
+
+        for (int i = 0; i < sampleCount; i++) {
+            assertEquals(expected[i], actual[i], TOLERANCE);
+        }
+
+        System.err.println(String.format("%d services in %d categories, per category: scanning outages %.3fms, incremental %.3fms", serviceCount, categoryCount, scan / 1e6 / sampleCount, incremental / 1e6 / categoryCount));
+    }
+
+    private static RTCCategory createCategory(final String label) {
+        final Category category = new Category();
+        category.setLabel(label);
+        category.setNormal(99.0);
+        category.setWarning(97.0);
+        return new RTCCategory(category, "IPADDR != '0.0.0.0'");
+    }
+
+    private List<RTCNode> createNodes(final int count, final int nodeCount, final Random random) {
+        final InetAddress addr = InetAddressUtils.addr("192.168.1.1");
+        final List<RTCNode> nodes = new ArrayList<RTCNode>(count);
+        for (int i = 0; i < count; i++) {
+            final RTCNode node = new RTCNode(1 + i % nodeCount, addr, "SVC" + i, WINDOW);
+            // a tenth of the services had an outage in the last two windows, a
+            // few of which are still open
+            if (random.nextInt(10) == 0) {
+                final long lost = m_now - (long)(random.nextDouble() * 2 * WINDOW);
+                if (random.nextInt(5) == 0) {
+                    node.addSvcTime(lost, -1);
+                } else {
+                    node.addSvcTime(lost, Math.min(m_now, lost + (long)(random.nextDouble() * 4 * HOUR)));
+                }
+            }
+            m_map.add(node);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static void addToCategory(final RTCCategory cat, final RTCNode node) {
+        if (!node.belongsTo(cat.getLabel())) {
+            node.addCategory(cat.getLabel());
+            cat.addService(node);
+        }
+    }
+}
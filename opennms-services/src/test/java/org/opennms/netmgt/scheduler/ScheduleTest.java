@@ -118,6 +118,16 @@ public class ScheduleTest extends TestCase {
         assertRunAndScheduled(1000, 1000, 2, 1);
     }
     
+    public void testScheduleWithInitialDelay() {
+        m_sched.schedule(300);
+
+        assertRunAndScheduled(0, 300, 0, 1);
+
+        m_scheduler.next();
+
+        assertRunAndScheduled(300, 1000, 1, 1);
+    }
+
     public void testAdjustSchedule() {
         
         m_sched.schedule();
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.fiber.PausableFiber;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler.ScheduledTask;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        // a small wheel so that the tests cover tasks that are more than one revolution away
+        m_scheduler = new TimingWheelScheduler("Test", Executors.newFixedThreadPool(4), 10, 8);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test
+    public void testRunsTaskAfterInterval() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long[] ranAt = new long[1];
+        final long start = System.currentTimeMillis();
+
+        m_scheduler.schedule(250, new Task() {
+            @Override
+            public void run() {
+                ranAt[0] = System.currentTimeMillis();
+                latch.countDown();
+            }
+        });
+        assertEquals(1, m_scheduler.getScheduled());
+
+        assertTrue("task did not run", latch.await(5, TimeUnit.SECONDS));
+        assertTrue("task ran too early: " + (ranAt[0] - start), ranAt[0] - start >= 250);
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void testRunsTasksInDeadlineOrder() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(5);
+        for (final int interval : new int[] { 400, 100, 300, 0, 200 }) {
+            m_scheduler.schedule(interval, new Task() {
+                @Override
+                public void run() {
+                    order.add(interval);
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue("tasks did not run", latch.await(5, TimeUnit.SECONDS));
+        assertEquals("[0, 100, 200, 300, 400]", order.toString());
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final ScheduledTask task = m_scheduler.scheduleTask(100, new Task() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        });
+
+        assertTrue(task.cancel());
+        assertFalse("a task can only be cancelled once", task.cancel());
+        assertEquals(0, m_scheduler.getScheduled());
+
+        Thread.sleep(300);
+        assertFalse("cancelled task ran", ran.get());
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void testTaskThatIsNotReadyIsRetried() throws Exception {
+        final AtomicInteger readyChecks = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return readyChecks.incrementAndGet() > 1;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue("task did not run", latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, readyChecks.get());
+    }
+
+    @Test
+    public void testStartJitterSpreadsInitialTasks() throws Exception {
+        m_scheduler.setStartJitter(500);
+
+        final int count = 100;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final long start = System.currentTimeMillis();
+        final List<Long> delays = Collections.synchronizedList(new ArrayList<Long>());
+        for (int i = 0; i < count; i++) {
+            m_scheduler.scheduleInitial(new Task() {
+                @Override
+                public void run() {
+                    delays.add(System.currentTimeMillis() - start);
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue("tasks did not run", latch.await(5, TimeUnit.SECONDS));
+        int early = 0;
+        for (final long delay : delays) {
+            if (delay < 250) {
+                early++;
+            }
+        }
+        assertTrue("tasks were not spread over the jitter period: " + early + " of " + count + " ran in the first half", early > 10 && early < 90);
+    }
+
+    @Test
+    public void testStartJitterLeavesImmediateTasksAlone() throws Exception {
+        m_scheduler.setStartJitter(5000);
+
+        final int count = 20;
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            m_scheduler.schedule(0, new Task() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue("immediate tasks were delayed", latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        m_scheduler.pause();
+        Thread.sleep(50);
+        assertEquals(PausableFiber.PAUSED, m_scheduler.getStatus());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new Task() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertFalse("task ran while paused", latch.await(200, TimeUnit.MILLISECONDS));
+
+        m_scheduler.resume();
+        assertTrue("task did not run after resume", latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private abstract static class Task implements ReadyRunnable {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+    }
+}
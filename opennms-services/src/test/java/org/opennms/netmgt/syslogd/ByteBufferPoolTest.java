@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void testAllocatesUpToTheCap() {
+        final ByteBufferPool pool = new ByteBufferPool(32, 2);
+
+        final ByteBuffer first = pool.acquire();
+        final ByteBuffer second = pool.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(first.isDirect());
+        assertEquals(32, first.capacity());
+        assertEquals(2, pool.getAllocated());
+
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getAllocated());
+        assertEquals(2, pool.getExhausted());
+    }
+
+    @Test
+    public void testReleasedBuffersAreReused() {
+        final ByteBufferPool pool = new ByteBufferPool(32, 1);
+
+        final ByteBuffer buffer = pool.acquire();
+        buffer.put((byte)1).put((byte)2);
+        pool.release(buffer);
+        assertEquals(1, pool.size());
+
+        final ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(32, reused.remaining());
+        assertEquals(0, pool.size());
+        assertEquals(1, pool.getAllocated());
+        assertEquals(0, pool.getExhausted());
+    }
+
+    @Test
+    public void testSlabsAreSlicedIntoBuffers() {
+        final ByteBufferPool pool = new ByteBufferPool(32, 6, 4);
+
+        final ByteBuffer first = pool.acquire();
+        assertTrue(first.isDirect());
+        assertEquals(32, first.capacity());
+        assertEquals(32, first.remaining());
+        assertEquals(4, pool.getAllocated());
+        assertEquals(3, pool.size());
+
+        // writing one buffer doesn't touch its neighbours in the slab
+        final ByteBuffer second = pool.acquire();
+        for (int i = 0; i < 32; i++) {
+            first.put((byte)1);
+        }
+        assertEquals(0, second.get(0));
+
+        pool.acquire();
+        pool.acquire();
+        // the last slab only holds what is left under the cap
+        assertNotNull(pool.acquire());
+        assertEquals(6, pool.getAllocated());
+        assertEquals(1, pool.size());
+        assertNotNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(1, pool.getExhausted());
+    }
+
+    @Test
+    public void testAcquireAfterExhaustionOnceReleased() {
+        final ByteBufferPool pool = new ByteBufferPool(32, 1);
+
+        final ByteBuffer buffer = pool.acquire();
+        assertNull(pool.acquire());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire());
+        assertEquals(1, pool.getAllocated());
+    }
+}
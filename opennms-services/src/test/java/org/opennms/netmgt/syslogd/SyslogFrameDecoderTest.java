@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SyslogFrameDecoderTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void testOctetCounting() {
+        final SyslogFrameDecoder decoder = new SyslogFrameDecoder(1024);
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        decoder.decode(buffer("10 <13>hello\n5 <13>a"), frames);
+
+        // the newline is part of the first message
+        assertFrames(frames, "<13>hello\n", "<13>a");
+        assertEquals(0, decoder.getFramingErrors());
+    }
+
+    @Test
+    public void testNewlineFraming() {
+        final SyslogFrameDecoder decoder = new SyslogFrameDecoder(1024);
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        decoder.decode(buffer("<13>one\r\n\n<13>two\n<13>thr"), frames);
+        assertFrames(frames, "<13>one", "<13>two");
+
+        frames.clear();
+        decoder.decode(buffer("ee\n"), frames);
+        assertFrames(frames, "<13>three");
+    }
+
+    @Test
+    public void testMixedFraming() {
+        final SyslogFrameDecoder decoder = new SyslogFrameDecoder(1024);
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        decoder.decode(buffer("<13>lf\n7 <13>oct<13>lf again\n"), frames);
+        assertFrames(frames, "<13>lf", "<13>oct", "<13>lf again");
+    }
+
+    @Test
+    public void testDigitsWithoutSpaceAreALine() {
+        final SyslogFrameDecoder decoder = new SyslogFrameDecoder(1024);
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        decoder.decode(buffer("2015-01-01 host message\n"), frames);
+        assertFrames(frames, "2015-01-01 host message");
+    }
+
+    @Test
+    public void testSplitAcrossReads() {
+        final SyslogFrameDecoder decoder = new SyslogFrameDecoder(1024);
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        final String stream = "12 <13>message1<13>message2\n12 <13>message3";
+        for (int i = 0; i < stream.length(); i++) {
+            decoder.decode(buffer(stream.substring(i, i + 1)), frames);
+        }
+        assertFrames(frames, "<13>message1", "<13>message2", "<13>message3");
+    }
+
+    @Test
+    public void testOversizedMessagesAreSkipped() {
+        final SyslogFrameDecoder decoder = new SyslogFrameDecoder(8);
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        decoder.decode(buffer("12 <13>message16 <13>ok<13>a long line\n<13>ok2\n"), frames);
+        assertFrames(frames, "<13>ok", "<13>ok2");
+        assertEquals(2, decoder.getFramingErrors());
+    }
+
+    @Test
+    public void testEndOfStream() {
+        final SyslogFrameDecoder decoder = new SyslogFrameDecoder(1024);
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+
+        decoder.decode(buffer("<13>no newline"), frames);
+        decoder.endOfStream(frames);
+        assertFrames(frames, "<13>no newline");
+
+        frames.clear();
+        decoder.decode(buffer("20 <13>cut short"), frames);
+        decoder.endOfStream(frames);
+        assertFrames(frames);
+        assertEquals(1, decoder.getFramingErrors());
+    }
+
+    private static void assertFrames(final List<ByteBuffer> frames, final String... expected) {
+        final List<String> actual = new ArrayList<String>();
+        for (final ByteBuffer frame : frames) {
+            final byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            actual.add(new String(bytes, ASCII));
+        }
+        assertEquals(Arrays.asList(expected), actual);
+    }
+
+    private static ByteBuffer buffer(final String text) {
+        return ByteBuffer.wrap(text.getBytes(ASCII));
+    }
+}
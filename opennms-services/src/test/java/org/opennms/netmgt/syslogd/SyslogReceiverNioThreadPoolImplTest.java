@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyslogReceiverNioThreadPoolImplTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private DatagramChannel m_channel;
+
+    private DatagramChannel m_sender;
+
+    private SyslogReceiverNioThreadPoolImpl m_receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        m_channel = DatagramChannel.open();
+        m_channel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        m_channel.configureBlocking(false);
+        m_sender = DatagramChannel.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_receiver != null) {
+            m_receiver.stop();
+        }
+        m_sender.close();
+        m_channel.close();
+    }
+
+    @Test(timeout=30000)
+    public void testReceiveBatchFallsBackToHeapWhenPoolIsExhausted() throws Exception {
+        m_receiver = new SyslogReceiverNioThreadPoolImpl(m_channel, null, 0, 0, null, null, null, 1, 1);
+
+        for (int i = 0; i < 3; i++) {
+            send("<34>Oct 11 22:14:15 mymachine su: message " + i);
+        }
+
+        final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(0xffff);
+        final List<SyslogConnection> received = new ArrayList<SyslogConnection>();
+        while (received.size() < 3) {
+            received.addAll(m_receiver.receiveBatch(receiveBuffer));
+            Thread.sleep(10);
+        }
+
+        // only one pooled buffer may be allocated; the others were copied into heap memory
+        final ByteBufferPool pool = m_receiver.getBufferPool();
+        assertEquals(1, pool.getAllocated());
+        assertTrue(pool.getExhausted() >= 2);
+
+        for (final SyslogConnection connection : received) {
+            connection.discard();
+        }
+        assertEquals(1, pool.size());
+    }
+
+    @Test(timeout=30000)
+    public void testReceiveBatchCopiesLargeDatagramsToHeap() throws Exception {
+        m_receiver = new SyslogReceiverNioThreadPoolImpl(m_channel, null, 0, 0, null, null, null, 1, 4);
+        final ByteBufferPool pool = m_receiver.getBufferPool();
+
+        final StringBuilder large = new StringBuilder("<34>Oct 11 22:14:15 mymachine su: ");
+        while (large.length() <= pool.getBufferSize()) {
+            large.append("large message ");
+        }
+        send(large.toString());
+
+        final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(0xffff);
+        final List<SyslogConnection> received = new ArrayList<SyslogConnection>();
+        while (received.isEmpty()) {
+            received.addAll(m_receiver.receiveBatch(receiveBuffer));
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, received.size());
+        assertEquals(0, pool.getAllocated());
+    }
+
+    /**
+     * By default there is a pooled buffer for every datagram that can be
+     * queued, so a backlog doesn't fall back to heap copies.
+     */
+    @Test
+    public void testDefaultPoolCoversTheQueue() throws Exception {
+        m_receiver = new SyslogReceiverNioThreadPoolImpl(m_channel, null, 0, 0, null, null, null, 4, 0);
+        final ByteBufferPool pool = m_receiver.getBufferPool();
+
+        final int batchSize = Integer.getInteger("org.opennms.netmgt.syslogd.receiveBatchSize", 64);
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 4 * batchSize; i++) {
+            final ByteBuffer buffer = pool.acquire();
+            assertNotNull(buffer);
+            assertEquals(pool.getBufferSize(), buffer.capacity());
+            buffers.add(buffer);
+        }
+        assertEquals(0, pool.getExhausted());
+        for (final ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+    }
+
+    @Test(timeout=30000)
+    public void testFullQueueDropsAndCountsBatches() throws Exception {
+        final SyslogReceiverNioThreadPoolImpl.DropBatchPolicy policy = new SyslogReceiverNioThreadPoolImpl.DropBatchPolicy();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1000L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1), policy);
+        final ByteBufferPool pool = new ByteBufferPool(32, 4);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        try {
+            // occupy the only thread and the only queue slot
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    blocked.countDown();
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            blocked.await();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+
+            executor.execute(new SyslogReceiverNioThreadPoolImpl.BatchTask(batch(pool, 3)));
+            executor.execute(new SyslogReceiverNioThreadPoolImpl.BatchTask(batch(pool, 1)));
+
+            assertEquals(2, policy.getDroppedBatches());
+            assertEquals(4, policy.getDroppedMessages());
+            // the dropped messages' buffers went back to the pool
+            assertEquals(3, pool.getAllocated());
+            assertEquals(3, pool.size());
+        } finally {
+            gate.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testRejectedAfterShutdownIsCounted() {
+        final SyslogReceiverNioThreadPoolImpl.DropBatchPolicy policy = new SyslogReceiverNioThreadPoolImpl.DropBatchPolicy();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1000L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1), policy);
+        final ByteBufferPool pool = new ByteBufferPool(32, 2);
+        executor.shutdown();
+
+        executor.execute(new SyslogReceiverNioThreadPoolImpl.BatchTask(batch(pool, 2)));
+
+        assertEquals(1, policy.getDroppedBatches());
+        assertEquals(2, policy.getDroppedMessages());
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testEmptyBatchTask() {
+        final SyslogReceiverNioThreadPoolImpl.BatchTask task = new SyslogReceiverNioThreadPoolImpl.BatchTask(Collections.<SyslogConnection>emptyList());
+        assertEquals(0, task.size());
+        task.run();
+        task.discard();
+    }
+
+    private static List<SyslogConnection> batch(final ByteBufferPool pool, final int size) {
+        final InetSocketAddress source = new InetSocketAddress(InetAddress.getLoopbackAddress(), 514);
+        final List<SyslogConnection> batch = new ArrayList<SyslogConnection>();
+        for (int i = 0; i < size; i++) {
+            final ByteBuffer buffer = pool.acquire();
+            buffer.put("<34>message".getBytes(ASCII)).flip();
+            batch.add(new SyslogConnection(source, buffer, pool, null, 0, 0, null, null, null));
+        }
+        return batch;
+    }
+
+    private void send(final String message) throws Exception {
+        m_sender.send(ByteBuffer.wrap(message.getBytes(ASCII)), m_channel.socket().getLocalSocketAddress());
+    }
+}
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SyslogReceiverTcpImplTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final BlockingQueue<String> m_messages = new LinkedBlockingQueue<String>();
+
+    private volatile CountDownLatch m_gate = new CountDownLatch(0);
+
+    private SyslogReceiverTcpImpl m_receiver;
+
+    private int m_port;
+
+    @After
+    public void tearDown() throws Exception {
+        m_gate.countDown();
+        if (m_receiver != null) {
+            m_receiver.stop();
+        }
+    }
+
+    @Test(timeout=30000)
+    public void testPlainTcp() throws Exception {
+        start(null);
+
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), m_port);
+        final OutputStream out = socket.getOutputStream();
+        out.write("<13>Oct 11 22:14:15 host app: first\n".getBytes(ASCII));
+        out.write("36 <13>Oct 11 22:14:15 host app: second".getBytes(ASCII));
+        out.flush();
+
+        assertEquals("<13>Oct 11 22:14:15 host app: first", m_messages.poll(10, TimeUnit.SECONDS));
+        assertEquals("<13>Oct 11 22:14:15 host app: second", m_messages.poll(10, TimeUnit.SECONDS));
+        assertEquals(1, m_receiver.getConnectionsAccepted());
+        assertEquals(1, m_receiver.getConnectionsOpen());
+        assertEquals(2, m_receiver.getMessagesReceived());
+        assertEquals(75, m_receiver.getBytesReceived());
+
+        socket.close();
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return m_receiver.getConnectionsOpen() == 0;
+            }
+        });
+    }
+
+    @Test(timeout=30000)
+    public void testTls() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final InputStream in = new FileInputStream("src/test/resources/JUnitHttpServer.keystore");
+        try {
+            keyStore.load(in, "opennms".toCharArray());
+        } finally {
+            in.close();
+        }
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, "opennms".toCharArray());
+        final SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+        start(serverContext);
+
+        final SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, new TrustManager[] { new TrustAllManager() }, null);
+        final SSLSocket socket = (SSLSocket)clientContext.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), m_port);
+        final OutputStream out = socket.getOutputStream();
+        final StringBuilder stream = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            final String message = "<13>Oct 11 22:14:15 host app: message " + i;
+            stream.append(message.length()).append(' ').append(message);
+        }
+        out.write(stream.toString().getBytes(ASCII));
+        out.flush();
+
+        for (int i = 0; i < 1000; i++) {
+            final String message = m_messages.poll(10, TimeUnit.SECONDS);
+            assertTrue(message, message.startsWith("<13>Oct 11 22:14:15 host app: message "));
+        }
+        assertEquals(1000, m_receiver.getMessagesReceived());
+        assertEquals(0, m_receiver.getFramingErrors());
+        socket.close();
+    }
+
+    @Test(timeout=30000)
+    public void testBackpressure() throws Exception {
+        System.setProperty("org.opennms.netmgt.syslogd.tcp.maxPendingPerConnection", "4");
+        try {
+            m_gate = new CountDownLatch(1);
+            start(null);
+        } finally {
+            System.clearProperty("org.opennms.netmgt.syslogd.tcp.maxPendingPerConnection");
+        }
+
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), m_port);
+        final OutputStream out = socket.getOutputStream();
+        out.write("<13>1\n<13>2\n<13>3\n<13>4\n".getBytes(ASCII));
+        out.flush();
+
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return m_receiver.getReadsPaused() == 1;
+            }
+        });
+        out.write("<13>5\n".getBytes(ASCII));
+        out.flush();
+        Thread.sleep(1000);
+        assertEquals(4, m_receiver.getMessagesReceived());
+
+        // once processing catches up, the receiver reads the rest
+        m_gate.countDown();
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return m_receiver.getMessagesReceived() == 5;
+            }
+        });
+        socket.close();
+    }
+
+    private void start(final SSLContext sslContext) throws Exception {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        m_port = channel.socket().getLocalPort();
+        m_receiver = new SyslogReceiverTcpImpl(channel, sslContext, null, 0, 0, null, null, null) {
+            @Override
+            void process(final InetSocketAddress source, final List<ByteBuffer> frames) {
+                try {
+                    m_gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (final ByteBuffer frame : frames) {
+                    final byte[] bytes = new byte[frame.remaining()];
+                    frame.get(bytes);
+                    m_messages.add(new String(bytes, ASCII));
+                }
+            }
+        };
+        new Thread(m_receiver, "SyslogReceiverTcpImplTest").start();
+    }
+
+    private static interface Condition {
+        boolean isMet();
+    }
+
+    private static void waitFor(final Condition condition) throws InterruptedException {
+        while (!condition.isMet()) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static final class TrustAllManager implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class SyslogTokenizerTest {
+
+    private static final String[] RFC5424_MESSAGES = {
+        "<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - BOM'su root' failed for lonvick on /dev/pts/8",
+        "<34>1 2003-10-11T22:14:15Z mymachine.example.com su - ID47 - 'su root' failed for lonvick on /dev/pts/8",
+        "<165>1 2003-08-24T05:14:15.000003-07:00 192.0.2.1 myproc 8710 - - %% It's time to make the do-nuts.",
+        "<165>1 2003-08-24T05:14:15-07:00 192.0.2.1 myproc 8710 - - %% It's time to make the do-nuts.",
+        "<165>1 2003-08-24T05:14:15+0200 192.0.2.1 myproc 8710 - - %% It's time to make the do-nuts.",
+        "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] BOMAn application event log entry...",
+        "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\"][examplePriority@32473 class=\"high\"]",
+        "<31>1 2010-01-01T00:00:00Z 127.0.0.1 OpenNMS 1234 - - A message with a trailing newline\n",
+        "<31> 2010-01-01T00:00:00Z 127.0.0.1 OpenNMS 1234 - -  Leading spaces are trimmed  \0",
+        "<31>1 2010-01-01T00:00:00Z - - - - -",
+        "<31>1 2010-01-01T00:00:00Z - - 99999999999 - - An overflowing process ID",
+        "<31>1 2010-02-29T00:00:00Z host app - - - Not a leap year",
+        "<31>1 2010-01-01T00:00:00Z host app - -  Empty structured data",
+    };
+
+    private static final String[] BSD_MESSAGES = {
+        "<6>main: 2010-08-19 localhost foo23: load test 23 on tty1",
+        "<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: A SyslogNG style message",
+        "<173>Dec  7 12:02:06 10.13.110.116 mgmtd[8326]: [mgmtd.NOTICE]: Configuration saved to database initial",
+        "<173>Dec 17 12:02:06 10.13.110.116 mgmtd[8326]: [mgmtd.NOTICE]: Configuration saved to database initial",
+        "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8",
+        "<13>Feb  5 17:32:18 10.0.0.99 Use the BFG!",
+        "<187>Mar  1 09:10:11 router %LINK-3-UPDOWN: Interface GigabitEthernet0/1, changed state to down\r\n",
+        "<189>Jan 31 23:59:59 host proc[12]x: a process name with brackets in it",
+        "<189>Jan 31 23:59:59 host proc[]: an empty process ID",
+        "<189>Jan 31 23:59:59 host proc[99999999999]: an overflowing process ID",
+        "<189>Jan 31 23:59:59 host a:b:c: colons inside the process name",
+        "<189>Jan 31 23:59:59 host :  a lone colon is not a process",
+        "<189>Jan 31 23:59:59 host trailing:",
+        "<189>xJan 31 23:59:59 host an ident glued to the date",
+        "<189>Feb 29 23:59:59 host leap day",
+        "<189>feb 28 23:59:59 host lower case month",
+        "<189>2010-13-45 host lenient date",
+    };
+
+    @Test
+    public void testRfc5424MatchesParser() throws Exception {
+        for (final String text : RFC5424_MESSAGES) {
+            final SyslogMessage expected = parse(Rfc5424SyslogParser.getParser(stripNul(text)));
+            final SyslogMessage actual = SyslogTokenizer.tokenize(buffer(text), Rfc5424SyslogParser.class);
+            assertNotNull(text, actual);
+            assertSameMessage(text, expected, actual);
+        }
+    }
+
+    @Test
+    public void testBsdMatchesParser() throws Exception {
+        for (final String text : BSD_MESSAGES) {
+            final SyslogMessage expected = parse(SyslogNGParser.getParser(stripNul(text)));
+            final SyslogMessage actual = SyslogTokenizer.tokenize(buffer(text), SyslogNGParser.class);
+            assertNotNull(text, actual);
+            assertSameMessage(text, expected, actual);
+        }
+    }
+
+    @Test
+    public void testFallsBack() throws Exception {
+        // the parsers reject these, and so does the tokenizer
+        assertNull(SyslogTokenizer.tokenize(buffer("<34>1 - mymachine su - ID47 - no timestamp"), Rfc5424SyslogParser.class));
+        assertNull(SyslogTokenizer.tokenize(buffer("<1234>1 2003-10-11T22:14:15Z host app - - - bad priority"), Rfc5424SyslogParser.class));
+        assertNull(SyslogTokenizer.tokenize(buffer("<34>1 2003-10-11T22:14:15Z host app x - - bad process ID"), Rfc5424SyslogParser.class));
+        assertNull(SyslogTokenizer.tokenize(buffer("no priority at all"), SyslogNGParser.class));
+
+        // the tokenizer leaves these to the parser
+        assertNull(SyslogTokenizer.tokenize(buffer("<34>Oct 11 22:14:15 mymachine su: first line\nsecond line"), SyslogNGParser.class));
+        assertNull(SyslogTokenizer.tokenize(buffer("<165>1 2003-10-11T22:14:15Z host app - ID47 [a]b] odd structured data"), Rfc5424SyslogParser.class));
+        assertNull(SyslogTokenizer.tokenize(buffer("<34>Oct 11 22:14:15 mymachine su: a custom parser"), CustomSyslogParser.class));
+    }
+
+    @Test
+    public void testDates() throws Exception {
+        final SyslogMessage utc = SyslogTokenizer.tokenize(buffer("<34>1 2003-10-11T22:14:15Z host app - - - msg"), Rfc5424SyslogParser.class);
+        assertEquals(date(2003, Calendar.OCTOBER, 11, 22, 14, 15), utc.getDate());
+
+        final SyslogMessage offset = SyslogTokenizer.tokenize(buffer("<34>1 2003-10-11T22:14:15-07:00 host app - - - msg"), Rfc5424SyslogParser.class);
+        assertEquals(date(2003, Calendar.OCTOBER, 12, 5, 14, 15), offset.getDate());
+
+        final SyslogMessage bsd = SyslogTokenizer.tokenize(buffer("<34>Oct 11 22:14:15 mymachine su: msg"), SyslogNGParser.class);
+        assertEquals(date(Calendar.getInstance().get(Calendar.YEAR), Calendar.OCTOBER, 11, 22, 14, 15), bsd.getDate());
+
+        assertEquals(0, SyslogTokenizer.daysFromCivil(1970, 1, 1));
+        assertEquals(11016, SyslogTokenizer.daysFromCivil(2000, 2, 29));
+        assertEquals(-1, SyslogTokenizer.daysFromCivil(1969, 12, 31));
+    }
+
+    @Test
+    public void testDoesNotMoveBuffer() throws Exception {
+        final ByteBuffer buffer = buffer("<34>Oct 11 22:14:15 mymachine su: msg");
+        final int position = buffer.position();
+        final int limit = buffer.limit();
+        assertNotNull(SyslogTokenizer.tokenize(buffer, SyslogNGParser.class));
+        assertEquals(position, buffer.position());
+        assertEquals(limit, buffer.limit());
+    }
+
+    private static void assertSameMessage(final String text, final SyslogMessage expected, final SyslogMessage actual) {
+        assertNotNull(text, expected);
+        assertEquals(text, expected.getParserClass(), actual.getParserClass());
+        assertEquals(text, expected.getFacility(), actual.getFacility());
+        assertEquals(text, expected.getSeverity(), actual.getSeverity());
+        assertEquals(text, expected.getVersion(), actual.getVersion());
+        assertEquals(text, expected.getDate(), actual.getDate());
+        assertEquals(text, expected.getHostName(), actual.getHostName());
+        assertEquals(text, expected.getProcessName(), actual.getProcessName());
+        assertEquals(text, expected.getProcessId(), actual.getProcessId());
+        assertEquals(text, expected.getMessageID(), actual.getMessageID());
+        assertEquals(text, expected.getMessage(), actual.getMessage());
+    }
+
+    private static SyslogMessage parse(final SyslogParser parser) throws SyslogParserException {
+        return parser.find() ? parser.parse() : null;
+    }
+
+    /**
+     * ConvertToEvent strips a trailing NUL before handing the text to a parser.
+     */
+    private static String stripNul(final String text) {
+        return text.endsWith("\0") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * A direct buffer with some leading junk, as a receiver's would have after a flip.
+     */
+    private static ByteBuffer buffer(final String text) throws Exception {
+        final byte[] bytes = text.getBytes("US-ASCII");
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 8);
+        buffer.put(new byte[] { 'j', 'u', 'n', 'k' });
+        buffer.put(bytes);
+        buffer.flip();
+        buffer.position(4);
+        return buffer;
+    }
+
+    private static Date date(final int year, final int month, final int day, final int hour, final int minute, final int second) {
+        final Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute, second);
+        return calendar.getTime();
+    }
+}
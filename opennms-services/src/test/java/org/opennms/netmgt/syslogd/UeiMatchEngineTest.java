@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.ProcessMatch;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+
+public class UeiMatchEngineTest {
+    private static final String DISCARD_UEI = "DISCARD-MATCHING-MESSAGES";
+
+    private static final Map<String, Pattern> s_patterns = new ConcurrentHashMap<String, Pattern>();
+
+    @Test
+    public void testRequiredLiterals() {
+        assertEquals(Arrays.asList("Failed password for"), LiteralPrefilter.requiredLiterals("Failed password for"));
+        assertEquals(Arrays.asList("Failed password for ", " from "), LiteralPrefilter.requiredLiterals("Failed password for (\\S+) from (\\d+\\.\\d+\\.\\d+\\.\\d+)"));
+        assertEquals(Arrays.asList("Interface ", ", changed state to "), LiteralPrefilter.requiredLiterals("^Interface \\S+, changed state to (up|down)$"));
+        assertEquals(Arrays.asList("foo23: ", "load test ", " on "), LiteralPrefilter.requiredLiterals("foo23: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+))"));
+        assertEquals(Arrays.asList("%LINK-3-UPDOWN"), LiteralPrefilter.requiredLiterals("\\Q%LINK-3-UPDOWN\\E"));
+        // an optional character is dropped from the literal
+        assertEquals(Arrays.asList("colo"), LiteralPrefilter.requiredLiterals("colou?r"));
+        assertEquals(Arrays.asList("Link is "), LiteralPrefilter.requiredLiterals("Link is [UD][a-z]+"));
+
+        // nothing is required, or the expression is too clever to read safely
+        assertEquals(Collections.emptyList(), LiteralPrefilter.requiredLiterals("up|down"));
+        assertEquals(Collections.emptyList(), LiteralPrefilter.requiredLiterals("(?i)failed password"));
+        assertEquals(Collections.emptyList(), LiteralPrefilter.requiredLiterals("\\s(19|20)\\d\\d([-/.])(0[1-9]|1[012])"));
+        assertEquals(Collections.emptyList(), LiteralPrefilter.requiredLiterals("ab.cd"));
+        assertEquals(Collections.emptyList(), LiteralPrefilter.requiredLiterals("unclosed (group"));
+    }
+
+    @Test
+    public void testPrefilterScan() {
+        final LiteralPrefilter.Builder builder = new LiteralPrefilter.Builder();
+        final int he = builder.add("he");
+        final int she = builder.add("she");
+        final int his = builder.add("his");
+        final int hers = builder.add("hers");
+        assertEquals(she, builder.add("she"));
+        final LiteralPrefilter prefilter = builder.build();
+        assertEquals(4, prefilter.size());
+
+        boolean[] found = new boolean[prefilter.size()];
+        assertEquals(3, prefilter.scan("ushers", found));
+        assertTrue(found[he]);
+        assertTrue(found[she]);
+        assertFalse(found[his]);
+        assertTrue(found[hers]);
+
+        found = new boolean[prefilter.size()];
+        assertEquals(0, prefilter.scan("", found));
+        assertEquals(1, prefilter.scan("this", found));
+        assertTrue(found[his]);
+    }
+
+    @Test
+    public void testFirstMatchWins() throws Exception {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("uei.opennms.org/tests/first", "regex", "Link is (Down|Up)"));
+        ueiList.addUeiMatch(ueiMatch("uei.opennms.org/tests/second", "substr", "Link is Down"));
+        ueiList.addUeiMatch(ueiMatch("uei.opennms.org/tests/third", "substr", "eth0"));
+        final UeiMatchEngine engine = new UeiMatchEngine(ueiList, null);
+
+        final EventBuilder bldr = new EventBuilder("uei.opennms.org/syslogd/kernel/Warning", "syslogd");
+        assertTrue(engine.matchUei(message(0, 4, "kernel", "eth0: Link is Down"), "kernel", "Warning", bldr, DISCARD_UEI));
+        assertEquals("uei.opennms.org/tests/first", bldr.getEvent().getUei());
+        assertEquals("Down", parm(bldr.getEvent(), "group1"));
+        assertEquals(1, engine.getHits(0));
+        assertEquals(0, engine.getHits(1));
+
+        final EventBuilder other = new EventBuilder("uei.opennms.org/syslogd/kernel/Warning", "syslogd");
+        assertTrue(engine.matchUei(message(0, 4, "kernel", "eth0: carrier lost"), "kernel", "Warning", other, DISCARD_UEI));
+        assertEquals("uei.opennms.org/tests/third", other.getEvent().getUei());
+        // both earlier rules were ruled out without running them
+        assertEquals(2, engine.getSkippedCount());
+    }
+
+    @Test
+    public void testProcessMatchAndFacility() throws Exception {
+        final UeiList ueiList = new UeiList();
+        final UeiMatch beer = ueiMatch("uei.opennms.org/tests/beer", "substr", "overflow");
+        final ProcessMatch processMatch = new ProcessMatch();
+        processMatch.setExpression("^beerd$");
+        beer.setProcessMatch(processMatch);
+        ueiList.addUeiMatch(beer);
+        final UeiMatch local = ueiMatch("uei.opennms.org/tests/local", "substr", "overflow");
+        local.addFacility("LOCAL0");
+        ueiList.addUeiMatch(local);
+        final UeiMatchEngine engine = new UeiMatchEngine(ueiList, null);
+
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/default", "syslogd");
+        assertTrue(engine.matchUei(message(16, 6, "beerd", "beer overflow in tap 3"), "local0", "Info", bldr, DISCARD_UEI));
+        assertEquals("uei.opennms.org/tests/beer", bldr.getEvent().getUei());
+
+        bldr = new EventBuilder("uei.opennms.org/default", "syslogd");
+        assertTrue(engine.matchUei(message(16, 6, "maltd", "malt overflow"), "local0", "Info", bldr, DISCARD_UEI));
+        assertEquals("uei.opennms.org/tests/local", bldr.getEvent().getUei());
+
+        bldr = new EventBuilder("uei.opennms.org/default", "syslogd");
+        assertFalse(engine.matchUei(message(16, 6, "maltd", "malt overflow"), "local1", "Info", bldr, DISCARD_UEI));
+        assertEquals("uei.opennms.org/default", bldr.getEvent().getUei());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch(DISCARD_UEI, "regex", "^pam_unix\\(sshd:session\\)"));
+        final UeiMatchEngine engine = new UeiMatchEngine(ueiList, null);
+
+        try {
+            engine.matchUei(message(4, 6, "sshd", "pam_unix(sshd:session): session closed for user admin"), "auth", "Info", new EventBuilder("uei.opennms.org/default", "syslogd"), DISCARD_UEI);
+            fail("message should have been discarded");
+        } catch (final MessageDiscardedException e) {
+            // expected
+        }
+        assertFalse(engine.matchUei(message(4, 6, "sshd", "Accepted publickey for admin"), "auth", "Info", new EventBuilder("uei.opennms.org/default", "syslogd"), DISCARD_UEI));
+    }
+
+    @Test
+    public void testHide() {
+        final HideMessage hideMessage = new HideMessage();
+        hideMessage.addHideMatch(hideMatch("substr", "password"));
+        hideMessage.addHideMatch(hideMatch("regex", "TTY=\\S+ ; PWD="));
+        hideMessage.addHideMatch(hideMatch("regex", "unbalanced ("));
+        final UeiMatchEngine engine = new UeiMatchEngine(null, hideMessage);
+
+        assertTrue(engine.shouldHide("Failed password for root"));
+        assertTrue(engine.shouldHide("admin : TTY=pts/0 ; PWD=/home/admin ; USER=root"));
+        assertFalse(engine.shouldHide("Accepted publickey for admin"));
+        assertTrue(engine.isCompiledFrom(null, hideMessage));
+        hideMessage.addHideMatch(hideMatch("substr", "secret"));
+        assertFalse(engine.isCompiledFrom(null, hideMessage));
+    }
+
+    /**
+     * Replays the bundled sample log against a configuration of 300 rules and checks that
+     * the engine picks the same rule and parameters as a plain linear scan, then times both.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        final UeiList ueiList = replayRules(300);
+        final List<SyslogMessage> messages = replayMessages();
+        final UeiMatchEngine engine = new UeiMatchEngine(ueiList, null);
+
+        int matched = 0;
+        for (final SyslogMessage message : messages) {
+            final String facility = message.getFacility().toString();
+            final String severity = message.getSeverity().toString();
+            final EventBuilder expected = new EventBuilder("uei.opennms.org/default", "syslogd");
+            final EventBuilder actual = new EventBuilder("uei.opennms.org/default", "syslogd");
+            final boolean linear = matchLinear(ueiList, message, facility, severity, expected);
+            assertEquals(message.getMessage(), linear, engine.matchUei(message, facility, severity, actual, DISCARD_UEI));
+            assertEquals(message.getMessage(), expected.getEvent().getUei(), actual.getEvent().getUei());
+            assertEquals(message.getMessage(), parms(expected.getEvent()), parms(actual.getEvent()));
+            if (linear) matched++;
+        }
+        assertTrue("too little of the sample matched a rule: " + matched, matched > messages.size() / 3);
+        assertTrue(engine.getSkippedCount() > engine.getEvaluatedCount());
+
+        final int passes = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (final SyslogMessage message : messages) {
+                matchLinear(ueiList, message, message.getFacility().toString(), message.getSeverity().toString(), new EventBuilder("uei.opennms.org/default", "syslogd"));
+            }
+        }
+        final long linearNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (final SyslogMessage message : messages) {
+                engine.matchUei(message, message.getFacility().toString(), message.getSeverity().toString(), new EventBuilder("uei.opennms.org/default", "syslogd"), DISCARD_UEI);
+            }
+        }
+        final long engineNanos = System.nanoTime() - start;
+
+        final long count = (long)passes * messages.size();
+        System.err.println(String.format("replayed %d messages against %d rules: linear scan %d msgs/s, compiled engine %d msgs/s", count, ueiList.getUeiMatchCount(), count * 1000000000L / Math.max(1, linearNanos), count * 1000000000L / Math.max(1, engineNanos)));
+        System.err.println(engine.getStats());
+    }
+
+    /**
+     * The sample log's own rules, placed after <code>count</code> minus their number of
+     * rules that look like typical site-specific rules but match none of the sample.
+     */
+    private static UeiList replayRules(final int count) {
+        final List<UeiMatch> sample = new ArrayList<UeiMatch>();
+        sample.add(ueiMatch("uei.opennms.org/vendor/cisco/syslog/bgpAdjChange", "regex", "%BGP-5-ADJCHANGE.*neighbor (\\S+) (Up|Down)"));
+        sample.add(ueiMatch("uei.opennms.org/vendor/cisco/syslog/linkUpDown", "regex", "Interface (\\S+), changed state to (up|down)"));
+        sample.add(ueiMatch("uei.opennms.org/vendor/cisco/syslog/config", "substr", "Configured from console"));
+        sample.add(ueiMatch("uei.opennms.org/vendor/juniper/syslog/linkDown", "regex", "SNMP_TRAP_LINK_DOWN: ifIndex (\\d+).*ifName (\\S+)"));
+        sample.add(ueiMatch("uei.opennms.org/vendor/juniper/syslog/linkUp", "regex", "SNMP_TRAP_LINK_UP: ifIndex (\\d+).*ifName (\\S+)"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/sshd/failedPassword", "regex", "Failed password for (invalid user )?(\\S+) from (\\S+) port (\\d+)"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/sshd/accepted", "regex", "Accepted (\\S+) for (\\S+) from (\\S+)"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/pam/session", "regex", "session (opened|closed) for user (\\S+)"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/kernel/linkDown", "regex", "^(\\S+): Link is Down"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/kernel/oom", "regex", "Out of memory: Kill process (\\d+) \\((\\S+)\\)"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/kernel/fsError", "substr", "EXT4-fs error"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/systemd/failed", "regex", "(\\S+)\\.service: .*status=\\d+/FAILURE"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/postfix/deferred", "regex", "to=<([^>]+)>.*status=deferred"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/dhcpd/noLeases", "substr", "no free leases"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/named/denied", "regex", "client (\\S+)#\\d+: query .* denied"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/httpd/error", "regex", "\\[error\\] \\[client (\\S+)\\]"));
+        sample.add(ueiMatch("uei.opennms.org/syslog/fan", "regex", "Fan \\d+ not rotating"));
+
+        final UeiList ueiList = new UeiList();
+        for (int i = 0; i < count - sample.size(); i++) {
+            switch (i % 3) {
+            case 0:
+                ueiList.addUeiMatch(ueiMatch("uei.opennms.org/site/app" + i, "regex", String.format("APP%03d-ERR: transaction (\\S+) failed after (\\d+) ms", i)));
+                break;
+            case 1:
+                ueiList.addUeiMatch(ueiMatch("uei.opennms.org/site/device" + i, "regex", String.format("^device-%03d: sensor (\\d+) reading (\\S+) out of range", i)));
+                break;
+            default:
+                ueiList.addUeiMatch(ueiMatch("uei.opennms.org/site/job" + i, "substr", String.format("batch job %03d aborted", i)));
+                break;
+            }
+        }
+        for (final UeiMatch ueiMatch : sample) {
+            ueiList.addUeiMatch(ueiMatch);
+        }
+        return ueiList;
+    }
+
+    private static List<SyslogMessage> replayMessages() throws IOException {
+        final List<SyslogMessage> messages = new ArrayList<SyslogMessage>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(UeiMatchEngineTest.class.getResourceAsStream("syslog-replay.log"), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.startsWith("#")) continue;
+                final String[] fields = line.split("\\|", 4);
+                messages.add(message(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), fields[2], fields[3]));
+            }
+        } finally {
+            reader.close();
+        }
+        return messages;
+    }
+
+    /**
+     * The uei-match loop as it was before the rules were compiled, patterns cached by expression.
+     */
+    private static boolean matchLinear(final UeiList ueiList, final SyslogMessage message, final String facilityTxt, final String priorityTxt, final EventBuilder bldr) {
+        for (final UeiMatch uei : ueiList.getUeiMatchCollection()) {
+            if (!uei.getFacilityCollection().isEmpty() && !containsIgnoreCase(uei.getFacilityCollection(), facilityTxt)) continue;
+            if (!uei.getSeverityCollection().isEmpty() && !containsIgnoreCase(uei.getSeverityCollection(), priorityTxt)) continue;
+            if (uei.getProcessMatch() != null && (message.getProcessName() == null || !pattern(uei.getProcessMatch().getExpression()).matcher(message.getProcessName()).find())) continue;
+
+            if (uei.getMatch().getType().equals("substr")) {
+                if (message.getMatchedMessage().contains(uei.getMatch().getExpression())) {
+                    bldr.setUei(uei.getUei());
+                    return true;
+                }
+            } else {
+                final String text = message.getMatchedMessage() != null ? message.getMatchedMessage() : message.getFullText();
+                final Matcher m = pattern(uei.getMatch().getExpression()).matcher(text);
+                if (m.find()) {
+                    bldr.setUei(uei.getUei());
+                    if (uei.getMatch().isDefaultParameterMapping()) {
+                        for (int groupNum = 1; groupNum <= m.groupCount(); groupNum++) {
+                            bldr.addParam("group" + groupNum, m.group(groupNum));
+                        }
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Pattern pattern(final String expression) {
+        Pattern pattern = s_patterns.get(expression);
+        if (pattern == null) {
+            pattern = Pattern.compile(expression, Pattern.MULTILINE);
+            s_patterns.put(expression, pattern);
+        }
+        return pattern;
+    }
+
+    private static boolean containsIgnoreCase(final List<String> values, final String text) {
+        for (final String value : values) {
+            if (value.equalsIgnoreCase(text)) return true;
+        }
+        return false;
+    }
+
+    private static SyslogMessage message(final int facility, final int severity, final String process, final String text) {
+        final SyslogMessage message = new SyslogMessage(facility, severity, new Date(), "127.0.0.1", process, null, text);
+        message.setHostName("127.0.0.1");
+        message.setMatchedMessage(text);
+        return message;
+    }
+
+    private static UeiMatch ueiMatch(final String uei, final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setUei(uei);
+        ueiMatch.setMatch(match);
+        return ueiMatch;
+    }
+
+    private static HideMatch hideMatch(final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match);
+        return hideMatch;
+    }
+
+    private static String parm(final Event event, final String name) {
+        for (final Parm parm : event.getParmCollection()) {
+            if (name.equals(parm.getParmName())) {
+                return parm.getValue().getContent();
+            }
+        }
+        return null;
+    }
+
+    private static List<String> parms(final Event event) {
+        final List<String> parms = new ArrayList<String>();
+        for (final Parm parm : event.getParmCollection()) {
+            parms.add(parm.getParmName() + "=" + parm.getValue().getContent());
+        }
+        return parms;
+    }
+}
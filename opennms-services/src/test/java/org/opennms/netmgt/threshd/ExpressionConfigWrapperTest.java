@@ -28,8 +28,11 @@
 
 package org.opennms.netmgt.threshd;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Assert;
 
@@ -171,4 +174,137 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testCompiledExpressions() throws Exception {
+        Assert.assertTrue(wrapper.isCompiled());
+        Assert.assertTrue(createWrapper("math.max((ifInOctets*8/ifSpeed), (ifOutOctets*8/ifSpeed))", true).isCompiled());
+        Assert.assertTrue(createWrapper("datasources['ns-dskTotal'] - datasources['ns-dskUsed']", true).isCompiled());
+        Assert.assertTrue(createWrapper("jnxOperatingState == 2.0 || jnxOperatingState == 3.0 || jnxOperatingState == 7.0 ? 1.0 : 0.0", true).isCompiled());
+        Assert.assertTrue(createWrapper("not (a gt 10 and b le 5) ? a mod 7 : -b div 3", true).isCompiled());
+        Assert.assertFalse(createWrapper(FORMULA, false).isCompiled());
+    }
+
+    @Test
+    public void testUnsupportedExpressionsUseJexl() throws Exception {
+        // Integer division of the literals, which JEXL evaluates to 2
+        ExpressionConfigWrapper wrapper = createWrapper("10 / 4 + data", true);
+        Assert.assertFalse(wrapper.isCompiled());
+        Map<String, Double> values = new HashMap<String,Double>();
+        values.put("data", 1.0);
+        Assert.assertEquals(3.0, wrapper.evaluate(values), 0.0);
+
+        Assert.assertFalse(createWrapper("data > 5", true).isCompiled());
+        Assert.assertFalse(createWrapper("data.value", true).isCompiled());
+        Assert.assertFalse(createWrapper("math.abs(5)", true).isCompiled());
+        Assert.assertFalse(createWrapper("data =~ '.*'", true).isCompiled());
+    }
+
+    /**
+     * Evaluates the expressions through the compiled form and through JEXL for
+     * a range of values, including zeros and missing values that make the
+     * compiled form fall back to JEXL, and prints how long each one took.
+     */
+    @Test
+    public void testCompiledExpressionsAgreeWithJexlAndAreFaster() throws Exception {
+        final String[] expressions = new String[] {
+                FORMULA,
+                "math.max((ifInOctets*8/ifSpeed), (ifOutOctets*8/ifSpeed))",
+                "datasources['ifInOctets'] - datasources['ifOutOctets']",
+                "ifInOctets == 2.0 || ifInOctets == 3.0 || ifInOctets == 7.0 ? 1.0 : 0.0",
+                "ifSpeed > 0 ? (ifInOctets + ifOutOctets) * 8 / ifSpeed * 100 : 0",
+                "-ifInOctets % 7 + math.round(ifOutOctets / 3.0) - math.sqrt(ifSpeed)",
+                "not (ifInOctets ge ifOutOctets) and ifSpeed != 0 ? 1 : 0"
+        };
+        final String[] datasources = new String[] { "ifInOctets", "ifOutOctets", "ifSpeed", "ifHighSpeed", "ifHCInOctets" };
+
+        final Random random = new Random(5019);
+        final List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+        for (int i = 0; i < 1000; i++) {
+            final Map<String, Double> values = new HashMap<String,Double>();
+            for (final String ds : datasources) {
+                final int kind = random.nextInt(10);
+                if (kind == 0) {
+                    values.put(ds, 0.0);
+                } else if (kind == 1) {
+                    values.put(ds, (double)random.nextInt(8));
+                } else if (kind == 2) {
+                    // missing, as passed in relaxed mode
+                    values.put(ds, null);
+                } else {
+                    values.put(ds, random.nextDouble() * 1000000000.0);
+                }
+            }
+            samples.add(values);
+        }
+
+        for (final String expression : expressions) {
+            final ExpressionConfigWrapper compiled = createWrapper(expression, true);
+            final ExpressionConfigWrapper jexl = createWrapper(expression, false);
+            Assert.assertTrue(expression, compiled.isCompiled());
+
+            for (final Map<String, Double> values : samples) {
+                Double expected;
+                try {
+                    expected = jexl.evaluate(values);
+                } catch (ThresholdExpressionException e) {
+                    expected = null;
+                }
+                Double actual;
+                try {
+                    actual = compiled.evaluate(values);
+                } catch (ThresholdExpressionException e) {
+                    actual = null;
+                }
+                Assert.assertEquals(expression + " with " + values, expected, actual);
+            }
+
+            final int ROUNDS = 20;
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                for (final Map<String, Double> values : samples) {
+                    evaluateQuietly(jexl, values);
+                }
+            }
+            final long jexlElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                for (final Map<String, Double> values : samples) {
+                    evaluateQuietly(compiled, values);
+                }
+            }
+            final long compiledElapsed = System.nanoTime() - start;
+
+            final int attempts = ROUNDS * samples.size();
+            System.err.printf("%s: %d evaluations, JEXL %d ms (%f per second), compiled %d ms (%f per second).%n",
+                              expression, attempts,
+                              jexlElapsed / 1000000, attempts * 1000000000.0 / jexlElapsed,
+                              compiledElapsed / 1000000, attempts * 1000000000.0 / compiledElapsed);
+        }
+    }
+
+    private static ExpressionConfigWrapper createWrapper(final String expression, final boolean compile) throws ThresholdExpressionException {
+        final String previous = System.getProperty(ExpressionConfigWrapper.COMPILE_EXPRESSIONS_PROPERTY);
+        System.setProperty(ExpressionConfigWrapper.COMPILE_EXPRESSIONS_PROPERTY, Boolean.toString(compile));
+        try {
+            Expression exp = new Expression();
+            exp.setExpression(expression);
+            return new ExpressionConfigWrapper(exp);
+        } finally {
+            if (previous == null) {
+                System.clearProperty(ExpressionConfigWrapper.COMPILE_EXPRESSIONS_PROPERTY);
+            } else {
+                System.setProperty(ExpressionConfigWrapper.COMPILE_EXPRESSIONS_PROPERTY, previous);
+            }
+        }
+    }
+
+    private static void evaluateQuietly(final ExpressionConfigWrapper wrapper, final Map<String, Double> values) {
+        try {
+            wrapper.evaluate(values);
+        } catch (ThresholdExpressionException e) {
+            // compared above
+        }
+    }
 }
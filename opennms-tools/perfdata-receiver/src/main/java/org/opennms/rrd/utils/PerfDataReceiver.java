@@ -28,6 +28,8 @@
 
 package org.opennms.rrd.utils;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
@@ -53,9 +55,12 @@ public class PerfDataReceiver {
 			port = Integer.valueOf(args[0]);
 		}
 		
-		System.err.println("Ready to receive OpenNMS QOS Data on TCP Port:"+String.valueOf(port)+"...");
+		// Must match the org.opennms.rrd.tcp.framed setting of OpenNMS
+		final boolean framed = Boolean.getBoolean("org.opennms.rrd.tcp.framed");
+
+		System.err.println("Ready to receive OpenNMS QOS Data on TCP Port:"+String.valueOf(port)+(framed ? " (framed)" : "")+"...");
 		try {
-			listener = createListenerThread(port);
+			listener = createListenerThread(port, framed);
 			listener.start();
 			listener.join();
 		} catch (Throwable t) {
@@ -76,6 +81,15 @@ public class PerfDataReceiver {
 	}
 
 	public static Thread createListenerThread(final int port) {
+		return createListenerThread(port, false);
+	}
+
+	/**
+	 * @param framed true to read messages preceded by their size as a 4 byte,
+	 *   big-endian integer until the sender closes the connection, false to
+	 *   read a single message per connection
+	 */
+	public static Thread createListenerThread(final int port, final boolean framed) {
 		m_listenerThread = new Thread() {
 			public void run() {
 				this.setName("fail");
@@ -85,29 +99,26 @@ public class PerfDataReceiver {
 					while (true) {
 						try {
 							Socket socket = ssocket.accept();
-							InputStream is = socket.getInputStream();
-							PerformanceDataProtos.PerformanceDataReadings messages = PerformanceDataProtos.PerformanceDataReadings.parseFrom(is);
-							for (PerformanceDataProtos.PerformanceDataReading message : messages.getMessageList()) {
-								StringBuffer values = new StringBuffer();
-								values.append("{ ");
-								for (int i = 0; i < message.getValueCount(); i++) {
-									if (i != 0) {
-										values.append(", ");
+							try {
+								InputStream is = socket.getInputStream();
+								if (framed) {
+									DataInputStream dis = new DataInputStream(is);
+									while (true) {
+										final int length;
+										try {
+											length = dis.readInt();
+										} catch (EOFException e) {
+											break;
+										}
+										byte[] message = new byte[length];
+										dis.readFully(message);
+										printMessages(PerformanceDataProtos.PerformanceDataReadings.parseFrom(message));
 									}
-									values.append(message.getValue(i));
+								} else {
+									printMessages(PerformanceDataProtos.PerformanceDataReadings.parseFrom(is));
 								}
-								values.append(" }");
-								System.out
-										.println("Message received: { "
-												+ "path: \""
-												+ message.getPath() + "\", "
-												+ "owner: \""
-												+ message.getOwner() + "\", "
-												+ "timestamp: \""
-												+ message.getTimestamp()
-												+ "\", " + "values: "
-												+ values.toString() + " }");
-
+							} finally {
+								socket.close();
 							}
 						} catch (SocketTimeoutException e) {
 							System.err.println(e.getLocalizedMessage());
@@ -133,4 +144,28 @@ public class PerfDataReceiver {
 		return m_listenerThread;
 
 	}
+
+	private static void printMessages(PerformanceDataProtos.PerformanceDataReadings messages) {
+		for (PerformanceDataProtos.PerformanceDataReading message : messages.getMessageList()) {
+			StringBuffer values = new StringBuffer();
+			values.append("{ ");
+			for (int i = 0; i < message.getValueCount(); i++) {
+				if (i != 0) {
+					values.append(", ");
+				}
+				values.append(message.getValue(i));
+			}
+			values.append(" }");
+			System.out
+					.println("Message received: { "
+							+ "path: \""
+							+ message.getPath() + "\", "
+							+ "owner: \""
+							+ message.getOwner() + "\", "
+							+ "timestamp: \""
+							+ message.getTimestamp()
+							+ "\", " + "values: "
+							+ values.toString() + " }");
+		}
+	}
 }